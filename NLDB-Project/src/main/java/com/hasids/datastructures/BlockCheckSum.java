@@ -0,0 +1,612 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Block level integrity checks for the data region of the dataset files. The header checksum
+ * only guards the file name, size and timestamp; this class keeps a CRC32C value for every
+ * fixed size block of the data region in a sidecar file (<dataset file>.crc).
+ *
+ * SIDECAR LAYOUT (LITTLE ENDIAN)
+ * position 0 - 3 = magic number
+ * position 4 - 7 = block size in bytes
+ * position 8 - 15 = length of the data region covered
+ * position 16 - 19 = header length of the dataset file, i.e. the start of the data region
+ * position 20 - 23 = CRC32C of positions 0 - 19
+ * position 24 onwards = one CRC32C int per block
+ *
+ * The sidecar is created with the segment and updated by the writers on commit for the blocks
+ * covered by the written range only. Datasets without a sidecar are not verified. Readers verify
+ * the blocks of a read from the buffer they read, blocks holding positions locked by an ONLINE
+ * session are not verified until the session ends.
+ */
+
+package com.hasids.datastructures;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.zip.CRC32C;
+
+import com.hasids.io.PositionLockManager;
+
+public class BlockCheckSum {
+
+	public static final String SIDECAR_SUFFIX = ".crc";
+	public static final int SIDECAR_MAGIC = 0x48534343; // HSCC
+	public static final int SIDECAR_HEADER_LENGTH = 24;
+	public static final int SIDECAR_MAGIC_POS = 0;
+	public static final int SIDECAR_BLOCK_SIZE_POS = 4;
+	public static final int SIDECAR_DATA_LENGTH_POS = 8;
+	public static final int SIDECAR_HEADER_LENGTH_POS = 16;
+	public static final int SIDECAR_CRC_POS = 20;
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+	// block size used for new sidecars
+	private static int BLOCK_SIZE = DEFAULT_BLOCK_SIZE;
+
+	// monitors serializing the updates and builds of the sidecar of each dataset
+	private static Hashtable<String, Object> UPDATE_TABLE = new Hashtable<String, Object>();
+
+	public BlockCheckSum() {
+
+	}
+
+	/**
+	 * Sets the block size used for sidecars built from now on. Existing sidecars keep the
+	 * block size recorded in their header.
+	 *
+	 * @param blockSize
+	 * @throws Exception
+	 */
+	public static void setBlockSize(int blockSize) throws Exception {
+		if (blockSize < 512 || (blockSize & (blockSize - 1)) != 0)
+			throw new Exception ("Block size must be a power of 2 >= 512");
+
+		BLOCK_SIZE = blockSize;
+	}
+
+	public static int getBlockSize() {
+		return BLOCK_SIZE;
+	}
+
+	/**
+	 * @return Monitor held while the sidecar of a dataset is updated, writers changing the pages
+	 * of a dataset outside of a session hold it until the sidecar is updated
+	 */
+	public static Object getMonitor(String datasetName) {
+		synchronized (UPDATE_TABLE) {
+			Object monitor = UPDATE_TABLE.get(datasetName);
+			if (monitor == null) {
+				monitor = new Object();
+				UPDATE_TABLE.put(datasetName, monitor);
+			}
+			return monitor;
+		}
+	}
+
+	public static String getSidecarName(String datasetName) {
+		return datasetName + SIDECAR_SUFFIX;
+	}
+
+	public static boolean exists(String datasetName) {
+		return new File(BlockCheckSum.getSidecarName(datasetName)).exists();
+	}
+
+	/**
+	 * Deletes the sidecar of a dataset file if present
+	 *
+	 * @param datasetName
+	 */
+	public static void delete(String datasetName) {
+		File f = new File(BlockCheckSum.getSidecarName(datasetName));
+		if (f.exists())
+			f.delete();
+	}
+
+	/**
+	 * Computes the CRC32C of a range of a file channel. The buffer passed is used as the
+	 * read buffer and must be at least as large as the range.
+	 *
+	 * @param channel
+	 * @param position
+	 * @param length
+	 * @param buffer
+	 * @param crc
+	 * @return CRC32C value
+	 * @throws Exception
+	 */
+	private static int computeBlock(FileChannel channel, long position, int length, ByteBuffer buffer, CRC32C crc) throws Exception {
+		buffer.clear();
+		buffer.limit(length);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new Exception ("Unexpected end of file while computing block checksums");
+
+		buffer.flip();
+		crc.reset();
+		crc.update(buffer);
+
+		return (int)crc.getValue();
+	}
+
+	private static int computeSidecarHeaderCRC(ByteBuffer header) {
+		CRC32C crc = new CRC32C();
+		ByteBuffer b = header.duplicate();
+		b.position(0);
+		b.limit(SIDECAR_CRC_POS);
+		crc.update(b);
+
+		return (int)crc.getValue();
+	}
+
+	private static long getBlockCount(long dataLength, int blockSize) {
+		return (dataLength + blockSize - 1) / blockSize;
+	}
+
+	/**
+	 * Reads and validates the header of a sidecar
+	 *
+	 * @param sidecar channel of the sidecar
+	 * @param datasetName
+	 * @return header buffer positioned at 0
+	 * @throws Exception
+	 */
+	private static ByteBuffer readSidecarHeader(FileChannel sidecar, String datasetName) throws Exception {
+		ByteBuffer header = ByteBuffer.allocate(SIDECAR_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		while (header.hasRemaining())
+			if (sidecar.read(header, header.position()) < 0)
+				throw new Exception ("Invalid block checksum file for " + datasetName);
+
+		header.flip();
+		if (header.getInt(SIDECAR_MAGIC_POS) != SIDECAR_MAGIC)
+			throw new Exception ("Invalid block checksum file for " + datasetName);
+
+		if (header.getInt(SIDECAR_CRC_POS) != BlockCheckSum.computeSidecarHeaderCRC(header))
+			throw new Exception ("Corrupt block checksum header for " + datasetName);
+
+		return header;
+	}
+
+	/**
+	 * Builds the sidecar for the complete data region of a dataset file, replacing the
+	 * existing sidecar if any.
+	 *
+	 * @param datasetName Dataset file name
+	 * @param headerLength Length of the dataset file header
+	 * @throws Exception
+	 */
+	public static void build(String datasetName, int headerLength) throws Exception {
+		// rebuilds of a dataset share the temporary file name
+		synchronized (BlockCheckSum.getMonitor(datasetName)) {
+			File f = new File(datasetName);
+			if (!f.exists())
+				throw new Exception ("File " + datasetName + " does not exist!");
+
+			int blockSize = BLOCK_SIZE;
+			File sidecarFile = new File(BlockCheckSum.getSidecarName(datasetName));
+			File temp = new File(BlockCheckSum.getSidecarName(datasetName) + ".tmp");
+
+			RandomAccessFile raf = new RandomAccessFile(datasetName, "r");
+			FileChannel fc = raf.getChannel();
+			RandomAccessFile sraf = new RandomAccessFile(temp, "rw");
+			FileChannel sc = sraf.getChannel();
+
+			try {
+				long dataLength = Math.max(fc.size() - headerLength, 0);
+				long blockCount = BlockCheckSum.getBlockCount(dataLength, blockSize);
+
+				sraf.setLength(0);
+
+				ByteBuffer header = ByteBuffer.allocate(SIDECAR_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+				header.putInt(SIDECAR_MAGIC_POS, SIDECAR_MAGIC);
+				header.putInt(SIDECAR_BLOCK_SIZE_POS, blockSize);
+				header.putLong(SIDECAR_DATA_LENGTH_POS, dataLength);
+				header.putInt(SIDECAR_HEADER_LENGTH_POS, headerLength);
+				header.putInt(SIDECAR_CRC_POS, BlockCheckSum.computeSidecarHeaderCRC(header));
+				while (header.hasRemaining())
+					sc.write(header, header.position());
+
+				ByteBuffer block = ByteBuffer.allocateDirect(blockSize);
+				ByteBuffer out = ByteBuffer.allocate(blockSize).order(ByteOrder.LITTLE_ENDIAN);
+				CRC32C crc = new CRC32C();
+				long outPosition = SIDECAR_HEADER_LENGTH;
+
+				for (long i = 0; i < blockCount; i++) {
+					long start = i * blockSize;
+					int len = (int)Math.min(blockSize, dataLength - start);
+					out.putInt(BlockCheckSum.computeBlock(fc, headerLength + start, len, block, crc));
+
+					if (!out.hasRemaining() || i == blockCount - 1) {
+						out.flip();
+						while (out.hasRemaining())
+							outPosition += sc.write(out, outPosition);
+						out.clear();
+					}
+				}
+
+				sc.force(true);
+			}
+			finally {
+				sc.close();
+				sraf.close();
+				fc.close();
+				raf.close();
+			}
+
+			if (sidecarFile.exists() && !sidecarFile.delete())
+				throw new Exception ("Unable to replace block checksum file for " + datasetName);
+
+			if (!temp.renameTo(sidecarFile))
+				throw new Exception ("Unable to replace block checksum file for " + datasetName);
+		}
+	}
+
+	/**
+	 * Rebuilds the sidecar of a dataset file if it has one. Used after operations that move
+	 * or remove the data region, like truncate and format conversions.
+	 *
+	 * @param datasetName
+	 * @param headerLength
+	 * @throws Exception
+	 */
+	public static void rebuild(String datasetName, int headerLength) throws Exception {
+		if (BlockCheckSum.exists(datasetName))
+			BlockCheckSum.build(datasetName, headerLength);
+	}
+
+	/**
+	 * Recomputes the checksums of the blocks overlapping a changed range of the data region.
+	 * Called by the writers on commit with the channel that was used for writing. If the data
+	 * region has changed in size or the sidecar was built for a different header length the
+	 * sidecar is rebuilt completely.
+	 *
+	 * @param datasetName Dataset file name
+	 * @param channel Open channel of the dataset file
+	 * @param headerLength Length of the dataset file header
+	 * @param offset Offset of the changed range within the data region
+	 * @param length Length of the changed range
+	 * @return Number of blocks updated, -1 if the dataset has no sidecar
+	 * @throws Exception
+	 */
+	public static int update(String datasetName, FileChannel channel, int headerLength, long offset, long length) throws Exception {
+		// a block covers the positions of several sessions, its checksum is read and written by one commit at a time
+		synchronized (BlockCheckSum.getMonitor(datasetName)) {
+			if (!BlockCheckSum.exists(datasetName))
+				return -1;
+
+			if (offset < 0 || length < 0)
+				throw new Exception ("Invalid range for block checksum update");
+
+			long dataLength = Math.max(channel.size() - headerLength, 0);
+
+			RandomAccessFile sraf = new RandomAccessFile(BlockCheckSum.getSidecarName(datasetName), "rw");
+			FileChannel sc = sraf.getChannel();
+			boolean rebuild = false;
+			int count = 0;
+
+			try {
+				ByteBuffer header = null;
+				try {
+					header = BlockCheckSum.readSidecarHeader(sc, datasetName);
+				}
+				catch (Exception e) {
+					rebuild = true;
+				}
+
+				if (!rebuild && (header.getLong(SIDECAR_DATA_LENGTH_POS) != dataLength || header.getInt(SIDECAR_HEADER_LENGTH_POS) != headerLength))
+					rebuild = true;
+
+				long end = Math.min(offset + length, dataLength);
+				if (!rebuild && offset < end) {
+					int blockSize = header.getInt(SIDECAR_BLOCK_SIZE_POS);
+					long firstBlock = offset / blockSize;
+					long lastBlock = (end - 1) / blockSize;
+
+					ByteBuffer block = ByteBuffer.allocateDirect(blockSize);
+					ByteBuffer out = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+					CRC32C crc = new CRC32C();
+
+					for (long i = firstBlock; i <= lastBlock; i++) {
+						long start = i * blockSize;
+						int len = (int)Math.min(blockSize, dataLength - start);
+
+						out.clear();
+						out.putInt(BlockCheckSum.computeBlock(channel, headerLength + start, len, block, crc));
+						out.flip();
+						while (out.hasRemaining())
+							sc.write(out, SIDECAR_HEADER_LENGTH + (i * 4) + out.position());
+						++count;
+					}
+
+					sc.force(true);
+				}
+			}
+			finally {
+				sc.close();
+				sraf.close();
+			}
+
+			if (rebuild) {
+				BlockCheckSum.build(datasetName, headerLength);
+				count = (int)BlockCheckSum.getBlockCount(dataLength, BLOCK_SIZE);
+			}
+
+			return count;
+		}
+	}
+
+	/**
+	 * Verifies the blocks of the data region overlapping the range of a read. The checksums are
+	 * computed from the buffer read, the parts of the first and last blocks outside of the buffer
+	 * are read through the channel.
+	 *
+	 * @param datasetName Dataset file name
+	 * @param channel Open channel of the dataset file
+	 * @param headerLength Length of the dataset file header
+	 * @param buffer Buffer of the range, beginning at the offset
+	 * @param offset Offset of the range within the data region
+	 * @param length Length of the range
+	 * @return Number of blocks verified, -1 if the dataset has no sidecar
+	 * @throws Exception if a block does not match its checksum
+	 */
+	public static int verify(String datasetName, FileChannel channel, int headerLength, ByteBuffer buffer, long offset, long length) throws Exception {
+		return BlockCheckSum.verify(null, datasetName, channel, headerLength, buffer, offset, length);
+	}
+
+	/**
+	 * Verifies the blocks of the data region overlapping the range of a read. The checksums are
+	 * computed from the buffer read, the parts of the first and last blocks outside of the buffer
+	 * are read through the channel. A block that does not match its checksum is skipped if it
+	 * holds positions locked by an ONLINE session, whose pages are modified before the session
+	 * commits, and is checked again once the commits updating the sidecar are complete otherwise.
+	 *
+	 * @param dbName Database name, null if the positions of the dataset are never locked
+	 * @param datasetName Dataset file name
+	 * @param channel Open channel of the dataset file
+	 * @param headerLength Length of the dataset file header
+	 * @param buffer Buffer of the range, beginning at the offset
+	 * @param offset Offset of the range within the data region
+	 * @param length Length of the range
+	 * @return Number of blocks verified, -1 if the dataset has no sidecar
+	 * @throws Exception if a block does not match its checksum
+	 */
+	public static int verify(String dbName, String datasetName, FileChannel channel, int headerLength, ByteBuffer buffer, long offset, long length) throws Exception {
+		if (!BlockCheckSum.exists(datasetName))
+			return -1;
+
+		RandomAccessFile sraf = new RandomAccessFile(BlockCheckSum.getSidecarName(datasetName), "r");
+		FileChannel sc = sraf.getChannel();
+		int count = 0;
+
+		try {
+			ByteBuffer header = BlockCheckSum.readSidecarHeader(sc, datasetName);
+			long dataLength = header.getLong(SIDECAR_DATA_LENGTH_POS);
+			int blockSize = header.getInt(SIDECAR_BLOCK_SIZE_POS);
+
+			if (header.getInt(SIDECAR_HEADER_LENGTH_POS) != headerLength || dataLength != Math.max(channel.size() - headerLength, 0))
+				throw new Exception ("Block checksum file for " + datasetName + " does not match the dataset");
+
+			long end = Math.min(offset + length, dataLength);
+			if (length <= 0 || offset >= end)
+				return 0;
+
+			long firstBlock = offset / blockSize;
+			long lastBlock = (end - 1) / blockSize;
+
+			ByteBuffer expected = ByteBuffer.allocate((int)(lastBlock - firstBlock + 1) * 4).order(ByteOrder.LITTLE_ENDIAN);
+			while (expected.hasRemaining())
+				if (sc.read(expected, SIDECAR_HEADER_LENGTH + (firstBlock * 4) + expected.position()) < 0)
+					throw new Exception ("Block checksum file for " + datasetName + " is truncated");
+			expected.flip();
+
+			PositionLockManager lockManager = (dbName == null ? null : PositionLockManager.getLockManager(dbName + "|" + datasetName));
+			ByteBuffer block = ByteBuffer.allocateDirect(blockSize);
+			CRC32C crc = new CRC32C();
+
+			for (long i = firstBlock; i <= lastBlock; i++) {
+				long start = i * blockSize;
+				int len = (int)Math.min(blockSize, dataLength - start);
+
+				if (BlockCheckSum.computeBlock(channel, headerLength, start, len, buffer, offset, end, block, crc) == expected.getInt()) {
+					++count;
+					continue;
+				}
+
+				// pages of locked positions hold the values of sessions not committed yet
+				int recordLength = (lockManager == null ? 0 : lockManager.getDataLength());
+				if (recordLength > 0 && lockManager.isLocked((int)(start / recordLength), (int)((start + len - 1) / recordLength)))
+					continue;
+
+				// the pages and the checksum are updated in turn by a commit
+				synchronized (BlockCheckSum.getMonitor(datasetName)) {
+					ByteBuffer current = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+					while (current.hasRemaining())
+						if (sc.read(current, SIDECAR_HEADER_LENGTH + (i * 4) + current.position()) < 0)
+							throw new Exception ("Block checksum file for " + datasetName + " is truncated");
+
+					if (BlockCheckSum.computeBlock(channel, headerLength, start, len, buffer, offset, end, block, crc) != current.getInt(0))
+						throw new Exception ("Block checksum mismatch in " + datasetName + " at block " + i +
+								" (bytes " + (headerLength + start) + " - " + (headerLength + start + len - 1) + ")");
+				}
+				++count;
+			}
+		}
+		finally {
+			sc.close();
+			sraf.close();
+		}
+
+		return count;
+	}
+
+	/**
+	 * Computes the CRC32C of a block from the buffer of a read, the parts of the block outside
+	 * of the buffer are read through the channel
+	 *
+	 * @param channel Open channel of the dataset file
+	 * @param headerLength Length of the dataset file header
+	 * @param start Offset of the block within the data region
+	 * @param length Length of the block
+	 * @param buffer Buffer of the read, beginning at offset
+	 * @param offset Offset of the read within the data region
+	 * @param end End of the read within the data region
+	 * @param block Read buffer of at least the block size
+	 * @param crc
+	 * @return CRC32C value
+	 * @throws Exception
+	 */
+	private static int computeBlock(FileChannel channel, int headerLength, long start, int length, ByteBuffer buffer, long offset, long end,
+			ByteBuffer block, CRC32C crc) throws Exception {
+		long low = Math.max(start, offset);
+		long high = Math.min(start + length, end);
+
+		crc.reset();
+		if (low > start)
+			BlockCheckSum.updateBlock(channel, headerLength + start, (int)(low - start), block, crc);
+
+		ByteBuffer b = buffer.duplicate();
+		b.limit((int)(high - offset));
+		b.position((int)(low - offset));
+		crc.update(b);
+
+		if (start + length > high)
+			BlockCheckSum.updateBlock(channel, headerLength + high, (int)(start + length - high), block, crc);
+
+		return (int)crc.getValue();
+	}
+
+	/**
+	 * Adds a range of a file channel to a CRC32C
+	 */
+	private static void updateBlock(FileChannel channel, long position, int length, ByteBuffer buffer, CRC32C crc) throws Exception {
+		buffer.clear();
+		buffer.limit(length);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new Exception ("Unexpected end of file while computing block checksums");
+
+		buffer.flip();
+		crc.update(buffer);
+	}
+
+	/**
+	 * Verifies all the blocks of a dataset file and returns the numbers of the corrupt blocks.
+	 * The throttle, if not null, is called with the number of bytes before each block is read
+	 * so that callers can limit the IO rate.
+	 *
+	 * @param datasetName Dataset file name
+	 * @param headerLength Length of the dataset file header
+	 * @param throttle IO rate limiter, may be null
+	 * @return Corrupt block numbers, null if the dataset has no sidecar
+	 * @throws Exception if the sidecar does not match the dataset
+	 */
+	public static long[] scrub(String datasetName, int headerLength, Throttle throttle) throws Exception {
+		if (!BlockCheckSum.exists(datasetName))
+			return null;
+
+		ArrayList<Long> corrupt = new ArrayList<Long>();
+
+		RandomAccessFile raf = new RandomAccessFile(datasetName, "r");
+		FileChannel fc = raf.getChannel();
+		RandomAccessFile sraf = new RandomAccessFile(BlockCheckSum.getSidecarName(datasetName), "r");
+		FileChannel sc = sraf.getChannel();
+
+		try {
+			ByteBuffer header = BlockCheckSum.readSidecarHeader(sc, datasetName);
+			long dataLength = header.getLong(SIDECAR_DATA_LENGTH_POS);
+			int blockSize = header.getInt(SIDECAR_BLOCK_SIZE_POS);
+
+			if (header.getInt(SIDECAR_HEADER_LENGTH_POS) != headerLength || dataLength != Math.max(fc.size() - headerLength, 0))
+				throw new Exception ("Block checksum file for " + datasetName + " does not match the dataset");
+
+			long blockCount = BlockCheckSum.getBlockCount(dataLength, blockSize);
+			ByteBuffer block = ByteBuffer.allocateDirect(blockSize);
+			ByteBuffer expected = ByteBuffer.allocate(blockSize).order(ByteOrder.LITTLE_ENDIAN);
+			expected.limit(0);
+			long expectedPosition = SIDECAR_HEADER_LENGTH;
+			CRC32C crc = new CRC32C();
+
+			for (long i = 0; i < blockCount; i++) {
+				if (!expected.hasRemaining()) {
+					expected.clear();
+					expected.limit((int)Math.min(expected.capacity(), (blockCount - i) * 4));
+					while (expected.hasRemaining()) {
+						int n = sc.read(expected, expectedPosition);
+						if (n < 0)
+							throw new Exception ("Block checksum file for " + datasetName + " is truncated");
+						expectedPosition += n;
+					}
+					expected.flip();
+				}
+
+				long start = i * blockSize;
+				int len = (int)Math.min(blockSize, dataLength - start);
+
+				if (throttle != null)
+					throttle.acquire(len);
+
+				if (BlockCheckSum.computeBlock(fc, headerLength + start, len, block, crc) != expected.getInt())
+					corrupt.add(i);
+			}
+		}
+		finally {
+			sc.close();
+			sraf.close();
+			fc.close();
+			raf.close();
+		}
+
+		long[] retVal = new long[corrupt.size()];
+		for (int i = 0; i < retVal.length; i++)
+			retVal[i] = corrupt.get(i);
+
+		return retVal;
+	}
+
+	/**
+	 * IO rate limiter shared by the threads scrubbing datasets. Each caller reserves the time
+	 * slot its bytes need at the configured rate and sleeps until the slot begins.
+	 */
+	public static class Throttle {
+
+		private long _bytesPerSecond;
+		private long _nextFreeNanos = 0L;
+
+		/**
+		 * @param bytesPerSecond IO rate, <= 0 for no limit
+		 */
+		public Throttle(long bytesPerSecond) {
+			this._bytesPerSecond = bytesPerSecond;
+		}
+
+		public long getBytesPerSecond() {
+			return this._bytesPerSecond;
+		}
+
+		public void acquire(long bytes) throws InterruptedException {
+			if (this._bytesPerSecond <= 0)
+				return;
+
+			long cost = (long)((bytes * 1000000000.0d)/this._bytesPerSecond);
+			long wait = 0;
+
+			synchronized (this) {
+				long now = System.nanoTime();
+				if (this._nextFreeNanos < now)
+					this._nextFreeNanos = now;
+
+				wait = this._nextFreeNanos - now;
+				this._nextFreeNanos += cost;
+			}
+
+			if (wait > 0)
+				Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+		}
+	}
+}
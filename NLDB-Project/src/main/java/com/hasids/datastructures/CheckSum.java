@@ -9,10 +9,14 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.zip.CRC32;
 
 import com.hasids.HASIDSConstants;
+import com.hasids.io.WriteAheadLog;
 
 public class CheckSum {
 
@@ -63,6 +67,25 @@ public class CheckSum {
 	//
 	// position 37 - 55 = time stamp - represented by raw long
 	
+	// VERSION 2 HEADER
+	// The version 2 header is binary and occupies the first 4096 bytes of the file so that the
+	// data region begins on a page (and therefore cache line) boundary. All header fields are
+	// stored at their natural alignment.
+	//
+	// position 0 - 3 = magic number
+	// position 4 - 5 = version
+	// position 6 = data type
+	// position 7 = encoding
+	// position 8 - 11 = segment number
+	// position 12 - 15 = data length
+	// position 16 - 17 = decimal length
+	// position 24 - 31 = record count as a long
+	// position 32 - 35 = file name - computeDS of db|dataset
+	// position 40 - 47 = file size as a long
+	// position 48 - 55 = time stamp as a long
+	// position 56 - 59 = segment count (unary datasets only)
+	// position 60 - 63 = CRC32 of positions 0 - 59
+	
 	// constants associated with check sum
 	public static final int FILE_CHECKSUM_LENGTH = 60;
 	public static final int UNIFILE_CHECKSUM_LENGTH = 64;
@@ -89,6 +112,12 @@ public class CheckSum {
 	public static final int DIM_ENCODE_TYPE2 = 2;
 	public static final int DIM_ENCODE_TYPE3 = 3;
 	
+	// compressed dim encodings, version 2 files only. The data length holds the width of the
+	// decoded values (1, 2 or 4) and the record count is taken from the header
+	public static final int DIM_ENCODE_TYPE_RLE = 4; // runs of equal values
+	public static final int DIM_ENCODE_TYPE_BITPACK = 5; // value - minimum in ceil(log2(range + 1)) bits
+	public static final int DIM_ENCODE_TYPE_DICT = 6; // sorted dictionary + codes in ceil(log2(NDV)) bits
+	
 	// fact encoding
 	public static final int FACT_ENCODE_TYPE_BYTE = 1;
 	public static final int FACT_ENCODE_TYPE_SHORT = 2;
@@ -96,9 +125,37 @@ public class CheckSum {
 	public static final int FACT_ENCODE_TYPE_LONG = 4;
 	public static final int FACT_ENCODE_TYPE_FLOAT = 5;
 	public static final int FACT_ENCODE_TYPE_DOUBLE = 6;
-	public static final int FACT_ENCODE_TYPE_DECIMAL = 7;
+	public static final int FACT_ENCODE_TYPE_DECIMAL = 7; // INT or LONG scaled by 10^decimals
 	public static final int FACT_ENCODE_TYPE_ALPHAN = 8;
 	
+	// block compressed fact encodings, version 2 files only. The data length holds the width of
+	// the decoded values (4 or 8) and the record count is taken from the header
+	public static final int FACT_ENCODE_TYPE_INT_BLOCK = 9; // FOR or delta bit packed blocks of int
+	public static final int FACT_ENCODE_TYPE_LONG_BLOCK = 10; // FOR or delta bit packed blocks of long
+	public static final int FACT_ENCODE_TYPE_FLOAT_BLOCK = 11; // XOR (Gorilla) compressed blocks of float
+	public static final int FACT_ENCODE_TYPE_DOUBLE_BLOCK = 12; // XOR (Gorilla) compressed blocks of double
+	
+	// dictionary encoded ALPHAN, version 2 files only. The data length holds the width of the
+	// codes (1, 2 or 4), the sorted dictionary is kept in the <dataset>.dict file
+	public static final int FACT_ENCODE_TYPE_ALPHAN_DICT = 13;
+	
+	// variable length ALPHAN, version 2 files only. Each slot holds the length of the value, the
+	// offset of the value in the <dataset>.heap file and an inline prefix of the value, the data
+	// length is the width of the slots
+	public static final int FACT_ENCODE_TYPE_VARCHAR = 14;
+	
+	// timestamp, version 2 files only. Epoch milliseconds (UTC) in FOR or delta bit packed blocks
+	// of long as FACT_ENCODE_TYPE_LONG_BLOCK, the data length is 8
+	public static final int FACT_ENCODE_TYPE_TIMESTAMP = 15;
+	
+	// sparse facts, version 2 files only. A Roaring bitmap of the positions holding a value
+	// followed by the packed values of those positions, the other positions are null. The data
+	// length holds the width of the values (4 or 8) and the record count is taken from the header
+	public static final int FACT_ENCODE_TYPE_INT_SPARSE = 16;
+	public static final int FACT_ENCODE_TYPE_LONG_SPARSE = 17;
+	public static final int FACT_ENCODE_TYPE_FLOAT_SPARSE = 18;
+	public static final int FACT_ENCODE_TYPE_DOUBLE_SPARSE = 19;
+	
 	// uni encoding
 	public static final int UNI_ENCODE_TYPE_OLAP = 21; // Record ids only
 	public static final int UNI_ENCODE_TYPE_DOC = 22; // Document with counts
@@ -113,6 +170,30 @@ public class CheckSum {
 	public static final int INT_FLOAT_LEN = 4;
 	public static final int LONG_DOUBLE_LEN = 8;
 	public static final int FACT_MAX_ALPHAN_LENGTH = 40;
+	public static final int FACT_MAX_VARCHAR_LENGTH = 1024 * 1024;
+	public static final int FACT_MAX_DECIMAL_SCALE_INT = 9;
+	public static final int FACT_MAX_DECIMAL_SCALE_LONG = 18;
+	
+	// version 2 header constants, the header fields are little endian like the data region
+	public static final int FILE_VERSION_1 = 1;
+	public static final int FILE_VERSION_2 = 2;
+	public static final int FILE_V2_MAGIC = 0x53445348; // HSDS
+	public static final int FILE_V2_HEADER_LENGTH = 4096;
+	public static final int FILE_V2_CACHE_LINE_LENGTH = 64;
+	public static final int FILE_V2_MAGIC_POS = 0;
+	public static final int FILE_V2_VERSION_POS = 4;
+	public static final int FILE_V2_TYPE_POS = 6;
+	public static final int FILE_V2_ENCODING_TYPE_POS = 7;
+	public static final int FILE_V2_SEGMENT_NO_POS = 8;
+	public static final int FILE_V2_DATA_LEN_POS = 12;
+	public static final int FILE_V2_DECIMAL_SIZE_POS = 16;
+	public static final int FILE_V2_RECORD_COUNT_POS = 24;
+	public static final int FILE_V2_DATASET_NAME_POS = 32;
+	public static final int FILE_V2_DATASET_SIZE_POS = 40;
+	public static final int FILE_V2_DATASET_TIME_POS = 48;
+	public static final int FILE_V2_SEGMENT_COUNT_POS = 56;
+	public static final int FILE_V2_CRC_POS = 60;
+	public static final int FILE_V2_CONVERT_BUFFER_SIZE = 8 * 1024 * 1024;
 	
 	public CheckSum() {
 		// TODO Auto-generated constructor stub
@@ -125,6 +206,147 @@ public class CheckSum {
 		return Float.floatToIntBits(name.chars().sum());
 	}
 	
+	/**
+	 * Returns true if the encoding is one of the compressed dimension or fact encodings, whose
+	 * data region is not made up of fixed length records
+	 * 
+	 * @param fileType
+	 * @param encoding
+	 * @return
+	 */
+	public static boolean isCompressedEncoding(int fileType, int encoding) {
+		return (fileType == FILE_TYPE_DIM && encoding >= DIM_ENCODE_TYPE_RLE && encoding <= DIM_ENCODE_TYPE_DICT) ||
+				(fileType == FILE_TYPE_FACT && ((encoding >= FACT_ENCODE_TYPE_INT_BLOCK && encoding <= FACT_ENCODE_TYPE_DOUBLE_BLOCK) ||
+						encoding == FACT_ENCODE_TYPE_TIMESTAMP));
+	}
+	
+	/**
+	 * Returns true if the encoding is the block compressed TIMESTAMP fact encoding
+	 * 
+	 * @param fileType
+	 * @param encoding
+	 * @return
+	 */
+	public static boolean isTimestampEncoding(int fileType, int encoding) {
+		return fileType == FILE_TYPE_FACT && encoding == FACT_ENCODE_TYPE_TIMESTAMP;
+	}
+	
+	/**
+	 * Returns true if the encoding is one of the sparse fact encodings
+	 * 
+	 * @param fileType
+	 * @param encoding
+	 * @return
+	 */
+	public static boolean isSparseEncoding(int fileType, int encoding) {
+		return fileType == FILE_TYPE_FACT && encoding >= FACT_ENCODE_TYPE_INT_SPARSE && encoding <= FACT_ENCODE_TYPE_DOUBLE_SPARSE;
+	}
+	
+	/**
+	 * Returns true if the encoding is the dictionary encoded ALPHAN fact encoding
+	 * 
+	 * @param fileType
+	 * @param encoding
+	 * @return
+	 */
+	public static boolean isDictionaryEncoding(int fileType, int encoding) {
+		return fileType == FILE_TYPE_FACT && encoding == FACT_ENCODE_TYPE_ALPHAN_DICT;
+	}
+	
+	/**
+	 * Returns true if the encoding is the variable length ALPHAN fact encoding
+	 * 
+	 * @param fileType
+	 * @param encoding
+	 * @return
+	 */
+	public static boolean isVarLengthEncoding(int fileType, int encoding) {
+		return fileType == FILE_TYPE_FACT && encoding == FACT_ENCODE_TYPE_VARCHAR;
+	}
+	
+	/**
+	 * Returns true if the encoding is the DECIMAL fact encoding
+	 * 
+	 * @param fileType
+	 * @param encoding
+	 * @return
+	 */
+	public static boolean isDecimalEncoding(int fileType, int encoding) {
+		return fileType == FILE_TYPE_FACT && encoding == FACT_ENCODE_TYPE_DECIMAL;
+	}
+	
+	/**
+	 * Returns the fixed length fact encoding of the scaled values of a DECIMAL segment
+	 * 
+	 * @param dataLength Data length of the DECIMAL segment, 4 or 8
+	 * @return INT or LONG
+	 * @throws Exception
+	 */
+	public static int getDecimalBaseEncoding(int dataLength) throws Exception {
+		if (dataLength == INT_FLOAT_LEN)
+			return FACT_ENCODE_TYPE_INT;
+		else if (dataLength == LONG_DOUBLE_LEN)
+			return FACT_ENCODE_TYPE_LONG;
+		
+		throw new Exception ("Data length of DECIMAL fact datasets must be " + INT_FLOAT_LEN + " or " + LONG_DOUBLE_LEN);
+	}
+	
+	/**
+	 * Returns the fixed length fact encoding of the values stored in a block compressed or
+	 * sparse fact encoding, or the encoding itself if it is neither
+	 * 
+	 * @param encoding
+	 * @return
+	 */
+	public static int getFactBaseEncoding(int encoding) {
+		switch (encoding) {
+		case FACT_ENCODE_TYPE_INT_BLOCK: return FACT_ENCODE_TYPE_INT;
+		case FACT_ENCODE_TYPE_LONG_BLOCK: return FACT_ENCODE_TYPE_LONG;
+		case FACT_ENCODE_TYPE_TIMESTAMP: return FACT_ENCODE_TYPE_LONG;
+		case FACT_ENCODE_TYPE_FLOAT_BLOCK: return FACT_ENCODE_TYPE_FLOAT;
+		case FACT_ENCODE_TYPE_DOUBLE_BLOCK: return FACT_ENCODE_TYPE_DOUBLE;
+		case FACT_ENCODE_TYPE_INT_SPARSE: return FACT_ENCODE_TYPE_INT;
+		case FACT_ENCODE_TYPE_LONG_SPARSE: return FACT_ENCODE_TYPE_LONG;
+		case FACT_ENCODE_TYPE_FLOAT_SPARSE: return FACT_ENCODE_TYPE_FLOAT;
+		case FACT_ENCODE_TYPE_DOUBLE_SPARSE: return FACT_ENCODE_TYPE_DOUBLE;
+		default: return encoding;
+		}
+	}
+	
+	/**
+	 * Returns the block compressed fact encoding for a fixed length fact encoding
+	 * 
+	 * @param encoding INT, LONG, FLOAT or DOUBLE fact encoding
+	 * @return block compressed encoding
+	 * @throws Exception
+	 */
+	public static int getFactBlockEncoding(int encoding) throws Exception {
+		switch (encoding) {
+		case FACT_ENCODE_TYPE_INT: return FACT_ENCODE_TYPE_INT_BLOCK;
+		case FACT_ENCODE_TYPE_LONG: return FACT_ENCODE_TYPE_LONG_BLOCK;
+		case FACT_ENCODE_TYPE_FLOAT: return FACT_ENCODE_TYPE_FLOAT_BLOCK;
+		case FACT_ENCODE_TYPE_DOUBLE: return FACT_ENCODE_TYPE_DOUBLE_BLOCK;
+		default: throw new Exception ("Fact encoding " + encoding + " cannot be block compressed");
+		}
+	}
+	
+	/**
+	 * Returns the sparse fact encoding for a fixed length fact encoding
+	 * 
+	 * @param encoding INT, LONG, FLOAT or DOUBLE fact encoding
+	 * @return sparse encoding
+	 * @throws Exception
+	 */
+	public static int getFactSparseEncoding(int encoding) throws Exception {
+		switch (encoding) {
+		case FACT_ENCODE_TYPE_INT: return FACT_ENCODE_TYPE_INT_SPARSE;
+		case FACT_ENCODE_TYPE_LONG: return FACT_ENCODE_TYPE_LONG_SPARSE;
+		case FACT_ENCODE_TYPE_FLOAT: return FACT_ENCODE_TYPE_FLOAT_SPARSE;
+		case FACT_ENCODE_TYPE_DOUBLE: return FACT_ENCODE_TYPE_DOUBLE_SPARSE;
+		default: throw new Exception ("Fact encoding " + encoding + " cannot be stored sparse");
+		}
+	}
+	
 	public static long computeTFS(long value) {
 		return Double.doubleToLongBits(value);
 	}
@@ -140,6 +362,9 @@ public class CheckSum {
 	}
 	
 	public static int validateFileforTruncate(String dbName, String datasetName, int fileType[], int[] encoding, int[] datasize, short[] decimals, int[] segmentNo) throws Exception {
+		// a log left behind by a failed process is recovered before the dataset is read
+		WriteAheadLog.recoverDataset(datasetName);
+		
 		File f = new File(datasetName);
 		int actualFileName = computeDS(dbName + "|" + datasetName);
 		long actualFileSize = computeTFS(f.length());
@@ -156,6 +381,9 @@ public class CheckSum {
 		if (segmentNo == null || segmentNo.length <= 0)
 			segmentNo = new int[1];
 		
+		if (CheckSum.getFileVersion(datasetName) == FILE_VERSION_2)
+			return CheckSum.validateFileV2(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo, new long[1]);
+		
 		FileInputStream fis = new FileInputStream(f);
 		BufferedInputStream buffer = new BufferedInputStream(fis);
 		
@@ -232,7 +460,303 @@ public class CheckSum {
 		return HASIDSConstants.SUCCESS;		
 	}
 	
+	/**
+	 * Returns the version of the file header, version 2 files start with the magic number
+	 * 
+	 * @param datasetName
+	 * @return FILE_VERSION_1 or FILE_VERSION_2
+	 * @throws Exception
+	 */
+	public static int getFileVersion(String datasetName) throws Exception {
+		RandomAccessFile raf = new RandomAccessFile(datasetName, "r");
+		try {
+			return CheckSum.getFileVersion(raf.getChannel());
+		}
+		finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Returns the version of the file header for an open channel
+	 * 
+	 * @param channel
+	 * @return FILE_VERSION_1 or FILE_VERSION_2
+	 * @throws Exception
+	 */
+	public static int getFileVersion(FileChannel channel) throws Exception {
+		if (channel.size() < FILE_V2_HEADER_LENGTH)
+			return FILE_VERSION_1;
+		
+		ByteBuffer b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		while (b.hasRemaining())
+			if (channel.read(b, FILE_V2_MAGIC_POS + b.position()) < 0)
+				break;
+		
+		if (b.hasRemaining() || b.getInt(0) != FILE_V2_MAGIC)
+			return FILE_VERSION_1;
+		
+		return FILE_VERSION_2;
+	}
+	
+	/**
+	 * Returns the length of the header preceding the data region of a DIM, FACT or LINK file
+	 * 
+	 * @param datasetName
+	 * @return header length
+	 * @throws Exception
+	 */
+	public static int getHeaderLength(String datasetName) throws Exception {
+		if (CheckSum.getFileVersion(datasetName) == FILE_VERSION_2)
+			return FILE_V2_HEADER_LENGTH;
+		
+		return FILE_CHECKSUM_LENGTH;
+	}
+	
+	/**
+	 * Returns the number of records of a DIM, FACT or LINK file. Version 2 files hold the count
+	 * in the header, for version 1 files it is derived from the file size.
+	 * 
+	 * @param datasetName
+	 * @param dataLength
+	 * @return record count
+	 * @throws Exception
+	 */
+	public static long getRecordCount(String datasetName, int dataLength) throws Exception {
+		RandomAccessFile raf = new RandomAccessFile(datasetName, "r");
+		try {
+			FileChannel fc = raf.getChannel();
+			if (CheckSum.getFileVersion(fc) == FILE_VERSION_2) {
+				ByteBuffer b = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+				while (b.hasRemaining())
+					if (fc.read(b, FILE_V2_RECORD_COUNT_POS + b.position()) < 0)
+						throw new Exception ("Invalid header in " + datasetName);
+				
+				return b.getLong(0);
+			}
+			
+			return (fc.size() - FILE_CHECKSUM_LENGTH)/dataLength;
+		}
+		finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Computes the CRC of the version 2 header fields
+	 * 
+	 * @param header Buffer holding the header at position 0
+	 * @return CRC32 of the header fields
+	 */
+	public static int computeHeaderCRC(ByteBuffer header) {
+		CRC32 crc = new CRC32();
+		for (int i = 0; i < FILE_V2_CRC_POS; i++)
+			crc.update(header.get(i));
+		
+		return (int) crc.getValue();
+	}
+	
+	/**
+	 * Writes a version 2 header into the buffer starting at position 0. The buffer must
+	 * be at least FILE_V2_CACHE_LINE_LENGTH bytes, the rest of the header is left as zeros.
+	 * The fields are written little endian whatever the byte order of the buffer.
+	 * 
+	 * @param buffer
+	 * @param fileType
+	 * @param encoding
+	 * @param segmentNo
+	 * @param dataLength
+	 * @param decimals
+	 * @param recordCount
+	 * @param name db|dataset name
+	 * @param fileSize
+	 * @param lastModified
+	 */
+	public static void writeHeaderV2(ByteBuffer buffer, int fileType, int encoding, int segmentNo, int dataLength, short decimals, 
+			long recordCount, String name, long fileSize, long lastModified) {
+		
+		buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < FILE_V2_CACHE_LINE_LENGTH; i++)
+			buffer.put(i, (byte)0);
+		
+		buffer.putInt(FILE_V2_MAGIC_POS, FILE_V2_MAGIC);
+		buffer.putShort(FILE_V2_VERSION_POS, (short)FILE_VERSION_2);
+		buffer.put(FILE_V2_TYPE_POS, (byte)fileType);
+		buffer.put(FILE_V2_ENCODING_TYPE_POS, (byte)encoding);
+		buffer.putInt(FILE_V2_SEGMENT_NO_POS, segmentNo);
+		buffer.putInt(FILE_V2_DATA_LEN_POS, dataLength);
+		buffer.putShort(FILE_V2_DECIMAL_SIZE_POS, decimals);
+		buffer.putLong(FILE_V2_RECORD_COUNT_POS, recordCount);
+		buffer.putInt(FILE_V2_DATASET_NAME_POS, computeDS(name));
+		buffer.putLong(FILE_V2_DATASET_SIZE_POS, fileSize);
+		buffer.putLong(FILE_V2_DATASET_TIME_POS, lastModified);
+		buffer.putInt(FILE_V2_CRC_POS, computeHeaderCRC(buffer));
+	}
+	
+	/**
+	 * Writes the commit time stamp into the header of an open file, for both version 1 and
+	 * version 2 headers
+	 * 
+	 * @param channel
+	 * @param lastModified
+	 * @throws Exception
+	 */
+	public static void writeTimestamp(FileChannel channel, long lastModified) throws Exception {
+		MappedByteBuffer buffer = null;
+		if (CheckSum.getFileVersion(channel) == FILE_VERSION_2) {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_V2_CACHE_LINE_LENGTH);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putLong(FILE_V2_DATASET_SIZE_POS, channel.size());
+			buffer.putLong(FILE_V2_DATASET_TIME_POS, lastModified);
+			buffer.putInt(FILE_V2_CRC_POS, computeHeaderCRC(buffer));
+		}
+		else {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, FILE_DATASET_TIME_POS, FILE_DATASET_TIME_LEN);
+			buffer.put(Long.toString(computeTFS(lastModified)).getBytes());
+		}
+		buffer.force();
+		buffer = null;
+	}
+	
+	/**
+	 * Validates a version 2 header
+	 * 
+	 * @throws Exception
+	 */
+	private static int validateFileV2(String dbName, String datasetName, int fileType[], int[] encoding, int[] datasize, short[] decimals, int[] segmentNo, long[] recordCount) throws Exception {
+		File f = new File(datasetName);
+		
+		RandomAccessFile raf = new RandomAccessFile(datasetName, "r");
+		FileChannel fc = raf.getChannel();
+		MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, FILE_V2_CACHE_LINE_LENGTH);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		
+		try {
+			if (buffer.getInt(FILE_V2_MAGIC_POS) != FILE_V2_MAGIC || buffer.getShort(FILE_V2_VERSION_POS) != FILE_VERSION_2)
+				throw new Exception ("Invalid header version in " + datasetName);
+			
+			if (buffer.getInt(FILE_V2_CRC_POS) != computeHeaderCRC(buffer))
+				throw new Exception ("Header checksum error in " + datasetName);
+			
+			fileType[0] = buffer.get(FILE_V2_TYPE_POS);
+			encoding[0] = buffer.get(FILE_V2_ENCODING_TYPE_POS);
+			segmentNo[0] = buffer.getInt(FILE_V2_SEGMENT_NO_POS);
+			datasize[0] = buffer.getInt(FILE_V2_DATA_LEN_POS);
+			decimals[0] = buffer.getShort(FILE_V2_DECIMAL_SIZE_POS);
+			recordCount[0] = buffer.getLong(FILE_V2_RECORD_COUNT_POS);
+			
+			if (buffer.getInt(FILE_V2_DATASET_NAME_POS) != computeDS(dbName + "|" + datasetName) ||
+					buffer.getLong(FILE_V2_DATASET_SIZE_POS) != f.length() ||
+					buffer.getLong(FILE_V2_DATASET_TIME_POS) != f.lastModified())
+				throw new Exception ("File content changed by external process to HASIDS");
+			
+			if (datasize[0] > 0 && fileType[0] != FILE_TYPE_UNI && !CheckSum.isCompressedEncoding(fileType[0], encoding[0]) &&
+					!CheckSum.isSparseEncoding(fileType[0], encoding[0]) &&
+					recordCount[0] != (f.length() - FILE_V2_HEADER_LENGTH)/datasize[0])
+				throw new Exception ("File content changed by external process to HASIDS");
+		}
+		finally {
+			buffer = null;
+			fc.close();
+			raf.close();
+		}
+		
+		return HASIDSConstants.SUCCESS;
+	}
+	
+	/**
+	 * Converts a version 1 DIM, FACT or LINK file to the version 2 format in place. The file is
+	 * extended and the data region is moved towards the end of the file in chunks starting from
+	 * the tail, after which the version 2 header is written. The file is locked for the duration
+	 * of the conversion.
+	 * 
+	 * @param dbName
+	 * @param datasetName
+	 * @throws Exception
+	 */
+	public static void convertToV2(String dbName, String datasetName) throws Exception {
+		int[] fileType = new int[1];
+		int[] encoding = new int[1];
+		int[] segmentNo = new int[1];
+		int[] datasize = new int[1];
+		short[] decimals = new short[1];
+		int[] headerLength = new int[1];
+		
+		CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
+		
+		if (headerLength[0] == FILE_V2_HEADER_LENGTH)
+			throw new Exception ("File " + datasetName + " is already in version 2 format");
+		
+		if (fileType[0] == FILE_TYPE_UNI)
+			throw new Exception ("Unary files cannot be converted to version 2 format");
+		
+		File f = new File(datasetName);
+		long oldLength = f.length();
+		long dataSize = oldLength - FILE_CHECKSUM_LENGTH;
+		long shift = FILE_V2_HEADER_LENGTH - FILE_CHECKSUM_LENGTH;
+		long newLength = oldLength + shift;
+		
+		long lastModifiedTime = 0;
+		
+		RandomAccessFile raf = new RandomAccessFile(datasetName, "rw");
+		FileChannel fc = raf.getChannel();
+		FileLock fl = fc.lock();
+		
+		try {
+			raf.setLength(newLength);
+			
+			// move the data from the tail so that no unread bytes are overwritten
+			ByteBuffer chunk = ByteBuffer.allocateDirect((int)Math.min(FILE_V2_CONVERT_BUFFER_SIZE, Math.max(dataSize, 1)));
+			long remaining = dataSize;
+			while (remaining > 0) {
+				int len = (int) Math.min(remaining, chunk.capacity());
+				long source = FILE_CHECKSUM_LENGTH + remaining - len;
+				
+				chunk.clear();
+				chunk.limit(len);
+				while (chunk.hasRemaining())
+					if (fc.read(chunk, source + chunk.position()) < 0)
+						throw new Exception ("Unexpected end of file while converting " + datasetName);
+				
+				chunk.flip();
+				while (chunk.hasRemaining())
+					fc.write(chunk, source + shift + chunk.position());
+				
+				remaining -= len;
+			}
+			
+			// write the header, zeroing out the rest of the header page
+			lastModifiedTime = System.currentTimeMillis();
+			ByteBuffer header = ByteBuffer.allocate(FILE_V2_HEADER_LENGTH);
+			CheckSum.writeHeaderV2(header, fileType[0], encoding[0], segmentNo[0], datasize[0], decimals[0], 
+					dataSize/datasize[0], dbName + "|" + datasetName, newLength, lastModifiedTime);
+			
+			while (header.hasRemaining())
+				fc.write(header, header.position());
+			
+			fc.force(true);
+		}
+		finally {
+			fl.release();
+			fc.close();
+			raf.close();
+		}
+		
+		// set the last modified time
+		f.setLastModified(lastModifiedTime);
+		
+		// the data region has moved, recompute the block checksums
+		BlockCheckSum.rebuild(datasetName, FILE_V2_HEADER_LENGTH);
+	}
+	
 	public static int validateFile(String dbName, String datasetName, int fileType[], int[] encoding, int[] datasize, short[] decimals, int[] segmentNo) throws Exception {
+		return CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo, null);
+	}
+	
+	public static int validateFile(String dbName, String datasetName, int fileType[], int[] encoding, int[] datasize, short[] decimals, int[] segmentNo, int[] headerLength) throws Exception {
+		// a log left behind by a failed process is recovered before the dataset is read
+		WriteAheadLog.recoverDataset(datasetName);
+		
 		File f = new File(datasetName);
 		int actualFileName = computeDS(dbName + "|" + datasetName);
 		long actualFileSize = computeTFS(f.length());
@@ -248,6 +772,15 @@ public class CheckSum {
 			decimals = new short[1];
 		if (segmentNo == null || segmentNo.length <= 0)
 			segmentNo = new int[1];
+		if (headerLength == null || headerLength.length <= 0)
+			headerLength = new int[1];
+		
+		if (CheckSum.getFileVersion(datasetName) == FILE_VERSION_2) {
+			headerLength[0] = FILE_V2_HEADER_LENGTH;
+			return CheckSum.validateFileV2(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo, new long[1]);
+		}
+		
+		headerLength[0] = FILE_CHECKSUM_LENGTH;
 		
 		RandomAccessFile raf = new RandomAccessFile(datasetName, "r");
 		FileChannel fc = raf.getChannel();
@@ -0,0 +1,578 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Sort order metadata of a fixed length dimension or fact segment, kept in a file next to the
+ * segment named <segment file>.runs. Segments loaded in sorted or clustered order (trip year,
+ * trip date) are made up of a few runs of non decreasing values; the file holds the start
+ * positions of the runs if there are at most MAX_RUNS of them. Within a run the values of a
+ * GT, GTEQ, LT, LTEQ or BETWEEN filter are a single range of positions, found by binary search
+ * over the mapped segment, so the readers set the result bits of a range filter in
+ * O(runs * log n) instead of comparing every value.
+ *
+ * A run ends where a value is greater than the next value; FLOAT and DOUBLE NaN values are
+ * runs of their own as they are not ordered. Comparisons are signed as in the scans, so the
+ * null values (0 for dimensions, MIN_VALUE for facts) sort first.
+ *
+ * The metadata is created with build() and from then on maintained by DataWriter and
+ * DimDataWriter on commit, only the run boundaries next to the positions written are
+ * re-evaluated. Once a segment has more than MAX_RUNS runs it is marked unclustered and stays
+ * so until build() is run again. The readers use the metadata only if the segment has not
+ * changed since it was last maintained.
+ *
+ * Runs file (LITTLE ENDIAN):
+ * position 0 - 3 = magic
+ * position 4 - 7 = version
+ * position 8 - 15 = record count of the segment when last maintained
+ * position 16 - 23 = last modified time of the segment when last maintained
+ * position 24 - 27 = run count, -1 if the segment has more than MAX_RUNS runs
+ * position 28 - 31 = data length of the records
+ * position 32 - 35 = header length of the segment
+ * position 36 - 39 = flags, FLAG_FLOATING_POINT for FLOAT and DOUBLE facts
+ * position 40 - 47 = reserved
+ * position 48 onwards = int[run count] 0 based start positions of the runs, ascending
+ */
+
+package com.hasids.datastructures;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import com.hasids.HASIDSConstants;
+
+public class SortedRuns {
+
+	public static final String RUNS_EXTENSION = ".runs";
+	public static final int RUNS_MAGIC = 0x48535352; // HSSR
+	public static final int RUNS_VERSION = 1;
+	public static final int RUNS_HEADER_LENGTH = 48;
+
+	// segments with more runs are scanned
+	public static final int MAX_RUNS = 1024;
+
+	// flags
+	public static final int FLAG_FLOATING_POINT = 1;
+
+	// records mapped at a time while scanning a segment
+	private static final int SCAN_CHUNK = 1 << 24;
+
+	private static Hashtable<String, SoftReference<SortedRuns>> CACHE = new Hashtable<String, SoftReference<SortedRuns>>();
+	private static Hashtable<String, Object> UPDATE_TABLE = new Hashtable<String, Object>();
+
+	private long _lastModified;
+	private long _fileLength;
+	private long _segmentLastModified;
+	private int _recordCount;
+	private int _dataLength;
+	private int _headerLength;
+	private boolean _floatingPoint;
+	private int[] _runStarts; // null if unclustered
+
+	private SortedRuns() {
+	}
+
+	/**
+	 * @param datasetName Segment file name
+	 * @return name of the runs file of the segment
+	 */
+	public static String getRunsName(String datasetName) {
+		return datasetName + RUNS_EXTENSION;
+	}
+
+	public static boolean exists(String datasetName) {
+		return new File(SortedRuns.getRunsName(datasetName)).exists();
+	}
+
+	/**
+	 * Deletes the runs file of a segment
+	 *
+	 * @param datasetName Segment file name
+	 */
+	public static void delete(String datasetName) {
+		String runsName = SortedRuns.getRunsName(datasetName);
+		CACHE.remove(runsName);
+		new File(runsName).delete();
+	}
+
+	/**
+	 * Returns the runs of a segment from the cache, loading them if they are not cached or if
+	 * the file has been replaced since they were cached
+	 *
+	 * @param datasetName Segment file name
+	 * @return runs, null if the segment has no runs file
+	 * @throws Exception
+	 */
+	public static SortedRuns getRuns(String datasetName) throws Exception {
+		String runsName = SortedRuns.getRunsName(datasetName);
+		File f = new File(runsName);
+		if (!f.exists())
+			return null;
+
+		SoftReference<SortedRuns> ref = CACHE.get(runsName);
+		SortedRuns runs = (ref == null ? null : ref.get());
+		if (runs != null && runs._lastModified == f.lastModified() && runs._fileLength == f.length())
+			return runs;
+
+		synchronized (CACHE) {
+			runs = SortedRuns.load(runsName);
+			CACHE.put(runsName, new SoftReference<SortedRuns>(runs));
+		}
+
+		return runs;
+	}
+
+	private static SortedRuns load(String runsName) throws Exception {
+		SortedRuns runs = new SortedRuns();
+		File f = new File(runsName);
+		runs._lastModified = f.lastModified();
+
+		ByteBuffer buffer = null;
+		RandomAccessFile raf = new RandomAccessFile(runsName, "r");
+		FileChannel fc = raf.getChannel();
+		try {
+			if (fc.size() < RUNS_HEADER_LENGTH || fc.size() > RUNS_HEADER_LENGTH + MAX_RUNS * 4)
+				throw new Exception ("Invalid runs length in " + runsName);
+
+			buffer = ByteBuffer.allocate((int)fc.size()).order(ByteOrder.LITTLE_ENDIAN);
+			while (buffer.hasRemaining())
+				if (fc.read(buffer, buffer.position()) < 0)
+					throw new Exception ("Unexpected end of file in " + runsName);
+			runs._fileLength = fc.size();
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		long recordCount = buffer.getLong(8);
+		int runCount = buffer.getInt(24);
+
+		if (buffer.getInt(0) != RUNS_MAGIC || recordCount < 0 || recordCount > HASIDSConstants.DIM_MAX_RECORDS ||
+				runCount < -1 || runCount > MAX_RUNS || buffer.capacity() != RUNS_HEADER_LENGTH + Math.max(runCount, 0) * 4)
+			throw new Exception ("Invalid runs file " + runsName);
+
+		runs._recordCount = (int)recordCount;
+		runs._segmentLastModified = buffer.getLong(16);
+		runs._dataLength = buffer.getInt(28);
+		runs._headerLength = buffer.getInt(32);
+		runs._floatingPoint = (buffer.getInt(36) & FLAG_FLOATING_POINT) != 0;
+
+		if (runCount >= 0) {
+			runs._runStarts = new int[runCount];
+			for (int i = 0; i < runCount; i++) {
+				runs._runStarts[i] = buffer.getInt(RUNS_HEADER_LENGTH + i * 4);
+				if (runs._runStarts[i] < 0 || runs._runStarts[i] >= recordCount || (i > 0 && runs._runStarts[i] <= runs._runStarts[i - 1]))
+					throw new Exception ("Invalid run start in " + runsName);
+			}
+		}
+
+		return runs;
+	}
+
+	public int getRecordCount() {
+		return this._recordCount;
+	}
+
+	public int getDataLength() {
+		return this._dataLength;
+	}
+
+	public boolean isFloatingPoint() {
+		return this._floatingPoint;
+	}
+
+	/**
+	 * @return number of runs, -1 if the segment has more than MAX_RUNS runs
+	 */
+	public int getRunCount() {
+		return (this._runStarts == null ? -1 : this._runStarts.length);
+	}
+
+	/**
+	 * @return 0 based start position of a run
+	 */
+	public int getRunStart(int run) {
+		return this._runStarts[run];
+	}
+
+	/**
+	 * @return true if the segment has at most MAX_RUNS runs
+	 */
+	public boolean isClustered() {
+		return this._runStarts != null;
+	}
+
+	/**
+	 * @return true if the values of the segment are in non decreasing order
+	 */
+	public boolean isSorted() {
+		return this._runStarts != null && this._runStarts.length <= 1;
+	}
+
+	/**
+	 * @param segmentLastModified Last modified time of the segment
+	 * @param recordCount Record count of the segment
+	 * @return true if the runs were maintained by the last commit of the segment
+	 */
+	public boolean isCurrent(long segmentLastModified, int recordCount) {
+		return this._segmentLastModified == segmentLastModified && this._recordCount == recordCount;
+	}
+
+	private static long getLong(ByteBuffer buffer, int offset, int dataLength) {
+		switch (dataLength) {
+		case 1: return buffer.get(offset);
+		case 2: return buffer.getShort(offset);
+		case 4: return buffer.getInt(offset);
+		default: return buffer.getLong(offset);
+		}
+	}
+
+	private static double getDouble(ByteBuffer buffer, int offset, int dataLength) {
+		return (dataLength == CheckSum.INT_FLOAT_LEN ? buffer.getFloat(offset) : buffer.getDouble(offset));
+	}
+
+	/**
+	 * @return true if a run starts at the record at offset, i.e. the previous value is not
+	 * less than or equal to it
+	 */
+	private static boolean isRunStart(ByteBuffer buffer, int offset, int dataLength, boolean floatingPoint) {
+		if (floatingPoint)
+			return !(SortedRuns.getDouble(buffer, offset - dataLength, dataLength) <= SortedRuns.getDouble(buffer, offset, dataLength));
+
+		return SortedRuns.getLong(buffer, offset - dataLength, dataLength) > SortedRuns.getLong(buffer, offset, dataLength);
+	}
+
+	/**
+	 * @return first position in [from, to) whose value is >= bound if inclusive, > bound
+	 * otherwise; to if there is none. The values between from and to are non decreasing.
+	 */
+	private int search(ByteBuffer buffer, int bufferPosition, int from, int to, long bound, boolean inclusive) {
+		int low = from, high = to;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			long value = SortedRuns.getLong(buffer, (mid - bufferPosition) * this._dataLength, this._dataLength);
+			if (inclusive ? value >= bound : value > bound)
+				high = mid;
+			else
+				low = mid + 1;
+		}
+		return low;
+	}
+
+	private int search(ByteBuffer buffer, int bufferPosition, int from, int to, double bound, boolean inclusive) {
+		int low = from, high = to;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			double value = SortedRuns.getDouble(buffer, (mid - bufferPosition) * this._dataLength, this._dataLength);
+			if (inclusive ? value >= bound : value > bound)
+				high = mid;
+			else
+				low = mid + 1;
+		}
+		return low;
+	}
+
+	/**
+	 * @return index of the run containing a position
+	 */
+	private int getRun(int position) {
+		int i = Arrays.binarySearch(this._runStarts, position);
+		return (i >= 0 ? i : -i - 2);
+	}
+
+	/**
+	 * Sets the bits of the records between two positions whose values are within a range; a
+	 * GT filter is (c, Long.MAX_VALUE], LT [Long.MIN_VALUE, c) and BETWEEN [c1, c2]. The bit set
+	 * for a matching position p is p + bitOffset.
+	 *
+	 * @param buffer Mapped records, LITTLE ENDIAN
+	 * @param bufferPosition 0 based position of the first record of the buffer
+	 * @param fromPosition 0 based position, inclusive, within the buffer
+	 * @param toPosition 0 based position, exclusive, within the buffer
+	 * @param low Lower bound of the range
+	 * @param lowInclusive Lower bound included
+	 * @param high Upper bound of the range
+	 * @param highInclusive Upper bound included
+	 * @param b BitSet receiving the matches
+	 * @param bitOffset Offset added to the positions
+	 * @throws Exception if the segment is unclustered or holds FLOAT or DOUBLE values
+	 */
+	public void filter(ByteBuffer buffer, int bufferPosition, int fromPosition, int toPosition, long low, boolean lowInclusive,
+			long high, boolean highInclusive, BitSet b, int bitOffset) throws Exception {
+		if (this._runStarts == null || this._floatingPoint)
+			throw new Exception ("Runs are not usable for the range filter");
+
+		if (toPosition > this._recordCount)
+			toPosition = this._recordCount;
+
+		for (int run = (fromPosition < toPosition ? this.getRun(fromPosition) : this._runStarts.length); run < this._runStarts.length &&
+				this._runStarts[run] < toPosition; run++) {
+			int from = Math.max(this._runStarts[run], fromPosition);
+			int to = Math.min((run + 1 < this._runStarts.length ? this._runStarts[run + 1] : this._recordCount), toPosition);
+
+			int start = this.search(buffer, bufferPosition, from, to, low, lowInclusive);
+			int end = this.search(buffer, bufferPosition, start, to, high, !highInclusive);
+			if (start < end)
+				b.set(start + bitOffset, end + bitOffset);
+		}
+	}
+
+	/**
+	 * Sets the bits of the records between two positions whose FLOAT or DOUBLE values are
+	 * within a range, the unbounded sides are the infinities
+	 *
+	 * @throws Exception if the segment is unclustered or does not hold FLOAT or DOUBLE values
+	 */
+	public void filter(ByteBuffer buffer, int bufferPosition, int fromPosition, int toPosition, double low, boolean lowInclusive,
+			double high, boolean highInclusive, BitSet b, int bitOffset) throws Exception {
+		if (this._runStarts == null || !this._floatingPoint)
+			throw new Exception ("Runs are not usable for the range filter");
+
+		if (toPosition > this._recordCount)
+			toPosition = this._recordCount;
+
+		for (int run = (fromPosition < toPosition ? this.getRun(fromPosition) : this._runStarts.length); run < this._runStarts.length &&
+				this._runStarts[run] < toPosition; run++) {
+			int from = Math.max(this._runStarts[run], fromPosition);
+			int to = Math.min((run + 1 < this._runStarts.length ? this._runStarts[run + 1] : this._recordCount), toPosition);
+
+			int start = this.search(buffer, bufferPosition, from, to, low, lowInclusive);
+			int end = this.search(buffer, bufferPosition, start, to, high, !highInclusive);
+			if (start < end)
+				b.set(start + bitOffset, end + bitOffset);
+		}
+	}
+
+	/**
+	 * Builds the runs file of a fixed length dimension segment or of a BYTE, SHORT, INT, LONG,
+	 * FLOAT, DOUBLE or DECIMAL fact segment, replacing the existing one
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @return number of runs, -1 if the segment has more than MAX_RUNS runs
+	 * @throws Exception
+	 */
+	public static int build(String dbName, String datasetName) throws Exception {
+		long beginTime = System.nanoTime();
+
+		int[] fileType = new int[1];
+		int[] encoding = new int[1];
+		int[] segmentNo = new int[1];
+		int[] datasize = new int[1];
+		short[] decimals = new short[1];
+		int[] headerLength = new int[1];
+
+		CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
+
+		if (!((fileType[0] == CheckSum.FILE_TYPE_DIM && encoding[0] >= CheckSum.DIM_ENCODE_TYPE1 && encoding[0] <= CheckSum.DIM_ENCODE_TYPE3) ||
+				(fileType[0] == CheckSum.FILE_TYPE_FACT && encoding[0] >= CheckSum.FACT_ENCODE_TYPE_BYTE && encoding[0] <= CheckSum.FACT_ENCODE_TYPE_DECIMAL)))
+			throw new Exception ("Runs are kept for fixed length dimension and numeric fact segments only");
+
+		boolean floatingPoint = (fileType[0] == CheckSum.FILE_TYPE_FACT &&
+				(encoding[0] == CheckSum.FACT_ENCODE_TYPE_FLOAT || encoding[0] == CheckSum.FACT_ENCODE_TYPE_DOUBLE));
+		int dataLength = datasize[0];
+		long segmentLastModified = new File(datasetName).lastModified();
+
+		int recordCount = 0;
+		TreeSet<Integer> starts = new TreeSet<Integer>();
+
+		RandomAccessFile raf = new RandomAccessFile(datasetName, "r");
+		FileChannel fc = raf.getChannel();
+		try {
+			recordCount = (int)((fc.size() - headerLength[0]) / dataLength);
+			if (recordCount > 0)
+				starts.add(0);
+
+			// map chunks overlapping by one record, stop at MAX_RUNS + 1 runs
+			for (int from = 1; from < recordCount && starts.size() <= MAX_RUNS; from += SCAN_CHUNK) {
+				int count = Math.min(SCAN_CHUNK, recordCount - from);
+				MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, headerLength[0] + (long)(from - 1) * dataLength, (long)(count + 1) * dataLength);
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+				for (int i = 1; i <= count && starts.size() <= MAX_RUNS; i++)
+					if (SortedRuns.isRunStart(buffer, i * dataLength, dataLength, floatingPoint))
+						starts.add(from - 1 + i);
+			}
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		int runCount = (starts.size() > MAX_RUNS ? -1 : starts.size());
+		synchronized (SortedRuns.getMonitor(datasetName)) {
+			SortedRuns.write(datasetName, (runCount < 0 ? null : starts), recordCount, dataLength, headerLength[0],
+					(floatingPoint ? FLAG_FLOATING_POINT : 0), segmentLastModified);
+		}
+
+		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((System.nanoTime() - beginTime), TimeUnit.NANOSECONDS);
+		System.out.println("Runs of " + datasetName + " built, records : " + recordCount + ", runs : " + runCount +
+				" in " + elapsedTimeInMillis + " Milliseconds");
+
+		return runCount;
+	}
+
+	/**
+	 * Writes the runs file, replacing the existing one
+	 *
+	 * @param starts Start positions of the runs, null if unclustered
+	 */
+	private static void write(String datasetName, TreeSet<Integer> starts, int recordCount, int dataLength, int headerLength,
+			int flags, long segmentLastModified) throws Exception {
+		int runCount = (starts == null ? -1 : starts.size());
+
+		ByteBuffer buffer = ByteBuffer.allocate(RUNS_HEADER_LENGTH + Math.max(runCount, 0) * 4).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(RUNS_MAGIC);
+		buffer.putInt(RUNS_VERSION);
+		buffer.putLong(recordCount);
+		buffer.putLong(segmentLastModified);
+		buffer.putInt(runCount);
+		buffer.putInt(dataLength);
+		buffer.putInt(headerLength);
+		buffer.putInt(flags);
+		buffer.putLong(0L);
+		if (starts != null) {
+			Iterator<Integer> it = starts.iterator();
+			while (it.hasNext())
+				buffer.putInt(it.next());
+		}
+		buffer.flip();
+
+		String runsName = SortedRuns.getRunsName(datasetName);
+		File f = new File(runsName);
+		File temp = new File(runsName + ".tmp");
+
+		RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		FileChannel fc = raf.getChannel();
+		try {
+			raf.setLength(0);
+			while (buffer.hasRemaining())
+				fc.write(buffer, buffer.position());
+			fc.force(true);
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		if (f.exists() && !f.delete())
+			throw new Exception ("Unable to replace runs " + runsName);
+
+		if (!temp.renameTo(f))
+			throw new Exception ("Unable to replace runs " + runsName);
+
+		CACHE.remove(runsName);
+	}
+
+	/**
+	 * Re-evaluates the run boundaries next to the positions written by a commit, and those of
+	 * the records appended to the segment. An unclustered segment stays unclustered.
+	 *
+	 * @param datasetName Segment file name
+	 * @param positions 0 based positions written
+	 * @param recordCount Record count of the segment
+	 * @param segmentLastModified Commit time stamp of the segment
+	 * @throws Exception
+	 */
+	public static void update(String datasetName, int[] positions, int recordCount, long segmentLastModified) throws Exception {
+		synchronized (SortedRuns.getMonitor(datasetName)) {
+			SortedRuns runs = SortedRuns.load(SortedRuns.getRunsName(datasetName));
+
+			TreeSet<Integer> starts = null;
+			if (runs._runStarts != null) {
+				starts = new TreeSet<Integer>();
+				for (int i = 0; i < runs._runStarts.length; i++)
+					if (runs._runStarts[i] < recordCount)
+						starts.add(runs._runStarts[i]);
+				if (recordCount > 0)
+					starts.add(0);
+
+				// positions whose run start flag may have changed
+				TreeSet<Integer> candidates = new TreeSet<Integer>();
+				for (int i = 0; i < positions.length; i++) {
+					if (positions[i] > 0 && positions[i] < recordCount)
+						candidates.add(positions[i]);
+					if (positions[i] + 1 > 0 && positions[i] + 1 < recordCount)
+						candidates.add(positions[i] + 1);
+				}
+				for (int i = Math.max(1, runs._recordCount); i < recordCount; i++)
+					candidates.add(i);
+
+				RandomAccessFile segment = new RandomAccessFile(datasetName, "r");
+				FileChannel fc = segment.getChannel();
+				try {
+					MappedByteBuffer buffer = null;
+					int windowStart = 0, windowEnd = 0;
+
+					Iterator<Integer> it = candidates.iterator();
+					while (it.hasNext() && starts.size() <= MAX_RUNS) {
+						int q = it.next();
+						if (buffer == null || q - 1 < windowStart || q >= windowEnd) {
+							windowStart = q - 1;
+							windowEnd = (int)Math.min((long)windowStart + SCAN_CHUNK, recordCount);
+							buffer = fc.map(FileChannel.MapMode.READ_ONLY, runs._headerLength + (long)windowStart * runs._dataLength,
+									(long)(windowEnd - windowStart) * runs._dataLength);
+							buffer.order(ByteOrder.LITTLE_ENDIAN);
+						}
+
+						if (SortedRuns.isRunStart(buffer, (q - windowStart) * runs._dataLength, runs._dataLength, runs._floatingPoint))
+							starts.add(q);
+						else
+							starts.remove(q);
+					}
+				}
+				finally {
+					fc.close();
+					segment.close();
+				}
+
+				if (starts.size() > MAX_RUNS)
+					starts = null;
+			}
+
+			SortedRuns.write(datasetName, starts, recordCount, runs._dataLength, runs._headerLength,
+					(runs._floatingPoint ? FLAG_FLOATING_POINT : 0), segmentLastModified);
+		}
+	}
+
+	private static Object getMonitor(String datasetName) {
+		synchronized (UPDATE_TABLE) {
+			Object monitor = UPDATE_TABLE.get(datasetName);
+			if (monitor == null) {
+				monitor = new Object();
+				UPDATE_TABLE.put(datasetName, monitor);
+			}
+			return monitor;
+		}
+	}
+
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		String dbName = "Test";
+		String datasetName = "c:\\users\\dpras\\tempdata\\testdata\\tripyear.DM";
+
+		try {
+			int runCount = SortedRuns.build(dbName, datasetName);
+
+			SortedRuns runs = SortedRuns.getRuns(datasetName);
+			System.out.println("Records : " + runs.getRecordCount() + ", runs : " + runCount + ", sorted : " + runs.isSorted());
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
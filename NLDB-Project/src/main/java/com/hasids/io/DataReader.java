@@ -17,6 +17,10 @@ package com.hasids.io;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
@@ -42,8 +46,21 @@ import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
 import org.roaringbitmap.buffer.MutableRoaringBitmap;
 
 import com.hasids.HASIDSConstants;
+import com.hasids.datastructures.BlockCheckSum;
 import com.hasids.datastructures.CheckSum;
 import com.hasids.datastructures.DataGroupingObject;
+import com.hasids.datastructures.SortedRuns;
+import com.hasids.io.dataset.DatasetSegment;
+import com.hasids.io.dataset.DeletionBitmap;
+import com.hasids.io.fact.FactAlphanFilter;
+import com.hasids.io.fact.FactCompressedSegment;
+import com.hasids.io.fact.FactTimestamp;
+import com.hasids.io.fact.FactDictionary;
+import com.hasids.io.fact.FactNullBitmap;
+import com.hasids.io.fact.FactSparseSegment;
+import com.hasids.io.fact.FactTrigramIndex;
+import com.hasids.io.fact.FactVarcharHeap;
+import com.hasids.io.fact.FactValueFilter;
 
 
 public class DataReader extends Observable implements Runnable {
@@ -58,8 +75,33 @@ public class DataReader extends Observable implements Runnable {
 	private int _encoding;
 	private int _segmentNo;
 	private int _dataLength;
+	private int _headerLength = CheckSum.FILE_CHECKSUM_LENGTH;
+	private boolean _verifyChecksums = false;
 	private int _segmentCount;
 	
+	// block compressed fact segments, _encoding holds the fixed length encoding of the values
+	private boolean _compressed = false;
+	private int _compressedEncoding = 0;
+	
+	// sparse fact segments, _encoding holds the fixed length encoding of the values
+	private boolean _sparse = false;
+	private int _sparseEncoding = 0;
+	private int _noParallelDecodeThreads = 1;
+	
+	// TIMESTAMP fact segments, block compressed LONG epoch milliseconds
+	private boolean _timestamp = false;
+	
+	// dictionary encoded ALPHAN segments, _encoding holds ALPHAN and _dataLength the code width
+	private boolean _dictionaryEncoded = false;
+	
+	// variable length ALPHAN segments, _encoding holds ALPHAN and _dataLength the slot width
+	private boolean _varLength = false;
+	
+	// DECIMAL fact segments, _encoding holds INT or LONG, the width of the scaled values, and
+	// _scale the number of decimal positions
+	private boolean _decimal = false;
+	private int _scale = 0;
+	
 	private BitSet _computedBitSet = null;
 	private long _elapsedTimeInMillis = 0L; 
 	private int _filteredCount = 0;
@@ -81,7 +123,14 @@ public class DataReader extends Observable implements Runnable {
 	private boolean _gt = false;
 	private boolean _lt = false;
 	private boolean _between = false;
+	private boolean _prefix = false;
+	private boolean _contains = false;
+	private int _datePart = 0; // FactTimestamp date part of the date part filter
+	private boolean _isNull = false;
+	private boolean _isNotNull = false;
 	private boolean _multithread = false;
+	private boolean _readDirty = false;
+	private DatasetVersions.Snapshot _snapshot = null;
 	
 	//aggregate variables
 	private long _count = 0;
@@ -148,8 +197,6 @@ public class DataReader extends Observable implements Runnable {
 			throw new Exception ("File " + datasetName + " does not exist!");
 		
 		long fileLength = f.length();
-		if (fileLength > HASIDSConstants.DIM_MAX_RECORDS + CheckSum.FILE_CHECKSUM_LENGTH)
-			throw new Exception("Size of Dimension files cannot exceed " + HASIDSConstants.DIM_MAX_RECORDS + " in the HASIDS System!");
 		
 		this._datasetName = datasetName;
 		
@@ -167,8 +214,40 @@ public class DataReader extends Observable implements Runnable {
 		int[] segmentNo = new int[1];
 		int[] datasize = new int[1];
 		short[] decimals = new short[1];
+		int[] headerLength = new int[1];
+		
+		CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
 		
-		CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo);
+		if (fileLength - headerLength[0] > HASIDSConstants.DIM_MAX_RECORDS)
+			throw new Exception("Size of Dimension files cannot exceed " + HASIDSConstants.DIM_MAX_RECORDS + " in the HASIDS System!");
+		
+		this._headerLength = headerLength[0];
+		
+		// block compressed fact segments are validated against the encoding of their values
+		if (CheckSum.isCompressedEncoding(fileType[0], encoding[0]) && fileType[0] == CheckSum.FILE_TYPE_FACT) {
+			this._compressed = true;
+			this._compressedEncoding = encoding[0];
+			this._timestamp = CheckSum.isTimestampEncoding(fileType[0], encoding[0]);
+			encoding[0] = CheckSum.getFactBaseEncoding(encoding[0]);
+		}
+		else if (CheckSum.isSparseEncoding(fileType[0], encoding[0])) {
+			this._sparse = true;
+			this._sparseEncoding = encoding[0];
+			encoding[0] = CheckSum.getFactBaseEncoding(encoding[0]);
+		}
+		else if (CheckSum.isDictionaryEncoding(fileType[0], encoding[0])) {
+			this._dictionaryEncoded = true;
+			encoding[0] = CheckSum.FACT_ENCODE_TYPE_ALPHAN;
+		}
+		else if (CheckSum.isVarLengthEncoding(fileType[0], encoding[0])) {
+			this._varLength = true;
+			encoding[0] = CheckSum.FACT_ENCODE_TYPE_ALPHAN;
+		}
+		else if (CheckSum.isDecimalEncoding(fileType[0], encoding[0])) {
+			this._decimal = true;
+			this._scale = decimals[0];
+			encoding[0] = CheckSum.getDecimalBaseEncoding(datasize[0]);
+		}
 		
 		if (fileType[0] == CheckSum.FILE_TYPE_DIM && (encoding[0] < CheckSum.DIM_ENCODE_TYPE1 || encoding[0] > CheckSum.DIM_ENCODE_TYPE3))
 			throw new Exception ("Invalid encoding type in header, Dimension datasets encoding must be >= " + 
@@ -189,12 +268,15 @@ public class DataReader extends Observable implements Runnable {
 				(encoding[0] == CheckSum.FACT_ENCODE_TYPE_FLOAT && datasize[0] != CheckSum.INT_FLOAT_LEN) ||
 				(encoding[0] == CheckSum.FACT_ENCODE_TYPE_LONG && datasize[0] != CheckSum.LONG_DOUBLE_LEN) ||
 				(encoding[0] == CheckSum.FACT_ENCODE_TYPE_DOUBLE && datasize[0] != CheckSum.LONG_DOUBLE_LEN) ||
-				(encoding[0] == CheckSum.FACT_ENCODE_TYPE_ALPHAN && datasize[0] > CheckSum.FACT_MAX_ALPHAN_LENGTH)
+				(encoding[0] == CheckSum.FACT_ENCODE_TYPE_ALPHAN && !this._varLength && datasize[0] > CheckSum.FACT_MAX_ALPHAN_LENGTH)
 				))
 			throw new Exception ("Check Sum error, encoding type and and data size do not match!");
 
 		
-		this._segmentCount = (int)(fileLength - CheckSum.FILE_CHECKSUM_LENGTH)/(datasize[0] + decimals[0]);
+		if (this._compressed || this._sparse)
+			this._segmentCount = (int)CheckSum.getRecordCount(datasetName, datasize[0]);
+		else
+			this._segmentCount = (int)(fileLength - headerLength[0])/(datasize[0] + (this._decimal ? 0 : decimals[0]));
 		if (highRange > _segmentCount)
 			this._filterHighRange = _segmentCount;
 		else
@@ -211,6 +293,76 @@ public class DataReader extends Observable implements Runnable {
 				", High Range : " + this._filterHighRange;
 	}
 	
+	/**
+	 * Constructor for creating a reader from a catalog entry, the file header is not
+	 * read and validated again
+	 * 
+	 * @param segment Catalog entry of the segment
+	 * @param lowRange
+	 * @param highRange
+	 * @throws Exception
+	 */
+	public DataReader(DatasetSegment segment, int lowRange, int highRange) throws Exception {
+		
+		if (segment == null)
+			throw new Exception ("Invalid segment!");
+		
+		if (segment.getFileType() != CheckSum.FILE_TYPE_DIM && segment.getFileType() != CheckSum.FILE_TYPE_FACT)
+			throw new Exception("Invalid file type!");
+		
+		if (lowRange <= 0 || highRange <= 0)
+			throw new Exception("Low range must be > 0 and high range must be > 0");
+		if (lowRange > highRange)
+			throw new Exception("Low range must be <= high range");
+		if (lowRange > HASIDSConstants.DIM_MAX_RECORDS || highRange > HASIDSConstants.DIM_MAX_RECORDS)
+			throw new Exception("Low range and high range must be <= " + HASIDSConstants.DIM_MAX_RECORDS);
+		
+		this._dbName = segment.getDbName();
+		this._datasetName = segment.getFileName();
+		this._filterLowRange = lowRange;
+		this._segmentCount = segment.getRecordCount();
+		
+		if (highRange > this._segmentCount)
+			this._filterHighRange = this._segmentCount;
+		else
+			this._filterHighRange = highRange;
+		
+		this._fileType = segment.getFileType();
+		this._dataLength = segment.getDataLength();
+		this._headerLength = segment.getHeaderLength();
+		this._encoding = segment.getEncoding();
+		this._segmentNo = segment.getSegmentNo();
+		
+		if (this._fileType == CheckSum.FILE_TYPE_FACT && CheckSum.isCompressedEncoding(this._fileType, this._encoding)) {
+			this._compressed = true;
+			this._compressedEncoding = this._encoding;
+			this._timestamp = CheckSum.isTimestampEncoding(this._fileType, this._encoding);
+			this._encoding = CheckSum.getFactBaseEncoding(this._encoding);
+		}
+		else if (CheckSum.isSparseEncoding(this._fileType, this._encoding)) {
+			this._sparse = true;
+			this._sparseEncoding = this._encoding;
+			this._encoding = CheckSum.getFactBaseEncoding(this._encoding);
+		}
+		else if (CheckSum.isDictionaryEncoding(this._fileType, this._encoding)) {
+			this._dictionaryEncoded = true;
+			this._encoding = CheckSum.FACT_ENCODE_TYPE_ALPHAN;
+		}
+		else if (CheckSum.isVarLengthEncoding(this._fileType, this._encoding)) {
+			this._varLength = true;
+			this._encoding = CheckSum.FACT_ENCODE_TYPE_ALPHAN;
+		}
+		else if (CheckSum.isDecimalEncoding(this._fileType, this._encoding)) {
+			this._decimal = true;
+			this._scale = segment.getDecimals();
+			this._encoding = CheckSum.getDecimalBaseEncoding(this._dataLength);
+		}
+		
+		this._classDescription = this.getClass().getName() + "//Database Name: " + this._dbName +
+				", Dataset Name : " + this._datasetName + ", Low range : " + this._filterLowRange + 
+				", High Range : " + this._filterHighRange;
+	}
+	
 	/**
 	 * Method specifically for MPP called by the wrapper
 	 * 
@@ -229,6 +381,7 @@ public class DataReader extends Observable implements Runnable {
 		
 		this._dbName = dbName;
 		this._datasetName = datasetName;
+		this._headerLength = CheckSum.getHeaderLength(datasetName);
 		this._fileType = fileType;
 		this._filterLowRange = lowRange;
 		this._filterHighRange = highRange;
@@ -236,6 +389,31 @@ public class DataReader extends Observable implements Runnable {
 		this._encoding = encoding;
 		this._segmentNo = segmentNo;
 		
+		if (fileType == CheckSum.FILE_TYPE_FACT && CheckSum.isCompressedEncoding(fileType, encoding)) {
+			this._compressed = true;
+			this._compressedEncoding = encoding;
+			this._timestamp = CheckSum.isTimestampEncoding(fileType, encoding);
+			this._encoding = CheckSum.getFactBaseEncoding(encoding);
+		}
+		else if (CheckSum.isSparseEncoding(fileType, encoding)) {
+			this._sparse = true;
+			this._sparseEncoding = encoding;
+			this._encoding = CheckSum.getFactBaseEncoding(encoding);
+		}
+		else if (CheckSum.isDictionaryEncoding(fileType, encoding)) {
+			this._dictionaryEncoded = true;
+			this._encoding = CheckSum.FACT_ENCODE_TYPE_ALPHAN;
+		}
+		else if (CheckSum.isVarLengthEncoding(fileType, encoding)) {
+			this._varLength = true;
+			this._encoding = CheckSum.FACT_ENCODE_TYPE_ALPHAN;
+		}
+		else if (CheckSum.isDecimalEncoding(fileType, encoding)) {
+			this._decimal = true;
+			this._scale = decimals;
+			this._encoding = CheckSum.getDecimalBaseEncoding(dataLength);
+		}
+		
 		this._classDescription = this.getClass().getName() + "//Database Name: " + this._dbName +
 				", Dataset Name : " + this._datasetName + ", Low range : " + this._filterLowRange + 
 				", High Range : " + this._filterHighRange;
@@ -356,10 +534,119 @@ public class DataReader extends Observable implements Runnable {
 		return this._dataLength;
 	}
 	
+	/**
+	 * Returns true if the dataset is a block compressed fact segment, in which case
+	 * getEncoding() returns the fixed length encoding of its values
+	 * 
+	 * @return
+	 */
+	public boolean isCompressed() {
+		return this._compressed;
+	}
+	
+	public int getCompressedEncoding() {
+		return this._compressedEncoding;
+	}
+	
+	/**
+	 * Returns true if the dataset is a sparse fact segment, in which case getEncoding()
+	 * returns the fixed length encoding of its values
+	 * 
+	 * @return
+	 */
+	public boolean isSparse() {
+		return this._sparse;
+	}
+	
+	public int getSparseEncoding() {
+		return this._sparseEncoding;
+	}
+	
+	/**
+	 * Returns true if the dataset is a TIMESTAMP fact segment, in which case getEncoding()
+	 * returns LONG, the encoding of the epoch milliseconds
+	 * 
+	 * @return
+	 */
+	public boolean isTimestamp() {
+		return this._timestamp;
+	}
+	
+	/**
+	 * Returns true if the dataset is a dictionary encoded ALPHAN fact segment, in which case
+	 * getEncoding() returns ALPHAN and the data length is the width of the codes
+	 * 
+	 * @return
+	 */
+	public boolean isDictionaryEncoded() {
+		return this._dictionaryEncoded;
+	}
+	
+	/**
+	 * Returns true if the dataset is a variable length ALPHAN fact segment, in which case
+	 * getEncoding() returns ALPHAN and the data length is the width of the slots
+	 * 
+	 * @return
+	 */
+	public boolean isVarLength() {
+		return this._varLength;
+	}
+	
+	/**
+	 * Returns true if the dataset is a DECIMAL fact segment, in which case getEncoding()
+	 * returns INT or LONG, the encoding of the values scaled by 10^getScale()
+	 * 
+	 * @return
+	 */
+	public boolean isDecimal() {
+		return this._decimal;
+	}
+	
+	public int getScale() {
+		return this._scale;
+	}
+	
+	/**
+	 * Sets the number of threads decoding the blocks of a compressed fact segment in parallel
+	 * within a single read. Defaults to 1, readers executed by a wrapper in parallel should
+	 * leave it at 1.
+	 * 
+	 * @param noParallelDecodeThreads
+	 * @throws Exception
+	 */
+	public void setParallelDecodeThreads(int noParallelDecodeThreads) throws Exception {
+		if (noParallelDecodeThreads <= 0)
+			throw new Exception ("Number of parallel decode threads must be > 0");
+		
+		this._noParallelDecodeThreads = noParallelDecodeThreads;
+	}
+	
+	public int getParallelDecodeThreads() {
+		return this._noParallelDecodeThreads;
+	}
+	
 	public String getClassDescription () {
 		return this._classDescription;
 	}
 	
+	public void readDirty() {
+		this._readDirty = true;
+	}
+	
+	public void readCommited() {
+		this._readDirty = false;
+	}
+	
+	/**
+	 * Sets the version of the dataset read when the version is pinned by the caller, so that the
+	 * readers of several datasets see the same row batches. The caller releases it.
+	 * 
+	 * @param snapshot Version pinned by the caller
+	 */
+	public void setSnapshot(DatasetVersions.Snapshot snapshot) {
+		this._snapshot = snapshot;
+	}
+	
 	/**
 	 * Set an array of characters as filters for data read operations.
 	 * 
@@ -502,14 +789,99 @@ public class DataReader extends Observable implements Runnable {
 		}
 		
 		
+		// the data length of a dictionary encoded or variable length segment is the width of
+		// its codes or slots
+		int maxLength = (this._dictionaryEncoded ? CheckSum.FACT_MAX_ALPHAN_LENGTH : 
+			(this._varLength ? CheckSum.FACT_MAX_VARCHAR_LENGTH : this._dataLength));
 		for(int i = 0; i < c.length; i++)
-			if (c[i].getBytes().length > this._dataLength)
+			if (c[i].getBytes().length > maxLength)
 				throw new Exception("Data length of filter exceeds field data length!");
 		
 		this._filter = c;
 		this._not = not;
 	}
 	
+	/**
+	 * Set the prefixes to get all record ids whose ALPHAN value starts with one of them,
+	 * LIKE 'abc%'
+	 * 
+	 * @param c Prefixes
+	 * @param not Get the record ids not starting with any of the prefixes
+	 */
+	protected void setPREFIXFilter(String[] c, boolean not) throws Exception {
+		if (this._encoding != CheckSum.FACT_ENCODE_TYPE_ALPHAN)
+			throw new Exception ("Mismatch between filter type and encoding type");
+
+		if (c == null || c.length <= 0)
+			throw new Exception("Null filter received!");
+		
+		this._filter = c;
+		this._not = not;
+		this._prefix = true;
+	}
+	
+	/**
+	 * Set the patterns to get all record ids whose ALPHAN value contains one of them,
+	 * LIKE '%abc%'
+	 * 
+	 * @param c Patterns
+	 * @param not Get the record ids not containing any of the patterns
+	 */
+	protected void setCONTAINSFilter(String[] c, boolean not) throws Exception {
+		if (this._encoding != CheckSum.FACT_ENCODE_TYPE_ALPHAN)
+			throw new Exception ("Mismatch between filter type and encoding type");
+
+		if (c == null || c.length <= 0)
+			throw new Exception("Null filter received!");
+		
+		this._filter = c;
+		this._not = not;
+		this._contains = true;
+	}
+	
+	/**
+	 * Set the values of a date part to get all record ids of a TIMESTAMP segment whose date
+	 * part is one of them, the date part is computed for each value within the scan
+	 * 
+	 * @param datePart FactTimestamp.PART_YEAR, PART_MONTH, PART_DAY, PART_HOUR or PART_DAY_OF_WEEK
+	 * @param c Values of the date part
+	 * @param not Get the record ids whose date part is not one of the values, null values never match
+	 */
+	protected void setDatePartFilter(int datePart, int[] c, boolean not) throws Exception {
+		if (!this._timestamp)
+			throw new Exception ("Mismatch between filter type and encoding type");
+		
+		if (c == null || c.length <= 0)
+			throw new Exception("Null filter received!");
+		
+		FactTimestamp.checkPart(datePart);
+		
+		this._filter = c;
+		this._not = not;
+		this._datePart = datePart;
+	}
+	
+	/**
+	 * Set the filter to get all record ids whose value is null, the null values of the
+	 * encoding for facts and 0 for dimensions. Takes precedence over the value filters set.
+	 * Fact segments with a current null bitmap are answered from the bitmap without reading
+	 * the values.
+	 */
+	public void setISNULLFilter() {
+		this._isNull = true;
+		this._isNotNull = false;
+	}
+	
+	/**
+	 * Set the filter to get all record ids whose value is not null. Takes precedence over the
+	 * value filters set. Fact segments with a current null bitmap are answered from the bitmap
+	 * without reading the values.
+	 */
+	public void setISNOTNULLFilter() {
+		this._isNull = false;
+		this._isNotNull = true;
+	}
+	
 	/**
 	 * Set the character to get all record ids greater than the set character
 	 * 
@@ -821,6 +1193,53 @@ public class DataReader extends Observable implements Runnable {
 				high = positions[i];
 		}
 		
+		// values changed after the pinned version are undone
+		ImmutableRoaringBitmap deleted = DeletionBitmap.getDeleted(this._datasetName);
+		boolean versioned = (!this._readDirty && this.isVersioned(true));
+		DatasetVersions.Snapshot snapshot = (versioned ? this._snapshot : null);
+		boolean pinned = (versioned && snapshot == null);
+		if (pinned)
+			snapshot = DatasetVersions.pin(this._dbName, this._datasetName);
+		try {
+			Object values = this.readValues(positions, low, high);
+			
+			DatasetVersions.Undo undo = (snapshot == null ? null : snapshot.getUndo(low - 1, high - 1));
+			if (undo != null)
+				this.undoValues(values, positions, undo);
+			
+			if (deleted != null)
+				this.deleteValues(values, positions, deleted);
+			
+			return values;
+		}
+		finally {
+			if (pinned)
+				snapshot.release();
+		}
+	}
+	
+	/**
+	 * Reads the values of the positions from the dataset
+	 * 
+	 * @param positions Positions, 1 based
+	 * @param low Lowest position
+	 * @param high Highest position
+	 * @return Array of the values of the encoding in the order of the input positions
+	 * @throws Exception
+	 */
+	private Object readValues(int[] positions, int low, int high) throws Exception {
+		if (this._compressed)
+			return this.readValuesCompressed(positions);
+		
+		if (this._sparse)
+			return this.readValuesSparse(positions);
+		
+		if (this._dictionaryEncoded)
+			return this.readValuesDictionary(positions, low, high);
+		
+		if (this._varLength)
+			return this.readValuesVarchar(positions, low, high);
+		
 		if ((this._fileType == CheckSum.FILE_TYPE_DIM && this._encoding == CheckSum.DIM_ENCODE_TYPE1) ||
 				(this._fileType == CheckSum.FILE_TYPE_FACT && this._encoding == CheckSum.FACT_ENCODE_TYPE_BYTE))
 			
@@ -856,6 +1275,89 @@ public class DataReader extends Observable implements Runnable {
 			
 	}
 	
+	/**
+	 * Replaces the values read with the values of the positions at a pinned version
+	 * 
+	 * @param values Values read, in the order of the input positions
+	 * @param positions Positions, 1 based
+	 * @param undo Values of the positions changed after the version
+	 * @throws Exception
+	 */
+	private void undoValues(Object values, int[] positions, DatasetVersions.Undo undo) throws Exception {
+		for (int i = 0; i < positions.length; i++) {
+			int j = undo.indexOf(positions[i] - 1);
+			if (j < 0)
+				continue;
+			
+			if (values instanceof byte[])
+				((byte[]) values)[i] = (byte) undo.getLong(j);
+			else if (values instanceof short[])
+				((short[]) values)[i] = (short) undo.getLong(j);
+			else if (values instanceof int[])
+				((int[]) values)[i] = (int) undo.getLong(j);
+			else if (values instanceof long[])
+				((long[]) values)[i] = undo.getLong(j);
+			else if (values instanceof float[])
+				((float[]) values)[i] = (float) undo.getDouble(j);
+			else if (values instanceof double[])
+				((double[]) values)[i] = undo.getDouble(j);
+			else if (values instanceof String[]) {
+				// the first byte of an ALPHAN record is the length of the value
+				byte[] b = undo.getBytes(j);
+				((String[]) values)[i] = new String(b, 1, Math.min(b[0] & 0xFF, b.length - 1), "UTF-8");
+			}
+		}
+	}
+	
+	/**
+	 * Replaces the values of the deleted positions with the null value of the encoding
+	 * 
+	 * @param values Values read, in the order of the input positions
+	 * @param positions Positions, 1 based
+	 * @param deleted Deleted positions, 0 based
+	 */
+	private void deleteValues(Object values, int[] positions, ImmutableRoaringBitmap deleted) {
+		boolean dim = (this._fileType == CheckSum.FILE_TYPE_DIM);
+		for (int i = 0; i < positions.length; i++) {
+			if (!deleted.contains(positions[i] - 1))
+				continue;
+			
+			if (values instanceof byte[])
+				((byte[]) values)[i] = (dim ? 0 : Byte.MIN_VALUE);
+			else if (values instanceof short[])
+				((short[]) values)[i] = (dim ? 0 : Short.MIN_VALUE);
+			else if (values instanceof int[])
+				((int[]) values)[i] = (dim ? 0 : Integer.MIN_VALUE);
+			else if (values instanceof long[])
+				((long[]) values)[i] = Long.MIN_VALUE;
+			else if (values instanceof float[])
+				((float[]) values)[i] = Float.MIN_VALUE;
+			else if (values instanceof double[])
+				((double[]) values)[i] = Double.MIN_VALUE;
+			else if (values instanceof String[])
+				((String[]) values)[i] = "";
+		}
+	}
+	
+	/**
+	 * Returns true if the records of the dataset are fixed length values that are undone to the
+	 * version pinned by a read. Compressed, sparse, dictionary encoded and variable length
+	 * segments are not updated in place and are read as they are.
+	 * 
+	 * @param alphan true if ALPHAN values are undone
+	 * @return true if the records are undone to the pinned version
+	 */
+	private boolean isVersioned(boolean alphan) {
+		if (this._compressed || this._sparse || this._dictionaryEncoded || this._varLength)
+			return false;
+		
+		if (this._fileType != CheckSum.FILE_TYPE_FACT)
+			return false;
+		
+		return (this._encoding >= CheckSum.FACT_ENCODE_TYPE_BYTE && this._encoding <= CheckSum.FACT_ENCODE_TYPE_DOUBLE) ||
+				(alphan && this._encoding == CheckSum.FACT_ENCODE_TYPE_ALPHAN);
+	}
+	
 	private void computeRunningStats(double value) {
 		// count
 		++this._count;
@@ -903,14 +1405,18 @@ public class DataReader extends Observable implements Runnable {
             int mapSize = (high - low + 1) * this._dataLength;
             
             // Map the file into memory
-            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (low - 1) * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH, mapSize);
+            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (low - 1) * this._dataLength + this._headerLength, mapSize);
+            
+            // verify the block checksums of the mapped range
+            if (this._verifyChecksums)
+            	BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(low - 1) * this._dataLength, mapSize);
             
             // set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
             buffer.order(ByteOrder.LITTLE_ENDIAN);
             
             // read the file with the input positions
             for (int i = 0; i < positions.length; i++) {
-            	values[i] = buffer.get(positions[i] - 1);// zero offset adjustment
+            	values[i] = buffer.get(positions[i] - low);// zero offset adjustment
          
             	// compute stats
             	this.computeRunningStats(values[i]);
@@ -965,14 +1471,18 @@ public class DataReader extends Observable implements Runnable {
             int mapSize = (high - low + 1) * this._dataLength;
             
             // Map the file into memory
-            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (low - 1) * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH, mapSize);
+            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (low - 1) * this._dataLength + this._headerLength, mapSize);
+            
+            // verify the block checksums of the mapped range
+            if (this._verifyChecksums)
+            	BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(low - 1) * this._dataLength, mapSize);
             
             // set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
             buffer.order(ByteOrder.LITTLE_ENDIAN);
             
             // read the file with the input positions
             for (int i = 0; i < positions.length; i++) {
-            	values[i] = buffer.getShort((positions[i] - 1) * this._dataLength);
+            	values[i] = buffer.getShort((positions[i] - low) * this._dataLength);
             }
             
             
@@ -1021,14 +1531,18 @@ public class DataReader extends Observable implements Runnable {
             int mapSize = (high - low + 1) * this._dataLength;
             
             // Map the file into memory
-            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (low - 1) * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH, mapSize);
+            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (low - 1) * this._dataLength + this._headerLength, mapSize);
+            
+            // verify the block checksums of the mapped range
+            if (this._verifyChecksums)
+            	BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(low - 1) * this._dataLength, mapSize);
             
             // set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
             buffer.order(ByteOrder.LITTLE_ENDIAN);
             
             // read the file with the input positions
             for (int i = 0; i < positions.length; i++) {
-            	values[i] = buffer.getInt((positions[i] - 1) * this._dataLength);
+            	values[i] = buffer.getInt((positions[i] - low) * this._dataLength);
             }
             
             
@@ -1078,14 +1592,18 @@ public class DataReader extends Observable implements Runnable {
             int mapSize = (high - low + 1) * this._dataLength;
             
             // Map the file into memory
-            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (low - 1) * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH, mapSize);
+            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (low - 1) * this._dataLength + this._headerLength, mapSize);
+            
+            // verify the block checksums of the mapped range
+            if (this._verifyChecksums)
+            	BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(low - 1) * this._dataLength, mapSize);
             
             // set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
             buffer.order(ByteOrder.LITTLE_ENDIAN);
             
             // read the file with the input positions
             for (int i = 0; i < positions.length; i++) {
-            	values[i] = buffer.getFloat((positions[i] - 1) * this._dataLength);
+            	values[i] = buffer.getFloat((positions[i] - low) * this._dataLength);
             }
             
             
@@ -1134,14 +1652,18 @@ public class DataReader extends Observable implements Runnable {
             int mapSize = (high - low + 1) * this._dataLength;
             
             // Map the file into memory
-            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (low - 1) * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH, mapSize);
+            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (low - 1) * this._dataLength + this._headerLength, mapSize);
+            
+            // verify the block checksums of the mapped range
+            if (this._verifyChecksums)
+            	BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(low - 1) * this._dataLength, mapSize);
             
             // set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
             buffer.order(ByteOrder.LITTLE_ENDIAN);
             
             // read the file with the input positions
             for (int i = 0; i < positions.length; i++) {
-            	values[i] = (int)buffer.getFloat((positions[i] - 1) * this._dataLength);
+            	values[i] = (int)buffer.getFloat((positions[i] - low) * this._dataLength);
             }
             
             
@@ -1238,6 +1760,8 @@ public class DataReader extends Observable implements Runnable {
 				DataReaderCastGroupingThread drt = new DataReaderCastGroupingThread (
 						this._dbName, this._datasetName, ranges[i][0], ranges[i][1], this._encoding, 
 						this._dataLength,  HASIDSConstants.CAST_TYPE_FLOAT_TO_INT);
+				drt._headerLength = this._headerLength;
+				drt._verifyChecksums = this._verifyChecksums;
 				
 				Thread t = new Thread(tg, drt);
 				al.add(drt);
@@ -1370,6 +1894,8 @@ public class DataReader extends Observable implements Runnable {
 				DataReaderCastGroupingThread drt = new DataReaderCastGroupingThread (
 						this._dbName, this._datasetName, ranges[i][0], ranges[i][1], this._encoding, 
 						this._dataLength,  HASIDSConstants.CAST_TYPE_FLOAT_TO_INT, values);
+				drt._headerLength = this._headerLength;
+				drt._verifyChecksums = this._verifyChecksums;
 				
 				Thread t = new Thread(tg, drt);
 				al.add(drt);
@@ -1437,14 +1963,18 @@ public class DataReader extends Observable implements Runnable {
             int mapSize = (high - low + 1) * this._dataLength;
             
             // Map the file into memory
-            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (low - 1) * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH, mapSize);
+            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (low - 1) * this._dataLength + this._headerLength, mapSize);
+            
+            // verify the block checksums of the mapped range
+            if (this._verifyChecksums)
+            	BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(low - 1) * this._dataLength, mapSize);
             
             // set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
             buffer.order(ByteOrder.LITTLE_ENDIAN);
             
             // read the file with the input positions
             for (int i = 0; i < positions.length; i++) {
-            	values[i] = buffer.getLong((positions[i] - 1) * this._dataLength);
+            	values[i] = buffer.getLong((positions[i] - low) * this._dataLength);
             }
             
             
@@ -1493,14 +2023,18 @@ public class DataReader extends Observable implements Runnable {
             int mapSize = (high - low + 1) * this._dataLength;
             
             // Map the file into memory
-            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (low - 1) * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH, mapSize);
+            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (low - 1) * this._dataLength + this._headerLength, mapSize);
+            
+            // verify the block checksums of the mapped range
+            if (this._verifyChecksums)
+            	BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(low - 1) * this._dataLength, mapSize);
             
             // set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
             buffer.order(ByteOrder.LITTLE_ENDIAN);
             
             // read the file with the input positions
             for (int i = 0; i < positions.length; i++) {
-            	values[i] = buffer.getDouble((positions[i] - 1) * this._dataLength);
+            	values[i] = buffer.getDouble((positions[i] - low) * this._dataLength);
             }
             
             
@@ -1549,14 +2083,18 @@ public class DataReader extends Observable implements Runnable {
             int mapSize = (high - low + 1) * this._dataLength;
             
             // Map the file into memory
-            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (low - 1) * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH, mapSize);
+            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (low - 1) * this._dataLength + this._headerLength, mapSize);
+            
+            // verify the block checksums of the mapped range
+            if (this._verifyChecksums)
+            	BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(low - 1) * this._dataLength, mapSize);
             
             // set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
             buffer.order(ByteOrder.LITTLE_ENDIAN);
             
             // read the file with the input positions
             for (int i = 0; i < positions.length; i++) {
-            	values[i] = (long)buffer.getDouble((positions[i] - 1) * this._dataLength);
+            	values[i] = (long)buffer.getDouble((positions[i] - low) * this._dataLength);
             }
             
             
@@ -1605,14 +2143,18 @@ public class DataReader extends Observable implements Runnable {
             int mapSize = (high - low + 1) * this._dataLength;
             
             // Map the file into memory
-            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (low - 1) * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH, mapSize);
+            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (low - 1) * this._dataLength + this._headerLength, mapSize);
+            
+            // verify the block checksums of the mapped range
+            if (this._verifyChecksums)
+            	BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(low - 1) * this._dataLength, mapSize);
             
             // set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
             buffer.order(ByteOrder.LITTLE_ENDIAN);
             
             // read the file with the input positions
             for (int i = 0; i < positions.length; i++) {
-            	values[i] = (int)buffer.getDouble((positions[i] - 1) * this._dataLength);
+            	values[i] = (int)buffer.getDouble((positions[i] - low) * this._dataLength);
             }
             
             
@@ -1662,12 +2204,16 @@ public class DataReader extends Observable implements Runnable {
             int dataLen = 0;
             byte[] b = null;
             // Map the file into memory
-            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (low - 1) * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH, mapSize);
+            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (low - 1) * this._dataLength + this._headerLength, mapSize);
+            
+            // verify the block checksums of the mapped range
+            if (this._verifyChecksums)
+            	BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(low - 1) * this._dataLength, mapSize);
             
             // read the file with the input positions
             for (int i = 0; i < positions.length; i++) {
             	// set the buffer position
-            	buffer.position((positions[i] - 1) * this._dataLength);
+            	buffer.position((positions[i] - low) * this._dataLength);
             	// get the actual data length of each string value; the first byte in the data length 
             	// is a byte containing the length of the actual data
                 dataLen = buffer.get();
@@ -1764,6 +2310,21 @@ public class DataReader extends Observable implements Runnable {
 		return retVal;
 	}
 	
+	/**
+	 * Method to enable the verification of the block checksums of the data read. When
+	 * enabled, every mapped range is checked against the block checksum file (if the dataset
+	 * has one) before it is read and a mismatch fails the read.
+	 * 
+	 * @param verifyChecksums
+	 */
+	public void setVerifyChecksums(boolean verifyChecksums) {
+		this._verifyChecksums = verifyChecksums;
+	}
+	
+	public boolean getVerifyChecksums() {
+		return this._verifyChecksums;
+	}
+	
 	/**
 	 * Method to set the BitSet into which matching record ids are set
 	 * 
@@ -1898,29 +2459,6 @@ public class DataReader extends Observable implements Runnable {
 					_computedBitSet.set((int)(i + offset));
 			}
 		}
-		else if (this._fileType == CheckSum.FILE_TYPE_FACT && this._encoding == CheckSum.FACT_ENCODE_TYPE_ALPHAN) {
-			int dataLen;
-			for (int i = 0; i < count; i++) {
-		    	
-				buffer.position(i * this._dataLength);
-				dataLen = buffer.get();
-				
-				if (dataLen != 0)
-					_computedBitSet.set((int)(i + offset));
-			}
-		}
-		
-    	// get any locked original records
-    	/*Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-    	Enumeration<Integer> e = h.keys();
-    	int key = -1;
-    	while (e.hasMoreElements()) {
-    		key = e.nextElement();
-    		if (key >= this._filterLowRange && key <= this._filterHighRange && h.get(key) != 0)
-    			_computedBitSet.set(key + offset);
-    		else
-    			_computedBitSet.set(key + offset, false);
-    	}*/
 	}
 		
 	/**
@@ -2044,81 +2582,6 @@ public class DataReader extends Observable implements Runnable {
 					}
 			}
 		}
-		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_ALPHAN) {
-			// convert the filter strings into byte streams
-			String[] filter = (String[]) this._filter;
-			int noFilters = filter.length;
-			byte[][] byteFilter = new byte[noFilters][];
-			int[] byteFilterLength = new int[noFilters];
-			for (int i = 0; i < noFilters; i++) {
-				// get the bytes; we will always do a byte comparison for alphanumeric
-				byteFilter[i] = filter[i].getBytes();
-				byteFilterLength[i] = byteFilter[i].length;
-			}
-			
-			// set the byte length which will be read to one byte more than the filter
-			// if the last byte is not null, then the retrieved value from buffer
-			// will not match any of our filters and hence we can skip further
-			// checks.
-			byte[] b = null;
-			int currLength = 0;
-			for (int i = 0; i < count; i++) {
-	    		
-				// set the position of the buffer
-				buffer.position(i * this._dataLength);
-				b = null; // reset the buffer
-				
-				// read bytes into the buffer
-				currLength = buffer.get();
-				if (currLength < 0)
-					currLength = currLength + 256;
-    		
-				// check if the data length exceeds the max filter length
-				if (currLength > 0) { // if data in file is not null
-					
-					// now check each of the filters against the read value
-					for (int j = 0; j < noFilters; j++) {
-						if (currLength == byteFilterLength[j]) { // length of the filter matches
-							if (b == null) { // if the data buffer is null, which means we have not read data from file yet
-								b = new byte[currLength]; // create a new buffer
-								buffer.get(b); // load the buffer
-							}
-							
-							// now check if the first and last bytes match before we check for the rest
-							if ((currLength == 1 && b[0] ==  byteFilter[j][0]) ||
-									(currLength == 2 && b[0] ==  byteFilter[j][0] && b[1] == byteFilter[j][1])) { 
-								_computedBitSet.set((int)(i + offset));
-								break; // get out of the for loop
-							}
-							else if(currLength > 2 && b[0] ==  byteFilter[j][0] && b[currLength - 1] == byteFilter[j][currLength - 1]) {
-								// first and last byte have matched
-								if (Arrays.equals(b, byteFilter[j])) {
-									_computedBitSet.set((int)(i + offset));
-									break; // get out of the for loop
-								}
-									
-							}
-						}
-					}
-				}
-			}
-		}
-		
-		// get any locked original records
-    	/*Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-    	Enumeration<Integer> e = h.keys();
-    	int key = -1;
-    	while (e.hasMoreElements()) {
-    		key = e.nextElement();
-    		if (key >= this._filterLowRange && key <= this._filterHighRange) {
-    			read = h.get(key);
-    			for (int j = 0; j < this._filter.length; j++)
-    				if (read == this._filter[j])
-    					_computedBitSet.set(key + offset);
-    				else
-    					_computedBitSet.set(key + offset, false);
-    		}
-    	}*/
 	}
 	
 	/**
@@ -2215,72 +2678,6 @@ public class DataReader extends Observable implements Runnable {
 					_computedBitSet.set((int)(i + offset));
 			}
 		}
-		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_ALPHAN) {
-			// convert the filter strings into byte streams
-			String[] filter = (String[]) this._filter;
-			int noFilters = filter.length;
-			byte[][] byteFilter = new byte[noFilters][];
-			for (int i = 0; i < noFilters; i++) {
-				// get the bytes; we will always do a byte comparison for alphanumeric
-				byteFilter[i] = filter[i].getBytes();
-			}
-			
-			// set the byte length which will be read to one byte more than the filter
-			// if the last byte is not null, then the retrieved value from buffer
-			// will not match any of our filters and hence we can skip further
-			// checks.
-			byte[] b = null;
-			int currLength = 0;
-			for (int i = 0; i < count; i++) {
-	    		
-				// set the position of the buffer
-				buffer.position(i * this._dataLength);
-				b = null; // reset the buffer
-				
-				// read bytes into the buffer
-				currLength = buffer.get();
-				if (currLength < 0)
-					currLength = currLength + 256;
-    		
-				// check if the data length exceeds the max filter length
-				if (currLength > 0) { // if data in file is not null
-					
-					// now check each of the filters against the read value
-					if (currLength == byteFilter[0].length) { // length of the filter matches
-						if (b == null) { // if the data buffer is null, which means we have not read data from file yet
-							b = new byte[currLength]; // create a new buffer
-							buffer.get(b); // load the buffer
-						}
-							
-						// now check if the first and last bytes match before we check for the rest
-						if ((currLength == 1 && b[0] ==  byteFilter[0][0]) ||
-								(currLength == 2 && b[0] ==  byteFilter[0][0] && b[1] == byteFilter[0][1])) { 
-							_computedBitSet.set((int)(i + offset));
-							break; // get out of the for loop
-						}
-						else if(currLength > 2 && b[0] ==  byteFilter[0][0] && b[currLength - 1] == byteFilter[0][currLength - 1]) {
-							// first and last byte have matched
-							if (Arrays.equals(b, byteFilter[0])) {
-								_computedBitSet.set((int)(i + offset));
-								break; // get out of the for loop
-							}		
-						}
-					}
-				}
-			}
-		}
-		
-		// get any locked original records
-    	/*Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-    	Enumeration<Integer> e = h.keys();
-    	int key = -1;
-    	while (e.hasMoreElements()) {
-    		key = e.nextElement();
-    		if (key >= this._filterLowRange && key <= this._filterHighRange && h.get(key) == _filter[0])
-    			_computedBitSet.set(key + offset);
-    		else
-    			_computedBitSet.set(key + offset, false);
-    	}*/
 	}
 	
 	/**
@@ -2370,67 +2767,6 @@ public class DataReader extends Observable implements Runnable {
 					_computedBitSet.set((int)(i + offset));
 			}
 		}
-		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_ALPHAN) { // four bytes
-			// convert the filter strings into byte streams
-			String filter = (String) this._gtFilter;
-			byte[] compare = new byte[filter.length()];
-			int compareLength = compare.length;
-						
-			// set the byte length which will be read to one byte more than the filter
-			// if the last byte is not null, then the retrieved value from buffer
-			// will not match any of our filters and hence we can skip further
-			// checks.
-			byte[] b = null;
-			int currLength = 0;
-			int chkLen = 0;
-			boolean found = false;
-			int j = 0;
-			for (int i = 0; i < count; i++) {
-				// reset boolean
-				found = false;    		
-				// set the position of the buffer
-				buffer.position(i * this._dataLength);
-				b = null; // reset the buffer
-							
-				// read bytes into the buffer
-				currLength = buffer.get();
-				if (currLength < 0)
-					currLength = currLength + 256;
-			    		
-				// check if the data length exceeds the max filter length
-				if (currLength > 0) { // if data in file is not null
-					b = new byte[currLength]; // create a new buffer
-					buffer.get(b);
-					chkLen = (currLength > compareLength ? compareLength : currLength);
-					for (j = 0; j < chkLen; j++) {
-						if (b[j] == compare[j])
-							continue;
-						else if (b[j] < compare[j])
-							break;
-						else {
-							found = true;
-							_computedBitSet.set((int)(i + offset));
-							break;
-						}
-					}
-					
-					if (found == false && j == chkLen && currLength > compareLength)
-						_computedBitSet.set((int)(i + offset));
-				}	
-			}
-		}
-		
-		// get any locked original records
-    	/*Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-    	Enumeration<Integer> e = h.keys();
-    	int key = -1;
-    	while (e.hasMoreElements()) {
-    		key = e.nextElement();
-    		if (key >= this._filterLowRange && key <= this._filterHighRange && h.get(key) > _gtFilter)
-    			_computedBitSet.set(key + offset);
-    		else
-    			_computedBitSet.set(key + offset, false);
-    	}*/
 	}
 	
 	private void readDataGTEQ(MappedByteBuffer buffer, boolean multi) {
@@ -2514,67 +2850,6 @@ public class DataReader extends Observable implements Runnable {
 					_computedBitSet.set((int)(i + offset));
 			}
 		}
-		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_ALPHAN) { // four bytes
-			// convert the filter strings into byte streams
-			String filter = (String) this._gtFilter;
-			byte[] compare = new byte[filter.length()];
-			int compareLength = compare.length;
-						
-			// set the byte length which will be read to one byte more than the filter
-			// if the last byte is not null, then the retrieved value from buffer
-			// will not match any of our filters and hence we can skip further
-			// checks.
-			byte[] b = null;
-			int currLength = 0;
-			int chkLen = 0;
-			boolean found = false;
-			int j = 0;
-			for (int i = 0; i < count; i++) {
-				// reset boolean
-				found = false;    		
-				// set the position of the buffer
-				buffer.position(i * this._dataLength);
-				b = null; // reset the buffer
-							
-				// read bytes into the buffer
-				currLength = buffer.get();
-				if (currLength < 0)
-					currLength = currLength + 256;
-			    		
-				// check if the data length exceeds the max filter length
-				if (currLength > 0) { // if data in file is not null
-					b = new byte[currLength]; // create a new buffer
-					buffer.get(b);
-					chkLen = (currLength > compareLength ? compareLength : currLength);
-					for (j = 0; j < chkLen; j++) {
-						if (b[j] == compare[j])
-							continue;
-						else if (b[j] < compare[j])
-							break;
-						else {
-							found = true;
-							_computedBitSet.set((int)(i + offset));
-							break;
-						}
-					}
-					
-					if (found == false && j == chkLen && currLength >= compareLength)
-						_computedBitSet.set((int)(i + offset));
-				}	
-			}
-		}
-		
-		// get any locked original records
-    	/*Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-    	Enumeration<Integer> e = h.keys();
-    	int key = -1;
-    	while (e.hasMoreElements()) {
-    		key = e.nextElement();
-    		if (key >= this._filterLowRange && key <= this._filterHighRange && h.get(key) > _gtFilter)
-    			_computedBitSet.set(key + offset);
-    		else
-    			_computedBitSet.set(key + offset, false);
-    	}*/
 	}
 	
 	private void readDataLT(MappedByteBuffer buffer, boolean multi) {
@@ -2588,7 +2863,7 @@ public class DataReader extends Observable implements Runnable {
 		
 		if (this._dataLength == 1 && (this._encoding == CheckSum.DIM_ENCODE_TYPE1 || this._encoding == CheckSum.FACT_ENCODE_TYPE_BYTE)) { // single byte
 			byte read;
-			byte compare = (Byte)_gtFilter;
+			byte compare = (Byte)_ltFilter;
 			for (int i = 0; i < count; i++) {
     		
 				// read each character byte
@@ -2600,7 +2875,7 @@ public class DataReader extends Observable implements Runnable {
 		}
 		else if (this._dataLength == 2 && (this._encoding == CheckSum.DIM_ENCODE_TYPE2 || this._encoding == CheckSum.FACT_ENCODE_TYPE_SHORT)) { // double byte
 			short read;
-			short compare = (Short)_gtFilter;
+			short compare = (Short)_ltFilter;
 			for (int i = 0; i < count; i++) {
 	    		
 				// read each character byte
@@ -2612,7 +2887,7 @@ public class DataReader extends Observable implements Runnable {
 		}
 		else if (this._dataLength == 4 && (this._encoding == CheckSum.DIM_ENCODE_TYPE3 || this._encoding == CheckSum.FACT_ENCODE_TYPE_INT)) { // four bytes
 			int read;
-			int compare = (Integer)_gtFilter;
+			int compare = (Integer)_ltFilter;
 			for (int i = 0; i < count; i++) {
 	    		
 				// read each character byte
@@ -2624,7 +2899,7 @@ public class DataReader extends Observable implements Runnable {
 		}
 		else if (this._dataLength == 4 && this._encoding == CheckSum.FACT_ENCODE_TYPE_FLOAT) { // four bytes
 			float read;
-			float compare = (Float)_gtFilter;
+			float compare = (Float)_ltFilter;
 			for (int i = 0; i < count; i++) {
 	    		
 				// read each character byte
@@ -2636,7 +2911,7 @@ public class DataReader extends Observable implements Runnable {
 		}
 		else if (this._dataLength == 8 && this._encoding == CheckSum.FACT_ENCODE_TYPE_LONG) { // four bytes
 			long read;
-			long compare = (Long)_gtFilter;
+			long compare = (Long)_ltFilter;
 			for (int i = 0; i < count; i++) {
 	    		
 				// read each character byte
@@ -2648,7 +2923,7 @@ public class DataReader extends Observable implements Runnable {
 		}
 		else if (this._dataLength == 8 && this._encoding == CheckSum.FACT_ENCODE_TYPE_DOUBLE) { // four bytes
 			double read;
-			double compare = (Double)_gtFilter;
+			double compare = (Double)_ltFilter;
 			for (int i = 0; i < count; i++) {
 	    		
 				// read each character byte
@@ -2658,67 +2933,6 @@ public class DataReader extends Observable implements Runnable {
 					_computedBitSet.set((int)(i + offset));
 			}
 		}
-		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_ALPHAN) { // four bytes
-			// convert the filter strings into byte streams
-			String filter = (String) this._gtFilter;
-			byte[] compare = new byte[filter.length()];
-			int compareLength = compare.length;
-						
-			// set the byte length which will be read to one byte more than the filter
-			// if the last byte is not null, then the retrieved value from buffer
-			// will not match any of our filters and hence we can skip further
-			// checks.
-			byte[] b = null;
-			int currLength = 0;
-			int chkLen = 0;
-			boolean found = false;
-			int j = 0;
-			for (int i = 0; i < count; i++) {
-				// reset boolean
-				found = false;    		
-				// set the position of the buffer
-				buffer.position(i * this._dataLength);
-				b = null; // reset the buffer
-							
-				// read bytes into the buffer
-				currLength = buffer.get();
-				if (currLength < 0)
-					currLength = currLength + 256;
-			    		
-				// check if the data length exceeds the max filter length
-				if (currLength > 0) { // if data in file is not null
-					b = new byte[currLength]; // create a new buffer
-					buffer.get(b);
-					chkLen = (currLength > compareLength ? compareLength : currLength);
-					for (j = 0; j < chkLen; j++) {
-						if (b[j] == compare[j])
-							continue;
-						else if (b[j] > compare[j])
-							break;
-						else {
-							found = true;
-							_computedBitSet.set((int)(i + offset));
-							break;
-						}
-					}
-					
-					if (found == false && j == chkLen && currLength < compareLength)
-						_computedBitSet.set((int)(i + offset));
-				}	
-			}
-		}
-		
-		// get any locked original records
-    	/*Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-    	Enumeration<Integer> e = h.keys();
-    	int key = -1;
-    	while (e.hasMoreElements()) {
-    		key = e.nextElement();
-    		if (key >= this._filterLowRange && key <= this._filterHighRange && h.get(key) > _gtFilter)
-    			_computedBitSet.set(key + offset);
-    		else
-    			_computedBitSet.set(key + offset, false);
-    	}*/
 	}
 	
 	private void readDataLTEQ(MappedByteBuffer buffer, boolean multi) {
@@ -2732,7 +2946,7 @@ public class DataReader extends Observable implements Runnable {
 		
 		if (this._dataLength == 1 && (this._encoding == CheckSum.DIM_ENCODE_TYPE1 || this._encoding == CheckSum.FACT_ENCODE_TYPE_BYTE)) { // single byte
 			byte read;
-			byte compare = (Byte)_gtFilter;
+			byte compare = (Byte)_ltFilter;
 			for (int i = 0; i < count; i++) {
     		
 				// read each character byte
@@ -2744,7 +2958,7 @@ public class DataReader extends Observable implements Runnable {
 		}
 		else if (this._dataLength == 2 && (this._encoding == CheckSum.DIM_ENCODE_TYPE2 || this._encoding == CheckSum.FACT_ENCODE_TYPE_SHORT)) { // double byte
 			short read;
-			short compare = (Short)_gtFilter;
+			short compare = (Short)_ltFilter;
 			for (int i = 0; i < count; i++) {
 	    		
 				// read each character byte
@@ -2756,7 +2970,7 @@ public class DataReader extends Observable implements Runnable {
 		}
 		else if (this._dataLength == 4 && (this._encoding == CheckSum.DIM_ENCODE_TYPE3 || this._encoding == CheckSum.FACT_ENCODE_TYPE_INT)) { // four bytes
 			int read;
-			int compare = (Integer)_gtFilter;
+			int compare = (Integer)_ltFilter;
 			for (int i = 0; i < count; i++) {
 	    		
 				// read each character byte
@@ -2768,7 +2982,7 @@ public class DataReader extends Observable implements Runnable {
 		}
 		else if (this._dataLength == 4 && this._encoding == CheckSum.FACT_ENCODE_TYPE_FLOAT) { // four bytes
 			float read;
-			float compare = (Float)_gtFilter;
+			float compare = (Float)_ltFilter;
 			for (int i = 0; i < count; i++) {
 	    		
 				// read each character byte
@@ -2780,7 +2994,7 @@ public class DataReader extends Observable implements Runnable {
 		}
 		else if (this._dataLength == 8 && this._encoding == CheckSum.FACT_ENCODE_TYPE_LONG) { // four bytes
 			long read;
-			long compare = (Long)_gtFilter;
+			long compare = (Long)_ltFilter;
 			for (int i = 0; i < count; i++) {
 	    		
 				// read each character byte
@@ -2792,7 +3006,7 @@ public class DataReader extends Observable implements Runnable {
 		}
 		else if (this._dataLength == 8 && this._encoding == CheckSum.FACT_ENCODE_TYPE_DOUBLE) { // four bytes
 			double read;
-			double compare = (Double)_gtFilter;
+			double compare = (Double)_ltFilter;
 			for (int i = 0; i < count; i++) {
 	    		
 				// read each character byte
@@ -2802,67 +3016,6 @@ public class DataReader extends Observable implements Runnable {
 					_computedBitSet.set((int)(i + offset));
 			}
 		}
-		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_ALPHAN) { // four bytes
-			// convert the filter strings into byte streams
-			String filter = (String) this._gtFilter;
-			byte[] compare = new byte[filter.length()];
-			int compareLength = compare.length;
-						
-			// set the byte length which will be read to one byte more than the filter
-			// if the last byte is not null, then the retrieved value from buffer
-			// will not match any of our filters and hence we can skip further
-			// checks.
-			byte[] b = null;
-			int currLength = 0;
-			int chkLen = 0;
-			boolean found = false;
-			int j = 0;
-			for (int i = 0; i < count; i++) {
-				// reset boolean
-				found = false;    		
-				// set the position of the buffer
-				buffer.position(i * this._dataLength);
-				b = null; // reset the buffer
-							
-				// read bytes into the buffer
-				currLength = buffer.get();
-				if (currLength < 0)
-					currLength = currLength + 256;
-			    		
-				// check if the data length exceeds the max filter length
-				if (currLength > 0) { // if data in file is not null
-					b = new byte[currLength]; // create a new buffer
-					buffer.get(b);
-					chkLen = (currLength > compareLength ? compareLength : currLength);
-					for (j = 0; j < chkLen; j++) {
-						if (b[j] == compare[j])
-							continue;
-						else if (b[j] > compare[j])
-							break;
-						else {
-							found = true;
-							_computedBitSet.set((int)(i + offset));
-							break;
-						}
-					}
-					
-					if (found == false && j == chkLen && currLength <= compareLength)
-						_computedBitSet.set((int)(i + offset));
-				}	
-			}
-		}
-		
-		// get any locked original records
-    	/*Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-    	Enumeration<Integer> e = h.keys();
-    	int key = -1;
-    	while (e.hasMoreElements()) {
-    		key = e.nextElement();
-    		if (key >= this._filterLowRange && key <= this._filterHighRange && h.get(key) > _gtFilter)
-    			_computedBitSet.set(key + offset);
-    		else
-    			_computedBitSet.set(key + offset, false);
-    	}*/
 	}	
 
 	/**
@@ -2959,18 +3112,6 @@ public class DataReader extends Observable implements Runnable {
 			}
 		}
 		
-		
-		// get any locked original records
-    	/*Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-    	Enumeration<Integer> e = h.keys();
-    	int key = -1;
-    	while (e.hasMoreElements()) {
-    		key = e.nextElement();
-    		if (key >= this._filterLowRange && key <= this._filterHighRange && h.get(key) > _gtFilter)
-    			_computedBitSet.set(key + offset);
-    		else
-    			_computedBitSet.set(key + offset, false);
-    	}*/
 	}
 	
 	/**
@@ -3067,18 +3208,6 @@ public class DataReader extends Observable implements Runnable {
 			}
 		}
 		
-		
-		// get any locked original records
-    	/*Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-    	Enumeration<Integer> e = h.keys();
-    	int key = -1;
-    	while (e.hasMoreElements()) {
-    		key = e.nextElement();
-    		if (key >= this._filterLowRange && key <= this._filterHighRange && h.get(key) > _gtFilter)
-    			_computedBitSet.set(key + offset);
-    		else
-    			_computedBitSet.set(key + offset, false);
-    	}*/
 	}
 
 	/**
@@ -3175,18 +3304,6 @@ public class DataReader extends Observable implements Runnable {
 			}
 		}
 		
-		
-		// get any locked original records
-    	/*Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-    	Enumeration<Integer> e = h.keys();
-    	int key = -1;
-    	while (e.hasMoreElements()) {
-    		key = e.nextElement();
-    		if (key >= this._filterLowRange && key <= this._filterHighRange && h.get(key) > _gtFilter)
-    			_computedBitSet.set(key + offset);
-    		else
-    			_computedBitSet.set(key + offset, false);
-    	}*/
 	}
 	
 	/**
@@ -3296,18 +3413,6 @@ public class DataReader extends Observable implements Runnable {
 			}
 		}
 		
-		
-		// get any locked original records
-    	/*Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-    	Enumeration<Integer> e = h.keys();
-    	int key = -1;
-    	while (e.hasMoreElements()) {
-    		key = e.nextElement();
-    		if (key >= this._filterLowRange && key <= this._filterHighRange && h.get(key) > _gtFilter)
-    			_computedBitSet.set(key + offset);
-    		else
-    			_computedBitSet.set(key + offset, false);
-    	}*/
 	}
 
 	/**
@@ -3417,18 +3522,6 @@ public class DataReader extends Observable implements Runnable {
 			}
 		}
 		
-		
-		// get any locked original records
-    	/*Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-    	Enumeration<Integer> e = h.keys();
-    	int key = -1;
-    	while (e.hasMoreElements()) {
-    		key = e.nextElement();
-    		if (key >= this._filterLowRange && key <= this._filterHighRange && h.get(key) > _gtFilter)
-    			_computedBitSet.set(key + offset);
-    		else
-    			_computedBitSet.set(key + offset, false);
-    	}*/
 	}	
 
 	/*
@@ -3812,217 +3905,1341 @@ public class DataReader extends Observable implements Runnable {
 	*/
 	
 	/**
-	 * The main method to read the data from the dimension dataset. before actual read begins
-	 * pre-processing is done to arrange the filters in proper order to speed up the checks and
-	 * flags set to determine the actual filter method to call.
+	 * Returns the predicate equivalent to the filters set, evaluated in the same order of 
+	 * precedence as the scans of the fixed length encodings
 	 * 
+	 * @return value filter
 	 * @throws Exception
 	 */
-	private void readData () throws Exception {
+	private FactValueFilter getValueFilter() throws Exception {
+		if (this._isNull || this._isNotNull)
+			return new FactValueFilter(this._encoding, FactValueFilter.MODE_NOT_NULL, null, false, null, null, null, null);
 		
-		// track the beginning time of the job
-		long startTime = System.nanoTime();
+		if (this._datePart > 0)
+			return new FactValueFilter(this._datePart, (int[])this._filter, this._not);
 		
+		if (this._singleIn || this._multiIn)
+			return new FactValueFilter(this._encoding, FactValueFilter.MODE_IN, this._filter, this._not, null, null, null, null);
 		
-        try {
-        	// reset counters
-        	this._filteredCount = 0;
-        	
-        	// open file and map to memory
-            RandomAccessFile aFile = new RandomAccessFile(this._datasetName, "r");
-            FileChannel inChannel = aFile.getChannel();
-            
-            // Difference of low and high ranges with the actual data lengths
-            int mapSize = (this._filterHighRange - this._filterLowRange + 1) * this._dataLength;
-            
-            // Temporary buffer to pull data from memory 
-            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (this._filterLowRange - 1) * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH, mapSize);
-            
-            // set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning if non String
-            if (this._encoding != CheckSum.FACT_ENCODE_TYPE_ALPHAN)
-            	buffer.order(ByteOrder.LITTLE_ENDIAN);
-            
-            // check if the bitset was set from outside
-            if (_computedBitSet == null)
-            	_computedBitSet = new BitSet(this._filterHighRange - this._filterLowRange + 1);
-            	
-            			
-            // execute different type of reads based on 
-            // whether this is a single character filter, all ids set,
-            // range based filter or raw array of filters
-            // In addition, if this is running in a multi thread mode
-            // wherein the resultant bitset has been set from outside
-            // execute the multi reads
-            
-	        // when filter contains only one value to check, EQ clause
-	        if (this._singleIn) {
-	        	this.readDataSingleCheck(buffer, this._multithread);
-	        }
-	        
-	        // check ind. filter values, multiple values, IN CLAUSE
-	        else if (this._multiIn) {
-	        	this.readDataIN(buffer, this._multithread);
-	        }
-	        
-	        // gt, lt and between
-	        else if (this._gt && this._lt && this._between)
-            	this.readDataGTOrLTOrBETWEEN(buffer, this._multithread);	
-            
-	        // >=, <= and BETWEEN
-	        else if (this._gtEq && this._ltEq && this._between)
-            	this.readDataGTEQOrLTEQOrBETWEEN(buffer, this._multithread);
-            
-	        // > and <
-	        else if(this._gt && this._lt)
-            	this.readDataGTOrLT(buffer, this._multithread);
-            
-	        // >= and <=
-	        else if(this._gtEq && this._ltEq)
-            	this.readDataGTEQOrLTEQ(buffer, this._multithread);
-            
-	        // > filter
-	        else if (this._gt)
-            	this.readDataGT(buffer, this._multithread);
-            
-	        // >= filter
-	        else if (this._gtEq)
-            	this.readDataGTEQ(buffer, this._multithread);
-            
-	        // < filter
-	        else if (this._lt)
-            	this.readDataLT(buffer, this._multithread);
-            
-	        // <= filter
-	        else if (this._ltEq)
-            	this.readDataLTEQ(buffer, this._multithread);
-            
-	        // between filter
-	        else if (this._between)
-            	this.readDataBETWEEN(buffer, this._multithread);
-	        
-	        // not null positions
-            else
-            	this.readDataNotNullValues(buffer, this._multithread);
-	        
-            // close the channel
-	        inChannel.close();
-            // close the file
-            aFile.close();
-            
-            buffer = null;
-            
-        } catch (IOException ioe) {
-            throw new IOException(ioe);
-        } finally {
-        	
-        	// set the record count
-        	if (this._computedBitSet != null)
-        		this._filteredCount = this._computedBitSet.cardinality();
-        	
-        	// track the ending time of the process
-            long endTime = System.nanoTime();
-            
-            // calculate the elapsed time of the process in milli seconds
-            this._elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - startTime), TimeUnit.NANOSECONDS);
-            System.out.println("File based read time for " + this._datasetName + " (" + this._filterLowRange + ", " + this._filterHighRange + ") " + this._elapsedTimeInMillis);
-        }
-        
-	}	
-	
-	protected BitSet getData(byte[] filter, boolean not) {
-		try {
-			this.setFilter(filter, not);
-			this.readData();
-		}
-		catch (Exception e) {
-			e.printStackTrace();
-		}
+		Number gt = (this._gt || this._gtEq ? (Number)this._gtFilter : null);
+		Number lt = (this._lt || this._ltEq ? (Number)this._ltFilter : null);
+		Number between1 = (this._between ? (Number)this._between1Filter : null);
+		Number between2 = (this._between ? (Number)this._between2Filter : null);
 		
-		return this.getResultBitSet();
+		return new FactValueFilter(this._encoding, this.getFilterMode(), null, false, gt, lt, between1, between2);
 	}
 	
-	protected BitSet getData(short[] filter, boolean not) {
-		try {
-			this.setFilter(filter, not);
-			this.readData();
-		}
-		catch (Exception e) {
-			e.printStackTrace();
-		}
+	/**
+	 * Returns the FactValueFilter mode of the filters set
+	 * 
+	 * @return filter mode
+	 */
+	private int getFilterMode() {
+		// IS NULL is read as the complement of the not null values
+		if (this._isNull || this._isNotNull)
+			return FactValueFilter.MODE_NOT_NULL;
+		
+		if (this._datePart > 0)
+			return FactValueFilter.MODE_DATE_PART;
+		
+		if (this._singleIn || this._multiIn)
+			return FactValueFilter.MODE_IN;
+		
+		if (this._prefix)
+			return FactValueFilter.MODE_PREFIX;
+		
+		if (this._contains)
+			return FactValueFilter.MODE_CONTAINS;
+		
+		int mode;
+		if (this._gt && this._lt && this._between)
+			mode = FactValueFilter.MODE_GT_LT_BETWEEN;
+		else if (this._gtEq && this._ltEq && this._between)
+			mode = FactValueFilter.MODE_GTEQ_LTEQ_BETWEEN;
+		else if (this._gt && this._lt)
+			mode = FactValueFilter.MODE_GT_LT;
+		else if (this._gtEq && this._ltEq)
+			mode = FactValueFilter.MODE_GTEQ_LTEQ;
+		else if (this._gt)
+			mode = FactValueFilter.MODE_GT;
+		else if (this._gtEq)
+			mode = FactValueFilter.MODE_GTEQ;
+		else if (this._lt)
+			mode = FactValueFilter.MODE_LT;
+		else if (this._ltEq)
+			mode = FactValueFilter.MODE_LTEQ;
+		else if (this._between)
+			mode = FactValueFilter.MODE_BETWEEN;
+		else
+			mode = FactValueFilter.MODE_NOT_NULL;
 		
-		return this.getResultBitSet();
+		return mode;
 	}
 	
 	/**
-	 * Method to get data for the input filter in a non threaded mode
-	 * @param filter An array of characters
-	 * @return
+	 * @return true if the filter mode takes a list of values
 	 */
-	protected BitSet getData(int[] filter, boolean not) {
-		try {
-			this.setFilter(filter, not);
-			this.readData();
-		}
-		catch (Exception e) {
-			e.printStackTrace();
-		}
-		
-		return this.getResultBitSet();
+	private boolean isAlphanListMode(int mode) {
+		return mode == FactValueFilter.MODE_IN || mode == FactValueFilter.MODE_PREFIX || mode == FactValueFilter.MODE_CONTAINS;
 	}
 	
-	protected BitSet getData(long[] filter, boolean not) {
-		try {
-			this.setFilter(filter, not);
-			this.readData();
-		}
-		catch (Exception e) {
-			e.printStackTrace();
-		}
+	/**
+	 * Method to get the record ids of an ALPHAN dataset matching the filters set. The filter
+	 * values are encoded to UTF-8 once and compared with the bytes of the mapped slots, no
+	 * String is created during the scan.
+	 * 
+	 * @param buffer MappedByteBuffer from where data will be read
+	 * @param multi Flag indicating if the read is single or multi-threaded
+	 * @throws Exception
+	 */
+	private void readDataAlphan(MappedByteBuffer buffer, boolean multi) throws Exception {
+		int offset = 0;
+		if (multi)
+			offset = this._filterLowRange -1;
 		
-		return this.getResultBitSet();
-	}
-	
-	protected BitSet getData(float[] filter, boolean not) {
-		try {
-			this.setFilter(filter, not);
-			this.readData();
-		}
-		catch (Exception e) {
-			e.printStackTrace();
-		}
+		int count = buffer.limit()/this._dataLength;
+		int mode = this.getFilterMode();
 		
-		return this.getResultBitSet();
-	}
-	
-	protected BitSet getData(double[] filter, boolean not) {
-		try {
-			this.setFilter(filter, not);
-			this.readData();
-		}
-		catch (Exception e) {
-			e.printStackTrace();
-		}
+		FactAlphanFilter filter = new FactAlphanFilter(mode, (this.isAlphanListMode(mode) ? (String[]) this._filter : null), this._not,
+				(this._gt || this._gtEq ? (String) this._gtFilter : null), (this._lt || this._ltEq ? (String) this._ltFilter : null),
+				(this._between ? (String) this._between1Filter : null), (this._between ? (String) this._between2Filter : null));
 		
-		return this.getResultBitSet();
+		// list filters are verified only for the candidates of the trigram index, if it is current
+		MutableRoaringBitmap candidates = this.getTrigramCandidates(filter);
+		if (candidates != null)
+			filter.filter(buffer, candidates, this._filterLowRange - 1, count, this._dataLength, this._computedBitSet, offset);
+		else
+			filter.filter(buffer, count, this._dataLength, this._computedBitSet, offset);
 	}
 	
-	protected BitSet getData(String[] filter, boolean not) {
-		try {
-			this.setFilter(filter, not);
-			this.readData();
-		}
-		catch (Exception e) {
-			e.printStackTrace();
-		}
+	/**
+	 * Returns the positions which may match an IN, PREFIX or CONTAINS filter from the trigram
+	 * index of the segment, the union of the candidates of each filter value
+	 * 
+	 * @param filter ALPHAN filter
+	 * @return candidate positions, null if the index cannot be used
+	 * @throws Exception
+	 */
+	private MutableRoaringBitmap getTrigramCandidates(FactAlphanFilter filter) throws Exception {
+		if (!filter.isTrigramIndexable())
+			return null;
 		
-		return this.getResultBitSet();
+		FactTrigramIndex index = FactTrigramIndex.getIndex(this._datasetName);
+		if (index == null || index.getSlotLength() != this._dataLength ||
+				!index.isCurrent(new File(this._datasetName).lastModified(), this._segmentCount))
+			return null;
+		
+		byte[][] values = filter.getValues();
+		MutableRoaringBitmap candidates = index.getCandidates(values[0]);
+		for (int i = 1; i < values.length; i++)
+			candidates.or(index.getCandidates(values[i]));
+		
+		return candidates;
 	}
 	
-	public BitSet getData() throws Exception {
+	/**
+	 * Reads the data from a dictionary encoded ALPHAN segment. The filters are evaluated once
+	 * against the dictionary into a table of matching codes and the codes of the range are
+	 * looked up in the table, no value is decoded.
+	 * 
+	 * @throws Exception
+	 */
+	private void readDataDictionary() throws Exception {
+		
+		// track the beginning time of the job
+		long startTime = System.nanoTime();
+		
 		try {
-			if (this._singleIn || this._multiIn || this._between || this._gt || this._gtEq ||
-					this._lt || this._ltEq || this._between)
-				this.readData();
+			// reset counters
+			this._filteredCount = 0;
+			
+			FactDictionary dictionary = FactDictionary.getDictionary(this._datasetName);
+			
+			int mode = this.getFilterMode();
+			boolean[] accept = dictionary.getCodeFilter(mode, (this.isAlphanListMode(mode) ? (String[]) this._filter : null), this._not,
+					(this._gt || this._gtEq ? (String) this._gtFilter : null), (this._lt || this._ltEq ? (String) this._ltFilter : null),
+					(this._between ? (String) this._between1Filter : null), (this._between ? (String) this._between2Filter : null));
+			
+			// check if the bitset was set from outside
+			if (_computedBitSet == null)
+				_computedBitSet = new BitSet(this._filterHighRange - this._filterLowRange + 1);
+			
+			// offset to current position
+			int offset = 0;
+			if (this._multithread)
+				offset = this._filterLowRange - 1;
+			
+			RandomAccessFile aFile = new RandomAccessFile(this._datasetName, "r");
+			FileChannel inChannel = aFile.getChannel();
+			
+			try {
+				int count = this._filterHighRange - this._filterLowRange + 1;
+				int mapSize = count * this._dataLength;
+				MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (long)(this._filterLowRange - 1) * this._dataLength + this._headerLength, mapSize);
+				
+				// verify the block checksums of the mapped range
+				if (this._verifyChecksums)
+					BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(this._filterLowRange - 1) * this._dataLength, mapSize);
+				
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+				
+				FactDictionary.filter(buffer, count, this._dataLength, accept, this._computedBitSet, offset);
+				buffer = null;
+			}
+			finally {
+				inChannel.close();
+				aFile.close();
+			}
+		}
+		finally {
+			
+			// set the record count
+			if (this._computedBitSet != null)
+				this._filteredCount = this._computedBitSet.cardinality();
+			
+			// track the ending time of the process
+			long endTime = System.nanoTime();
+			
+			// calculate the elapsed time of the process in milli seconds
+			this._elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - startTime), TimeUnit.NANOSECONDS);
+			System.out.println("Dictionary read time for " + this._datasetName + " (" + this._filterLowRange + ", " + this._filterHighRange + ") " + this._elapsedTimeInMillis);
+		}
+	}
+	
+	/**
+	 * Method that returns the values of a dictionary encoded ALPHAN segment associated with the
+	 * input positions. The values returned are the shared entries of the dictionary, null
+	 * values are returned as empty strings as in the ALPHAN encoding.
+	 * 
+	 * @param positions An array of positions whose values must be returned
+	 * @return An array of values matching the input positions
+	 * 
+	 * @throws Exception
+	 */
+	private String[] readValuesDictionary(int[] positions, int low, int high) throws Exception {
+		FactDictionary dictionary = FactDictionary.getDictionary(this._datasetName);
+		String[] values = new String[positions.length];
+		
+		RandomAccessFile aFile = new RandomAccessFile(this._datasetName, "r");
+		FileChannel inChannel = aFile.getChannel();
+		
+		try {
+			int mapSize = (high - low + 1) * this._dataLength;
+			MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (long)(low - 1) * this._dataLength + this._headerLength, mapSize);
+			
+			// verify the block checksums of the mapped range
+			if (this._verifyChecksums)
+				BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(low - 1) * this._dataLength, mapSize);
+			
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			
+			for (int i = 0; i < positions.length; i++) {
+				int code = FactDictionary.getCode(buffer, positions[i] - low, this._dataLength);
+				values[i] = (code == FactDictionary.NULL_CODE ? "" : dictionary.getEntry(code));
+			}
+			buffer = null;
+		}
+		finally {
+			inChannel.close();
+			aFile.close();
+		}
+		
+		return values;
+	}
+	
+	/**
+	 * Reads the data from a variable length ALPHAN segment. The filters are evaluated on the
+	 * inline prefix of the slots, the heap is read only for the long values the prefix does
+	 * not decide.
+	 * 
+	 * @throws Exception
+	 */
+	private void readDataVarchar() throws Exception {
+		
+		// track the beginning time of the job
+		long startTime = System.nanoTime();
+		
+		try {
+			// reset counters
+			this._filteredCount = 0;
+			
+			int mode = this.getFilterMode();
+			FactAlphanFilter filter = new FactAlphanFilter(mode, (this.isAlphanListMode(mode) ? (String[]) this._filter : null), this._not,
+					(this._gt || this._gtEq ? (String) this._gtFilter : null), (this._lt || this._ltEq ? (String) this._ltFilter : null),
+					(this._between ? (String) this._between1Filter : null), (this._between ? (String) this._between2Filter : null), 
+					CheckSum.FACT_MAX_VARCHAR_LENGTH);
+			
+			// check if the bitset was set from outside
+			if (_computedBitSet == null)
+				_computedBitSet = new BitSet(this._filterHighRange - this._filterLowRange + 1);
+			
+			// offset to current position
+			int offset = 0;
+			if (this._multithread)
+				offset = this._filterLowRange - 1;
+			
+			MappedByteBuffer heap = FactVarcharHeap.map(this._datasetName);
+			
+			RandomAccessFile aFile = new RandomAccessFile(this._datasetName, "r");
+			FileChannel inChannel = aFile.getChannel();
+			
+			try {
+				int count = this._filterHighRange - this._filterLowRange + 1;
+				int mapSize = count * this._dataLength;
+				MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (long)(this._filterLowRange - 1) * this._dataLength + this._headerLength, mapSize);
+				
+				// verify the block checksums of the mapped range
+				if (this._verifyChecksums)
+					BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(this._filterLowRange - 1) * this._dataLength, mapSize);
+				
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+				
+				filter.filterVarchar(buffer, count, this._dataLength, heap, this._computedBitSet, offset);
+				buffer = null;
+			}
+			finally {
+				inChannel.close();
+				aFile.close();
+			}
+		}
+		finally {
+			
+			// set the record count
+			if (this._computedBitSet != null)
+				this._filteredCount = this._computedBitSet.cardinality();
+			
+			// track the ending time of the process
+			long endTime = System.nanoTime();
+			
+			// calculate the elapsed time of the process in milli seconds
+			this._elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - startTime), TimeUnit.NANOSECONDS);
+			System.out.println("Variable length read time for " + this._datasetName + " (" + this._filterLowRange + ", " + this._filterHighRange + ") " + this._elapsedTimeInMillis);
+		}
+	}
+	
+	/**
+	 * Method that returns the values of a variable length ALPHAN segment associated with the
+	 * input positions, null values are returned as empty strings as in the ALPHAN encoding.
+	 * 
+	 * @param positions An array of positions whose values must be returned
+	 * @return An array of values matching the input positions
+	 * 
+	 * @throws Exception
+	 */
+	private String[] readValuesVarchar(int[] positions, int low, int high) throws Exception {
+		ByteBuffer[] buffers = this.readValueBuffersVarchar(positions, low, high);
+		String[] values = new String[positions.length];
+		
+		for (int i = 0; i < positions.length; i++)
+			values[i] = FactVarcharHeap.toString(buffers[i]);
+		
+		return values;
+	}
+	
+	/**
+	 * Method that returns the UTF-8 bytes of the values of a variable length ALPHAN segment
+	 * as slices of the mapped segment and heap, no bytes are copied.
+	 * 
+	 * @param positions An array of positions whose values must be returned
+	 * @return An array of read only buffers matching the input positions, empty for nulls
+	 * 
+	 * @throws Exception
+	 */
+	private ByteBuffer[] readValueBuffersVarchar(int[] positions, int low, int high) throws Exception {
+		ByteBuffer[] values = new ByteBuffer[positions.length];
+		int prefixLength = FactVarcharHeap.getPrefixLength(this._dataLength);
+		
+		MappedByteBuffer heap = FactVarcharHeap.map(this._datasetName);
+		
+		RandomAccessFile aFile = new RandomAccessFile(this._datasetName, "r");
+		FileChannel inChannel = aFile.getChannel();
+		
+		try {
+			int mapSize = (high - low + 1) * this._dataLength;
+			MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (long)(low - 1) * this._dataLength + this._headerLength, mapSize);
+			
+			// verify the block checksums of the mapped range
+			if (this._verifyChecksums)
+				BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(low - 1) * this._dataLength, mapSize);
+			
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			
+			for (int i = 0; i < positions.length; i++)
+				values[i] = FactVarcharHeap.getValue(buffer, (positions[i] - low) * this._dataLength, prefixLength, heap);
+			buffer = null;
+		}
+		finally {
+			inChannel.close();
+			aFile.close();
+		}
+		
+		return values;
+	}
+	
+	/**
+	 * Get the UTF-8 bytes of the values of a variable length ALPHAN segment in the order of the
+	 * input positions, as read only slices of the mapped segment and heap
+	 * 
+	 * @param positions An array of record ids for whom values must be returned
+	 * @return An array of buffers for the matching positions, empty for null values
+	 * @throws Exception
+	 */
+	protected ByteBuffer[] getDataValueBuffers(int[] positions) throws Exception {
+		if (!this._varLength)
+			throw new Exception ("Dataset " + this._datasetName + " is not a variable length ALPHAN segment");
+		
+		if (positions == null || positions.length <= 0)
+			throw new Exception ("Input positions cannot be null or empty");
+		
+		int low = HASIDSConstants.DIM_MAX_RECORDS + 1;
+		int high = -1;
+		for (int i = 0; i < positions.length; i++) {
+			if (positions[i] < 1)
+				throw new Exception("Positions for getting values cannot be < 1");
+			
+			if (positions[i] < low)
+				low = positions[i];
+			
+			if (positions[i] > high)
+				high = positions[i];
+		}
+		
+		return this.readValueBuffersVarchar(positions, low, high);
+	}
+	
+	/**
+	 * Reads the data from a block compressed fact segment. Blocks outside the filter range
+	 * are skipped using the block minimum and maximum, the others are decoded in parallel into
+	 * reusable buffers.
+	 * 
+	 * @throws Exception
+	 */
+	private void readDataCompressed() throws Exception {
+		
+		// track the beginning time of the job
+		long startTime = System.nanoTime();
+		
+		try {
+			// reset counters
+			this._filteredCount = 0;
+			
+			FactCompressedSegment segment = FactCompressedSegment.getSegment(this._datasetName, this._headerLength, 
+					this._compressedEncoding, this._verifyChecksums);
+			
+			// check if the bitset was set from outside
+			if (_computedBitSet == null)
+				_computedBitSet = new BitSet(this._filterHighRange - this._filterLowRange + 1);
+			
+			// offset to current position
+			int offset = 0;
+			if (this._multithread)
+				offset = this._filterLowRange - 1;
+			
+			segment.filter(this.getValueFilter(), this._filterLowRange - 1, this._filterHighRange, this._computedBitSet, 
+					offset - (this._filterLowRange - 1), this._noParallelDecodeThreads);
+		}
+		finally {
+			
+			// set the record count
+			if (this._computedBitSet != null)
+				this._filteredCount = this._computedBitSet.cardinality();
+			
+			// track the ending time of the process
+			long endTime = System.nanoTime();
+			
+			// calculate the elapsed time of the process in milli seconds
+			this._elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - startTime), TimeUnit.NANOSECONDS);
+			System.out.println("Compressed read time for " + this._datasetName + " (" + this._filterLowRange + ", " + this._filterHighRange + ") " + this._elapsedTimeInMillis);
+		}
+	}
+	
+	/**
+	 * Method that returns the values of a block compressed fact segment associated with the
+	 * input positions. The positions are 1 based positions in the segment as in the fixed
+	 * length encodings.
+	 * 
+	 * @param positions An array of positions whose values must be returned, for efficiency ensure
+	 * the positions are sorted
+	 * @return An int[], long[], float[] or double[] of values matching the input positions
+	 * 
+	 * @throws Exception
+	 */
+	private Object readValuesCompressed(int[] positions) throws Exception {
+		FactCompressedSegment segment = FactCompressedSegment.getSegment(this._datasetName, this._headerLength, 
+				this._compressedEncoding, this._verifyChecksums);
+		
+		long[] raw = new long[positions.length];
+		segment.getValues(positions, -1, raw);
+		
+		return this.toValueArray(raw);
+	}
+	
+	/**
+	 * Converts the long form of INT, LONG, FLOAT or DOUBLE values to an array of the encoding
+	 * 
+	 * @param raw Long form of the values
+	 * @return An int[], long[], float[] or double[] of the values
+	 */
+	private Object toValueArray(long[] raw) {
+		if (this._encoding == CheckSum.FACT_ENCODE_TYPE_INT) {
+			int[] values = new int[raw.length];
+			for (int i = 0; i < raw.length; i++)
+				values[i] = (int)raw[i];
+			return values;
+		}
+		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_FLOAT) {
+			float[] values = new float[raw.length];
+			for (int i = 0; i < raw.length; i++)
+				values[i] = FactCompressedSegment.toFloat(raw[i]);
+			return values;
+		}
+		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_DOUBLE) {
+			double[] values = new double[raw.length];
+			for (int i = 0; i < raw.length; i++)
+				values[i] = FactCompressedSegment.toDouble(raw[i]);
+			return values;
+		}
+		
+		return raw;
+	}
+	
+	/**
+	 * Reads the data from a sparse fact segment. Only the populated positions of the range are
+	 * tested, the other positions are null.
+	 * 
+	 * @throws Exception
+	 */
+	private void readDataSparse() throws Exception {
+		
+		// track the beginning time of the job
+		long startTime = System.nanoTime();
+		
+		try {
+			// reset counters
+			this._filteredCount = 0;
+			
+			FactSparseSegment segment = FactSparseSegment.getSegment(this._datasetName, this._headerLength, 
+					this._sparseEncoding, this._verifyChecksums);
+			
+			// check if the bitset was set from outside
+			if (_computedBitSet == null)
+				_computedBitSet = new BitSet(this._filterHighRange - this._filterLowRange + 1);
+			
+			// offset to current position
+			int offset = 0;
+			if (this._multithread)
+				offset = this._filterLowRange - 1;
+			
+			segment.filter(this.getValueFilter(), this._filterLowRange - 1, this._filterHighRange, this._computedBitSet, 
+					offset - (this._filterLowRange - 1));
+		}
+		finally {
+			
+			// set the record count
+			if (this._computedBitSet != null)
+				this._filteredCount = this._computedBitSet.cardinality();
+			
+			// track the ending time of the process
+			long endTime = System.nanoTime();
+			
+			// calculate the elapsed time of the process in milli seconds
+			this._elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - startTime), TimeUnit.NANOSECONDS);
+			System.out.println("Sparse read time for " + this._datasetName + " (" + this._filterLowRange + ", " + this._filterHighRange + ") " + this._elapsedTimeInMillis);
+		}
+	}
+	
+	/**
+	 * Method that returns the values of a sparse fact segment associated with the input
+	 * positions, the null value of the encoding for the positions not populated
+	 * 
+	 * @param positions An array of 1 based positions whose values must be returned
+	 * @return An int[], long[], float[] or double[] of values matching the input positions
+	 * 
+	 * @throws Exception
+	 */
+	private Object readValuesSparse(int[] positions) throws Exception {
+		FactSparseSegment segment = FactSparseSegment.getSegment(this._datasetName, this._headerLength, 
+				this._sparseEncoding, this._verifyChecksums);
+		
+		long[] raw = new long[positions.length];
+		segment.getValues(positions, -1, raw);
+		
+		return this.toValueArray(raw);
+	}
+	
+	/**
+	 * Computes the count, sum, average, minimum and maximum of the not null values of the
+	 * records of the last read (getData), or of all the records in the range if no read was
+	 * done. Block compressed segments are aggregated block by block in parallel, sparse
+	 * segments on their populated positions only.
+	 * 
+	 * @return count, sum, average, minimum and maximum
+	 * @throws Exception
+	 */
+	public double[] getAggregates() throws Exception {
+		
+		// DECIMAL segments are aggregated on the scaled values
+		if (this._decimal) {
+			BigDecimal[] stats = this.getDecimalAggregates();
+			return new double[] {stats[0].doubleValue(), stats[1].doubleValue(), (stats[2] == null ? Double.NaN : stats[2].doubleValue()),
+					(stats[3] == null ? Double.MAX_VALUE : stats[3].doubleValue()), (stats[4] == null ? -Double.MAX_VALUE : stats[4].doubleValue())};
+		}
+		
+		if (this._fileType != CheckSum.FILE_TYPE_FACT || this._encoding < CheckSum.FACT_ENCODE_TYPE_INT || 
+				this._encoding > CheckSum.FACT_ENCODE_TYPE_DOUBLE)
+			throw new Exception ("Aggregates are computed for INT, LONG, FLOAT and DOUBLE facts only");
+		
+		// offset of the bits of the positions in the range
+		int offset = 0;
+		if (this._multithread)
+			offset = this._filterLowRange - 1;
+		
+		// deleted records are not aggregated
+		BitSet bits = this.getLiveBitSet(offset);
+		
+		this._count = 0;
+		this._sum = 0.0;
+		this._min = Double.MAX_VALUE;
+		this._max = -Double.MAX_VALUE;
+		
+		if (this._compressed) {
+			FactCompressedSegment segment = FactCompressedSegment.getSegment(this._datasetName, this._headerLength, 
+					this._compressedEncoding, this._verifyChecksums);
+			
+			double[] stats = segment.aggregate(this._filterLowRange - 1, this._filterHighRange, bits, 
+					offset - (this._filterLowRange - 1), this._noParallelDecodeThreads);
+			
+			this._count = (long)stats[0];
+			this._sum = stats[1];
+			this._min = stats[2];
+			this._max = stats[3];
+		}
+		else if (this._sparse) {
+			FactSparseSegment segment = FactSparseSegment.getSegment(this._datasetName, this._headerLength, 
+					this._sparseEncoding, this._verifyChecksums);
+			
+			double[] stats = segment.aggregate(this._filterLowRange - 1, this._filterHighRange, bits, 
+					offset - (this._filterLowRange - 1));
+			
+			this._count = (long)stats[0];
+			this._sum = stats[1];
+			this._min = stats[2];
+			this._max = stats[3];
+		}
+		else {
+			RandomAccessFile aFile = new RandomAccessFile(this._datasetName, "r");
+			FileChannel inChannel = aFile.getChannel();
+			
+			try {
+				int mapSize = (this._filterHighRange - this._filterLowRange + 1) * this._dataLength;
+				MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (long)(this._filterLowRange - 1) * this._dataLength + this._headerLength, mapSize);
+				
+				// verify the block checksums of the mapped range
+				if (this._verifyChecksums)
+					BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(this._filterLowRange - 1) * this._dataLength, mapSize);
+				
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+				
+				// the null checks are dropped if the null bitmap shows no null in the range
+				boolean nullFree = this.isNullFree();
+				
+				int count = this._filterHighRange - this._filterLowRange + 1;
+				int i = (bits == null ? 0 : bits.nextSetBit(offset) - offset);
+				while (i >= 0 && i < count) {
+					if (this._encoding == CheckSum.FACT_ENCODE_TYPE_INT) {
+						int value = buffer.getInt(i * this._dataLength);
+						if (nullFree || value != Integer.MIN_VALUE)
+							this.computeRunningStats(value);
+					}
+					else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_LONG) {
+						long value = buffer.getLong(i * this._dataLength);
+						if (nullFree || value != Long.MIN_VALUE)
+							this.computeRunningStats(value);
+					}
+					else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_FLOAT) {
+						float value = buffer.getFloat(i * this._dataLength);
+						if (nullFree || value != Float.MIN_VALUE)
+							this.computeRunningStats(value);
+					}
+					else {
+						double value = buffer.getDouble(i * this._dataLength);
+						if (nullFree || value != Double.MIN_VALUE)
+							this.computeRunningStats(value);
+					}
+					
+					if (bits == null)
+						++i;
+					else {
+						i = bits.nextSetBit(i + offset + 1);
+						if (i >= 0)
+							i -= offset;
+					}
+				}
+			}
+			finally {
+				inChannel.close();
+				aFile.close();
+			}
+		}
+		
+		this.computeFinalStats();
+		
+		return new double[] {this._count, this._sum, this._avg, this._min, this._max};
+	}
+	
+	/**
+	 * Returns the records of the last read, or all the records in the range if no read was
+	 * done, without the deleted positions in the range
+	 * 
+	 * @param offset Offset of the bits of the positions in the range
+	 * @return the result of the last read if no position of the range is deleted
+	 * @throws Exception
+	 */
+	private BitSet getLiveBitSet(int offset) throws Exception {
+		ImmutableRoaringBitmap deleted = DeletionBitmap.getDeleted(this._datasetName);
+		if (deleted == null)
+			return this._computedBitSet;
+		
+		int low = this._filterLowRange - 1;
+		int high = this._filterHighRange - 1;
+		PeekableIntIterator it = deleted.getIntIterator();
+		it.advanceIfNeeded(low);
+		if (!it.hasNext() || it.peekNext() > high)
+			return this._computedBitSet;
+		
+		BitSet bits = null;
+		if (this._computedBitSet == null) {
+			bits = new BitSet(offset + high - low + 1);
+			bits.set(offset, offset + high - low + 1);
+		}
+		else
+			bits = (BitSet) this._computedBitSet.clone();
+		
+		DeletionBitmap.apply(deleted, bits, low, high, offset - low, false);
+		
+		return bits;
+	}
+	
+	/**
+	 * Counts the not null values of a TIMESTAMP segment into time buckets for the records of
+	 * the last read (getData), or for all the records in the range if no read was done. All
+	 * the bucket widths are counted in a single pass, blocks whose values fall in one bucket
+	 * are counted without being decoded.
+	 * 
+	 * @param bucketMillis Widths of the buckets, FactTimestamp.MILLIS_PER_HOUR for an hourly series
+	 * @return one series per width; element 0 of a series is the beginning of its first bucket
+	 * in epoch milliseconds and element i + 1 the count of bucket i
+	 * @throws Exception
+	 */
+	public long[][] getTimeSeries(long[] bucketMillis) throws Exception {
+		
+		if (!this._timestamp)
+			throw new Exception ("Dataset " + this._datasetName + " is not a TIMESTAMP fact segment");
+		
+		// offset of the bits of the positions in the range
+		int offset = 0;
+		if (this._multithread)
+			offset = this._filterLowRange - 1;
+		
+		// deleted records are not aggregated
+		BitSet bits = this.getLiveBitSet(offset);
+		
+		FactCompressedSegment segment = FactCompressedSegment.getSegment(this._datasetName, this._headerLength, 
+				this._compressedEncoding, this._verifyChecksums);
+		
+		return segment.timeSeries(bucketMillis, this._filterLowRange - 1, this._filterHighRange, bits, 
+				offset - (this._filterLowRange - 1), this._noParallelDecodeThreads);
+	}
+	
+	/**
+	 * Computes the count, sum, average, minimum and maximum of the not null values of a DECIMAL
+	 * segment for the records of the last read (getData), or of all the records in the range
+	 * if no read was done. The scaled values are summed as long integers, spilling into a
+	 * BigInteger on overflow, so that the sum is exact.
+	 * 
+	 * @return count, sum, average rounded HALF_UP to the scale, minimum and maximum; the
+	 * average, minimum and maximum are null if no value is aggregated
+	 * @throws Exception
+	 */
+	public BigDecimal[] getDecimalAggregates() throws Exception {
+		
+		if (!this._decimal)
+			throw new Exception ("Dataset " + this._datasetName + " is not a DECIMAL fact segment");
+		
+		// offset of the bits of the positions in the range
+		int offset = 0;
+		if (this._multithread)
+			offset = this._filterLowRange - 1;
+		
+		// deleted records are not aggregated
+		BitSet bits = this.getLiveBitSet(offset);
+		
+		long count = 0;
+		long sum = 0;
+		BigInteger spill = BigInteger.ZERO;
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		boolean isInt = (this._encoding == CheckSum.FACT_ENCODE_TYPE_INT);
+		
+		RandomAccessFile aFile = new RandomAccessFile(this._datasetName, "r");
+		FileChannel inChannel = aFile.getChannel();
+		
+		try {
+			int mapSize = (this._filterHighRange - this._filterLowRange + 1) * this._dataLength;
+			MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (long)(this._filterLowRange - 1) * this._dataLength + this._headerLength, mapSize);
+			
+			// verify the block checksums of the mapped range
+			if (this._verifyChecksums)
+				BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(this._filterLowRange - 1) * this._dataLength, mapSize);
+			
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			
+			// the null checks are dropped if the null bitmap shows no null in the range
+			boolean nullFree = this.isNullFree();
+			
+			int records = this._filterHighRange - this._filterLowRange + 1;
+			int i = (bits == null ? 0 : bits.nextSetBit(offset) - offset);
+			while (i >= 0 && i < records) {
+				long value = 0;
+				boolean isNull = false;
+				if (isInt) {
+					int v = buffer.getInt(i * this._dataLength);
+					isNull = (!nullFree && v == Integer.MIN_VALUE);
+					value = v;
+				}
+				else {
+					value = buffer.getLong(i * this._dataLength);
+					isNull = (!nullFree && value == Long.MIN_VALUE);
+				}
+				
+				if (!isNull) {
+					++count;
+					
+					long s = sum + value;
+					// overflow if both operands have the sign opposite to the result
+					if (((sum ^ s) & (value ^ s)) < 0) {
+						spill = spill.add(BigInteger.valueOf(sum));
+						s = value;
+					}
+					sum = s;
+					
+					if (value < min)
+						min = value;
+					if (value > max)
+						max = value;
+				}
+				
+				if (bits == null)
+					++i;
+				else {
+					i = bits.nextSetBit(i + offset + 1);
+					if (i >= 0)
+						i -= offset;
+				}
+			}
+		}
+		finally {
+			inChannel.close();
+			aFile.close();
+		}
+		
+		BigDecimal total = new BigDecimal(spill.add(BigInteger.valueOf(sum)), this._scale);
+		if (count == 0)
+			return new BigDecimal[] {BigDecimal.ZERO, total, null, null, null};
+		
+		return new BigDecimal[] {BigDecimal.valueOf(count), total, total.divide(BigDecimal.valueOf(count), this._scale, RoundingMode.HALF_UP),
+				BigDecimal.valueOf(min, this._scale), BigDecimal.valueOf(max, this._scale)};
+	}
+	
+	/**
+	 * Resolves a single GT, GTEQ, LT, LTEQ or BETWEEN filter on a sorted or clustered segment
+	 * to one range of positions per run, by binary search over the mapped range
+	 * 
+	 * @return false if the filter is not a single range filter or the segment has no current
+	 * runs file with at most SortedRuns.MAX_RUNS runs
+	 * @throws Exception
+	 */
+	private boolean readDataSortedRuns() throws Exception {
+		int rangeFilters = (this._gt ? 1 : 0) + (this._gtEq ? 1 : 0) + (this._lt ? 1 : 0) + (this._ltEq ? 1 : 0) + (this._between ? 1 : 0);
+		if (rangeFilters != 1 || this._isNull || this._isNotNull || this._singleIn || this._multiIn || this._prefix || this._contains ||
+				this._datePart > 0 || this._encoding == CheckSum.FACT_ENCODE_TYPE_ALPHAN)
+			return false;
+		
+		SortedRuns runs = null;
+		try {
+			runs = SortedRuns.getRuns(this._datasetName);
+		}
+		catch (Exception e) {
+			// the values are scanned
+			e.printStackTrace();
+		}
+		
+		if (runs == null || !runs.isClustered() || !runs.isCurrent(new File(this._datasetName).lastModified(), this._segmentCount))
+			return false;
+		
+		// track the beginning time of the job
+		long startTime = System.nanoTime();
+		
+		RandomAccessFile aFile = new RandomAccessFile(this._datasetName, "r");
+		FileChannel inChannel = aFile.getChannel();
+		
+		try {
+			// reset counters
+			this._filteredCount = 0;
+			
+			int mapSize = (this._filterHighRange - this._filterLowRange + 1) * this._dataLength;
+			MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (long)(this._filterLowRange - 1) * this._dataLength + this._headerLength, mapSize);
+			
+			// verify the block checksums of the mapped range
+			if (this._verifyChecksums)
+				BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(this._filterLowRange - 1) * this._dataLength, mapSize);
+			
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			
+			// check if the bitset was set from outside
+			if (_computedBitSet == null)
+				_computedBitSet = new BitSet(this._filterHighRange - this._filterLowRange + 1);
+			
+			// offset to current position
+			int offset = 0;
+			if (this._multithread)
+				offset = this._filterLowRange - 1;
+			
+			Object low = (this._gt || this._gtEq ? this._gtFilter : (this._between ? this._between1Filter : null));
+			Object high = (this._lt || this._ltEq ? this._ltFilter : (this._between ? this._between2Filter : null));
+			boolean lowInclusive = !this._gt;
+			boolean highInclusive = !this._lt;
+			
+			if (runs.isFloatingPoint())
+				runs.filter(buffer, this._filterLowRange - 1, this._filterLowRange - 1, this._filterHighRange, 
+						(low == null ? Double.NEGATIVE_INFINITY : ((Number)low).doubleValue()), lowInclusive, 
+						(high == null ? Double.POSITIVE_INFINITY : ((Number)high).doubleValue()), highInclusive, 
+						this._computedBitSet, offset - (this._filterLowRange - 1));
+			else
+				runs.filter(buffer, this._filterLowRange - 1, this._filterLowRange - 1, this._filterHighRange, 
+						(low == null ? Long.MIN_VALUE : ((Number)low).longValue()), lowInclusive, 
+						(high == null ? Long.MAX_VALUE : ((Number)high).longValue()), highInclusive, 
+						this._computedBitSet, offset - (this._filterLowRange - 1));
+		}
+		finally {
+			inChannel.close();
+			aFile.close();
+			
+			// set the record count
+			if (this._computedBitSet != null)
+				this._filteredCount = this._computedBitSet.cardinality();
+			
+			// calculate the elapsed time of the process in milli seconds
+			this._elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((System.nanoTime() - startTime), TimeUnit.NANOSECONDS);
+			System.out.println("Sorted runs read time for " + this._datasetName + " (" + this._filterLowRange + ", " + this._filterHighRange + ") " + this._elapsedTimeInMillis);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * @return true if a value filter is set
+	 */
+	private boolean isValueFilterSet() {
+		return this._singleIn || this._multiIn || this._between || this._gt || this._gtEq ||
+				this._lt || this._ltEq || this._prefix || this._contains || this._datePart > 0;
+	}
+	
+	/**
+	 * Returns the null bitmap of a fact segment if it is current
+	 * 
+	 * @return null bitmap, null if the segment has no bitmap or it is not current
+	 */
+	private FactNullBitmap getNullBitmap() {
+		if (this._fileType != CheckSum.FILE_TYPE_FACT)
+			return null;
+		
+		try {
+			FactNullBitmap bitmap = FactNullBitmap.getBitmap(this._datasetName);
+			if (bitmap == null || !bitmap.isCurrent(new File(this._datasetName).lastModified(), this._segmentCount))
+				return null;
+			
+			return bitmap;
+		}
+		catch (Exception e) {
+			// the values are scanned
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	/**
+	 * @return true if the range has no null value according to a current null bitmap
+	 */
+	private boolean isNullFree() {
+		FactNullBitmap bitmap = this.getNullBitmap();
+		return bitmap != null && bitmap.getNullCount(this._filterLowRange - 1, this._filterHighRange) == 0;
+	}
+	
+	/**
+	 * Reads the null or not null positions of the range from the null bitmap of the segment
+	 * 
+	 * @return false if the segment has no current null bitmap
+	 */
+	private boolean readDataNullBitmap() {
+		FactNullBitmap bitmap = this.getNullBitmap();
+		if (bitmap == null)
+			return false;
+		
+		// track the beginning time of the job
+		long startTime = System.nanoTime();
+		
+		// check if the bitset was set from outside
+		if (_computedBitSet == null)
+			_computedBitSet = new BitSet(this._filterHighRange - this._filterLowRange + 1);
+		
+		// offset to current position
+		int offset = 0;
+		if (this._multithread)
+			offset = this._filterLowRange - 1;
+		
+		bitmap.getNulls(this._filterLowRange - 1, this._filterHighRange, this._computedBitSet, 
+				offset - (this._filterLowRange - 1), !this._isNull);
+		
+		this._filteredCount = this._computedBitSet.cardinality();
+		this._elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((System.nanoTime() - startTime), TimeUnit.NANOSECONDS);
+		System.out.println("Null bitmap read time for " + this._datasetName + " (" + this._filterLowRange + ", " + this._filterHighRange + ") " + this._elapsedTimeInMillis);
+		
+		return true;
+	}
+	
+	/**
+	 * The main method to read the data. Unless dirty reads are enabled, the version of a fact
+	 * segment with fixed length numeric records is pinned before the read and the records changed
+	 * after the version are matched with the values they had at the version once read. The
+	 * deleted positions, taken before the version is pinned, are null and are removed from the
+	 * result last, or added to it for IS NULL.
+	 * 
+	 * @throws Exception
+	 */
+	private void readData () throws Exception {
+		ImmutableRoaringBitmap deleted = DeletionBitmap.getDeleted(this._datasetName);
+		boolean versioned = (!this._readDirty && this.isVersioned(false));
+		DatasetVersions.Snapshot snapshot = (versioned ? this._snapshot : null);
+		boolean pinned = (versioned && snapshot == null);
+		if (pinned)
+			snapshot = DatasetVersions.pin(this._dbName, this._datasetName);
+		try {
+			this.readDataCurrent();
+			
+			if (snapshot != null && this._computedBitSet != null)
+				this.undoData(snapshot);
+			
+			int offset = (this._multithread ? 0 : -(this._filterLowRange - 1));
+			if (DeletionBitmap.apply(deleted, this._computedBitSet, this._filterLowRange - 1, this._filterHighRange - 1, offset, this._isNull))
+				this._filteredCount = this._computedBitSet.cardinality();
+		}
+		finally {
+			if (pinned)
+				snapshot.release();
+		}
+	}
+	
+	/**
+	 * Undoes the records of the range read that were changed after a pinned version, the
+	 * records are matched again with the values they had at the version.
+	 * 
+	 * @param snapshot Version pinned before the read
+	 * @throws Exception
+	 */
+	private void undoData(DatasetVersions.Snapshot snapshot) throws Exception {
+		DatasetVersions.Undo undo = snapshot.getUndo(this._filterLowRange - 1, this._filterHighRange - 1);
+		if (undo == null)
+			return;
+		
+		int offset = (this._multithread ? 0 : -(this._filterLowRange - 1));
+		FactValueFilter filter = this.getValueFilter();
+		for (int i = 0; i < undo.size(); i++) {
+			boolean match = (filter.isFloatingPoint() ? filter.accept(undo.getDouble(i)) : filter.accept(undo.getLong(i)));
+			
+			// IS NULL is the complement of the not null values
+			this._computedBitSet.set(undo.getPosition(i) + offset, match != this._isNull);
+		}
+		
+		this._filteredCount = this._computedBitSet.cardinality();
+	}
+	
+	/**
+	 * Reads the current records of the dataset. IS NULL and IS NOT NULL filters, and reads without
+	 * filters, are answered from the null bitmap of a fact segment if it is current; otherwise
+	 * the not null values are scanned and IS NULL is their complement within the range.
+	 * 
+	 * @throws Exception
+	 */
+	private void readDataCurrent () throws Exception {
+		if ((this._isNull || this._isNotNull || !this.isValueFilterSet()) && this.readDataNullBitmap())
+			return;
+		
+		this.readDataValues();
+		
+		if (this._isNull) {
+			int offset = 0;
+			if (this._multithread)
+				offset = this._filterLowRange - 1;
+			
+			this._computedBitSet.flip(offset, offset + this._filterHighRange - this._filterLowRange + 1);
+			this._filteredCount = this._computedBitSet.cardinality();
+		}
+	}
+	
+	/**
+	 * The method to read the values of the dataset. before actual read begins
+	 * pre-processing is done to arrange the filters in proper order to speed up the checks and
+	 * flags set to determine the actual filter method to call.
+	 * 
+	 * @throws Exception
+	 */
+	private void readDataValues () throws Exception {
+		
+		// block compressed segments are filtered block by block
+		if (this._compressed) {
+			this.readDataCompressed();
+			return;
+		}
+		
+		// sparse segments are filtered on their populated positions
+		if (this._sparse) {
+			this.readDataSparse();
+			return;
+		}
+		
+		// dictionary encoded segments are filtered on their codes
+		if (this._dictionaryEncoded) {
+			this.readDataDictionary();
+			return;
+		}
+		
+		// variable length segments are filtered on their slots and heap
+		if (this._varLength) {
+			this.readDataVarchar();
+			return;
+		}
+		
+		// range filters on sorted or clustered segments are resolved by binary search
+		if (this.readDataSortedRuns())
+			return;
+		
+		// track the beginning time of the job
+		long startTime = System.nanoTime();
+		
+		
+        try {
+        	// reset counters
+        	this._filteredCount = 0;
+        	
+        	// open file and map to memory
+            RandomAccessFile aFile = new RandomAccessFile(this._datasetName, "r");
+            FileChannel inChannel = aFile.getChannel();
+            
+            // Difference of low and high ranges with the actual data lengths
+            int mapSize = (this._filterHighRange - this._filterLowRange + 1) * this._dataLength;
+            
+            // Temporary buffer to pull data from memory 
+            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (this._filterLowRange - 1) * this._dataLength + this._headerLength, mapSize);
+            
+            // verify the block checksums of the mapped range
+            if (this._verifyChecksums)
+            	BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(this._filterLowRange - 1) * this._dataLength, mapSize);
+            
+            // set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning if non String
+            if (this._encoding != CheckSum.FACT_ENCODE_TYPE_ALPHAN)
+            	buffer.order(ByteOrder.LITTLE_ENDIAN);
+            
+            // check if the bitset was set from outside
+            if (_computedBitSet == null)
+            	_computedBitSet = new BitSet(this._filterHighRange - this._filterLowRange + 1);
+            	
+            			
+            // execute different type of reads based on 
+            // whether this is a single character filter, all ids set,
+            // range based filter or raw array of filters
+            // In addition, if this is running in a multi thread mode
+            // wherein the resultant bitset has been set from outside
+            // execute the multi reads
+            
+	        // ALPHAN filters are compared on the UTF-8 bytes
+	        if (this._encoding == CheckSum.FACT_ENCODE_TYPE_ALPHAN) {
+	        	this.readDataAlphan(buffer, this._multithread);
+	        }
+	        
+	        // not null positions, IS NULL is their complement
+	        else if (this._isNull || this._isNotNull) {
+	        	this.readDataNotNullValues(buffer, this._multithread);
+	        }
+	        
+	        // when filter contains only one value to check, EQ clause
+	        else if (this._singleIn) {
+	        	this.readDataSingleCheck(buffer, this._multithread);
+	        }
+	        
+	        // check ind. filter values, multiple values, IN CLAUSE
+	        else if (this._multiIn) {
+	        	this.readDataIN(buffer, this._multithread);
+	        }
+	        
+	        // gt, lt and between
+	        else if (this._gt && this._lt && this._between)
+            	this.readDataGTOrLTOrBETWEEN(buffer, this._multithread);	
+            
+	        // >=, <= and BETWEEN
+	        else if (this._gtEq && this._ltEq && this._between)
+            	this.readDataGTEQOrLTEQOrBETWEEN(buffer, this._multithread);
+            
+	        // > and <
+	        else if(this._gt && this._lt)
+            	this.readDataGTOrLT(buffer, this._multithread);
+            
+	        // >= and <=
+	        else if(this._gtEq && this._ltEq)
+            	this.readDataGTEQOrLTEQ(buffer, this._multithread);
+            
+	        // > filter
+	        else if (this._gt)
+            	this.readDataGT(buffer, this._multithread);
+            
+	        // >= filter
+	        else if (this._gtEq)
+            	this.readDataGTEQ(buffer, this._multithread);
+            
+	        // < filter
+	        else if (this._lt)
+            	this.readDataLT(buffer, this._multithread);
+            
+	        // <= filter
+	        else if (this._ltEq)
+            	this.readDataLTEQ(buffer, this._multithread);
+            
+	        // between filter
+	        else if (this._between)
+            	this.readDataBETWEEN(buffer, this._multithread);
+	        
+	        // not null positions
+            else
+            	this.readDataNotNullValues(buffer, this._multithread);
+	        
+            // close the channel
+	        inChannel.close();
+            // close the file
+            aFile.close();
+            
+            buffer = null;
+            
+        } catch (IOException ioe) {
+            throw new IOException(ioe);
+        } finally {
+        	
+        	// set the record count
+        	if (this._computedBitSet != null)
+        		this._filteredCount = this._computedBitSet.cardinality();
+        	
+        	// track the ending time of the process
+            long endTime = System.nanoTime();
+            
+            // calculate the elapsed time of the process in milli seconds
+            this._elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - startTime), TimeUnit.NANOSECONDS);
+            System.out.println("File based read time for " + this._datasetName + " (" + this._filterLowRange + ", " + this._filterHighRange + ") " + this._elapsedTimeInMillis);
+        }
+        
+	}	
+	
+	protected BitSet getData(byte[] filter, boolean not) {
+		try {
+			this.setFilter(filter, not);
+			this.readData();
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+		
+		return this.getResultBitSet();
+	}
+	
+	protected BitSet getData(short[] filter, boolean not) {
+		try {
+			this.setFilter(filter, not);
+			this.readData();
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+		
+		return this.getResultBitSet();
+	}
+	
+	/**
+	 * Method to get data for the input filter in a non threaded mode
+	 * @param filter An array of characters
+	 * @return
+	 */
+	protected BitSet getData(int[] filter, boolean not) {
+		try {
+			this.setFilter(filter, not);
+			this.readData();
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+		
+		return this.getResultBitSet();
+	}
+	
+	protected BitSet getData(long[] filter, boolean not) {
+		try {
+			this.setFilter(filter, not);
+			this.readData();
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+		
+		return this.getResultBitSet();
+	}
+	
+	protected BitSet getData(float[] filter, boolean not) {
+		try {
+			this.setFilter(filter, not);
+			this.readData();
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+		
+		return this.getResultBitSet();
+	}
+	
+	protected BitSet getData(double[] filter, boolean not) {
+		try {
+			this.setFilter(filter, not);
+			this.readData();
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+		
+		return this.getResultBitSet();
+	}
+	
+	protected BitSet getData(String[] filter, boolean not) {
+		try {
+			this.setFilter(filter, not);
+			this.readData();
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+		
+		return this.getResultBitSet();
+	}
+	
+	public BitSet getData() throws Exception {
+		try {
+			if (this.isValueFilterSet() || this._isNull || this._isNotNull)
+				this.readData();
 			else
 				throw new Exception("No filters set!");
 		}
@@ -4048,23 +5265,24 @@ public class DataReader extends Observable implements Runnable {
 		int[] segmentNo = new int[1];
 		int[] datasize = new int[1];
 		short[] decimals = new short[1];
+		int[] headerLength = new int[1];
 		
 		int read = -1;
 		int i = -1;
 		try {	
-			CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo);
+			CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
 			
 			aFile = new RandomAccessFile(datasetName, "r");
 			inChannel = aFile.getChannel();
 			//buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, CheckSum.FILE_CHECKSUM_LENGTH, (fileSize - CheckSum.FILE_CHECKSUM_LENGTH));
-			buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, CheckSum.FILE_CHECKSUM_LENGTH, (fileSize - CheckSum.FILE_CHECKSUM_LENGTH));
+			buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, headerLength[0], (fileSize - headerLength[0]));
 			// set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
             buffer.order(ByteOrder.LITTLE_ENDIAN);
 			
             //System.out.println("Checking entire range of characters in multi thread mode");
 			// offset to current position
 			
-			int count = (fileSize - CheckSum.FILE_CHECKSUM_LENGTH)/datasize[0];
+			int count = (fileSize - headerLength[0])/datasize[0];
 			for (int j = 0; j < noDistributions + 1; j++)
 				b[j] = new BitSet(count);
 			
@@ -4463,6 +5681,8 @@ class DataReaderCastGroupingThreadObj implements Runnable {
 	int _filterLowRange = 0;
 	int _filterHighRange = 0;
 	int _dataLength = 0;
+	int _headerLength = CheckSum.FILE_CHECKSUM_LENGTH;
+	boolean _verifyChecksums = false;
 	int _type = 0;
 	String _threadname = null;
 	
@@ -4517,7 +5737,11 @@ class DataReaderCastGroupingThreadObj implements Runnable {
             //System.out.println("Map size : " + mapSize);
             
             // Map the file into memory
-            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (this._filterLowRange - 1) * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH, mapSize);
+            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (this._filterLowRange - 1) * this._dataLength + this._headerLength, mapSize);
+            
+            // verify the block checksums of the mapped range
+            if (this._verifyChecksums)
+            	BlockCheckSum.verify(this._databaseName, this._datasetName, inChannel, this._headerLength, buffer, (long)(this._filterLowRange - 1) * this._dataLength, mapSize);
             
             // set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
             buffer.order(ByteOrder.LITTLE_ENDIAN);
@@ -4609,7 +5833,11 @@ class DataReaderCastGroupingThreadObj implements Runnable {
             int recordCount = this._filterHighRange - this._filterLowRange + 1;
             
             // Map the file into memory
-            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (this._filterLowRange - 1) * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH, mapSize);
+            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (this._filterLowRange - 1) * this._dataLength + this._headerLength, mapSize);
+            
+            // verify the block checksums of the mapped range
+            if (this._verifyChecksums)
+            	BlockCheckSum.verify(this._databaseName, this._datasetName, inChannel, this._headerLength, buffer, (long)(this._filterLowRange - 1) * this._dataLength, mapSize);
             
             // set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
             buffer.order(ByteOrder.LITTLE_ENDIAN);
@@ -4682,6 +5910,8 @@ class DataReaderCastGroupingThread implements Runnable {
 	int _filterLowRange = 0;
 	int _filterHighRange = 0;
 	int _dataLength = 0;
+	int _headerLength = CheckSum.FILE_CHECKSUM_LENGTH;
+	boolean _verifyChecksums = false;
 	int _type = 0;
 	String _threadname = null;
 	
@@ -4735,7 +5965,11 @@ class DataReaderCastGroupingThread implements Runnable {
             //System.out.println("Map size : " + mapSize);
             
             // Map the file into memory
-            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (this._filterLowRange - 1) * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH, mapSize);
+            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (this._filterLowRange - 1) * this._dataLength + this._headerLength, mapSize);
+            
+            // verify the block checksums of the mapped range
+            if (this._verifyChecksums)
+            	BlockCheckSum.verify(this._databaseName, this._datasetName, inChannel, this._headerLength, buffer, (long)(this._filterLowRange - 1) * this._dataLength, mapSize);
             
             // set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
             buffer.order(ByteOrder.LITTLE_ENDIAN);
@@ -4836,7 +6070,11 @@ class DataReaderCastGroupingThread implements Runnable {
             //System.out.println("Map size : " + mapSize);
             
             // Map the file into memory
-            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (this._filterLowRange - 1) * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH, mapSize);
+            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (this._filterLowRange - 1) * this._dataLength + this._headerLength, mapSize);
+            
+            // verify the block checksums of the mapped range
+            if (this._verifyChecksums)
+            	BlockCheckSum.verify(this._databaseName, this._datasetName, inChannel, this._headerLength, buffer, (long)(this._filterLowRange - 1) * this._dataLength, mapSize);
             
             // set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
             buffer.order(ByteOrder.LITTLE_ENDIAN);
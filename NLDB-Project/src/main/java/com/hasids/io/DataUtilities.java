@@ -6,7 +6,9 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 
+import com.hasids.datastructures.BlockCheckSum;
 import com.hasids.datastructures.CheckSum;
+import com.hasids.io.dataset.DatasetCatalog;
 
 public class DataUtilities {
 
@@ -63,6 +65,26 @@ public class DataUtilities {
 			// lock the channel
 			FileLock fl = rwChannel.lock();
 			
+			// version 2 files keep the full header page and reset the record count
+			if (fileType[0] != CheckSum.FILE_TYPE_UNI && CheckSum.getFileVersion(rwChannel) == CheckSum.FILE_VERSION_2) {
+				rwChannel.truncate(CheckSum.FILE_V2_HEADER_LENGTH);
+				
+				long lastModifiedTime = System.currentTimeMillis();
+				MappedByteBuffer buffer = rwChannel.map(FileChannel.MapMode.READ_WRITE, 0, CheckSum.FILE_V2_CACHE_LINE_LENGTH);
+				CheckSum.writeHeaderV2(buffer, fileType[0], encoding[0], segmentNo[0], datasize[0], decimals[0], 0, 
+						dbName + "|" + datasetName, CheckSum.FILE_V2_HEADER_LENGTH, lastModifiedTime);
+				buffer.force();
+				buffer = null;
+				
+				fl.release();
+				rwChannel.close();
+				randomAccessFile.close();
+				f.setLastModified(lastModifiedTime);
+				BlockCheckSum.rebuild(datasetName, CheckSum.FILE_V2_HEADER_LENGTH);
+				DatasetCatalog.remove(dbName, datasetName);
+				return;
+			}
+			
 			// truncate the file up to end of file header 
 			if (fileType[0] == CheckSum.FILE_TYPE_UNI)
 				rwChannel.truncate(CheckSum.UNIFILE_CHECKSUM_LENGTH); 
@@ -98,6 +120,10 @@ public class DataUtilities {
 			randomAccessFile.close();
 			// set the file last modified time
 			f.setLastModified(lastModifiedTime);
+			// reset the block checksums of the now empty data region
+			BlockCheckSum.rebuild(datasetName, (fileType[0] == CheckSum.FILE_TYPE_UNI ? CheckSum.UNIFILE_CHECKSUM_LENGTH : CheckSum.FILE_CHECKSUM_LENGTH));
+			// the catalog entry is reloaded from the header on its next use
+			DatasetCatalog.remove(dbName, datasetName);
 			
 		}
 		catch(Exception e) {
@@ -0,0 +1,497 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Versions of a dataset for snapshot reads. Every commit of a writer increments the version of
+ * the dataset. A reader pins the current version before it reads the dataset and undoes the
+ * changes made after that version on the records read, using the values the records had before
+ * the change. ONLINE sessions open an undo delta with the values saved when their positions were
+ * locked before they modify the pages, the delta is undone by every reader until the session
+ * ends. When the session commits or rolls back its deltas become committed deltas of the new
+ * version, which are kept only while a reader pinned an older version. Deltas hold the positions
+ * in ascending order and the raw values of the records, dataLength bytes per position.
+ *
+ * A session writing several datasets ends in all of them at once through commit(owner, versions),
+ * readers of several datasets pin them at once through pin(dbName, datasetNames) and see either
+ * all the datasets of such a session changed or none of them.
+ */
+package com.hasids.io;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.TreeMap;
+
+public final class DatasetVersions {
+
+	// versions of the datasets, keyed on the db name and dataset name
+	private static Hashtable<String, DatasetVersions> VERSIONS = new Hashtable<String, DatasetVersions>();
+
+	// sessions of several datasets end and readers of several datasets pin under this monitor
+	private static final Object GROUP_MONITOR = new Object();
+
+	private String _key;
+	private long _version = 0;
+
+	// deltas of the sessions that modified pages and did not end
+	private Delta[] _open = new Delta[0];
+
+	// deltas of the commits in ascending version order
+	private Delta[] _committed = new Delta[0];
+
+	// number of readers of each pinned version
+	private TreeMap<Long, Integer> _pinned = new TreeMap<Long, Integer>();
+
+	private DatasetVersions(String key) {
+		this._key = key;
+	}
+
+	/**
+	 * Returns the versions of a dataset, creating them if they do not exist.
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Dataset file name
+	 * @return Versions of the dataset
+	 */
+	public static DatasetVersions getVersions(String dbName, String datasetName) {
+		String key = dbName + "|" + datasetName;
+		synchronized (VERSIONS) {
+			DatasetVersions versions = VERSIONS.get(key);
+			if (versions == null) {
+				versions = new DatasetVersions(key);
+				VERSIONS.put(key, versions);
+			}
+
+			return versions;
+		}
+	}
+
+	/**
+	 * Pins the current version of a dataset for a read.
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Dataset file name
+	 * @return Snapshot of the current version, to be released at the end of the read
+	 */
+	public static Snapshot pin(String dbName, String datasetName) {
+		return DatasetVersions.getVersions(dbName, datasetName).pin();
+	}
+
+	/**
+	 * Pins the current versions of several datasets for a read, no session writing several of
+	 * them ends in between.
+	 *
+	 * @param dbName Database name
+	 * @param datasetNames Dataset file names
+	 * @return Snapshots of the current versions in the order of the names, to be released at the
+	 * end of the read
+	 */
+	public static Snapshot[] pin(String dbName, String[] datasetNames) {
+		DatasetVersions[] versions = new DatasetVersions[datasetNames.length];
+		for (int i = 0; i < datasetNames.length; i++)
+			versions[i] = DatasetVersions.getVersions(dbName, datasetNames[i]);
+
+		Snapshot[] snapshots = new Snapshot[versions.length];
+		synchronized (GROUP_MONITOR) {
+			for (int i = 0; i < versions.length; i++)
+				snapshots[i] = versions[i].pin();
+		}
+
+		return snapshots;
+	}
+
+	/**
+	 * Ends a session in several datasets at once. Readers pinning the datasets together see the
+	 * values of the session in all of them or in none of them.
+	 *
+	 * @param owner Session ending
+	 * @param versions Versions of the datasets written by the session
+	 * @return New versions of the datasets
+	 */
+	public static long[] commit(Object owner, DatasetVersions[] versions) {
+		long[] newVersions = new long[versions.length];
+		synchronized (GROUP_MONITOR) {
+			for (int i = 0; i < versions.length; i++)
+				newVersions[i] = versions[i].commit(owner);
+		}
+
+		return newVersions;
+	}
+
+	public String getKey() {
+		return this._key;
+	}
+
+	public synchronized long getVersion() {
+		return this._version;
+	}
+
+	public synchronized int getCommittedDeltaCount() {
+		return this._committed.length;
+	}
+
+	public synchronized int getOpenDeltaCount() {
+		return this._open.length;
+	}
+
+	/**
+	 * Opens an undo delta of a session before the session modifies the pages of the positions.
+	 *
+	 * @param owner Session modifying the pages
+	 * @param dataLength Length of a record of the dataset
+	 * @param positions Positions locked by the session
+	 * @param undo Values saved when the positions were locked, dataLength bytes per position
+	 */
+	public synchronized void open(Object owner, int dataLength, int[] positions, byte[] undo) {
+		if (positions.length == 0)
+			return;
+
+		Delta[] open = Arrays.copyOf(this._open, this._open.length + 1);
+		open[this._open.length] = new Delta(owner, 0, dataLength, positions, undo);
+		this._open = open;
+	}
+
+	/**
+	 * Ends a session. The version of the dataset is incremented and the open deltas of the
+	 * session are kept as deltas of the new version if a reader pinned an older version.
+	 *
+	 * @param owner Session ending
+	 * @return New version of the dataset
+	 */
+	public synchronized long commit(Object owner) {
+		long version = ++this._version;
+
+		int count = 0;
+		for (int i = 0; i < this._open.length; i++)
+			if (this._open[i]._owner.get() != owner)
+				count++;
+
+		if (count < this._open.length) {
+			Delta[] open = new Delta[count];
+			count = 0;
+			for (int i = 0; i < this._open.length; i++) {
+				if (this._open[i]._owner.get() != owner)
+					open[count++] = this._open[i];
+				else if (this._pinned.size() > 0)
+					this.addCommitted(new Delta(null, version, this._open[i]));
+			}
+			this._open = open;
+		}
+
+		return version;
+	}
+
+	/**
+	 * Commits a change of the pages of a dataset made outside of a session, before the pages
+	 * are modified. The version of the dataset is incremented.
+	 *
+	 * @param dataLength Length of a record of the dataset
+	 * @param positions Positions to be modified
+	 * @param undo Values of the positions before the change, dataLength bytes per position
+	 * @return New version of the dataset
+	 */
+	public synchronized long commit(int dataLength, int[] positions, byte[] undo) {
+		long version = ++this._version;
+		if (this._pinned.size() > 0 && positions.length > 0)
+			this.addCommitted(new Delta(null, version, dataLength, positions, undo));
+
+		return version;
+	}
+
+	/**
+	 * @return Oldest version pinned by a reader, or the current version if no version is pinned
+	 */
+	public synchronized long getOldestPinnedVersion() {
+		if (this._pinned.size() == 0)
+			return this._version;
+
+		return this._pinned.firstKey().longValue();
+	}
+
+	/**
+	 * Pins the current version for a read.
+	 *
+	 * @return Snapshot of the current version, to be released at the end of the read
+	 */
+	public synchronized Snapshot pin() {
+		Long version = Long.valueOf(this._version);
+		Integer count = this._pinned.get(version);
+		this._pinned.put(version, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+
+		return new Snapshot(this, this._version);
+	}
+
+	private synchronized void release(long version) {
+		Long key = Long.valueOf(version);
+		Integer count = this._pinned.get(key);
+		if (count == null)
+			return;
+
+		if (count.intValue() <= 1)
+			this._pinned.remove(key);
+		else
+			this._pinned.put(key, Integer.valueOf(count.intValue() - 1));
+
+		// committed deltas of versions not newer than the oldest pinned version are not read again
+		long oldest = this.getOldestPinnedVersion();
+		int i = 0;
+		while (i < this._committed.length && this._committed[i]._version <= oldest)
+			i++;
+
+		if (i > 0)
+			this._committed = Arrays.copyOfRange(this._committed, i, this._committed.length);
+	}
+
+	private void addCommitted(Delta delta) {
+		Delta[] committed = Arrays.copyOf(this._committed, this._committed.length + 1);
+		committed[this._committed.length] = delta;
+		this._committed = committed;
+	}
+
+	/**
+	 * Returns the values the records of a range had at a version. The open deltas are applied
+	 * first and then the committed deltas newer than the version from the newest to the oldest,
+	 * so that the value of a position is the value before the first change after the version.
+	 */
+	private Undo getUndo(long version, int low, int high) {
+		Delta[] sources = null;
+		synchronized (this) {
+			int newer = 0;
+			for (int i = 0; i < this._committed.length; i++)
+				if (this._committed[i]._version > version)
+					newer++;
+
+			if (this._open.length == 0 && newer == 0)
+				return null;
+
+			sources = Arrays.copyOf(this._open, this._open.length + newer);
+			for (int i = this._committed.length - 1, j = this._open.length; i >= 0 && this._committed[i]._version > version; i--)
+				sources[j++] = this._committed[i];
+		}
+
+		int count = 0;
+		int[] from = new int[sources.length];
+		int[] to = new int[sources.length];
+		for (int s = 0; s < sources.length; s++) {
+			from[s] = sources[s].indexOf(low);
+			to[s] = sources[s].indexOf(high + 1);
+			count += to[s] - from[s];
+		}
+
+		if (count == 0)
+			return null;
+
+		// position in the high bits and source in the low bits, the last source of a position wins
+		long[] keys = new long[count];
+		count = 0;
+		for (int s = 0; s < sources.length; s++)
+			for (int i = from[s]; i < to[s]; i++)
+				keys[count++] = ((long) sources[s]._positions[i] << 32) | s;
+		Arrays.sort(keys);
+
+		int dataLength = sources[0]._dataLength;
+		int[] positions = new int[count];
+		ByteBuffer values = ByteBuffer.allocate(count * dataLength).order(ByteOrder.LITTLE_ENDIAN);
+		int size = 0;
+		for (int k = 0; k < keys.length; k++) {
+			if (k + 1 < keys.length && (keys[k + 1] >>> 32) == (keys[k] >>> 32))
+				continue;
+
+			Delta source = sources[(int) (keys[k] & 0xFFFFFFFFL)];
+			int position = (int) (keys[k] >>> 32);
+			int i = Arrays.binarySearch(source._positions, position);
+			positions[size++] = position;
+			values.put(source._values, i * dataLength, dataLength);
+		}
+
+		return new Undo(dataLength, Arrays.copyOf(positions, size), values);
+	}
+
+	/**
+	 * Undo delta of a session or of a commit
+	 */
+	private static final class Delta {
+		// a session released without ending is not kept reachable by its open deltas
+		private WeakReference<Object> _owner;
+		private long _version;
+		private int _dataLength;
+		private int[] _positions;
+		private byte[] _values;
+
+		private Delta(Object owner, long version, int dataLength, int[] positions, byte[] values) {
+			this._owner = new WeakReference<Object>(owner);
+			this._version = version;
+			this._dataLength = dataLength;
+
+			long[] entries = new long[positions.length];
+			for (int i = 0; i < positions.length; i++)
+				entries[i] = ((long) positions[i] << 32) | i;
+			Arrays.sort(entries);
+
+			this._positions = new int[entries.length];
+			this._values = new byte[entries.length * dataLength];
+			for (int i = 0; i < entries.length; i++) {
+				this._positions[i] = (int) (entries[i] >>> 32);
+				System.arraycopy(values, (int) entries[i] * dataLength, this._values, i * dataLength, dataLength);
+			}
+		}
+
+		private Delta(Object owner, long version, Delta delta) {
+			this._owner = new WeakReference<Object>(owner);
+			this._version = version;
+			this._dataLength = delta._dataLength;
+			this._positions = delta._positions;
+			this._values = delta._values;
+		}
+
+		/**
+		 * @return index of the first position not less than the input position
+		 */
+		private int indexOf(int position) {
+			int i = Arrays.binarySearch(this._positions, position);
+			return (i < 0 ? -(i + 1) : i);
+		}
+	}
+
+	/**
+	 * Version of a dataset pinned by a reader
+	 */
+	public static final class Snapshot {
+		private DatasetVersions _versions;
+		private long _version;
+		private boolean _released = false;
+
+		private Snapshot(DatasetVersions versions, long version) {
+			this._versions = versions;
+			this._version = version;
+		}
+
+		public long getVersion() {
+			return this._version;
+		}
+
+		/**
+		 * Returns the values of the records of a range at the pinned version that differ from
+		 * the pages of the dataset. Must be called after the range is read.
+		 *
+		 * @param low First position, 0 based
+		 * @param high Last position, 0 based
+		 * @return Values of the records at the pinned version, null if there are none
+		 */
+		public Undo getUndo(int low, int high) {
+			return this._versions.getUndo(this._version, low, high);
+		}
+
+		/**
+		 * Releases the pinned version
+		 */
+		public void release() {
+			if (this._released)
+				return;
+
+			this._released = true;
+			this._versions.release(this._version);
+		}
+	}
+
+	/**
+	 * Values of the records of a range at a version, in ascending position order
+	 */
+	public static final class Undo {
+		private int _dataLength;
+		private int[] _positions;
+		private ByteBuffer _values;
+
+		private Undo(int dataLength, int[] positions, ByteBuffer values) {
+			this._dataLength = dataLength;
+			this._positions = positions;
+			this._values = values;
+		}
+
+		public int size() {
+			return this._positions.length;
+		}
+
+		/**
+		 * @param i Index of the record
+		 * @return Position of the record, 0 based
+		 */
+		public int getPosition(int i) {
+			return this._positions[i];
+		}
+
+		/**
+		 * @param position Position, 0 based
+		 * @return Index of the record of the position, or a negative value if it is not undone
+		 */
+		public int indexOf(int position) {
+			return Arrays.binarySearch(this._positions, position);
+		}
+
+		/**
+		 * @param i Index of the record
+		 * @return Value of the record as a signed integer of the length of the record
+		 */
+		public long getLong(int i) {
+			int offset = i * this._dataLength;
+			if (this._dataLength == 1)
+				return this._values.get(offset);
+			else if (this._dataLength == 2)
+				return this._values.getShort(offset);
+			else if (this._dataLength == 4)
+				return this._values.getInt(offset);
+
+			return this._values.getLong(offset);
+		}
+
+		/**
+		 * @param i Index of the record
+		 * @return Value of the record as a FLOAT or DOUBLE of the length of the record
+		 */
+		public double getDouble(int i) {
+			if (this._dataLength == 4)
+				return this._values.getFloat(i * this._dataLength);
+
+			return this._values.getDouble(i * this._dataLength);
+		}
+
+		/**
+		 * @param i Index of the record
+		 * @return Raw bytes of the record
+		 */
+		public byte[] getBytes(int i) {
+			byte[] b = new byte[this._dataLength];
+			System.arraycopy(this._values.array(), i * this._dataLength, b, 0, this._dataLength);
+			return b;
+		}
+	}
+
+	public static void main(String[] args) {
+		DatasetVersions versions = DatasetVersions.getVersions("Test", "c:\\users\\dpras\\tempdata\\testdata\\sex_1.DM");
+		Object session = new Object();
+		int n = 1000000;
+		int[] positions = new int[n];
+		byte[] undo = new byte[n];
+		for (int i = 0; i < n; i++) {
+			positions[i] = i * 2;
+			undo[i] = (byte) (i % 2 + 1);
+		}
+
+		Snapshot before = versions.pin();
+		long beginTime = System.nanoTime();
+		versions.open(session, 1, positions, undo);
+		versions.commit(session);
+		System.out.println("Commit time : " + (System.nanoTime() - beginTime)/1000000 + " Milliseconds, version : " + versions.getVersion());
+
+		beginTime = System.nanoTime();
+		Undo u = before.getUndo(0, 2 * n);
+		System.out.println("Records undone for version " + before.getVersion() + " : " + u.size() + ", time : " + (System.nanoTime() - beginTime)/1000000 + " Milliseconds");
+
+		before.release();
+		System.out.println("Committed deltas after release : " + versions.getCommittedDeltaCount());
+	}
+}
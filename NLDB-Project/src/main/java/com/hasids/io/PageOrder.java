@@ -0,0 +1,300 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Orders the positions of a write in ascending position, and hence page, order. The writers
+ * apply the values of a write in the order returned so that the pages of a mapped segment are
+ * faulted in and dirtied sequentially instead of at random. Positions are sorted using a stable
+ * LSD radix sort on 8 bit digits, only the digits needed for the highest position are sorted.
+ * Large writes are sorted in parallel, each thread counting and scattering a contiguous chunk
+ * of the positions for every digit. A position that appears more than once keeps its last
+ * index, the value written last by the caller wins.
+ */
+
+package com.hasids.io;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+public final class PageOrder {
+
+	public static final int PARALLEL_SORT_THRESHOLD = 1 << 18;
+	public static final int MIN_CHUNK_SIZE = 1 << 16;
+
+	private static final int RADIX_BITS = 8;
+	private static final int RADIX = 1 << RADIX_BITS;
+	private static final int RADIX_MASK = RADIX - 1;
+
+	private PageOrder() {
+	}
+
+	/**
+	 * Returns the indexes of the positions in ascending position order. Positions that appear
+	 * more than once are returned once with their last index.
+	 *
+	 * @param positions Positions to order, must be >= 0
+	 * @param length Number of positions to order
+	 * @return indexes in page order, null if the positions are already in ascending order
+	 * without duplicates
+	 */
+	public static int[] sort(int[] positions, int length) {
+		boolean sorted = true;
+		int max = (length > 0 ? positions[0] : 0);
+		for (int i = 1; i < length; i++) {
+			if (positions[i] <= positions[i - 1])
+				sorted = false;
+			if (positions[i] > max)
+				max = positions[i];
+		}
+
+		if (sorted)
+			return null;
+
+		int[] keys = new int[length];
+		int[] indexes = new int[length];
+		System.arraycopy(positions, 0, keys, 0, length);
+		for (int i = 0; i < length; i++)
+			indexes[i] = i;
+
+		radixSort(keys, indexes, length, max);
+
+		// the sort is stable, the last of the equal positions has the highest index
+		int unique = 0;
+		for (int i = 0; i < length; i++) {
+			if (i + 1 < length && keys[i + 1] == keys[i])
+				continue;
+			indexes[unique++] = indexes[i];
+		}
+
+		if (unique == length)
+			return indexes;
+
+		int[] order = new int[unique];
+		System.arraycopy(indexes, 0, order, 0, unique);
+		return order;
+	}
+
+	/**
+	 * Returns the positions in ascending position order without duplicates
+	 *
+	 * @param positions Positions to order, must be >= 0
+	 * @return positions in page order, the same array if already in ascending order
+	 */
+	public static int[] sortPositions(int[] positions) {
+		int[] order = sort(positions, positions.length);
+		if (order == null)
+			return positions;
+
+		int[] sorted = new int[order.length];
+		for (int i = 0; i < order.length; i++)
+			sorted[i] = positions[order[i]];
+
+		return sorted;
+	}
+
+	/**
+	 * Sorts the keys and their indexes on the digits of the keys up to the highest key
+	 */
+	private static void radixSort(int[] keys, int[] indexes, int length, int max) {
+		int passes = 1;
+		while (passes < (32 / RADIX_BITS) && (max >>> (passes * RADIX_BITS)) != 0)
+			passes++;
+
+		int noThreads = 1;
+		if (length >= PARALLEL_SORT_THRESHOLD)
+			noThreads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), length / MIN_CHUNK_SIZE));
+
+		Pass pass = new Pass(keys, indexes, length, passes, noThreads);
+		if (noThreads == 1) {
+			pass.sort(0);
+		}
+		else {
+			Thread[] threads = new Thread[noThreads - 1];
+			for (int i = 0; i < threads.length; i++) {
+				final int chunk = i + 1;
+				threads[i] = new Thread(new Runnable() {
+					public void run() {
+						pass.sort(chunk);
+					}
+				}, "PageOrder-sort-" + chunk);
+				threads[i].setDaemon(true);
+				threads[i].start();
+			}
+
+			pass.sort(0);
+
+			for (int i = 0; i < threads.length; i++) {
+				try {
+					threads[i].join();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		// the sorted keys are in the scratch arrays after an odd number of passes
+		if ((passes & 1) == 1) {
+			System.arraycopy(pass._keys[1], 0, keys, 0, length);
+			System.arraycopy(pass._indexes[1], 0, indexes, 0, length);
+		}
+	}
+
+	/**
+	 * State shared by the threads sorting the chunks of the keys. For every digit each thread
+	 * counts the digits of its chunk, the counts are turned into the offsets of each chunk in
+	 * the digit order and each thread scatters its chunk to its offsets. The chunks are
+	 * scattered in their order, which keeps the sort stable.
+	 */
+	private static final class Pass {
+		private int[][] _keys = new int[2][];
+		private int[][] _indexes = new int[2][];
+		private int _length;
+		private int _passes;
+		private int _noThreads;
+		private int[][] _counts;
+		private CyclicBarrier _barrier;
+
+		private Pass(int[] keys, int[] indexes, int length, int passes, int noThreads) {
+			this._keys[0] = keys;
+			this._keys[1] = new int[length];
+			this._indexes[0] = indexes;
+			this._indexes[1] = new int[length];
+			this._length = length;
+			this._passes = passes;
+			this._noThreads = noThreads;
+			this._counts = new int[noThreads][RADIX];
+
+			// the last thread to count turns the counts into offsets
+			this._barrier = new CyclicBarrier(noThreads, new Runnable() {
+				public void run() {
+					offsets();
+				}
+			});
+		}
+
+		private void offsets() {
+			int offset = 0;
+			for (int d = 0; d < RADIX; d++) {
+				for (int t = 0; t < this._noThreads; t++) {
+					int count = this._counts[t][d];
+					this._counts[t][d] = offset;
+					offset += count;
+				}
+			}
+		}
+
+		private void sort(int chunk) {
+			int chunkSize = (this._length + this._noThreads - 1) / this._noThreads;
+			int low = Math.min(this._length, chunk * chunkSize);
+			int high = Math.min(this._length, low + chunkSize);
+			int[] counts = this._counts[chunk];
+
+			for (int p = 0; p < this._passes; p++) {
+				int shift = p * RADIX_BITS;
+				int[] srcKeys = this._keys[p & 1];
+				int[] srcIndexes = this._indexes[p & 1];
+				int[] dstKeys = this._keys[(p + 1) & 1];
+				int[] dstIndexes = this._indexes[(p + 1) & 1];
+
+				Arrays.fill(counts, 0);
+				for (int i = low; i < high; i++)
+					counts[(srcKeys[i] >>> shift) & RADIX_MASK]++;
+
+				// the offsets are computed by the barrier action once all the chunks are counted
+				if (this._noThreads == 1)
+					this.offsets();
+				else
+					this.await();
+
+				int d;
+				for (int i = low; i < high; i++) {
+					d = (srcKeys[i] >>> shift) & RADIX_MASK;
+					dstKeys[counts[d]] = srcKeys[i];
+					dstIndexes[counts[d]++] = srcIndexes[i];
+				}
+
+				// the next pass reads what the other threads scattered
+				if (this._noThreads > 1)
+					this.await();
+			}
+		}
+
+		private void await() {
+			try {
+				this._barrier.await();
+			}
+			catch (InterruptedException | BrokenBarrierException e) {
+				throw new IllegalStateException("Page order sort interrupted", e);
+			}
+		}
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		// random writes of int values into a cold segment, once in the order generated and once
+		// in page order
+		String fileName = "c:\\users\\dpras\\tempdata\\testdata\\pageorder";
+		int recordCount = 250000000;
+		int dataLength = 4;
+		int writeCount = 4000000;
+
+		try {
+			Random r = new Random(1);
+			int[] positions = new int[writeCount];
+			int[] values = new int[writeCount];
+			for (int i = 0; i < writeCount; i++) {
+				positions[i] = r.nextInt(recordCount);
+				values[i] = i;
+			}
+
+			for (int run = 0; run < 2; run++) {
+				File f = new File(fileName + run + ".FC");
+				f.delete();
+
+				RandomAccessFile raf = new RandomAccessFile(f, "rw");
+				raf.setLength((long)recordCount * dataLength);
+				FileChannel channel = raf.getChannel();
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long)recordCount * dataLength);
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+				long beginTime = System.nanoTime();
+
+				if (run == 0) {
+					for (int i = 0; i < writeCount; i++)
+						buffer.putInt(positions[i] * dataLength, values[i]);
+				}
+				else {
+					int[] order = PageOrder.sort(positions, writeCount);
+					for (int i = 0; i < order.length; i++)
+						buffer.putInt(positions[order[i]] * dataLength, values[order[i]]);
+				}
+				buffer.force();
+
+				long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((System.nanoTime() - beginTime), TimeUnit.NANOSECONDS);
+				System.out.println((run == 0 ? "Random order" : "Page order") + " write of " + writeCount + " records : " + elapsedTimeInMillis + " Milliseconds");
+
+				channel.close();
+				raf.close();
+				f.delete();
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,1041 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Lock manager of the record positions of a dataset written in ONLINE mode by DataWriter,
+ * DimDataWriter and LinkDataWriter. The positions are striped on blocks of 4096 records over
+ * 64 stripes, each with its own lock, an open addressing map of int positions to undo slots
+ * and a direct buffer holding the values of the locked positions in the file for a rollback.
+ * Runs of at least MIN_RANGE_LENGTH contiguous positions are locked as a single range whose
+ * values are copied in one block. Sessions locking positions of different stripes do not wait
+ * on each other and no objects are created for each locked position.
+ *
+ * Sessions retrying positions locked by other sessions wait in a FIFO queue of each stripe of
+ * the positions until a deadline. A released position is locked at once for the first session
+ * of the queue waiting for it, which is woken up, so that retried positions are written as soon
+ * as they are unlocked without the sessions polling the locks.
+ */
+package com.hasids.io;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+public final class PositionLockManager {
+
+	// lock managers of the datasets, keyed on the db name and dataset name
+	private static Hashtable<String, PositionLockManager> LOCK_MANAGERS = new Hashtable<String, PositionLockManager>();
+
+	public static final int STRIPE_COUNT = 64;
+	public static final int STRIPE_SHIFT = 12; // blocks of 4096 positions per stripe
+	public static final int MIN_RANGE_LENGTH = 1024;
+
+	private static final int EMPTY = -1;
+	private static final int INITIAL_CAPACITY = 16;
+
+	private String _key;
+	private int _dataLength;
+	private Stripe[] _stripes = new Stripe[STRIPE_COUNT];
+
+	// range locks, the array is replaced on every change so that it is read without a lock
+	private volatile Range[] _ranges = new Range[0];
+	private Object _rangeMonitor = new Object();
+
+	// wait metrics of the sessions waiting for positions
+	private AtomicLong _waitCount = new AtomicLong();
+	private AtomicLong _timeoutCount = new AtomicLong();
+	private AtomicLong _handOverCount = new AtomicLong();
+	private AtomicLong _waitNanos = new AtomicLong();
+	private AtomicLong _maxWaitNanos = new AtomicLong();
+
+	private PositionLockManager(String key, int dataLength) {
+		this._key = key;
+		this._dataLength = dataLength;
+
+		for (int i = 0; i < STRIPE_COUNT; i++)
+			this._stripes[i] = new Stripe(dataLength);
+	}
+
+	/**
+	 * Returns the lock manager of a dataset, creating it if it does not exist. Lock managers
+	 * are never removed so that all the sessions of a dataset always share the same one.
+	 *
+	 * @param key Db name and dataset name separated by |
+	 * @param dataLength Length of a record of the dataset in bytes
+	 * @return Lock manager of the dataset
+	 * @throws Exception
+	 */
+	public static PositionLockManager getLockManager(String key, int dataLength) throws Exception {
+		if (dataLength <= 0)
+			throw new Exception ("Invalid data length : " + dataLength);
+
+		synchronized (LOCK_MANAGERS) {
+			PositionLockManager lockManager = LOCK_MANAGERS.get(key);
+			if (lockManager == null) {
+				lockManager = new PositionLockManager(key, dataLength);
+				LOCK_MANAGERS.put(key, lockManager);
+			}
+			else if (lockManager._dataLength != dataLength)
+				throw new Exception ("Data length : " + dataLength + " does not match the data length of the locks : " + lockManager._dataLength);
+
+			return lockManager;
+		}
+	}
+
+	/**
+	 * @param key Db name and dataset name separated by |
+	 * @return Lock manager of the dataset or null if no session has locked positions of the dataset
+	 */
+	public static PositionLockManager getLockManager(String key) {
+		return LOCK_MANAGERS.get(key);
+	}
+
+	public String getKey() {
+		return this._key;
+	}
+
+	public int getDataLength() {
+		return this._dataLength;
+	}
+
+	private static int getStripeIndex(int position) {
+		return (position >>> STRIPE_SHIFT) & (STRIPE_COUNT - 1);
+	}
+
+	/**
+	 * @return Number of positions currently locked
+	 */
+	public int getLockedCount() {
+		int count = 0;
+		for (int i = 0; i < STRIPE_COUNT; i++)
+			count += this._stripes[i]._size;
+
+		Range[] ranges = this._ranges;
+		for (int i = 0; i < ranges.length; i++)
+			count += ranges[i]._high - ranges[i]._low + 1;
+
+		return count;
+	}
+
+	/**
+	 * @return true if the position is locked by any session
+	 */
+	public boolean isLocked(int position) {
+		Stripe stripe = this._stripes[getStripeIndex(position)];
+		stripe._lock.lock();
+		try {
+			return (stripe.indexOf(position) >= 0 || this.inRange(position));
+		}
+		finally {
+			stripe._lock.unlock();
+		}
+	}
+
+	/**
+	 * @return true if a position of the range is locked by any session
+	 */
+	public boolean isLocked(int low, int high) {
+		Range[] ranges = this._ranges;
+		for (int i = 0; i < ranges.length; i++)
+			if (ranges[i]._low <= high && ranges[i]._high >= low)
+				return true;
+
+		Stripe stripe = null;
+		for (int s = 0; s < STRIPE_COUNT; s++) {
+			stripe = this._stripes[s];
+			stripe._lock.lock();
+			try {
+				if (stripe._size <= 0)
+					continue;
+
+				for (int i = 0; i < stripe._keys.length; i++)
+					if (stripe._keys[i] != EMPTY && stripe._keys[i] >= low && stripe._keys[i] <= high)
+						return true;
+			}
+			finally {
+				stripe._lock.unlock();
+			}
+		}
+
+		return false;
+	}
+
+	private boolean inRange(int position) {
+		Range[] ranges = this._ranges;
+		for (int i = 0; i < ranges.length; i++)
+			if (position >= ranges[i]._low && position <= ranges[i]._high)
+				return true;
+
+		return false;
+	}
+
+	/**
+	 * Locks the positions that are not locked by another session and saves their values in
+	 * the buffer for a rollback. Runs of at least MIN_RANGE_LENGTH contiguous ascending positions
+	 * are locked as a single range.
+	 *
+	 * @param owner Session locking the positions
+	 * @param positions Positions to lock
+	 * @param buffer Buffer of the data region of the dataset beginning at lowRange
+	 * @param lowRange Position of the first record in the buffer
+	 * @param stopOnConflict true to stop at the first position locked by another session
+	 * @return Indexes of the input positions that could not be locked, with stopOnConflict the
+	 * positions after the first index set are not locked
+	 */
+	public BitSet lock(Object owner, int[] positions, ByteBuffer buffer, int lowRange, boolean stopOnConflict) {
+		BitSet conflicts = new BitSet(positions.length);
+
+		Stripe held = null;
+		int heldIndex = -1;
+		int count = positions.length;
+		int i = 0;
+		int j = 0;
+		int s = 0;
+
+		try {
+			while (i < count) {
+				// contiguous run of positions
+				j = i + 1;
+				while (j < count && positions[j] == positions[j - 1] + 1)
+					j++;
+
+				if (j - i >= MIN_RANGE_LENGTH) {
+					if (held != null) {
+						held._lock.unlock();
+						held = null;
+						heldIndex = -1;
+					}
+
+					if (this.lockRange(owner, positions[i], positions[j - 1], buffer, lowRange)) {
+						i = j;
+						continue;
+					}
+				}
+
+				// lock each position of the run, keeping the lock of the stripe while the
+				// positions belong to it
+				for (int k = i; k < j; k++) {
+					s = getStripeIndex(positions[k]);
+					if (s != heldIndex) {
+						if (held != null)
+							held._lock.unlock();
+
+						held = this._stripes[s];
+						held._lock.lock();
+						heldIndex = s;
+					}
+
+					if (!this.lockPosition(held, positions[k], buffer, lowRange)) {
+						conflicts.set(k);
+						if (stopOnConflict)
+							return conflicts;
+					}
+				}
+
+				i = j;
+			}
+		}
+		finally {
+			if (held != null)
+				held._lock.unlock();
+		}
+
+		return conflicts;
+	}
+
+	/**
+	 * Locks a single position if it is not locked by another session and saves its value in
+	 * the buffer for a rollback.
+	 *
+	 * @param position Position to lock
+	 * @param buffer Buffer of the data region of the dataset beginning at lowRange
+	 * @param lowRange Position of the first record in the buffer
+	 * @return true if the position was locked
+	 */
+	public boolean lock(int position, ByteBuffer buffer, int lowRange) {
+		Stripe stripe = this._stripes[getStripeIndex(position)];
+		stripe._lock.lock();
+		try {
+			return this.lockPosition(stripe, position, buffer, lowRange);
+		}
+		finally {
+			stripe._lock.unlock();
+		}
+	}
+
+	/**
+	 * Locks the positions, waiting until the timeout for the positions locked by other sessions
+	 * to be released. The session waits in the queue of each stripe of the positions it could
+	 * not lock; a position released is locked for the first session of the queue waiting for it.
+	 *
+	 * @param positions Positions to lock, without duplicates
+	 * @param buffer Buffer of the data region of the dataset beginning at lowRange
+	 * @param lowRange Position of the first record in the buffer
+	 * @param timeoutMillis Time to wait for the positions locked by other sessions
+	 * @return Positions locked in ascending order, the positions still locked by other sessions
+	 * at the timeout are not returned
+	 */
+	public int[] lockWait(int[] positions, ByteBuffer buffer, int lowRange, long timeoutMillis) {
+		long beginTime = System.nanoTime();
+		long deadline = beginTime + timeoutMillis * 1000000L;
+
+		Waiter waiter = new Waiter(positions, buffer, lowRange);
+		int[] sorted = waiter._positions;
+
+		// group the positions by stripe
+		int[] counts = new int[STRIPE_COUNT + 1];
+		for (int i = 0; i < sorted.length; i++)
+			counts[getStripeIndex(sorted[i]) + 1]++;
+		for (int s = 0; s < STRIPE_COUNT; s++)
+			counts[s + 1] += counts[s];
+		int[] indexes = new int[sorted.length];
+		int[] next = Arrays.copyOf(counts, STRIPE_COUNT);
+		for (int i = 0; i < sorted.length; i++)
+			indexes[next[getStripeIndex(sorted[i])]++] = i;
+
+		// lock the positions that are free and queue on the stripes of the others
+		long queued = 0L;
+		Stripe stripe = null;
+		for (int s = 0; s < STRIPE_COUNT; s++) {
+			if (counts[s] == counts[s + 1])
+				continue;
+
+			stripe = this._stripes[s];
+			stripe._lock.lock();
+			try {
+				boolean waiting = false;
+				for (int k = counts[s]; k < counts[s + 1]; k++) {
+					if (this.lockPosition(stripe, sorted[indexes[k]], buffer, lowRange))
+						waiter.grant(indexes[k]);
+					else
+						waiting = true;
+				}
+
+				if (waiting) {
+					stripe._waiters.add(waiter);
+					queued |= (1L << s);
+				}
+			}
+			finally {
+				stripe._lock.unlock();
+			}
+		}
+
+		if (queued != 0L) {
+			while (waiter.getPending() > 0 && !Thread.currentThread().isInterrupted()) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0)
+					break;
+
+				LockSupport.parkNanos(this, remaining);
+			}
+
+			// positions released after the session left the queues are not locked for it
+			for (int s = 0; s < STRIPE_COUNT; s++) {
+				if ((queued & (1L << s)) == 0)
+					continue;
+
+				stripe = this._stripes[s];
+				stripe._lock.lock();
+				try {
+					stripe._waiters.remove(waiter);
+				}
+				finally {
+					stripe._lock.unlock();
+				}
+			}
+
+			long waitNanos = System.nanoTime() - beginTime;
+			this._waitCount.incrementAndGet();
+			this._waitNanos.addAndGet(waitNanos);
+			long max = this._maxWaitNanos.get();
+			while (waitNanos > max && !this._maxWaitNanos.compareAndSet(max, waitNanos))
+				max = this._maxWaitNanos.get();
+			if (waiter.getPending() > 0)
+				this._timeoutCount.incrementAndGet();
+		}
+
+		return waiter.getLocked();
+	}
+
+	/**
+	 * Locks the positions released from low to high, within one block of the stripe, for the
+	 * first sessions waiting for them in the queue of the stripe. The lock of the stripe must
+	 * be held.
+	 */
+	private void handOver(Stripe stripe, int low, int high) {
+		if (stripe._waiters.isEmpty())
+			return;
+
+		Iterator<Waiter> it = stripe._waiters.iterator();
+		Waiter waiter = null;
+		while (it.hasNext()) {
+			waiter = it.next();
+			int i = Arrays.binarySearch(waiter._positions, low);
+			if (i < 0)
+				i = -(i + 1);
+
+			for (; i < waiter._positions.length && waiter._positions[i] <= high; i++) {
+				if (waiter.isLocked(i))
+					continue;
+
+				if (this.lockPosition(stripe, waiter._positions[i], waiter._buffer, waiter._lowRange)) {
+					waiter.grant(i);
+					this._handOverCount.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Number of times sessions waited for positions locked by other sessions
+	 */
+	public long getWaitCount() {
+		return this._waitCount.get();
+	}
+
+	/**
+	 * @return Number of waits that ended with positions still locked by other sessions
+	 */
+	public long getTimeoutCount() {
+		return this._timeoutCount.get();
+	}
+
+	/**
+	 * @return Number of positions locked for waiting sessions when they were released
+	 */
+	public long getHandOverCount() {
+		return this._handOverCount.get();
+	}
+
+	public long getTotalWaitTimeMillis() {
+		return this._waitNanos.get() / 1000000L;
+	}
+
+	public long getMaxWaitTimeMillis() {
+		return this._maxWaitNanos.get() / 1000000L;
+	}
+
+	public double getAverageWaitTimeMillis() {
+		long count = this._waitCount.get();
+		return (count == 0 ? 0.0 : (this._waitNanos.get() / 1000000.0) / count);
+	}
+
+	// the lock of the stripe must be held
+	private boolean lockPosition(Stripe stripe, int position, ByteBuffer buffer, int lowRange) {
+		if (stripe.indexOf(position) >= 0 || this.inRange(position))
+			return false;
+
+		int slot = stripe.allocateSlot();
+		copy(buffer, (position - lowRange) * this._dataLength, stripe._undo, slot * this._dataLength, this._dataLength);
+		stripe.put(position, slot);
+
+		return true;
+	}
+
+	private long getStripeMask(int low, int high) {
+		if ((high >>> STRIPE_SHIFT) - (low >>> STRIPE_SHIFT) >= STRIPE_COUNT - 1)
+			return -1L;
+
+		long mask = 0L;
+		for (int b = (low >>> STRIPE_SHIFT); b <= (high >>> STRIPE_SHIFT); b++)
+			mask |= (1L << (b & (STRIPE_COUNT - 1)));
+
+		return mask;
+	}
+
+	/**
+	 * Locks the contiguous positions from low to high if none of them is locked. The locks of all
+	 * the stripes the range covers are held, in ascending order, while the range is checked and
+	 * published so that a position cannot be locked at the same time as a range containing it.
+	 */
+	private boolean lockRange(Object owner, int low, int high, ByteBuffer buffer, int lowRange) {
+		long mask = this.getStripeMask(low, high);
+
+		int s = 0;
+		int acquired = 0;
+		try {
+			for (s = 0; s < STRIPE_COUNT; s++) {
+				if ((mask & (1L << s)) != 0) {
+					this._stripes[s]._lock.lock();
+					acquired = s + 1;
+				}
+			}
+
+			// positions of the range locked individually
+			int blockLow = 0;
+			int blockHigh = 0;
+			Stripe stripe = null;
+			for (int b = (low >>> STRIPE_SHIFT); b <= (high >>> STRIPE_SHIFT); b++) {
+				stripe = this._stripes[b & (STRIPE_COUNT - 1)];
+				if (stripe._size <= 0)
+					continue;
+
+				blockLow = Math.max(low, b << STRIPE_SHIFT);
+				blockHigh = Math.min(high, (b << STRIPE_SHIFT) + (1 << STRIPE_SHIFT) - 1);
+				for (int p = blockLow; p <= blockHigh; p++)
+					if (stripe.indexOf(p) >= 0)
+						return false;
+			}
+
+			// overlapping ranges
+			Range[] ranges = this._ranges;
+			for (int i = 0; i < ranges.length; i++)
+				if (ranges[i]._low <= high && ranges[i]._high >= low)
+					return false;
+
+			int length = (high - low + 1) * this._dataLength;
+			ByteBuffer undo = ByteBuffer.allocateDirect(length).order(ByteOrder.LITTLE_ENDIAN);
+			ByteBuffer source = buffer.duplicate();
+			source.limit((low - lowRange) * this._dataLength + length);
+			source.position((low - lowRange) * this._dataLength);
+			undo.put(source);
+
+			synchronized (this._rangeMonitor) {
+				ranges = this._ranges;
+				Range[] newRanges = new Range[ranges.length + 1];
+				System.arraycopy(ranges, 0, newRanges, 0, ranges.length);
+				newRanges[ranges.length] = new Range(owner, low, high, undo);
+				this._ranges = newRanges;
+			}
+
+			return true;
+		}
+		finally {
+			for (s = acquired - 1; s >= 0; s--)
+				if ((mask & (1L << s)) != 0)
+					this._stripes[s]._lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the saved values of the positions locked by the session back into the buffer.
+	 *
+	 * @param owner Session that locked the positions
+	 * @param positions Positions locked by the session
+	 * @param buffer Buffer of the data region of the dataset beginning at lowRange
+	 * @param lowRange Position of the first record in the buffer
+	 */
+	public void rollback(Object owner, int[] positions, ByteBuffer buffer, int lowRange) {
+		Stripe stripe = null;
+		int index = 0;
+		for (int i = 0; i < positions.length; i++) {
+			stripe = this._stripes[getStripeIndex(positions[i])];
+			stripe._lock.lock();
+			try {
+				index = stripe.indexOf(positions[i]);
+				if (index >= 0)
+					copy(stripe._undo, stripe._slots[index] * this._dataLength, buffer, (positions[i] - lowRange) * this._dataLength, this._dataLength);
+			}
+			finally {
+				stripe._lock.unlock();
+			}
+		}
+
+		Range[] ranges = this._ranges;
+		ByteBuffer target = null;
+		ByteBuffer undo = null;
+		for (int i = 0; i < ranges.length; i++) {
+			if (ranges[i]._owner.get() != owner)
+				continue;
+
+			undo = ranges[i]._undo.duplicate();
+			undo.clear();
+			target = buffer.duplicate();
+			target.position((ranges[i]._low - lowRange) * this._dataLength);
+			target.put(undo);
+		}
+	}
+
+	/**
+	 * Returns the values saved when the positions were locked by the session, in the order
+	 * of the positions. Positions that are not locked are returned as zeros.
+	 *
+	 * @param owner Session that locked the positions
+	 * @param positions Positions locked by the session
+	 * @return Saved values, dataLength bytes per position
+	 */
+	public byte[] getUndo(Object owner, int[] positions) {
+		byte[] values = new byte[positions.length * this._dataLength];
+		Range[] ranges = this._ranges;
+		Stripe stripe = null;
+		ByteBuffer undo = null;
+		int index = 0;
+		int j = 0;
+		for (int i = 0; i < positions.length; i++) {
+			for (j = 0; j < ranges.length; j++)
+				if (ranges[j]._owner.get() == owner && positions[i] >= ranges[j]._low && positions[i] <= ranges[j]._high)
+					break;
+
+			if (j < ranges.length) {
+				undo = ranges[j]._undo.duplicate();
+				undo.position((positions[i] - ranges[j]._low) * this._dataLength);
+				undo.get(values, i * this._dataLength, this._dataLength);
+				continue;
+			}
+
+			stripe = this._stripes[getStripeIndex(positions[i])];
+			stripe._lock.lock();
+			try {
+				index = stripe.indexOf(positions[i]);
+				if (index >= 0) {
+					undo = stripe._undo.duplicate();
+					undo.position(stripe._slots[index] * this._dataLength);
+					undo.get(values, i * this._dataLength, this._dataLength);
+				}
+			}
+			finally {
+				stripe._lock.unlock();
+			}
+		}
+
+		return values;
+	}
+
+	/**
+	 * Releases the positions locked by the session.
+	 *
+	 * @param owner Session that locked the positions
+	 * @param positions Positions locked by the session
+	 */
+	public void unlock(Object owner, int[] positions) {
+		Stripe held = null;
+		int heldIndex = -1;
+		int s = 0;
+		try {
+			for (int i = 0; i < positions.length; i++) {
+				s = getStripeIndex(positions[i]);
+				if (s != heldIndex) {
+					if (held != null)
+						held._lock.unlock();
+
+					held = this._stripes[s];
+					held._lock.lock();
+					heldIndex = s;
+				}
+
+				if (held.remove(positions[i]))
+					this.handOver(held, positions[i], positions[i]);
+			}
+		}
+		finally {
+			if (held != null)
+				held._lock.unlock();
+		}
+
+		Range[] released = null;
+		synchronized (this._rangeMonitor) {
+			Range[] ranges = this._ranges;
+			int count = 0;
+			for (int i = 0; i < ranges.length; i++)
+				if (ranges[i]._owner.get() != owner)
+					count++;
+
+			if (count == ranges.length)
+				return;
+
+			Range[] newRanges = new Range[count];
+			released = new Range[ranges.length - count];
+			count = 0;
+			int j = 0;
+			for (int i = 0; i < ranges.length; i++) {
+				if (ranges[i]._owner.get() != owner)
+					newRanges[count++] = ranges[i];
+				else
+					released[j++] = ranges[i];
+			}
+
+			this._ranges = newRanges;
+		}
+
+		// positions of the ranges released are handed over block by block
+		Stripe stripe = null;
+		for (int i = 0; i < released.length; i++) {
+			for (int b = (released[i]._low >>> STRIPE_SHIFT); b <= (released[i]._high >>> STRIPE_SHIFT); b++) {
+				stripe = this._stripes[b & (STRIPE_COUNT - 1)];
+				stripe._lock.lock();
+				try {
+					this.handOver(stripe, Math.max(released[i]._low, b << STRIPE_SHIFT), 
+							Math.min(released[i]._high, (b << STRIPE_SHIFT) + (1 << STRIPE_SHIFT) - 1));
+				}
+				finally {
+					stripe._lock.unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Positions locked by all the sessions and the values saved for them, each stripe
+	 * is copied under its lock
+	 */
+	public Snapshot getSnapshot() {
+		Snapshot snapshot = new Snapshot(this._dataLength);
+
+		Stripe stripe = null;
+		for (int s = 0; s < STRIPE_COUNT; s++) {
+			stripe = this._stripes[s];
+			stripe._lock.lock();
+			try {
+				if (stripe._size <= 0)
+					continue;
+
+				for (int i = 0; i < stripe._keys.length; i++)
+					if (stripe._keys[i] != EMPTY)
+						snapshot.add(stripe._keys[i], stripe._undo, stripe._slots[i] * this._dataLength);
+			}
+			finally {
+				stripe._lock.unlock();
+			}
+		}
+
+		Range[] ranges = this._ranges;
+		for (int i = 0; i < ranges.length; i++)
+			for (int p = ranges[i]._low; p <= ranges[i]._high; p++)
+				snapshot.add(p, ranges[i]._undo, (p - ranges[i]._low) * this._dataLength);
+
+		return snapshot;
+	}
+
+	private static void copy(ByteBuffer source, int sourceOffset, ByteBuffer target, int targetOffset, int length) {
+		for (int i = 0; i < length; i++)
+			target.put(targetOffset + i, source.get(sourceOffset + i));
+	}
+
+	/**
+	 * Positions of a stripe locked individually, an open addressing map with linear probing of
+	 * positions to slots of the undo buffer.
+	 */
+	private static final class Stripe {
+		private ReentrantLock _lock = new ReentrantLock();
+		private int _dataLength;
+
+		// sessions waiting for positions of the stripe, in the order they started waiting
+		private ArrayDeque<Waiter> _waiters = new ArrayDeque<Waiter>();
+
+		private int[] _keys;
+		private int[] _slots;
+		private int _size = 0;
+
+		private ByteBuffer _undo;
+		private int _slotCount = 0;
+		private int[] _freeSlots;
+		private int _freeCount = 0;
+
+		private Stripe(int dataLength) {
+			this._dataLength = dataLength;
+			this.reset();
+		}
+
+		private void reset() {
+			this._keys = new int[INITIAL_CAPACITY];
+			this._slots = new int[INITIAL_CAPACITY];
+			for (int i = 0; i < INITIAL_CAPACITY; i++)
+				this._keys[i] = EMPTY;
+
+			this._size = 0;
+			this._undo = ByteBuffer.allocateDirect(INITIAL_CAPACITY * this._dataLength).order(ByteOrder.LITTLE_ENDIAN);
+			this._slotCount = 0;
+			this._freeSlots = new int[INITIAL_CAPACITY];
+			this._freeCount = 0;
+		}
+
+		private static int hash(int position) {
+			int h = position * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+
+		private int indexOf(int position) {
+			int mask = this._keys.length - 1;
+			int i = hash(position) & mask;
+			while (this._keys[i] != EMPTY) {
+				if (this._keys[i] == position)
+					return i;
+				i = (i + 1) & mask;
+			}
+
+			return -1;
+		}
+
+		private void put(int position, int slot) {
+			if ((this._size + 1) * 4 > this._keys.length * 3)
+				this.resize(this._keys.length * 2);
+
+			int mask = this._keys.length - 1;
+			int i = hash(position) & mask;
+			while (this._keys[i] != EMPTY)
+				i = (i + 1) & mask;
+
+			this._keys[i] = position;
+			this._slots[i] = slot;
+			this._size++;
+		}
+
+		private void resize(int capacity) {
+			int[] keys = this._keys;
+			int[] slots = this._slots;
+
+			this._keys = new int[capacity];
+			this._slots = new int[capacity];
+			for (int i = 0; i < capacity; i++)
+				this._keys[i] = EMPTY;
+
+			int mask = capacity - 1;
+			int j = 0;
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] == EMPTY)
+					continue;
+
+				j = hash(keys[i]) & mask;
+				while (this._keys[j] != EMPTY)
+					j = (j + 1) & mask;
+
+				this._keys[j] = keys[i];
+				this._slots[j] = slots[i];
+			}
+		}
+
+		private boolean remove(int position) {
+			int i = this.indexOf(position);
+			if (i < 0)
+				return false;
+
+			if (this._freeCount == this._freeSlots.length) {
+				int[] freeSlots = new int[this._freeSlots.length * 2];
+				System.arraycopy(this._freeSlots, 0, freeSlots, 0, this._freeCount);
+				this._freeSlots = freeSlots;
+			}
+			this._freeSlots[this._freeCount++] = this._slots[i];
+			this._size--;
+
+			// release the memory of the stripe once all its positions are unlocked
+			if (this._size <= 0) {
+				this.reset();
+				return true;
+			}
+
+			// shift back the entries following the removed one in the probe sequence
+			int mask = this._keys.length - 1;
+			int j = i;
+			int k = 0;
+			while (true) {
+				j = (j + 1) & mask;
+				if (this._keys[j] == EMPTY)
+					break;
+
+				k = hash(this._keys[j]) & mask;
+				if ((i <= j) ? (i < k && k <= j) : (i < k || k <= j))
+					continue;
+
+				this._keys[i] = this._keys[j];
+				this._slots[i] = this._slots[j];
+				i = j;
+			}
+			this._keys[i] = EMPTY;
+
+			return true;
+		}
+
+		private int allocateSlot() {
+			if (this._freeCount > 0)
+				return this._freeSlots[--this._freeCount];
+
+			if ((this._slotCount + 1) * this._dataLength > this._undo.capacity()) {
+				ByteBuffer undo = ByteBuffer.allocateDirect(this._undo.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+				this._undo.clear();
+				undo.put(this._undo);
+				this._undo = undo;
+			}
+
+			return this._slotCount++;
+		}
+	}
+
+	/**
+	 * Contiguous positions locked by a session and their values
+	 */
+	private static final class Range {
+		// a session released without ending is not kept reachable by its locks
+		private WeakReference<Object> _owner;
+		private int _low;
+		private int _high;
+		private ByteBuffer _undo;
+
+		private Range(Object owner, int low, int high, ByteBuffer undo) {
+			this._owner = new WeakReference<Object>(owner);
+			this._low = low;
+			this._high = high;
+			this._undo = undo;
+		}
+	}
+
+	/**
+	 * Session waiting for positions locked by other sessions
+	 */
+	private static final class Waiter {
+		private int[] _positions;
+		private ByteBuffer _buffer;
+		private int _lowRange;
+		private Thread _thread = Thread.currentThread();
+
+		private BitSet _locked;
+		private int _pending;
+
+		private Waiter(int[] positions, ByteBuffer buffer, int lowRange) {
+			this._positions = positions.clone();
+			Arrays.sort(this._positions);
+			this._buffer = buffer;
+			this._lowRange = lowRange;
+			this._locked = new BitSet(positions.length);
+			this._pending = positions.length;
+		}
+
+		private synchronized boolean isLocked(int i) {
+			return this._locked.get(i);
+		}
+
+		private synchronized int getPending() {
+			return this._pending;
+		}
+
+		private void grant(int i) {
+			synchronized (this) {
+				this._locked.set(i);
+				this._pending--;
+			}
+
+			if (this._thread != Thread.currentThread())
+				LockSupport.unpark(this._thread);
+		}
+
+		private synchronized int[] getLocked() {
+			int[] locked = new int[this._locked.cardinality()];
+			int j = 0;
+			for (int i = this._locked.nextSetBit(0); i >= 0; i = this._locked.nextSetBit(i + 1))
+				locked[j++] = this._positions[i];
+
+			return locked;
+		}
+	}
+
+	/**
+	 * Locked positions and their saved values in parallel primitive arrays
+	 */
+	public static final class Snapshot {
+		private int _dataLength;
+		private int _size = 0;
+		private int[] _positions = new int[INITIAL_CAPACITY];
+		private ByteBuffer _values;
+
+		private Snapshot(int dataLength) {
+			this._dataLength = dataLength;
+			this._values = ByteBuffer.allocate(INITIAL_CAPACITY * dataLength).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		private void add(int position, ByteBuffer source, int sourceOffset) {
+			if (this._size == this._positions.length) {
+				int[] positions = new int[this._positions.length * 2];
+				System.arraycopy(this._positions, 0, positions, 0, this._size);
+				this._positions = positions;
+
+				ByteBuffer values = ByteBuffer.allocate(this._values.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+				System.arraycopy(this._values.array(), 0, values.array(), 0, this._values.capacity());
+				this._values = values;
+			}
+
+			copy(source, sourceOffset, this._values, this._size * this._dataLength, this._dataLength);
+			this._positions[this._size++] = position;
+		}
+
+		public int size() {
+			return this._size;
+		}
+
+		public int getPosition(int i) {
+			return this._positions[i];
+		}
+
+		/**
+		 * @return Saved value of a 1, 2, 4 or 8 byte record as a signed long
+		 */
+		public long getLong(int i) {
+			int offset = i * this._dataLength;
+			if (this._dataLength == 1)
+				return this._values.get(offset);
+			else if (this._dataLength == 2)
+				return this._values.getShort(offset);
+			else if (this._dataLength == 4)
+				return this._values.getInt(offset);
+			else
+				return this._values.getLong(offset);
+		}
+
+		/**
+		 * @return Saved bytes of the record
+		 */
+		public byte[] getBytes(int i) {
+			byte[] bb = new byte[this._dataLength];
+			System.arraycopy(this._values.array(), i * this._dataLength, bb, 0, this._dataLength);
+			return bb;
+		}
+	}
+
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		try {
+			int recordCount = 10000000;
+			ByteBuffer buffer = ByteBuffer.allocate(recordCount * 4).order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < recordCount; i++)
+				buffer.putInt(i * 4, i);
+
+			PositionLockManager lockManager = PositionLockManager.getLockManager("Test|c:\\users\\dpras\\tempdata\\testdata\\testint.FC", 4);
+
+			// session 1 locks a contiguous range and session 2 random positions
+			Object session1 = new Object();
+			Object session2 = new Object();
+
+			int[] range = new int[5000000];
+			for (int i = 0; i < range.length; i++)
+				range[i] = i;
+
+			java.util.Random random = new java.util.Random(17);
+			int[] points = new int[1000000];
+			for (int i = 0; i < points.length; i++)
+				points[i] = random.nextInt(recordCount);
+
+			long beginTime = System.nanoTime();
+			BitSet conflicts = lockManager.lock(session1, range, buffer, 0, false);
+			System.out.println("Range lock time : " + ((System.nanoTime() - beginTime) / 1000000) + " ms, conflicts : " + conflicts.cardinality());
+
+			beginTime = System.nanoTime();
+			conflicts = lockManager.lock(session2, points, buffer, 0, false);
+			System.out.println("Point lock time : " + ((System.nanoTime() - beginTime) / 1000000) + " ms, conflicts : " + conflicts.cardinality());
+			System.out.println("Locked positions : " + lockManager.getLockedCount());
+
+			// session 1 overwrites its range and rolls back
+			for (int i = 0; i < range.length; i++)
+				buffer.putInt(i * 4, -1);
+			lockManager.rollback(session1, range, buffer, 0);
+			System.out.println("Value at 4999999 after rollback : " + buffer.getInt(4999999 * 4));
+
+			lockManager.unlock(session1, range);
+			lockManager.unlock(session2, points);
+			System.out.println("Locked positions after unlock : " + lockManager.getLockedCount());
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+}
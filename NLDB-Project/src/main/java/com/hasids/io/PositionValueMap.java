@@ -0,0 +1,375 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Positions and values of a write session without boxing. Positions are kept in an open
+ * addressing map with linear probing of positions to value slots, the values are kept in a
+ * buffer of fixed length slots, one slot length per encoding. The value buffer is on the heap
+ * till it grows past OFF_HEAP_THRESHOLD bytes and is moved to direct memory after that, large
+ * sessions do not hold their pending values in the heap. Alphanumeric values are kept as the
+ * strings passed by the caller. Slots of removed positions are reused.
+ *
+ * The map is used by one session at a time and is not synchronized.
+ */
+
+package com.hasids.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public final class PositionValueMap {
+
+	public static final int OBJECT_VALUES = 0;
+	public static final int OFF_HEAP_THRESHOLD = 16 * 1024 * 1024;
+
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int EMPTY = -1;
+
+	private int _valueLength;
+
+	private int[] _keys;
+	private int[] _slots;
+	private int _size = 0;
+
+	private ByteBuffer _values;
+	private Object[] _objects;
+	private int _slotCount = 0;
+	private int[] _freeSlots;
+	private int _freeCount = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param valueLength Length of the values in bytes, 1, 2, 4 or 8, OBJECT_VALUES for
+	 * alphanumeric values
+	 * @param expectedSize Number of positions expected
+	 * @throws Exception
+	 */
+	public PositionValueMap(int valueLength, int expectedSize) throws Exception {
+		if (valueLength != OBJECT_VALUES && valueLength != 1 && valueLength != 2 && valueLength != 4 && valueLength != 8)
+			throw new Exception("Invalid value length : " + valueLength);
+		if (expectedSize < 0)
+			throw new Exception("Expected size must be >= 0");
+
+		this._valueLength = valueLength;
+
+		// no resize for the expected size at a load factor of 0.75
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < (1 << 30) && (long)capacity * 3 < (long)expectedSize * 4)
+			capacity <<= 1;
+
+		this.allocate(capacity, Math.max(INITIAL_CAPACITY, expectedSize));
+	}
+
+	private void allocate(int capacity, int slotCapacity) {
+		this._keys = new int[capacity];
+		this._slots = new int[capacity];
+		for (int i = 0; i < capacity; i++)
+			this._keys[i] = EMPTY;
+
+		this._size = 0;
+		this._values = null;
+		this._objects = null;
+		if (this._valueLength == OBJECT_VALUES)
+			this._objects = new Object[slotCapacity];
+		else
+			this._values = allocateValues((long)slotCapacity * this._valueLength);
+		this._slotCount = 0;
+		this._freeSlots = new int[INITIAL_CAPACITY];
+		this._freeCount = 0;
+	}
+
+	private static ByteBuffer allocateValues(long length) {
+		if (length > Integer.MAX_VALUE)
+			throw new IllegalStateException("Session values exceed " + Integer.MAX_VALUE + " bytes");
+
+		if (length > OFF_HEAP_THRESHOLD)
+			return ByteBuffer.allocateDirect((int)length).order(ByteOrder.LITTLE_ENDIAN);
+		else
+			return ByteBuffer.allocate((int)length).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static int hash(int position) {
+		int h = position * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	public int size() {
+		return this._size;
+	}
+
+	public boolean isEmpty() {
+		return (this._size == 0);
+	}
+
+	/**
+	 * @return true if the values are held in direct memory
+	 */
+	public boolean isOffHeap() {
+		return (this._values != null && this._values.isDirect());
+	}
+
+	public int getValueLength() {
+		return this._valueLength;
+	}
+
+	/**
+	 * Removes all the positions and releases the memory of the values
+	 */
+	public void clear() {
+		if (this._size == 0 && this._slotCount == 0)
+			return;
+
+		this.allocate(INITIAL_CAPACITY, INITIAL_CAPACITY);
+	}
+
+	public boolean containsKey(int position) {
+		return (this.indexOf(position) >= 0);
+	}
+
+	/**
+	 * @return positions of the map in no particular order
+	 */
+	public int[] keys() {
+		int[] positions = new int[this._size];
+		int j = 0;
+		for (int i = 0; i < this._keys.length; i++)
+			if (this._keys[i] != EMPTY)
+				positions[j++] = this._keys[i];
+
+		return positions;
+	}
+
+	private int indexOf(int position) {
+		int mask = this._keys.length - 1;
+		int i = hash(position) & mask;
+		while (this._keys[i] != EMPTY) {
+			if (this._keys[i] == position)
+				return i;
+			i = (i + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @return offset of the value of the position in the value buffer, the slot for objects
+	 */
+	private int slotOf(int position) {
+		int i = this.indexOf(position);
+		if (i < 0)
+			throw new IllegalArgumentException("Position : " + position + " not in the session");
+
+		return (this._valueLength == OBJECT_VALUES ? this._slots[i] : this._slots[i] * this._valueLength);
+	}
+
+	/**
+	 * @return offset of the value of the position, a new slot is allocated for a new position
+	 */
+	private int slotFor(int position) {
+		if (position < 0)
+			throw new IllegalArgumentException("Position must be >= 0");
+
+		int i = this.indexOf(position);
+		if (i < 0) {
+			if ((this._size + 1) * 4 > this._keys.length * 3)
+				this.resize(this._keys.length * 2);
+
+			int mask = this._keys.length - 1;
+			i = hash(position) & mask;
+			while (this._keys[i] != EMPTY)
+				i = (i + 1) & mask;
+
+			this._keys[i] = position;
+			this._slots[i] = this.allocateSlot();
+			this._size++;
+		}
+
+		return (this._valueLength == OBJECT_VALUES ? this._slots[i] : this._slots[i] * this._valueLength);
+	}
+
+	private void resize(int capacity) {
+		int[] keys = this._keys;
+		int[] slots = this._slots;
+
+		this._keys = new int[capacity];
+		this._slots = new int[capacity];
+		for (int i = 0; i < capacity; i++)
+			this._keys[i] = EMPTY;
+
+		int mask = capacity - 1;
+		int j = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] == EMPTY)
+				continue;
+
+			j = hash(keys[i]) & mask;
+			while (this._keys[j] != EMPTY)
+				j = (j + 1) & mask;
+
+			this._keys[j] = keys[i];
+			this._slots[j] = slots[i];
+		}
+	}
+
+	private int allocateSlot() {
+		if (this._freeCount > 0)
+			return this._freeSlots[--this._freeCount];
+
+		if (this._valueLength == OBJECT_VALUES) {
+			if (this._slotCount == this._objects.length) {
+				Object[] objects = new Object[this._objects.length * 2];
+				System.arraycopy(this._objects, 0, objects, 0, this._slotCount);
+				this._objects = objects;
+			}
+		}
+		else if ((this._slotCount + 1) * this._valueLength > this._values.capacity()) {
+			// the values move to direct memory once they grow past the threshold
+			ByteBuffer values = allocateValues((long)this._values.capacity() * 2);
+			this._values.clear();
+			values.put(this._values);
+			this._values = values;
+		}
+
+		return this._slotCount++;
+	}
+
+	/**
+	 * Removes a position, its slot is reused by the next position added
+	 *
+	 * @param position
+	 * @return true if the position was in the map
+	 */
+	public boolean remove(int position) {
+		int i = this.indexOf(position);
+		if (i < 0)
+			return false;
+
+		if (this._freeCount == this._freeSlots.length) {
+			int[] freeSlots = new int[this._freeSlots.length * 2];
+			System.arraycopy(this._freeSlots, 0, freeSlots, 0, this._freeCount);
+			this._freeSlots = freeSlots;
+		}
+		if (this._objects != null)
+			this._objects[this._slots[i]] = null;
+		this._freeSlots[this._freeCount++] = this._slots[i];
+		this._size--;
+
+		// shift back the entries following the removed one in the probe sequence
+		int mask = this._keys.length - 1;
+		int j = i;
+		int k = 0;
+		while (true) {
+			j = (j + 1) & mask;
+			if (this._keys[j] == EMPTY)
+				break;
+
+			k = hash(this._keys[j]) & mask;
+			if ((i <= j) ? (i < k && k <= j) : (i < k || k <= j))
+				continue;
+
+			this._keys[i] = this._keys[j];
+			this._slots[i] = this._slots[j];
+			i = j;
+		}
+		this._keys[i] = EMPTY;
+
+		return true;
+	}
+
+	// the slot is allocated before the value buffer is read, a new slot can grow the buffer
+	public void putByte(int position, byte value) {
+		int offset = this.slotFor(position);
+		this._values.put(offset, value);
+	}
+
+	public void putShort(int position, short value) {
+		int offset = this.slotFor(position);
+		this._values.putShort(offset, value);
+	}
+
+	public void putInt(int position, int value) {
+		int offset = this.slotFor(position);
+		this._values.putInt(offset, value);
+	}
+
+	public void putFloat(int position, float value) {
+		int offset = this.slotFor(position);
+		this._values.putFloat(offset, value);
+	}
+
+	public void putLong(int position, long value) {
+		int offset = this.slotFor(position);
+		this._values.putLong(offset, value);
+	}
+
+	public void putDouble(int position, double value) {
+		int offset = this.slotFor(position);
+		this._values.putDouble(offset, value);
+	}
+
+	public void putObject(int position, Object value) {
+		int slot = this.slotFor(position);
+		this._objects[slot] = value;
+	}
+
+	public byte getByte(int position) {
+		return this._values.get(this.slotOf(position));
+	}
+
+	public short getShort(int position) {
+		return this._values.getShort(this.slotOf(position));
+	}
+
+	public int getInt(int position) {
+		return this._values.getInt(this.slotOf(position));
+	}
+
+	public float getFloat(int position) {
+		return this._values.getFloat(this.slotOf(position));
+	}
+
+	public long getLong(int position) {
+		return this._values.getLong(this.slotOf(position));
+	}
+
+	public double getDouble(int position) {
+		return this._values.getDouble(this.slotOf(position));
+	}
+
+	public Object getObject(int position) {
+		return this._objects[this.slotOf(position)];
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		try {
+			// 10 million int values of a session, the values move off heap past the threshold
+			int count = 10000000;
+			long beginTime = System.nanoTime();
+
+			PositionValueMap map = new PositionValueMap(4, 0);
+			for (int i = 0; i < count; i++)
+				map.putInt(i * 7, i);
+
+			long sum = 0;
+			for (int i = 0; i < count; i++)
+				sum += map.getInt(i * 7);
+
+			for (int i = 0; i < count; i += 2)
+				map.remove(i * 7);
+
+			System.out.println("Size : " + map.size() + ", sum : " + sum + ", off heap : " + map.isOffHeap() + " in " +
+					((System.nanoTime() - beginTime) / 1000000) + " Milliseconds");
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
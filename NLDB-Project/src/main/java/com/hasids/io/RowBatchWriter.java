@@ -0,0 +1,647 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Atomic writer of a batch of rows into the columns of a table, one dimension or fixed length fact
+ * segment per column, all in the same record range. The values of each column are set as an
+ * array with one value per row.
+ *
+ * writeToSegment locks the range once in every column, positions locked by other sessions are
+ * waited for till the retry limit. The values saved for a rollback are logged and opened as undo
+ * deltas of every column before the columns are written, each column by its own thread. commit
+ * logs the new values of all the columns as one REDO record per column followed by a single
+ * COMMIT record in one write of the write ahead log, recovery redoes all the columns or none of
+ * them. The batch then ends in the versions of all the columns at once, readers pinning the
+ * columns together through DatasetVersions.pin(dbName, datasetNames) see the whole batch or none
+ * of it. rollback restores the saved values of all the columns.
+ *
+ * The segments must be in the same directory, so that they share a write ahead log. Segments
+ * with a delta store are not supported, their ONLINE values are committed to the store. ALPHAN
+ * segments are not supported either, versioned filter reads do not undo their values.
+ */
+
+package com.hasids.io;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import com.hasids.HASIDSConstants;
+import com.hasids.datastructures.BlockCheckSum;
+import com.hasids.datastructures.CheckSum;
+import com.hasids.datastructures.SortedRuns;
+import com.hasids.io.dataset.DatasetCatalog;
+import com.hasids.io.dataset.DatasetSegment;
+import com.hasids.io.dataset.DeletionBitmap;
+import com.hasids.io.dim.DimDeltaStore;
+import com.hasids.io.fact.FactNullBitmap;
+
+public final class RowBatchWriter {
+
+	public static final int INACTIVE = 0;
+	public static final int ACTIVE = 1;
+	public static final int COMMITTED = 2;
+	public static final int ROLLEDBACK = 3;
+	public static final int FAILED = 4;
+
+	private String _dbName;
+	private String[] _datasetNames;
+	private DatasetSegment[] _segments;
+	private int _lowRange;
+	private int _highRange;
+	private Object[] _values;
+
+	private int[] _positions;
+	private PositionLockManager[] _lockManagers;
+	private int[][] _locked;
+	private RandomAccessFile[] _randomAccessFiles;
+	private FileChannel[] _rwChannels;
+	private MappedByteBuffer[] _buffers;
+
+	private WriteAheadLog _log = null;
+	private long _txId = 0;
+	private int _status = INACTIVE;
+
+	/**
+	 * Constructor
+	 *
+	 * @param dbName Database name
+	 * @param datasetNames Segment file names of the columns, the segments must exist in the same
+	 * directory
+	 * @param lowRange First position of the batch, 0 based
+	 * @param rowCount Number of rows of the batch
+	 * @throws Exception
+	 */
+	public RowBatchWriter(String dbName, String[] datasetNames, int lowRange, int rowCount) throws Exception {
+		if (datasetNames == null || datasetNames.length <= 0)
+			throw new Exception ("Dataset names cannot be null or empty");
+		if (lowRange < 0)
+			throw new Exception ("Low range must be >= 0");
+		if (rowCount <= 0)
+			throw new Exception ("Row count must be > 0");
+
+		this._dbName = dbName;
+		this._datasetNames = datasetNames.clone();
+		this._lowRange = lowRange;
+		this._highRange = lowRange + rowCount - 1;
+		this._segments = new DatasetSegment[datasetNames.length];
+		this._values = new Object[datasetNames.length];
+
+		Hashtable<String, String> names = new Hashtable<String, String>();
+		String directory = null;
+		for (int i = 0; i < datasetNames.length; i++) {
+			String name = new File(datasetNames[i]).getAbsolutePath();
+			if (names.put(name, name) != null)
+				throw new Exception ("Dataset : " + datasetNames[i] + " is set more than once");
+
+			String parent = new File(name).getParent();
+			if (directory == null)
+				directory = parent;
+			else if (!directory.equals(parent))
+				throw new Exception ("Datasets of a row batch must be in the same directory");
+
+			DatasetSegment segment = new DatasetSegment(dbName, datasetNames[i]);
+			int fileType = segment.getFileType();
+			int encoding = segment.getEncoding();
+			if (CheckSum.isCompressedEncoding(fileType, encoding) || CheckSum.isSparseEncoding(fileType, encoding) ||
+					CheckSum.isDictionaryEncoding(fileType, encoding) || CheckSum.isVarLengthEncoding(fileType, encoding) ||
+					CheckSum.isDecimalEncoding(fileType, encoding) ||
+					(fileType != CheckSum.FILE_TYPE_DIM && fileType != CheckSum.FILE_TYPE_FACT))
+				throw new Exception ("Row batches are supported on dimension and fixed length fact segments only : " + datasetNames[i]);
+
+			// ALPHAN values are not undone by versioned filter reads, a batch would be visible before its commit
+			if (fileType == CheckSum.FILE_TYPE_FACT && encoding == CheckSum.FACT_ENCODE_TYPE_ALPHAN)
+				throw new Exception ("Row batches are not supported on ALPHAN segments : " + datasetNames[i]);
+
+			if (this._highRange > segment.getRecordCount() - 1)
+				throw new Exception ("Rows of the batch should be < record count of " + datasetNames[i]);
+
+			if (DimDeltaStore.getDeltaStore(dbName, datasetNames[i]) != null)
+				throw new Exception ("Row batches are not supported on segments with a delta store : " + datasetNames[i]);
+
+			this._segments[i] = segment;
+		}
+	}
+
+	public String getDbName() {
+		return this._dbName;
+	}
+
+	public String[] getDatasetNames() {
+		return this._datasetNames.clone();
+	}
+
+	public int getLowRange() {
+		return this._lowRange;
+	}
+
+	public int getHighRange() {
+		return this._highRange;
+	}
+
+	public int getRowCount() {
+		return this._highRange - this._lowRange + 1;
+	}
+
+	public int getStatus() {
+		return this._status;
+	}
+
+	public void setValues(int column, byte[] values) throws Exception {
+		this.setColumn(column, values);
+	}
+
+	public void setValues(int column, short[] values) throws Exception {
+		this.setColumn(column, values);
+	}
+
+	public void setValues(int column, int[] values) throws Exception {
+		this.setColumn(column, values);
+	}
+
+	public void setValues(int column, long[] values) throws Exception {
+		this.setColumn(column, values);
+	}
+
+	public void setValues(int column, float[] values) throws Exception {
+		this.setColumn(column, values);
+	}
+
+	public void setValues(int column, double[] values) throws Exception {
+		this.setColumn(column, values);
+	}
+
+	/**
+	 * Checks the values of a column against the encoding of its segment and keeps them for the
+	 * write. Dimension columns take int values, fact columns the type of their encoding.
+	 */
+	private void setColumn(int column, Object values) throws Exception {
+		if (this._status != INACTIVE)
+			throw new Exception ("Values cannot be set once the batch is written");
+		if (column < 0 || column >= this._segments.length)
+			throw new Exception ("Column must be >= 0 and < " + this._segments.length);
+		if (values == null || Array.getLength(values) != this.getRowCount())
+			throw new Exception ("Number of values must be equal to the row count : " + this.getRowCount());
+
+		DatasetSegment segment = this._segments[column];
+		int encoding = segment.getEncoding();
+		int dataLength = segment.getDataLength();
+
+		Class<?> type = null;
+		if (segment.getFileType() == CheckSum.FILE_TYPE_DIM)
+			type = int[].class;
+		else if (encoding == CheckSum.FACT_ENCODE_TYPE_BYTE)
+			type = byte[].class;
+		else if (encoding == CheckSum.FACT_ENCODE_TYPE_SHORT)
+			type = short[].class;
+		else if (encoding == CheckSum.FACT_ENCODE_TYPE_INT)
+			type = int[].class;
+		else if (encoding == CheckSum.FACT_ENCODE_TYPE_LONG)
+			type = long[].class;
+		else if (encoding == CheckSum.FACT_ENCODE_TYPE_FLOAT)
+			type = float[].class;
+		else if (encoding == CheckSum.FACT_ENCODE_TYPE_DOUBLE)
+			type = double[].class;
+
+		if (type != values.getClass())
+			throw new Exception ("Values of type " + values.getClass().getSimpleName() + " do not match the encoding of " + segment.getFileName());
+
+		if (segment.getFileType() == CheckSum.FILE_TYPE_DIM) {
+			int minValue = HASIDSConstants.DIM_ENCODE_TYPE3_MIN;
+			int maxValue = HASIDSConstants.DIM_ENCODE_TYPE3_MAX;
+			if (dataLength == CheckSum.DIM_ENCODE_TYPE1) {
+				minValue = HASIDSConstants.DIM_ENCODE_TYPE1_MIN;
+				maxValue = HASIDSConstants.DIM_ENCODE_TYPE1_MAX;
+			}
+			else if (dataLength == CheckSum.DIM_ENCODE_TYPE2) {
+				minValue = HASIDSConstants.DIM_ENCODE_TYPE2_MIN;
+				maxValue = HASIDSConstants.DIM_ENCODE_TYPE2_MAX;
+			}
+
+			int[] v = (int[]) values;
+			for (int i = 0; i < v.length; i++)
+				if (v[i] < minValue || v[i] > maxValue)
+					throw new Exception ("Values to be set should be >= " + minValue + " and <= " + maxValue);
+		}
+
+		this._values[column] = values;
+	}
+
+	/**
+	 * Locks the range of the batch in every column and writes the values of the columns
+	 *
+	 * @param autoCommit true to commit the batch once it is written
+	 * @throws Exception
+	 */
+	public void writeToSegment(boolean autoCommit) throws Exception {
+		if (this._status != INACTIVE)
+			throw new Exception ("Batch is already written");
+		for (int i = 0; i < this._values.length; i++)
+			if (this._values[i] == null)
+				throw new Exception ("Values of " + this._datasetNames[i] + " are not set");
+
+		this._status = ACTIVE;
+		long beginTime = System.nanoTime();
+
+		int columns = this._segments.length;
+		this._positions = new int[this.getRowCount()];
+		for (int i = 0; i < this._positions.length; i++)
+			this._positions[i] = this._lowRange + i;
+
+		this._lockManagers = new PositionLockManager[columns];
+		this._locked = new int[columns][];
+		this._randomAccessFiles = new RandomAccessFile[columns];
+		this._rwChannels = new FileChannel[columns];
+		this._buffers = new MappedByteBuffer[columns];
+
+		try {
+			for (int c = 0; c < columns; c++) {
+				DatasetSegment segment = this._segments[c];
+				int dataLength = segment.getDataLength();
+
+				this._randomAccessFiles[c] = new RandomAccessFile(this._datasetNames[c], "rw");
+				this._rwChannels[c] = this._randomAccessFiles[c].getChannel();
+				this._buffers[c] = this._rwChannels[c].map(FileChannel.MapMode.READ_WRITE,
+						segment.getHeaderLength() + ((long) this._lowRange * dataLength), (long) this.getRowCount() * dataLength);
+				this._buffers[c].order(ByteOrder.LITTLE_ENDIAN);
+
+				this._lockManagers[c] = PositionLockManager.getLockManager(this._dbName + "|" + this._datasetNames[c], dataLength);
+				this.lock(c);
+			}
+
+			// the values saved for a rollback are durable and undone by the readers before the pages are modified
+			this._log = WriteAheadLog.getLog(this._datasetNames[0]);
+			this._txId = this._log.begin(this);
+			for (int c = 0; c < columns; c++) {
+				DatasetSegment segment = this._segments[c];
+				byte[] undo = this._lockManagers[c].getUndo(this, this._positions);
+				this._log.logUndo(this._txId, this._dbName, this._datasetNames[c], segment.getHeaderLength(), segment.getDataLength(), this._positions, undo);
+				DatasetVersions.getVersions(this._dbName, this._datasetNames[c]).open(this, segment.getDataLength(), this._positions, undo);
+			}
+
+			this.writeColumns();
+
+			long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((System.nanoTime() - beginTime), TimeUnit.NANOSECONDS);
+			System.out.println("Row batch of " + this.getRowCount() + " rows written to " + columns + " columns in " + elapsedTimeInMillis + " Milliseconds");
+		}
+		catch (Exception e) {
+			this._status = FAILED;
+			e.printStackTrace();
+			try {
+				this.end(true);
+			}
+			catch (Exception f) {
+				f.printStackTrace();
+			}
+			throw new Exception(e.getMessage());
+		}
+
+		if (autoCommit)
+			this.commit();
+	}
+
+	/**
+	 * Locks the range of the batch in a column. Positions locked by other sessions are waited
+	 * for till the retry limit, the positions locked are released if some are not.
+	 */
+	private void lock(int column) throws Exception {
+		BitSet conflicts = this._lockManagers[column].lock(this, this._positions, this._buffers[column], this._lowRange, false);
+		if (conflicts.isEmpty()) {
+			this._locked[column] = this._positions;
+			return;
+		}
+
+		int[] waiting = new int[conflicts.cardinality()];
+		int[] locked = new int[this._positions.length - waiting.length];
+		for (int i = 0, j = 0, k = 0; i < this._positions.length; i++) {
+			if (conflicts.get(i))
+				waiting[j++] = this._positions[i];
+			else
+				locked[k++] = this._positions[i];
+		}
+		this._locked[column] = locked;
+
+		// released positions are locked in the order the sessions started waiting for them
+		int[] granted = this._lockManagers[column].lockWait(waiting, this._buffers[column], this._lowRange, HASIDSConstants.RETRY_LIMIT_MILLIS);
+		this._locked[column] = this._positions;
+		if (granted.length < waiting.length) {
+			this._locked[column] = null;
+			int[] release = Arrays.copyOf(locked, locked.length + granted.length);
+			System.arraycopy(granted, 0, release, locked.length, granted.length);
+			this._lockManagers[column].unlock(this, release);
+			throw new Exception ("Session timeout!");
+		}
+	}
+
+	/**
+	 * Writes the values of the columns into their pages, each column by its own thread
+	 */
+	private void writeColumns() throws Exception {
+		final String[] errors = new String[this._segments.length];
+		Thread[] threads = new Thread[this._segments.length];
+		for (int c = 0; c < threads.length; c++) {
+			final int column = c;
+			threads[c] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						writeColumn(column);
+					}
+					catch (Exception e) {
+						errors[column] = String.valueOf(e.getMessage());
+					}
+				}
+			}, "RowBatchWriter-" + c);
+			threads[c].setDaemon(true);
+			threads[c].start();
+		}
+
+		for (int c = 0; c < threads.length; c++)
+			threads[c].join();
+
+		for (int c = 0; c < errors.length; c++)
+			if (errors[c] != null)
+				throw new Exception ("Write of " + this._datasetNames[c] + " failed : " + errors[c]);
+	}
+
+	private void writeColumn(int column) throws Exception {
+		DatasetSegment segment = this._segments[column];
+		int dataLength = segment.getDataLength();
+		int encoding = segment.getEncoding();
+		MappedByteBuffer buffer = this._buffers[column];
+		Object values = this._values[column];
+
+		if (segment.getFileType() == CheckSum.FILE_TYPE_DIM) {
+			int[] v = (int[]) values;
+			if (dataLength == CheckSum.DIM_ENCODE_TYPE1)
+				for (int i = 0; i < v.length; i++)
+					buffer.put(i, (byte) v[i]);
+			else if (dataLength == CheckSum.DIM_ENCODE_TYPE2)
+				for (int i = 0; i < v.length; i++)
+					buffer.putShort(i * dataLength, (short) v[i]);
+			else
+				for (int i = 0; i < v.length; i++)
+					buffer.putInt(i * dataLength, v[i]);
+		}
+		else if (encoding == CheckSum.FACT_ENCODE_TYPE_BYTE) {
+			byte[] v = (byte[]) values;
+			for (int i = 0; i < v.length; i++)
+				buffer.put(i * dataLength, v[i]);
+		}
+		else if (encoding == CheckSum.FACT_ENCODE_TYPE_SHORT) {
+			short[] v = (short[]) values;
+			for (int i = 0; i < v.length; i++)
+				buffer.putShort(i * dataLength, v[i]);
+		}
+		else if (encoding == CheckSum.FACT_ENCODE_TYPE_INT) {
+			int[] v = (int[]) values;
+			for (int i = 0; i < v.length; i++)
+				buffer.putInt(i * dataLength, v[i]);
+		}
+		else if (encoding == CheckSum.FACT_ENCODE_TYPE_LONG) {
+			long[] v = (long[]) values;
+			for (int i = 0; i < v.length; i++)
+				buffer.putLong(i * dataLength, v[i]);
+		}
+		else if (encoding == CheckSum.FACT_ENCODE_TYPE_FLOAT) {
+			float[] v = (float[]) values;
+			for (int i = 0; i < v.length; i++)
+				buffer.putFloat(i * dataLength, v[i]);
+		}
+		else if (encoding == CheckSum.FACT_ENCODE_TYPE_DOUBLE) {
+			double[] v = (double[]) values;
+			for (int i = 0; i < v.length; i++)
+				buffer.putDouble(i * dataLength, v[i]);
+		}
+	}
+
+	/**
+	 * Commits the batch. The new values of all the columns are committed to the write ahead log
+	 * in one write and the batch ends in the versions of all the columns at once.
+	 *
+	 * @throws Exception
+	 */
+	public void commit() throws Exception {
+		if (this._status != ACTIVE)
+			throw new Exception ("Batch is not active");
+
+		this.end(false);
+		this._status = COMMITTED;
+	}
+
+	/**
+	 * Rolls back the batch, the values saved when the range was locked are written back into
+	 * all the columns
+	 *
+	 * @throws Exception
+	 */
+	public void rollback() throws Exception {
+		if (this._status != ACTIVE)
+			throw new Exception ("Batch is not active");
+
+		this.end(true);
+		this._status = ROLLEDBACK;
+	}
+
+	/**
+	 * Ends the batch in the log, the versions and the sidecars of the columns and releases the
+	 * range. The saved values are written back first if the batch is aborted.
+	 */
+	private void end(boolean aborted) throws Exception {
+		long beginTime = System.nanoTime();
+		int columns = this._segments.length;
+		long lastModified = System.currentTimeMillis();
+
+		try {
+			if (aborted) {
+				// the restored values are flushed before the abort is logged
+				for (int c = 0; c < columns; c++) {
+					if (this._locked[c] == null)
+						continue;
+
+					this._lockManagers[c].rollback(this, this._positions, this._buffers[c], this._lowRange);
+					this._buffers[c].force();
+				}
+				if (this._txId != 0)
+					this._log.abort(this._txId);
+			}
+			else {
+				// all the columns are durable once the single commit record is synced, the pages are flushed in the background
+				String[] names = new String[columns];
+				int[] headerLengths = new int[columns];
+				int[] dataLengths = new int[columns];
+				for (int c = 0; c < columns; c++) {
+					names[c] = this._datasetNames[c];
+					headerLengths[c] = this._segments[c].getHeaderLength();
+					dataLengths[c] = this._segments[c].getDataLength();
+				}
+				this._log.commit(this._txId, this._dbName, names, headerLengths, dataLengths, this._positions, this._buffers, this._lowRange);
+			}
+			this._txId = 0;
+
+			for (int c = 0; c < columns; c++) {
+				if (this._rwChannels[c] == null)
+					continue;
+
+				if (this._locked[c] != null) {
+					CheckSum.writeTimestamp(this._rwChannels[c], lastModified);
+					this.updateIndexes(c, lastModified);
+				}
+			}
+		}
+		finally {
+			for (int c = 0; c < columns; c++) {
+				if (this._rwChannels[c] != null)
+					this._rwChannels[c].close();
+				if (this._randomAccessFiles[c] != null)
+					this._randomAccessFiles[c].close();
+
+				if (this._locked[c] != null) {
+					File f = new File(this._datasetNames[c]);
+					f.setLastModified(lastModified);
+					this.refreshCatalog(c, lastModified);
+				}
+			}
+
+			// the batch ends in the versions of all the columns before the range is released
+			DatasetVersions[] versions = new DatasetVersions[columns];
+			for (int c = 0; c < columns; c++)
+				versions[c] = DatasetVersions.getVersions(this._dbName, this._datasetNames[c]);
+			DatasetVersions.commit(this, versions);
+
+			try {
+				// rows written by the batch are live again
+				if (!aborted)
+					for (int c = 0; c < columns; c++)
+						DeletionBitmap.remove(this._datasetNames[c], this._positions);
+			}
+			finally {
+				for (int c = 0; c < columns; c++)
+					if (this._locked[c] != null)
+						this._lockManagers[c].unlock(this, this._locked[c]);
+
+				this._buffers = null;
+				this._rwChannels = null;
+				this._randomAccessFiles = null;
+			}
+		}
+
+		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((System.nanoTime() - beginTime), TimeUnit.NANOSECONDS);
+		System.out.println("Row batch " + (aborted ? "rolled back" : "committed") + " in " + elapsedTimeInMillis + " Milliseconds");
+	}
+
+	/**
+	 * Updates the block checksums, null bitmap, trigram index and runs of a column. Each of
+	 * them is removed if it cannot be updated so that it is never stale.
+	 */
+	private void updateIndexes(int column, long lastModified) {
+		DatasetSegment segment = this._segments[column];
+		String datasetName = this._datasetNames[column];
+		int dataLength = segment.getDataLength();
+
+		try {
+			BlockCheckSum.update(datasetName, this._rwChannels[column], segment.getHeaderLength(),
+					(long) this._lowRange * dataLength, (long) this.getRowCount() * dataLength);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			BlockCheckSum.delete(datasetName);
+		}
+
+		if (segment.getFileType() == CheckSum.FILE_TYPE_FACT && FactNullBitmap.exists(datasetName)) {
+			try {
+				boolean[] nulls = new boolean[this._positions.length];
+				for (int i = 0; i < nulls.length; i++)
+					nulls[i] = FactNullBitmap.isNull(this._buffers[column], i * dataLength, segment.getEncoding());
+
+				FactNullBitmap.update(this._dbName, datasetName, this._positions, nulls, segment.getRecordCount(), lastModified);
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+				FactNullBitmap.delete(datasetName);
+			}
+		}
+
+		if (SortedRuns.exists(datasetName)) {
+			try {
+				SortedRuns.update(datasetName, this._positions, segment.getRecordCount(), lastModified);
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+				SortedRuns.delete(datasetName);
+			}
+		}
+	}
+
+	private void refreshCatalog(int column, long lastModified) {
+		DatasetSegment segment = this._segments[column];
+		try {
+			DatasetCatalog.refresh(new DatasetSegment(this._dbName, this._datasetNames[column], segment.getFileType(), segment.getEncoding(),
+					segment.getSegmentNo(), segment.getDataLength(), segment.getDecimals(), segment.getHeaderLength(),
+					segment.getRecordCount(), lastModified));
+		}
+		catch (Exception e) {
+			// the entry is reloaded from the header on its next use
+			DatasetCatalog.remove(this._dbName, this._datasetNames[column]);
+		}
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		String dbName = "Test";
+		String[] datasetNames = {
+				"c:\\users\\dpras\\tempdata\\testdata\\pickupday.DM",
+				"c:\\users\\dpras\\tempdata\\testdata\\passengercount.DM",
+				"c:\\users\\dpras\\tempdata\\testdata\\tripdistance.FC",
+				"c:\\users\\dpras\\tempdata\\testdata\\fareamount.FC" };
+
+		int rowCount = 1000000;
+		int[] days = new int[rowCount];
+		int[] passengers = new int[rowCount];
+		double[] distances = new double[rowCount];
+		double[] fares = new double[rowCount];
+		for (int i = 0; i < rowCount; i++) {
+			days[i] = 1 + (i % 31);
+			passengers[i] = 1 + (i % 6);
+			distances[i] = 0.5 + (i % 200) / 10.0;
+			fares[i] = 2.5 + (i % 500) / 10.0;
+		}
+
+		try {
+			// a batch of trips in all the columns or in none of them
+			RowBatchWriter writer = new RowBatchWriter(dbName, datasetNames, 0, rowCount);
+			writer.setValues(0, days);
+			writer.setValues(1, passengers);
+			writer.setValues(2, distances);
+			writer.setValues(3, fares);
+			writer.writeToSegment(true);
+
+			// readers of the columns pin them together
+			DatasetVersions.Snapshot[] snapshots = DatasetVersions.pin(dbName, datasetNames);
+			try {
+				for (int i = 0; i < snapshots.length; i++)
+					System.out.println(datasetNames[i] + " version : " + snapshots[i].getVersion());
+			}
+			finally {
+				for (int i = 0; i < snapshots.length; i++)
+					snapshots[i].release();
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,716 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Asynchronous bulk writer of a dimension or fixed length fact segment. Batches of positions
+ * and values are submitted without waiting for the segment to be written; each submit returns
+ * a CompletableFuture that completes with the number of records of the batch once they are
+ * committed and forced to disk, or exceptionally if the batch is invalid or its write fails.
+ *
+ * The batches go through a pipeline of three stages running in parallel:
+ * - the caller generates and submits the batches; at most queueCapacity batches are accepted
+ *   and not yet written, a submit blocks until a batch is written once the limit is reached
+ * - sort threads validate the positions and values of each batch and sort them in position
+ *   order, keeping the last value of a position submitted more than once
+ * - the write thread takes the sorted batches in submission order and merges the batches that
+ *   are ready, up to maxWriteRecords records, into one write in position order, so that the
+ *   pages of the segment are written sequentially and committed once for all of them. A
+ *   position written by more than one batch of the write gets the value of the last batch
+ *   submitted.
+ *
+ * The batches are written with the BATCH writers of the segment. The segment must not be
+ * written by other writers while the bulk writer is open.
+ */
+package com.hasids.io;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.hasids.HASIDSConstants;
+import com.hasids.datastructures.CheckSum;
+import com.hasids.io.dataset.DatasetSegment;
+import com.hasids.io.dim.DimDataWriter;
+import com.hasids.io.dim.DimDeltaStore;
+import com.hasids.io.fact.FactDataWriterByte;
+import com.hasids.io.fact.FactDataWriterDouble;
+import com.hasids.io.fact.FactDataWriterFloat;
+import com.hasids.io.fact.FactDataWriterInt;
+import com.hasids.io.fact.FactDataWriterLong;
+import com.hasids.io.fact.FactDataWriterShort;
+import com.hasids.io.fact.FactDataWriterString;
+
+public final class SegmentBulkWriter {
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 16;
+	public static final int DEFAULT_MAX_WRITE_RECORDS = 16 * 1024 * 1024;
+
+	private static final Batch END = new Batch(null, null, 0);
+
+	private String _dbName;
+	private String _datasetName;
+	private int _fileType;
+	private int _encoding;
+	private int _dataLength;
+	private int _recordCount;
+	private int _maxWriteRecords = DEFAULT_MAX_WRITE_RECORDS;
+
+	// batches accepted and not yet written
+	private Semaphore _slots;
+	private LinkedBlockingQueue<Batch> _sortQueue = new LinkedBlockingQueue<Batch>();
+	private LinkedBlockingQueue<Batch> _writeQueue = new LinkedBlockingQueue<Batch>();
+	private Object _submitMonitor = new Object();
+	private volatile Batch _lastBatch = null;
+	private volatile boolean _closed = false;
+
+	private Thread[] _sortThreads;
+	private Thread _writeThread;
+
+	private AtomicLong _batchCount = new AtomicLong();
+	private AtomicLong _recordsWritten = new AtomicLong();
+	private AtomicLong _writeCount = new AtomicLong();
+	private AtomicLong _failedCount = new AtomicLong();
+	private AtomicLong _writeNanos = new AtomicLong();
+
+	/**
+	 * Constructor
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name, the segment must exist
+	 * @param queueCapacity Maximum number of batches accepted and not yet written
+	 * @param noSortThreads Number of threads validating and sorting the batches
+	 * @throws Exception
+	 */
+	public SegmentBulkWriter(String dbName, String datasetName, int queueCapacity, int noSortThreads) throws Exception {
+		if (queueCapacity <= 0)
+			throw new Exception ("Queue capacity must be > 0");
+		if (noSortThreads <= 0)
+			throw new Exception ("Number of sort threads must be > 0");
+
+		DatasetSegment segment = new DatasetSegment(dbName, datasetName);
+		this._dbName = dbName;
+		this._datasetName = datasetName;
+		this._fileType = segment.getFileType();
+		this._encoding = segment.getEncoding();
+		this._dataLength = segment.getDataLength();
+		this._recordCount = segment.getRecordCount();
+
+		if (CheckSum.isCompressedEncoding(this._fileType, this._encoding) || CheckSum.isSparseEncoding(this._fileType, this._encoding) ||
+				CheckSum.isDictionaryEncoding(this._fileType, this._encoding) || CheckSum.isVarLengthEncoding(this._fileType, this._encoding) ||
+				CheckSum.isDecimalEncoding(this._fileType, this._encoding))
+			throw new Exception ("Bulk writes are supported on dimension and fixed length fact segments only");
+
+		if (this._fileType != CheckSum.FILE_TYPE_DIM && this._fileType != CheckSum.FILE_TYPE_FACT)
+			throw new Exception ("Bulk writes are supported on dimension and fixed length fact segments only");
+
+		// dimensions are written through BATCH writers, which are not allowed while a delta store is enabled
+		if (DimDeltaStore.getDeltaStore(dbName, datasetName) != null)
+			throw new Exception ("Bulk writes are not supported on segments with a delta store");
+
+		this._slots = new Semaphore(queueCapacity);
+
+		this._sortThreads = new Thread[noSortThreads];
+		for (int i = 0; i < noSortThreads; i++) {
+			this._sortThreads[i] = new Thread(new Sorter(), "SegmentBulkWriter-sort-" + i);
+			this._sortThreads[i].setDaemon(true);
+			this._sortThreads[i].start();
+		}
+
+		this._writeThread = new Thread(new Writer(), "SegmentBulkWriter-write");
+		this._writeThread.setDaemon(true);
+		this._writeThread.start();
+	}
+
+	public SegmentBulkWriter(String dbName, String datasetName) throws Exception {
+		this(dbName, datasetName, DEFAULT_QUEUE_CAPACITY, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+	}
+
+	/**
+	 * Sets the maximum number of records merged into one write
+	 *
+	 * @param maxWriteRecords
+	 * @throws Exception
+	 */
+	public void setMaxWriteRecords(int maxWriteRecords) throws Exception {
+		if (maxWriteRecords <= 0)
+			throw new Exception ("Maximum records per write must be > 0");
+
+		this._maxWriteRecords = maxWriteRecords;
+	}
+
+	public String getDatasetName() {
+		return this._datasetName;
+	}
+
+	/**
+	 * @return Number of batches submitted
+	 */
+	public long getBatchCount() {
+		return this._batchCount.get();
+	}
+
+	/**
+	 * @return Number of writes of merged batches committed
+	 */
+	public long getWriteCount() {
+		return this._writeCount.get();
+	}
+
+	public long getRecordsWritten() {
+		return this._recordsWritten.get();
+	}
+
+	public long getFailedCount() {
+		return this._failedCount.get();
+	}
+
+	public long getWriteTimeMillis() {
+		return this._writeNanos.get() / 1000000L;
+	}
+
+	/**
+	 * Submits values of a dimension or INT fact segment
+	 */
+	public CompletableFuture<Integer> submit(int[] positions, int[] values) throws Exception {
+		return this.submit(new Batch(positions, values, (values == null ? -1 : values.length)));
+	}
+
+	public CompletableFuture<Integer> submit(int[] positions, byte[] values) throws Exception {
+		return this.submit(new Batch(positions, values, (values == null ? -1 : values.length)));
+	}
+
+	public CompletableFuture<Integer> submit(int[] positions, short[] values) throws Exception {
+		return this.submit(new Batch(positions, values, (values == null ? -1 : values.length)));
+	}
+
+	public CompletableFuture<Integer> submit(int[] positions, long[] values) throws Exception {
+		return this.submit(new Batch(positions, values, (values == null ? -1 : values.length)));
+	}
+
+	public CompletableFuture<Integer> submit(int[] positions, float[] values) throws Exception {
+		return this.submit(new Batch(positions, values, (values == null ? -1 : values.length)));
+	}
+
+	public CompletableFuture<Integer> submit(int[] positions, double[] values) throws Exception {
+		return this.submit(new Batch(positions, values, (values == null ? -1 : values.length)));
+	}
+
+	public CompletableFuture<Integer> submit(int[] positions, String[] values) throws Exception {
+		return this.submit(new Batch(positions, values, (values == null ? -1 : values.length)));
+	}
+
+	/**
+	 * Queues a batch, waiting for a batch to be written if queueCapacity batches are
+	 * accepted and not yet written. The arrays of the batch must not be changed by the
+	 * caller until its future completes.
+	 */
+	private CompletableFuture<Integer> submit(Batch batch) throws Exception {
+		if (batch._positions == null || batch._values == null)
+			throw new Exception ("Positions and values cannot be null");
+
+		if (batch._positions.length != batch._length)
+			throw new Exception ("Positions and values not of identical length!");
+
+		this._slots.acquire();
+		synchronized (this._submitMonitor) {
+			if (this._closed) {
+				this._slots.release();
+				throw new Exception ("Bulk writer of " + this._datasetName + " is closed");
+			}
+
+			// both queues are in the order of submission
+			this._writeQueue.add(batch);
+			this._sortQueue.add(batch);
+			this._lastBatch = batch;
+		}
+
+		this._batchCount.incrementAndGet();
+		return batch._future;
+	}
+
+	/**
+	 * Waits for all the batches submitted to be written
+	 *
+	 * @throws Exception
+	 */
+	public void flush() throws Exception {
+		Batch last = this._lastBatch;
+		if (last == null)
+			return;
+
+		try {
+			// batches are completed in the order of submission
+			last._written.await();
+		}
+		catch (InterruptedException e) {
+			throw new Exception ("Interrupted while flushing " + this._datasetName);
+		}
+	}
+
+	/**
+	 * Stops accepting batches, waits for the batches submitted to be written and stops the
+	 * threads of the writer
+	 *
+	 * @throws Exception
+	 */
+	public void close() throws Exception {
+		synchronized (this._submitMonitor) {
+			if (this._closed)
+				return;
+
+			this._closed = true;
+			for (int i = 0; i < this._sortThreads.length; i++)
+				this._sortQueue.add(END);
+			this._writeQueue.add(END);
+		}
+
+		this._writeThread.join();
+		for (int i = 0; i < this._sortThreads.length; i++)
+			this._sortThreads[i].join();
+	}
+
+	/**
+	 * Validates the positions and values of a batch and sorts them in position order, the last
+	 * value of a position submitted more than once is kept
+	 */
+	private void prepare(Batch batch) throws Exception {
+		int[] positions = batch._positions;
+		int count = positions.length;
+
+		for (int i = 0; i < count; i++)
+			if (positions[i] < 0 || positions[i] > this._recordCount - 1)
+				throw new Exception("Positions to be set should be >= 0 and <= file length/record count");
+
+		this.checkValues(batch._values);
+
+		// batches generated in position order are not sorted
+		int[] indexes = PageOrder.sort(positions, count);
+		if (indexes == null)
+			return;
+
+		int unique = indexes.length;
+
+		int[] newPositions = new int[unique];
+		for (int i = 0; i < unique; i++)
+			newPositions[i] = positions[indexes[i]];
+
+		batch._values = gather(new Object[] {batch._values}, new int[unique], indexes, unique);
+		batch._positions = newPositions;
+	}
+
+	/**
+	 * Checks the values of a batch against the encoding of the segment. Dimension segments take
+	 * int values, fact segments the type of their encoding. The range of integral values is
+	 * checked here, float, double and alphanumeric values are checked by the writer.
+	 */
+	private void checkValues(Object values) throws Exception {
+		Class<?> type = null;
+		if (this._fileType == CheckSum.FILE_TYPE_DIM)
+			type = int[].class;
+		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_BYTE)
+			type = byte[].class;
+		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_SHORT)
+			type = short[].class;
+		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_INT)
+			type = int[].class;
+		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_LONG)
+			type = long[].class;
+		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_FLOAT)
+			type = float[].class;
+		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_DOUBLE)
+			type = double[].class;
+		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_ALPHAN)
+			type = String[].class;
+
+		if (type != values.getClass())
+			throw new Exception ("Values of type " + values.getClass().getSimpleName() + " do not match the encoding of " + this._datasetName);
+
+		long minValue = 0;
+		long maxValue = 0;
+		int dataLength = this._dataLength;
+		if (this._fileType == CheckSum.FILE_TYPE_FACT) {
+			if (this._encoding == CheckSum.FACT_ENCODE_TYPE_BYTE)
+				dataLength = 1;
+			else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_SHORT)
+				dataLength = 2;
+			else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_INT)
+				dataLength = 4;
+			else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_LONG)
+				dataLength = 8;
+			else
+				return;
+		}
+
+		if (dataLength == 1) {
+			minValue = HASIDSConstants.DIM_ENCODE_TYPE1_MIN;
+			maxValue = HASIDSConstants.DIM_ENCODE_TYPE1_MAX;
+		}
+		else if (dataLength == 2) {
+			minValue = HASIDSConstants.DIM_ENCODE_TYPE2_MIN;
+			maxValue = HASIDSConstants.DIM_ENCODE_TYPE2_MAX;
+		}
+		else if (dataLength == 4) {
+			minValue = HASIDSConstants.DIM_ENCODE_TYPE3_MIN;
+			maxValue = HASIDSConstants.DIM_ENCODE_TYPE3_MAX;
+		}
+		else {
+			minValue = Long.MIN_VALUE + 1;
+			maxValue = Long.MAX_VALUE;
+		}
+
+		int count = Array.getLength(values);
+		long value = 0;
+		for (int i = 0; i < count; i++) {
+			if (values instanceof int[])
+				value = ((int[]) values)[i];
+			else if (values instanceof byte[])
+				value = ((byte[]) values)[i];
+			else if (values instanceof short[])
+				value = ((short[]) values)[i];
+			else
+				value = ((long[]) values)[i];
+
+			if (value < minValue || value > maxValue)
+				throw new Exception ("Values to be set should be >= " + minValue + " and <= " + maxValue);
+		}
+	}
+
+	/**
+	 * Copies values of source arrays into a new array of their type
+	 *
+	 * @param sources Arrays of values of the same type
+	 * @param sourceIndexes Array of each value to copy
+	 * @param offsets Offset in its array of each value to copy
+	 * @param count Number of values to copy
+	 */
+	private static Object gather(Object[] sources, int[] sourceIndexes, int[] offsets, int count) {
+		Object first = sources[0];
+		if (first instanceof int[]) {
+			int[] target = new int[count];
+			for (int i = 0; i < count; i++)
+				target[i] = ((int[]) sources[sourceIndexes[i]])[offsets[i]];
+			return target;
+		}
+		else if (first instanceof byte[]) {
+			byte[] target = new byte[count];
+			for (int i = 0; i < count; i++)
+				target[i] = ((byte[]) sources[sourceIndexes[i]])[offsets[i]];
+			return target;
+		}
+		else if (first instanceof short[]) {
+			short[] target = new short[count];
+			for (int i = 0; i < count; i++)
+				target[i] = ((short[]) sources[sourceIndexes[i]])[offsets[i]];
+			return target;
+		}
+		else if (first instanceof long[]) {
+			long[] target = new long[count];
+			for (int i = 0; i < count; i++)
+				target[i] = ((long[]) sources[sourceIndexes[i]])[offsets[i]];
+			return target;
+		}
+		else if (first instanceof float[]) {
+			float[] target = new float[count];
+			for (int i = 0; i < count; i++)
+				target[i] = ((float[]) sources[sourceIndexes[i]])[offsets[i]];
+			return target;
+		}
+		else if (first instanceof double[]) {
+			double[] target = new double[count];
+			for (int i = 0; i < count; i++)
+				target[i] = ((double[]) sources[sourceIndexes[i]])[offsets[i]];
+			return target;
+		}
+		else {
+			String[] target = new String[count];
+			for (int i = 0; i < count; i++)
+				target[i] = ((String[]) sources[sourceIndexes[i]])[offsets[i]];
+			return target;
+		}
+	}
+
+	/**
+	 * Merges sorted batches into one array of positions in ascending order and their values,
+	 * a position of more than one batch gets the value of the last batch
+	 */
+	private static Object[] merge(ArrayList<Batch> batches) {
+		int k = batches.size();
+		if (k == 1)
+			return new Object[] {batches.get(0)._positions, batches.get(0)._values};
+
+		int total = 0;
+		Object[] sources = new Object[k];
+		int[] heads = new int[k];
+		for (int b = 0; b < k; b++) {
+			total += batches.get(b)._positions.length;
+			sources[b] = batches.get(b)._values;
+		}
+
+		int[] positions = new int[total];
+		int[] sourceIndexes = new int[total];
+		int[] offsets = new int[total];
+		int count = 0;
+		while (true) {
+			// lowest position at the heads of the batches, the last batch wins
+			int min = Integer.MAX_VALUE;
+			int source = -1;
+			for (int b = 0; b < k; b++) {
+				int[] p = batches.get(b)._positions;
+				if (heads[b] < p.length && p[heads[b]] <= min) {
+					min = p[heads[b]];
+					source = b;
+				}
+			}
+
+			if (source < 0)
+				break;
+
+			positions[count] = min;
+			sourceIndexes[count] = source;
+			offsets[count] = heads[source];
+			count++;
+
+			for (int b = 0; b < k; b++) {
+				int[] p = batches.get(b)._positions;
+				if (heads[b] < p.length && p[heads[b]] == min)
+					heads[b]++;
+			}
+		}
+
+		return new Object[] {Arrays.copyOf(positions, count), gather(sources, sourceIndexes, offsets, count)};
+	}
+
+	/**
+	 * Writes and commits positions in ascending order and their values with a BATCH writer
+	 */
+	private void write(int[] positions, Object values) throws Exception {
+		if (this._fileType == CheckSum.FILE_TYPE_DIM) {
+			if (!(values instanceof int[]))
+				throw new Exception ("Values of a dimension segment must be int values");
+
+			DimDataWriter writer = new DimDataWriter(this._dbName, this._datasetName, HASIDSConstants.OPERATION_MODE_BATCH);
+			writer.setWriteDataPositionBuffer(positions, (int[]) values, false, false);
+			writer.writeToSegment(true);
+			return;
+		}
+
+		DataWriter writer = null;
+		if (this._encoding == CheckSum.FACT_ENCODE_TYPE_BYTE && values instanceof byte[]) {
+			writer = new FactDataWriterByte(this._dbName, this._datasetName, HASIDSConstants.OPERATION_MODE_BATCH);
+			writer.setWriteDataPositionBuffer(positions, (byte[]) values, false, false);
+		}
+		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_SHORT && values instanceof short[]) {
+			writer = new FactDataWriterShort(this._dbName, this._datasetName, HASIDSConstants.OPERATION_MODE_BATCH);
+			writer.setWriteDataPositionBuffer(positions, (short[]) values, false, false);
+		}
+		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_INT && values instanceof int[]) {
+			writer = new FactDataWriterInt(this._dbName, this._datasetName, HASIDSConstants.OPERATION_MODE_BATCH);
+			writer.setWriteDataPositionBuffer(positions, (int[]) values, false, false);
+		}
+		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_LONG && values instanceof long[]) {
+			writer = new FactDataWriterLong(this._dbName, this._datasetName, HASIDSConstants.OPERATION_MODE_BATCH);
+			writer.setWriteDataPositionBuffer(positions, (long[]) values, false, false);
+		}
+		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_FLOAT && values instanceof float[]) {
+			writer = new FactDataWriterFloat(this._dbName, this._datasetName, HASIDSConstants.OPERATION_MODE_BATCH);
+			writer.setWriteDataPositionBuffer(positions, (float[]) values, false, false);
+		}
+		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_DOUBLE && values instanceof double[]) {
+			writer = new FactDataWriterDouble(this._dbName, this._datasetName, HASIDSConstants.OPERATION_MODE_BATCH);
+			writer.setWriteDataPositionBuffer(positions, (double[]) values, false, false);
+		}
+		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_ALPHAN && values instanceof String[]) {
+			writer = new FactDataWriterString(this._dbName, this._datasetName, HASIDSConstants.OPERATION_MODE_BATCH);
+			writer.setWriteDataPositionBuffer(positions, (String[]) values, false, false);
+		}
+		else
+			throw new Exception ("Values of type " + values.getClass().getSimpleName() + " do not match the encoding of " + this._datasetName);
+
+		writer.writeToSegment(true);
+	}
+
+	/**
+	 * Writes a group of sorted batches as one write. If the write fails, the batches are
+	 * written one by one so that only the batches that cannot be written fail.
+	 */
+	private void write(ArrayList<Batch> group) {
+		long beginTime = System.nanoTime();
+		try {
+			Object[] merged = merge(group);
+			this.write((int[]) merged[0], merged[1]);
+			this._writeCount.incrementAndGet();
+			for (int i = 0; i < group.size(); i++)
+				this.complete(group.get(i), null);
+		}
+		catch (Exception e) {
+			if (group.size() == 1)
+				this.complete(group.get(0), e);
+			else {
+				for (int i = 0; i < group.size(); i++) {
+					ArrayList<Batch> single = new ArrayList<Batch>(1);
+					single.add(group.get(i));
+					this.write(single);
+				}
+			}
+		}
+		finally {
+			this._writeNanos.addAndGet(System.nanoTime() - beginTime);
+		}
+	}
+
+	private void complete(Batch batch, Exception e) {
+		if (batch._written.getCount() == 0)
+			return;
+
+		if (e == null) {
+			this._recordsWritten.addAndGet(batch._length);
+			batch._future.complete(batch._length);
+		}
+		else {
+			this._failedCount.incrementAndGet();
+			batch._future.completeExceptionally(e);
+		}
+
+		batch._written.countDown();
+		this._slots.release();
+	}
+
+	/**
+	 * Positions and values submitted together
+	 */
+	private static final class Batch {
+		private int[] _positions;
+		private Object _values;
+		private int _length;
+		private volatile Exception _error = null;
+
+		private CountDownLatch _sorted = new CountDownLatch(1);
+		private CountDownLatch _written = new CountDownLatch(1);
+		private CompletableFuture<Integer> _future = new CompletableFuture<Integer>();
+
+		private Batch(int[] positions, Object values, int length) {
+			this._positions = positions;
+			this._values = values;
+			this._length = length;
+		}
+	}
+
+	/**
+	 * Validates and sorts the batches
+	 */
+	private final class Sorter implements Runnable {
+		public void run() {
+			while (true) {
+				Batch batch = null;
+				try {
+					batch = _sortQueue.take();
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+
+				if (batch == END)
+					return;
+
+				try {
+					prepare(batch);
+				}
+				catch (Exception e) {
+					batch._error = e;
+				}
+				batch._sorted.countDown();
+			}
+		}
+	}
+
+	/**
+	 * Writes the sorted batches in the order of submission, merging the batches ready
+	 */
+	private final class Writer implements Runnable {
+		public void run() {
+			while (true) {
+				Batch batch = null;
+				try {
+					batch = _writeQueue.take();
+					if (batch == END)
+						return;
+
+					batch._sorted.await();
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+
+				ArrayList<Batch> group = new ArrayList<Batch>();
+				if (batch._error != null)
+					complete(batch, batch._error);
+				else
+					group.add(batch);
+
+				// batches sorted while the previous write was running are merged into this one
+				long records = (batch._error == null ? batch._positions.length : 0);
+				Batch next = null;
+				while ((next = _writeQueue.peek()) != null && next != END && next._sorted.getCount() == 0 &&
+						(next._error != null || records + next._positions.length <= _maxWriteRecords)) {
+					_writeQueue.poll();
+					if (next._error != null)
+						complete(next, next._error);
+					else {
+						group.add(next);
+						records += next._positions.length;
+					}
+				}
+
+				if (group.size() > 0)
+					write(group);
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		String dbName = "Test";
+		String datasetName = "c:\\users\\dpras\\tempdata\\testdata\\fareamount.FC";
+		int recordCount = 100000000;
+		int batchSize = 1000000;
+
+		try {
+			new FactDataWriterInt(dbName, datasetName, recordCount, 0);
+
+			long beginTime = System.nanoTime();
+			SegmentBulkWriter writer = new SegmentBulkWriter(dbName, datasetName, 8, 4);
+			ArrayList<CompletableFuture<Integer>> futures = new ArrayList<CompletableFuture<Integer>>();
+
+			// the next batch is generated while the previous ones are sorted and written
+			java.util.Random random = new java.util.Random(17);
+			for (int b = 0; b < recordCount / batchSize; b++) {
+				int[] positions = new int[batchSize];
+				int[] values = new int[batchSize];
+				for (int i = 0; i < batchSize; i++) {
+					positions[i] = random.nextInt(recordCount);
+					values[i] = 1 + random.nextInt(10000);
+				}
+				futures.add(writer.submit(positions, values));
+			}
+
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+			writer.close();
+
+			long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((System.nanoTime() - beginTime), TimeUnit.NANOSECONDS);
+			System.out.println("Batches : " + writer.getBatchCount() + ", writes : " + writer.getWriteCount() + ", records : " +
+					writer.getRecordsWritten() + ", write time : " + writer.getWriteTimeMillis() + ", total time : " + elapsedTimeInMillis + " Milliseconds");
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
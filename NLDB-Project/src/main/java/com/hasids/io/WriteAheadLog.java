@@ -0,0 +1,850 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Write ahead log of the ONLINE sessions of DataWriter, DimDataWriter and LinkDataWriter. There is
+ * one log per directory of datasets. A session appends the values saved when its positions were
+ * locked as UNDO records before the mapped pages are modified, and the new values as a REDO record
+ * followed by a COMMIT record at commit. The session is durable once the log is synced, the mapped
+ * pages of the dataset are flushed by a background thread. Concurrent sessions are group committed,
+ * one session syncs the log for all the records appended before the sync while the others wait.
+ * UNDO records are not synced on their own, they are made durable by the next group sync, at the
+ * latest by the background thread every FLUSH_INTERVAL_MILLIS before it flushes any dataset.
+ * The log is truncated once all the dirty datasets are flushed and no session is active.
+ *
+ * A session is active from begin until its commit or abort, including a failed one. The log holds
+ * the owner of a session weakly, a session whose owner was released without ending it is rolled
+ * back by the background thread with its UNDO records and aborted, so that the log is truncated.
+ *
+ * The log of a directory left behind by a failed process is recovered when a dataset of the
+ * directory is validated by a reader or a writer, before the dataset is mapped.
+ *
+ * Recovery reapplies the REDO records of committed sessions in log order and then the UNDO records
+ * of the sessions that neither committed nor aborted in reverse log order. A session writing
+ * several datasets logs a REDO record per dataset followed by a single COMMIT record, recovery
+ * redoes all of them or none of them. The header time stamp of
+ * the recovered datasets is rewritten and the sidecars derived from their data are deleted.
+ *
+ * Records are little endian : int magic, int payload length, byte type, long session id, int CRC32C
+ * of the type, session id and payload. UNDO and REDO payloads hold the db name, the dataset name,
+ * the header length, the record length, the number of positions, the positions and the values.
+ */
+package com.hasids.io;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.zip.CRC32C;
+
+import com.hasids.datastructures.BlockCheckSum;
+import com.hasids.datastructures.CheckSum;
+import com.hasids.datastructures.SortedRuns;
+import com.hasids.io.dataset.DatasetCatalog;
+import com.hasids.io.fact.FactNullBitmap;
+import com.hasids.io.fact.FactTrigramIndex;
+
+public final class WriteAheadLog {
+
+	public static final String LOG_FILE_NAME = "HASIDS.wal";
+
+	public static final int RECORD_MAGIC = 0x4C415748;
+	public static final int RECORD_HEADER_LENGTH = 21;
+	public static final byte RECORD_UNDO = 1;
+	public static final byte RECORD_REDO = 2;
+	public static final byte RECORD_COMMIT = 3;
+	public static final byte RECORD_ABORT = 4;
+
+	public static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+	// open logs keyed on the directory, a directory is recovered before its log is opened
+	private static Hashtable<String, WriteAheadLog> LOGS = new Hashtable<String, WriteAheadLog>();
+	private static Hashtable<String, String> RECOVERED = new Hashtable<String, String>();
+
+	private String _directory;
+	private String _logName;
+	private RandomAccessFile _randomAccessFile;
+	private FileChannel _channel;
+
+	// log sequence numbers are the end offsets of the records in the log file
+	private long _appendLsn = 0;
+	private long _durableLsn = 0;
+	private boolean _syncing = false;
+
+	private long _lastTxId = 0;
+
+	// active sessions with their owners, held weakly to find the sessions released without ending
+	private Hashtable<Long, WeakReference<Object>> _sessions = new Hashtable<Long, WeakReference<Object>>();
+
+	// datasets modified by committed sessions and not yet flushed, with the LSN of the last commit
+	private Hashtable<String, Long> _dirtyTable = new Hashtable<String, Long>();
+
+	// mapped buffers written by the committed sessions of the dirty datasets, the pages of a mapping
+	// are flushed through the mapping itself
+	private Hashtable<String, ArrayList<MappedByteBuffer>> _dirtyBuffers = new Hashtable<String, ArrayList<MappedByteBuffer>>();
+	
+	// datasets with committed sessions whose values are held outside the dataset, with the number of
+	// such sessions, the log is kept until they are released
+	private Hashtable<String, Integer> _pinnedTable = new Hashtable<String, Integer>();
+
+	private long _commitCount = 0;
+	private long _syncCount = 0;
+
+	private WriteAheadLog(String directory) throws Exception {
+		this._directory = directory;
+		this._logName = new File(directory, LOG_FILE_NAME).getPath();
+		this._randomAccessFile = new RandomAccessFile(this._logName, "rw");
+		this._channel = this._randomAccessFile.getChannel();
+		this._appendLsn = this._channel.size();
+		this._durableLsn = this._appendLsn;
+
+		Thread flusher = new Thread(new Flusher(this), "WriteAheadLog-" + directory);
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Returns the log of the directory of a dataset, recovering and opening it if it is not open.
+	 *
+	 * @param datasetName Dataset file name
+	 * @return Log of the directory of the dataset
+	 * @throws Exception
+	 */
+	public static WriteAheadLog getLog(String datasetName) throws Exception {
+		String directory = new File(datasetName).getAbsoluteFile().getParent();
+		synchronized (LOGS) {
+			WriteAheadLog log = LOGS.get(directory);
+			if (log == null) {
+				WriteAheadLog.recover(directory);
+				log = new WriteAheadLog(directory);
+				LOGS.put(directory, log);
+			}
+
+			return log;
+		}
+	}
+
+	public String getDirectory() {
+		return this._directory;
+	}
+
+	public synchronized long getCommitCount() {
+		return this._commitCount;
+	}
+
+	public synchronized long getSyncCount() {
+		return this._syncCount;
+	}
+
+	public synchronized int getActiveCount() {
+		return this._sessions.size();
+	}
+
+	/**
+	 * Starts a session in the log that is committed or aborted by the caller itself.
+	 *
+	 * @return Session id
+	 */
+	public long begin() {
+		return this.begin(this);
+	}
+
+	/**
+	 * Starts a session in the log. The session is rolled back and aborted by the log if its
+	 * owner is released without committing or aborting it.
+	 *
+	 * @param owner Session writing the datasets
+	 * @return Session id
+	 */
+	public synchronized long begin(Object owner) {
+		long txId = ++this._lastTxId;
+		this._sessions.put(Long.valueOf(txId), new WeakReference<Object>(owner));
+		return txId;
+	}
+
+	/**
+	 * Ends a session committed, aborted or failed
+	 */
+	private synchronized void end(long txId) {
+		this._sessions.remove(Long.valueOf(txId));
+	}
+
+	/**
+	 * Appends the values saved for the positions locked by a session. The record is synced by
+	 * the next group sync, before the commit or the abort of the session and before the mapped
+	 * pages of the datasets of the log are flushed.
+	 *
+	 * @param txId Session id
+	 * @param dbName Database name
+	 * @param datasetName Dataset file name
+	 * @param headerLength Length of the header of the dataset
+	 * @param dataLength Length of a record of the dataset
+	 * @param positions Positions locked by the session
+	 * @param values Saved values of the positions, dataLength bytes per position
+	 * @throws Exception
+	 */
+	public void logUndo(long txId, String dbName, String datasetName, int headerLength, int dataLength, int[] positions, byte[] values) throws Exception {
+		ByteBuffer record = WriteAheadLog.createRecord(RECORD_UNDO, txId, dbName, datasetName, headerLength, dataLength, positions, 0);
+		record.put(values, 0, positions.length * dataLength);
+		WriteAheadLog.seal(record, 0);
+		record.flip();
+		this.append(record);
+	}
+
+	/**
+	 * Appends the new values of the positions of a session followed by its commit record and syncs
+	 * the log. The dataset is flushed in the background.
+	 *
+	 * @param txId Session id
+	 * @param dbName Database name
+	 * @param datasetName Dataset file name
+	 * @param headerLength Length of the header of the dataset
+	 * @param dataLength Length of a record of the dataset
+	 * @param positions Positions written by the session
+	 * @param buffer Mapped buffer of the data region of the dataset beginning at lowRange
+	 * @param lowRange Position of the first record in the buffer
+	 * @throws Exception
+	 */
+	public void commit(long txId, String dbName, String datasetName, int headerLength, int dataLength, int[] positions, ByteBuffer buffer, int lowRange) throws Exception {
+		ByteBuffer record = WriteAheadLog.createRecord(RECORD_REDO, txId, dbName, datasetName, headerLength, dataLength, positions, RECORD_HEADER_LENGTH);
+		ByteBuffer source = buffer.duplicate();
+		for (int i = 0; i < positions.length; i++) {
+			source.limit((positions[i] - lowRange + 1) * dataLength);
+			source.position((positions[i] - lowRange) * dataLength);
+			record.put(source);
+		}
+
+		long lsn = this.commit(record, txId, null);
+		this.addDirty(datasetName, buffer, lsn);
+	}
+
+	/**
+	 * Appends the new values of the same positions of a session in several datasets followed by a
+	 * single commit record in one write and syncs the log. The datasets must be in the directory
+	 * of the log and are flushed in the background.
+	 *
+	 * @param txId Session id
+	 * @param dbName Database name
+	 * @param datasetNames Dataset file names
+	 * @param headerLengths Length of the header of each dataset
+	 * @param dataLengths Length of a record of each dataset
+	 * @param positions Positions written by the session in every dataset
+	 * @param buffers Mapped buffer of the data region of each dataset beginning at lowRange
+	 * @param lowRange Position of the first record in the buffers
+	 * @throws Exception
+	 */
+	public void commit(long txId, String dbName, String[] datasetNames, int[] headerLengths, int[] dataLengths, int[] positions, ByteBuffer[] buffers, int lowRange) throws Exception {
+		ByteBuffer[] redo = new ByteBuffer[datasetNames.length];
+		int length = RECORD_HEADER_LENGTH;
+		for (int d = 0; d < datasetNames.length; d++) {
+			if (!new File(datasetNames[d]).getAbsoluteFile().getParent().equals(this._directory))
+				throw new Exception ("Dataset : " + datasetNames[d] + " is not in the directory of the log " + this._directory);
+
+			redo[d] = WriteAheadLog.createRecord(RECORD_REDO, txId, dbName, datasetNames[d], headerLengths[d], dataLengths[d], positions, 0);
+			ByteBuffer source = buffers[d].duplicate();
+			for (int i = 0; i < positions.length; i++) {
+				source.limit((positions[i] - lowRange + 1) * dataLengths[d]);
+				source.position((positions[i] - lowRange) * dataLengths[d]);
+				redo[d].put(source);
+			}
+			WriteAheadLog.seal(redo[d], 0);
+			redo[d].flip();
+			length += redo[d].remaining();
+		}
+
+		// the records are appended with the commit record, a torn write leaves the session uncommitted
+		ByteBuffer record = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		for (int d = 0; d < redo.length; d++)
+			record.put(redo[d]);
+
+		long lsn = this.commit(record, txId, null);
+		for (int d = 0; d < datasetNames.length; d++)
+			this.addDirty(datasetNames[d], buffers[d], lsn);
+	}
+
+	/**
+	 * Marks a dataset dirty with the buffer written by a committed session
+	 */
+	private synchronized void addDirty(String datasetName, ByteBuffer buffer, long lsn) {
+		String name = new File(datasetName).getAbsolutePath();
+		this._dirtyTable.put(name, lsn);
+
+		if (buffer instanceof MappedByteBuffer) {
+			ArrayList<MappedByteBuffer> buffers = this._dirtyBuffers.get(name);
+			if (buffers == null) {
+				buffers = new ArrayList<MappedByteBuffer>();
+				this._dirtyBuffers.put(name, buffers);
+			}
+			buffers.add((MappedByteBuffer) buffer);
+		}
+	}
+
+	/**
+	 * Appends the new values of the positions of a session that are held outside the dataset
+	 * followed by its commit record and syncs the log. The log is kept until the session is
+	 * released, recovery writes the values into the dataset.
+	 *
+	 * @param txId Session id
+	 * @param dbName Database name
+	 * @param datasetName Dataset file name
+	 * @param headerLength Length of the header of the dataset
+	 * @param dataLength Length of a record of the dataset
+	 * @param positions Positions written by the session
+	 * @param values New values of the positions, dataLength bytes per position
+	 * @return LSN of the commit
+	 * @throws Exception
+	 */
+	public long commit(long txId, String dbName, String datasetName, int headerLength, int dataLength, int[] positions, byte[] values) throws Exception {
+		ByteBuffer record = WriteAheadLog.createRecord(RECORD_REDO, txId, dbName, datasetName, headerLength, dataLength, positions, RECORD_HEADER_LENGTH);
+		record.put(values, 0, positions.length * dataLength);
+
+		return this.commit(record, txId, new File(datasetName).getAbsolutePath());
+	}
+
+	/**
+	 * Releases committed sessions of a dataset whose values held outside of it were written into it.
+	 *
+	 * @param datasetName Dataset file name
+	 * @param count Number of sessions written into the dataset
+	 */
+	public synchronized void release(String datasetName, int count) {
+		String name = new File(datasetName).getAbsolutePath();
+		Integer pinned = this._pinnedTable.get(name);
+		if (pinned == null)
+			return;
+		
+		if (pinned.intValue() <= count)
+			this._pinnedTable.remove(name);
+		else
+			this._pinnedTable.put(name, Integer.valueOf(pinned.intValue() - count));
+	}
+
+	/**
+	 * Appends a REDO record filled up to its end followed by the commit record of the session
+	 * in the same write and syncs the log. A pinned dataset is pinned before the session ends
+	 * so that the log is not truncated in between, a failed commit ends the session.
+	 */
+	private long commit(ByteBuffer record, long txId, String pinned) throws Exception {
+		WriteAheadLog.seal(record, 0);
+
+		int offset = record.position();
+		WriteAheadLog.putHeader(record, RECORD_COMMIT, txId, 0);
+		WriteAheadLog.seal(record, offset);
+		record.flip();
+
+		long lsn = 0;
+		boolean committed = false;
+		try {
+			lsn = this.append(record);
+			this.sync(lsn);
+			committed = true;
+		}
+		finally {
+			synchronized (this) {
+				if (committed) {
+					if (pinned != null) {
+						Integer count = this._pinnedTable.get(pinned);
+						this._pinnedTable.put(pinned, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+					}
+					this._commitCount++;
+				}
+				this.end(txId);
+			}
+		}
+
+		return lsn;
+	}
+
+	/**
+	 * Appends the abort record of a session and syncs the log. The restored values of the
+	 * positions of the session must be flushed before the session is aborted.
+	 *
+	 * @param txId Session id
+	 * @throws Exception
+	 */
+	public void abort(long txId) throws Exception {
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		WriteAheadLog.putHeader(record, RECORD_ABORT, txId, 0);
+		WriteAheadLog.seal(record, 0);
+		record.flip();
+		try {
+			this.sync(this.append(record));
+		}
+		finally {
+			this.end(txId);
+		}
+	}
+
+	/**
+	 * Creates a buffer for an UNDO or REDO record with room for the values of the positions, the
+	 * buffer is positioned at the first value
+	 */
+	private static ByteBuffer createRecord(byte type, long txId, String dbName, String datasetName, int headerLength, int dataLength, int[] positions, int extra) {
+		byte[] db = dbName.getBytes();
+		byte[] name = new File(datasetName).getAbsolutePath().getBytes();
+		int length = 2 + db.length + 2 + name.length + 12 + (positions.length * (4 + dataLength));
+
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + length + extra).order(ByteOrder.LITTLE_ENDIAN);
+		WriteAheadLog.putHeader(record, type, txId, length);
+		record.putShort((short) db.length);
+		record.put(db);
+		record.putShort((short) name.length);
+		record.put(name);
+		record.putInt(headerLength);
+		record.putInt(dataLength);
+		record.putInt(positions.length);
+		for (int i = 0; i < positions.length; i++)
+			record.putInt(positions[i]);
+
+		return record;
+	}
+
+	/**
+	 * Writes the header of a record at the position of the buffer, the CRC is written by seal
+	 */
+	private static void putHeader(ByteBuffer buffer, byte type, long txId, int length) {
+		buffer.putInt(RECORD_MAGIC);
+		buffer.putInt(length);
+		buffer.put(type);
+		buffer.putLong(txId);
+		buffer.putInt(0);
+	}
+
+	/**
+	 * Computes the CRC of the record beginning at an offset of the buffer
+	 */
+	private static void seal(ByteBuffer record, int offset) {
+		int length = record.getInt(offset + 4);
+		CRC32C crc = new CRC32C();
+		ByteBuffer b = record.duplicate();
+		b.limit(offset + 17);
+		b.position(offset + 8);
+		crc.update(b);
+		b.limit(offset + RECORD_HEADER_LENGTH + length);
+		b.position(offset + RECORD_HEADER_LENGTH);
+		crc.update(b);
+		record.putInt(offset + 17, (int) crc.getValue());
+	}
+
+	/**
+	 * Appends records to the log.
+	 *
+	 * @param records Records to append
+	 * @return LSN of the end of the records
+	 * @throws Exception
+	 */
+	private synchronized long append(ByteBuffer records) throws Exception {
+		long position = this._appendLsn;
+		while (records.hasRemaining())
+			position += this._channel.write(records, position);
+
+		this._appendLsn = position;
+		return position;
+	}
+
+	/**
+	 * Waits until the log is durable up to an LSN. The first session to find the log not synced
+	 * syncs everything appended so far, the sessions arriving during the sync wait for it and are
+	 * committed by the next sync if their records were appended after it started.
+	 *
+	 * @param lsn LSN to make durable
+	 * @throws Exception
+	 */
+	private void sync(long lsn) throws Exception {
+		long target = 0;
+		synchronized (this) {
+			while (this._durableLsn < lsn && this._syncing)
+				this.wait();
+
+			if (this._durableLsn >= lsn)
+				return;
+
+			this._syncing = true;
+			target = this._appendLsn;
+		}
+
+		boolean synced = false;
+		try {
+			this._channel.force(false);
+			synced = true;
+		}
+		finally {
+			synchronized (this) {
+				if (synced) {
+					this._durableLsn = target;
+					this._syncCount++;
+				}
+				this._syncing = false;
+				this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Flushes the datasets modified by committed sessions and truncates the log if no session is
+	 * active and all the modified datasets are flushed. The UNDO records appended so far are
+	 * synced before the datasets are flushed, the sessions released without ending are rolled back.
+	 *
+	 * @throws Exception
+	 */
+	public void flush() throws Exception {
+		// pages modified by the active sessions may be written with the pages of the dirty datasets
+		long lsn = 0;
+		synchronized (this) {
+			lsn = this._appendLsn;
+		}
+		this.sync(lsn);
+		this.rollbackReleased();
+
+		Hashtable<String, Long> dirty = null;
+		Hashtable<String, ArrayList<MappedByteBuffer>> dirtyBuffers = new Hashtable<String, ArrayList<MappedByteBuffer>>();
+		synchronized (this) {
+			dirty = new Hashtable<String, Long>(this._dirtyTable);
+			Enumeration<String> e = this._dirtyBuffers.keys();
+			while (e.hasMoreElements()) {
+				String datasetName = e.nextElement();
+				dirtyBuffers.put(datasetName, new ArrayList<MappedByteBuffer>(this._dirtyBuffers.get(datasetName)));
+			}
+		}
+
+		// the mapped buffers of the sessions are forced, forcing another handle of the file does not
+		// write the dirty pages of a mapped view on every platform
+		Hashtable<String, Long> flushed = new Hashtable<String, Long>();
+		Enumeration<String> e = dirty.keys();
+		while (e.hasMoreElements()) {
+			String datasetName = e.nextElement();
+			ArrayList<MappedByteBuffer> buffers = dirtyBuffers.get(datasetName);
+			try {
+				if (buffers != null && new File(datasetName).exists())
+					for (int i = 0; i < buffers.size(); i++)
+						buffers.get(i).force();
+				flushed.put(datasetName, dirty.get(datasetName));
+			}
+			catch (Exception ex) {
+				System.out.println("Unable to flush " + datasetName + " : " + ex.getMessage());
+			}
+		}
+
+		synchronized (this) {
+			e = flushed.keys();
+			while (e.hasMoreElements()) {
+				String datasetName = e.nextElement();
+
+				// buffers are compared on their identity, sessions that committed since are kept
+				ArrayList<MappedByteBuffer> forced = dirtyBuffers.get(datasetName);
+				ArrayList<MappedByteBuffer> buffers = this._dirtyBuffers.get(datasetName);
+				if (forced != null && buffers != null) {
+					for (int i = buffers.size() - 1; i >= 0; i--)
+						for (int j = 0; j < forced.size(); j++)
+							if (buffers.get(i) == forced.get(j)) {
+								buffers.remove(i);
+								break;
+							}
+					if (buffers.size() == 0)
+						this._dirtyBuffers.remove(datasetName);
+				}
+
+				if (flushed.get(datasetName).equals(this._dirtyTable.get(datasetName)) && !this._dirtyBuffers.containsKey(datasetName))
+					this._dirtyTable.remove(datasetName);
+			}
+
+			if (this._dirtyTable.size() == 0 && this._pinnedTable.size() == 0 && this._sessions.size() == 0 && !this._syncing && this._durableLsn == this._appendLsn && this._appendLsn > 0) {
+				this._channel.truncate(0);
+				this._channel.force(false);
+				this._appendLsn = 0;
+				this._durableLsn = 0;
+			}
+		}
+	}
+
+	/**
+	 * Rolls back the sessions whose owner was released without committing or aborting them. The
+	 * UNDO records of the sessions are written into their datasets in reverse log order and the
+	 * sessions are aborted. Their positions stay locked as the owner cannot release them.
+	 *
+	 * @return Number of sessions rolled back
+	 * @throws Exception
+	 */
+	private int rollbackReleased() throws Exception {
+		Hashtable<Long, Long> released = new Hashtable<Long, Long>();
+		long length = 0;
+		synchronized (this) {
+			Enumeration<Long> e = this._sessions.keys();
+			while (e.hasMoreElements()) {
+				Long txId = e.nextElement();
+				if (this._sessions.get(txId).get() == null)
+					released.put(txId, txId);
+			}
+			length = this._appendLsn;
+		}
+
+		if (released.size() == 0)
+			return 0;
+
+		// the records of a released session were appended before it was released
+		byte[] content = new byte[(int) length];
+		ByteBuffer b = ByteBuffer.wrap(content);
+		while (b.hasRemaining() && this._channel.read(b, b.position()) > 0)
+			;
+
+		ByteBuffer log = ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN);
+		ArrayList<Integer> records = new ArrayList<Integer>();
+		WriteAheadLog.read(log, records, new Hashtable<Long, Byte>());
+
+		Hashtable<String, RandomAccessFile> files = new Hashtable<String, RandomAccessFile>();
+		Hashtable<String, String> dbNames = new Hashtable<String, String>();
+		int count = 0;
+		try {
+			for (int i = records.size() - 1; i >= 0; i--) {
+				int offset = records.get(i).intValue();
+				if (content[offset + 8] == RECORD_UNDO && released.containsKey(Long.valueOf(log.getLong(offset + 9))))
+					count += WriteAheadLog.apply(log, offset + RECORD_HEADER_LENGTH, files, dbNames);
+			}
+		}
+		finally {
+			WriteAheadLog.close(files, dbNames);
+		}
+
+		// the restored values are flushed before the sessions are aborted
+		Enumeration<Long> e = released.keys();
+		while (e.hasMoreElements())
+			this.abort(e.nextElement().longValue());
+
+		System.out.println("Rolled back " + released.size() + " sessions released without a commit or rollback in " + this._logName +
+				", records applied : " + count);
+		return released.size();
+	}
+
+	/**
+	 * Recovers the directory of a dataset before the dataset is read if its log was left behind by
+	 * a failed process.
+	 *
+	 * @param datasetName Dataset file name
+	 * @return Number of UNDO and REDO records applied
+	 * @throws Exception
+	 */
+	public static int recoverDataset(String datasetName) throws Exception {
+		String directory = new File(datasetName).getAbsoluteFile().getParent();
+		if (directory == null || LOGS.containsKey(directory) || RECOVERED.containsKey(directory))
+			return 0;
+
+		// a directory without a log is checked again by the next read
+		if (new File(directory, LOG_FILE_NAME).length() == 0)
+			return 0;
+
+		return WriteAheadLog.recover(directory);
+	}
+
+	/**
+	 * Recovers the datasets of a directory from its log. A directory is recovered once per
+	 * process and never while its log is open.
+	 *
+	 * @param directory Directory of the datasets
+	 * @return Number of UNDO and REDO records applied
+	 * @throws Exception
+	 */
+	public static int recover(String directory) throws Exception {
+		directory = new File(directory).getAbsolutePath();
+		synchronized (LOGS) {
+			if (LOGS.containsKey(directory) || RECOVERED.containsKey(directory))
+				return 0;
+
+			int count = WriteAheadLog.recover(new File(directory, LOG_FILE_NAME));
+			RECOVERED.put(directory, directory);
+			return count;
+		}
+	}
+
+	private static int recover(File logFile) throws Exception {
+		if (!logFile.exists() || logFile.length() == 0)
+			return 0;
+
+		byte[] content = new byte[(int) logFile.length()];
+		RandomAccessFile raf = new RandomAccessFile(logFile, "r");
+		try {
+			raf.readFully(content);
+		}
+		finally {
+			raf.close();
+		}
+
+		ByteBuffer log = ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN);
+		ArrayList<Integer> records = new ArrayList<Integer>();
+		Hashtable<Long, Byte> outcomes = new Hashtable<Long, Byte>();
+		WriteAheadLog.read(log, records, outcomes);
+		int offset = 0;
+
+		Hashtable<String, RandomAccessFile> files = new Hashtable<String, RandomAccessFile>();
+		Hashtable<String, String> dbNames = new Hashtable<String, String>();
+		int count = 0;
+		try {
+			// redo the committed sessions in log order
+			for (int i = 0; i < records.size(); i++) {
+				offset = records.get(i).intValue();
+				Byte outcome = outcomes.get(Long.valueOf(log.getLong(offset + 9)));
+				if (content[offset + 8] == RECORD_REDO && outcome != null && outcome.byteValue() == RECORD_COMMIT)
+					count += WriteAheadLog.apply(log, offset + RECORD_HEADER_LENGTH, files, dbNames);
+			}
+
+			// undo the sessions that did not end in reverse log order, aborted sessions flushed
+			// their restored values before logging the abort
+			for (int i = records.size() - 1; i >= 0; i--) {
+				offset = records.get(i).intValue();
+				if (content[offset + 8] == RECORD_UNDO && !outcomes.containsKey(Long.valueOf(log.getLong(offset + 9))))
+					count += WriteAheadLog.apply(log, offset + RECORD_HEADER_LENGTH, files, dbNames);
+			}
+		}
+		finally {
+			WriteAheadLog.close(files, dbNames);
+		}
+
+		raf = new RandomAccessFile(logFile, "rw");
+		try {
+			raf.setLength(0);
+			raf.getChannel().force(false);
+		}
+		finally {
+			raf.close();
+		}
+
+		System.out.println("Recovered " + logFile.getPath() + ", records applied : " + count + ", datasets : " + files.size());
+		return count;
+	}
+
+	/**
+	 * Reads the records of a log up to its end or to the first torn record, the UNDO and REDO
+	 * records are returned as their offsets in log order and the outcomes of the sessions keyed
+	 * on the session id
+	 */
+	private static void read(ByteBuffer log, ArrayList<Integer> records, Hashtable<Long, Byte> outcomes) {
+		byte[] content = log.array();
+		CRC32C crc = new CRC32C();
+		int offset = 0;
+		while (content.length - offset >= RECORD_HEADER_LENGTH) {
+			int length = log.getInt(offset + 4);
+			if (log.getInt(offset) != RECORD_MAGIC || length < 0 || length > content.length - offset - RECORD_HEADER_LENGTH)
+				break;
+
+			crc.reset();
+			crc.update(content, offset + 8, 9);
+			crc.update(content, offset + RECORD_HEADER_LENGTH, length);
+			if ((int) crc.getValue() != log.getInt(offset + 17))
+				break;
+
+			byte type = content[offset + 8];
+			if (type == RECORD_COMMIT || type == RECORD_ABORT)
+				outcomes.put(Long.valueOf(log.getLong(offset + 9)), Byte.valueOf(type));
+			else
+				records.add(Integer.valueOf(offset));
+
+			offset += RECORD_HEADER_LENGTH + length;
+		}
+	}
+
+	/**
+	 * Flushes and closes the datasets written from a log, rewrites their header time stamp and
+	 * deletes the sidecars derived from their data
+	 */
+	private static void close(Hashtable<String, RandomAccessFile> files, Hashtable<String, String> dbNames) throws Exception {
+		Enumeration<String> e = files.keys();
+		while (e.hasMoreElements()) {
+			String datasetName = e.nextElement();
+			RandomAccessFile f = files.get(datasetName);
+			long lastModified = System.currentTimeMillis();
+			try {
+				f.getChannel().force(false);
+				CheckSum.writeTimestamp(f.getChannel(), lastModified);
+			}
+			finally {
+				f.close();
+			}
+			new File(datasetName).setLastModified(lastModified);
+
+			// sidecars derived from the data are rebuilt by their readers
+			BlockCheckSum.delete(datasetName);
+			FactNullBitmap.delete(datasetName);
+			FactTrigramIndex.delete(datasetName);
+			SortedRuns.delete(datasetName);
+			DatasetCatalog.remove(dbNames.get(datasetName), datasetName);
+		}
+	}
+
+	/**
+	 * Writes the values of an UNDO or REDO record into its dataset
+	 */
+	private static int apply(ByteBuffer log, int offset, Hashtable<String, RandomAccessFile> files, Hashtable<String, String> dbNames) throws Exception {
+		int length = log.getShort(offset);
+		String dbName = new String(log.array(), offset + 2, length);
+		offset += 2 + length;
+		length = log.getShort(offset);
+		String datasetName = new String(log.array(), offset + 2, length);
+		offset += 2 + length;
+		int headerLength = log.getInt(offset);
+		int dataLength = log.getInt(offset + 4);
+		int count = log.getInt(offset + 8);
+		offset += 12;
+
+		RandomAccessFile f = files.get(datasetName);
+		if (f == null) {
+			if (!new File(datasetName).exists())
+				return 0;
+
+			f = new RandomAccessFile(datasetName, "rw");
+			files.put(datasetName, f);
+			dbNames.put(datasetName, dbName);
+		}
+
+		FileChannel channel = f.getChannel();
+		int values = offset + (count * 4);
+		for (int i = 0; i < count; i++) {
+			ByteBuffer value = ByteBuffer.wrap(log.array(), values + (i * dataLength), dataLength);
+			long position = headerLength + ((long) log.getInt(offset + (i * 4)) * dataLength);
+			while (value.hasRemaining())
+				position += channel.write(value, position);
+		}
+
+		return 1;
+	}
+
+	public static void main(String[] args) throws Exception {
+		// recover the datasets of a directory left behind by a failed process
+		String directory = "c:\\users\\dpras\\tempdata\\testdata";
+		long beginTime = System.nanoTime();
+		int count = WriteAheadLog.recover(directory);
+		System.out.println("Records applied : " + count + ", recovery time : " + (System.nanoTime() - beginTime)/1000000 + " Milliseconds");
+	}
+
+	/**
+	 * Background thread flushing the datasets of a log
+	 */
+	private static final class Flusher implements Runnable {
+		private WriteAheadLog _log;
+
+		private Flusher(WriteAheadLog log) {
+			this._log = log;
+		}
+
+		public void run() {
+			while (true) {
+				try {
+					Thread.sleep(FLUSH_INTERVAL_MILLIS);
+					this._log.flush();
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				catch (Exception e) {
+					System.out.println("WriteAheadLog flush failed : " + e.getMessage());
+				}
+			}
+		}
+	}
+}
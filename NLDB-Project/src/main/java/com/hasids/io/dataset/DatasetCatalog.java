@@ -0,0 +1,311 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * In memory catalog of databases and the dataset segments belonging to them. Each entry holds
+ * the header metadata of a segment (file type, encoding, segment number, data length,
+ * decimals, header length, record count and last commit time) so that readers can be
+ * constructed without checking the file and parsing the header on every query.
+ *
+ * The catalog is loaded from a persisted manifest at startup using load() and is kept current
+ * by the writers, which refresh the entry of a segment on every commit. Segments that are not
+ * in the catalog are validated and added on first use. Processes that modify files outside of
+ * the writers must call refresh() or remove() for the affected segment.
+ */
+
+package com.hasids.io.dataset;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import com.hasids.io.WriteAheadLog;
+
+public class DatasetCatalog {
+
+	// manifest field separator
+	public static final String MANIFEST_SEPARATOR = "\t";
+	public static final int MANIFEST_FIELD_COUNT = 10;
+
+	// database name -> segment file name -> segment
+	private static Hashtable<String, Hashtable<String, DatasetSegment>> CATALOG = new Hashtable<String, Hashtable<String, DatasetSegment>>();
+
+	public DatasetCatalog() {
+		// TODO Auto-generated constructor stub
+	}
+
+	/**
+	 * Returns the catalog entries of a database, creating an empty table if required
+	 *
+	 * @param dbName
+	 * @return segment table of the database
+	 */
+	private static Hashtable<String, DatasetSegment> getSegmentTable(String dbName) {
+		synchronized (CATALOG) {
+			Hashtable<String, DatasetSegment> h = CATALOG.get(dbName);
+			if (h == null) {
+				h = new Hashtable<String, DatasetSegment>();
+				CATALOG.put(dbName, h);
+			}
+			return h;
+		}
+	}
+
+	/**
+	 * Returns the catalog entry for a segment file, validating the file and adding it
+	 * to the catalog if it is not yet cataloged
+	 *
+	 * @param dbName Database name
+	 * @param fileName Segment file name
+	 * @return catalog entry
+	 * @throws Exception
+	 */
+	public static DatasetSegment getSegment(String dbName, String fileName) throws Exception {
+		if (dbName == null || dbName.trim().length() <= 0)
+			throw new Exception ("Invalid dbName!");
+
+		if (fileName == null || fileName.trim().length() <= 0)
+			throw new Exception ("Invalid segment file name!");
+
+		DatasetSegment segment = DatasetCatalog.getSegmentTable(dbName).get(fileName);
+		if (segment == null)
+			segment = DatasetCatalog.refresh(dbName, fileName);
+
+		return segment;
+	}
+
+	/**
+	 * Re-reads the header of a segment file and replaces its catalog entry
+	 *
+	 * @param dbName Database name
+	 * @param fileName Segment file name
+	 * @return catalog entry
+	 * @throws Exception
+	 */
+	public static DatasetSegment refresh(String dbName, String fileName) throws Exception {
+		DatasetSegment segment = new DatasetSegment(dbName, fileName);
+		DatasetCatalog.getSegmentTable(dbName).put(fileName, segment);
+
+		return segment;
+	}
+
+	/**
+	 * Replaces the catalog entry of a segment with the values known to a writer at commit
+	 *
+	 * @param segment Segment entry
+	 */
+	public static void refresh(DatasetSegment segment) {
+		DatasetCatalog.getSegmentTable(segment.getDbName()).put(segment.getFileName(), segment);
+	}
+
+	/**
+	 * Removes a segment file from the catalog
+	 *
+	 * @param dbName Database name
+	 * @param fileName Segment file name
+	 */
+	public static void remove(String dbName, String fileName) {
+		Hashtable<String, DatasetSegment> h = CATALOG.get(dbName);
+		if (h != null)
+			h.remove(fileName);
+	}
+
+	/**
+	 * Removes all the entries from the catalog
+	 */
+	public static void clear() {
+		CATALOG.clear();
+	}
+
+	/**
+	 * Returns the names of all the cataloged databases
+	 *
+	 * @return database names
+	 */
+	public static String[] getDatabases() {
+		synchronized (CATALOG) {
+			return CATALOG.keySet().toArray(new String[CATALOG.size()]);
+		}
+	}
+
+	/**
+	 * Returns all the cataloged segments of a database
+	 *
+	 * @param dbName Database name
+	 * @return segments
+	 */
+	public static DatasetSegment[] getSegments(String dbName) {
+		Hashtable<String, DatasetSegment> h = CATALOG.get(dbName);
+		if (h == null)
+			return new DatasetSegment[0];
+
+		synchronized (h) {
+			return h.values().toArray(new DatasetSegment[h.size()]);
+		}
+	}
+
+	/**
+	 * Returns the logical dataset for a dataset name built from the cataloged segments.
+	 * Segments are resolved from the file system on first use only.
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Logical dataset name
+	 * @return Segmented dataset
+	 * @throws Exception
+	 */
+	public static SegmentedDataset getDataset(String dbName, String datasetName) throws Exception {
+		if (datasetName == null || datasetName.trim().length() <= 0)
+			throw new Exception ("Invalid datasetName!");
+
+		ArrayList<DatasetSegment> segments = new ArrayList<DatasetSegment>();
+		String prefix = datasetName + SegmentedDataset.SEGMENT_SUFFIX;
+
+		DatasetSegment[] cataloged = DatasetCatalog.getSegments(dbName);
+		for (int i = 0; i < cataloged.length; i++) {
+			String fileName = cataloged[i].getFileName();
+			if (fileName.equals(datasetName) || fileName.startsWith(prefix))
+				segments.add(cataloged[i]);
+		}
+
+		if (segments.size() <= 0) {
+			String[] fileNames = SegmentedDataset.getSegmentFileNames(datasetName);
+			for (int i = 0; i < fileNames.length; i++)
+				segments.add(DatasetCatalog.getSegment(dbName, fileNames[i]));
+		}
+
+		return new SegmentedDataset(dbName, datasetName, segments);
+	}
+
+	/**
+	 * Loads the catalog from a manifest. Entries whose files no longer exist or whose
+	 * timestamps do not match the file are re-read from the file header. The write ahead
+	 * logs of the directories of the segments are recovered first.
+	 *
+	 * @param manifestName Manifest file name
+	 * @return number of entries loaded
+	 * @throws Exception
+	 */
+	public static int load(String manifestName) throws Exception {
+		File f = new File(manifestName);
+		if (!f.exists())
+			return 0;
+
+		int count = 0;
+		BufferedReader br = new BufferedReader(new FileReader(f));
+		try {
+			String line = null;
+			while ((line = br.readLine()) != null) {
+				if (line.trim().length() == 0 || line.startsWith("#"))
+					continue;
+
+				String[] fields = line.split(MANIFEST_SEPARATOR);
+				if (fields.length != MANIFEST_FIELD_COUNT)
+					throw new Exception ("Invalid manifest entry : " + line);
+
+				String dbName = fields[0];
+				String fileName = fields[1];
+				long lastModified = Long.parseLong(fields[9]);
+
+				File segmentFile = new File(fileName);
+				if (!segmentFile.exists())
+					continue;
+
+				// sessions left in the write ahead log of the directory are recovered before the time stamp is compared
+				WriteAheadLog.recover(segmentFile.getAbsoluteFile().getParent());
+				
+				if (segmentFile.lastModified() != lastModified) {
+					DatasetCatalog.refresh(dbName, fileName);
+				}
+				else {
+					DatasetCatalog.refresh(new DatasetSegment(dbName, fileName,
+							Integer.parseInt(fields[2]), Integer.parseInt(fields[3]), Integer.parseInt(fields[4]),
+							Integer.parseInt(fields[5]), Short.parseShort(fields[6]), Integer.parseInt(fields[7]),
+							Integer.parseInt(fields[8]), lastModified));
+				}
+				++count;
+			}
+		}
+		finally {
+			br.close();
+		}
+
+		return count;
+	}
+
+	/**
+	 * Persists the catalog to a manifest. The manifest is written to a temporary file
+	 * which then replaces the existing manifest.
+	 *
+	 * @param manifestName Manifest file name
+	 * @throws Exception
+	 */
+	public static void save(String manifestName) throws Exception {
+		File f = new File(manifestName);
+		File temp = new File(manifestName + ".tmp");
+
+		BufferedWriter bw = new BufferedWriter(new FileWriter(temp));
+		try {
+			bw.write("# dbName, fileName, fileType, encoding, segmentNo, dataLength, decimals, headerLength, recordCount, lastModified");
+			bw.newLine();
+
+			String[] databases = DatasetCatalog.getDatabases();
+			for (int i = 0; i < databases.length; i++) {
+				Hashtable<String, DatasetSegment> h = CATALOG.get(databases[i]);
+				if (h == null)
+					continue;
+
+				Enumeration<DatasetSegment> e = h.elements();
+				while (e.hasMoreElements()) {
+					DatasetSegment s = e.nextElement();
+					bw.write(s.getDbName() + MANIFEST_SEPARATOR + s.getFileName() + MANIFEST_SEPARATOR +
+							s.getFileType() + MANIFEST_SEPARATOR + s.getEncoding() + MANIFEST_SEPARATOR +
+							s.getSegmentNo() + MANIFEST_SEPARATOR + s.getDataLength() + MANIFEST_SEPARATOR +
+							s.getDecimals() + MANIFEST_SEPARATOR + s.getHeaderLength() + MANIFEST_SEPARATOR +
+							s.getRecordCount() + MANIFEST_SEPARATOR + s.getLastModified());
+					bw.newLine();
+				}
+			}
+		}
+		finally {
+			bw.close();
+		}
+
+		if (f.exists() && !f.delete())
+			throw new Exception ("Unable to replace manifest " + manifestName);
+
+		if (!temp.renameTo(f))
+			throw new Exception ("Unable to replace manifest " + manifestName);
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		String manifestName = "c:\\users\\dpras\\tempdata\\testdata\\catalog.mf";
+
+		try {
+			System.out.println("Loaded catalog entries : " + DatasetCatalog.load(manifestName));
+
+			String[] databases = DatasetCatalog.getDatabases();
+			for (int i = 0; i < databases.length; i++) {
+				DatasetSegment[] segments = DatasetCatalog.getSegments(databases[i]);
+				for (int j = 0; j < segments.length; j++)
+					System.out.println(segments[j]);
+			}
+
+			DatasetCatalog.save(manifestName);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
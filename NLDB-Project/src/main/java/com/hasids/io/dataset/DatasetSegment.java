@@ -0,0 +1,181 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * This class describes a single physical segment file belonging to a logical dataset. The
+ * segment number is taken from the segment number field of the CheckSum header and is used
+ * to derive the 64 bit record ids exposed by the SegmentedDataset.
+ */
+
+package com.hasids.io.dataset;
+
+import java.io.File;
+
+import com.hasids.datastructures.CheckSum;
+
+public class DatasetSegment implements Comparable<DatasetSegment> {
+
+	private String _dbName;
+	private String _fileName;
+	private int _fileType;
+	private int _encoding;
+	private int _segmentNo;
+	private int _dataLength;
+	private short _decimals;
+	private int _headerLength;
+	private int _recordCount;
+	private long _lastModified;
+
+	/**
+	 * Constructor that reads and validates the header of an existing segment file
+	 *
+	 * @param dbName Database name
+	 * @param fileName Physical file name of the segment
+	 * @throws Exception
+	 */
+	public DatasetSegment(String dbName, String fileName) throws Exception {
+		if (dbName == null || dbName.trim().length() <= 0)
+			throw new Exception ("Invalid dbName!");
+
+		if (fileName == null || fileName.trim().length() <= 0)
+			throw new Exception ("Invalid segment file name!");
+
+		File f = new File(fileName);
+		if (!f.exists())
+			throw new Exception ("File " + fileName + " does not exist!");
+
+		int[] fileType = new int[1];
+		int[] encoding = new int[1];
+		int[] segmentNo = new int[1];
+		int[] datasize = new int[1];
+		short[] decimals = new short[1];
+		int[] headerLength = new int[1];
+
+		CheckSum.validateFile(dbName, fileName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
+
+		if (fileType[0] == CheckSum.FILE_TYPE_UNI)
+			throw new Exception ("Unary files cannot be used as dataset segments!");
+
+		if (datasize[0] <= 0)
+			throw new Exception ("Invalid data length in header of " + fileName);
+
+		if (segmentNo[0] < 0)
+			throw new Exception ("Invalid segment number in header of " + fileName);
+
+		this._dbName = dbName;
+		this._fileName = fileName;
+		this._fileType = fileType[0];
+		this._encoding = encoding[0];
+		this._segmentNo = segmentNo[0];
+		this._dataLength = datasize[0];
+		this._decimals = decimals[0];
+		this._headerLength = headerLength[0];
+		if (CheckSum.isCompressedEncoding(fileType[0], encoding[0]) || CheckSum.isSparseEncoding(fileType[0], encoding[0]))
+			this._recordCount = (int)CheckSum.getRecordCount(fileName, datasize[0]);
+		else
+			this._recordCount = (int)((f.length() - headerLength[0])/datasize[0]);
+		this._lastModified = f.lastModified();
+	}
+
+	/**
+	 * Constructor for segments whose header values are already known to the caller
+	 *
+	 * @param dbName
+	 * @param fileName
+	 * @param fileType
+	 * @param encoding
+	 * @param segmentNo
+	 * @param dataLength
+	 * @param decimals
+	 * @param headerLength
+	 * @param recordCount
+	 * @param lastModified
+	 * @throws Exception
+	 */
+	public DatasetSegment(String dbName, String fileName, int fileType, int encoding, int segmentNo,
+			int dataLength, short decimals, int headerLength, int recordCount, long lastModified) throws Exception {
+
+		if (segmentNo < 0)
+			throw new Exception ("Segment number must be >= 0");
+
+		if (dataLength <= 0)
+			throw new Exception ("Data length must be > 0");
+
+		if (headerLength != CheckSum.FILE_CHECKSUM_LENGTH && headerLength != CheckSum.FILE_V2_HEADER_LENGTH)
+			throw new Exception ("Invalid header length " + headerLength);
+
+		if (recordCount < 0)
+			throw new Exception ("Record count must be >= 0");
+
+		this._dbName = dbName;
+		this._fileName = fileName;
+		this._fileType = fileType;
+		this._encoding = encoding;
+		this._segmentNo = segmentNo;
+		this._dataLength = dataLength;
+		this._decimals = decimals;
+		this._headerLength = headerLength;
+		this._recordCount = recordCount;
+		this._lastModified = lastModified;
+	}
+
+	public String getDbName() {
+		return this._dbName;
+	}
+
+	public String getFileName() {
+		return this._fileName;
+	}
+
+	public int getFileType() {
+		return this._fileType;
+	}
+
+	public int getEncoding() {
+		return this._encoding;
+	}
+
+	public int getSegmentNo() {
+		return this._segmentNo;
+	}
+
+	public int getDataLength() {
+		return this._dataLength;
+	}
+
+	public short getDecimals() {
+		return this._decimals;
+	}
+
+	public int getHeaderLength() {
+		return this._headerLength;
+	}
+
+	public int getRecordCount() {
+		return this._recordCount;
+	}
+
+	public long getLastModified() {
+		return this._lastModified;
+	}
+
+	/**
+	 * Returns the 64 bit record id of the first record in this segment
+	 *
+	 * @return first record id
+	 */
+	public long getBaseRecordId() {
+		return SegmentedDataset.getRecordId(this._segmentNo, 0);
+	}
+
+	public int compareTo(DatasetSegment o) {
+		return Integer.compare(this._segmentNo, o._segmentNo);
+	}
+
+	public String toString() {
+		return this.getClass().getName() + "//Database Name : " + this._dbName + ", File Name : " + this._fileName +
+				", Segment No : " + this._segmentNo + ", Encoding : " + this._encoding + ", Record count : " + this._recordCount;
+	}
+}
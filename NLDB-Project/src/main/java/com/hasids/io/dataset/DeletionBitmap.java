@@ -0,0 +1,614 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Deletion bitmap of a dimension or fact segment, kept in a file next to the segment named
+ * <segment file>.deleted. DataWriter and DimDataWriter delete records by adding their positions
+ * to the bitmap instead of writing the null values of the records through the locks of the
+ * positions. The readers remove the deleted positions from the result of a read with a single
+ * ANDNOT of the bitmap over the range read, and the aggregates skip them. A commit writing a
+ * deleted position again removes it from the bitmap.
+ *
+ * The bitmap file is replaced as a whole on every change, written to a temporary file, forced
+ * and renamed, so that it is always either the old or the new bitmap. compact() writes the null
+ * values of the deleted records of fixed length segments into the segment, logged in the write
+ * ahead log of the directory, and removes them from the bitmap; SegmentCompactor runs it in the
+ * background.
+ *
+ * Bitmap file (LITTLE ENDIAN):
+ * position 0 - 3 = magic
+ * position 4 - 7 = version
+ * position 8 - 15 = number of deleted positions
+ * position 16 - 19 = length in bytes of the bitmap
+ * position 20 - 31 = reserved
+ * position 32 onwards = 0 based deleted positions as a Roaring bitmap in the portable format
+ */
+
+package com.hasids.io.dataset;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
+import com.hasids.HASIDSConstants;
+import com.hasids.datastructures.BlockCheckSum;
+import com.hasids.datastructures.CheckSum;
+import com.hasids.datastructures.SortedRuns;
+import com.hasids.io.DatasetVersions;
+import com.hasids.io.PositionLockManager;
+import com.hasids.io.WriteAheadLog;
+import com.hasids.io.dim.DimDeltaStore;
+import com.hasids.io.fact.FactNullBitmap;
+import com.hasids.io.fact.FactTrigramIndex;
+
+public final class DeletionBitmap {
+
+	public static final String BITMAP_EXTENSION = ".deleted";
+	public static final int BITMAP_MAGIC = 0x48534442; // HSDB
+	public static final int BITMAP_VERSION = 1;
+	public static final int BITMAP_HEADER_LENGTH = 32;
+
+	private static Hashtable<String, SoftReference<DeletionBitmap>> CACHE = new Hashtable<String, SoftReference<DeletionBitmap>>();
+	private static Hashtable<String, Object> UPDATE_TABLE = new Hashtable<String, Object>();
+
+	private ImmutableRoaringBitmap _deleted;
+	private long _lastModified;
+	private long _fileLength;
+
+	private DeletionBitmap() {
+	}
+
+	/**
+	 * @param datasetName Segment file name
+	 * @return name of the bitmap file of the segment
+	 */
+	public static String getBitmapName(String datasetName) {
+		return datasetName + BITMAP_EXTENSION;
+	}
+
+	public static boolean exists(String datasetName) {
+		return new File(DeletionBitmap.getBitmapName(datasetName)).exists();
+	}
+
+	/**
+	 * Deletes the bitmap file of a segment, the records deleted are live again
+	 *
+	 * @param datasetName Segment file name
+	 */
+	public static void delete(String datasetName) {
+		String bitmapName = DeletionBitmap.getBitmapName(datasetName);
+		synchronized (DeletionBitmap.getMonitor(datasetName)) {
+			CACHE.remove(bitmapName);
+			new File(bitmapName).delete();
+		}
+	}
+
+	/**
+	 * Returns the deleted positions of a segment from the cache, loading them if they are not
+	 * cached or if the file has been replaced since they were cached. The bitmap returned is
+	 * never changed, a change replaces it.
+	 *
+	 * @param datasetName Segment file name
+	 * @return 0 based deleted positions, null if the segment has no deleted position
+	 * @throws Exception
+	 */
+	public static ImmutableRoaringBitmap getDeleted(String datasetName) throws Exception {
+		String bitmapName = DeletionBitmap.getBitmapName(datasetName);
+		File f = new File(bitmapName);
+		if (!f.exists())
+			return null;
+
+		SoftReference<DeletionBitmap> ref = CACHE.get(bitmapName);
+		DeletionBitmap bitmap = (ref == null ? null : ref.get());
+		if (bitmap == null || bitmap._lastModified != f.lastModified() || bitmap._fileLength != f.length()) {
+			synchronized (DeletionBitmap.getMonitor(datasetName)) {
+				if (!f.exists())
+					return null;
+
+				bitmap = DeletionBitmap.load(bitmapName);
+				CACHE.put(bitmapName, new SoftReference<DeletionBitmap>(bitmap));
+			}
+		}
+
+		return (bitmap._deleted.isEmpty() ? null : bitmap._deleted);
+	}
+
+	private static DeletionBitmap load(String bitmapName) throws Exception {
+		DeletionBitmap bitmap = new DeletionBitmap();
+		bitmap._lastModified = new File(bitmapName).lastModified();
+
+		ByteBuffer buffer = null;
+		RandomAccessFile raf = new RandomAccessFile(bitmapName, "r");
+		FileChannel fc = raf.getChannel();
+		try {
+			if (fc.size() < BITMAP_HEADER_LENGTH || fc.size() > Integer.MAX_VALUE)
+				throw new Exception ("Invalid bitmap length in " + bitmapName);
+
+			buffer = ByteBuffer.allocate((int)fc.size()).order(ByteOrder.LITTLE_ENDIAN);
+			while (buffer.hasRemaining())
+				if (fc.read(buffer, buffer.position()) < 0)
+					throw new Exception ("Unexpected end of file in " + bitmapName);
+			buffer.flip();
+			bitmap._fileLength = fc.size();
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		int length = buffer.getInt(16);
+		if (buffer.getInt(0) != BITMAP_MAGIC || length < 0 || BITMAP_HEADER_LENGTH + length != buffer.capacity())
+			throw new Exception ("Invalid bitmap " + bitmapName);
+
+		ByteBuffer bits = buffer.duplicate();
+		bits.position(BITMAP_HEADER_LENGTH);
+		bitmap._deleted = new ImmutableRoaringBitmap(bits.slice());
+
+		if (bitmap._deleted.getLongCardinality() != buffer.getLong(8))
+			throw new Exception ("Invalid bitmap " + bitmapName);
+
+		return bitmap;
+	}
+
+	/**
+	 * Writes the bitmap file, replacing the existing one
+	 */
+	private static void write(String datasetName, MutableRoaringBitmap deleted) throws Exception {
+		String bitmapName = DeletionBitmap.getBitmapName(datasetName);
+		File f = new File(bitmapName);
+		File temp = new File(bitmapName + ".tmp");
+
+		deleted.runOptimize();
+		int length = deleted.serializedSizeInBytes();
+		final ByteBuffer buffer = ByteBuffer.allocate(BITMAP_HEADER_LENGTH + length).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(0, BITMAP_MAGIC);
+		buffer.putInt(4, BITMAP_VERSION);
+		buffer.putLong(8, deleted.getLongCardinality());
+		buffer.putInt(16, length);
+		buffer.position(BITMAP_HEADER_LENGTH);
+		deleted.serialize(new DataOutputStream(new OutputStream() {
+			public void write(int b) {
+				buffer.put((byte)b);
+			}
+		}));
+		buffer.flip();
+
+		RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		FileChannel fc = raf.getChannel();
+		try {
+			raf.setLength(0);
+			long position = 0;
+			while (buffer.hasRemaining())
+				position += fc.write(buffer, position);
+			fc.force(true);
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		if (f.exists() && !f.delete())
+			throw new Exception ("Unable to replace bitmap " + bitmapName);
+
+		if (!temp.renameTo(f))
+			throw new Exception ("Unable to replace bitmap " + bitmapName);
+
+		CACHE.remove(bitmapName);
+	}
+
+	/**
+	 * Deletes records of a segment by adding their positions to the bitmap of the segment.
+	 * Positions locked by an ONLINE session are not deleted and are returned to the caller,
+	 * positions that are already deleted stay deleted.
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @param positions 0 based positions to delete
+	 * @param recordCount Record count of the segment
+	 * @param allowPartial false to delete no position if one of them is locked
+	 * @return positions not deleted because they are locked
+	 * @throws Exception
+	 */
+	public static int[] add(String dbName, String datasetName, int[] positions, int recordCount, boolean allowPartial) throws Exception {
+		return DeletionBitmap.add(dbName, datasetName, positions, recordCount, allowPartial, false);
+	}
+
+	/**
+	 * Deletes records of a segment by adding their positions to the bitmap of the segment.
+	 * With retryFlag the positions locked by an ONLINE session are checked again every
+	 * RETRY_INCREMENT_MILLIS until they are released or RETRY_LIMIT_MILLIS passed.
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @param positions 0 based positions to delete
+	 * @param recordCount Record count of the segment
+	 * @param allowPartial false to delete no position if one of them is locked
+	 * @param retryFlag true to wait for the locked positions to be released
+	 * @return positions not deleted because they are locked
+	 * @throws Exception
+	 */
+	public static int[] add(String dbName, String datasetName, int[] positions, int recordCount, boolean allowPartial,
+			boolean retryFlag) throws Exception {
+		for (int i = 0; i < positions.length; i++)
+			if (positions[i] < 0 || positions[i] >= recordCount)
+				throw new Exception ("Position " + positions[i] + " out of range");
+
+		// positions being written by a session are not deleted, they are returned to the caller
+		PositionLockManager lockManager = PositionLockManager.getLockManager(dbName + "|" + datasetName);
+		int[] locked = new int[0];
+		if (lockManager != null && lockManager.getLockedCount() > 0) {
+			int count = 0;
+			locked = new int[positions.length];
+			for (int i = 0; i < positions.length; i++)
+				if (lockManager.isLocked(positions[i]))
+					locked[count++] = positions[i];
+			locked = Arrays.copyOf(locked, count);
+
+			long endTime = System.currentTimeMillis() + HASIDSConstants.RETRY_LIMIT_MILLIS;
+			while (retryFlag && locked.length > 0 && System.currentTimeMillis() < endTime) {
+				Thread.sleep(HASIDSConstants.RETRY_INCREMENT_MILLIS);
+
+				count = 0;
+				for (int i = 0; i < locked.length; i++)
+					if (lockManager.isLocked(locked[i]))
+						locked[count++] = locked[i];
+				locked = Arrays.copyOf(locked, count);
+			}
+
+			if (locked.length > 0 && !allowPartial)
+				throw new Exception ("Positions to delete are locked by another session!");
+		}
+
+		synchronized (DeletionBitmap.getMonitor(datasetName)) {
+			ImmutableRoaringBitmap current = DeletionBitmap.getDeleted(datasetName);
+			MutableRoaringBitmap deleted = (current == null ? new MutableRoaringBitmap() : current.toMutableRoaringBitmap());
+
+			// positions deleted before they were locked stay deleted
+			int[] skipped = locked.clone();
+			Arrays.sort(skipped);
+			int count = deleted.getCardinality();
+			for (int i = 0; i < positions.length; i++)
+				if (Arrays.binarySearch(skipped, positions[i]) < 0)
+					deleted.add(positions[i]);
+
+			if (deleted.getCardinality() != count)
+				DeletionBitmap.write(datasetName, deleted);
+		}
+
+		return locked;
+	}
+
+	/**
+	 * Removes positions written again from the bitmap of a segment, if it has one
+	 *
+	 * @param datasetName Segment file name
+	 * @param positions 0 based positions
+	 * @throws Exception
+	 */
+	public static void remove(String datasetName, int[] positions) throws Exception {
+		if (positions.length == 0 || !DeletionBitmap.exists(datasetName))
+			return;
+
+		synchronized (DeletionBitmap.getMonitor(datasetName)) {
+			ImmutableRoaringBitmap current = DeletionBitmap.getDeleted(datasetName);
+			if (current == null)
+				return;
+
+			boolean changed = false;
+			for (int i = 0; i < positions.length && !changed; i++)
+				changed = current.contains(positions[i]);
+			if (!changed)
+				return;
+
+			MutableRoaringBitmap deleted = current.toMutableRoaringBitmap();
+			for (int i = 0; i < positions.length; i++)
+				deleted.remove(positions[i]);
+
+			if (deleted.isEmpty()) {
+				CACHE.remove(DeletionBitmap.getBitmapName(datasetName));
+				new File(DeletionBitmap.getBitmapName(datasetName)).delete();
+			}
+			else
+				DeletionBitmap.write(datasetName, deleted);
+		}
+	}
+
+	/**
+	 * Applies the deleted positions of a range to the result of a read. The deleted positions
+	 * are removed from the result, or added for the IS NULL filters as deleted records are null.
+	 *
+	 * @param deleted Deleted positions taken before the read
+	 * @param b Result of the read
+	 * @param low First position read, 0 based
+	 * @param high Last position read, 0 based
+	 * @param bitOffset Offset from a position to its bit in the result
+	 * @param isNull true to add the deleted positions to the result
+	 * @return true if the result changed
+	 */
+	public static boolean apply(ImmutableRoaringBitmap deleted, BitSet b, int low, int high, int bitOffset, boolean isNull) {
+		if (deleted == null || b == null)
+			return false;
+
+		PeekableIntIterator it = deleted.getIntIterator();
+		it.advanceIfNeeded(low);
+
+		boolean changed = false;
+		while (it.hasNext()) {
+			int position = it.next();
+			if (position > high)
+				break;
+
+			b.set(position + bitOffset, isNull);
+			changed = true;
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Returns the null value of a record of a fixed length segment
+	 *
+	 * @param fileType Dimension or fact
+	 * @param encoding Encoding of the segment
+	 * @param dataLength Length of a record
+	 * @return bytes of the null value, LITTLE ENDIAN
+	 * @throws Exception
+	 */
+	public static byte[] getNullRecord(int fileType, int encoding, int dataLength) throws Exception {
+		ByteBuffer b = ByteBuffer.allocate(dataLength).order(ByteOrder.LITTLE_ENDIAN);
+		if (fileType != CheckSum.FILE_TYPE_FACT)
+			return b.array();
+
+		if (CheckSum.isDecimalEncoding(fileType, encoding))
+			encoding = CheckSum.getDecimalBaseEncoding(dataLength);
+
+		switch (encoding) {
+		case CheckSum.FACT_ENCODE_TYPE_BYTE: b.put(0, Byte.MIN_VALUE); break;
+		case CheckSum.FACT_ENCODE_TYPE_SHORT: b.putShort(0, Short.MIN_VALUE); break;
+		case CheckSum.FACT_ENCODE_TYPE_INT: b.putInt(0, Integer.MIN_VALUE); break;
+		case CheckSum.FACT_ENCODE_TYPE_LONG: b.putLong(0, Long.MIN_VALUE); break;
+		case CheckSum.FACT_ENCODE_TYPE_FLOAT: b.putFloat(0, Float.MIN_VALUE); break;
+		case CheckSum.FACT_ENCODE_TYPE_DOUBLE: b.putDouble(0, Double.MIN_VALUE); break;
+		case CheckSum.FACT_ENCODE_TYPE_ALPHAN: break; // zero length
+		default: throw new Exception ("Encoding " + encoding + " is not a fixed length fact encoding");
+		}
+
+		return b.array();
+	}
+
+	/**
+	 * Writes the null values of the deleted records of a fixed length segment into the segment
+	 * and removes their positions from the bitmap. The positions are locked for the write, the
+	 * positions locked by an ONLINE session are waited for up to RETRY_LIMIT_MILLIS and left for
+	 * a later compaction if they are still locked. Only the positions still deleted once they are
+	 * locked are nulled out, a session may have written them again after they were read. The null values
+	 * are committed to the write ahead log before the pages are written and the values they
+	 * replace to the versions of the dataset. Compressed, sparse, dictionary encoded and
+	 * variable length segments keep their deleted positions in the bitmap until they are
+	 * rewritten.
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @return number of records nulled out
+	 * @throws Exception
+	 */
+	public static int compact(String dbName, String datasetName) throws Exception {
+		long beginTime = System.nanoTime();
+
+		DatasetSegment segment = new DatasetSegment(dbName, datasetName);
+		int fileType = segment.getFileType();
+		int encoding = segment.getEncoding();
+		int dataLength = segment.getDataLength();
+		int headerLength = segment.getHeaderLength();
+
+		if (CheckSum.isCompressedEncoding(fileType, encoding) || CheckSum.isSparseEncoding(fileType, encoding) ||
+				CheckSum.isDictionaryEncoding(fileType, encoding) || CheckSum.isVarLengthEncoding(fileType, encoding))
+			throw new Exception ("Deleted records of " + datasetName + " are removed when the segment is rewritten");
+
+		// runs of the delta store are merged first so that a later merge does not write over the null values
+		DimDeltaStore store = DimDeltaStore.getDeltaStore(dbName, datasetName);
+		if (store != null)
+			store.merge();
+
+		ImmutableRoaringBitmap deleted = DeletionBitmap.getDeleted(datasetName);
+		if (deleted == null)
+			return 0;
+
+		int[] positions = deleted.toArray();
+		int low = positions[0];
+		int high = positions[positions.length - 1];
+		byte[] nullRecord = DeletionBitmap.getNullRecord(fileType, encoding, dataLength);
+
+		PositionLockManager lockManager = PositionLockManager.getLockManager(dbName + "|" + datasetName, dataLength);
+		Object owner = new Object();
+		int[] locked = new int[0];
+
+		RandomAccessFile raf = new RandomAccessFile(datasetName, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, headerLength + ((long) low * dataLength), (long) (high - low + 1) * dataLength);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			BitSet conflicts = lockManager.lock(owner, positions, buffer, low, false);
+			locked = new int[positions.length - conflicts.cardinality()];
+			int[] retry = new int[conflicts.cardinality()];
+			for (int i = 0, j = 0, k = 0; i < positions.length; i++) {
+				if (conflicts.get(i))
+					retry[k++] = positions[i];
+				else
+					locked[j++] = positions[i];
+			}
+
+			// positions released by the sessions before the timeout are compacted with the others
+			if (retry.length > 0) {
+				retry = lockManager.lockWait(retry, buffer, low, HASIDSConstants.RETRY_LIMIT_MILLIS);
+				int[] all = Arrays.copyOf(locked, locked.length + retry.length);
+				System.arraycopy(retry, 0, all, locked.length, retry.length);
+				Arrays.sort(all);
+				locked = all;
+			}
+
+			// positions written again by a session before they were locked are no longer deleted
+			deleted = DeletionBitmap.getDeleted(datasetName);
+			int count = 0;
+			int[] live = new int[locked.length];
+			for (int i = 0; i < locked.length; i++) {
+				if (deleted != null && deleted.contains(locked[i]))
+					locked[count++] = locked[i];
+				else
+					live[i - count] = locked[i];
+			}
+			lockManager.unlock(owner, Arrays.copyOf(live, locked.length - count));
+			locked = Arrays.copyOf(locked, count);
+
+			if (locked.length == 0)
+				return 0;
+
+			byte[] values = new byte[locked.length * dataLength];
+			for (int i = 0; i < locked.length; i++)
+				System.arraycopy(nullRecord, 0, values, i * dataLength, dataLength);
+
+			// recovery writes the null values again if the pages are not flushed
+			WriteAheadLog log = WriteAheadLog.getLog(datasetName);
+			log.commit(log.begin(), dbName, datasetName, headerLength, dataLength, locked, values);
+
+			// readers of older versions undo the null values
+			DatasetVersions.getVersions(dbName, datasetName).commit(dataLength, locked, lockManager.getUndo(owner, locked));
+
+			for (int i = 0; i < locked.length; i++) {
+				buffer.position((locked[i] - low) * dataLength);
+				buffer.put(nullRecord);
+			}
+			buffer.force();
+
+			long lastModified = System.currentTimeMillis();
+			CheckSum.writeTimestamp(channel, lastModified);
+			DeletionBitmap.updateIndexes(segment, channel, buffer, low, high, locked, lastModified);
+
+			new File(datasetName).setLastModified(lastModified);
+			try {
+				DatasetCatalog.refresh(new DatasetSegment(dbName, datasetName, fileType, encoding, segment.getSegmentNo(), dataLength,
+						segment.getDecimals(), headerLength, segment.getRecordCount(), lastModified));
+			}
+			catch (Exception e) {
+				DatasetCatalog.remove(dbName, datasetName);
+			}
+
+			DeletionBitmap.remove(datasetName, locked);
+			log.release(datasetName, 1);
+		}
+		finally {
+			raf.close();
+			lockManager.unlock(owner, locked);
+		}
+
+		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((System.nanoTime() - beginTime), TimeUnit.NANOSECONDS);
+		System.out.println("Compacted " + datasetName + ", records nulled out : " + locked.length + " of " + positions.length +
+				" in " + elapsedTimeInMillis + " Milliseconds");
+
+		return locked.length;
+	}
+
+	/**
+	 * Updates the block checksums, null bitmap, trigram index and runs of a compacted segment.
+	 * Each of them is removed if it cannot be updated so that it is never stale.
+	 */
+	private static void updateIndexes(DatasetSegment segment, FileChannel channel, ByteBuffer buffer, int low, int high,
+			int[] positions, long lastModified) {
+
+		String datasetName = segment.getFileName();
+		int dataLength = segment.getDataLength();
+
+		try {
+			BlockCheckSum.update(datasetName, channel, segment.getHeaderLength(), (long) low * dataLength, (long) (high - low + 1) * dataLength);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			BlockCheckSum.delete(datasetName);
+		}
+
+		if (FactNullBitmap.exists(datasetName)) {
+			try {
+				boolean[] nulls = new boolean[positions.length];
+				Arrays.fill(nulls, true);
+				FactNullBitmap.update(segment.getDbName(), datasetName, positions, nulls, segment.getRecordCount(), lastModified);
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+				FactNullBitmap.delete(datasetName);
+			}
+		}
+
+		if (FactTrigramIndex.exists(datasetName)) {
+			try {
+				FactTrigramIndex.update(datasetName, buffer, low, dataLength, positions, segment.getRecordCount(), lastModified);
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+				FactTrigramIndex.delete(datasetName);
+			}
+		}
+
+		if (SortedRuns.exists(datasetName)) {
+			try {
+				SortedRuns.update(datasetName, positions, segment.getRecordCount(), lastModified);
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+				SortedRuns.delete(datasetName);
+			}
+		}
+	}
+
+	private static Object getMonitor(String datasetName) {
+		synchronized (UPDATE_TABLE) {
+			Object monitor = UPDATE_TABLE.get(datasetName);
+			if (monitor == null) {
+				monitor = new Object();
+				UPDATE_TABLE.put(datasetName, monitor);
+			}
+			return monitor;
+		}
+	}
+
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		String dbName = "Test";
+		String datasetName = "c:\\users\\dpras\\tempdata\\testdata\\fareamount.FC";
+
+		try {
+			DatasetSegment segment = new DatasetSegment(dbName, datasetName);
+			int[] positions = new int[100000];
+			for (int i = 0; i < positions.length; i++)
+				positions[i] = i * 7;
+
+			long beginTime = System.nanoTime();
+			DeletionBitmap.add(dbName, datasetName, positions, segment.getRecordCount(), true);
+			System.out.println("Deleted : " + DeletionBitmap.getDeleted(datasetName).getCardinality() + " in " +
+					TimeUnit.MILLISECONDS.convert((System.nanoTime() - beginTime), TimeUnit.NANOSECONDS) + " Milliseconds");
+
+			DeletionBitmap.compact(dbName, datasetName);
+			System.out.println("Bitmap after compaction : " + DeletionBitmap.exists(datasetName));
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Background job that compacts the deleted records of all the cataloged segments. Segments
+ * whose deletion bitmap holds at least a minimum number of positions have the null values of
+ * their deleted records written into the segment and the positions removed from the bitmap.
+ * Segments without a deletion bitmap are skipped, as are segments that are not fixed length,
+ * whose deleted positions stay in the bitmap until the segment is rewritten. The job can run
+ * once or repeat at an interval until stopped.
+ */
+
+package com.hasids.io.dataset;
+
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+
+import com.hasids.datastructures.CheckSum;
+
+public class SegmentCompactor implements Runnable {
+
+	private String[] _dbNames;
+	private int _minDeleted = 1;
+	private long _intervalMillis = 0L;
+	private volatile boolean _stop = false;
+
+	private Hashtable<String, String> _errors = new Hashtable<String, String>();
+	private int _compactedCount = 0;
+	private long _nulledCount = 0L;
+	private long _lastCompactTime = 0L;
+
+	/**
+	 * Constructor
+	 *
+	 * @param dbNames Databases to compact, null for all the cataloged databases
+	 * @param minDeleted Minimum number of deleted positions for a segment to be compacted
+	 * @throws Exception
+	 */
+	public SegmentCompactor(String[] dbNames, int minDeleted) throws Exception {
+		if (minDeleted <= 0)
+			throw new Exception ("Minimum number of deleted positions must be > 0");
+
+		this._dbNames = dbNames;
+		this._minDeleted = minDeleted;
+	}
+
+	/**
+	 * Sets the interval between two compactions when run as a background thread. An interval
+	 * <= 0 compacts the segments once.
+	 *
+	 * @param intervalMillis
+	 */
+	public void setInterval(long intervalMillis) {
+		this._intervalMillis = intervalMillis;
+	}
+
+	public void stop() {
+		this._stop = true;
+	}
+
+	public Hashtable<String, String> getErrors() {
+		return this._errors;
+	}
+
+	public int getCompactedCount() {
+		return this._compactedCount;
+	}
+
+	public long getNulledCount() {
+		return this._nulledCount;
+	}
+
+	public long getLastCompactTime() {
+		return this._lastCompactTime;
+	}
+
+	/**
+	 * Compacts all the segments once. The errors are available through getErrors() keyed
+	 * by the segment file name.
+	 *
+	 * @return number of segments compacted
+	 * @throws Exception
+	 */
+	public int compact() throws Exception {
+		long beginTime = System.nanoTime();
+
+		String[] dbNames = this._dbNames;
+		if (dbNames == null)
+			dbNames = DatasetCatalog.getDatabases();
+
+		Hashtable<String, String> errors = new Hashtable<String, String>();
+		int compacted = 0;
+		long nulled = 0;
+
+		for (int i = 0; i < dbNames.length && !this._stop; i++) {
+			DatasetSegment[] segments = DatasetCatalog.getSegments(dbNames[i]);
+			for (int j = 0; j < segments.length && !this._stop; j++) {
+				DatasetSegment segment = segments[j];
+				int fileType = segment.getFileType();
+				int encoding = segment.getEncoding();
+				if (CheckSum.isCompressedEncoding(fileType, encoding) || CheckSum.isSparseEncoding(fileType, encoding) ||
+						CheckSum.isDictionaryEncoding(fileType, encoding) || CheckSum.isVarLengthEncoding(fileType, encoding))
+					continue;
+
+				try {
+					ImmutableRoaringBitmap deleted = DeletionBitmap.getDeleted(segment.getFileName());
+					if (deleted == null || deleted.getCardinality() < this._minDeleted)
+						continue;
+
+					nulled += DeletionBitmap.compact(dbNames[i], segment.getFileName());
+					++compacted;
+				}
+				catch (Exception e) {
+					errors.put(segment.getFileName(), String.valueOf(e.getMessage()));
+				}
+			}
+		}
+
+		this._errors = errors;
+		this._compactedCount = compacted;
+		this._nulledCount = nulled;
+		this._lastCompactTime = System.currentTimeMillis();
+
+		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((System.nanoTime() - beginTime), TimeUnit.NANOSECONDS);
+		System.out.println("Compacted " + compacted + " segments, records nulled out " + nulled + ", errors " + errors.size() +
+				" in " + elapsedTimeInMillis + " Milliseconds");
+
+		return compacted;
+	}
+
+	public void run() {
+		do {
+			try {
+				this.compact();
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			long waited = 0;
+			while (!this._stop && waited < this._intervalMillis) {
+				try {
+					Thread.sleep(Math.min(100, this._intervalMillis - waited));
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				waited += 100;
+			}
+		} while (!this._stop && this._intervalMillis > 0);
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		String manifestName = "c:\\users\\dpras\\tempdata\\testdata\\catalog.mf";
+
+		try {
+			DatasetCatalog.load(manifestName);
+
+			// compact the segments with at least 1000 deleted records every minute
+			SegmentCompactor c = new SegmentCompactor(null, 1000);
+			c.setInterval(60000L);
+			Thread t = new Thread(c, "SegmentCompactor");
+			t.setDaemon(true);
+			t.start();
+
+			Thread.sleep(300000L);
+			c.stop();
+			t.join();
+
+			System.out.println("Segments compacted : " + c.getCompactedCount() + ", records nulled out : " + c.getNulledCount());
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,26 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Interface implemented by queries that are executed against each segment of a
+ * SegmentedDataset. The returned BitSet is indexed by the record position within the
+ * segment, exactly as returned by the dimension and fact readers.
+ */
+
+package com.hasids.io.dataset;
+
+import java.util.BitSet;
+
+public interface SegmentQuery {
+
+	/**
+	 * Executes the query against a single segment
+	 *
+	 * @param segment Segment being queried
+	 * @return BitSet of matching positions within the segment
+	 * @throws Exception
+	 */
+	public BitSet execute(DatasetSegment segment) throws Exception;
+}
@@ -0,0 +1,252 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Background job that verifies the block checksums of all the cataloged segments. Segments
+ * are distributed across a configurable number of threads which share a single IO rate
+ * limit, so that scrubbing does not starve the queries running against the same disks.
+ * The job can run once or repeat at an interval until stopped. Segments without a block
+ * checksum file are skipped.
+ */
+
+package com.hasids.io.dataset;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import com.hasids.HASIDSConstants;
+import com.hasids.datastructures.BlockCheckSum;
+
+public class SegmentScrubber implements Runnable {
+
+	private String[] _dbNames;
+	private int _noParallelThreads = 2;
+	private long _bytesPerSecond = 0L;
+	private long _intervalMillis = 0L;
+	private volatile boolean _stop = false;
+
+	private Hashtable<String, long[]> _corruptBlocks = new Hashtable<String, long[]>();
+	private Hashtable<String, String> _errors = new Hashtable<String, String>();
+	private int _scrubbedCount = 0;
+	private int _skippedCount = 0;
+	private long _lastScrubTime = 0L;
+
+	/**
+	 * Constructor
+	 *
+	 * @param dbNames Databases to scrub, null for all the cataloged databases
+	 * @param noParallelThreads Number of threads scrubbing segments in parallel
+	 * @param bytesPerSecond Combined IO rate of all the threads, <= 0 for no limit
+	 * @throws Exception
+	 */
+	public SegmentScrubber(String[] dbNames, int noParallelThreads, long bytesPerSecond) throws Exception {
+		if (noParallelThreads <= 0)
+			throw new Exception ("Number of parallel threads must be > 0");
+
+		this._dbNames = dbNames;
+		this._noParallelThreads = noParallelThreads;
+		this._bytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * Sets the interval between two scrubs when run as a background thread. An interval
+	 * <= 0 scrubs the segments once.
+	 *
+	 * @param intervalMillis
+	 */
+	public void setInterval(long intervalMillis) {
+		this._intervalMillis = intervalMillis;
+	}
+
+	public void stop() {
+		this._stop = true;
+	}
+
+	public Hashtable<String, long[]> getCorruptBlocks() {
+		return this._corruptBlocks;
+	}
+
+	public Hashtable<String, String> getErrors() {
+		return this._errors;
+	}
+
+	public int getScrubbedCount() {
+		return this._scrubbedCount;
+	}
+
+	public int getSkippedCount() {
+		return this._skippedCount;
+	}
+
+	public long getLastScrubTime() {
+		return this._lastScrubTime;
+	}
+
+	/**
+	 * Verifies all the segments once. The corrupt blocks found are available through
+	 * getCorruptBlocks() keyed by the segment file name.
+	 *
+	 * @return number of segments with corrupt blocks or errors
+	 * @throws Exception
+	 */
+	public int scrub() throws Exception {
+		long beginTime = System.nanoTime();
+
+		String[] dbNames = this._dbNames;
+		if (dbNames == null)
+			dbNames = DatasetCatalog.getDatabases();
+
+		ArrayList<DatasetSegment> segments = new ArrayList<DatasetSegment>();
+		for (int i = 0; i < dbNames.length; i++) {
+			DatasetSegment[] s = DatasetCatalog.getSegments(dbNames[i]);
+			for (int j = 0; j < s.length; j++)
+				segments.add(s[j]);
+		}
+
+		Hashtable<String, long[]> corruptBlocks = new Hashtable<String, long[]>();
+		Hashtable<String, String> errors = new Hashtable<String, String>();
+		BlockCheckSum.Throttle throttle = new BlockCheckSum.Throttle(this._bytesPerSecond);
+
+		int noThreads = Math.min(this._noParallelThreads, Math.max(segments.size(), 1));
+		SegmentScrubberThread[] threads = new SegmentScrubberThread[noThreads];
+
+		// distribute the segments round robin
+		ThreadGroup tg = new ThreadGroup("SegmentScrubber");
+		for (int i = 0; i < noThreads; i++) {
+			ArrayList<DatasetSegment> list = new ArrayList<DatasetSegment>();
+			for (int j = i; j < segments.size(); j += noThreads)
+				list.add(segments.get(j));
+
+			threads[i] = new SegmentScrubberThread(list, throttle, corruptBlocks, errors);
+			Thread t = new Thread(tg, threads[i], "SegmentScrubber-" + i);
+			t.start();
+		}
+
+		while (tg.activeCount() > 0)
+			Thread.sleep(10);
+
+		int scrubbed = 0, skipped = 0;
+		for (int i = 0; i < noThreads; i++) {
+			scrubbed += threads[i].getScrubbedCount();
+			skipped += threads[i].getSkippedCount();
+		}
+
+		this._corruptBlocks = corruptBlocks;
+		this._errors = errors;
+		this._scrubbedCount = scrubbed;
+		this._skippedCount = skipped;
+		this._lastScrubTime = System.currentTimeMillis();
+
+		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((System.nanoTime() - beginTime), TimeUnit.NANOSECONDS);
+		System.out.println("Scrubbed " + scrubbed + " segments, skipped " + skipped + ", corrupt " + corruptBlocks.size() +
+				", errors " + errors.size() + " in " + elapsedTimeInMillis + " Milliseconds");
+
+		return corruptBlocks.size() + errors.size();
+	}
+
+	public void run() {
+		do {
+			try {
+				this.scrub();
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			long waited = 0;
+			while (!this._stop && waited < this._intervalMillis) {
+				try {
+					Thread.sleep(Math.min(100, this._intervalMillis - waited));
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				waited += 100;
+			}
+		} while (!this._stop && this._intervalMillis > 0);
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		String manifestName = "c:\\users\\dpras\\tempdata\\testdata\\catalog.mf";
+
+		try {
+			DatasetCatalog.load(manifestName);
+
+			// scrub with 4 threads at 50 MB per second
+			SegmentScrubber s = new SegmentScrubber(null, 4, 50L * 1024 * 1024);
+			s.scrub();
+
+			java.util.Enumeration<String> e = s.getCorruptBlocks().keys();
+			while (e.hasMoreElements()) {
+				String fileName = e.nextElement();
+				System.out.println("Corrupt blocks in " + fileName + " : " + java.util.Arrays.toString(s.getCorruptBlocks().get(fileName)));
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
+
+class SegmentScrubberThread implements Runnable {
+
+	private int _status = HASIDSConstants.THREAD_INACTIVE;
+	private ArrayList<DatasetSegment> _segments;
+	private BlockCheckSum.Throttle _throttle;
+	private Hashtable<String, long[]> _corruptBlocks;
+	private Hashtable<String, String> _errors;
+	private int _scrubbedCount = 0;
+	private int _skippedCount = 0;
+
+	public SegmentScrubberThread(ArrayList<DatasetSegment> segments, BlockCheckSum.Throttle throttle,
+			Hashtable<String, long[]> corruptBlocks, Hashtable<String, String> errors) {
+		this._segments = segments;
+		this._throttle = throttle;
+		this._corruptBlocks = corruptBlocks;
+		this._errors = errors;
+	}
+
+	public int getStatus() {
+		return this._status;
+	}
+
+	public int getScrubbedCount() {
+		return this._scrubbedCount;
+	}
+
+	public int getSkippedCount() {
+		return this._skippedCount;
+	}
+
+	public void run() {
+		this._status = HASIDSConstants.THREAD_ACTIVE;
+
+		for (int i = 0; i < this._segments.size(); i++) {
+			DatasetSegment segment = this._segments.get(i);
+			try {
+				long[] corrupt = BlockCheckSum.scrub(segment.getFileName(), segment.getHeaderLength(), this._throttle);
+				if (corrupt == null) {
+					++this._skippedCount;
+					continue;
+				}
+
+				++this._scrubbedCount;
+				if (corrupt.length > 0)
+					this._corruptBlocks.put(segment.getFileName(), corrupt);
+			}
+			catch (Exception e) {
+				this._errors.put(segment.getFileName(), String.valueOf(e.getMessage()));
+			}
+		}
+
+		this._status = HASIDSConstants.THREAD_COMPLETE;
+	}
+}
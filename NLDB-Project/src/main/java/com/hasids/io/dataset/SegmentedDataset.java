@@ -0,0 +1,514 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * This class represents a logical dataset that spans one or more physical segment files.
+ * Each segment is limited to HASIDSConstants.DIM_MAX_RECORDS records, the logical dataset
+ * is not. Records are addressed using 64 bit record ids, the upper 32 bits holding the
+ * segment number from the CheckSum header and the lower 32 bits holding the position of the
+ * record within the segment (the same position used by the writers and the BitSet results
+ * of the readers).
+ *
+ * Segment files are resolved from the dataset name. The dataset name itself (if it exists)
+ * and every file named <dataset name>.seg<n> in the same directory are members of the
+ * dataset. The segment number is always taken from the header, the suffix is only used
+ * for discovering the files. Queries are executed against each segment in parallel and the
+ * results are merged into a Roaring64NavigableMap.
+ */
+
+package com.hasids.io.dataset;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+import com.hasids.HASIDSConstants;
+import com.hasids.io.dim.DimDataReader;
+
+public class SegmentedDataset {
+
+	public static final String SEGMENT_SUFFIX = ".seg";
+
+	private String _dbName;
+	private String _datasetName;
+	private ArrayList<DatasetSegment> _segments;
+	private Hashtable<Integer, DatasetSegment> _segmentTable;
+
+	private int _noParallelSegmentThreads = 4;
+
+	/**
+	 * Constructor that resolves all the segments associated with the dataset name
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Logical dataset name
+	 * @throws Exception
+	 */
+	public SegmentedDataset(String dbName, String datasetName) throws Exception {
+		this(dbName, datasetName, SegmentedDataset.getSegmentFileNames(datasetName));
+	}
+
+	/**
+	 * Constructor for a logical dataset made up of an explicit list of segment files
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Logical dataset name
+	 * @param fileNames Physical segment file names
+	 * @throws Exception
+	 */
+	public SegmentedDataset(String dbName, String datasetName, String[] fileNames) throws Exception {
+		if (dbName == null || dbName.trim().length() <= 0)
+			throw new Exception ("Invalid dbName!");
+
+		if (datasetName == null || datasetName.trim().length() <= 0)
+			throw new Exception ("Invalid datasetName!");
+
+		if (fileNames == null || fileNames.length <= 0)
+			throw new Exception ("No segments found for dataset " + datasetName);
+
+		ArrayList<DatasetSegment> segments = new ArrayList<DatasetSegment>(fileNames.length);
+		for (int i = 0; i < fileNames.length; i++)
+			segments.add(DatasetCatalog.getSegment(dbName, fileNames[i]));
+
+		this._dbName = dbName;
+		this._datasetName = datasetName;
+		this.setSegments(segments);
+	}
+
+	/**
+	 * Constructor for a logical dataset whose segment descriptors are already known
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Logical dataset name
+	 * @param segments Segment descriptors
+	 * @throws Exception
+	 */
+	public SegmentedDataset(String dbName, String datasetName, ArrayList<DatasetSegment> segments) throws Exception {
+		if (dbName == null || dbName.trim().length() <= 0)
+			throw new Exception ("Invalid dbName!");
+
+		if (datasetName == null || datasetName.trim().length() <= 0)
+			throw new Exception ("Invalid datasetName!");
+
+		if (segments == null || segments.size() <= 0)
+			throw new Exception ("No segments found for dataset " + datasetName);
+
+		this._dbName = dbName;
+		this._datasetName = datasetName;
+		this.setSegments(new ArrayList<DatasetSegment>(segments));
+	}
+
+	/**
+	 * Method to order the segments by segment number and validate that all segments share
+	 * the same file type and encoding
+	 *
+	 * @param segments
+	 * @throws Exception
+	 */
+	private void setSegments(ArrayList<DatasetSegment> segments) throws Exception {
+		Collections.sort(segments);
+
+		Hashtable<Integer, DatasetSegment> segmentTable = new Hashtable<Integer, DatasetSegment>(segments.size());
+		DatasetSegment first = segments.get(0);
+
+		for (int i = 0; i < segments.size(); i++) {
+			DatasetSegment segment = segments.get(i);
+
+			if (segment.getFileType() != first.getFileType() || segment.getEncoding() != first.getEncoding() ||
+					segment.getDataLength() != first.getDataLength() || segment.getDecimals() != first.getDecimals())
+				throw new Exception ("Segment " + segment.getFileName() + " does not match the file type/encoding of " + first.getFileName());
+
+			if (segmentTable.containsKey(segment.getSegmentNo()))
+				throw new Exception ("Duplicate segment number " + segment.getSegmentNo() + " in " + segment.getFileName() +
+						" and " + segmentTable.get(segment.getSegmentNo()).getFileName());
+
+			segmentTable.put(segment.getSegmentNo(), segment);
+		}
+
+		this._segments = segments;
+		this._segmentTable = segmentTable;
+	}
+
+	/**
+	 * Returns the physical file name for a segment of a dataset
+	 *
+	 * @param datasetName Logical dataset name
+	 * @param segmentNo Segment number
+	 * @return file name of the segment
+	 */
+	public static String getSegmentFileName(String datasetName, int segmentNo) {
+		return datasetName + SEGMENT_SUFFIX + segmentNo;
+	}
+
+	/**
+	 * Method to resolve the physical segment files associated with a dataset name
+	 *
+	 * @param datasetName Logical dataset name
+	 * @return Array of segment file names
+	 * @throws Exception
+	 */
+	public static String[] getSegmentFileNames(String datasetName) throws Exception {
+		if (datasetName == null || datasetName.trim().length() <= 0)
+			throw new Exception ("Invalid datasetName!");
+
+		ArrayList<String> fileNames = new ArrayList<String>();
+
+		File f = new File(datasetName);
+		if (f.isFile())
+			fileNames.add(datasetName);
+
+		File dir = f.getAbsoluteFile().getParentFile();
+		String prefix = f.getName() + SEGMENT_SUFFIX;
+
+		File[] files = (dir == null ? null : dir.listFiles());
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) {
+				String name = files[i].getName();
+				if (!files[i].isFile() || !name.startsWith(prefix) || name.length() == prefix.length())
+					continue;
+
+				boolean numeric = true;
+				for (int j = prefix.length(); j < name.length() && numeric; j++)
+					numeric = Character.isDigit(name.charAt(j));
+
+				if (numeric)
+					fileNames.add(datasetName + name.substring(f.getName().length()));
+			}
+		}
+
+		if (fileNames.size() <= 0)
+			throw new Exception ("No segments found for dataset " + datasetName);
+
+		return fileNames.toArray(new String[fileNames.size()]);
+	}
+
+	/**
+	 * Returns the 64 bit record id for a position within a segment
+	 *
+	 * @param segmentNo Segment number
+	 * @param position Position within the segment (0 based, as in the reader BitSets)
+	 * @return 64 bit record id
+	 */
+	public static long getRecordId(int segmentNo, int position) {
+		return (((long) segmentNo) << 32) | (position & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Returns the segment number of a 64 bit record id
+	 *
+	 * @param recordId
+	 * @return segment number
+	 */
+	public static int getSegmentNo(long recordId) {
+		return (int) (recordId >>> 32);
+	}
+
+	/**
+	 * Returns the position within the segment of a 64 bit record id
+	 *
+	 * @param recordId
+	 * @return position within the segment (0 based)
+	 */
+	public static int getPosition(long recordId) {
+		return (int) recordId;
+	}
+
+	public String getDbName() {
+		return this._dbName;
+	}
+
+	public String getDatasetName() {
+		return this._datasetName;
+	}
+
+	public int getFileType() {
+		return this._segments.get(0).getFileType();
+	}
+
+	public int getEncoding() {
+		return this._segments.get(0).getEncoding();
+	}
+
+	public int getDataLength() {
+		return this._segments.get(0).getDataLength();
+	}
+
+	public short getDecimals() {
+		return this._segments.get(0).getDecimals();
+	}
+
+	public int getSegmentCount() {
+		return this._segments.size();
+	}
+
+	/**
+	 * Returns the segments of the dataset ordered by segment number
+	 *
+	 * @return segments
+	 */
+	public DatasetSegment[] getSegments() {
+		return this._segments.toArray(new DatasetSegment[this._segments.size()]);
+	}
+
+	/**
+	 * Returns the segment for a segment number
+	 *
+	 * @param segmentNo
+	 * @return segment
+	 * @throws Exception
+	 */
+	public DatasetSegment getSegment(int segmentNo) throws Exception {
+		DatasetSegment segment = this._segmentTable.get(segmentNo);
+		if (segment == null)
+			throw new Exception ("Segment " + segmentNo + " does not exist in dataset " + this._datasetName);
+
+		return segment;
+	}
+
+	/**
+	 * Returns the total number of records across all segments
+	 *
+	 * @return record count
+	 */
+	public long getRecordCount() {
+		long count = 0;
+		for (int i = 0; i < this._segments.size(); i++)
+			count += this._segments.get(i).getRecordCount();
+
+		return count;
+	}
+
+	/**
+	 * Method to set the number of segments queried in parallel
+	 *
+	 * @param noParallelSegmentThreads
+	 * @throws Exception
+	 */
+	public void setParallelSegmentThreads(int noParallelSegmentThreads) throws Exception {
+		if (noParallelSegmentThreads < 1)
+			throw new Exception ("Number of parallel segment threads cannot be less than one!");
+
+		if (noParallelSegmentThreads > HASIDSConstants.MAX_PARALLELSEGMENTREAD_THREADS)
+			throw new Exception ("Number of parallel segment threads cannot exceed " + HASIDSConstants.MAX_PARALLELSEGMENTREAD_THREADS);
+
+		this._noParallelSegmentThreads = noParallelSegmentThreads;
+	}
+
+	/**
+	 * Method to execute a query against all segments in parallel
+	 *
+	 * @param query Query executed per segment
+	 * @return Hashtable of segment number and matching positions
+	 * @throws Exception
+	 */
+	public Hashtable<Integer, BitSet> getSegmentResults(SegmentQuery query) throws Exception {
+		if (query == null)
+			throw new Exception ("Query cannot be null!");
+
+		Hashtable<Integer, BitSet> h = new Hashtable<Integer, BitSet>(this._segments.size());
+		SegmentedDatasetQueryThread[] threads = new SegmentedDatasetQueryThread[this._segments.size()];
+
+		ThreadGroup tg = new ThreadGroup(this._datasetName);
+
+		for (int i = 0; i < this._segments.size(); i++) {
+			threads[i] = new SegmentedDatasetQueryThread(this._segments.get(i), query, h);
+
+			Thread t = new Thread(tg, threads[i]);
+			t.setPriority(Thread.NORM_PRIORITY);
+			t.start();
+
+			if ((i+1)%this._noParallelSegmentThreads == 0)
+				while (tg.activeCount() > 0)
+					Thread.sleep(10);
+		}
+
+		while (tg.activeCount() > 0)
+			Thread.sleep(10);
+
+		for (int i = 0; i < threads.length; i++)
+			if (threads[i].getStatus() != HASIDSConstants.THREAD_COMPLETE)
+				throw new Exception ("Query failed for segment " + this._segments.get(i).getFileName() + " : " + threads[i].getMessage());
+
+		return h;
+	}
+
+	/**
+	 * Method to execute a query against all segments in parallel and return the matching
+	 * 64 bit record ids
+	 *
+	 * @param query Query executed per segment
+	 * @return Matching 64 bit record ids
+	 * @throws Exception
+	 */
+	public Roaring64NavigableMap getData(SegmentQuery query) throws Exception {
+		Hashtable<Integer, BitSet> h = this.getSegmentResults(query);
+
+		Roaring64NavigableMap result = new Roaring64NavigableMap();
+
+		// segments are ordered, so the ids are appended in ascending order
+		for (int i = 0; i < this._segments.size(); i++) {
+			int segmentNo = this._segments.get(i).getSegmentNo();
+			BitSet b = h.get(segmentNo);
+			if (b == null)
+				continue;
+
+			long base = SegmentedDataset.getRecordId(segmentNo, 0);
+			int start = b.nextSetBit(0);
+			while (start >= 0) {
+				int end = b.nextClearBit(start);
+				result.add(base + start, base + end);
+				start = b.nextSetBit(end);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Method to get the 64 bit record ids of a dimension dataset matching the input filter
+	 *
+	 * @param filter Dimension values
+	 * @return Matching 64 bit record ids
+	 * @throws Exception
+	 */
+	public Roaring64NavigableMap getDimData(final int[] filter) throws Exception {
+		if (filter == null || filter.length <= 0)
+			throw new Exception ("Filter cannot be null or empty!");
+
+		return this.getData(new SegmentQuery() {
+			public BitSet execute(DatasetSegment segment) throws Exception {
+				if (segment.getRecordCount() <= 0)
+					return new BitSet();
+
+				DimDataReader ddr = new DimDataReader(segment, 1, segment.getRecordCount());
+
+				return ddr.getData(filter);
+			}
+		});
+	}
+
+	/**
+	 * Method to get the dimension values for a set of 64 bit record ids
+	 *
+	 * @param recordIds 64 bit record ids
+	 * @return values in the order of the input record ids
+	 * @throws Exception
+	 */
+	public int[] getDimDataValues(long[] recordIds) throws Exception {
+		if (recordIds == null || recordIds.length <= 0)
+			throw new Exception ("Input record ids cannot be null or empty");
+
+		int[] values = new int[recordIds.length];
+
+		// group the record ids by segment
+		Hashtable<Integer, ArrayList<Integer>> h = new Hashtable<Integer, ArrayList<Integer>>();
+		for (int i = 0; i < recordIds.length; i++) {
+			int segmentNo = SegmentedDataset.getSegmentNo(recordIds[i]);
+			DatasetSegment segment = this.getSegment(segmentNo);
+			int position = SegmentedDataset.getPosition(recordIds[i]);
+
+			if (position < 0 || position >= segment.getRecordCount())
+				throw new Exception ("Record id " + recordIds[i] + " is out of range for segment " + segmentNo);
+
+			ArrayList<Integer> al = h.get(segmentNo);
+			if (al == null) {
+				al = new ArrayList<Integer>();
+				h.put(segmentNo, al);
+			}
+			al.add(i);
+		}
+
+		for (Integer segmentNo : h.keySet()) {
+			DatasetSegment segment = this.getSegment(segmentNo);
+			ArrayList<Integer> al = h.get(segmentNo);
+
+			// reader positions are 1 based
+			int[] positions = new int[al.size()];
+			for (int i = 0; i < positions.length; i++)
+				positions[i] = SegmentedDataset.getPosition(recordIds[al.get(i)]) + 1;
+
+			DimDataReader ddr = new DimDataReader(segment, 1, segment.getRecordCount());
+			int[] segmentValues = ddr.getDataValues(positions);
+
+			for (int i = 0; i < segmentValues.length; i++)
+				values[al.get(i)] = segmentValues[i];
+		}
+
+		return values;
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		String dbName = "Test";
+		String datasetName = "c:\\users\\dpras\\tempdata\\testdata\\state.DM";
+		int[] filter = {1,2,3,4,5};
+
+		try {
+			long beginTime = System.nanoTime();
+
+			SegmentedDataset sd = new SegmentedDataset(dbName, datasetName);
+			sd.setParallelSegmentThreads(8);
+			System.out.println("Segments : " + sd.getSegmentCount() + ", Records : " + sd.getRecordCount());
+
+			Roaring64NavigableMap result = sd.getDimData(filter);
+
+			long endTime = System.nanoTime();
+			long diff = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
+			System.out.println("Cardinality : " + result.getLongCardinality() + ", elapsed time in millis : " + diff);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
+
+class SegmentedDatasetQueryThread implements Runnable {
+
+	private int _status = HASIDSConstants.THREAD_INACTIVE;
+	private DatasetSegment _segment;
+	private SegmentQuery _query;
+	private Hashtable<Integer, BitSet> _results;
+	private String _message;
+
+	public SegmentedDatasetQueryThread(DatasetSegment segment, SegmentQuery query, Hashtable<Integer, BitSet> results) {
+		this._segment = segment;
+		this._query = query;
+		this._results = results;
+	}
+
+	public int getStatus() {
+		return this._status;
+	}
+
+	public String getMessage() {
+		return this._message;
+	}
+
+	public void run() {
+		this._status = HASIDSConstants.THREAD_ACTIVE;
+
+		try {
+			BitSet b = this._query.execute(this._segment);
+			if (b != null)
+				this._results.put(this._segment.getSegmentNo(), b);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			this._message = e.getMessage();
+			this._status = HASIDSConstants.THREAD_FAILED;
+			return;
+		}
+
+		this._status = HASIDSConstants.THREAD_COMPLETE;
+	}
+}
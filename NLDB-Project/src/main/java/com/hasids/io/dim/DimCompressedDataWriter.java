@@ -0,0 +1,407 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Writer for the compressed dimension encodings (RLE, BITPACK and DICT). Compressed segments
+ * cannot be updated in place, the writer therefore collects the updates and appends of a
+ * session and on commit applies them to the latest committed values, re-encodes the segment
+ * into a temporary file and replaces the segment file. Commits against the same segment are
+ * serialized so that concurrent sessions do not lose each others changes; the last writer
+ * of a position wins.
+ *
+ * Compressed encodings suit low cardinality or sorted dimensions that are loaded in bulk and
+ * updated occasionally. Dimensions with frequent random updates should remain in the fixed
+ * length encodings written by DimDataWriter.
+ */
+
+package com.hasids.io.dim;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import com.hasids.HASIDSConstants;
+import com.hasids.datastructures.BlockCheckSum;
+import com.hasids.datastructures.CheckSum;
+import com.hasids.io.dataset.DatasetCatalog;
+import com.hasids.io.dataset.DatasetSegment;
+
+public class DimCompressedDataWriter {
+
+	// one monitor per segment file to serialize commits
+	private static Hashtable<String, Object> COMMIT_TABLE = new Hashtable<String, Object>();
+
+	private String _dbName;
+	private String _datasetName;
+	private int _encoding;
+	private int _segmentNo;
+	private int _dataLength;
+
+	// changes of the session
+	private Hashtable<Integer, Integer> _posValuesTable = new Hashtable<Integer, Integer>();
+	private int _appendCount = 0;
+
+	/**
+	 * Constructor for writing to an existing compressed dimension segment
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @throws Exception
+	 */
+	public DimCompressedDataWriter(String dbName, String datasetName) throws Exception {
+		if (dbName == null || dbName.trim().length() <= 0)
+			throw new Exception ("Invalid dbName!");
+
+		if (datasetName == null || datasetName.trim().length() <= 0)
+			throw new Exception ("Invalid datasetName!");
+
+		File f = new File(datasetName);
+		if (!f.exists())
+			throw new Exception ("File " + datasetName + " does not exist!");
+
+		int[] fileType = new int[1];
+		int[] encoding = new int[1];
+		int[] segmentNo = new int[1];
+		int[] datasize = new int[1];
+		short[] decimals = new short[1];
+
+		CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo);
+
+		if (!CheckSum.isCompressedEncoding(fileType[0], encoding[0]))
+			throw new Exception ("File " + datasetName + " is not a compressed dimension segment");
+
+		this._dbName = dbName;
+		this._datasetName = datasetName;
+		this._encoding = encoding[0];
+		this._segmentNo = segmentNo[0];
+		this._dataLength = datasize[0];
+	}
+
+	/**
+	 * Creates a compressed dimension segment from the values of all its records
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @param values Values in position order
+	 * @param encoding Compressed dimension encoding, 0 to choose the smallest
+	 * @param dataLength Width of the values, 1, 2 or 4
+	 * @param segmentNo Segment number
+	 * @return encoding used
+	 * @throws Exception
+	 */
+	public static int createSegment(String dbName, String datasetName, int[] values, int encoding, int dataLength, int segmentNo) throws Exception {
+		if (dbName == null || dbName.trim().length() <= 0)
+			throw new Exception ("Invalid dbName!");
+
+		if (datasetName == null || datasetName.trim().length() <= 0)
+			throw new Exception ("Invalid datasetName!");
+
+		if (new File(datasetName).exists())
+			throw new Exception("File " + datasetName + " exists! Cannot create segment");
+
+		if (values == null || values.length > HASIDSConstants.DIM_MAX_RECORDS)
+			throw new Exception ("Record count must be >= 0 and <= " + HASIDSConstants.DIM_MAX_RECORDS);
+
+		if (segmentNo < 0)
+			throw new Exception ("Segment number must be >= 0");
+
+		for (int i = 0; i < values.length; i++)
+			DimCompressedDataWriter.checkValue(values[i], dataLength);
+
+		if (encoding == 0)
+			encoding = DimCompressedSegment.chooseEncoding(values);
+
+		if (!CheckSum.isCompressedEncoding(CheckSum.FILE_TYPE_DIM, encoding))
+			throw new Exception ("Encoding " + encoding + " is not a compressed dimension encoding");
+
+		DimCompressedDataWriter.writeSegment(dbName, datasetName, values, encoding, dataLength, segmentNo);
+
+		return encoding;
+	}
+
+	/**
+	 * Creates a compressed copy of a fixed length dimension segment
+	 *
+	 * @param dbName Database name
+	 * @param sourceDatasetName Fixed length dimension segment
+	 * @param targetDatasetName Compressed segment to be created
+	 * @param encoding Compressed dimension encoding, 0 to choose the smallest
+	 * @return encoding used
+	 * @throws Exception
+	 */
+	public static int compress(String dbName, String sourceDatasetName, String targetDatasetName, int encoding) throws Exception {
+		int[] fileType = new int[1];
+		int[] sourceEncoding = new int[1];
+		int[] segmentNo = new int[1];
+		int[] datasize = new int[1];
+		short[] decimals = new short[1];
+		int[] headerLength = new int[1];
+
+		CheckSum.validateFile(dbName, sourceDatasetName, fileType, sourceEncoding, datasize, decimals, segmentNo, headerLength);
+
+		if (fileType[0] != CheckSum.FILE_TYPE_DIM || sourceEncoding[0] < CheckSum.DIM_ENCODE_TYPE1 || sourceEncoding[0] > CheckSum.DIM_ENCODE_TYPE3)
+			throw new Exception ("File " + sourceDatasetName + " is not a fixed length dimension segment");
+
+		int[] values = null;
+
+		RandomAccessFile raf = new RandomAccessFile(sourceDatasetName, "r");
+		FileChannel fc = raf.getChannel();
+		try {
+			int recordCount = (int)((fc.size() - headerLength[0])/datasize[0]);
+			ByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, headerLength[0], (long)recordCount * datasize[0]);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			values = new int[recordCount];
+			if (datasize[0] == CheckSum.BYTE_LEN)
+				for (int i = 0; i < recordCount; i++)
+					values[i] = buffer.get(i);
+			else if (datasize[0] == CheckSum.SHORT_LEN)
+				for (int i = 0; i < recordCount; i++)
+					values[i] = buffer.getShort(i * 2);
+			else
+				for (int i = 0; i < recordCount; i++)
+					values[i] = buffer.getInt(i * 4);
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		return DimCompressedDataWriter.createSegment(dbName, targetDatasetName, values, encoding, datasize[0], segmentNo[0]);
+	}
+
+	private static void checkValue(int value, int dataLength) throws Exception {
+		if (dataLength == CheckSum.BYTE_LEN && (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE))
+			throw new Exception ("Value " + value + " out of range for data length " + dataLength);
+		else if (dataLength == CheckSum.SHORT_LEN && (value < Short.MIN_VALUE || value > Short.MAX_VALUE))
+			throw new Exception ("Value " + value + " out of range for data length " + dataLength);
+		else if (dataLength != CheckSum.BYTE_LEN && dataLength != CheckSum.SHORT_LEN && dataLength != CheckSum.INT_FLOAT_LEN)
+			throw new Exception ("Data length must be 1, 2 or 4");
+	}
+
+	/**
+	 * Encodes the values and replaces the segment file
+	 *
+	 * @throws Exception
+	 */
+	private static void writeSegment(String dbName, String datasetName, int[] values, int encoding, int dataLength, int segmentNo) throws Exception {
+		long beginTime = System.nanoTime();
+
+		ByteBuffer body = DimCompressedSegment.encode(values, encoding);
+		long fileSize = (long)CheckSum.FILE_V2_HEADER_LENGTH + body.remaining();
+		long lastModifiedTime = System.currentTimeMillis();
+
+		ByteBuffer header = ByteBuffer.allocate(CheckSum.FILE_V2_HEADER_LENGTH);
+		CheckSum.writeHeaderV2(header, CheckSum.FILE_TYPE_DIM, encoding, segmentNo, dataLength, (short)0,
+				values.length, dbName + "|" + datasetName, fileSize, lastModifiedTime);
+
+		File f = new File(datasetName);
+		File temp = new File(datasetName + ".tmp");
+
+		RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		FileChannel fc = raf.getChannel();
+		try {
+			raf.setLength(0);
+			while (header.hasRemaining())
+				fc.write(header, header.position());
+			while (body.hasRemaining())
+				fc.write(body, CheckSum.FILE_V2_HEADER_LENGTH + body.position());
+			fc.force(true);
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		if (f.exists() && !f.delete())
+			throw new Exception ("Unable to replace segment " + datasetName);
+
+		if (!temp.renameTo(f))
+			throw new Exception ("Unable to replace segment " + datasetName);
+
+		// set the last modified time
+		f.setLastModified(lastModifiedTime);
+		DimCompressedSegment.invalidate(datasetName);
+
+		try {
+			DatasetCatalog.refresh(new DatasetSegment(dbName, datasetName, CheckSum.FILE_TYPE_DIM, encoding, segmentNo,
+					dataLength, (short)0, CheckSum.FILE_V2_HEADER_LENGTH, values.length, f.lastModified()));
+		}
+		catch (Exception e) {
+			DatasetCatalog.remove(dbName, datasetName);
+		}
+
+		// checksum the data blocks of the new segment
+		BlockCheckSum.build(datasetName, CheckSum.FILE_V2_HEADER_LENGTH);
+
+		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((System.nanoTime() - beginTime), TimeUnit.NANOSECONDS);
+		System.out.println("Compressed segment " + datasetName + " written, records : " + values.length +
+				", encoding : " + encoding + ", size : " + fileSize + " in " + elapsedTimeInMillis + " Milliseconds");
+	}
+
+	public String getDbName() {
+		return this._dbName;
+	}
+
+	public String getDatasetName() {
+		return this._datasetName;
+	}
+
+	public int getEncoding() {
+		return this._encoding;
+	}
+
+	public int getDataLength() {
+		return this._dataLength;
+	}
+
+	public int getSegmentNo() {
+		return this._segmentNo;
+	}
+
+	/**
+	 * Sets the values of positions. Positions beyond the current record count extend the
+	 * segment, records in between are null (0).
+	 *
+	 * @param position 0 based positions
+	 * @param values Values
+	 * @throws Exception
+	 */
+	public void setWriteDataPositionBuffer(int[] position, int[] values) throws Exception {
+		if (position == null || values == null || position.length != values.length)
+			throw new Exception("Null Data or data length does not match values length!");
+
+		for (int i = 0; i < position.length; i++) {
+			if (position[i] < 0 || position[i] >= HASIDSConstants.DIM_MAX_RECORDS)
+				throw new Exception ("Invalid position " + position[i]);
+
+			DimCompressedDataWriter.checkValue(values[i], this._dataLength);
+		}
+
+		for (int i = 0; i < position.length; i++)
+			this._posValuesTable.put(position[i], values[i]);
+	}
+
+	/**
+	 * Appends records to the end of the segment. The positions are assigned on commit.
+	 *
+	 * @param values Values to append
+	 * @throws Exception
+	 */
+	public void append(int[] values) throws Exception {
+		if (values == null)
+			throw new Exception ("Null Data!");
+
+		for (int i = 0; i < values.length; i++)
+			DimCompressedDataWriter.checkValue(values[i], this._dataLength);
+
+		// appends are held with negative keys until the record count is known
+		for (int i = 0; i < values.length; i++)
+			this._posValuesTable.put(-(++this._appendCount), values[i]);
+	}
+
+	/**
+	 * Discards the changes of the session
+	 */
+	public void rollback() {
+		this._posValuesTable.clear();
+		this._appendCount = 0;
+	}
+
+	/**
+	 * Applies the changes of the session to the latest committed values and replaces the
+	 * segment file
+	 *
+	 * @return record count after the commit
+	 * @throws Exception
+	 */
+	public int commit() throws Exception {
+		Object monitor = null;
+		synchronized (COMMIT_TABLE) {
+			monitor = COMMIT_TABLE.get(this._datasetName);
+			if (monitor == null) {
+				monitor = new Object();
+				COMMIT_TABLE.put(this._datasetName, monitor);
+			}
+		}
+
+		synchronized (monitor) {
+			int[] fileType = new int[1];
+			int[] encoding = new int[1];
+			int[] segmentNo = new int[1];
+			int[] datasize = new int[1];
+			short[] decimals = new short[1];
+			int[] headerLength = new int[1];
+
+			CheckSum.validateFile(this._dbName, this._datasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
+			int recordCount = (int)CheckSum.getRecordCount(this._datasetName, datasize[0]);
+
+			int[] current = DimCompressedSegment.getSegment(this._datasetName, headerLength[0], encoding[0], false).decode();
+
+			// determine the new record count
+			int newRecordCount = recordCount;
+			Enumeration<Integer> e = this._posValuesTable.keys();
+			while (e.hasMoreElements()) {
+				int key = e.nextElement();
+				if (key >= newRecordCount)
+					newRecordCount = key + 1;
+			}
+
+			int appendBase = newRecordCount;
+			if ((long)newRecordCount + this._appendCount > HASIDSConstants.DIM_MAX_RECORDS)
+				throw new Exception ("Record count cannot exceed " + HASIDSConstants.DIM_MAX_RECORDS);
+			newRecordCount += this._appendCount;
+
+			int[] values = current;
+			if (newRecordCount != recordCount) {
+				values = new int[newRecordCount];
+				System.arraycopy(current, 0, values, 0, recordCount);
+			}
+
+			e = this._posValuesTable.keys();
+			while (e.hasMoreElements()) {
+				int key = e.nextElement();
+				if (key >= 0)
+					values[key] = this._posValuesTable.get(key);
+				else
+					values[appendBase - key - 1] = this._posValuesTable.get(key);
+			}
+
+			DimCompressedDataWriter.writeSegment(this._dbName, this._datasetName, values, encoding[0], datasize[0], segmentNo[0]);
+
+			this.rollback();
+			return newRecordCount;
+		}
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		String dbName = "Test";
+		String source = "c:\\users\\dpras\\tempdata\\testdata\\cabtype.DM";
+		String target = "c:\\users\\dpras\\tempdata\\testdata\\cabtype_rle.DM";
+
+		try {
+			int encoding = DimCompressedDataWriter.compress(dbName, source, target, 0);
+			System.out.println("Compressed " + source + " using encoding " + encoding);
+
+			DimCompressedDataWriter w = new DimCompressedDataWriter(dbName, target);
+			w.setWriteDataPositionBuffer(new int[] {0, 10}, new int[] {2, 2});
+			w.append(new int[] {1, 1, 1});
+			System.out.println("Record count after commit : " + w.commit());
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
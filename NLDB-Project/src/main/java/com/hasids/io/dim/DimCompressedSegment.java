@@ -0,0 +1,498 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * In memory form of a compressed dimension segment. The data region following the version 2
+ * header holds one of the compressed dimension encodings (LITTLE ENDIAN):
+ *
+ * DIM_ENCODE_TYPE_RLE
+ * int run count, int[run count] start position of each run, int[run count] run values
+ *
+ * DIM_ENCODE_TYPE_BITPACK
+ * int bit width, int minimum value, long[] codes (value - minimum) packed at bit width bits
+ *
+ * DIM_ENCODE_TYPE_DICT
+ * int bit width, int dictionary size, int[dictionary size] sorted distinct values,
+ * long[] codes (index in the dictionary) packed at bit width bits
+ *
+ * Packed codes are stored from the least significant bit of each long and may span two longs.
+ * Scans evaluate the predicate once per run (RLE) or once per possible code (BITPACK with a
+ * small width, DICT) and then only compare codes, so the records are never decoded. Loaded
+ * segments are cached by file name and reloaded when the file changes.
+ */
+
+package com.hasids.io.dim;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Hashtable;
+
+import com.hasids.HASIDSConstants;
+import com.hasids.datastructures.BlockCheckSum;
+import com.hasids.datastructures.CheckSum;
+
+public class DimCompressedSegment {
+
+	// BITPACK widths up to this size evaluate the predicate once per possible code
+	public static final int MAX_LOOKUP_BIT_WIDTH = 20;
+
+	private static Hashtable<String, SoftReference<DimCompressedSegment>> CACHE = new Hashtable<String, SoftReference<DimCompressedSegment>>();
+
+	private int _encoding;
+	private int _recordCount;
+	private long _lastModified = 0L;
+	private long _fileLength = 0L;
+
+	// RLE
+	private int[] _runStarts;
+	private int[] _runValues;
+
+	// BITPACK and DICT
+	private int _bitWidth;
+	private int _minValue;
+	private int[] _dictionary;
+	private long[] _words;
+
+	private DimCompressedSegment(int encoding, int recordCount) {
+		this._encoding = encoding;
+		this._recordCount = recordCount;
+	}
+
+	public int getEncoding() {
+		return this._encoding;
+	}
+
+	public int getRecordCount() {
+		return this._recordCount;
+	}
+
+	public int getBitWidth() {
+		return this._bitWidth;
+	}
+
+	public int getRunCount() {
+		return (this._runStarts == null ? 0 : this._runStarts.length);
+	}
+
+	public int[] getDictionary() {
+		return this._dictionary;
+	}
+
+	/**
+	 * Returns the compressed segment of a dataset file from the cache, loading it if it is not
+	 * cached or if the file has changed since it was cached.
+	 *
+	 * @param datasetName Dataset file name
+	 * @param headerLength Length of the file header
+	 * @param encoding Compressed dimension encoding from the header
+	 * @param verifyChecksums Verify the block checksums while loading
+	 * @return compressed segment
+	 * @throws Exception
+	 */
+	public static DimCompressedSegment getSegment(String datasetName, int headerLength, int encoding, boolean verifyChecksums) throws Exception {
+		File f = new File(datasetName);
+
+		SoftReference<DimCompressedSegment> ref = CACHE.get(datasetName);
+		DimCompressedSegment segment = (ref == null ? null : ref.get());
+		if (!verifyChecksums && segment != null && segment._lastModified == f.lastModified() && segment._fileLength == f.length())
+			return segment;
+
+		synchronized (CACHE) {
+			segment = DimCompressedSegment.load(datasetName, headerLength, encoding, verifyChecksums);
+			CACHE.put(datasetName, new SoftReference<DimCompressedSegment>(segment));
+		}
+
+		return segment;
+	}
+
+	/**
+	 * Removes a dataset file from the cache
+	 *
+	 * @param datasetName
+	 */
+	public static void invalidate(String datasetName) {
+		CACHE.remove(datasetName);
+	}
+
+	/**
+	 * Loads the data region of a compressed dimension file
+	 *
+	 * @throws Exception
+	 */
+	private static DimCompressedSegment load(String datasetName, int headerLength, int encoding, boolean verifyChecksums) throws Exception {
+		if (!CheckSum.isCompressedEncoding(CheckSum.FILE_TYPE_DIM, encoding))
+			throw new Exception ("Encoding " + encoding + " is not a compressed dimension encoding");
+
+		File f = new File(datasetName);
+		long recordCount = CheckSum.getRecordCount(datasetName, 1);
+		if (recordCount < 0 || recordCount > HASIDSConstants.DIM_MAX_RECORDS)
+			throw new Exception ("Invalid record count in " + datasetName);
+		
+		DimCompressedSegment segment = new DimCompressedSegment(encoding, (int)recordCount);
+		segment._lastModified = f.lastModified();
+		segment._fileLength = f.length();
+
+		RandomAccessFile raf = new RandomAccessFile(datasetName, "r");
+		FileChannel fc = raf.getChannel();
+
+		try {
+			long bodyLength = fc.size() - headerLength;
+			if (bodyLength < 0 || bodyLength > Integer.MAX_VALUE)
+				throw new Exception ("Invalid compressed data length in " + datasetName);
+
+			ByteBuffer body = ByteBuffer.allocate((int)bodyLength).order(ByteOrder.LITTLE_ENDIAN);
+			while (body.hasRemaining())
+				if (fc.read(body, headerLength + body.position()) < 0)
+					throw new Exception ("Unexpected end of file in " + datasetName);
+			body.flip();
+
+			if (verifyChecksums)
+				BlockCheckSum.verify(datasetName, fc, headerLength, body, 0, bodyLength);
+
+			segment.decodeBody(body);
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		return segment;
+	}
+
+	private void decodeBody(ByteBuffer body) throws Exception {
+		if (this._encoding == CheckSum.DIM_ENCODE_TYPE_RLE) {
+			int runCount = body.getInt();
+			this._runStarts = new int[runCount];
+			this._runValues = new int[runCount];
+			body.asIntBuffer().get(this._runStarts);
+			body.position(body.position() + runCount * 4);
+			body.asIntBuffer().get(this._runValues);
+		}
+		else {
+			this._bitWidth = body.getInt();
+			if (this._bitWidth < 0 || this._bitWidth > 32)
+				throw new Exception ("Invalid bit width " + this._bitWidth);
+
+			if (this._encoding == CheckSum.DIM_ENCODE_TYPE_BITPACK) {
+				this._minValue = body.getInt();
+			}
+			else {
+				this._dictionary = new int[body.getInt()];
+				body.asIntBuffer().get(this._dictionary);
+				body.position(body.position() + this._dictionary.length * 4);
+			}
+
+			this._words = new long[DimCompressedSegment.getWordCount(this._recordCount, this._bitWidth)];
+			body.asLongBuffer().get(this._words);
+		}
+	}
+
+	private static int getWordCount(int recordCount, int bitWidth) {
+		return (int)(((long)recordCount * bitWidth + 63) >>> 6);
+	}
+
+	private static int getBitWidth(long range) {
+		return (range == 0 ? 0 : 64 - Long.numberOfLeadingZeros(range));
+	}
+
+	/**
+	 * Encodes the values of a dimension segment into the data region of the compressed file
+	 *
+	 * @param values Values of all the records in position order
+	 * @param encoding Compressed dimension encoding
+	 * @return Data region positioned at 0
+	 * @throws Exception
+	 */
+	public static ByteBuffer encode(int[] values, int encoding) throws Exception {
+		ByteBuffer body = null;
+
+		if (encoding == CheckSum.DIM_ENCODE_TYPE_RLE) {
+			int runCount = DimCompressedSegment.getRunCount(values);
+
+			body = ByteBuffer.allocate(4 + runCount * 8).order(ByteOrder.LITTLE_ENDIAN);
+			body.putInt(runCount);
+			for (int i = 0; i < values.length; i++)
+				if (i == 0 || values[i] != values[i - 1])
+					body.putInt(i);
+			for (int i = 0; i < values.length; i++)
+				if (i == 0 || values[i] != values[i - 1])
+					body.putInt(values[i]);
+		}
+		else if (encoding == CheckSum.DIM_ENCODE_TYPE_BITPACK) {
+			int min = 0, max = 0;
+			if (values.length > 0) {
+				min = values[0];
+				max = values[0];
+			}
+			for (int i = 1; i < values.length; i++) {
+				if (values[i] < min)
+					min = values[i];
+				else if (values[i] > max)
+					max = values[i];
+			}
+
+			int bitWidth = DimCompressedSegment.getBitWidth((long)max - min);
+			long[] words = new long[DimCompressedSegment.getWordCount(values.length, bitWidth)];
+			for (int i = 0; i < values.length; i++)
+				DimCompressedSegment.putCode(words, i, bitWidth, (long)values[i] - min);
+
+			body = ByteBuffer.allocate(8 + words.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+			body.putInt(bitWidth);
+			body.putInt(min);
+			body.asLongBuffer().put(words);
+			body.position(body.limit());
+		}
+		else if (encoding == CheckSum.DIM_ENCODE_TYPE_DICT) {
+			int[] dictionary = DimCompressedSegment.getDistinctValues(values);
+
+			int bitWidth = DimCompressedSegment.getBitWidth(Math.max(dictionary.length - 1, 0));
+			long[] words = new long[DimCompressedSegment.getWordCount(values.length, bitWidth)];
+			for (int i = 0; i < values.length; i++)
+				DimCompressedSegment.putCode(words, i, bitWidth, Arrays.binarySearch(dictionary, values[i]));
+
+			body = ByteBuffer.allocate(8 + dictionary.length * 4 + words.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+			body.putInt(bitWidth);
+			body.putInt(dictionary.length);
+			body.asIntBuffer().put(dictionary);
+			body.position(body.position() + dictionary.length * 4);
+			body.asLongBuffer().put(words);
+			body.position(body.limit());
+		}
+		else
+			throw new Exception ("Encoding " + encoding + " is not a compressed dimension encoding");
+
+		body.flip();
+		return body;
+	}
+
+	/**
+	 * Returns the compressed encoding with the smallest data region for the values
+	 *
+	 * @param values
+	 * @return encoding
+	 */
+	public static int chooseEncoding(int[] values) {
+		long rle = 4 + (long)DimCompressedSegment.getRunCount(values) * 8;
+
+		int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] < min)
+				min = values[i];
+			if (values[i] > max)
+				max = values[i];
+		}
+		long bitpack = 8 + (long)DimCompressedSegment.getWordCount(values.length,
+				(values.length == 0 ? 0 : DimCompressedSegment.getBitWidth((long)max - min))) * 8;
+
+		int ndv = DimCompressedSegment.getDistinctValues(values).length;
+		long dict = 8 + (long)ndv * 4 + (long)DimCompressedSegment.getWordCount(values.length,
+				DimCompressedSegment.getBitWidth(Math.max(ndv - 1, 0))) * 8;
+
+		if (rle <= bitpack && rle <= dict)
+			return CheckSum.DIM_ENCODE_TYPE_RLE;
+		else if (bitpack <= dict)
+			return CheckSum.DIM_ENCODE_TYPE_BITPACK;
+		else
+			return CheckSum.DIM_ENCODE_TYPE_DICT;
+	}
+
+	private static int getRunCount(int[] values) {
+		int runCount = 0;
+		for (int i = 0; i < values.length; i++)
+			if (i == 0 || values[i] != values[i - 1])
+				++runCount;
+
+		return runCount;
+	}
+
+	private static int[] getDistinctValues(int[] values) {
+		int[] sorted = values.clone();
+		Arrays.sort(sorted);
+
+		int count = 0;
+		for (int i = 0; i < sorted.length; i++)
+			if (i == 0 || sorted[i] != sorted[i - 1])
+				sorted[count++] = sorted[i];
+
+		return Arrays.copyOf(sorted, count);
+	}
+
+	private static void putCode(long[] words, int position, int bitWidth, long code) {
+		if (bitWidth == 0)
+			return;
+
+		long bit = (long)position * bitWidth;
+		int word = (int)(bit >>> 6);
+		int shift = (int)(bit & 63);
+
+		words[word] |= code << shift;
+		if (shift + bitWidth > 64)
+			words[word + 1] |= code >>> (64 - shift);
+	}
+
+	private long getCode(int position) {
+		if (this._bitWidth == 0)
+			return 0;
+
+		long mask = (this._bitWidth == 64 ? -1L : (1L << this._bitWidth) - 1);
+		long bit = (long)position * this._bitWidth;
+		int word = (int)(bit >>> 6);
+		int shift = (int)(bit & 63);
+
+		long code = this._words[word] >>> shift;
+		if (shift + this._bitWidth > 64)
+			code |= this._words[word + 1] << (64 - shift);
+
+		return code & mask;
+	}
+
+	/**
+	 * Returns the index of the run containing a position
+	 *
+	 * @param position 0 based position
+	 * @return run index
+	 */
+	private int findRun(int position) {
+		int low = 0, high = this._runStarts.length - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (this._runStarts[mid] <= position)
+				low = mid;
+			else
+				high = mid - 1;
+		}
+
+		return low;
+	}
+
+	/**
+	 * Returns the value of a record
+	 *
+	 * @param position 0 based position
+	 * @return value
+	 */
+	public int getValue(int position) {
+		if (this._encoding == CheckSum.DIM_ENCODE_TYPE_RLE)
+			return this._runValues[this.findRun(position)];
+		else if (this._encoding == CheckSum.DIM_ENCODE_TYPE_BITPACK)
+			return (int)(this._minValue + this.getCode(position));
+		else
+			return this._dictionary[(int)this.getCode(position)];
+	}
+
+	/**
+	 * Decodes all the records of the segment
+	 *
+	 * @return values in position order
+	 */
+	public int[] decode() {
+		int[] values = new int[this._recordCount];
+
+		if (this._encoding == CheckSum.DIM_ENCODE_TYPE_RLE) {
+			for (int i = 0; i < this._runStarts.length; i++) {
+				int end = (i == this._runStarts.length - 1 ? this._recordCount : this._runStarts[i + 1]);
+				Arrays.fill(values, this._runStarts[i], end, this._runValues[i]);
+			}
+		}
+		else {
+			for (int i = 0; i < this._recordCount; i++)
+				values[i] = this.getValue(i);
+		}
+
+		return values;
+	}
+
+	/**
+	 * Sets the bits of the records between two positions whose values match the filter. The
+	 * bit set for a matching position p is p + bitOffset.
+	 *
+	 * @param filter Value predicate
+	 * @param fromPosition 0 based position, inclusive
+	 * @param toPosition 0 based position, exclusive
+	 * @param b BitSet receiving the matches
+	 * @param bitOffset Offset added to the positions
+	 */
+	public void filter(DimValueFilter filter, int fromPosition, int toPosition, BitSet b, int bitOffset) {
+		if (toPosition > this._recordCount)
+			toPosition = this._recordCount;
+		if (fromPosition >= toPosition)
+			return;
+
+		if (this._encoding == CheckSum.DIM_ENCODE_TYPE_RLE) {
+			// evaluate each run once and set its positions as a range
+			for (int i = this.findRun(fromPosition); i < this._runStarts.length && this._runStarts[i] < toPosition; i++) {
+				if (filter.accept(this._runValues[i])) {
+					int end = (i == this._runStarts.length - 1 ? this._recordCount : this._runStarts[i + 1]);
+					b.set(Math.max(this._runStarts[i], fromPosition) + bitOffset, Math.min(end, toPosition) + bitOffset);
+				}
+			}
+			return;
+		}
+
+		// evaluate the filter for all possible codes
+		boolean[] accept = null;
+		if (this._encoding == CheckSum.DIM_ENCODE_TYPE_DICT) {
+			accept = new boolean[this._dictionary.length];
+			for (int i = 0; i < accept.length; i++)
+				accept[i] = filter.accept(this._dictionary[i]);
+		}
+		else if (this._bitWidth <= MAX_LOOKUP_BIT_WIDTH) {
+			accept = new boolean[1 << this._bitWidth];
+			for (int i = 0; i < accept.length; i++)
+				accept[i] = filter.accept(this._minValue + i);
+		}
+
+		if (accept != null) {
+			boolean any = false, all = true;
+			for (int i = 0; i < accept.length; i++) {
+				any |= accept[i];
+				all &= accept[i];
+			}
+
+			if (!any)
+				return;
+
+			if (all) {
+				b.set(fromPosition + bitOffset, toPosition + bitOffset);
+				return;
+			}
+		}
+
+		// scan the packed codes sequentially
+		int bitWidth = this._bitWidth;
+		long mask = (1L << bitWidth) - 1;
+		long bit = (long)fromPosition * bitWidth;
+		int word = (int)(bit >>> 6);
+		int shift = (int)(bit & 63);
+		long current = this._words[word];
+		long code;
+
+		for (int i = fromPosition; i < toPosition; i++) {
+			if (shift + bitWidth <= 64) {
+				code = (current >>> shift) & mask;
+				shift += bitWidth;
+				if (shift == 64 && ++word < this._words.length) {
+					current = this._words[word];
+					shift = 0;
+				}
+			}
+			else {
+				long next = this._words[++word];
+				code = ((current >>> shift) | (next << (64 - shift))) & mask;
+				current = next;
+				shift = shift + bitWidth - 64;
+			}
+
+			if (accept != null ? accept[(int)code] : filter.accept((int)(this._minValue + code)))
+				b.set(i + bitOffset);
+		}
+	}
+}
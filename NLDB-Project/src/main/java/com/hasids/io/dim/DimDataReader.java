@@ -20,6 +20,7 @@ import java.io.RandomAccessFile;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Enumeration;
 import java.util.Hashtable;
@@ -33,7 +34,12 @@ import org.roaringbitmap.buffer.MutableRoaringBitmap;
 import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
 
 import com.hasids.HASIDSConstants;
+import com.hasids.datastructures.BlockCheckSum;
 import com.hasids.datastructures.CheckSum;
+import com.hasids.datastructures.SortedRuns;
+import com.hasids.io.DatasetVersions;
+import com.hasids.io.dataset.DatasetSegment;
+import com.hasids.io.dataset.DeletionBitmap;
 
 
 public class DimDataReader extends Observable implements Runnable {
@@ -47,6 +53,9 @@ public class DimDataReader extends Observable implements Runnable {
 	private int _encoding;
 	private int _segmentNo;
 	private int _dataLength;
+	private int _headerLength = CheckSum.FILE_CHECKSUM_LENGTH;
+	private boolean _verifyChecksums = false;
+	private boolean _compressed = false;
 	
 	private BitSet _computedBitSet = null;
 	private long _elapsedTimeInMillis = 0L; 
@@ -54,6 +63,7 @@ public class DimDataReader extends Observable implements Runnable {
 	private int _filterLowRange = 1; // for beginning of file, it must be set to 1
 	private int _filterHighRange = 0; // high range - exclusive
 	private boolean _readDirty = false;
+	private DatasetVersions.Snapshot _snapshot = null;
 	
 	private int[] _filter;
 	private int _gtFilter;
@@ -128,8 +138,6 @@ public class DimDataReader extends Observable implements Runnable {
 			throw new Exception ("File " + datasetName + " does not exist!");
 		
 		long fileLength = f.length();
-		if (fileLength > HASIDSConstants.DIM_MAX_RECORDS + CheckSum.FILE_CHECKSUM_LENGTH)
-			throw new Exception("Size of Dimension files cannot exceed " + HASIDSConstants.DIM_MAX_RECORDS + " in the HASIDS System!");
 		
 		this._datasetName = datasetName;
 		
@@ -147,20 +155,33 @@ public class DimDataReader extends Observable implements Runnable {
 		int[] segmentNo = new int[1];
 		int[] datasize = new int[1];
 		short[] decimals = new short[1];
+		int[] headerLength = new int[1];
+		
+		CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
+		
+		if (fileLength - headerLength[0] > HASIDSConstants.DIM_MAX_RECORDS)
+			throw new Exception("Size of Dimension files cannot exceed " + HASIDSConstants.DIM_MAX_RECORDS + " in the HASIDS System!");
 		
-		CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo);
+		this._headerLength = headerLength[0];
+		this._compressed = CheckSum.isCompressedEncoding(fileType[0], encoding[0]);
 		
-		if (encoding[0] < CheckSum.DIM_ENCODE_TYPE1 || encoding[0] > CheckSum.DIM_ENCODE_TYPE3)
+		if ((encoding[0] < CheckSum.DIM_ENCODE_TYPE1 || encoding[0] > CheckSum.DIM_ENCODE_TYPE3) && !this._compressed)
 			throw new Exception ("Invalid encoding type in header, Dimension datasets data length must be >= " + 
-					CheckSum.DIM_ENCODE_TYPE1 + " and <= " + CheckSum.DIM_ENCODE_TYPE3);
+					CheckSum.DIM_ENCODE_TYPE1 + " and <= " + CheckSum.DIM_ENCODE_TYPE_DICT);
 		
 		if ((encoding[0] == CheckSum.DIM_ENCODE_TYPE1 && datasize[0] != 1) ||
 				(encoding[0] == CheckSum.DIM_ENCODE_TYPE2 && datasize[0] != 2) ||
-				(encoding[0] == CheckSum.DIM_ENCODE_TYPE3 && datasize[0] != 4))
+				(encoding[0] == CheckSum.DIM_ENCODE_TYPE3 && datasize[0] != 4) ||
+				(this._compressed && datasize[0] != 1 && datasize[0] != 2 && datasize[0] != 4))
 			throw new Exception ("Check Sum error, encoding and size do not match");
+		
+		// compressed segments hold the record count in the header
+		long recordCount = (fileLength - headerLength[0])/datasize[0];
+		if (this._compressed)
+			recordCount = CheckSum.getRecordCount(datasetName, datasize[0]);
 
-		if (highRange > (fileLength - CheckSum.FILE_CHECKSUM_LENGTH)/datasize[0])
-			this._filterHighRange = (int) (fileLength - CheckSum.FILE_CHECKSUM_LENGTH)/datasize[0];
+		if (highRange > recordCount)
+			this._filterHighRange = (int) recordCount;
 		else
 			this._filterHighRange = highRange;
 		
@@ -174,6 +195,50 @@ public class DimDataReader extends Observable implements Runnable {
 				", High Range : " + this._filterHighRange;
 	}
 	
+	/**
+	 * Constructor for creating a reader from a catalog entry, the file header is not
+	 * read and validated again
+	 * 
+	 * @param segment Catalog entry of the segment
+	 * @param lowRange
+	 * @param highRange
+	 * @throws Exception
+	 */
+	public DimDataReader(DatasetSegment segment, int lowRange, int highRange) throws Exception {
+		
+		if (segment == null)
+			throw new Exception ("Invalid segment!");
+		
+		if (segment.getFileType() != CheckSum.FILE_TYPE_DIM)
+			throw new Exception("Invalid file type!");
+		
+		if (lowRange <= 0 || highRange <= 0)
+			throw new Exception("Low range must be > 0 and high range must be > 0");
+		if (lowRange > highRange)
+			throw new Exception("Low range must be <= high range");
+		if (lowRange > HASIDSConstants.DIM_MAX_RECORDS || highRange > HASIDSConstants.DIM_MAX_RECORDS)
+			throw new Exception("Low range and high range must be <= " + HASIDSConstants.DIM_MAX_RECORDS);
+		
+		this._dbName = segment.getDbName();
+		this._datasetName = segment.getFileName();
+		this._filterLowRange = lowRange;
+		
+		if (highRange > segment.getRecordCount())
+			this._filterHighRange = segment.getRecordCount();
+		else
+			this._filterHighRange = highRange;
+		
+		this._dataLength = segment.getDataLength();
+		this._headerLength = segment.getHeaderLength();
+		this._encoding = segment.getEncoding();
+		this._segmentNo = segment.getSegmentNo();
+		this._compressed = CheckSum.isCompressedEncoding(segment.getFileType(), segment.getEncoding());
+		
+		this._classDescription = this.getClass().getName() + "//Database Name: " + this._dbName +
+				", Dataset Name : " + this._datasetName + ", Low range : " + this._filterLowRange + 
+				", High Range : " + this._filterHighRange;
+	}
+	
 	/**
 	 * Method specifically for MPP called by the wrapper
 	 * 
@@ -192,11 +257,13 @@ public class DimDataReader extends Observable implements Runnable {
 		
 		this._dbName = dbName;
 		this._datasetName = datasetName;
+		this._headerLength = CheckSum.getHeaderLength(datasetName);
 		this._filterLowRange = lowRange;
 		this._filterHighRange = highRange;
 		this._dataLength = dataLength;
 		this._encoding = encoding;
 		this._segmentNo = segmentNo;
+		this._compressed = CheckSum.isCompressedEncoding(fileType, encoding);
 		
 		this._classDescription = this.getClass().getName() + "//Database Name: " + this._dbName +
 				", Dataset Name : " + this._datasetName + ", Low range : " + this._filterLowRange + 
@@ -254,21 +321,6 @@ public class DimDataReader extends Observable implements Runnable {
 					_computedBitSet.set((int)(i + offset));
 			}
 		}
-		
-		if (!this._readDirty) {
-	    	// get any locked original records
-	    	Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-	    	Enumeration<Integer> e = h.keys();
-	    	int key = -1;
-	    	while (e.hasMoreElements()) {
-	    		key = e.nextElement();
-	    		if (key >= this._filterLowRange && key <= this._filterHighRange)
-	    			if (h.get(key) != 0)
-	    				_computedBitSet.set(key + offset);
-	    			else
-	    				_computedBitSet.set(key + offset, false);
-	    	}
-		}
 	}
 	
 	/**
@@ -333,26 +385,6 @@ public class DimDataReader extends Observable implements Runnable {
 				}
 			}
 		}
-		
-		if (!this._readDirty) {
-	    	// get any locked original records
-	    	Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-	    	Enumeration<Integer> e = h.keys();
-	    	int key = -1;
-	    	while (e.hasMoreElements()) {
-	    		key = e.nextElement();
-	    		if (key >= this._filterLowRange && key <= this._filterHighRange) {
-	    			read = h.get(key);
-	    			for (int j = 0; j <= k; j++) {
-	    				if (read >= rangeCheck[j][0] && read <= rangeCheck[j][1]) {
-	    					_computedBitSet.set(key + offset);
-	    				}
-	    				else
-	    					_computedBitSet.set(key + offset, false);
-	    			}
-	    		}
-	    	}
-		}
 	}
 	
 	private void readDataRangeMultiNot(MappedByteBuffer buffer, int k, int[][] rangeCheck, boolean multi) {
@@ -419,29 +451,6 @@ public class DimDataReader extends Observable implements Runnable {
 					_computedBitSet.set((int)(i + offset));
 			}
 		}
-		
-		if (!this._readDirty) {
-	    	// get any locked original records
-	    	Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-	    	Enumeration<Integer> e = h.keys();
-	    	int key = -1;
-	    	while (e.hasMoreElements()) {
-	    		key = e.nextElement();
-	    		if (key >= this._filterLowRange && key <= this._filterHighRange) {
-	    			read = h.get(key);
-	    			found = false;
-	    			for (j = 0; j <= k; j++) {
-	    				if (read >= rangeCheck[j][0] && read <= rangeCheck[j][1]) {
-	    					_computedBitSet.set(key + offset, false);
-	    					found = true;
-	    					break;
-	    				}
-	    			}
-	    			if (!found)
-	    				_computedBitSet.set(key + offset);
-	    		}
-	    	}
-		}
 	}
 	
 	/**
@@ -505,24 +514,6 @@ public class DimDataReader extends Observable implements Runnable {
 					}
 			}
 		}
-		
-		if (!this._readDirty) {
-			// get any locked original records
-	    	Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-	    	Enumeration<Integer> e = h.keys();
-	    	int key = -1;
-	    	while (e.hasMoreElements()) {
-	    		key = e.nextElement();
-	    		if (key >= this._filterLowRange && key <= this._filterHighRange) {
-	    			read = h.get(key);
-	    			for (int j = 0; j < this._filter.length; j++)
-	    				if (read == this._filter[j])
-	    					_computedBitSet.set(key + offset);
-	    				else
-	    					_computedBitSet.set(key + offset, false);
-	    		}
-	    	}
-		}
 	}
 	
 	private void readDataFilterMultiNot(MappedByteBuffer buffer, boolean multi) {
@@ -590,30 +581,6 @@ public class DimDataReader extends Observable implements Runnable {
 					_computedBitSet.set((int)(i + offset));
 			}
 		}
-		
-		if (!this._readDirty) {
-			// get any locked original records
-	    	Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-	    	Enumeration<Integer> e = h.keys();
-	    	int key = -1;
-	    	while (e.hasMoreElements()) {
-	    		key = e.nextElement();
-	    		if (key >= this._filterLowRange && key <= this._filterHighRange) {
-	    			read = h.get(key);
-	    			found = false;
-	    			for (j = 0; j < k; j++) {
-	    				if ((read ^ this._filter[j]) == 0) {
-	    					_computedBitSet.set(key + offset, false);
-	    					found = true;
-	    					break;
-	    				} 
-	    			}
-	    			
-	    			if (!found)
-						_computedBitSet.set((int)(key + offset));
-	    		}
-	    	}
-		}
 	}
 	
 	/**
@@ -665,21 +632,6 @@ public class DimDataReader extends Observable implements Runnable {
 					_computedBitSet.set((int)(i + offset));
 			}
 		}
-		
-		if (!this._readDirty) {
-			// get any locked original records
-	    	Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-	    	Enumeration<Integer> e = h.keys();
-	    	int key = -1;
-	    	while (e.hasMoreElements()) {
-	    		key = e.nextElement();
-	    		if (key >= this._filterLowRange && key <= this._filterHighRange)
-	    			if (h.get(key) == _filter[0])
-	    				_computedBitSet.set(key + offset);
-	    			else
-	    				_computedBitSet.set(key + offset, false);
-	    	}
-		}
 	}
 	
 	private void readDataSingleCheckMultiNot(MappedByteBuffer buffer, boolean multi) {
@@ -724,21 +676,6 @@ public class DimDataReader extends Observable implements Runnable {
 					_computedBitSet.set((int)(i + offset));
 			}
 		}
-		
-		if (!this._readDirty) {
-			// get any locked original records
-	    	Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-	    	Enumeration<Integer> e = h.keys();
-	    	int key = -1;
-	    	while (e.hasMoreElements()) {
-	    		key = e.nextElement();
-	    		if (key >= this._filterLowRange && key <= this._filterHighRange)
-	    			if (h.get(key) != _filter[0])
-	    				_computedBitSet.set(key + offset);
-	    			else
-	    				_computedBitSet.set(key + offset, false);
-	    	}
-		}
 	}
 	
 	/**
@@ -786,21 +723,6 @@ public class DimDataReader extends Observable implements Runnable {
 					_computedBitSet.set((int)(i + offset));
 			}
 		}
-		
-		if (!this._readDirty) {
-			// get any locked original records
-	    	Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-	    	Enumeration<Integer> e = h.keys();
-	    	int key = -1;
-	    	while (e.hasMoreElements()) {
-	    		key = e.nextElement();
-	    		if (key >= this._filterLowRange && key <= this._filterHighRange)
-	    			if (h.get(key) > _gtFilter)
-	    				_computedBitSet.set(key + offset);
-	    			else
-	    				_computedBitSet.set(key + offset, false);
-	    	}
-		}
 	}
 	
 	private void readDataGTEQ(MappedByteBuffer buffer, boolean multi) {
@@ -842,21 +764,6 @@ public class DimDataReader extends Observable implements Runnable {
 					_computedBitSet.set((int)(i + offset));
 			}
 		}
-		
-		if (!this._readDirty) {
-			// get any locked original records
-	    	Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-	    	Enumeration<Integer> e = h.keys();
-	    	int key = -1;
-	    	while (e.hasMoreElements()) {
-	    		key = e.nextElement();
-	    		if (key >= this._filterLowRange && key <= this._filterHighRange)
-	    			if (h.get(key) > _gtFilter)
-	    				_computedBitSet.set(key + offset);
-	    			else
-	    				_computedBitSet.set(key + offset, false);
-	    	}
-		}
 	}
 	
 	/**
@@ -904,21 +811,6 @@ public class DimDataReader extends Observable implements Runnable {
 					_computedBitSet.set((int)(i + offset));
 			}
 		}
-		
-		if (!this._readDirty) {
-			// get any locked original records
-	    	Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-	    	Enumeration<Integer> e = h.keys();
-	    	int key = -1;
-	    	while (e.hasMoreElements()) {
-	    		key = e.nextElement();
-	    		if (key >= this._filterLowRange && key <= this._filterHighRange) 
-	    			if (h.get(key) < _ltFilter)
-	    				_computedBitSet.set(key + offset);
-	    			else
-	    				_computedBitSet.set(key + offset, false);
-	    	}
-		}
 	}	
 	
 	private void readDataLTEQ(MappedByteBuffer buffer, boolean multi) {
@@ -960,21 +852,6 @@ public class DimDataReader extends Observable implements Runnable {
 					_computedBitSet.set((int)(i + offset));
 			}
 		}
-		
-		if (!this._readDirty) {
-			// get any locked original records
-	    	Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-	    	Enumeration<Integer> e = h.keys();
-	    	int key = -1;
-	    	while (e.hasMoreElements()) {
-	    		key = e.nextElement();
-	    		if (key >= this._filterLowRange && key <= this._filterHighRange)
-	    			if (h.get(key) < _ltFilter)
-	    				_computedBitSet.set(key + offset);
-	    			else
-	    				_computedBitSet.set(key + offset, false);
-	    	}
-		}
 	}
 	
 	/**
@@ -1022,21 +899,6 @@ public class DimDataReader extends Observable implements Runnable {
 					_computedBitSet.set((int)(i + offset));
 			}
 		}
-		
-		if (!this._readDirty) {
-			// get any locked original records
-	    	Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-	    	Enumeration<Integer> e = h.keys();
-	    	int key = -1;
-	    	while (e.hasMoreElements()) {
-	    		key = e.nextElement();
-	    		if (key >= this._filterLowRange && key <= this._filterHighRange)
-	    			if (h.get(key) >= _between1Filter && h.get(key) <= _between2Filter)
-	    				_computedBitSet.set(key + offset);
-	    			else
-	    				_computedBitSet.set(key + offset, false);
-	    	}
-		}
 	}	
 	
 	/**
@@ -1084,21 +946,6 @@ public class DimDataReader extends Observable implements Runnable {
 					_computedBitSet.set((int)(i + offset));
 			}
 		}
-		
-		if (!this._readDirty) {
-			// get any locked original records
-	    	Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-	    	Enumeration<Integer> e = h.keys();
-	    	int key = -1;
-	    	while (e.hasMoreElements()) {
-	    		key = e.nextElement();
-	    		if (key >= this._filterLowRange && key <= this._filterHighRange)
-	    			if (h.get(key) > _gtFilter || h.get(key) < _ltFilter)
-	    				_computedBitSet.set(key + offset);
-	    			else
-	    				_computedBitSet.set(key + offset, false);
-	    	}
-		}
 	}
 	
 	private void readDataGTEQOrLTEQ(MappedByteBuffer buffer, boolean multi) {
@@ -1140,21 +987,6 @@ public class DimDataReader extends Observable implements Runnable {
 					_computedBitSet.set((int)(i + offset));
 			}
 		}
-		
-		if (!this._readDirty) {
-			// get any locked original records
-	    	Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-	    	Enumeration<Integer> e = h.keys();
-	    	int key = -1;
-	    	while (e.hasMoreElements()) {
-	    		key = e.nextElement();
-	    		if (key >= this._filterLowRange && key <= this._filterHighRange)
-	    			if (h.get(key) >= _gtFilter || h.get(key) <= _ltFilter)
-	    				_computedBitSet.set(key + offset);
-	    			else
-	    				_computedBitSet.set(key + offset, false);
-	    	}
-		}
 	}
 	
 	/**
@@ -1203,24 +1035,6 @@ public class DimDataReader extends Observable implements Runnable {
 					_computedBitSet.set((int)(i + offset));
 			}
 		}
-		
-		if (!this._readDirty) {
-			// get any locked original records
-	    	Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-	    	Enumeration<Integer> e = h.keys();
-	    	int key = -1;
-	    	int value;
-	    	while (e.hasMoreElements()) {
-	    		key = e.nextElement();
-	    		value = h.get(key);
-	    		if (key >= this._filterLowRange && key <= this._filterHighRange)
-	    			if ((value > _gtFilter || value < _ltFilter) || 
-	    				(value >= _between1Filter && value <= _between2Filter))
-	    				_computedBitSet.set(key + offset);
-	    			else
-	    				_computedBitSet.set(key + offset, false);
-	    	}
-		}
 	}
 	
 	private void readDataGTEQAndLTEQandBETWEEN(MappedByteBuffer buffer, boolean multi) {
@@ -1262,23 +1076,239 @@ public class DimDataReader extends Observable implements Runnable {
 					_computedBitSet.set((int)(i + offset));
 			}
 		}
+	}
+	
+	/**
+	 * Returns the predicate equivalent to the filters set, evaluated in the same order of 
+	 * precedence as the scans of the fixed length encodings
+	 * 
+	 * @return value filter
+	 */
+	private DimValueFilter getValueFilter() {
+		final int gt = this._gtFilter, lt = this._ltFilter;
+		final int between1 = this._between1Filter, between2 = this._between2Filter;
+		
+		if (this._filter != null && this._filter.length > 0) {
+			final int[] filter = this._filter.clone();
+			final boolean not = this._not;
+			Arrays.sort(filter);
+			
+			return new DimValueFilter() {
+				public boolean accept(int value) {
+					return (Arrays.binarySearch(filter, value) >= 0) != not;
+				}
+			};
+		}
+		
+		final int mode;
+		if (this._gt && this._lt && this._between)
+			mode = 1;
+		else if (this._gtEq && this._ltEq && this._between)
+			mode = 2;
+		else if (this._gt && this._lt)
+			mode = 3;
+		else if (this._gtEq && this._ltEq)
+			mode = 4;
+		else if (this._gt)
+			mode = 5;
+		else if (this._gtEq)
+			mode = 6;
+		else if (this._lt)
+			mode = 7;
+		else if (this._ltEq)
+			mode = 8;
+		else if (this._between)
+			mode = 9;
+		else
+			mode = 0;
+		
+		return new DimValueFilter() {
+			public boolean accept(int value) {
+				switch (mode) {
+				case 1: return value > gt || value < lt || (value >= between1 && value <= between2);
+				case 2: return value >= gt || value <= lt || (value >= between1 && value <= between2);
+				case 3: return value > gt || value < lt;
+				case 4: return value >= gt || value <= lt;
+				case 5: return value > gt;
+				case 6: return value >= gt;
+				case 7: return value < lt;
+				case 8: return value <= lt;
+				case 9: return value >= between1 && value <= between2;
+				default: return value != 0; // all not null values
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Reads the data from a compressed dimension segment. The filters are evaluated on the
+	 * compressed form of the segment, once per run or per distinct code.
+	 * 
+	 * @throws Exception
+	 */
+	private void readDataCompressed() throws Exception {
+		
+		// track the beginning time of the job
+		long startTime = System.nanoTime();
+		
+		try {
+			// reset counters
+			this._filteredCount = 0;
+			
+			DimCompressedSegment segment = DimCompressedSegment.getSegment(this._datasetName, this._headerLength, this._encoding, this._verifyChecksums);
+			
+			// check if the bitset was set from outside
+			if (_computedBitSet == null)
+				_computedBitSet = new BitSet(this._filterHighRange - this._filterLowRange + 1);
+			
+			// offset to current position
+			int offset = 0;
+			if (this._multithread)
+				offset = this._filterLowRange - 1;
+			
+			segment.filter(this.getValueFilter(), this._filterLowRange - 1, this._filterHighRange, this._computedBitSet, 
+					offset - (this._filterLowRange - 1));
+		}
+		finally {
+			
+			// set the record count
+			if (this._computedBitSet != null)
+				this._filteredCount = this._computedBitSet.cardinality();
+			
+			// track the ending time of the process
+			long endTime = System.nanoTime();
+			
+			// calculate the elapsed time of the process in milli seconds
+			this._elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - startTime), TimeUnit.NANOSECONDS);
+			System.out.println("Compressed read time for " + this._datasetName + " (" + this._filterLowRange + ", " + this._filterHighRange + ") " + this._elapsedTimeInMillis);
+		}
+	}
+	
+	/**
+	 * Resolves a single GT, GTEQ, LT, LTEQ or BETWEEN filter on a sorted or clustered segment
+	 * to one range of positions per run, by binary search over the mapped range. The original
+	 * values of the records locked by writers are checked as in the scans.
+	 * 
+	 * @return false if the filter is not a single range filter or the segment has no current
+	 * runs file with at most SortedRuns.MAX_RUNS runs
+	 * @throws Exception
+	 */
+	private boolean readDataSortedRuns() throws Exception {
+		int rangeFilters = (this._gt ? 1 : 0) + (this._gtEq ? 1 : 0) + (this._lt ? 1 : 0) + (this._ltEq ? 1 : 0) + (this._between ? 1 : 0);
+		if (rangeFilters != 1 || (this._filter != null && this._filter.length > 0))
+			return false;
 		
-		if (!this._readDirty) {
-			// get any locked original records
-	    	Hashtable<Integer, Integer> h = DimDataWriter.getLockedKeys(this._dbName, this._datasetName);
-	    	Enumeration<Integer> e = h.keys();
-	    	int key = -1;
-	    	int value;
-	    	while (e.hasMoreElements()) {
-	    		key = e.nextElement();
-	    		value = h.get(key);
-	    		if (key >= this._filterLowRange && key <= this._filterHighRange)
-	    			if ((value >= _gtFilter || value <= _ltFilter) || 
-	    				(value >= _between1Filter && value <= _between2Filter))
-	    				_computedBitSet.set(key + offset);
-	    			else
-	    				_computedBitSet.set(key + offset, false);
-	    	}
+		File f = new File(this._datasetName);
+		SortedRuns runs = null;
+		try {
+			runs = SortedRuns.getRuns(this._datasetName);
+		}
+		catch (Exception e) {
+			// the values are scanned
+			e.printStackTrace();
+		}
+		
+		if (runs == null || !runs.isClustered() || !runs.isCurrent(f.lastModified(), (int)((f.length() - this._headerLength) / this._dataLength)))
+			return false;
+		
+		// track the beginning time of the job
+		long startTime = System.nanoTime();
+		
+		RandomAccessFile aFile = new RandomAccessFile(this._datasetName, "r");
+		FileChannel inChannel = aFile.getChannel();
+		
+		try {
+			// reset counters
+			this._filteredCount = 0;
+			
+			int mapSize = (this._filterHighRange - this._filterLowRange + 1) * this._dataLength;
+			MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (long)(this._filterLowRange - 1) * this._dataLength + this._headerLength, mapSize);
+			
+			// verify the block checksums of the mapped range
+			if (this._verifyChecksums)
+				BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(this._filterLowRange - 1) * this._dataLength, mapSize);
+			
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			
+			// check if the bitset was set from outside
+			if (_computedBitSet == null)
+				_computedBitSet = new BitSet(this._filterHighRange - this._filterLowRange + 1);
+			
+			// offset to current position
+			int offset = 0;
+			if (this._multithread)
+				offset = this._filterLowRange - 1;
+			
+			long low = (this._gt || this._gtEq ? this._gtFilter : (this._between ? this._between1Filter : Long.MIN_VALUE));
+			long high = (this._lt || this._ltEq ? this._ltFilter : (this._between ? this._between2Filter : Long.MAX_VALUE));
+			
+			runs.filter(buffer, this._filterLowRange - 1, this._filterLowRange - 1, this._filterHighRange, low, !this._gt, 
+					high, !this._lt, this._computedBitSet, offset - (this._filterLowRange - 1));
+		}
+		finally {
+			inChannel.close();
+			aFile.close();
+			
+			// set the record count
+			if (this._computedBitSet != null)
+				this._filteredCount = this._computedBitSet.cardinality();
+			
+			// calculate the elapsed time of the process in milli seconds
+			this._elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((System.nanoTime() - startTime), TimeUnit.NANOSECONDS);
+			System.out.println("Sorted runs read time for " + this._datasetName + " (" + this._filterLowRange + ", " + this._filterHighRange + ") " + this._elapsedTimeInMillis);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Reads the data from the dimension dataset at the version of the dataset pinned before the
+	 * read, unless dirty reads are enabled. The records changed after the version are undone
+	 * with the values they had at the version, and the values committed to the delta store of
+	 * the dataset at the version that are not yet merged into it are overlaid. The runs of the
+	 * store are taken before the dataset is read so that runs merged during the read are still
+	 * applied. The deleted positions are taken before the version is pinned and removed from
+	 * the result last.
+	 * 
+	 * @throws Exception
+	 */
+	private void readData () throws Exception {
+		ImmutableRoaringBitmap deleted = DeletionBitmap.getDeleted(this._datasetName);
+		DatasetVersions.Snapshot snapshot = this._snapshot;
+		boolean pinned = (snapshot == null && !this._readDirty);
+		if (pinned)
+			snapshot = DatasetVersions.pin(this._dbName, this._datasetName);
+		
+		try {
+			DimDeltaStore.Snapshot deltas = DimDeltaStore.getSnapshot(this._dbName, this._datasetName, 
+					(snapshot == null ? Long.MAX_VALUE : snapshot.getVersion()));
+			
+			this.readSegment();
+			
+			if (this._computedBitSet == null)
+				return;
+			
+			int offset = (this._multithread ? 0 : -(this._filterLowRange - 1));
+			DatasetVersions.Undo undo = (snapshot == null || this._compressed ? null : 
+				snapshot.getUndo(this._filterLowRange - 1, this._filterHighRange - 1));
+			
+			if (undo != null) {
+				DimValueFilter filter = this.getValueFilter();
+				for (int i = 0; i < undo.size(); i++)
+					this._computedBitSet.set(undo.getPosition(i) + offset, filter.accept((int) undo.getLong(i)));
+			}
+			
+			if (deltas != null)
+				deltas.apply(this._computedBitSet, this._filterLowRange - 1, this._filterHighRange - 1, offset, this.getValueFilter());
+			
+			boolean changed = DeletionBitmap.apply(deleted, this._computedBitSet, this._filterLowRange - 1, this._filterHighRange - 1, offset, false);
+			
+			if (undo != null || deltas != null || changed)
+				this._filteredCount = this._computedBitSet.cardinality();
+		}
+		finally {
+			if (pinned)
+				snapshot.release();
 		}
 	}
 	
@@ -1289,7 +1319,17 @@ public class DimDataReader extends Observable implements Runnable {
 	 * 
 	 * @throws Exception
 	 */
-	private void readData () throws Exception {
+	private void readSegment () throws Exception {
+		
+		// compressed segments are filtered without decoding the records
+		if (this._compressed) {
+			this.readDataCompressed();
+			return;
+		}
+		
+		// range filters on sorted or clustered segments are resolved by binary search
+		if (this.readDataSortedRuns())
+			return;
 		
 		// track the beginning time of the job
 		long startTime = System.nanoTime();
@@ -1384,7 +1424,11 @@ public class DimDataReader extends Observable implements Runnable {
             //System.out.println("Map size/File size in bytes : " + mapSize + "/" + fileSize);
             
             // Temporary buffer to pull data from memory 
-            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (this._filterLowRange - 1) * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH, mapSize);
+            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (this._filterLowRange - 1) * this._dataLength + this._headerLength, mapSize);
+            
+            // verify the block checksums of the mapped range
+            if (this._verifyChecksums)
+            	BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(this._filterLowRange - 1) * this._dataLength, mapSize);
             
             // set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
             buffer.order(ByteOrder.LITTLE_ENDIAN);
@@ -1484,6 +1528,14 @@ public class DimDataReader extends Observable implements Runnable {
 		
 		int[] values = new int[positions.length];
 		
+		if (this._compressed) {
+			DimCompressedSegment segment = DimCompressedSegment.getSegment(this._datasetName, this._headerLength, this._encoding, this._verifyChecksums);
+			for (int i = 0; i < positions.length; i++)
+				values[i] = segment.getValue(this._filterLowRange - 2 + positions[i]);
+			
+			return values;
+		}
+		
 		// track the beginning time of the job
 		long startTime = System.nanoTime();
 		
@@ -1500,7 +1552,11 @@ public class DimDataReader extends Observable implements Runnable {
             int mapSize = (this._filterHighRange - this._filterLowRange + 1) * this._dataLength;
             
             // Map the file into memory
-            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (this._filterLowRange - 1) * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH, mapSize);
+            MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, (this._filterLowRange - 1) * this._dataLength + this._headerLength, mapSize);
+            
+            // verify the block checksums of the mapped range
+            if (this._verifyChecksums)
+            	BlockCheckSum.verify(this._dbName, this._datasetName, inChannel, this._headerLength, buffer, (long)(this._filterLowRange - 1) * this._dataLength, mapSize);
             
             // set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
             buffer.order(ByteOrder.LITTLE_ENDIAN);
@@ -1643,6 +1699,16 @@ public class DimDataReader extends Observable implements Runnable {
 		this._readDirty = false;
 	}
 	
+	/**
+	 * Sets the version of the dataset read when the version is pinned by the caller, so that the
+	 * readers of the ranges of a multithreaded read see the same version. The caller releases it.
+	 * 
+	 * @param snapshot Version pinned by the caller
+	 */
+	public void setSnapshot(DatasetVersions.Snapshot snapshot) {
+		this._snapshot = snapshot;
+	}
+	
 	/**
 	 * Set an array of characters as filters for data read operations.
 	 * 
@@ -1745,7 +1811,45 @@ public class DimDataReader extends Observable implements Runnable {
 			if (positions[i] < 1)
 				throw new Exception("Positions for getting values cannot be < 1");
 		
-		return this.readValues(positions);
+		ImmutableRoaringBitmap deleted = DeletionBitmap.getDeleted(this._datasetName);
+		DatasetVersions.Snapshot snapshot = this._snapshot;
+		boolean pinned = (snapshot == null && !this._readDirty);
+		if (pinned)
+			snapshot = DatasetVersions.pin(this._dbName, this._datasetName);
+		
+		try {
+			DimDeltaStore.Snapshot deltas = DimDeltaStore.getSnapshot(this._dbName, this._datasetName, 
+					(snapshot == null ? Long.MAX_VALUE : snapshot.getVersion()));
+			int[] values = this.readValues(positions);
+			
+			// values changed after the pinned version are undone
+			DatasetVersions.Undo undo = (snapshot == null || this._compressed ? null : 
+				snapshot.getUndo(0, Integer.MAX_VALUE - 1));
+			if (undo != null) {
+				for (int i = 0; i < positions.length; i++) {
+					int j = undo.indexOf(positions[i] - 1);
+					if (j >= 0)
+						values[i] = (int) undo.getLong(j);
+				}
+			}
+			
+			// values committed to the delta store and not yet merged replace the values read
+			if (deltas != null)
+				for (int i = 0; i < positions.length; i++)
+					values[i] = deltas.getValue(positions[i] - 1, values[i]);
+			
+			// deleted records are null
+			if (deleted != null)
+				for (int i = 0; i < positions.length; i++)
+					if (deleted.contains(positions[i] - 1))
+						values[i] = 0;
+			
+			return values;
+		}
+		finally {
+			if (pinned)
+				snapshot.release();
+		}
 	}
 	
 	/**
@@ -1781,6 +1885,21 @@ public class DimDataReader extends Observable implements Runnable {
 		return retVal;
 	}
 	
+	/**
+	 * Method to enable the verification of the block checksums of the data read. When
+	 * enabled, every mapped range is checked against the block checksum file (if the dataset
+	 * has one) before it is read and a mismatch fails the read.
+	 * 
+	 * @param verifyChecksums
+	 */
+	public void setVerifyChecksums(boolean verifyChecksums) {
+		this._verifyChecksums = verifyChecksums;
+	}
+	
+	public boolean getVerifyChecksums() {
+		return this._verifyChecksums;
+	}
+	
 	/**
 	 * Method to set the BitSet into which matching record ids are set
 	 * 
@@ -1821,23 +1940,27 @@ public class DimDataReader extends Observable implements Runnable {
 		int[] segmentNo = new int[1];
 		int[] datasize = new int[1];
 		short[] decimals = new short[1];
+		int[] headerLength = new int[1];
 		
 		int read = -1;
 		int i = -1;
 		try {	
-			CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo);
+			CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
+			
+			if (CheckSum.isCompressedEncoding(fileType[0], encoding[0]))
+				throw new Exception ("Distributions are not supported for compressed segment " + datasetName + ", use getData()");
 			
 			aFile = new RandomAccessFile(datasetName, "r");
 			inChannel = aFile.getChannel();
 			//buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, CheckSum.FILE_CHECKSUM_LENGTH, (fileSize - CheckSum.FILE_CHECKSUM_LENGTH));
-			buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, CheckSum.FILE_CHECKSUM_LENGTH, (fileSize - CheckSum.FILE_CHECKSUM_LENGTH));
+			buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, headerLength[0], (fileSize - headerLength[0]));
 			// set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
             buffer.order(ByteOrder.LITTLE_ENDIAN);
 			
             //System.out.println("Checking entire range of characters in multi thread mode");
 			// offset to current position
 			
-			int count = (fileSize - CheckSum.FILE_CHECKSUM_LENGTH)/datasize[0];
+			int count = (fileSize - headerLength[0])/datasize[0];
 			for (int j = 0; j < noDistributions + 1; j++)
 				b[j] = new BitSet(count);
 			
@@ -1937,23 +2060,27 @@ public class DimDataReader extends Observable implements Runnable {
 		int[] segmentNo = new int[1];
 		int[] datasize = new int[1];
 		short[] decimals = new short[1];
+		int[] headerLength = new int[1];
 		
 		int read = -1;
 		int i = -1;
 		try {	
-			CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo);
+			CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
+			
+			if (CheckSum.isCompressedEncoding(fileType[0], encoding[0]))
+				throw new Exception ("Distributions are not supported for compressed segment " + datasetName + ", use getData()");
 			
 			aFile = new RandomAccessFile(datasetName, "r");
 			inChannel = aFile.getChannel();
 			//buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, CheckSum.FILE_CHECKSUM_LENGTH, (fileSize - CheckSum.FILE_CHECKSUM_LENGTH));
-			buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, CheckSum.FILE_CHECKSUM_LENGTH, (fileSize - CheckSum.FILE_CHECKSUM_LENGTH));
+			buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, headerLength[0], (fileSize - headerLength[0]));
 			// set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
             buffer.order(ByteOrder.LITTLE_ENDIAN);
 			
             //System.out.println("Checking entire range of characters in multi thread mode");
 			// offset to current position
 			
-			int count = (fileSize - CheckSum.FILE_CHECKSUM_LENGTH)/datasize[0];
+			int count = (fileSize - headerLength[0])/datasize[0];
 			for (int j = 0; j < noDistributions + 1; j++)
 				b[j] = new RoaringBitmap();
 			
@@ -2037,23 +2164,27 @@ public class DimDataReader extends Observable implements Runnable {
 		int[] segmentNo = new int[1];
 		int[] datasize = new int[1];
 		short[] decimals = new short[1];
+		int[] headerLength = new int[1];
 		
 		int read = -1;
 		int i = -1;
 		try {	
-			CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo);
+			CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
+			
+			if (CheckSum.isCompressedEncoding(fileType[0], encoding[0]))
+				throw new Exception ("Distributions are not supported for compressed segment " + datasetName + ", use getData()");
 			
 			aFile = new RandomAccessFile(datasetName, "r");
 			inChannel = aFile.getChannel();
 			//buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, CheckSum.FILE_CHECKSUM_LENGTH, (fileSize - CheckSum.FILE_CHECKSUM_LENGTH));
-			buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, CheckSum.FILE_CHECKSUM_LENGTH, (fileSize - CheckSum.FILE_CHECKSUM_LENGTH));
+			buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, headerLength[0], (fileSize - headerLength[0]));
 			// set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
             buffer.order(ByteOrder.LITTLE_ENDIAN);
 			
             //System.out.println("Checking entire range of characters in multi thread mode");
 			// offset to current position
 			
-			int count = (fileSize - CheckSum.FILE_CHECKSUM_LENGTH)/datasize[0];
+			int count = (fileSize - headerLength[0])/datasize[0];
 			MutableRoaringBitmap b = null;
 			
 			if (datasize[0] == 1) { // single byte
@@ -10,16 +10,26 @@ package com.hasids.io.dim;
 import java.io.File;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
-import java.util.Enumeration;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Hashtable;
-import java.util.Iterator;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.hasids.HASIDSConstants;
+import com.hasids.datastructures.BlockCheckSum;
 import com.hasids.datastructures.CheckSum;
+import com.hasids.datastructures.SortedRuns;
+import com.hasids.io.DatasetVersions;
+import com.hasids.io.PageOrder;
+import com.hasids.io.PositionValueMap;
+import com.hasids.io.PositionLockManager;
+import com.hasids.io.WriteAheadLog;
+import com.hasids.io.dataset.DatasetCatalog;
+import com.hasids.io.dataset.DatasetSegment;
+import com.hasids.io.dataset.DeletionBitmap;
 
 import java.nio.*;
 
@@ -52,17 +62,21 @@ public class DimDataWriter implements Runnable {
 	/*lock - begin transaction, update/write, retry success, update/write, unlock - end transaction, commit*/
 	/*lock - begin transaction, update/write, retry failure, rollback - update/write original, unlock - end transaction*/
 	
-	// Data write buffer that is static
-	private static Hashtable<String, Hashtable<Integer, int[]>> LOCK_TABLE = 
-			new Hashtable<String, Hashtable<Integer, int[]>>();
-	
 	public Logger logger = LoggerFactory.getLogger(DimDataWriter.class);
 	
-	// The position table associated with a dataset stored within the LOCK_TABLE
-	Hashtable<Integer, int[]> _positionTable = null;
+	// Lock manager of the positions of the dataset shared by all the sessions writing to it
+	PositionLockManager _lockManager = null;
+	
+	// Write ahead log of the directory of the dataset and the id of the session in the log, ONLINE mode only
+	private WriteAheadLog _log = null;
+	private long _txId = 0;
+	private boolean _aborted = false;
+	
+	// Delta store of the dataset if it is enabled, ONLINE mode only
+	private DimDeltaStore _deltaStore = null;
 	
 	// The position and values table for setting data values
-	Hashtable<Integer, Integer> _posValuesTable = null;
+	PositionValueMap _posValuesTable = null;
 	
 	// instance variables determining whether partial updates are allowed
 	// if partial updates are not allowed, then an exception will be thrown back
@@ -72,7 +86,7 @@ public class DimDataWriter implements Runnable {
 	
 	// retry flag, this flag indicates if those records not available due to lock
 	// by a different instance must be retried for updates after the rest are complete
-	private Hashtable<Integer, Integer> _retryTable = new Hashtable<Integer, Integer>();
+	private PositionValueMap _retryTable = null;
 	
 	// retry flag that determines if records that could not be written must be retried
 	// for updates.
@@ -91,6 +105,7 @@ public class DimDataWriter implements Runnable {
 	private int _encoding;
 	private int _segmentNo;
 	private int _dataLength;
+	private int _headerLength = CheckSum.FILE_V2_HEADER_LENGTH;
 	private short _decimals = 0;
 	
 	private RandomAccessFile _randomAccessFile;
@@ -143,10 +158,12 @@ public class DimDataWriter implements Runnable {
 			int[] segmentNo = new int[1];
 			int[] datasize = new int[1];
 			short[] decimals = new short[1];
+			int[] headerLength = new int[1];
 			
-			CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo);
+			CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
 			
-			this._recordCount = (((int)f.length()) - CheckSum.FILE_CHECKSUM_LENGTH)/datasize[0];
+			this._headerLength = headerLength[0];
+			this._recordCount = (((int)f.length()) - this._headerLength)/datasize[0];
 			logger.info("Record count from CheckSum: " + this._recordCount);
 			
 			/*if (fileType[0] != CheckSum.FILE_TYPE_DIM)
@@ -167,6 +184,8 @@ public class DimDataWriter implements Runnable {
 			*/
 			
 			this.checkEncodingExisting(fileType[0], encoding[0], datasize[0], decimals[0]);
+			this._segmentNo = segmentNo[0];
+			this._decimals = decimals[0];
 			
 			// generate the session Id for this instance of the write class
 			this._sessionId = System.nanoTime();
@@ -295,38 +314,26 @@ public class DimDataWriter implements Runnable {
 			
 			RandomAccessFile randomAccessFile = new RandomAccessFile(this._datasetName, "rw");
 			FileChannel rwChannel = randomAccessFile.getChannel();
-			MappedByteBuffer buffer = rwChannel.map(FileChannel.MapMode.READ_WRITE, 0, (this._recordCount * this._dataLength) + CheckSum.FILE_CHECKSUM_LENGTH);
-			
-			// Write the CL at the beginning of the file
-			buffer.position(0); // reset to position 0
-			buffer.put(this.getFileType()); // write the file type - DIM 1
-			buffer.put(this.getEncoding()); // write the encoding type
-			buffer.putInt(this.getSegmentNo()); // write the segment no
-			
-			//buffer.put((byte)0); // write the data length byte 0 as 0
-			//buffer.put((byte)0); // write the data length byte 1 as 0
-			//buffer.put((byte)0); // write the data length byte 2 as 0
-			//buffer.put((byte)this._dataLength); // write the data length byte 3 as 1
-			buffer.putInt(this.getDataLength());
-			
-			//buffer.put((byte)0); // write the decimal length byte 0 as 0
-			//buffer.put((byte)0); // write the decimal length byte 1 as 0
-			buffer.putShort(this.getDecimals());
-			
-			// write the dataset name and data set size
-			buffer.put(CheckSum.computeCS(this.getDbName() + "|" + this.getDatasetName(), ((this.getRecordCount() * this.getDataLength()) + CheckSum.FILE_CHECKSUM_LENGTH)));
+			this._headerLength = CheckSum.FILE_V2_HEADER_LENGTH;
+			MappedByteBuffer buffer = rwChannel.map(FileChannel.MapMode.READ_WRITE, 0, (this._recordCount * this._dataLength) + this._headerLength);
 			
 			// calculate the current time
 			long lastModifiedTime = System.currentTimeMillis();
 			
-			// Add it to the buffer
-			buffer.put(Long.toString(CheckSum.computeTFS(lastModifiedTime)).getBytes());
+			// Write the version 2 header at the beginning of the file
+			CheckSum.writeHeaderV2(buffer, this.getFileType(), this.getEncoding(), this.getSegmentNo(), this.getDataLength(), this.getDecimals(), 
+					this.getRecordCount(), this.getDbName() + "|" + this.getDatasetName(), 
+					((long)this.getRecordCount() * this.getDataLength()) + this._headerLength, lastModifiedTime);
 			buffer.force();
 			rwChannel.close();
 			randomAccessFile.close();
 			
 			// set the last modified time
 			f.setLastModified(lastModifiedTime);
+			this.refreshCatalog(f);
+			
+			// checksum the data blocks of the new segment
+			BlockCheckSum.build(this._datasetName, this._headerLength);
 			
 			System.out.println("File " + this._datasetName + " length = " + f.length());
 			
@@ -556,14 +563,8 @@ public class DimDataWriter implements Runnable {
 		this._allowPartial = allowPartial;
 		this._retryFlag = retryFlag;
 		
-		synchronized (this) {
-			// Position table; hashtable of positions and values associated with multiple sessions of this dataset
-			this._positionTable = DimDataWriter.LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-			if (this._positionTable == null) {
-				this._positionTable = new Hashtable<Integer, int[]>(positions.length);
-				DimDataWriter.LOCK_TABLE.put(this._dbName + "|" + this._datasetName, this._positionTable);
-			}
-		}
+		// Lock manager of the dataset shared by all the sessions writing to it
+		this._lockManager = PositionLockManager.getLockManager(this._dbName + "|" + this._datasetName, this._dataLength);
 		
 		long endTime = System.nanoTime();
 		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -575,8 +576,10 @@ public class DimDataWriter implements Runnable {
 			throw new Exception (message);
 		}
 		
-		// create the position values hashtable
-		this._posValuesTable = new Hashtable<Integer, Integer>(positions.length);
+		// create the position values map
+		this._posValuesTable = new PositionValueMap(4, positions.length);
+		if (this._retryTable == null)
+			this._retryTable = new PositionValueMap(4, 0);
 		
 		endTime = System.nanoTime();
 		elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -585,7 +588,7 @@ public class DimDataWriter implements Runnable {
         
 		this._randomAccessFile = new RandomAccessFile(this._datasetName, "r");
 		this._rwChannel = _randomAccessFile.getChannel();
-		this._buffer = this._rwChannel.map(FileChannel.MapMode.READ_ONLY, (this._lowRange * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH), (this._highRange - this._lowRange + 1) * this._dataLength);
+		this._buffer = this._rwChannel.map(FileChannel.MapMode.READ_ONLY, (this._lowRange * this._dataLength + this._headerLength), (this._highRange - this._lowRange + 1) * this._dataLength);
 		// set the byte order
 		this._buffer.order(ByteOrder.LITTLE_ENDIAN);
 		
@@ -601,41 +604,32 @@ public class DimDataWriter implements Runnable {
         System.out.println("Time to Map file into memory : " + elapsedTimeInMillis + "  Milliseconds");
         beginTime = System.nanoTime();
         
-        synchronized (this._positionTable) {
-	        for (i = 0; i < positions.length; i++) {
-				//if (i % 100000 == 0)
-				//	System.out.println("Position : " + position[i]);
-				
-				// Add the record ids to the position table if the record id is not locked
-				// Array 0 - new value, array 1 = old value
-				if (!this._positionTable.containsKey(positions[i])) {
-					
-					// lock the position by adding it to the position table
-					if (this._dataLength == 1)
-						this._positionTable.put(positions[i], new int[] {values[i], this._buffer.get((positions[i] - this._lowRange))});
-					else if(this._dataLength == 2)
-						this._positionTable.put(positions[i], new int[] {values[i], this._buffer.getShort((positions[i] - this._lowRange) * this._dataLength)});
-					else if(this._dataLength == 4)
-						this._positionTable.put(positions[i], new int[] {values[i], this._buffer.getInt((positions[i] - this._lowRange) * this._dataLength)});
-					
-					// add the position and value to the pos values table; this will be used to 
-					// actually write to the file
-					this._posValuesTable.put(positions[i], values[i]);
-				}
-				else {
-					if (!this._allowPartial && !this._retryFlag) {
-						sReturn.put(positions[i], values[i]);
-						writeStatus = false;
-						message = "Records locked for updating by another session";
-						break;
-					}
-								
-					// if retry flag is true, add the positions to the retry table
-					if (this._retryFlag)
-						this._retryTable.put(positions[i], values[i]); 
-				}			
+		// lock the positions not locked by another session, saving their values in the file for a rollback
+		BitSet conflicts = this._lockManager.lock(this, positions, this._buffer, this._lowRange, !this._allowPartial && !this._retryFlag);
+		
+		for (i = 0; i < positions.length; i++) {
+			//if (i % 100000 == 0)
+			//	System.out.println("Position : " + position[i]);
+			
+			// Add the record ids locked by this session to the pos values table
+			if (!conflicts.get(i)) {
+				// add the position and value to the pos values table; this will be used to 
+				// actually write to the file
+				this._posValuesTable.putInt(positions[i], values[i]);
 			}
-        }
+			else {
+				if (!this._allowPartial && !this._retryFlag) {
+					sReturn.put(positions[i], values[i]);
+					writeStatus = false;
+					message = "Records locked for updating by another session";
+					break;
+				}
+							
+				// if retry flag is true, add the positions to the retry table
+				if (this._retryFlag)
+					this._retryTable.putInt(positions[i], values[i]); 
+			}			
+		}
         
 		endTime = System.nanoTime();
 		elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -656,6 +650,37 @@ public class DimDataWriter implements Runnable {
 		
 	}
 	
+	/**
+	 * @return positions locked by this session
+	 */
+	private int[] getLockedPositions() {
+		return this._posValuesTable.keys();
+	}
+	
+	/**
+	 * Logs the values saved for locked positions before their pages are modified and opens them
+	 * as an undo delta for the readers of the dataset, ONLINE mode only
+	 * 
+	 * @param positions Positions locked by this session
+	 * @throws Exception
+	 */
+	private void logUndo(int[] positions) throws Exception {
+		if (positions.length == 0 || this._deltaStore != null)
+			return;
+		
+		if (this._log == null)
+			this._log = WriteAheadLog.getLog(this._datasetName);
+		
+		if (this._txId == 0)
+			this._txId = this._log.begin(this);
+		
+		byte[] undo = this._lockManager.getUndo(this, positions);
+		this._log.logUndo(this._txId, this._dbName, this._datasetName, this._headerLength, this._dataLength, positions, undo);
+		
+		// readers undo the positions of this session until it ends
+		DatasetVersions.getVersions(this._dbName, this._datasetName).open(this, this._dataLength, positions, undo);
+	}
+	
 	/**
 	 * Method to remove the keys associated with the current session from the position table
 	 */
@@ -666,21 +691,11 @@ public class DimDataWriter implements Runnable {
 		// do we have a valid position values table
 		if (this._posValuesTable == null || this._posValuesTable.size() <= 0) return;
 		
-		// do we have a valid position table
-		if (this._positionTable == null)
-			this._positionTable = LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-		
-		// remove from the position table all the keys associated with pos values buffer
-		Iterator<Integer> it = this._posValuesTable.keySet().iterator();
-		Integer i = null;
-		while(it.hasNext()) {
-			i = it.next();
-			this._positionTable.remove(i);
-		}
-		
-		// if position table is empty, remove it from the lock table
-		if (this._positionTable.size() <= 0)
-			LOCK_TABLE.remove(this._dbName + "|" + this._datasetName);
+		// release the positions locked by this session
+		if (this._lockManager == null)
+			this._lockManager = PositionLockManager.getLockManager(this._dbName + "|" + this._datasetName);
+		if (this._lockManager != null)
+			this._lockManager.unlock(this, this.getLockedPositions());
 		
 		// clear the pos values table
 		this._posValuesTable.clear();
@@ -700,24 +715,25 @@ public class DimDataWriter implements Runnable {
 	/**
 	 * Method to write single bytes into the buffer
 	 * 
+	 * @param order Indexes of the positions in page order in BATCH mode, null if already in page order,
+	 * positions locked by this session in page order in ONLINE mode
 	 * @throws Exception
 	 */
-	private void writeToSegmentTypeByte() throws Exception {
+	private void writeToSegmentTypeByte(int[] order) throws Exception {
 		if (this._operationalMode == HASIDSConstants.OPERATION_MODE_BATCH) {
-			for (int i = 0; i < _positionsLength; i++)
+			int count = (order == null ? this._positionsLength : order.length);
+			for (int k = 0; k < count; k++) {
+				int i = (order == null ? k : order[k]);
 				this._buffer.put((this._position[i] - this._lowRange), (byte)this._values[i]);
+			}
 		}
 		else if (this._operationalMode == HASIDSConstants.OPERATION_MODE_ONLINE) {
-			if (this._positionTable == null)
-				this._positionTable = LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-			
 			int i = -1;
-			Enumeration<Integer> e = this._posValuesTable.keys();
-			while (e.hasMoreElements()) {
-				i = e.nextElement();
+			for (int k = 0; k < order.length; k++) {
+				i = order[k];
 				
 				// write to dataset
-				this._buffer.put((i - this._lowRange), (byte)this._positionTable.get(i)[0]);
+				this._buffer.put((i - this._lowRange), (byte)this._posValuesTable.getInt(i));
 				
 			}
 		}
@@ -726,12 +742,16 @@ public class DimDataWriter implements Runnable {
 	/**
 	 * Method to write single bytes into the buffer
 	 * 
+	 * @param order Indexes of the positions in page order in BATCH mode, null if already in page order,
+	 * positions locked by this session in page order in ONLINE mode
 	 * @throws Exception
 	 */
-	private void writeToSegmentTypeShort() throws Exception {
+	private void writeToSegmentTypeShort(int[] order) throws Exception {
 		//byte[] shortBytes = new byte[2];
 		if (this._operationalMode == HASIDSConstants.OPERATION_MODE_BATCH) {
-			for (int i = 0; i < _positionsLength; i++) {
+			int count = (order == null ? this._positionsLength : order.length);
+			for (int k = 0; k < count; k++) {
+				int i = (order == null ? k : order[k]);
 				//shortBytes = ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN).putShort((short)this._values[i]).array();
 				this._buffer.position((this._position[i] - this._lowRange) * this._dataLength);
 				//this._buffer.put(shortBytes);
@@ -739,16 +759,12 @@ public class DimDataWriter implements Runnable {
 			}
 		}
 		else if (this._operationalMode == HASIDSConstants.OPERATION_MODE_ONLINE) {
-			if (this._positionTable == null)
-				this._positionTable = LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-			
 			int i = -1;
 			int value = 0;
-			Enumeration<Integer> e = this._posValuesTable.keys();
-			while (e.hasMoreElements()) {
-				i = e.nextElement();
+			for (int k = 0; k < order.length; k++) {
+				i = order[k];
 				
-				value = this._posValuesTable.get(i);
+				value = this._posValuesTable.getInt(i);
 				// write to dataset
 				this._buffer.putShort((i - this._lowRange) * this._dataLength, (short)value);
 				
@@ -759,12 +775,16 @@ public class DimDataWriter implements Runnable {
 	/**
 	 * Method to write single bytes into the buffer
 	 * 
+	 * @param order Indexes of the positions in page order in BATCH mode, null if already in page order,
+	 * positions locked by this session in page order in ONLINE mode
 	 * @throws Exception
 	 */
-	private void writeToSegmentTypeInt() throws Exception {
+	private void writeToSegmentTypeInt(int[] order) throws Exception {
 		//byte[] intBytes = new byte[4];
 		if (this._operationalMode == HASIDSConstants.OPERATION_MODE_BATCH) {
-			for (int i = 0; i < _positionsLength; i++) {
+			int count = (order == null ? this._positionsLength : order.length);
+			for (int k = 0; k < count; k++) {
+				int i = (order == null ? k : order[k]);
 				//intBytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(this._values[i]).array();
 				this._buffer.position((this._position[i] - this._lowRange) * this._dataLength);
 				//this._buffer.put(intBytes);
@@ -772,16 +792,12 @@ public class DimDataWriter implements Runnable {
 			}
 		}
 		else if (this._operationalMode == HASIDSConstants.OPERATION_MODE_ONLINE) {
-			if (this._positionTable == null)
-				this._positionTable = LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-			
 			int i = -1;
-			Enumeration<Integer> e = this._posValuesTable.keys();
-			while (e.hasMoreElements()) {
-				i = e.nextElement();
+			for (int k = 0; k < order.length; k++) {
+				i = order[k];
 				
 				// write to dataset
-				this._buffer.putInt((i - this._lowRange) * this._dataLength, this._positionTable.get(i)[0]);
+				this._buffer.putInt((i - this._lowRange) * this._dataLength, this._posValuesTable.getInt(i));
 				
 			}
 		}
@@ -793,83 +809,70 @@ public class DimDataWriter implements Runnable {
 	private void retry() throws Exception {
 		if (this._retryTable == null || this._retryTable.size() <= 0) return;
 		
-		if (this._positionTable == null)
-			this._positionTable = LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-		
-		
-		// we will keep retrying till the timeout is reached
-		int iterations = HASIDSConstants.RETRY_LIMIT_MILLIS/HASIDSConstants.RETRY_INCREMENT_MILLIS;
-		
-		// loop through the number of iterations
-		for (int j = 0; j < iterations; j++) {
-			
-			Integer i = null;
-			
-			// get the list of positions in the retry table
-			Enumeration<Integer> e = this._retryTable.keys();
-			if (this._dataLength == 1) {
-				int b;
-				while(e.hasMoreElements()) {
-					i = e.nextElement();
-					if (!this._positionTable.containsKey(i)) { // this position is not locked
-						// get the byte value
-						b = this._retryTable.get(i);
-					
-						// lock the position 
-						this._positionTable.put(i, new int[] {b, this._buffer.get((i - this._lowRange))});
-					
-						// write to the position in the memory buffer
-						this._buffer.put((i - this._lowRange), (byte)b);
-					
-						// add it to the pos values table for future commit/rollback
-						this._posValuesTable.put(i, this._retryTable.remove(i));
-					}
-				}
-			}
-			else if (this._dataLength == 2) {
-				int b;
-				while(e.hasMoreElements()) {
-					i = e.nextElement();
-					if (!this._positionTable.containsKey(i)) { // this position is not locked
-						// get the byte value
-						b = this._retryTable.get(i);
-					
-						// lock the position 
-						this._positionTable.put(i, new int[] {b, this._buffer.getShort((i - this._lowRange) * this._dataLength)});
-					
-						// write to the position in the memory buffer
-						this._buffer.putShort((i - this._lowRange) * this._dataLength, (short)b);
-					
-						// add it to the pos values table for future commit/rollback
-						this._posValuesTable.put(i, this._retryTable.remove(i));
-					}
-				}
-			}
-			else if (this._dataLength == 4) {
-				int b;
-				while(e.hasMoreElements()) {
-					i = e.nextElement();
-					if (!this._positionTable.containsKey(i)) { // this position is not locked
-						// get the byte value
-						b = this._retryTable.get(i);
-					
-						// lock the position 
-						this._positionTable.put(i, new int[] {b, this._buffer.getInt((i - this._lowRange) * this._dataLength)});
-					
-						// write to the position in the memory buffer
-						this._buffer.putInt((i - this._lowRange) * this._dataLength, b);
-					
-						// add it to the pos values table for future commit/rollback
-						this._posValuesTable.put(i, this._retryTable.remove(i));
-					}
-				}
+		if (this._lockManager == null)
+			this._lockManager = PositionLockManager.getLockManager(this._dbName + "|" + this._datasetName, this._dataLength);
+		
+		
+		// positions of the retry table in ascending order
+		int[] positions = this._retryTable.keys();
+		Arrays.sort(positions);
+		
+		// wait till the timeout for the positions to be released by the other sessions, a released
+		// position is locked for the sessions waiting for it in the order they started waiting
+		positions = this._lockManager.lockWait(positions, this._buffer, this._lowRange, HASIDSConstants.RETRY_LIMIT_MILLIS);
+		
+		// the values of the positions locked are saved for a rollback before the pages are modified
+		if (positions.length > 0)
+			this.logUndo(positions);
+		
+		int i;
+		if (this._dataLength == 1) {
+			int b;
+			for (int j = 0; j < positions.length; j++) {
+				i = positions[j];
+				// get the byte value
+				b = this._retryTable.getInt(i);
+			
+				// write to the position in the memory buffer, values of datasets with a delta store are written at commit
+				if (this._deltaStore == null)
+					this._buffer.put((i - this._lowRange), (byte)b);
+			
+				// add it to the pos values table for future commit/rollback
+				this._posValuesTable.putInt(i, b);
+				this._retryTable.remove(i);
 			}
+		}
+		else if (this._dataLength == 2) {
+			int b;
+			for (int j = 0; j < positions.length; j++) {
+				i = positions[j];
+				// get the byte value
+				b = this._retryTable.getInt(i);
+			
+				// write to the position in the memory buffer, values of datasets with a delta store are written at commit
+				if (this._deltaStore == null)
+					this._buffer.putShort((i - this._lowRange) * this._dataLength, (short)b);
 			
-			if (this._retryTable.size() <= 0)
-				break;
+				// add it to the pos values table for future commit/rollback
+				this._posValuesTable.putInt(i, b);
+				this._retryTable.remove(i);
+			}
+		}
+		else if (this._dataLength == 4) {
+			int b;
+			for (int j = 0; j < positions.length; j++) {
+				i = positions[j];
+				// get the byte value
+				b = this._retryTable.getInt(i);
+			
+				// write to the position in the memory buffer, values of datasets with a delta store are written at commit
+				if (this._deltaStore == null)
+					this._buffer.putInt((i - this._lowRange) * this._dataLength, b);
 			
-			// sleep to enable other threads to complete and free up the locks
-			Thread.sleep(HASIDSConstants.RETRY_INCREMENT_MILLIS);
+				// add it to the pos values table for future commit/rollback
+				this._posValuesTable.putInt(i, b);
+				this._retryTable.remove(i);
+			}
 		}
 		
 		// if after the session time out is reached and we still have locked positions
@@ -886,57 +889,14 @@ public class DimDataWriter implements Runnable {
 	 */
 	public void rollback() throws Exception {
 		System.out.println("Rollback, posValuesTable size : " + this._posValuesTable.size());
-		if (this._posValuesTable != null && this._posValuesTable.size() > 0) {
-			// rewrite the old data back
-			Iterator<Integer> it = this._posValuesTable.keySet().iterator();
-			
-			if (this._dataLength == 1) {
-				int i = -1;
-				int b;
-		
-				while(it.hasNext()) {
-					i = it.next();
-					System.out.println("Rollback position : " + i);
-		
-					// get the original byte value
-					b = this._positionTable.get(i)[1];
-			
-					// if the byte value is zero, it means that this position was never written in the file
-					this._buffer.put((i - this._lowRange), (byte)b);
-				}
-			}
-			else if (this._dataLength == 2) {
-				int i = -1;
-				int b;
-		
-				while(it.hasNext()) {
-					i = it.next();
-					System.out.println("Rollback position : " + i);
-		
-					// get the original byte value
-					b = this._positionTable.get(i)[1];
-			
-					// if the byte value is zero, it means that this position was never written in the file
-					this._buffer.putShort((i - this._lowRange) * this._dataLength, (short)b);
-				}
-			}
-			else if (this._dataLength == 4) {
-				int i = -1;
-				int b;
-		
-				while(it.hasNext()) {
-					i = it.next();
-					System.out.println("Rollback position : " + i);
-		
-					// get the original byte value
-					b = this._positionTable.get(i)[1];
-			
-					// if the byte value is zero, it means that this position was never written in the file
-					this._buffer.putInt((i - this._lowRange) * this._dataLength, b);
-				}
-			}
+		if (this._posValuesTable != null && this._posValuesTable.size() > 0 && this._deltaStore == null) {
+			// rewrite the values saved in the file when the positions were locked
+			this._lockManager.rollback(this, this.getLockedPositions(), this._buffer, this._lowRange);
 		}
 		
+		// the restored values are flushed before the abort is logged
+		this._aborted = true;
+		
 		// commit
 		this.commit();
 	}	
@@ -948,11 +908,25 @@ public class DimDataWriter implements Runnable {
 	 */
 	public void commit() throws Exception {
 		
+		// sessions of datasets with a delta store commit their values to the store
+		if (this._deltaStore != null) {
+			this.commitDelta();
+			return;
+		}
+		
+		// positions written by the session are live again once it ends
+		int[] written = (this._aborted ? null : this.getWrittenPositions());
+		
 		// Write the TS
 		long lastModifiedTime = this.writeCSTS();
-					
-					
-		_buffer.force();
+		
+		// ONLINE sessions are durable once their new values are in the log, the pages are flushed in the background
+		if (this._txId != 0 && !this._aborted)
+			this.logCommit();
+		else
+			_buffer.force();
+		this.updateBlockCheckSum();
+		this.updateSortedRuns(lastModifiedTime);
 		_rwChannel.close();
 		_randomAccessFile.close();
 		
@@ -963,9 +937,143 @@ public class DimDataWriter implements Runnable {
 		// set the last modified time
 		File f = new File(this._datasetName);
 		f.setLastModified(lastModifiedTime);
+		this.refreshCatalog(f);
+		
+		// an aborted session is ended in the log before its positions are released
+		if (this._txId != 0) {
+			this._log.abort(this._txId);
+			this._txId = 0;
+		}
+		this._aborted = false;
+		
+		// the session ends in the versions of the dataset before its positions are released
+		DatasetVersions.getVersions(this._dbName, this._datasetName).commit(this);
 		
 		// remove the keys
-		this.removeKeysFromTable();
+		try {
+			if (written != null)
+				DeletionBitmap.remove(this._datasetName, written);
+		}
+		finally {
+			this.removeKeysFromTable();
+		}
+	}
+	
+	/**
+	 * Commits the values of this session to the delta store of the dataset, the pages of the
+	 * dataset were not modified
+	 * 
+	 * @throws Exception
+	 */
+	private void commitDelta() throws Exception {
+		int[] positions = null;
+		if (!this._aborted && this._posValuesTable.size() > 0) {
+			positions = this.getLockedPositions();
+			int[] values = new int[positions.length];
+			for (int i = 0; i < positions.length; i++)
+				values[i] = this._posValuesTable.getInt(positions[i]);
+			
+			// a failed commit keeps the store, the session is rolled back through this method
+			this._deltaStore.commit(positions, values);
+		}
+		
+		// a disable of the store waits for the release
+		this._deltaStore.release();
+		this._deltaStore = null;
+		this._aborted = false;
+		
+		if (_rwChannel != null)
+			_rwChannel.close();
+		if (_randomAccessFile != null)
+			_randomAccessFile.close();
+		
+		_buffer = null;
+		_rwChannel = null;
+		_randomAccessFile = null;
+		
+		// remove the keys
+		try {
+			if (positions != null)
+				DeletionBitmap.remove(this._datasetName, positions);
+		}
+		finally {
+			this.removeKeysFromTable();
+		}
+	}
+	
+	/**
+	 * Appends the new values of the positions of this session and its commit to the write ahead log
+	 * 
+	 * @throws Exception
+	 */
+	private void logCommit() throws Exception {
+		this._log.commit(this._txId, this._dbName, this._datasetName, this._headerLength, this._dataLength, this.getLockedPositions(), this._buffer, this._lowRange);
+		this._txId = 0;
+	}
+	
+	/**
+	 * Method to update the block checksums of the data region covered by the written range.
+	 * The checksum file is removed if it cannot be updated so that it is never stale.
+	 */
+	private void updateBlockCheckSum() {
+		try {
+			BlockCheckSum.update(this._datasetName, this._rwChannel, this._headerLength, 
+					(long)this._lowRange * this._dataLength, (long)(this._highRange - this._lowRange + 1) * this._dataLength);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			BlockCheckSum.delete(this._datasetName);
+		}
+	}
+
+	/**
+	 * Method to re-evaluate the run boundaries next to the written positions if the segment
+	 * has a runs file. The runs file is removed if it cannot be updated.
+	 * 
+	 * @param lastModifiedTime Commit time stamp of the segment
+	 */
+	private void updateSortedRuns(long lastModifiedTime) {
+		if (!SortedRuns.exists(this._datasetName))
+			return;
+		
+		try {
+			SortedRuns.update(this._datasetName, this.getWrittenPositions(), this._recordCount, lastModifiedTime);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			SortedRuns.delete(this._datasetName);
+		}
+	}
+	
+	/**
+	 * @return 0 based positions written by this writer
+	 */
+	private int[] getWrittenPositions() {
+		int[] positions = null;
+		if (this._operationalMode == HASIDSConstants.OPERATION_MODE_BATCH && this._position != null)
+			positions = Arrays.copyOf(this._position, this._positionsLength);
+		else if (this._posValuesTable == null)
+			positions = new int[0];
+		else
+			positions = this._posValuesTable.keys();
+		
+		return positions;
+	}
+	
+	/**
+	 * Method to refresh the catalog entry of the segment after a create or a commit
+	 * 
+	 * @param f Segment file
+	 */
+	private void refreshCatalog(File f) {
+		try {
+			DatasetCatalog.refresh(new DatasetSegment(this._dbName, this._datasetName, this._fileType, this._encoding, 
+					this._segmentNo, this._dataLength, this._decimals, this._headerLength, this._recordCount, f.lastModified()));
+		}
+		catch (Exception e) {
+			// the entry is reloaded from the header on its next use
+			DatasetCatalog.remove(this._dbName, this._datasetName);
+		}
 	}
 	
 	/**
@@ -976,10 +1084,7 @@ public class DimDataWriter implements Runnable {
 		try {
 			// At the end map the TS portion of the CS
 			if (this._rwChannel != null) {
-				MappedByteBuffer buffer = _rwChannel.map(FileChannel.MapMode.READ_WRITE, CheckSum.FILE_DATASET_TIME_POS, CheckSum.FILE_DATASET_TIME_LEN);
-				buffer.put(Long.toString(CheckSum.computeTFS(retVal)).getBytes());
-				buffer.force();
-				buffer = null;
+				CheckSum.writeTimestamp(this._rwChannel, retVal);
 			}
 		}
 		catch (Exception e) {
@@ -1013,28 +1118,25 @@ public class DimDataWriter implements Runnable {
 	}
 	
 	/**
-	 * Method to delete record ids from the dataset
+	 * Method to delete record ids from the dataset. The positions are added to the deletion
+	 * bitmap of the segment and are hidden from the readers immediately; the null values of
+	 * the records are written by the compaction of the segment.
 	 * 
 	 * @param position
 	 * @param allowPartial
-	 * @param retryFlag
-	 * @return
+	 * @param retryFlag true to wait up to RETRY_LIMIT_MILLIS for the positions locked by another session
+	 * @return positions not deleted as they are locked by another session
 	 * @throws Exception
 	 */
 	public Hashtable<Integer, Integer> deleteRecords(int[] position, boolean allowPartial, boolean retryFlag) throws Exception {
-		Hashtable<Integer, Integer> retValue = new Hashtable<Integer, Integer>(1);
 		if (position == null || position.length == 0)
 			throw new Exception("Invalid records ids to delete! Use truncate for deleting all records!!");
 		
-		int count = position.length;
-		int[] values = new int[count];
-		for (int i = 0; i < count; i++)
-			values[i] = 0;
+		int[] locked = DeletionBitmap.add(this._dbName, this._datasetName, position, this._recordCount, allowPartial, retryFlag);
 		
-		if (_operationalMode == HASIDSConstants.OPERATION_MODE_ONLINE)
-			return this.setWriteDataPositionBufferOnline(position, values, allowPartial, retryFlag);
-		else if (_operationalMode == HASIDSConstants.OPERATION_MODE_BATCH)
-			this.setWriteDataPositionBufferBatch(position, values, allowPartial, retryFlag);
+		Hashtable<Integer, Integer> retValue = new Hashtable<Integer, Integer>(locked.length + 1);
+		for (int i = 0; i < locked.length; i++)
+			retValue.put(locked[i], 0);
 		
 		return retValue;
 	}
@@ -1049,18 +1151,19 @@ public class DimDataWriter implements Runnable {
 		// create the return table
 		Hashtable<Integer, Integer> returnTable = new Hashtable<Integer, Integer>();
 		
-		// get the position table for the input dataset name
-		Hashtable<Integer, int[]> positionTable = DimDataWriter.LOCK_TABLE.get(dbName + "|" + datasetName);
-		if (positionTable != null) { // if we have a position table in memory
-			int i = 0;
+		// sessions of datasets with a delta store do not modify the pages of the dataset
+		if (DimDeltaStore.getDeltaStore(dbName, datasetName) != null)
+			return returnTable;
+		
+		// get the lock manager for the input dataset name
+		PositionLockManager lockManager = PositionLockManager.getLockManager(dbName + "|" + datasetName);
+		if (lockManager != null) { // if positions of the dataset are locked
 			int b = 0;
-			
-			Enumeration<Integer> e = positionTable.keys();
-			while(e.hasMoreElements()) {
-				i = e.nextElement();
-				b = positionTable.get(i)[1];
+			PositionLockManager.Snapshot snapshot = lockManager.getSnapshot();
+			for (int i = 0; i < snapshot.size(); i++) {
+				b = (int)snapshot.getLong(i);
 				if (b != 0) // If it is null, it means that the value in the file is still original value and has not been over written
-					returnTable.put(i, b); // add to return table the position and original value
+					returnTable.put(snapshot.getPosition(i), b); // add to return table the position and original value
 			}
 		}
 		
@@ -1086,25 +1189,50 @@ public class DimDataWriter implements Runnable {
 			if (!f.exists())
 				this.createSegment();
 			
+			// ONLINE sessions of datasets with a delta store commit their values to the store,
+			// BATCH writes would be overlaid and later overwritten by older values of the store
+			// the store is held until the session ends so that a disable waits for its commit
+			if (this._operationalMode == HASIDSConstants.OPERATION_MODE_ONLINE) {
+				if (this._deltaStore == null && this._txId == 0)
+					this._deltaStore = DimDeltaStore.acquire(this._dbName, this._datasetName);
+			}
+			else if (DimDeltaStore.getDeltaStore(this._dbName, this._datasetName) != null)
+				throw new Exception("BATCH writes are not allowed while the delta store of " + this._datasetName + " is enabled!");
+			
 			// create random file
 			this._randomAccessFile = new RandomAccessFile(this._datasetName, "rw");
 			// get file channel
 			this._rwChannel = _randomAccessFile.getChannel();
 			// map file to memory
-			this._buffer = _rwChannel.map(FileChannel.MapMode.READ_WRITE, ((this._lowRange * this._dataLength) + CheckSum.FILE_CHECKSUM_LENGTH), ((this._highRange - this._lowRange + 1) * this._dataLength));
+			this._buffer = _rwChannel.map(this._deltaStore == null ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, ((this._lowRange * this._dataLength) + this._headerLength), ((this._highRange - this._lowRange + 1) * this._dataLength));
 			// set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
             this._buffer.order(ByteOrder.LITTLE_ENDIAN);
             
-			// based on the data length we have to write the bytes
-			if (this._dataLength == CheckSum.DIM_ENCODE_TYPE1)
-				this.writeToSegmentTypeByte();
-			else if (this._dataLength == CheckSum.DIM_ENCODE_TYPE2)
-				this.writeToSegmentTypeShort();
-			else if (this._dataLength == CheckSum.DIM_ENCODE_TYPE3 + 1)
-				this.writeToSegmentTypeInt();
+			// the values are written in ascending page order, a position set more than once in
+			// a batch keeps its last value
+			int[] order = null;
+			if (this._operationalMode == HASIDSConstants.OPERATION_MODE_BATCH)
+				order = PageOrder.sort(this._position, this._positionsLength);
+			else
+				order = PageOrder.sortPositions(this.getLockedPositions());
+			
+			// log the values saved for a rollback before the pages are modified
+			if (this._operationalMode == HASIDSConstants.OPERATION_MODE_ONLINE)
+				this.logUndo(order);
+			
+			// based on the data length we have to write the bytes, the pages of datasets with a
+			// delta store are not modified
+			if (this._deltaStore == null) {
+				if (this._dataLength == CheckSum.DIM_ENCODE_TYPE1)
+					this.writeToSegmentTypeByte(order);
+				else if (this._dataLength == CheckSum.DIM_ENCODE_TYPE2)
+					this.writeToSegmentTypeShort(order);
+				else if (this._dataLength == CheckSum.DIM_ENCODE_TYPE3 + 1)
+					this.writeToSegmentTypeInt(order);
+			}
 			
 			// check for the retry table.
-			if (this._retryTable.size() > 0) {
+			if (this._retryTable != null && this._retryTable.size() > 0) {
 				this.retry();
 			}
 									
@@ -0,0 +1,634 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Delta store of the ONLINE updates of a dimension segment. Once a delta store is enabled for
+ * a segment, the ONLINE sessions of DimDataWriter leave the pages of the segment unchanged and
+ * commit their values to the store as an immutable run of positions and values sorted on the
+ * position, after the values are synced to the write ahead log of the directory. Readers take
+ * the runs before reading the segment and overlay them on the records read, oldest run first.
+ * A background thread merges the runs into the segment in one sequential pass over the written
+ * range when no session committed for QUIET_PERIOD_MILLIS, or earlier when the runs grow beyond
+ * MAX_RUNS or MERGE_THRESHOLD entries. The log is kept until the runs are merged so that the
+ * values committed to the store are written into the segment by recovery after a failure.
+ * Every run and every merge is a version of the dataset in DatasetVersions. Readers take the runs
+ * of the version they pinned, a merge publishes the values it replaces before it writes them and
+ * the merged runs are kept until no reader pinned a version older than the merge.
+ *
+ * While a store is enabled the pages of the segment are written by merges only. BATCH writes of
+ * DimDataWriter, and hence of SegmentBulkWriter, are rejected since the readers would overlay
+ * the older values of the store on them and a merge would write those values over them.
+ * Disable the store, which merges it, before a BATCH load.
+ *
+ * ONLINE sessions acquire the store when they start and release it when they end. A disable
+ * rejects new sessions, waits for the sessions holding the store to commit to it and merges the
+ * runs while the store is still registered, so that readers overlay the runs and BATCH writes
+ * stay rejected until the segment is flushed. The store is then retired, its merged runs are
+ * kept for the readers that pinned a version older than the final merge.
+ */
+package com.hasids.io.dim;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Hashtable;
+
+import com.hasids.datastructures.BlockCheckSum;
+import com.hasids.datastructures.CheckSum;
+import com.hasids.datastructures.SortedRuns;
+import com.hasids.io.DatasetVersions;
+import com.hasids.io.WriteAheadLog;
+import com.hasids.io.dataset.DatasetCatalog;
+import com.hasids.io.dataset.DatasetSegment;
+
+public final class DimDeltaStore {
+
+	// delta stores of the segments, keyed on the db name and dataset name
+	private static Hashtable<String, DimDeltaStore> DELTA_STORES = new Hashtable<String, DimDeltaStore>();
+
+	public static final int MAX_RUNS = 64;
+	public static final int MERGE_THRESHOLD = 1 << 20;
+	public static final long QUIET_PERIOD_MILLIS = 2000;
+	public static final long MERGE_INTERVAL_MILLIS = 500;
+	public static final long DISABLE_TIMEOUT_MILLIS = 30000;
+
+	private DatasetSegment _segment;
+	private DatasetVersions _versions;
+
+	// runs in commit order, the array is replaced on every change so that it is read without a lock
+	private volatile Run[] _runs = new Run[0];
+	private Object _runsMonitor = new Object();
+	private Object _mergeMonitor = new Object();
+
+	private volatile long _lastCommitTime = 0;
+	private volatile boolean _enabled = true;
+	private long _mergeCount = 0;
+
+	// sessions holding the store, a disabling store is not acquired by new sessions
+	private int _sessionCount = 0;
+	private volatile boolean _disabling = false;
+
+	private DimDeltaStore(DatasetSegment segment) {
+		this._segment = segment;
+		this._versions = DatasetVersions.getVersions(segment.getDbName(), segment.getFileName());
+	}
+
+	/**
+	 * Enables the delta store of a dimension segment. ONLINE sessions of the segment started
+	 * after this call commit their values to the store.
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Dataset file name
+	 * @return Delta store of the segment
+	 * @throws Exception
+	 */
+	public static DimDeltaStore enable(String dbName, String datasetName) throws Exception {
+		synchronized (DELTA_STORES) {
+			DimDeltaStore store = DELTA_STORES.get(dbName + "|" + datasetName);
+			if (store != null && store._disabling)
+				throw new Exception("Delta store of " + datasetName + " is being disabled!");
+			if (store != null && store._enabled)
+				return store;
+
+			DatasetSegment segment = new DatasetSegment(dbName, datasetName);
+			if (segment.getFileType() != CheckSum.FILE_TYPE_DIM)
+				throw new Exception("Delta stores are supported for dimension segments only!");
+
+			if (CheckSum.isCompressedEncoding(segment.getFileType(), segment.getEncoding()))
+				throw new Exception("Compressed dimension segments cannot be updated ONLINE!");
+
+			// merged runs of a retired store are kept for the readers of older versions
+			Run[] runs = (store == null ? null : store._runs);
+			store = new DimDeltaStore(segment);
+			if (runs != null)
+				store._runs = runs;
+			DELTA_STORES.put(dbName + "|" + datasetName, store);
+
+			Thread merger = new Thread(new Merger(store), "DimDeltaStore-" + datasetName);
+			merger.setDaemon(true);
+			merger.start();
+
+			return store;
+		}
+	}
+
+	/**
+	 * Merges the runs of the delta store of a segment into the segment and retires the store.
+	 * New sessions are rejected and the sessions holding the store are waited for up to
+	 * DISABLE_TIMEOUT_MILLIS before the final merge.
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Dataset file name
+	 * @throws Exception
+	 */
+	public static void disable(String dbName, String datasetName) throws Exception {
+		DimDeltaStore store = null;
+		synchronized (DELTA_STORES) {
+			store = DELTA_STORES.get(dbName + "|" + datasetName);
+			if (store == null || !store._enabled)
+				return;
+			if (store._disabling)
+				throw new Exception("Delta store of " + datasetName + " is being disabled!");
+
+			store._disabling = true;
+		}
+
+		try {
+			synchronized (store) {
+				long endTime = System.currentTimeMillis() + DISABLE_TIMEOUT_MILLIS;
+				while (store._sessionCount > 0) {
+					long wait = endTime - System.currentTimeMillis();
+					if (wait <= 0)
+						throw new Exception("Sessions of " + datasetName + " did not end, delta store not disabled!");
+					store.wait(wait);
+				}
+			}
+
+			// the store stays registered until the segment is flushed
+			store.merge();
+		}
+		catch (Exception e) {
+			store._disabling = false;
+			throw e;
+		}
+
+		synchronized (DELTA_STORES) {
+			store._enabled = false;
+			store._disabling = false;
+		}
+		store.retire();
+	}
+
+	/**
+	 * Removes a disabled store once no reader reads its merged runs
+	 */
+	private void retire() {
+		Run[] runs = null;
+		synchronized (this._runsMonitor) {
+			runs = this.trim(this._runs, this._versions.getOldestPinnedVersion());
+			this._runs = runs;
+		}
+
+		if (runs.length == 0)
+			DELTA_STORES.remove(this._segment.getDbName() + "|" + this._segment.getFileName(), this);
+	}
+
+	/**
+	 * @param dbName Database name
+	 * @param datasetName Dataset file name
+	 * @return Delta store of the segment, null if it is not enabled
+	 */
+	public static DimDeltaStore getDeltaStore(String dbName, String datasetName) {
+		DimDeltaStore store = DELTA_STORES.get(dbName + "|" + datasetName);
+		return (store == null || !store._enabled ? null : store);
+	}
+
+	/**
+	 * Acquires the delta store of a segment for an ONLINE session, the session must release
+	 * the store when it ends.
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Dataset file name
+	 * @return Delta store of the segment, null if it is not enabled
+	 * @throws Exception if the store is being disabled
+	 */
+	public static DimDeltaStore acquire(String dbName, String datasetName) throws Exception {
+		synchronized (DELTA_STORES) {
+			DimDeltaStore store = DimDeltaStore.getDeltaStore(dbName, datasetName);
+			if (store == null)
+				return null;
+			if (store._disabling)
+				throw new Exception("Delta store of " + datasetName + " is being disabled!");
+
+			synchronized (store) {
+				store._sessionCount++;
+			}
+			return store;
+		}
+	}
+
+	/**
+	 * Releases the store acquired by a session
+	 */
+	public void release() {
+		synchronized (this) {
+			if (this._sessionCount > 0)
+				this._sessionCount--;
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * @param dbName Database name
+	 * @param datasetName Dataset file name
+	 * @return Runs of the delta store of the segment, null if it is not enabled or has no runs
+	 */
+	public static Snapshot getSnapshot(String dbName, String datasetName) {
+		return DimDeltaStore.getSnapshot(dbName, datasetName, Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param dbName Database name
+	 * @param datasetName Dataset file name
+	 * @param version Version of the dataset pinned by the reader
+	 * @return Runs of the version in the delta store of the segment, null if there are none
+	 */
+	public static Snapshot getSnapshot(String dbName, String datasetName, long version) {
+		DimDeltaStore store = DELTA_STORES.get(dbName + "|" + datasetName);
+		if (store == null)
+			return null;
+
+		if (!store._enabled)
+			store.retire();
+
+		// runs are in version order, the segment holds the runs merged at or before the version
+		Run[] runs = store._runs;
+		int first = 0;
+		while (first < runs.length && runs[first]._mergedVersion != 0 && runs[first]._mergedVersion <= version)
+			first++;
+		int count = runs.length;
+		while (count > first && runs[count - 1]._version > version)
+			count--;
+
+		if (count == first)
+			return null;
+
+		return new Snapshot(first == 0 && count == runs.length ? runs : Arrays.copyOfRange(runs, first, count));
+	}
+
+	public String getDatasetName() {
+		return this._segment.getFileName();
+	}
+
+	/**
+	 * @return Number of runs not merged into the segment
+	 */
+	public int getRunCount() {
+		Run[] runs = this._runs;
+		return runs.length - this.getMergedCount(runs);
+	}
+
+	/**
+	 * @return Number of entries of the runs not merged into the segment
+	 */
+	public int getEntryCount() {
+		Run[] runs = this._runs;
+		int count = 0;
+		for (int i = this.getMergedCount(runs); i < runs.length; i++)
+			count += runs[i]._positions.length;
+
+		return count;
+	}
+
+	/**
+	 * @return Number of merged runs kept for the readers, merged runs precede the other runs
+	 */
+	private int getMergedCount(Run[] runs) {
+		int count = 0;
+		while (count < runs.length && runs[count]._mergedVersion != 0)
+			count++;
+
+		return count;
+	}
+
+	public synchronized long getMergeCount() {
+		return this._mergeCount;
+	}
+
+	/**
+	 * Commits the values of a session. The values are synced to the write ahead log before they
+	 * are visible to the readers, the positions must be locked by the session. The run is a new
+	 * version of the dataset.
+	 *
+	 * @param positions Positions written by the session
+	 * @param values New values of the positions
+	 * @throws Exception
+	 */
+	public void commit(int[] positions, int[] values) throws Exception {
+		Run run = new Run(positions, values);
+
+		int dataLength = this._segment.getDataLength();
+		byte[] bytes = new byte[positions.length * dataLength];
+		for (int i = 0; i < positions.length; i++)
+			for (int j = 0; j < dataLength; j++)
+				bytes[(i * dataLength) + j] = (byte) (values[i] >>> (j * 8));
+
+		WriteAheadLog log = WriteAheadLog.getLog(this._segment.getFileName());
+		log.commit(log.begin(), this._segment.getDbName(), this._segment.getFileName(), this._segment.getHeaderLength(),
+				dataLength, positions, bytes);
+
+		// readers pinning the new version find the run
+		synchronized (this._versions) {
+			run._version = this._versions.commit(this);
+			synchronized (this._runsMonitor) {
+				Run[] runs = this.trim(this._runs, this._versions.getOldestPinnedVersion());
+				Run[] newRuns = Arrays.copyOf(runs, runs.length + 1);
+				newRuns[runs.length] = run;
+				this._runs = newRuns;
+			}
+		}
+		this._lastCommitTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Merges the runs of the store into the segment. The merged values are written in position
+	 * order over the range they cover, the values they replace are committed to the versions of
+	 * the dataset before. The runs are removed once the segment is flushed and no reader pinned a
+	 * version older than the merge.
+	 *
+	 * @return Number of positions written into the segment
+	 * @throws Exception
+	 */
+	public int merge() throws Exception {
+		synchronized (this._mergeMonitor) {
+			Run[] current = this._runs;
+			Run[] runs = Arrays.copyOfRange(current, this.getMergedCount(current), current.length);
+			if (runs.length == 0)
+				return 0;
+
+			// newer runs replace the values of older runs
+			Run merged = runs[0];
+			for (int i = 1; i < runs.length; i++)
+				merged = merged.merge(runs[i]);
+			long version = 0;
+
+			String datasetName = this._segment.getFileName();
+			int dataLength = this._segment.getDataLength();
+			int headerLength = this._segment.getHeaderLength();
+			int low = merged._positions[0];
+			int high = merged._positions[merged._positions.length - 1];
+			long lastModified = System.currentTimeMillis();
+
+			RandomAccessFile raf = new RandomAccessFile(datasetName, "rw");
+			try {
+				FileChannel channel = raf.getChannel();
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, headerLength + ((long) low * dataLength), (long) (high - low + 1) * dataLength);
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+				// readers of older versions undo the merge with the values it replaces
+				byte[] undo = new byte[merged._positions.length * dataLength];
+				for (int i = 0; i < merged._positions.length; i++)
+					for (int j = 0; j < dataLength; j++)
+						undo[(i * dataLength) + j] = buffer.get(((merged._positions[i] - low) * dataLength) + j);
+				version = this._versions.commit(dataLength, merged._positions, undo);
+
+				// the positions merged are not locked, readers verifying the blocks wait for their checksums
+				synchronized (BlockCheckSum.getMonitor(datasetName)) {
+					for (int i = 0; i < merged._positions.length; i++) {
+						int index = (merged._positions[i] - low) * dataLength;
+						if (dataLength == 1)
+							buffer.put(index, (byte) merged._values[i]);
+						else if (dataLength == 2)
+							buffer.putShort(index, (short) merged._values[i]);
+						else
+							buffer.putInt(index, merged._values[i]);
+					}
+					buffer.force();
+
+					CheckSum.writeTimestamp(channel, lastModified);
+
+					try {
+						BlockCheckSum.update(datasetName, channel, headerLength, (long) low * dataLength, (long) (high - low + 1) * dataLength);
+					}
+					catch (Exception e) {
+						e.printStackTrace();
+						BlockCheckSum.delete(datasetName);
+					}
+				}
+
+				if (SortedRuns.exists(datasetName)) {
+					try {
+						SortedRuns.update(datasetName, merged._positions, this._segment.getRecordCount(), lastModified);
+					}
+					catch (Exception e) {
+						e.printStackTrace();
+						SortedRuns.delete(datasetName);
+					}
+				}
+			}
+			finally {
+				raf.close();
+			}
+
+			new File(datasetName).setLastModified(lastModified);
+			try {
+				DatasetCatalog.refresh(new DatasetSegment(this._segment.getDbName(), datasetName, this._segment.getFileType(),
+						this._segment.getEncoding(), this._segment.getSegmentNo(), dataLength, this._segment.getDecimals(),
+						headerLength, this._segment.getRecordCount(), lastModified));
+			}
+			catch (Exception e) {
+				DatasetCatalog.remove(this._segment.getDbName(), datasetName);
+			}
+
+			// the runs merged are kept for the readers of older versions, runs committed during the merge are not merged
+			long oldest = this._versions.getOldestPinnedVersion();
+			synchronized (this._runsMonitor) {
+				Run[] newRuns = this._runs.clone();
+				int first = this.getMergedCount(newRuns);
+				for (int i = first; i < first + runs.length; i++)
+					newRuns[i] = new Run(newRuns[i], version);
+				this._runs = this.trim(newRuns, oldest);
+			}
+			WriteAheadLog.getLog(datasetName).release(datasetName, runs.length);
+
+			synchronized (this) {
+				this._mergeCount++;
+			}
+
+			return merged._positions.length;
+		}
+	}
+
+	/**
+	 * @return runs without the merged runs that are not read by any reader
+	 */
+	private Run[] trim(Run[] runs, long oldest) {
+		int count = 0;
+		while (count < runs.length && runs[count]._mergedVersion != 0 && runs[count]._mergedVersion <= oldest)
+			count++;
+
+		return (count == 0 ? runs : Arrays.copyOfRange(runs, count, runs.length));
+	}
+
+	/**
+	 * @return true if the runs are due for a merge into the segment
+	 */
+	private boolean isMergeDue() {
+		int count = this.getRunCount();
+		if (count == 0)
+			return false;
+
+		return count >= MAX_RUNS || this.getEntryCount() >= MERGE_THRESHOLD ||
+				System.currentTimeMillis() - this._lastCommitTime >= QUIET_PERIOD_MILLIS;
+	}
+
+	/**
+	 * Immutable run of positions sorted in ascending order with their values
+	 */
+	private static final class Run {
+		private int[] _positions;
+		private int[] _values;
+
+		// version of the commit of the run and of its merge into the segment, 0 if not merged
+		private long _version;
+		private long _mergedVersion = 0;
+
+		private Run(int[] positions, int[] values) {
+			long[] entries = new long[positions.length];
+			for (int i = 0; i < positions.length; i++)
+				entries[i] = ((long) positions[i] << 32) | (values[i] & 0xFFFFFFFFL);
+			Arrays.sort(entries);
+
+			this._positions = new int[entries.length];
+			this._values = new int[entries.length];
+			for (int i = 0; i < entries.length; i++) {
+				this._positions[i] = (int) (entries[i] >>> 32);
+				this._values[i] = (int) entries[i];
+			}
+		}
+
+		private Run(int[] positions, int[] values, int length) {
+			this._positions = Arrays.copyOf(positions, length);
+			this._values = Arrays.copyOf(values, length);
+		}
+
+		private Run(Run run, long mergedVersion) {
+			this._positions = run._positions;
+			this._values = run._values;
+			this._version = run._version;
+			this._mergedVersion = mergedVersion;
+		}
+
+		/**
+		 * @return run with the values of this run replaced by the values of a newer run
+		 */
+		private Run merge(Run newer) {
+			int[] positions = new int[this._positions.length + newer._positions.length];
+			int[] values = new int[positions.length];
+			int i = 0, j = 0, k = 0;
+			while (i < this._positions.length && j < newer._positions.length) {
+				if (this._positions[i] < newer._positions[j]) {
+					positions[k] = this._positions[i];
+					values[k++] = this._values[i++];
+				}
+				else {
+					if (this._positions[i] == newer._positions[j])
+						i++;
+					positions[k] = newer._positions[j];
+					values[k++] = newer._values[j++];
+				}
+			}
+			for (; i < this._positions.length; i++, k++) {
+				positions[k] = this._positions[i];
+				values[k] = this._values[i];
+			}
+			for (; j < newer._positions.length; j++, k++) {
+				positions[k] = newer._positions[j];
+				values[k] = newer._values[j];
+			}
+
+			return new Run(positions, values, k);
+		}
+	}
+
+	/**
+	 * Runs of a delta store taken before a read of the segment
+	 */
+	public static final class Snapshot {
+		private Run[] _runs;
+
+		private Snapshot(Run[] runs) {
+			this._runs = runs;
+		}
+
+		/**
+		 * Overlays the runs on the result of a read of the segment.
+		 *
+		 * @param bits Result of the read
+		 * @param low First position read, 0 based
+		 * @param high Last position read, 0 based
+		 * @param offset Offset from a position to its bit in the result
+		 * @param filter Filter of the read
+		 */
+		public void apply(BitSet bits, int low, int high, int offset, DimValueFilter filter) {
+			for (int r = 0; r < this._runs.length; r++) {
+				Run run = this._runs[r];
+				int i = Arrays.binarySearch(run._positions, low);
+				if (i < 0)
+					i = -(i + 1);
+
+				for (; i < run._positions.length && run._positions[i] <= high; i++)
+					bits.set(run._positions[i] + offset, filter.accept(run._values[i]));
+			}
+		}
+
+		/**
+		 * @param position Position, 0 based
+		 * @param value Value of the position in the segment
+		 * @return Latest value of the position committed to the store, or the value in the segment
+		 */
+		public int getValue(int position, int value) {
+			for (int r = this._runs.length - 1; r >= 0; r--) {
+				int i = Arrays.binarySearch(this._runs[r]._positions, position);
+				if (i >= 0)
+					return this._runs[r]._values[i];
+			}
+
+			return value;
+		}
+	}
+
+	/**
+	 * Background thread merging the runs of a store into its segment
+	 */
+	private static final class Merger implements Runnable {
+		private DimDeltaStore _store;
+
+		private Merger(DimDeltaStore store) {
+			this._store = store;
+		}
+
+		public void run() {
+			while (this._store._enabled) {
+				try {
+					Thread.sleep(MERGE_INTERVAL_MILLIS);
+					if (this._store._enabled && this._store.isMergeDue())
+						this._store.merge();
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				catch (Exception e) {
+					System.out.println("Delta merge failed for " + this._store.getDatasetName() + " : " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		String datasetName = "c:\\users\\dpras\\tempdata\\testdata\\month_1.DM";
+		DimDeltaStore store = DimDeltaStore.enable("Test", datasetName);
+
+		DimDataWriter writer = new DimDataWriter("Test", datasetName, com.hasids.HASIDSConstants.OPERATION_MODE_ONLINE);
+		writer.setWriteDataPositionBuffer(new int[] {10, 20, 30}, new int[] {11, 11, 11}, false, false);
+		writer.writeToSegment(true);
+
+		DimDataReader reader = new DimDataReader("Test", datasetName);
+		reader.setFilter(new int[] {11});
+		System.out.println("Runs : " + store.getRunCount() + ", records matching before merge : " + reader.getData().cardinality());
+
+		long beginTime = System.nanoTime();
+		int count = store.merge();
+		System.out.println("Positions merged : " + count + ", merge time : " + (System.nanoTime() - beginTime)/1000000 + " Milliseconds");
+
+		reader = new DimDataReader("Test", datasetName);
+		reader.setFilter(new int[] {11});
+		System.out.println("Runs : " + store.getRunCount() + ", records matching after merge : " + reader.getData().cardinality());
+	}
+}
@@ -8,7 +8,6 @@
 
 package com.hasids.io.dim;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Enumeration;
@@ -16,6 +15,9 @@ import java.util.Hashtable;
 import java.util.concurrent.TimeUnit;
 
 import com.hasids.HASIDSConstants;
+import com.hasids.io.DatasetVersions;
+import com.hasids.io.dataset.DatasetCatalog;
+import com.hasids.io.dataset.DatasetSegment;
 /**
  * @author dpras
  *
@@ -61,10 +63,9 @@ public class DimReaderWrapper  {
 			throw new Exception("Low range and high range must be <= " + HASIDSConstants.DIM_MAX_RECORDS);
 		
 		
+		// resolve each file through the catalog, files are validated on first use only
 		for (int i = 0; i < filenames.length; i++) {
-			File f = new File(filenames[0]);
-			if (!f.exists())
-				throw new Exception ("File " + filenames[i] + " does not exist!");
+			DatasetCatalog.getSegment(dbName, filenames[i]);
 			
 			//int[] fileFilter = filter.get(i);
 			//if (fileFilter == null || fileFilter.length <= 0)
@@ -384,6 +385,7 @@ class DimReaderWrapperMPP implements Runnable {
 	private int _encoding;
 	private int _segmentNo;
 	private int _dataLength;
+	private DatasetSegment _segment;
 	private BitSet _computedBitSet;
 	private ThreadGroup _tg;
 	
@@ -397,14 +399,15 @@ class DimReaderWrapperMPP implements Runnable {
 	public DimReaderWrapperMPP(String dbName, String datasetName, int[] filter, int ranges[][], BitSet b, int noSegmentParallelThreads) throws Exception {
 		super();
 		
-		DimDataReader ddr = new DimDataReader(dbName, datasetName, 1, 1 );
+		DatasetSegment segment = DatasetCatalog.getSegment(dbName, datasetName);
 		
 		this._dbName = dbName;
 		this._datasetName = datasetName;
+		this._segment = segment;
 		this._filter = filter;
-		this._dataLength = ddr.getDataLength();
-		this._segmentNo = ddr.getSegmentNo();
-		this._encoding = ddr.getEncoding();
+		this._dataLength = segment.getDataLength();
+		this._segmentNo = segment.getSegmentNo();
+		this._encoding = segment.getEncoding();
 		this._computedBitSet = b;
 		this._noSegmentParallelThreads = noSegmentParallelThreads;
 		//System.out.println("Size of received BitSet : " + this._computedBitSet.size());
@@ -415,7 +418,6 @@ class DimReaderWrapperMPP implements Runnable {
 		if (ranges.length <= 0)
 			throw new Exception("Invalid ranges specified!");
 		
-		ddr = null;
 		this._classDescription = this.getClass().getName() + "//Database Name : " + this._dbName + ", Dataset Name : " + this._datasetName + 
 				", Ranges : " + this._ranges.length;
 		
@@ -440,11 +442,15 @@ class DimReaderWrapperMPP implements Runnable {
 		//System.out.println("Thread started : " + this._classDescription);
 		this._tg = new ThreadGroup(this._classDescription);
 		
+		// all the ranges are read at the same version of the dataset
+		DatasetVersions.Snapshot snapshot = DatasetVersions.pin(this._dbName, this._datasetName);
+		
 		try {
 			for (int j = 0; j < this._ranges.length; j++) {
-				DimDataReader tddr = new DimDataReader(this._dbName, this._datasetName, this._ranges[j][0], this._ranges[j][1]);
+				DimDataReader tddr = new DimDataReader(this._segment, this._ranges[j][0], this._ranges[j][1]);
 				tddr.setComputedBitSet(this._computedBitSet);
 				tddr.setFilter(this._filter);
+				tddr.setSnapshot(snapshot);
 				
 				//tddr.setGTFilter(0);
 				Thread t = new Thread(this._tg, tddr);
@@ -461,12 +467,18 @@ class DimReaderWrapperMPP implements Runnable {
 					}
 				}
 			}
+			
+			while(this._tg.activeCount() > 0)
+				Thread.sleep(10);
 		}
 		catch (Exception e) {
 			this._status = HASIDSConstants.THREAD_FAILED;
 			e.printStackTrace();
 			return;
 		}
+		finally {
+			snapshot.release();
+		}
 		
 		this._status = HASIDSConstants.THREAD_COMPLETE;
 	}
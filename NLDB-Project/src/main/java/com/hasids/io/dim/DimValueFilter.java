@@ -0,0 +1,21 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Predicate on a single dimension value. Used by the scans of the compressed dimension
+ * segments, which evaluate the predicate once per run or once per distinct code instead of
+ * once per record.
+ */
+
+package com.hasids.io.dim;
+
+public interface DimValueFilter {
+
+	/**
+	 * @param value Decoded dimension value
+	 * @return true if records with the value match the predicate
+	 */
+	public boolean accept(int value);
+}
@@ -0,0 +1,393 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Predicate on the slots of an ALPHAN fact segment. Each slot holds a length byte followed by
+ * the UTF-8 bytes of the value, a length of 0 being the null value. The filter values are
+ * encoded to UTF-8 once and compared with the bytes of the slots in the mapped buffer, the
+ * length byte first, so that no String or byte[] is created while scanning.
+ *
+ * Values are ordered by their unsigned UTF-8 bytes, which is the order of their code points.
+ * Besides equality (IN) and the range filters, PREFIX (LIKE 'abc%') and CONTAINS
+ * (LIKE '%abc%') filters are supported; IN, PREFIX and CONTAINS can be negated, in which
+ * case null values match as well.
+ *
+ * The slots of the variable length ALPHAN segments (see FactVarcharHeap) are filtered on their
+ * inline prefix first, the heap is read only for the long values the prefix does not decide.
+ */
+
+package com.hasids.io.fact;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
+import com.hasids.datastructures.CheckSum;
+
+public final class FactAlphanFilter {
+
+	private int _mode;
+	private boolean _not;
+
+	private boolean _gt = false;
+	private boolean _gtEq = false;
+	private boolean _lt = false;
+	private boolean _ltEq = false;
+	private boolean _between = false;
+
+	// UTF-8 bytes of the filter values
+	private byte[][] _in;
+	private byte[] _gtBytes, _ltBytes, _between1Bytes, _between2Bytes;
+
+	/**
+	 * Constructor
+	 *
+	 * @param mode Filter mode, one of the FactValueFilter modes
+	 * @param in Values of the IN filter, prefixes of the PREFIX filter or patterns of the
+	 * CONTAINS filter
+	 * @param not Negates the IN, PREFIX or CONTAINS filter
+	 * @param gt Value of the > or >= filter
+	 * @param lt Value of the < or <= filter
+	 * @param between1 Lower value of the BETWEEN filter
+	 * @param between2 Upper value of the BETWEEN filter
+	 * @throws Exception
+	 */
+	public FactAlphanFilter(int mode, String[] in, boolean not, String gt, String lt, String between1, String between2) throws Exception {
+		this(mode, in, not, gt, lt, between1, between2, CheckSum.FACT_MAX_ALPHAN_LENGTH);
+	}
+	
+	/**
+	 * Constructor
+	 *
+	 * @param mode Filter mode, one of the FactValueFilter modes
+	 * @param in Values of the IN filter, prefixes of the PREFIX filter or patterns of the
+	 * CONTAINS filter
+	 * @param not Negates the IN, PREFIX or CONTAINS filter
+	 * @param gt Value of the > or >= filter
+	 * @param lt Value of the < or <= filter
+	 * @param between1 Lower value of the BETWEEN filter
+	 * @param between2 Upper value of the BETWEEN filter
+	 * @param maxLength Maximum length in bytes of the filter values
+	 * @throws Exception
+	 */
+	public FactAlphanFilter(int mode, String[] in, boolean not, String gt, String lt, String between1, String between2, int maxLength) throws Exception {
+		if (mode < FactValueFilter.MODE_NOT_NULL || mode > FactValueFilter.MODE_CONTAINS)
+			throw new Exception ("Invalid filter mode " + mode);
+
+		this._mode = mode;
+		this._not = not;
+
+		if (mode == FactValueFilter.MODE_IN || mode == FactValueFilter.MODE_PREFIX || mode == FactValueFilter.MODE_CONTAINS) {
+			if (in == null || in.length <= 0)
+				throw new Exception ("Null filter received!");
+
+			this._in = new byte[in.length][];
+			for (int i = 0; i < in.length; i++) {
+				if (in[i] == null)
+					throw new Exception ("Null filter received!");
+				this._in[i] = FactAlphanFilter.getBytes(in[i], maxLength);
+			}
+
+			return;
+		}
+
+		this._gt = (mode == FactValueFilter.MODE_GT_LT_BETWEEN || mode == FactValueFilter.MODE_GT_LT || mode == FactValueFilter.MODE_GT);
+		this._gtEq = (mode == FactValueFilter.MODE_GTEQ_LTEQ_BETWEEN || mode == FactValueFilter.MODE_GTEQ_LTEQ || mode == FactValueFilter.MODE_GTEQ);
+		this._lt = (mode == FactValueFilter.MODE_GT_LT_BETWEEN || mode == FactValueFilter.MODE_GT_LT || mode == FactValueFilter.MODE_LT);
+		this._ltEq = (mode == FactValueFilter.MODE_GTEQ_LTEQ_BETWEEN || mode == FactValueFilter.MODE_GTEQ_LTEQ || mode == FactValueFilter.MODE_LTEQ);
+		this._between = (mode == FactValueFilter.MODE_GT_LT_BETWEEN || mode == FactValueFilter.MODE_GTEQ_LTEQ_BETWEEN || mode == FactValueFilter.MODE_BETWEEN);
+
+		if (((this._gt || this._gtEq) && gt == null) || ((this._lt || this._ltEq) && lt == null) ||
+				(this._between && (between1 == null || between2 == null)))
+			throw new Exception ("Null filter received!");
+
+		if (gt != null)
+			this._gtBytes = FactAlphanFilter.getBytes(gt, maxLength);
+		if (lt != null)
+			this._ltBytes = FactAlphanFilter.getBytes(lt, maxLength);
+		if (between1 != null && between2 != null) {
+			this._between1Bytes = FactAlphanFilter.getBytes(between1, maxLength);
+			this._between2Bytes = FactAlphanFilter.getBytes(between2, maxLength);
+		}
+	}
+
+	private static byte[] getBytes(String value, int maxLength) throws Exception {
+		byte[] b = value.getBytes(StandardCharsets.UTF_8);
+		if (b.length > maxLength)
+			throw new Exception ("Max data length allowed in bytes is " + maxLength + " : " + value);
+		return b;
+	}
+
+	public int getMode() {
+		return this._mode;
+	}
+	
+	/**
+	 * @return true if the filter can be answered from a trigram index, an IN, PREFIX or
+	 * CONTAINS filter that is not negated and whose values are all 3 bytes or more
+	 */
+	public boolean isTrigramIndexable() {
+		if (this._in == null || this._not)
+			return false;
+
+		for (int i = 0; i < this._in.length; i++)
+			if (this._in[i].length < 3)
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return UTF-8 bytes of the values of the IN, PREFIX or CONTAINS filter
+	 */
+	public byte[][] getValues() {
+		return this._in;
+	}
+
+	/**
+	 * Compares the value of a slot with a filter value, byte by byte as unsigned bytes
+	 *
+	 * @param buffer Mapped ALPHAN data
+	 * @param position Position of the first byte of the value in the buffer
+	 * @param length Length of the value
+	 * @param key UTF-8 bytes of the filter value
+	 * @return < 0, 0 or > 0 as the value is less than, equal to or greater than the key
+	 */
+	public static int compare(ByteBuffer buffer, int position, int length, byte[] key) {
+		int n = (length < key.length ? length : key.length);
+		for (int i = 0; i < n; i++) {
+			int c = (buffer.get(position + i) & 0xFF) - (key[i] & 0xFF);
+			if (c != 0)
+				return c;
+		}
+		return length - key.length;
+	}
+
+	/**
+	 * @return true if the bytes of the value at the position start with the key
+	 */
+	private static boolean startsWith(ByteBuffer buffer, int position, int length, byte[] key) {
+		if (length < key.length)
+			return false;
+
+		for (int i = 0; i < key.length; i++)
+			if (buffer.get(position + i) != key[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return true if the bytes of the value at the position contain the key
+	 */
+	private static boolean contains(ByteBuffer buffer, int position, int length, byte[] key) {
+		if (key.length == 0)
+			return true;
+
+		byte first = key[0];
+		int last = length - key.length;
+		for (int i = 0; i <= last; i++) {
+			if (buffer.get(position + i) != first)
+				continue;
+
+			int j = 1;
+			while (j < key.length && buffer.get(position + i + j) == key[j])
+				j++;
+			if (j == key.length)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Compares the first bytes of a value, held in the inline prefix of a slot, with the first
+	 * bytes of a key
+	 *
+	 * @return < 0 or > 0 if they differ, 0 if the n first bytes are equal
+	 */
+	private static int comparePrefix(ByteBuffer buffer, int position, int n, byte[] key) {
+		for (int i = 0; i < n; i++) {
+			int c = (buffer.get(position + i) & 0xFF) - (key[i] & 0xFF);
+			if (c != 0)
+				return c;
+		}
+		return 0;
+	}
+
+	/**
+	 * Compares a value longer than the inline prefix with a key, the heap is read only if the
+	 * prefix is equal to the first bytes of the key
+	 */
+	private static int compareVarchar(ByteBuffer buffer, int inline, int prefixLength, ByteBuffer heap, int position, int length, byte[] key) {
+		int c = FactAlphanFilter.comparePrefix(buffer, inline, (prefixLength < key.length ? prefixLength : key.length), key);
+		if (c != 0)
+			return c;
+
+		// the value is longer than the prefix and so than the key
+		if (key.length <= prefixLength)
+			return 1;
+
+		return FactAlphanFilter.compare(heap, position, length, key);
+	}
+
+	/**
+	 * @param buffer Mapped ALPHAN data
+	 * @param slot Position of the length byte of the slot in the buffer
+	 * @param slotLength Length of the slots
+	 * @return true if the value of the slot matches the filter
+	 */
+	public boolean accept(ByteBuffer buffer, int slot, int slotLength) {
+		int length = buffer.get(slot) & 0xFF;
+		if (length >= slotLength)
+			length = slotLength - 1;
+
+		return this.acceptValue(buffer, slot + 1, length);
+	}
+
+	/**
+	 * @param buffer Buffer holding the value
+	 * @param position Position of the first byte of the value in the buffer
+	 * @param length Length of the value, 0 for the null value
+	 * @return true if the value matches the filter
+	 */
+	private boolean acceptValue(ByteBuffer buffer, int position, int length) {
+		if (this._mode == FactValueFilter.MODE_NOT_NULL)
+			return length != 0;
+
+		if (this._mode == FactValueFilter.MODE_IN || this._mode == FactValueFilter.MODE_PREFIX || this._mode == FactValueFilter.MODE_CONTAINS) {
+			boolean found = false;
+			if (length != 0) {
+				for (int i = 0; i < this._in.length && !found; i++) {
+					if (this._mode == FactValueFilter.MODE_IN)
+						found = (length == this._in[i].length && FactAlphanFilter.startsWith(buffer, position, length, this._in[i]));
+					else if (this._mode == FactValueFilter.MODE_PREFIX)
+						found = FactAlphanFilter.startsWith(buffer, position, length, this._in[i]);
+					else
+						found = FactAlphanFilter.contains(buffer, position, length, this._in[i]);
+				}
+			}
+			return found != this._not;
+		}
+
+		// null values never match a range
+		if (length == 0)
+			return false;
+
+		return (this._gt && FactAlphanFilter.compare(buffer, position, length, this._gtBytes) > 0) ||
+				(this._gtEq && FactAlphanFilter.compare(buffer, position, length, this._gtBytes) >= 0) ||
+				(this._lt && FactAlphanFilter.compare(buffer, position, length, this._ltBytes) < 0) ||
+				(this._ltEq && FactAlphanFilter.compare(buffer, position, length, this._ltBytes) <= 0) ||
+				(this._between && FactAlphanFilter.compare(buffer, position, length, this._between1Bytes) >= 0 &&
+						FactAlphanFilter.compare(buffer, position, length, this._between2Bytes) <= 0);
+	}
+
+	/**
+	 * @param buffer Mapped variable length ALPHAN data
+	 * @param slot Position of the slot in the buffer
+	 * @param prefixLength Length of the inline prefix of the slots
+	 * @param heap Mapped heap of the segment
+	 * @return true if the value of the slot matches the filter
+	 */
+	public boolean acceptVarchar(ByteBuffer buffer, int slot, int prefixLength, ByteBuffer heap) {
+		int length = FactVarcharHeap.getLength(buffer, slot);
+		int inline = slot + FactVarcharHeap.SLOT_PREFIX_POS;
+
+		// values held entirely in the prefix
+		if (length <= prefixLength)
+			return this.acceptValue(buffer, inline, length);
+
+		if (this._mode == FactValueFilter.MODE_NOT_NULL)
+			return true;
+
+		int position = (int)FactVarcharHeap.getOffset(buffer, slot);
+
+		if (this._mode == FactValueFilter.MODE_IN || this._mode == FactValueFilter.MODE_PREFIX || this._mode == FactValueFilter.MODE_CONTAINS) {
+			boolean found = false;
+			for (int i = 0; i < this._in.length && !found; i++) {
+				byte[] key = this._in[i];
+				int n = (prefixLength < key.length ? prefixLength : key.length);
+
+				if (this._mode == FactValueFilter.MODE_IN)
+					found = (length == key.length && FactAlphanFilter.comparePrefix(buffer, inline, n, key) == 0 &&
+							FactAlphanFilter.startsWith(heap, position, length, key));
+				else if (this._mode == FactValueFilter.MODE_PREFIX)
+					found = (FactAlphanFilter.comparePrefix(buffer, inline, n, key) == 0 &&
+							(key.length <= prefixLength || FactAlphanFilter.startsWith(heap, position, length, key)));
+				else
+					found = (FactAlphanFilter.contains(buffer, inline, prefixLength, key) ||
+							FactAlphanFilter.contains(heap, position, length, key));
+			}
+			return found != this._not;
+		}
+
+		return (this._gt && FactAlphanFilter.compareVarchar(buffer, inline, prefixLength, heap, position, length, this._gtBytes) > 0) ||
+				(this._gtEq && FactAlphanFilter.compareVarchar(buffer, inline, prefixLength, heap, position, length, this._gtBytes) >= 0) ||
+				(this._lt && FactAlphanFilter.compareVarchar(buffer, inline, prefixLength, heap, position, length, this._ltBytes) < 0) ||
+				(this._ltEq && FactAlphanFilter.compareVarchar(buffer, inline, prefixLength, heap, position, length, this._ltBytes) <= 0) ||
+				(this._between && FactAlphanFilter.compareVarchar(buffer, inline, prefixLength, heap, position, length, this._between1Bytes) >= 0 &&
+						FactAlphanFilter.compareVarchar(buffer, inline, prefixLength, heap, position, length, this._between2Bytes) <= 0);
+	}
+
+	/**
+	 * Sets the bits of the slots matching the filter. The bit set for slot i of the buffer is
+	 * i + bitOffset.
+	 *
+	 * @param buffer Mapped ALPHAN data, the first slot at position 0
+	 * @param count Number of slots
+	 * @param slotLength Length of the slots
+	 * @param b BitSet receiving the matches
+	 * @param bitOffset Offset added to the slot index
+	 */
+	public void filter(ByteBuffer buffer, int count, int slotLength, BitSet b, int bitOffset) {
+		for (int i = 0; i < count; i++)
+			if (this.accept(buffer, i * slotLength, slotLength))
+				b.set(i + bitOffset);
+	}
+
+	/**
+	 * Sets the bits of the candidate slots matching the filter, the other slots are not read.
+	 * The bit set for slot i of the buffer is i + bitOffset.
+	 *
+	 * @param buffer Mapped ALPHAN data
+	 * @param candidates 0 based positions in the segment to verify
+	 * @param fromPosition 0 based position in the segment of the first slot of the buffer
+	 * @param count Number of slots
+	 * @param slotLength Length of the slots
+	 * @param b BitSet receiving the matches
+	 * @param bitOffset Offset added to the slot index
+	 */
+	public void filter(ByteBuffer buffer, MutableRoaringBitmap candidates, int fromPosition, int count, int slotLength, BitSet b, int bitOffset) {
+		PeekableIntIterator it = candidates.getIntIterator();
+		it.advanceIfNeeded(fromPosition);
+
+		while (it.hasNext()) {
+			int i = it.next() - fromPosition;
+			if (i >= count)
+				break;
+
+			if (this.accept(buffer, i * slotLength, slotLength))
+				b.set(i + bitOffset);
+		}
+	}
+
+	/**
+	 * Sets the bits of the slots of a variable length ALPHAN segment matching the filter. The
+	 * bit set for slot i of the buffer is i + bitOffset.
+	 *
+	 * @param buffer Mapped variable length ALPHAN data, the first slot at position 0
+	 * @param count Number of slots
+	 * @param slotLength Length of the slots
+	 * @param heap Mapped heap of the segment
+	 * @param b BitSet receiving the matches
+	 * @param bitOffset Offset added to the slot index
+	 */
+	public void filterVarchar(ByteBuffer buffer, int count, int slotLength, ByteBuffer heap, BitSet b, int bitOffset) {
+		int prefixLength = FactVarcharHeap.getPrefixLength(slotLength);
+		for (int i = 0; i < count; i++)
+			if (this.acceptVarchar(buffer, i * slotLength, prefixLength, heap))
+				b.set(i + bitOffset);
+	}
+}
@@ -0,0 +1,521 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Writer for the block compressed fact encodings (INT, LONG, FLOAT and DOUBLE blocks). As with
+ * the compressed dimension segments the blocks cannot be updated in place, the writer collects
+ * the updates of a session and on commit applies them to the latest committed values,
+ * re-encodes the segment into a temporary file and replaces the segment file. Commits against
+ * the same segment are serialized; the last writer of a position wins.
+ *
+ * Block compression suits measures that are loaded in bulk and scanned often, such as fares
+ * and distances, and the TIMESTAMP segments, whose ordered epoch milliseconds are DELTA coded. Facts with frequent random updates should remain in the fixed length
+ * encodings written by the FactDataWriter classes.
+ */
+
+package com.hasids.io.fact;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import com.hasids.HASIDSConstants;
+import com.hasids.datastructures.BlockCheckSum;
+import com.hasids.datastructures.CheckSum;
+import com.hasids.io.dataset.DatasetCatalog;
+import com.hasids.io.dataset.DatasetSegment;
+
+public class FactCompressedDataWriter {
+
+	// one monitor per segment file to serialize commits
+	private static Hashtable<String, Object> COMMIT_TABLE = new Hashtable<String, Object>();
+
+	private String _dbName;
+	private String _datasetName;
+	private int _encoding;
+	private int _baseEncoding;
+	private int _segmentNo;
+	private int _dataLength;
+
+	// changes of the session, long form of the values
+	private Hashtable<Integer, Long> _posValuesTable = new Hashtable<Integer, Long>();
+
+	/**
+	 * Constructor for writing to an existing block compressed fact segment
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @throws Exception
+	 */
+	public FactCompressedDataWriter(String dbName, String datasetName) throws Exception {
+		if (dbName == null || dbName.trim().length() <= 0)
+			throw new Exception ("Invalid dbName!");
+
+		if (datasetName == null || datasetName.trim().length() <= 0)
+			throw new Exception ("Invalid datasetName!");
+
+		File f = new File(datasetName);
+		if (!f.exists())
+			throw new Exception ("File " + datasetName + " does not exist!");
+
+		int[] fileType = new int[1];
+		int[] encoding = new int[1];
+		int[] segmentNo = new int[1];
+		int[] datasize = new int[1];
+		short[] decimals = new short[1];
+
+		CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo);
+
+		if (fileType[0] != CheckSum.FILE_TYPE_FACT || !CheckSum.isCompressedEncoding(fileType[0], encoding[0]))
+			throw new Exception ("File " + datasetName + " is not a block compressed fact segment");
+
+		this._dbName = dbName;
+		this._datasetName = datasetName;
+		this._encoding = encoding[0];
+		this._baseEncoding = CheckSum.getFactBaseEncoding(encoding[0]);
+		this._segmentNo = segmentNo[0];
+		this._dataLength = datasize[0];
+	}
+
+	/**
+	 * Creates a block compressed INT fact segment
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @param values Values in position order
+	 * @param segmentNo Segment number
+	 * @throws Exception
+	 */
+	public static void createSegment(String dbName, String datasetName, int[] values, int segmentNo) throws Exception {
+		if (values == null)
+			throw new Exception ("Null Data!");
+
+		long[] raw = new long[values.length];
+		for (int i = 0; i < values.length; i++)
+			raw[i] = values[i];
+
+		FactCompressedDataWriter.createSegment(dbName, datasetName, raw, CheckSum.FACT_ENCODE_TYPE_INT_BLOCK, segmentNo);
+	}
+
+	/**
+	 * Creates a block compressed LONG fact segment
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @param values Values in position order
+	 * @param segmentNo Segment number
+	 * @throws Exception
+	 */
+	public static void createSegment(String dbName, String datasetName, long[] values, int segmentNo) throws Exception {
+		if (values == null)
+			throw new Exception ("Null Data!");
+
+		FactCompressedDataWriter.createSegment(dbName, datasetName, values, CheckSum.FACT_ENCODE_TYPE_LONG_BLOCK, segmentNo);
+	}
+
+	/**
+	 * Creates a block compressed FLOAT fact segment
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @param values Values in position order
+	 * @param segmentNo Segment number
+	 * @throws Exception
+	 */
+	public static void createSegment(String dbName, String datasetName, float[] values, int segmentNo) throws Exception {
+		if (values == null)
+			throw new Exception ("Null Data!");
+
+		long[] raw = new long[values.length];
+		for (int i = 0; i < values.length; i++)
+			raw[i] = FactCompressedSegment.toLong(values[i]);
+
+		FactCompressedDataWriter.createSegment(dbName, datasetName, raw, CheckSum.FACT_ENCODE_TYPE_FLOAT_BLOCK, segmentNo);
+	}
+
+	/**
+	 * Creates a block compressed DOUBLE fact segment
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @param values Values in position order
+	 * @param segmentNo Segment number
+	 * @throws Exception
+	 */
+	public static void createSegment(String dbName, String datasetName, double[] values, int segmentNo) throws Exception {
+		if (values == null)
+			throw new Exception ("Null Data!");
+
+		long[] raw = new long[values.length];
+		for (int i = 0; i < values.length; i++)
+			raw[i] = FactCompressedSegment.toLong(values[i]);
+
+		FactCompressedDataWriter.createSegment(dbName, datasetName, raw, CheckSum.FACT_ENCODE_TYPE_DOUBLE_BLOCK, segmentNo);
+	}
+
+	/**
+	 * Creates a TIMESTAMP fact segment
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @param values Epoch milliseconds (UTC) in position order, FactTimestamp.NULL_VALUE for null
+	 * @param segmentNo Segment number
+	 * @throws Exception
+	 */
+	public static void createTimestampSegment(String dbName, String datasetName, long[] values, int segmentNo) throws Exception {
+		if (values == null)
+			throw new Exception ("Null Data!");
+
+		FactCompressedDataWriter.createSegment(dbName, datasetName, values, CheckSum.FACT_ENCODE_TYPE_TIMESTAMP, segmentNo);
+	}
+
+	private static void createSegment(String dbName, String datasetName, long[] values, int encoding, int segmentNo) throws Exception {
+		if (dbName == null || dbName.trim().length() <= 0)
+			throw new Exception ("Invalid dbName!");
+
+		if (datasetName == null || datasetName.trim().length() <= 0)
+			throw new Exception ("Invalid datasetName!");
+
+		if (new File(datasetName).exists())
+			throw new Exception("File " + datasetName + " exists! Cannot create segment");
+
+		if (values.length > HASIDSConstants.DIM_MAX_RECORDS)
+			throw new Exception ("Record count must be >= 0 and <= " + HASIDSConstants.DIM_MAX_RECORDS);
+
+		if (segmentNo < 0)
+			throw new Exception ("Segment number must be >= 0");
+
+		FactCompressedDataWriter.writeSegment(dbName, datasetName, values, encoding, segmentNo);
+	}
+
+	/**
+	 * Creates a block compressed copy of a fixed length INT, LONG, FLOAT or DOUBLE fact segment
+	 *
+	 * @param dbName Database name
+	 * @param sourceDatasetName Fixed length fact segment
+	 * @param targetDatasetName Compressed segment to be created
+	 * @return encoding of the compressed segment
+	 * @throws Exception
+	 */
+	public static int compress(String dbName, String sourceDatasetName, String targetDatasetName) throws Exception {
+		return FactCompressedDataWriter.compress(dbName, sourceDatasetName, targetDatasetName, false);
+	}
+
+	/**
+	 * Creates a block compressed copy of a fixed length INT, LONG, FLOAT or DOUBLE fact segment
+	 *
+	 * @param dbName Database name
+	 * @param sourceDatasetName Fixed length fact segment
+	 * @param targetDatasetName Compressed segment to be created
+	 * @param timestamp Create a TIMESTAMP segment, the source must be a LONG segment of epoch milliseconds
+	 * @return encoding of the compressed segment
+	 * @throws Exception
+	 */
+	public static int compress(String dbName, String sourceDatasetName, String targetDatasetName, boolean timestamp) throws Exception {
+		int[] fileType = new int[1];
+		int[] sourceEncoding = new int[1];
+		int[] segmentNo = new int[1];
+		int[] datasize = new int[1];
+		short[] decimals = new short[1];
+		int[] headerLength = new int[1];
+
+		CheckSum.validateFile(dbName, sourceDatasetName, fileType, sourceEncoding, datasize, decimals, segmentNo, headerLength);
+
+		if (fileType[0] != CheckSum.FILE_TYPE_FACT)
+			throw new Exception ("File " + sourceDatasetName + " is not a fact segment");
+
+		if (timestamp && sourceEncoding[0] != CheckSum.FACT_ENCODE_TYPE_LONG)
+			throw new Exception ("File " + sourceDatasetName + " is not a LONG fact segment");
+
+		int encoding = (timestamp ? CheckSum.FACT_ENCODE_TYPE_TIMESTAMP : CheckSum.getFactBlockEncoding(sourceEncoding[0]));
+		long[] values = null;
+
+		RandomAccessFile raf = new RandomAccessFile(sourceDatasetName, "r");
+		FileChannel fc = raf.getChannel();
+		try {
+			int recordCount = (int)((fc.size() - headerLength[0])/datasize[0]);
+			ByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, headerLength[0], (long)recordCount * datasize[0]);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			values = new long[recordCount];
+			if (sourceEncoding[0] == CheckSum.FACT_ENCODE_TYPE_INT)
+				for (int i = 0; i < recordCount; i++)
+					values[i] = buffer.getInt(i * 4);
+			else if (sourceEncoding[0] == CheckSum.FACT_ENCODE_TYPE_FLOAT)
+				for (int i = 0; i < recordCount; i++)
+					values[i] = buffer.getInt(i * 4) & 0xFFFFFFFFL;
+			else
+				for (int i = 0; i < recordCount; i++)
+					values[i] = buffer.getLong(i * 8);
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		FactCompressedDataWriter.createSegment(dbName, targetDatasetName, values, encoding, segmentNo[0]);
+
+		return encoding;
+	}
+
+	/**
+	 * Encodes the values and replaces the segment file
+	 *
+	 * @throws Exception
+	 */
+	private static void writeSegment(String dbName, String datasetName, long[] values, int encoding, int segmentNo) throws Exception {
+		long beginTime = System.nanoTime();
+
+		int baseEncoding = CheckSum.getFactBaseEncoding(encoding);
+		int dataLength = (baseEncoding == CheckSum.FACT_ENCODE_TYPE_INT || baseEncoding == CheckSum.FACT_ENCODE_TYPE_FLOAT ?
+				CheckSum.INT_FLOAT_LEN : CheckSum.LONG_DOUBLE_LEN);
+
+		ByteBuffer body = FactCompressedSegment.encode(values, encoding);
+		long fileSize = (long)CheckSum.FILE_V2_HEADER_LENGTH + body.remaining();
+		long lastModifiedTime = System.currentTimeMillis();
+
+		ByteBuffer header = ByteBuffer.allocate(CheckSum.FILE_V2_HEADER_LENGTH);
+		CheckSum.writeHeaderV2(header, CheckSum.FILE_TYPE_FACT, encoding, segmentNo, dataLength, (short)0,
+				values.length, dbName + "|" + datasetName, fileSize, lastModifiedTime);
+
+		File f = new File(datasetName);
+		File temp = new File(datasetName + ".tmp");
+
+		RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		FileChannel fc = raf.getChannel();
+		try {
+			raf.setLength(0);
+			while (header.hasRemaining())
+				fc.write(header, header.position());
+			while (body.hasRemaining())
+				fc.write(body, CheckSum.FILE_V2_HEADER_LENGTH + body.position());
+			fc.force(true);
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		if (f.exists() && !f.delete())
+			throw new Exception ("Unable to replace segment " + datasetName);
+
+		if (!temp.renameTo(f))
+			throw new Exception ("Unable to replace segment " + datasetName);
+
+		// set the last modified time
+		f.setLastModified(lastModifiedTime);
+		FactCompressedSegment.invalidate(datasetName);
+
+		try {
+			DatasetCatalog.refresh(new DatasetSegment(dbName, datasetName, CheckSum.FILE_TYPE_FACT, encoding, segmentNo,
+					dataLength, (short)0, CheckSum.FILE_V2_HEADER_LENGTH, values.length, f.lastModified()));
+		}
+		catch (Exception e) {
+			DatasetCatalog.remove(dbName, datasetName);
+		}
+
+		// checksum the data blocks of the new segment
+		BlockCheckSum.build(datasetName, CheckSum.FILE_V2_HEADER_LENGTH);
+
+		// rebuild the null bitmap of the segment, if it has one
+		if (FactNullBitmap.exists(datasetName)) {
+			try {
+				FactNullBitmap.build(datasetName, values, FactCompressedSegment.getNullValue(baseEncoding), f.lastModified());
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+				FactNullBitmap.delete(datasetName);
+			}
+		}
+
+		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((System.nanoTime() - beginTime), TimeUnit.NANOSECONDS);
+		System.out.println("Compressed segment " + datasetName + " written, records : " + values.length +
+				", encoding : " + encoding + ", size : " + fileSize + " in " + elapsedTimeInMillis + " Milliseconds");
+	}
+
+	public String getDbName() {
+		return this._dbName;
+	}
+
+	public String getDatasetName() {
+		return this._datasetName;
+	}
+
+	public int getEncoding() {
+		return this._encoding;
+	}
+
+	public int getDataLength() {
+		return this._dataLength;
+	}
+
+	public int getSegmentNo() {
+		return this._segmentNo;
+	}
+
+	private void checkPositions(int[] position, int valuesLength, int encoding) throws Exception {
+		if (this._baseEncoding != encoding)
+			throw new Exception ("Mismatch between value type and encoding type");
+
+		if (position == null || position.length != valuesLength)
+			throw new Exception("Null Data or data length does not match values length!");
+
+		for (int i = 0; i < position.length; i++)
+			if (position[i] < 0 || position[i] >= HASIDSConstants.DIM_MAX_RECORDS)
+				throw new Exception ("Invalid position " + position[i]);
+	}
+
+	/**
+	 * Sets the values of positions of an INT segment. Positions beyond the current record
+	 * count extend the segment, records in between are null.
+	 *
+	 * @param position 0 based positions
+	 * @param values Values
+	 * @throws Exception
+	 */
+	public void setWriteDataPositionBuffer(int[] position, int[] values) throws Exception {
+		this.checkPositions(position, (values == null ? -1 : values.length), CheckSum.FACT_ENCODE_TYPE_INT);
+
+		for (int i = 0; i < position.length; i++)
+			this._posValuesTable.put(position[i], (long)values[i]);
+	}
+
+	/**
+	 * Sets the values of positions of a LONG segment
+	 *
+	 * @param position 0 based positions
+	 * @param values Values
+	 * @throws Exception
+	 */
+	public void setWriteDataPositionBuffer(int[] position, long[] values) throws Exception {
+		this.checkPositions(position, (values == null ? -1 : values.length), CheckSum.FACT_ENCODE_TYPE_LONG);
+
+		for (int i = 0; i < position.length; i++)
+			this._posValuesTable.put(position[i], values[i]);
+	}
+
+	/**
+	 * Sets the values of positions of a FLOAT segment
+	 *
+	 * @param position 0 based positions
+	 * @param values Values
+	 * @throws Exception
+	 */
+	public void setWriteDataPositionBuffer(int[] position, float[] values) throws Exception {
+		this.checkPositions(position, (values == null ? -1 : values.length), CheckSum.FACT_ENCODE_TYPE_FLOAT);
+
+		for (int i = 0; i < position.length; i++)
+			this._posValuesTable.put(position[i], FactCompressedSegment.toLong(values[i]));
+	}
+
+	/**
+	 * Sets the values of positions of a DOUBLE segment
+	 *
+	 * @param position 0 based positions
+	 * @param values Values
+	 * @throws Exception
+	 */
+	public void setWriteDataPositionBuffer(int[] position, double[] values) throws Exception {
+		this.checkPositions(position, (values == null ? -1 : values.length), CheckSum.FACT_ENCODE_TYPE_DOUBLE);
+
+		for (int i = 0; i < position.length; i++)
+			this._posValuesTable.put(position[i], FactCompressedSegment.toLong(values[i]));
+	}
+
+	/**
+	 * Discards the changes of the session
+	 */
+	public void rollback() {
+		this._posValuesTable.clear();
+	}
+
+	/**
+	 * Applies the changes of the session to the latest committed values and replaces the
+	 * segment file
+	 *
+	 * @return record count after the commit
+	 * @throws Exception
+	 */
+	public int commit() throws Exception {
+		Object monitor = null;
+		synchronized (COMMIT_TABLE) {
+			monitor = COMMIT_TABLE.get(this._datasetName);
+			if (monitor == null) {
+				monitor = new Object();
+				COMMIT_TABLE.put(this._datasetName, monitor);
+			}
+		}
+
+		synchronized (monitor) {
+			int[] fileType = new int[1];
+			int[] encoding = new int[1];
+			int[] segmentNo = new int[1];
+			int[] datasize = new int[1];
+			short[] decimals = new short[1];
+			int[] headerLength = new int[1];
+
+			CheckSum.validateFile(this._dbName, this._datasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
+			int recordCount = (int)CheckSum.getRecordCount(this._datasetName, datasize[0]);
+
+			long[] current = FactCompressedSegment.getSegment(this._datasetName, headerLength[0], encoding[0], false).decode();
+
+			// determine the new record count
+			int newRecordCount = recordCount;
+			Enumeration<Integer> e = this._posValuesTable.keys();
+			while (e.hasMoreElements()) {
+				int key = e.nextElement();
+				if (key >= newRecordCount)
+					newRecordCount = key + 1;
+			}
+
+			long[] values = current;
+			if (newRecordCount != recordCount) {
+				values = new long[newRecordCount];
+				System.arraycopy(current, 0, values, 0, recordCount);
+				Arrays.fill(values, recordCount, newRecordCount, FactCompressedSegment.getNullValue(this._baseEncoding));
+			}
+
+			e = this._posValuesTable.keys();
+			while (e.hasMoreElements()) {
+				int key = e.nextElement();
+				values[key] = this._posValuesTable.get(key);
+			}
+
+			FactCompressedDataWriter.writeSegment(this._dbName, this._datasetName, values, encoding[0], segmentNo[0]);
+
+			this.rollback();
+			return newRecordCount;
+		}
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		String dbName = "Test";
+		String source = "c:\\users\\dpras\\tempdata\\testdata\\tripdistance.FC";
+		String target = "c:\\users\\dpras\\tempdata\\testdata\\tripdistance_block.FC";
+
+		try {
+			int encoding = FactCompressedDataWriter.compress(dbName, source, target);
+			System.out.println("Compressed " + source + " using encoding " + encoding);
+
+			FactCompressedDataWriter w = new FactCompressedDataWriter(dbName, target);
+			w.setWriteDataPositionBuffer(new int[] {0, 10}, new double[] {2.5, 3.75});
+			System.out.println("Record count after commit : " + w.commit());
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,1200 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * In memory form of a block compressed fact segment. The records are divided into blocks of
+ * BLOCK_SIZE values and each block is compressed independently with the codec giving the
+ * smallest block:
+ *
+ * CODEC_FOR
+ * frame of reference, value - block minimum packed at ceil(log2(max - min + 1)) bits
+ *
+ * CODEC_DELTA
+ * first value of the block followed by the differences between consecutive values, minus the
+ * smallest difference, packed at ceil(log2(range of differences + 1)) bits. Chosen for sorted
+ * or slowly changing columns such as timestamps and running totals.
+ *
+ * CODEC_XOR
+ * FLOAT and DOUBLE only. Gorilla style XOR of each value with the previous one; a 0 bit when
+ * the value repeats, else the meaningful bits of the XOR either within the window of leading
+ * and trailing zeros of the previous XOR or preceded by 6 bits of leading zeros and 6 bits of
+ * length.
+ *
+ * The data region following the version 2 header is made up of longs (LITTLE ENDIAN):
+ *
+ * long block size (low int) and block count (high int), long[block count] offset of each block
+ * in longs from the beginning of the data region, followed by the blocks. Each block begins with
+ * a header of BLOCK_HEADER_WORDS longs: codec (byte), bit width (byte), flags (short) and value
+ * count (int); minimum value; maximum value; base (the reference value of FOR, the first value
+ * of DELTA); smallest difference (DELTA). The minimum and maximum of FLOAT and DOUBLE blocks
+ * are the bits of double values excluding NaN. The packed bits follow the header and are stored
+ * from the least significant bit of each long.
+ *
+ * Values are handled as longs: INT and LONG values as is, FLOAT values as their raw int bits
+ * and DOUBLE values as their raw long bits. Scans compare the filter with the minimum and
+ * maximum of each block first and decode only the blocks that match partially, into a
+ * primitive buffer that is reused for all the blocks scanned by a thread. Loaded segments are
+ * cached by file name and reloaded when the file changes.
+ *
+ * TIMESTAMP segments are LONG blocks of epoch milliseconds, typically DELTA coded. Besides the
+ * value filters they are counted into time buckets of fixed widths, several widths in the same
+ * pass; a block whose values all fall in one bucket is counted without being decoded.
+ */
+
+package com.hasids.io.fact;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Hashtable;
+
+import com.hasids.HASIDSConstants;
+import com.hasids.datastructures.BlockCheckSum;
+import com.hasids.datastructures.CheckSum;
+
+public class FactCompressedSegment {
+
+	// values per block, a multiple of 64 so that the blocks cover distinct words of a BitSet
+	public static final int BLOCK_SIZE = 4096;
+
+	// block codecs
+	public static final int CODEC_FOR = 1;
+	public static final int CODEC_DELTA = 2;
+	public static final int CODEC_XOR = 3;
+
+	// length of the block header in longs
+	public static final int BLOCK_HEADER_WORDS = 5;
+
+	// block flags
+	public static final int FLAG_NAN = 1;
+
+	// maximum number of buckets of a time series
+	public static final int MAX_TIME_SERIES_BUCKETS = 1 << 22;
+
+	private static Hashtable<String, SoftReference<FactCompressedSegment>> CACHE = new Hashtable<String, SoftReference<FactCompressedSegment>>();
+
+	private int _encoding;
+	private int _baseEncoding;
+	private int _recordCount;
+	private int _blockSize;
+	private int _blockCount;
+	private long[] _words;
+	private long _lastModified = 0L;
+	private long _fileLength = 0L;
+
+	private FactCompressedSegment(int encoding, int recordCount) {
+		this._encoding = encoding;
+		this._baseEncoding = CheckSum.getFactBaseEncoding(encoding);
+		this._recordCount = recordCount;
+	}
+
+	public int getEncoding() {
+		return this._encoding;
+	}
+
+	public int getBaseEncoding() {
+		return this._baseEncoding;
+	}
+
+	public int getRecordCount() {
+		return this._recordCount;
+	}
+
+	public int getBlockSize() {
+		return this._blockSize;
+	}
+
+	public int getBlockCount() {
+		return this._blockCount;
+	}
+
+	/**
+	 * @param block Block number
+	 * @return codec of the block
+	 */
+	public int getBlockCodec(int block) {
+		return (int)(this._words[this.getBlockOffset(block)] & 0xFF);
+	}
+
+	/**
+	 * @param block Block number
+	 * @return bit width of the packed values of the block
+	 */
+	public int getBlockBitWidth(int block) {
+		return (int)((this._words[this.getBlockOffset(block)] >>> 8) & 0xFF);
+	}
+
+	/**
+	 * @param block Block number
+	 * @return long form of the minimum value of the block, including null values
+	 */
+	public long getBlockMinimum(int block) {
+		return this._words[this.getBlockOffset(block) + 1];
+	}
+
+	/**
+	 * @param block Block number
+	 * @return long form of the maximum value of the block, including null values
+	 */
+	public long getBlockMaximum(int block) {
+		return this._words[this.getBlockOffset(block) + 2];
+	}
+
+	private int getBlockOffset(int block) {
+		return (int)this._words[1 + block];
+	}
+
+	private boolean isFloatingPoint() {
+		return (this._baseEncoding == CheckSum.FACT_ENCODE_TYPE_FLOAT || this._baseEncoding == CheckSum.FACT_ENCODE_TYPE_DOUBLE);
+	}
+
+	/**
+	 * Returns the compressed segment of a dataset file from the cache, loading it if it is not
+	 * cached or if the file has changed since it was cached.
+	 *
+	 * @param datasetName Dataset file name
+	 * @param headerLength Length of the file header
+	 * @param encoding Block compressed fact encoding from the header
+	 * @param verifyChecksums Verify the block checksums while loading
+	 * @return compressed segment
+	 * @throws Exception
+	 */
+	public static FactCompressedSegment getSegment(String datasetName, int headerLength, int encoding, boolean verifyChecksums) throws Exception {
+		File f = new File(datasetName);
+
+		SoftReference<FactCompressedSegment> ref = CACHE.get(datasetName);
+		FactCompressedSegment segment = (ref == null ? null : ref.get());
+		if (!verifyChecksums && segment != null && segment._lastModified == f.lastModified() && segment._fileLength == f.length())
+			return segment;
+
+		synchronized (CACHE) {
+			segment = FactCompressedSegment.load(datasetName, headerLength, encoding, verifyChecksums);
+			CACHE.put(datasetName, new SoftReference<FactCompressedSegment>(segment));
+		}
+
+		return segment;
+	}
+
+	/**
+	 * Removes a dataset file from the cache
+	 *
+	 * @param datasetName
+	 */
+	public static void invalidate(String datasetName) {
+		CACHE.remove(datasetName);
+	}
+
+	/**
+	 * Loads the data region of a block compressed fact file
+	 *
+	 * @throws Exception
+	 */
+	private static FactCompressedSegment load(String datasetName, int headerLength, int encoding, boolean verifyChecksums) throws Exception {
+		if (!CheckSum.isCompressedEncoding(CheckSum.FILE_TYPE_FACT, encoding))
+			throw new Exception ("Encoding " + encoding + " is not a block compressed fact encoding");
+
+		File f = new File(datasetName);
+		long recordCount = CheckSum.getRecordCount(datasetName, 1);
+		if (recordCount < 0 || recordCount > HASIDSConstants.DIM_MAX_RECORDS)
+			throw new Exception ("Invalid record count in " + datasetName);
+
+		FactCompressedSegment segment = new FactCompressedSegment(encoding, (int)recordCount);
+		segment._lastModified = f.lastModified();
+		segment._fileLength = f.length();
+
+		RandomAccessFile raf = new RandomAccessFile(datasetName, "r");
+		FileChannel fc = raf.getChannel();
+
+		try {
+			long bodyLength = fc.size() - headerLength;
+			if (bodyLength < 8 || bodyLength > Integer.MAX_VALUE || (bodyLength & 7) != 0)
+				throw new Exception ("Invalid compressed data length in " + datasetName);
+
+			ByteBuffer body = ByteBuffer.allocate((int)bodyLength).order(ByteOrder.LITTLE_ENDIAN);
+			while (body.hasRemaining())
+				if (fc.read(body, headerLength + body.position()) < 0)
+					throw new Exception ("Unexpected end of file in " + datasetName);
+			body.flip();
+
+			if (verifyChecksums)
+				BlockCheckSum.verify(datasetName, fc, headerLength, body, 0, bodyLength);
+
+			segment._words = new long[(int)(bodyLength >>> 3)];
+			body.asLongBuffer().get(segment._words);
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		segment._blockSize = (int)segment._words[0];
+		segment._blockCount = (int)(segment._words[0] >>> 32);
+
+		if (segment._blockSize <= 0 || (segment._blockSize & 63) != 0 ||
+				segment._blockCount != (segment._recordCount + segment._blockSize - 1) / segment._blockSize ||
+				1 + segment._blockCount > segment._words.length)
+			throw new Exception ("Invalid block layout in " + datasetName);
+
+		return segment;
+	}
+
+	/**
+	 * @param value
+	 * @return long form of a FLOAT value
+	 */
+	public static long toLong(float value) {
+		return Float.floatToRawIntBits(value) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @param value
+	 * @return long form of a DOUBLE value
+	 */
+	public static long toLong(double value) {
+		return Double.doubleToRawLongBits(value);
+	}
+
+	/**
+	 * @param value
+	 * @return FLOAT value of its long form
+	 */
+	public static float toFloat(long value) {
+		return Float.intBitsToFloat((int)value);
+	}
+
+	/**
+	 * @param value
+	 * @return DOUBLE value of its long form
+	 */
+	public static double toDouble(long value) {
+		return Double.longBitsToDouble(value);
+	}
+
+	/**
+	 * Returns the long form of the null value of a fixed length fact encoding
+	 *
+	 * @param encoding INT, LONG, FLOAT or DOUBLE
+	 * @return null value
+	 * @throws Exception
+	 */
+	public static long getNullValue(int encoding) throws Exception {
+		switch (encoding) {
+		case CheckSum.FACT_ENCODE_TYPE_INT: return Integer.MIN_VALUE;
+		case CheckSum.FACT_ENCODE_TYPE_LONG: return Long.MIN_VALUE;
+		case CheckSum.FACT_ENCODE_TYPE_FLOAT: return FactCompressedSegment.toLong(Float.MIN_VALUE);
+		case CheckSum.FACT_ENCODE_TYPE_DOUBLE: return FactCompressedSegment.toLong(Double.MIN_VALUE);
+		default: throw new Exception ("Encoding " + encoding + " is not an INT, LONG, FLOAT or DOUBLE fact encoding");
+		}
+	}
+
+	private static int getWordCount(int count, int bitWidth) {
+		return (int)(((long)count * bitWidth + 63) >>> 6);
+	}
+
+	private static int getBitWidth(long range) {
+		return (range == 0 ? 0 : 64 - Long.numberOfLeadingZeros(range));
+	}
+
+	private static void putBits(long[] words, long bit, int bitWidth, long value) {
+		int word = (int)(bit >>> 6);
+		int shift = (int)(bit & 63);
+
+		if (bitWidth < 64)
+			value &= (1L << bitWidth) - 1;
+
+		words[word] |= value << shift;
+		if (shift + bitWidth > 64)
+			words[word + 1] |= value >>> (64 - shift);
+	}
+
+	private static long getBits(long[] words, long bit, int bitWidth) {
+		int word = (int)(bit >>> 6);
+		int shift = (int)(bit & 63);
+
+		long value = words[word] >>> shift;
+		if (shift + bitWidth > 64)
+			value |= words[word + 1] << (64 - shift);
+
+		return (bitWidth == 64 ? value : value & ((1L << bitWidth) - 1));
+	}
+
+	/**
+	 * Encodes the values of a fact segment into the data region of the compressed file
+	 *
+	 * @param values Long form of the values of all the records in position order
+	 * @param encoding Block compressed fact encoding
+	 * @return Data region positioned at 0
+	 * @throws Exception
+	 */
+	public static ByteBuffer encode(long[] values, int encoding) throws Exception {
+		if (!CheckSum.isCompressedEncoding(CheckSum.FILE_TYPE_FACT, encoding))
+			throw new Exception ("Encoding " + encoding + " is not a block compressed fact encoding");
+
+		int blockCount = (values.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+		// worst case of a block is 78 bits per XOR value
+		long[] scratch = new long[BLOCK_HEADER_WORDS + FactCompressedSegment.getWordCount(BLOCK_SIZE, 78) + 1];
+		long[] words = new long[1 + blockCount + Math.max(values.length / 4, 64)];
+		int length = 1 + blockCount;
+
+		words[0] = (BLOCK_SIZE & 0xFFFFFFFFL) | ((long)blockCount << 32);
+
+		for (int i = 0; i < blockCount; i++) {
+			int from = i * BLOCK_SIZE;
+			int count = Math.min(BLOCK_SIZE, values.length - from);
+
+			int blockLength = FactCompressedSegment.encodeBlock(values, from, count, encoding, scratch);
+
+			if (length + blockLength > words.length)
+				words = Arrays.copyOf(words, Math.max(words.length * 2, length + blockLength));
+
+			words[1 + i] = length;
+			System.arraycopy(scratch, 0, words, length, blockLength);
+			length += blockLength;
+		}
+
+		ByteBuffer body = ByteBuffer.allocate(length * 8).order(ByteOrder.LITTLE_ENDIAN);
+		body.asLongBuffer().put(words, 0, length);
+		return body;
+	}
+
+	/**
+	 * Encodes a block with the codec giving the smallest block
+	 *
+	 * @return length of the block in longs
+	 */
+	private static int encodeBlock(long[] values, int from, int count, int encoding, long[] block) {
+		boolean floatingPoint = (encoding == CheckSum.FACT_ENCODE_TYPE_FLOAT_BLOCK || encoding == CheckSum.FACT_ENCODE_TYPE_DOUBLE_BLOCK);
+		int to = from + count;
+
+		// minimum and maximum of the long form
+		long minLong = values[from], maxLong = values[from];
+		for (int i = from + 1; i < to; i++) {
+			if (values[i] < minLong)
+				minLong = values[i];
+			if (values[i] > maxLong)
+				maxLong = values[i];
+		}
+
+		int codec = CODEC_FOR;
+		int bitWidth = FactCompressedSegment.getBitWidth(maxLong - minLong);
+		int packedWords = FactCompressedSegment.getWordCount(count, bitWidth);
+		long base = minLong;
+		long minDelta = 0;
+		int flags = 0;
+		long min = minLong, max = maxLong;
+
+		if (!floatingPoint) {
+			if (count > 1) {
+				long minD = values[from + 1] - values[from], maxD = minD;
+				for (int i = from + 2; i < to; i++) {
+					long d = values[i] - values[i - 1];
+					if (d < minD)
+						minD = d;
+					if (d > maxD)
+						maxD = d;
+				}
+
+				int deltaWidth = FactCompressedSegment.getBitWidth(maxD - minD);
+				int deltaWords = FactCompressedSegment.getWordCount(count - 1, deltaWidth);
+				if (deltaWords < packedWords) {
+					codec = CODEC_DELTA;
+					bitWidth = deltaWidth;
+					packedWords = deltaWords;
+					base = values[from];
+					minDelta = minD;
+				}
+			}
+		}
+		else {
+			// value range excluding NaN
+			double minDouble = Double.NaN, maxDouble = Double.NaN;
+			for (int i = from; i < to; i++) {
+				double d = (encoding == CheckSum.FACT_ENCODE_TYPE_FLOAT_BLOCK ? FactCompressedSegment.toFloat(values[i]) : FactCompressedSegment.toDouble(values[i]));
+				if (d != d)
+					flags |= FLAG_NAN;
+				else if (minDouble != minDouble) {
+					minDouble = d;
+					maxDouble = d;
+				}
+				else if (d < minDouble)
+					minDouble = d;
+				else if (d > maxDouble)
+					maxDouble = d;
+			}
+			min = FactCompressedSegment.toLong(minDouble);
+			max = FactCompressedSegment.toLong(maxDouble);
+
+			int w = (encoding == CheckSum.FACT_ENCODE_TYPE_FLOAT_BLOCK ? 32 : 64);
+			Arrays.fill(block, 0, block.length, 0L);
+			long bits = FactCompressedSegment.encodeXOR(values, from, count, w, block, BLOCK_HEADER_WORDS);
+			int xorWords = (int)((bits + 63) >>> 6);
+
+			if (xorWords < packedWords) {
+				block[0] = CODEC_XOR | ((long)w << 8) | ((long)flags << 16) | ((long)count << 32);
+				block[1] = min;
+				block[2] = max;
+				block[3] = values[from];
+				block[4] = 0L;
+				return BLOCK_HEADER_WORDS + xorWords;
+			}
+		}
+
+		Arrays.fill(block, 0, BLOCK_HEADER_WORDS + packedWords, 0L);
+		block[0] = codec | ((long)bitWidth << 8) | ((long)flags << 16) | ((long)count << 32);
+		block[1] = min;
+		block[2] = max;
+		block[3] = base;
+		block[4] = minDelta;
+
+		if (bitWidth > 0) {
+			long bit = (long)BLOCK_HEADER_WORDS << 6;
+			if (codec == CODEC_FOR) {
+				for (int i = from; i < to; i++, bit += bitWidth)
+					FactCompressedSegment.putBits(block, bit, bitWidth, values[i] - base);
+			}
+			else {
+				for (int i = from + 1; i < to; i++, bit += bitWidth)
+					FactCompressedSegment.putBits(block, bit, bitWidth, values[i] - values[i - 1] - minDelta);
+			}
+		}
+
+		return BLOCK_HEADER_WORDS + packedWords;
+	}
+
+	/**
+	 * Gorilla style XOR encoding of w bit values
+	 *
+	 * @return number of bits written
+	 */
+	private static long encodeXOR(long[] values, int from, int count, int w, long[] block, int wordOffset) {
+		long bit = (long)wordOffset << 6;
+		long prev = values[from];
+
+		FactCompressedSegment.putBits(block, bit, w, prev);
+		bit += w;
+
+		int prevLeading = -1, prevTrailing = 0;
+		for (int i = from + 1; i < from + count; i++) {
+			long xor = values[i] ^ prev;
+			prev = values[i];
+
+			// repeated value, single 0 bit
+			if (xor == 0) {
+				++bit;
+				continue;
+			}
+
+			FactCompressedSegment.putBits(block, bit++, 1, 1L);
+
+			int leading = Long.numberOfLeadingZeros(xor) - (64 - w);
+			int trailing = Long.numberOfTrailingZeros(xor);
+
+			if (prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) {
+				// within the previous window, 0 bit followed by the window bits
+				++bit;
+				int length = w - prevLeading - prevTrailing;
+				FactCompressedSegment.putBits(block, bit, length, xor >>> prevTrailing);
+				bit += length;
+			}
+			else {
+				// new window, 1 bit, leading zeros, length - 1 and the meaningful bits
+				FactCompressedSegment.putBits(block, bit++, 1, 1L);
+				FactCompressedSegment.putBits(block, bit, 6, leading);
+				bit += 6;
+				int length = w - leading - trailing;
+				FactCompressedSegment.putBits(block, bit, 6, length - 1);
+				bit += 6;
+				FactCompressedSegment.putBits(block, bit, length, xor >>> trailing);
+				bit += length;
+
+				prevLeading = leading;
+				prevTrailing = trailing;
+			}
+		}
+
+		return bit - ((long)wordOffset << 6);
+	}
+
+	/**
+	 * Unpacks bit packed codes and adds them to a base value
+	 */
+	private static void unpack(long[] words, int wordPosition, int bitWidth, int count, long base, long[] values, int valuePosition) {
+		if (count <= 0)
+			return;
+
+		if (bitWidth == 0) {
+			Arrays.fill(values, valuePosition, valuePosition + count, base);
+			return;
+		}
+
+		long mask = (bitWidth == 64 ? -1L : (1L << bitWidth) - 1);
+		int word = wordPosition;
+		int shift = 0;
+		long current = words[word];
+		long code;
+
+		for (int i = valuePosition; i < valuePosition + count; i++) {
+			if (shift + bitWidth <= 64) {
+				code = (current >>> shift) & mask;
+				shift += bitWidth;
+				if (shift == 64) {
+					shift = 0;
+					if (++word < words.length)
+						current = words[word];
+				}
+			}
+			else {
+				long next = words[++word];
+				code = ((current >>> shift) | (next << (64 - shift))) & mask;
+				current = next;
+				shift = shift + bitWidth - 64;
+			}
+
+			values[i] = base + code;
+		}
+	}
+
+	/**
+	 * Decodes a block into a buffer. No objects are allocated, the buffer can be reused for
+	 * all the blocks.
+	 *
+	 * @param block Block number
+	 * @param values Buffer of at least getBlockSize() longs receiving the long form of the values
+	 * @return number of values in the block
+	 */
+	public int decodeBlock(int block, long[] values) {
+		int offset = this.getBlockOffset(block);
+		long header = this._words[offset];
+
+		int codec = (int)(header & 0xFF);
+		int bitWidth = (int)((header >>> 8) & 0xFF);
+		int count = (int)(header >>> 32);
+		long base = this._words[offset + 3];
+		int wordPosition = offset + BLOCK_HEADER_WORDS;
+
+		if (codec == CODEC_FOR) {
+			FactCompressedSegment.unpack(this._words, wordPosition, bitWidth, count, base, values, 0);
+		}
+		else if (codec == CODEC_DELTA) {
+			values[0] = base;
+			FactCompressedSegment.unpack(this._words, wordPosition, bitWidth, count - 1, this._words[offset + 4], values, 1);
+			for (int i = 1; i < count; i++)
+				values[i] += values[i - 1];
+		}
+		else {
+			// bitWidth holds the width of the values, 32 or 64
+			long[] words = this._words;
+			long bit = (long)wordPosition << 6;
+			long value = FactCompressedSegment.getBits(words, bit, bitWidth);
+			bit += bitWidth;
+			values[0] = value;
+
+			int leading = 0, trailing = 0;
+			for (int i = 1; i < count; i++) {
+				if (((words[(int)(bit >>> 6)] >>> (bit & 63)) & 1) == 0) {
+					++bit;
+					values[i] = value;
+					continue;
+				}
+				++bit;
+
+				int length;
+				if (((words[(int)(bit >>> 6)] >>> (bit & 63)) & 1) != 0) {
+					++bit;
+					leading = (int)FactCompressedSegment.getBits(words, bit, 6);
+					bit += 6;
+					length = (int)FactCompressedSegment.getBits(words, bit, 6) + 1;
+					bit += 6;
+					trailing = bitWidth - leading - length;
+				}
+				else {
+					++bit;
+					length = bitWidth - leading - trailing;
+				}
+
+				value ^= FactCompressedSegment.getBits(words, bit, length) << trailing;
+				bit += length;
+				values[i] = value;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Matches a filter with the minimum and maximum values of a block
+	 *
+	 * @param filter
+	 * @param block Block number
+	 * @return FactValueFilter.MATCH_NONE, MATCH_SOME or MATCH_ALL
+	 */
+	public int matchBlock(FactValueFilter filter, int block) {
+		int offset = this.getBlockOffset(block);
+
+		if (this.isFloatingPoint())
+			return filter.matchBlock(FactCompressedSegment.toDouble(this._words[offset + 1]), FactCompressedSegment.toDouble(this._words[offset + 2]),
+					((this._words[offset] >>> 16) & FLAG_NAN) != 0);
+		else
+			return filter.matchBlock(this._words[offset + 1], this._words[offset + 2]);
+	}
+
+	/**
+	 * Decodes all the records of the segment
+	 *
+	 * @return long form of the values in position order
+	 */
+	public long[] decode() {
+		long[] values = new long[this._recordCount];
+		long[] buffer = new long[this._blockSize];
+
+		for (int i = 0; i < this._blockCount; i++) {
+			int count = this.decodeBlock(i, buffer);
+			System.arraycopy(buffer, 0, values, i * this._blockSize, count);
+		}
+
+		return values;
+	}
+
+	/**
+	 * Returns the values of positions, decoding each block once for consecutive positions in
+	 * the same block. Sorted positions decode every block at most once.
+	 *
+	 * @param positions Positions
+	 * @param positionOffset Offset added to the positions to get the 0 based positions
+	 * @param values Array receiving the long form of the values
+	 * @throws Exception
+	 */
+	public void getValues(int[] positions, int positionOffset, long[] values) throws Exception {
+		long[] buffer = new long[this._blockSize];
+		int decodedBlock = -1;
+
+		for (int i = 0; i < positions.length; i++) {
+			int position = positions[i] + positionOffset;
+			if (position < 0 || position >= this._recordCount)
+				throw new Exception ("Position " + positions[i] + " out of range");
+
+			int block = position / this._blockSize;
+			if (block != decodedBlock) {
+				this.decodeBlock(block, buffer);
+				decodedBlock = block;
+			}
+
+			values[i] = buffer[position - block * this._blockSize];
+		}
+	}
+
+	/**
+	 * Sets the bits of the records between two positions whose values match the filter. The
+	 * bit set for a matching position p is p + bitOffset. The blocks are divided between the
+	 * threads, each decoding into its own buffer.
+	 *
+	 * @param filter Value predicate
+	 * @param fromPosition 0 based position, inclusive
+	 * @param toPosition 0 based position, exclusive
+	 * @param b BitSet receiving the matches
+	 * @param bitOffset Offset added to the positions
+	 * @param noParallelThreads Number of threads decoding blocks in parallel
+	 * @throws Exception
+	 */
+	public void filter(FactValueFilter filter, int fromPosition, int toPosition, BitSet b, int bitOffset, int noParallelThreads) throws Exception {
+		if (filter.isFloatingPoint() != this.isFloatingPoint())
+			throw new Exception ("Mismatch between filter type and encoding type");
+
+		this.scan(filter, fromPosition, toPosition, b, bitOffset, noParallelThreads);
+	}
+
+	/**
+	 * Computes the count, sum, minimum and maximum of the not null values of the records
+	 * between two positions, optionally restricted to the records whose bits are set.
+	 *
+	 * @param fromPosition 0 based position, inclusive
+	 * @param toPosition 0 based position, exclusive
+	 * @param b Records to aggregate, position p is selected by bit p + bitOffset; null for all
+	 * @param bitOffset Offset added to the positions
+	 * @param noParallelThreads Number of threads decoding blocks in parallel
+	 * @return count, sum, minimum and maximum
+	 * @throws Exception
+	 */
+	public double[] aggregate(int fromPosition, int toPosition, BitSet b, int bitOffset, int noParallelThreads) throws Exception {
+		return this.scan(null, fromPosition, toPosition, b, bitOffset, noParallelThreads);
+	}
+
+	private double[] scan(FactValueFilter filter, int fromPosition, int toPosition, BitSet b, int bitOffset, int noParallelThreads) throws Exception {
+		double[] stats = new double[] {0.0, 0.0, Double.MAX_VALUE, -Double.MAX_VALUE};
+
+		if (toPosition > this._recordCount)
+			toPosition = this._recordCount;
+		if (fromPosition < 0)
+			fromPosition = 0;
+		if (fromPosition >= toPosition)
+			return stats;
+
+		int fromBlock = fromPosition / this._blockSize;
+		int toBlock = (toPosition - 1) / this._blockSize + 1;
+		int noThreads = Math.max(1, Math.min(noParallelThreads, toBlock - fromBlock));
+		long nullValue = FactCompressedSegment.getNullValue(this._baseEncoding);
+
+		// single thread, scan in the calling thread
+		if (noThreads == 1) {
+			FactCompressedScanThread t = new FactCompressedScanThread(this, filter, fromBlock, toBlock, fromPosition, toPosition, b, bitOffset, nullValue);
+			t.run();
+			t.mergeStats(stats);
+			return stats;
+		}
+
+		FactCompressedScanThread[] threads = new FactCompressedScanThread[noThreads];
+		int blocksPerThread = (toBlock - fromBlock + noThreads - 1) / noThreads;
+
+		ThreadGroup tg = new ThreadGroup("FactCompressedScan");
+		for (int i = 0; i < noThreads; i++) {
+			int low = fromBlock + i * blocksPerThread;
+			int high = Math.min(toBlock, low + blocksPerThread);
+
+			// matches are collected in a BitSet per thread and merged at the end
+			BitSet threadBitSet = (filter == null ? b : new BitSet());
+			threads[i] = new FactCompressedScanThread(this, filter, low, high, fromPosition, toPosition, threadBitSet, bitOffset, nullValue);
+			Thread t = new Thread(tg, threads[i], "FactCompressedScan-" + i);
+			t.start();
+		}
+
+		while (tg.activeCount() > 0)
+			Thread.sleep(1);
+
+		for (int i = 0; i < noThreads; i++) {
+			if (threads[i].getStatus() != HASIDSConstants.THREAD_COMPLETE)
+				throw new Exception ("Compressed scan of block " + threads[i].getFromBlock() + " failed");
+
+			if (filter != null)
+				b.or(threads[i].getBitSet());
+			else
+				threads[i].mergeStats(stats);
+		}
+
+		return stats;
+	}
+
+	/**
+	 * Counts the not null values of a TIMESTAMP (or LONG) segment between two positions into
+	 * buckets of fixed widths aligned on the epoch, optionally restricted to the records whose
+	 * bits are set. All the widths are counted in the same pass over the blocks, for example
+	 * MILLIS_PER_HOUR and MILLIS_PER_DAY for the hourly and daily series.
+	 *
+	 * @param bucketMillis Widths of the buckets in milliseconds
+	 * @param fromPosition 0 based position, inclusive
+	 * @param toPosition 0 based position, exclusive
+	 * @param b Records to count, position p is selected by bit p + bitOffset; null for all
+	 * @param bitOffset Offset added to the positions
+	 * @param noParallelThreads Number of threads decoding blocks in parallel
+	 * @return one series per width; element 0 of a series is the beginning of its first bucket
+	 * in epoch milliseconds and element i + 1 the count of bucket i. The buckets cover the range
+	 * of the values of the blocks scanned, a series has no buckets if all the values are null.
+	 * @throws Exception
+	 */
+	public long[][] timeSeries(long[] bucketMillis, int fromPosition, int toPosition, BitSet b, int bitOffset, int noParallelThreads) throws Exception {
+		if (this._baseEncoding != CheckSum.FACT_ENCODE_TYPE_LONG)
+			throw new Exception ("Time series are computed for TIMESTAMP and LONG segments only");
+
+		if (bucketMillis == null || bucketMillis.length <= 0)
+			throw new Exception ("Bucket widths cannot be null or empty");
+
+		for (int k = 0; k < bucketMillis.length; k++)
+			if (bucketMillis[k] <= 0)
+				throw new Exception ("Bucket widths must be > 0");
+
+		long[][] series = new long[bucketMillis.length][];
+
+		if (toPosition > this._recordCount)
+			toPosition = this._recordCount;
+		if (fromPosition < 0)
+			fromPosition = 0;
+
+		int fromBlock = fromPosition / this._blockSize;
+		int toBlock = (fromPosition >= toPosition ? fromBlock : (toPosition - 1) / this._blockSize + 1);
+
+		// range of the not null values of the blocks, decoding the blocks with null values
+		long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+		long[] buffer = null;
+		for (int block = fromBlock; block < toBlock; block++) {
+			long blockMin = this.getBlockMinimum(block);
+			long blockMax = this.getBlockMaximum(block);
+			if (blockMax == FactTimestamp.NULL_VALUE)
+				continue;
+
+			if (blockMin == FactTimestamp.NULL_VALUE) {
+				if (buffer == null)
+					buffer = new long[this._blockSize];
+				int count = this.decodeBlock(block, buffer);
+				blockMin = blockMax;
+				for (int i = 0; i < count; i++)
+					if (buffer[i] != FactTimestamp.NULL_VALUE && buffer[i] < blockMin)
+						blockMin = buffer[i];
+			}
+
+			if (blockMin < min)
+				min = blockMin;
+			if (blockMax > max)
+				max = blockMax;
+		}
+
+		if (min > max) {
+			for (int k = 0; k < bucketMillis.length; k++)
+				series[k] = new long[] {0L};
+			return series;
+		}
+
+		long[] firstBucket = new long[bucketMillis.length];
+		int[] bucketCount = new int[bucketMillis.length];
+		for (int k = 0; k < bucketMillis.length; k++) {
+			firstBucket[k] = Math.floorDiv(min, bucketMillis[k]);
+			long count = Math.floorDiv(max, bucketMillis[k]) - firstBucket[k] + 1;
+			if (count > MAX_TIME_SERIES_BUCKETS)
+				throw new Exception ("Bucket width " + bucketMillis[k] + " results in " + count + " buckets, the maximum is " + MAX_TIME_SERIES_BUCKETS);
+			bucketCount[k] = (int)count;
+			series[k] = new long[bucketCount[k] + 1];
+			series[k][0] = firstBucket[k] * bucketMillis[k];
+		}
+
+		int noThreads = Math.max(1, Math.min(noParallelThreads, toBlock - fromBlock));
+
+		// single thread, count in the calling thread
+		if (noThreads == 1) {
+			FactTimeSeriesThread t = new FactTimeSeriesThread(this, bucketMillis, firstBucket, bucketCount, fromBlock, toBlock, fromPosition, toPosition, b, bitOffset);
+			t.run();
+			t.mergeCounts(series);
+			return series;
+		}
+
+		FactTimeSeriesThread[] threads = new FactTimeSeriesThread[noThreads];
+		int blocksPerThread = (toBlock - fromBlock + noThreads - 1) / noThreads;
+
+		ThreadGroup tg = new ThreadGroup("FactTimeSeries");
+		for (int i = 0; i < noThreads; i++) {
+			int low = fromBlock + i * blocksPerThread;
+			int high = Math.min(toBlock, low + blocksPerThread);
+
+			threads[i] = new FactTimeSeriesThread(this, bucketMillis, firstBucket, bucketCount, low, high, fromPosition, toPosition, b, bitOffset);
+			Thread t = new Thread(tg, threads[i], "FactTimeSeries-" + i);
+			t.start();
+		}
+
+		while (tg.activeCount() > 0)
+			Thread.sleep(1);
+
+		for (int i = 0; i < noThreads; i++) {
+			if (threads[i].getStatus() != HASIDSConstants.THREAD_COMPLETE)
+				throw new Exception ("Time series of block " + threads[i].getFromBlock() + " failed");
+
+			threads[i].mergeCounts(series);
+		}
+
+		return series;
+	}
+
+	/**
+	 * Filters the values of a decoded block
+	 */
+	void filterBlock(FactValueFilter filter, long[] values, int blockStart, int low, int high, BitSet b, int bitOffset) {
+		if (this._baseEncoding == CheckSum.FACT_ENCODE_TYPE_FLOAT) {
+			for (int i = low; i < high; i++)
+				if (filter.accept((double)FactCompressedSegment.toFloat(values[i - blockStart])))
+					b.set(i + bitOffset);
+		}
+		else if (this._baseEncoding == CheckSum.FACT_ENCODE_TYPE_DOUBLE) {
+			for (int i = low; i < high; i++)
+				if (filter.accept(FactCompressedSegment.toDouble(values[i - blockStart])))
+					b.set(i + bitOffset);
+		}
+		else {
+			for (int i = low; i < high; i++)
+				if (filter.accept(values[i - blockStart]))
+					b.set(i + bitOffset);
+		}
+	}
+
+	/**
+	 * Adds a not null value of a decoded block to the count, sum, minimum and maximum
+	 */
+	void aggregateValue(long value, long nullValue, double[] stats) {
+		if (value == nullValue)
+			return;
+
+		double d;
+		if (this._baseEncoding == CheckSum.FACT_ENCODE_TYPE_FLOAT)
+			d = FactCompressedSegment.toFloat(value);
+		else if (this._baseEncoding == CheckSum.FACT_ENCODE_TYPE_DOUBLE)
+			d = FactCompressedSegment.toDouble(value);
+		else
+			d = value;
+
+		++stats[0];
+		stats[1] += d;
+		if (d < stats[2])
+			stats[2] = d;
+		if (d > stats[3])
+			stats[3] = d;
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		String dbName = "Test";
+		String datasetName = "c:\\users\\dpras\\tempdata\\testdata\\tripdistance_block.FC";
+
+		try {
+			int[] fileType = new int[1];
+			int[] encoding = new int[1];
+			int[] segmentNo = new int[1];
+			int[] datasize = new int[1];
+			short[] decimals = new short[1];
+			int[] headerLength = new int[1];
+
+			CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
+
+			FactCompressedSegment segment = FactCompressedSegment.getSegment(datasetName, headerLength[0], encoding[0], false);
+
+			int[] codecs = new int[4];
+			for (int i = 0; i < segment.getBlockCount(); i++)
+				++codecs[segment.getBlockCodec(i)];
+
+			System.out.println("Records : " + segment.getRecordCount() + ", blocks : " + segment.getBlockCount() +
+					", FOR : " + codecs[CODEC_FOR] + ", DELTA : " + codecs[CODEC_DELTA] + ", XOR : " + codecs[CODEC_XOR]);
+
+			double[] stats = segment.aggregate(0, segment.getRecordCount(), null, 0, 4);
+			System.out.println("Count : " + stats[0] + ", sum : " + stats[1] + ", min : " + stats[2] + ", max : " + stats[3]);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
+
+class FactCompressedScanThread implements Runnable {
+
+	private int _status = HASIDSConstants.THREAD_INACTIVE;
+	private FactCompressedSegment _segment;
+	private FactValueFilter _filter;
+	private int _fromBlock;
+	private int _toBlock;
+	private int _fromPosition;
+	private int _toPosition;
+	private BitSet _bitSet;
+	private int _bitOffset;
+	private long _nullValue;
+
+	// decode buffer reused for all the blocks of the thread
+	private long[] _buffer;
+
+	// count, sum, minimum and maximum
+	private double[] _stats = new double[] {0.0, 0.0, Double.MAX_VALUE, -Double.MAX_VALUE};
+
+	public FactCompressedScanThread(FactCompressedSegment segment, FactValueFilter filter, int fromBlock, int toBlock,
+			int fromPosition, int toPosition, BitSet b, int bitOffset, long nullValue) {
+		this._segment = segment;
+		this._filter = filter;
+		this._fromBlock = fromBlock;
+		this._toBlock = toBlock;
+		this._fromPosition = fromPosition;
+		this._toPosition = toPosition;
+		this._bitSet = b;
+		this._bitOffset = bitOffset;
+		this._nullValue = nullValue;
+		this._buffer = new long[segment.getBlockSize()];
+	}
+
+	public int getStatus() {
+		return this._status;
+	}
+
+	public int getFromBlock() {
+		return this._fromBlock;
+	}
+
+	public BitSet getBitSet() {
+		return this._bitSet;
+	}
+
+	public void mergeStats(double[] stats) {
+		stats[0] += this._stats[0];
+		stats[1] += this._stats[1];
+		if (this._stats[2] < stats[2])
+			stats[2] = this._stats[2];
+		if (this._stats[3] > stats[3])
+			stats[3] = this._stats[3];
+	}
+
+	public void run() {
+		this._status = HASIDSConstants.THREAD_ACTIVE;
+
+		int blockSize = this._segment.getBlockSize();
+
+		for (int block = this._fromBlock; block < this._toBlock; block++) {
+			int blockStart = block * blockSize;
+			int low = Math.max(this._fromPosition, blockStart);
+			int high = Math.min(this._toPosition, blockStart + blockSize);
+			if (low >= high)
+				continue;
+
+			if (this._filter != null) {
+				int match = this._segment.matchBlock(this._filter, block);
+				if (match == FactValueFilter.MATCH_NONE)
+					continue;
+
+				if (match == FactValueFilter.MATCH_ALL) {
+					this._bitSet.set(low + this._bitOffset, high + this._bitOffset);
+					continue;
+				}
+
+				this._segment.decodeBlock(block, this._buffer);
+				this._segment.filterBlock(this._filter, this._buffer, blockStart, low, high, this._bitSet, this._bitOffset);
+			}
+			else {
+				// skip blocks without selected records
+				if (this._bitSet != null) {
+					int next = this._bitSet.nextSetBit(low + this._bitOffset);
+					if (next < 0 || next >= high + this._bitOffset)
+						continue;
+				}
+
+				this._segment.decodeBlock(block, this._buffer);
+
+				if (this._bitSet == null) {
+					for (int i = low; i < high; i++)
+						this._segment.aggregateValue(this._buffer[i - blockStart], this._nullValue, this._stats);
+				}
+				else {
+					for (int i = this._bitSet.nextSetBit(low + this._bitOffset); i >= 0 && i < high + this._bitOffset; i = this._bitSet.nextSetBit(i + 1))
+						this._segment.aggregateValue(this._buffer[i - this._bitOffset - blockStart], this._nullValue, this._stats);
+				}
+			}
+		}
+
+		this._status = HASIDSConstants.THREAD_COMPLETE;
+	}
+}
+
+class FactTimeSeriesThread implements Runnable {
+
+	private int _status = HASIDSConstants.THREAD_INACTIVE;
+	private FactCompressedSegment _segment;
+	private long[] _bucketMillis;
+	private long[] _firstBucket;
+	private int _fromBlock;
+	private int _toBlock;
+	private int _fromPosition;
+	private int _toPosition;
+	private BitSet _bitSet;
+	private int _bitOffset;
+
+	// counts of the buckets of each width
+	private long[][] _counts;
+
+	// decode buffer reused for all the blocks of the thread
+	private long[] _buffer;
+
+	public FactTimeSeriesThread(FactCompressedSegment segment, long[] bucketMillis, long[] firstBucket, int[] bucketCount,
+			int fromBlock, int toBlock, int fromPosition, int toPosition, BitSet b, int bitOffset) {
+		this._segment = segment;
+		this._bucketMillis = bucketMillis;
+		this._firstBucket = firstBucket;
+		this._fromBlock = fromBlock;
+		this._toBlock = toBlock;
+		this._fromPosition = fromPosition;
+		this._toPosition = toPosition;
+		this._bitSet = b;
+		this._bitOffset = bitOffset;
+		this._buffer = new long[segment.getBlockSize()];
+
+		this._counts = new long[bucketMillis.length][];
+		for (int k = 0; k < bucketMillis.length; k++)
+			this._counts[k] = new long[bucketCount[k]];
+	}
+
+	public int getStatus() {
+		return this._status;
+	}
+
+	public int getFromBlock() {
+		return this._fromBlock;
+	}
+
+	public void mergeCounts(long[][] series) {
+		for (int k = 0; k < series.length; k++)
+			for (int i = 0; i < this._counts[k].length; i++)
+				series[k][i + 1] += this._counts[k][i];
+	}
+
+	private void count(long value) {
+		for (int k = 0; k < this._bucketMillis.length; k++)
+			++this._counts[k][(int)(Math.floorDiv(value, this._bucketMillis[k]) - this._firstBucket[k])];
+	}
+
+	public void run() {
+		this._status = HASIDSConstants.THREAD_ACTIVE;
+
+		int blockSize = this._segment.getBlockSize();
+
+		for (int block = this._fromBlock; block < this._toBlock; block++) {
+			int blockStart = block * blockSize;
+			int low = Math.max(this._fromPosition, blockStart);
+			int high = Math.min(this._toPosition, blockStart + blockSize);
+			if (low >= high)
+				continue;
+
+			// skip blocks without selected records and blocks of null values only
+			if (this._bitSet != null) {
+				int next = this._bitSet.nextSetBit(low + this._bitOffset);
+				if (next < 0 || next >= high + this._bitOffset)
+					continue;
+			}
+
+			long min = this._segment.getBlockMinimum(block);
+			long max = this._segment.getBlockMaximum(block);
+			if (max == FactTimestamp.NULL_VALUE)
+				continue;
+
+			// a block without nulls whose values are in one bucket of each width is not decoded
+			boolean decode = (min == FactTimestamp.NULL_VALUE);
+			for (int k = 0; !decode && k < this._bucketMillis.length; k++)
+				decode = (Math.floorDiv(min, this._bucketMillis[k]) != Math.floorDiv(max, this._bucketMillis[k]));
+
+			if (!decode) {
+				long n = high - low;
+				if (this._bitSet != null) {
+					n = 0;
+					for (int i = this._bitSet.nextSetBit(low + this._bitOffset); i >= 0 && i < high + this._bitOffset; i = this._bitSet.nextSetBit(i + 1))
+						++n;
+				}
+
+				for (int k = 0; k < this._bucketMillis.length; k++)
+					this._counts[k][(int)(Math.floorDiv(min, this._bucketMillis[k]) - this._firstBucket[k])] += n;
+				continue;
+			}
+
+			this._segment.decodeBlock(block, this._buffer);
+
+			if (this._bitSet == null) {
+				for (int i = low; i < high; i++)
+					if (this._buffer[i - blockStart] != FactTimestamp.NULL_VALUE)
+						this.count(this._buffer[i - blockStart]);
+			}
+			else {
+				for (int i = this._bitSet.nextSetBit(low + this._bitOffset); i >= 0 && i < high + this._bitOffset; i = this._bitSet.nextSetBit(i + 1))
+					if (this._buffer[i - this._bitOffset - blockStart] != FactTimestamp.NULL_VALUE)
+						this.count(this._buffer[i - this._bitOffset - blockStart]);
+			}
+		}
+
+		this._status = HASIDSConstants.THREAD_COMPLETE;
+	}
+}
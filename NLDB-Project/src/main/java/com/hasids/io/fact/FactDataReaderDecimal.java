@@ -0,0 +1,231 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Reader for DECIMAL fact segments. The values are stored as INT or LONG scaled by 10^scale,
+ * the filters are converted once to scaled integer bounds and evaluated by the INT and LONG
+ * scans, no floating point value is involved. A filter bound with more decimal positions than
+ * the scale is rounded towards the values it admits, so that > 1.005 on a scale of 2 is > 1.00
+ * and >= 1.005 is >= 1.01.
+ */
+
+package com.hasids.io.fact;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.BitSet;
+
+import com.hasids.datastructures.CheckSum;
+import com.hasids.io.DataReader;
+import com.hasids.io.dataset.DatasetSegment;
+
+public final class FactDataReaderDecimal extends DataReader {
+
+	public FactDataReaderDecimal() {
+		// TODO Auto-generated constructor stub
+	}
+
+	public FactDataReaderDecimal(String dbName, String datasetName) throws Exception {
+		super(dbName, datasetName);
+		this.checkDecimal();
+	}
+
+	public FactDataReaderDecimal(String dbName, String datasetName, int lowRange) throws Exception {
+		super(dbName, datasetName, lowRange);
+		this.checkDecimal();
+	}
+
+	public FactDataReaderDecimal(String dbName, String datasetName, int lowRange, int highRange) throws Exception {
+		super(dbName, datasetName, lowRange, highRange);
+		this.checkDecimal();
+	}
+
+	public FactDataReaderDecimal(DatasetSegment segment, int lowRange, int highRange) throws Exception {
+		super(segment, lowRange, highRange);
+		this.checkDecimal();
+	}
+
+	public FactDataReaderDecimal(String dbName, String datasetName, int lowRange, int highRange,
+			short segmentNo, short dataLength, short decimals) throws Exception {
+		super(dbName, datasetName, lowRange, highRange, CheckSum.FILE_TYPE_FACT, CheckSum.FACT_ENCODE_TYPE_DECIMAL, segmentNo, dataLength, decimals);
+		this.checkDecimal();
+	}
+
+	private void checkDecimal() throws Exception {
+		if (!super.isDecimal())
+			throw new Exception ("Dataset " + super.getdatasetName() + " is not a DECIMAL fact segment");
+	}
+
+	private boolean isInt() {
+		return super.getEncoding() == CheckSum.FACT_ENCODE_TYPE_INT;
+	}
+
+	/**
+	 * Converts a filter bound to a scaled value
+	 *
+	 * @param value Filter value
+	 * @param mode Rounding of the decimal positions beyond the scale
+	 * @return scaled value
+	 * @throws Exception if the scaled value is out of the range of the segment values
+	 */
+	private long toScaled(BigDecimal value, RoundingMode mode) throws Exception {
+		if (value == null)
+			throw new Exception ("Null filter received!");
+
+		long min = (this.isInt() ? Integer.MIN_VALUE : Long.MIN_VALUE);
+		long max = (this.isInt() ? Integer.MAX_VALUE : Long.MAX_VALUE);
+
+		BigDecimal scaled = value.setScale(super.getScale(), mode).movePointRight(super.getScale());
+		if (scaled.compareTo(BigDecimal.valueOf(min)) <= 0 || scaled.compareTo(BigDecimal.valueOf(max)) > 0)
+			throw new Exception ("Filter value " + value + " is out of the range of the DECIMAL segment");
+
+		return scaled.longValueExact();
+	}
+
+	public BitSet getData(BigDecimal[] filter) throws Exception {
+		return this.getData(filter, false);
+	}
+
+	public BitSet getData(BigDecimal[] filter, boolean not) throws Exception {
+		this.setFilter(filter, not);
+		return super.getData();
+	}
+
+	/**
+	 * Get the values of the input positions, null values are returned as null
+	 *
+	 * @param positions An array of record ids for whom values must be returned
+	 * @return values of the positions in the order of the positions
+	 * @throws Exception
+	 */
+	public BigDecimal[] getDataValues(int[] positions) throws Exception {
+		Object raw = super.getDataValues(positions);
+		BigDecimal[] values = new BigDecimal[positions.length];
+
+		if (raw instanceof int[]) {
+			int[] scaled = (int[]) raw;
+			for (int i = 0; i < scaled.length; i++)
+				values[i] = (scaled[i] == Integer.MIN_VALUE ? null : BigDecimal.valueOf(scaled[i], super.getScale()));
+		}
+		else {
+			long[] scaled = (long[]) raw;
+			for (int i = 0; i < scaled.length; i++)
+				values[i] = (scaled[i] == Long.MIN_VALUE ? null : BigDecimal.valueOf(scaled[i], super.getScale()));
+		}
+
+		return values;
+	}
+
+	public void setFilter(BigDecimal[] c) throws Exception {
+		this.setFilter(c, false);
+	}
+
+	/**
+	 * Sets an IN filter. Values with more decimal positions than the scale cannot be equal to
+	 * any value of the segment and are left out.
+	 *
+	 * @param c Filter values
+	 * @param not NOT IN
+	 * @throws Exception
+	 */
+	public void setFilter(BigDecimal[] c, boolean not) throws Exception {
+		if (c == null || c.length <= 0)
+			throw new Exception ("Null filter received!");
+
+		long[] scaled = new long[c.length];
+		int n = 0;
+		for (int i = 0; i < c.length; i++) {
+			if (c[i] == null)
+				throw new Exception ("Null filter received!");
+			if (c[i].stripTrailingZeros().scale() > super.getScale())
+				continue;
+			scaled[n++] = this.toScaled(c[i], RoundingMode.UNNECESSARY);
+		}
+
+		if (n == 0)
+			throw new Exception ("No filter value can be represented with " + super.getScale() + " decimal positions");
+
+		if (this.isInt()) {
+			int[] values = new int[n];
+			for (int i = 0; i < n; i++)
+				values[i] = (int)scaled[i];
+			super.setFilter(values, not);
+		}
+		else {
+			long[] values = new long[n];
+			System.arraycopy(scaled, 0, values, 0, n);
+			super.setFilter(values, not);
+		}
+	}
+
+	public void setBETWEENFilter(BigDecimal c1, BigDecimal c2) throws Exception {
+		long low = this.toScaled(c1, RoundingMode.CEILING);
+		long high = this.toScaled(c2, RoundingMode.FLOOR);
+
+		if (this.isInt())
+			super.setBETWEENFilter((int)low, (int)high);
+		else
+			super.setBETWEENFilter(low, high);
+	}
+
+	public void setGTEQFilter(BigDecimal c) throws Exception {
+		long value = this.toScaled(c, RoundingMode.CEILING);
+
+		if (this.isInt())
+			super.setGTEQFilter((int)value);
+		else
+			super.setGTEQFilter(value);
+	}
+
+	public void setGTFilter(BigDecimal c) throws Exception {
+		long value = this.toScaled(c, RoundingMode.FLOOR);
+
+		if (this.isInt())
+			super.setGTFilter((int)value);
+		else
+			super.setGTFilter(value);
+	}
+
+	public void setLTEQFilter(BigDecimal c) throws Exception {
+		long value = this.toScaled(c, RoundingMode.FLOOR);
+
+		if (this.isInt())
+			super.setLTEQFilter((int)value);
+		else
+			super.setLTEQFilter(value);
+	}
+
+	public void setLTFilter(BigDecimal c) throws Exception {
+		long value = this.toScaled(c, RoundingMode.CEILING);
+
+		if (this.isInt())
+			super.setLTFilter((int)value);
+		else
+			super.setLTFilter(value);
+	}
+
+
+
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		String dbName = "Test";
+		String datasetName = "c:\\users\\dpras\\tempdata\\testdata\\fareamount_dec.FC";
+
+		try {
+			FactDataReaderDecimal r = new FactDataReaderDecimal(dbName, datasetName);
+			r.setBETWEENFilter(new BigDecimal("10.00"), new BigDecimal("20.00"));
+			r.getData();
+
+			BigDecimal[] stats = r.getDecimalAggregates();
+			System.out.println("Count : " + stats[0] + ", Sum : " + stats[1] + ", Avg : " + stats[2] +
+					", Min : " + stats[3] + ", Max : " + stats[4]);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+}
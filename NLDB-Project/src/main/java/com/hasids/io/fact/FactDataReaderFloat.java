@@ -9,6 +9,7 @@ import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
 import com.hasids.HASIDSConstants;
 import com.hasids.datastructures.CheckSum;
 import com.hasids.io.DataReader;
+import com.hasids.io.dataset.DatasetSegment;
 
 public final class FactDataReaderFloat extends DataReader {
 
@@ -31,6 +32,10 @@ public final class FactDataReaderFloat extends DataReader {
 		// TODO Auto-generated constructor stub
 	}
 
+	public FactDataReaderFloat(DatasetSegment segment, int lowRange, int highRange) throws Exception {
+		super(segment, lowRange, highRange);
+	}
+
 	public FactDataReaderFloat(String dbName, String datasetName, int lowRange, int highRange, 
 			short segmentNo, short dataLength, short decimals) throws Exception {
 		super(dbName, datasetName, lowRange, highRange, CheckSum.FILE_TYPE_FACT, CheckSum.FACT_ENCODE_TYPE_FLOAT, segmentNo, dataLength, decimals);
@@ -6,6 +6,7 @@ import java.util.concurrent.TimeUnit;
 import com.hasids.HASIDSConstants;
 import com.hasids.datastructures.CheckSum;
 import com.hasids.io.DataReader;
+import com.hasids.io.dataset.DatasetSegment;
 
 public final class FactDataReaderShort extends DataReader {
 
@@ -28,6 +29,10 @@ public final class FactDataReaderShort extends DataReader {
 		// TODO Auto-generated constructor stub
 	}
 
+	public FactDataReaderShort(DatasetSegment segment, int lowRange, int highRange) throws Exception {
+		super(segment, lowRange, highRange);
+	}
+
 	public FactDataReaderShort(String dbName, String datasetName, int lowRange, int highRange, 
 			int segmentNo, int dataLength, short decimals) throws Exception {
 		super(dbName, datasetName, lowRange, highRange, CheckSum.FILE_TYPE_FACT, CheckSum.FACT_ENCODE_TYPE_SHORT, segmentNo, dataLength, decimals);
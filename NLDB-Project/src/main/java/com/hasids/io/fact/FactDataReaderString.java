@@ -1,11 +1,13 @@
 package com.hasids.io.fact;
 
+import java.nio.ByteBuffer;
 import java.util.BitSet;
 import java.util.concurrent.TimeUnit;
 
 import com.hasids.HASIDSConstants;
 import com.hasids.datastructures.CheckSum;
 import com.hasids.io.DataReader;
+import com.hasids.io.dataset.DatasetSegment;
 
 public final class FactDataReaderString extends DataReader {
 
@@ -28,6 +30,10 @@ public final class FactDataReaderString extends DataReader {
 		// TODO Auto-generated constructor stub
 	}
 
+	public FactDataReaderString(DatasetSegment segment, int lowRange, int highRange) throws Exception {
+		super(segment, lowRange, highRange);
+	}
+
 	public FactDataReaderString(String dbName, String datasetName, int lowRange, int highRange, 
 			short segmentNo, short dataLength, short decimals) throws Exception {
 		super(dbName, datasetName, lowRange, highRange, CheckSum.FILE_TYPE_FACT, CheckSum.FACT_ENCODE_TYPE_ALPHAN, segmentNo, dataLength, decimals);
@@ -53,6 +59,14 @@ public final class FactDataReaderString extends DataReader {
 		return returnValue;
 	}
 	
+	/**
+	 * Returns the UTF-8 bytes of the values of a variable length ALPHAN segment as read only
+	 * slices of the mapped segment and heap, without copying them
+	 */
+	public ByteBuffer[] getDataValueBuffers(int[] positions) throws Exception {
+		return super.getDataValueBuffers(positions);
+	}
+	
 	public void setFilter(String[] c) throws Exception {
 		super.setFilter(c, false);
 	}
@@ -77,10 +91,26 @@ public final class FactDataReaderString extends DataReader {
 		super.setLTEQFilter(c);
 	}
 	
-	protected void setLTFilter(String c) throws Exception {
+	public void setLTFilter(String c) throws Exception {
 		super.setLTFilter(c);
 	}
 	
+	public void setPREFIXFilter(String[] c) throws Exception {
+		super.setPREFIXFilter(c, false);
+	}
+	
+	public void setPREFIXFilter(String[] c, boolean not) throws Exception {
+		super.setPREFIXFilter(c, not);
+	}
+	
+	public void setCONTAINSFilter(String[] c) throws Exception {
+		super.setCONTAINSFilter(c, false);
+	}
+	
+	public void setCONTAINSFilter(String[] c, boolean not) throws Exception {
+		super.setCONTAINSFilter(c, not);
+	}
+	
 	
 	
 	public static void main(String[] args) {
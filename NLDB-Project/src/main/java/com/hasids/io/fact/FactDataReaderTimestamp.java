@@ -0,0 +1,149 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Reader for TIMESTAMP fact segments, epoch milliseconds in UTC stored in block compressed
+ * LONG blocks. Time ranges are LONG filters pruned on the minimum and maximum of each block,
+ * date part filters (year, month, day, hour, day of week) are computed for each value within
+ * the scan instead of reading separate year, month and day dimension segments, and the hourly
+ * and daily series are counted in a single pass with getTimeSeries.
+ */
+
+package com.hasids.io.fact;
+
+import java.util.BitSet;
+
+import com.hasids.datastructures.CheckSum;
+import com.hasids.io.DataReader;
+import com.hasids.io.dataset.DatasetSegment;
+
+public final class FactDataReaderTimestamp extends DataReader {
+
+	public FactDataReaderTimestamp() {
+		// TODO Auto-generated constructor stub
+	}
+
+	public FactDataReaderTimestamp(String dbName, String datasetName) throws Exception {
+		super(dbName, datasetName);
+		this.checkTimestamp();
+	}
+
+	public FactDataReaderTimestamp(String dbName, String datasetName, int lowRange) throws Exception {
+		super(dbName, datasetName, lowRange);
+		this.checkTimestamp();
+	}
+
+	public FactDataReaderTimestamp(String dbName, String datasetName, int lowRange, int highRange) throws Exception {
+		super(dbName, datasetName, lowRange, highRange);
+		this.checkTimestamp();
+	}
+
+	public FactDataReaderTimestamp(DatasetSegment segment, int lowRange, int highRange) throws Exception {
+		super(segment, lowRange, highRange);
+		this.checkTimestamp();
+	}
+
+	public FactDataReaderTimestamp(String dbName, String datasetName, int lowRange, int highRange,
+			short segmentNo, short dataLength, short decimals) throws Exception {
+		super(dbName, datasetName, lowRange, highRange, CheckSum.FILE_TYPE_FACT, CheckSum.FACT_ENCODE_TYPE_TIMESTAMP, segmentNo, dataLength, decimals);
+		this.checkTimestamp();
+	}
+
+	private void checkTimestamp() throws Exception {
+		if (!super.isTimestamp())
+			throw new Exception ("Dataset " + super.getdatasetName() + " is not a TIMESTAMP fact segment");
+	}
+
+	public long[] getFilter() {
+		return super.getFilterLong();
+	}
+
+	public BitSet getData(long[] filter) {
+		return super.getData(filter, false);
+	}
+
+	public BitSet getData(long[] filter, boolean not) {
+		return super.getData(filter, not);
+	}
+
+	/**
+	 * Get the epoch milliseconds of the input positions, null values are returned as
+	 * FactTimestamp.NULL_VALUE
+	 *
+	 * @param positions An array of record ids for whom values must be returned
+	 * @return values of the positions in the order of the positions
+	 * @throws Exception
+	 */
+	public long[] getDataValues(int[] positions) throws Exception {
+		return (long[])super.getDataValues(positions);
+	}
+
+	public void setFilter(long[] c) throws Exception {
+		super.setFilter(c, false);
+	}
+
+	public void setFilter(long[] c, boolean not) throws Exception {
+		super.setFilter(c, not);
+	}
+
+	public void setBETWEENFilter(long c1, long c2) throws Exception {
+		super.setBETWEENFilter(c1, c2);
+	}
+
+	public void setGTEQFilter(long c) throws Exception {
+		super.setGTEQFilter(c);
+	}
+
+	public void setGTFilter(long c) throws Exception {
+		super.setGTFilter(c);
+	}
+
+	public void setLTEQFilter(long c) throws Exception {
+		super.setLTEQFilter(c);
+	}
+
+	public void setLTFilter(long c) throws Exception {
+		super.setLTFilter(c);
+	}
+
+	public void setDatePartFilter(int datePart, int[] c) throws Exception {
+		super.setDatePartFilter(datePart, c, false);
+	}
+
+	public void setDatePartFilter(int datePart, int[] c, boolean not) throws Exception {
+		super.setDatePartFilter(datePart, c, not);
+	}
+
+
+
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		String dbName = "Test";
+		String datasetName = "c:\\users\\dpras\\tempdata\\taxidata\\pickuptime_1.FC";
+
+		try {
+			// trips of the evening rush hours in 2016
+			FactDataReaderTimestamp r = new FactDataReaderTimestamp(dbName, datasetName);
+			r.setParallelDecodeThreads(4);
+			r.setBETWEENFilter(FactTimestamp.toMillis(2016, 1, 1, 0, 0, 0), FactTimestamp.toMillis(2016, 12, 31, 23, 59, 59) + 999);
+			r.getData();
+			System.out.println("Trips in 2016 : " + r.getResultBitSet().cardinality());
+
+			r = new FactDataReaderTimestamp(dbName, datasetName);
+			r.setParallelDecodeThreads(4);
+			r.setDatePartFilter(FactTimestamp.PART_HOUR, new int[] {17, 18, 19});
+			r.getData();
+
+			long[][] series = r.getTimeSeries(new long[] {FactTimestamp.MILLIS_PER_HOUR, FactTimestamp.MILLIS_PER_DAY});
+			for (int i = 1; i < series[1].length; i++)
+				System.out.println(FactTimestamp.toString(series[1][0] + (i - 1) * FactTimestamp.MILLIS_PER_DAY) + " : " + series[1][i]);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+}
@@ -0,0 +1,354 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Writer for DECIMAL fact segments. A DECIMAL segment stores each value as an INT (data length
+ * 4, up to 9 decimal positions) or a LONG (data length 8, up to 18 decimal positions) scaled by
+ * 10^scale, the scale being kept in the decimals field of the header. Values with more decimal
+ * positions than the scale are rounded HALF_UP, null values are stored as Integer.MIN_VALUE or
+ * Long.MIN_VALUE as in the INT and LONG encodings.
+ *
+ * The convert method migrates a DOUBLE fact segment to a new DECIMAL segment in parallel, each
+ * double being converted through its shortest decimal representation.
+ */
+
+package com.hasids.io.fact;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import com.hasids.HASIDSConstants;
+import com.hasids.datastructures.BlockCheckSum;
+import com.hasids.datastructures.CheckSum;
+import com.hasids.io.DataWriter;
+import com.hasids.io.dataset.DatasetCatalog;
+import com.hasids.io.dataset.DatasetSegment;
+
+public class FactDataWriterDecimal extends DataWriter {
+
+	public FactDataWriterDecimal(String dbName, String datasetName, int operationMode) throws Exception {
+		super(dbName, datasetName, operationMode);
+
+		if (!super.isDecimal())
+			throw new Exception ("File " + datasetName + " is not a DECIMAL fact segment");
+	}
+
+	/**
+	 * Constructor for creating a DECIMAL segment
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @param recordCount Segment size
+	 * @param dataLength 4 for INT or 8 for LONG scaled values
+	 * @param scale Number of decimal positions
+	 * @param segmentNo Segment number
+	 * @throws Exception
+	 */
+	public FactDataWriterDecimal(String dbName, String datasetName, int recordCount, int dataLength, short scale, int segmentNo) throws Exception {
+		super(dbName, datasetName, recordCount, CheckSum.FACT_ENCODE_TYPE_DECIMAL, dataLength, scale, segmentNo);
+	}
+
+	/**
+	 * Scales a value
+	 *
+	 * @param value Value, null for the null value
+	 * @param scale Number of decimal positions
+	 * @param dataLength 4 or 8
+	 * @return value scaled by 10^scale, rounded HALF_UP
+	 * @throws Exception if the scaled value does not fit in the data length
+	 */
+	public static long toScaledValue(BigDecimal value, int scale, int dataLength) throws Exception {
+		if (value == null)
+			return (dataLength == CheckSum.INT_FLOAT_LEN ? Integer.MIN_VALUE : Long.MIN_VALUE);
+
+		long scaled = 0;
+		try {
+			scaled = value.setScale(scale, RoundingMode.HALF_UP).movePointRight(scale).longValueExact();
+		}
+		catch (ArithmeticException e) {
+			throw new Exception ("Value " + value + " cannot be stored with " + scale + " decimal positions in " + dataLength + " bytes");
+		}
+
+		// the minimum value is the null value
+		if ((dataLength == CheckSum.INT_FLOAT_LEN && (scaled <= Integer.MIN_VALUE || scaled > Integer.MAX_VALUE)) ||
+				scaled == Long.MIN_VALUE)
+			throw new Exception ("Value " + value + " cannot be stored with " + scale + " decimal positions in " + dataLength + " bytes");
+
+		return scaled;
+	}
+
+	/**
+	 * Sets the values to write, see the INT and LONG writers
+	 *
+	 * @param position 0 based positions
+	 * @param values Values, the null value cannot be written as in the INT and LONG writers
+	 * @param allowPartial Write the positions not locked by other sessions
+	 * @param retryFlag Retry the positions locked by other sessions
+	 * @return values of the positions locked by other sessions
+	 * @throws Exception
+	 */
+	public Hashtable<Integer, BigDecimal> setWriteDataPositionBuffer(int[] position, BigDecimal[] values, boolean allowPartial, boolean retryFlag) throws Exception {
+		if (position == null || values == null || position.length != values.length)
+			throw new Exception("Null Data or data length does not match values length!");
+
+		for (int i = 0; i < values.length; i++)
+			if (values[i] == null)
+				throw new Exception ("Null values cannot be written!");
+
+		Hashtable<Integer, BigDecimal> locked = new Hashtable<Integer, BigDecimal>();
+		int scale = super.getDecimals();
+
+		if (super.getDataLength() == CheckSum.INT_FLOAT_LEN) {
+			int[] scaled = new int[values.length];
+			for (int i = 0; i < values.length; i++)
+				scaled[i] = (int)FactDataWriterDecimal.toScaledValue(values[i], scale, CheckSum.INT_FLOAT_LEN);
+
+			Hashtable<Integer, Integer> h = super.setWriteDataPositionBuffer(position, scaled, allowPartial, retryFlag);
+			if (h != null) {
+				Enumeration<Integer> e = h.keys();
+				while (e.hasMoreElements()) {
+					int key = e.nextElement();
+					int value = h.get(key);
+					if (value != Integer.MIN_VALUE)
+						locked.put(key, BigDecimal.valueOf(value, scale));
+				}
+			}
+		}
+		else {
+			long[] scaled = new long[values.length];
+			for (int i = 0; i < values.length; i++)
+				scaled[i] = FactDataWriterDecimal.toScaledValue(values[i], scale, CheckSum.LONG_DOUBLE_LEN);
+
+			Hashtable<Integer, Long> h = super.setWriteDataPositionBuffer(position, scaled, allowPartial, retryFlag);
+			if (h != null) {
+				Enumeration<Integer> e = h.keys();
+				while (e.hasMoreElements()) {
+					int key = e.nextElement();
+					long value = h.get(key);
+					if (value != Long.MIN_VALUE)
+						locked.put(key, BigDecimal.valueOf(value, scale));
+				}
+			}
+		}
+
+		return locked;
+	}
+
+	/**
+	 * Creates a DECIMAL segment from a DOUBLE fact segment, the source segment is not changed.
+	 * The records are converted in parallel, each thread converting a range of records and
+	 * mapping it in chunks, so that segments larger than a single mapping can be converted.
+	 *
+	 * @param dbName Database name
+	 * @param sourceDatasetName DOUBLE fact segment
+	 * @param targetDatasetName DECIMAL segment to be created
+	 * @param dataLength 4 or 8
+	 * @param scale Number of decimal positions
+	 * @param noThreads Number of conversion threads
+	 * @return number of records converted
+	 * @throws Exception if a value cannot be stored in the target, the target is then deleted
+	 */
+	public static int convert(String dbName, String sourceDatasetName, String targetDatasetName, int dataLength, short scale, int noThreads) throws Exception {
+		long beginTime = System.nanoTime();
+
+		if (noThreads <= 0 || noThreads > HASIDSConstants.MAX_PARALLELFILEREAD_THREADS)
+			throw new Exception ("Number of threads must be > 0 and <= " + HASIDSConstants.MAX_PARALLELFILEREAD_THREADS);
+
+		int[] fileType = new int[1];
+		int[] encoding = new int[1];
+		int[] segmentNo = new int[1];
+		int[] datasize = new int[1];
+		short[] decimals = new short[1];
+		int[] headerLength = new int[1];
+
+		CheckSum.validateFile(dbName, sourceDatasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
+
+		if (fileType[0] != CheckSum.FILE_TYPE_FACT || encoding[0] != CheckSum.FACT_ENCODE_TYPE_DOUBLE)
+			throw new Exception ("File " + sourceDatasetName + " is not a DOUBLE fact segment");
+
+		int recordCount = (int)((new File(sourceDatasetName).length() - headerLength[0])/datasize[0]);
+
+		// creates and validates the target
+		FactDataWriterDecimal target = new FactDataWriterDecimal(dbName, targetDatasetName, recordCount, dataLength, scale, segmentNo[0]);
+		int targetHeaderLength = CheckSum.getHeaderLength(targetDatasetName);
+
+		boolean converted = false;
+		long lastModifiedTime = 0;
+
+		RandomAccessFile sourceFile = new RandomAccessFile(sourceDatasetName, "r");
+		FileChannel sourceChannel = sourceFile.getChannel();
+		RandomAccessFile targetFile = new RandomAccessFile(targetDatasetName, "rw");
+		FileChannel targetChannel = targetFile.getChannel();
+		try {
+			if (noThreads > recordCount)
+				noThreads = Math.max(1, recordCount);
+			int recordsPerThread = (int)(((long)recordCount + noThreads - 1) / noThreads);
+			FactDecimalConvertThread[] threads = new FactDecimalConvertThread[noThreads];
+
+			ThreadGroup tg = new ThreadGroup("FactDecimalConvert");
+			for (int i = 0; i < noThreads; i++) {
+				int low = (int)Math.min(recordCount, (long)i * recordsPerThread);
+				int high = (int)Math.min(recordCount, (long)low + recordsPerThread);
+
+				threads[i] = new FactDecimalConvertThread(sourceChannel, headerLength[0], targetChannel, targetHeaderLength,
+						dataLength, scale, low, high);
+				Thread t = new Thread(tg, threads[i], "FactDecimalConvert-" + i);
+				t.start();
+			}
+
+			while (tg.activeCount() > 0)
+				Thread.sleep(1);
+
+			for (int i = 0; i < noThreads; i++)
+				if (threads[i].getStatus() != HASIDSConstants.THREAD_COMPLETE)
+					throw new Exception ("Conversion of records from " + threads[i].getFromPosition() + " failed : " + threads[i].getMessage());
+
+			lastModifiedTime = System.currentTimeMillis();
+			CheckSum.writeTimestamp(targetChannel, lastModifiedTime);
+			converted = true;
+		}
+		finally {
+			sourceChannel.close();
+			sourceFile.close();
+			targetChannel.close();
+			targetFile.close();
+
+			if (!converted) {
+				new File(targetDatasetName).delete();
+				BlockCheckSum.delete(targetDatasetName);
+				DatasetCatalog.remove(dbName, targetDatasetName);
+			}
+		}
+
+		File f = new File(targetDatasetName);
+		f.setLastModified(lastModifiedTime);
+		BlockCheckSum.build(targetDatasetName, targetHeaderLength);
+
+		try {
+			DatasetCatalog.refresh(new DatasetSegment(dbName, targetDatasetName, CheckSum.FILE_TYPE_FACT, target.getEncoding(),
+					segmentNo[0], dataLength, scale, targetHeaderLength, recordCount, f.lastModified()));
+		}
+		catch (Exception e) {
+			// the entry is reloaded from the header on its next use
+			DatasetCatalog.remove(dbName, targetDatasetName);
+		}
+
+		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((System.nanoTime() - beginTime), TimeUnit.NANOSECONDS);
+		System.out.println("Converted " + sourceDatasetName + " to DECIMAL(" + scale + ") " + targetDatasetName + ", records : " +
+				recordCount + " in " + elapsedTimeInMillis + " Milliseconds");
+
+		return recordCount;
+	}
+
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		String dbName = "Test";
+		String source = "c:\\users\\dpras\\tempdata\\testdata\\fareamount.FC";
+		String target = "c:\\users\\dpras\\tempdata\\testdata\\fareamount_dec.FC";
+
+		try {
+			FactDataWriterDecimal.convert(dbName, source, target, CheckSum.LONG_DOUBLE_LEN, (short)2, 8);
+
+			FactDataWriterDecimal w = new FactDataWriterDecimal(dbName, target, HASIDSConstants.OPERATION_MODE_ONLINE);
+			w.setWriteDataPositionBuffer(new int[] {0, 1}, new BigDecimal[] {new BigDecimal("12.50"), new BigDecimal("7.125")}, false, false);
+			w.writeToSegment(true);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
+
+class FactDecimalConvertThread implements Runnable {
+
+	// records mapped at a time, a chunk of doubles stays well below the 2 GB limit of a mapping
+	private static final int CHUNK_RECORDS = (Integer.MAX_VALUE / 2 / CheckSum.LONG_DOUBLE_LEN) & ~63;
+
+	private int _status = HASIDSConstants.THREAD_INACTIVE;
+	private FileChannel _source;
+	private int _sourceHeaderLength;
+	private FileChannel _target;
+	private int _targetHeaderLength;
+	private int _dataLength;
+	private int _scale;
+	private int _fromPosition;
+	private int _toPosition;
+	private String _message;
+
+	public FactDecimalConvertThread(FileChannel source, int sourceHeaderLength, FileChannel target, int targetHeaderLength,
+			int dataLength, int scale, int fromPosition, int toPosition) {
+		this._source = source;
+		this._sourceHeaderLength = sourceHeaderLength;
+		this._target = target;
+		this._targetHeaderLength = targetHeaderLength;
+		this._dataLength = dataLength;
+		this._scale = scale;
+		this._fromPosition = fromPosition;
+		this._toPosition = toPosition;
+	}
+
+	public int getStatus() {
+		return this._status;
+	}
+
+	public int getFromPosition() {
+		return this._fromPosition;
+	}
+
+	public String getMessage() {
+		return this._message;
+	}
+
+	public void run() {
+		this._status = HASIDSConstants.THREAD_ACTIVE;
+
+		try {
+			for (int from = this._fromPosition; from < this._toPosition; from += CHUNK_RECORDS) {
+				int count = Math.min(CHUNK_RECORDS, this._toPosition - from);
+				MappedByteBuffer source = this._source.map(FileChannel.MapMode.READ_ONLY,
+						this._sourceHeaderLength + (long)from * CheckSum.LONG_DOUBLE_LEN, (long)count * CheckSum.LONG_DOUBLE_LEN);
+				source.order(ByteOrder.LITTLE_ENDIAN);
+				MappedByteBuffer target = this._target.map(FileChannel.MapMode.READ_WRITE,
+						this._targetHeaderLength + (long)from * this._dataLength, (long)count * this._dataLength);
+				target.order(ByteOrder.LITTLE_ENDIAN);
+
+				for (int i = 0; i < count; i++) {
+					double value = source.getDouble(i * CheckSum.LONG_DOUBLE_LEN);
+
+					// Double.MIN_VALUE is the null value of the DOUBLE encoding
+					BigDecimal decimal = null;
+					if (value != Double.MIN_VALUE) {
+						if (Double.isNaN(value) || Double.isInfinite(value))
+							throw new Exception ("Value " + value + " at position " + (from + i) + " is not a number");
+						decimal = BigDecimal.valueOf(value);
+					}
+
+					long scaled = FactDataWriterDecimal.toScaledValue(decimal, this._scale, this._dataLength);
+					if (this._dataLength == CheckSum.INT_FLOAT_LEN)
+						target.putInt(i * this._dataLength, (int)scaled);
+					else
+						target.putLong(i * this._dataLength, scaled);
+				}
+
+				target.force();
+			}
+
+			this._status = HASIDSConstants.THREAD_COMPLETE;
+		}
+		catch (Exception e) {
+			this._message = e.getMessage();
+			this._status = HASIDSConstants.THREAD_FAILED;
+		}
+	}
+}
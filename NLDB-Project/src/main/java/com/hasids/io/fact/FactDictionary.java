@@ -0,0 +1,452 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Sorted dictionary of a dictionary encoded ALPHAN fact segment. The dictionary is kept in a
+ * file next to the segment, named <segment file>.dict, while the segment itself holds one
+ * fixed length code per record (1, 2 or 4 bytes, LITTLE ENDIAN). Code 0 is the null (empty)
+ * value and codes 1..n refer to the distinct values in ascending order, so that the order of
+ * the codes is the order of the values and range predicates become code ranges.
+ *
+ * Dictionary file (BIG ENDIAN):
+ * int magic, int entry count, for each entry a byte length followed by the UTF-8 bytes, int
+ * CRC32C of all the preceding bytes.
+ *
+ * Predicates are evaluated once per dictionary entry into a table indexed by code, which the
+ * scans then look up per record. Loaded dictionaries are cached by file name and reloaded when
+ * the dictionary file changes.
+ */
+
+package com.hasids.io.fact;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Hashtable;
+import java.util.zip.CRC32C;
+
+import com.hasids.datastructures.CheckSum;
+
+public class FactDictionary {
+
+	public static final int DICTIONARY_MAGIC = 0x48534444; // HSDD
+	public static final String DICTIONARY_EXTENSION = ".dict";
+
+	// code of the null (empty) value
+	public static final int NULL_CODE = 0;
+
+	private static Hashtable<String, SoftReference<FactDictionary>> CACHE = new Hashtable<String, SoftReference<FactDictionary>>();
+
+	// entry of code c is at c - 1
+	private String[] _entries;
+	private long _lastModified = 0L;
+	private long _fileLength = 0L;
+
+	private FactDictionary(String[] entries) {
+		this._entries = entries;
+	}
+
+	/**
+	 * @param datasetName Segment file name
+	 * @return name of the dictionary file of the segment
+	 */
+	public static String getDictionaryName(String datasetName) {
+		return datasetName + DICTIONARY_EXTENSION;
+	}
+
+	/**
+	 * Returns the dictionary of a segment from the cache, loading it if it is not cached or if
+	 * the dictionary file has changed since it was cached.
+	 *
+	 * @param datasetName Segment file name
+	 * @return dictionary
+	 * @throws Exception
+	 */
+	public static FactDictionary getDictionary(String datasetName) throws Exception {
+		String dictionaryName = FactDictionary.getDictionaryName(datasetName);
+		File f = new File(dictionaryName);
+		if (!f.exists())
+			throw new Exception ("Dictionary " + dictionaryName + " does not exist!");
+
+		SoftReference<FactDictionary> ref = CACHE.get(dictionaryName);
+		FactDictionary dictionary = (ref == null ? null : ref.get());
+		if (dictionary != null && dictionary._lastModified == f.lastModified() && dictionary._fileLength == f.length())
+			return dictionary;
+
+		synchronized (CACHE) {
+			dictionary = FactDictionary.load(dictionaryName);
+			CACHE.put(dictionaryName, new SoftReference<FactDictionary>(dictionary));
+		}
+
+		return dictionary;
+	}
+
+	/**
+	 * Removes the dictionary of a segment from the cache
+	 *
+	 * @param datasetName Segment file name
+	 */
+	public static void invalidate(String datasetName) {
+		CACHE.remove(FactDictionary.getDictionaryName(datasetName));
+	}
+
+	private static FactDictionary load(String dictionaryName) throws Exception {
+		File f = new File(dictionaryName);
+		long lastModified = f.lastModified();
+
+		RandomAccessFile raf = new RandomAccessFile(dictionaryName, "r");
+		FileChannel fc = raf.getChannel();
+
+		ByteBuffer buffer = null;
+		try {
+			if (fc.size() < 12 || fc.size() > Integer.MAX_VALUE)
+				throw new Exception ("Invalid dictionary length in " + dictionaryName);
+
+			buffer = ByteBuffer.allocate((int)fc.size());
+			while (buffer.hasRemaining())
+				if (fc.read(buffer, buffer.position()) < 0)
+					throw new Exception ("Unexpected end of file in " + dictionaryName);
+			buffer.flip();
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		CRC32C crc = new CRC32C();
+		crc.update(buffer.array(), 0, buffer.limit() - 4);
+		if ((int)crc.getValue() != buffer.getInt(buffer.limit() - 4))
+			throw new Exception ("Dictionary checksum error in " + dictionaryName);
+
+		if (buffer.getInt() != DICTIONARY_MAGIC)
+			throw new Exception ("Invalid dictionary " + dictionaryName);
+
+		String[] entries = new String[buffer.getInt()];
+		for (int i = 0; i < entries.length; i++) {
+			int length = buffer.get() & 0xFF;
+			entries[i] = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + length);
+		}
+
+		FactDictionary dictionary = new FactDictionary(entries);
+		dictionary._lastModified = lastModified;
+		dictionary._fileLength = f.length();
+
+		return dictionary;
+	}
+
+	/**
+	 * Writes the dictionary file of a segment, replacing the existing one
+	 *
+	 * @param datasetName Segment file name
+	 * @param entries Distinct not empty values in ascending order
+	 * @throws Exception
+	 */
+	public static void writeDictionary(String datasetName, String[] entries) throws Exception {
+		byte[][] bytes = new byte[entries.length][];
+		int length = 12;
+		for (int i = 0; i < entries.length; i++) {
+			if (entries[i] == null || entries[i].length() == 0)
+				throw new Exception ("Dictionary entries cannot be empty");
+			if (i > 0 && entries[i].compareTo(entries[i - 1]) <= 0)
+				throw new Exception ("Dictionary entries must be distinct and in ascending order");
+
+			bytes[i] = entries[i].getBytes(StandardCharsets.UTF_8);
+			if (bytes[i].length > CheckSum.FACT_MAX_ALPHAN_LENGTH)
+				throw new Exception ("Max data length allowed in bytes is " + CheckSum.FACT_MAX_ALPHAN_LENGTH + " : " + entries[i]);
+
+			length += 1 + bytes[i].length;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.putInt(DICTIONARY_MAGIC);
+		buffer.putInt(entries.length);
+		for (int i = 0; i < bytes.length; i++) {
+			buffer.put((byte)bytes[i].length);
+			buffer.put(bytes[i]);
+		}
+
+		CRC32C crc = new CRC32C();
+		crc.update(buffer.array(), 0, buffer.position());
+		buffer.putInt((int)crc.getValue());
+		buffer.flip();
+
+		String dictionaryName = FactDictionary.getDictionaryName(datasetName);
+		File f = new File(dictionaryName);
+		File temp = new File(dictionaryName + ".tmp");
+
+		RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		FileChannel fc = raf.getChannel();
+		try {
+			raf.setLength(0);
+			while (buffer.hasRemaining())
+				fc.write(buffer, buffer.position());
+			fc.force(true);
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		if (f.exists() && !f.delete())
+			throw new Exception ("Unable to replace dictionary " + dictionaryName);
+
+		if (!temp.renameTo(f))
+			throw new Exception ("Unable to replace dictionary " + dictionaryName);
+
+		FactDictionary.invalidate(datasetName);
+	}
+
+	/**
+	 * Deletes the dictionary file of a segment
+	 *
+	 * @param datasetName Segment file name
+	 */
+	public static void delete(String datasetName) {
+		FactDictionary.invalidate(datasetName);
+		new File(FactDictionary.getDictionaryName(datasetName)).delete();
+	}
+
+	/**
+	 * Returns the width of the codes for a number of dictionary entries
+	 *
+	 * @param entryCount
+	 * @return 1, 2 or 4
+	 */
+	public static int getCodeLength(int entryCount) {
+		if (entryCount <= 0xFF)
+			return CheckSum.BYTE_LEN;
+		else if (entryCount <= 0xFFFF)
+			return CheckSum.SHORT_LEN;
+		else
+			return CheckSum.INT_FLOAT_LEN;
+	}
+
+	/**
+	 * Reads a code from the code column
+	 *
+	 * @param buffer Code column, LITTLE ENDIAN
+	 * @param index Record index in the buffer
+	 * @param codeLength Width of the codes
+	 * @return code
+	 */
+	public static int getCode(ByteBuffer buffer, int index, int codeLength) {
+		if (codeLength == CheckSum.BYTE_LEN)
+			return buffer.get(index) & 0xFF;
+		else if (codeLength == CheckSum.SHORT_LEN)
+			return buffer.getShort(index * 2) & 0xFFFF;
+		else
+			return buffer.getInt(index * 4);
+	}
+
+	/**
+	 * Writes a code into the code column
+	 *
+	 * @param buffer Code column, LITTLE ENDIAN
+	 * @param index Record index in the buffer
+	 * @param codeLength Width of the codes
+	 * @param code
+	 */
+	public static void putCode(ByteBuffer buffer, int index, int codeLength, int code) {
+		if (codeLength == CheckSum.BYTE_LEN)
+			buffer.put(index, (byte)code);
+		else if (codeLength == CheckSum.SHORT_LEN)
+			buffer.putShort(index * 2, (short)code);
+		else
+			buffer.putInt(index * 4, code);
+	}
+
+	public int size() {
+		return this._entries.length;
+	}
+
+	/**
+	 * @param code
+	 * @return shared dictionary entry of the code, null for the null code
+	 * @throws Exception
+	 */
+	public String getEntry(int code) throws Exception {
+		if (code == NULL_CODE)
+			return null;
+
+		if (code < 0 || code > this._entries.length)
+			throw new Exception ("Invalid dictionary code " + code);
+
+		return this._entries[code - 1];
+	}
+
+	/**
+	 * @return entries in ascending order, entry of code c at c - 1
+	 */
+	public String[] getEntries() {
+		return this._entries.clone();
+	}
+
+	/**
+	 * @param value
+	 * @return code of the value, NULL_CODE for null or empty values, -1 if the value is not in
+	 * the dictionary
+	 */
+	public int getCode(String value) {
+		if (value == null || value.length() == 0)
+			return NULL_CODE;
+
+		int i = Arrays.binarySearch(this._entries, value);
+		return (i >= 0 ? i + 1 : -1);
+	}
+
+	/**
+	 * Rewrites a filter on values into a table of the matching codes. IN filters only look up
+	 * the filter values, range filters mark a contiguous range of codes found by binary search
+	 * and PREFIX and CONTAINS filters are evaluated once per entry.
+	 *
+	 * @param mode Filter mode, one of the FactValueFilter modes
+	 * @param in Values of the IN filter, prefixes of the PREFIX filter or patterns of the
+	 * CONTAINS filter
+	 * @param not Negates the IN, PREFIX or CONTAINS filter
+	 * @param gt Value of the > or >= filter
+	 * @param lt Value of the < or <= filter
+	 * @param between1 Lower value of the BETWEEN filter
+	 * @param between2 Upper value of the BETWEEN filter
+	 * @return matching flag of each code
+	 * @throws Exception
+	 */
+	public boolean[] getCodeFilter(int mode, String[] in, boolean not, String gt, String lt, String between1, String between2) throws Exception {
+		boolean[] accept = new boolean[this._entries.length + 1];
+
+		if (mode == FactValueFilter.MODE_IN) {
+			if (in == null)
+				throw new Exception ("Null filter received!");
+
+			for (int i = 0; i < in.length; i++) {
+				int code = this.getCode(in[i]);
+				if (code >= 0)
+					accept[code] = true;
+			}
+
+			if (not)
+				for (int i = 0; i < accept.length; i++)
+					accept[i] = !accept[i];
+
+			return accept;
+		}
+
+		if (mode == FactValueFilter.MODE_PREFIX || mode == FactValueFilter.MODE_CONTAINS) {
+			if (in == null)
+				throw new Exception ("Null filter received!");
+
+			for (int i = 0; i < this._entries.length; i++)
+				for (int j = 0; j < in.length && !accept[i + 1]; j++)
+					accept[i + 1] = (mode == FactValueFilter.MODE_PREFIX ? this._entries[i].startsWith(in[j]) : this._entries[i].contains(in[j]));
+
+			if (not)
+				for (int i = 0; i < accept.length; i++)
+					accept[i] = !accept[i];
+
+			return accept;
+		}
+
+		if (mode == FactValueFilter.MODE_NOT_NULL) {
+			Arrays.fill(accept, 1, accept.length, true);
+			return accept;
+		}
+
+		boolean gtFlag = (mode == FactValueFilter.MODE_GT_LT_BETWEEN || mode == FactValueFilter.MODE_GT_LT || mode == FactValueFilter.MODE_GT);
+		boolean gtEqFlag = (mode == FactValueFilter.MODE_GTEQ_LTEQ_BETWEEN || mode == FactValueFilter.MODE_GTEQ_LTEQ || mode == FactValueFilter.MODE_GTEQ);
+		boolean ltFlag = (mode == FactValueFilter.MODE_GT_LT_BETWEEN || mode == FactValueFilter.MODE_GT_LT || mode == FactValueFilter.MODE_LT);
+		boolean ltEqFlag = (mode == FactValueFilter.MODE_GTEQ_LTEQ_BETWEEN || mode == FactValueFilter.MODE_GTEQ_LTEQ || mode == FactValueFilter.MODE_LTEQ);
+		boolean betweenFlag = (mode == FactValueFilter.MODE_GT_LT_BETWEEN || mode == FactValueFilter.MODE_GTEQ_LTEQ_BETWEEN || mode == FactValueFilter.MODE_BETWEEN);
+
+		if (((gtFlag || gtEqFlag) && gt == null) || ((ltFlag || ltEqFlag) && lt == null) ||
+				(betweenFlag && (between1 == null || between2 == null)))
+			throw new Exception ("Null filter received!");
+
+		// null values never match a range
+		if (gtFlag)
+			this.setCodeRange(accept, this.getLowCode(gt, false), this._entries.length);
+		if (gtEqFlag)
+			this.setCodeRange(accept, this.getLowCode(gt, true), this._entries.length);
+		if (ltFlag)
+			this.setCodeRange(accept, 1, this.getHighCode(lt, false));
+		if (ltEqFlag)
+			this.setCodeRange(accept, 1, this.getHighCode(lt, true));
+		if (betweenFlag)
+			this.setCodeRange(accept, this.getLowCode(between1, true), this.getHighCode(between2, true));
+
+		return accept;
+	}
+
+	/**
+	 * @return smallest code whose value is > (or >=) the value
+	 */
+	private int getLowCode(String value, boolean inclusive) {
+		int i = Arrays.binarySearch(this._entries, value);
+		if (i >= 0)
+			return (inclusive ? i + 1 : i + 2);
+
+		return -i - 1 + 1;
+	}
+
+	/**
+	 * @return largest code whose value is < (or <=) the value
+	 */
+	private int getHighCode(String value, boolean inclusive) {
+		int i = Arrays.binarySearch(this._entries, value);
+		if (i >= 0)
+			return (inclusive ? i + 1 : i);
+
+		return -i - 1;
+	}
+
+	private void setCodeRange(boolean[] accept, int low, int high) {
+		if (low < 1)
+			low = 1;
+		for (int i = low; i <= high && i < accept.length; i++)
+			accept[i] = true;
+	}
+
+	/**
+	 * Sets the bits of the records of a code column whose codes match a code filter. The bit
+	 * set for record i of the buffer is i + bitOffset.
+	 *
+	 * @param buffer Code column, LITTLE ENDIAN
+	 * @param count Number of records in the buffer
+	 * @param codeLength Width of the codes
+	 * @param accept Matching flag of each code
+	 * @param b BitSet receiving the matches
+	 * @param bitOffset Offset added to the record index
+	 * @throws Exception
+	 */
+	public static void filter(ByteBuffer buffer, int count, int codeLength, boolean[] accept, BitSet b, int bitOffset) throws Exception {
+		boolean any = false, all = true;
+		for (int i = 0; i < accept.length; i++) {
+			any |= accept[i];
+			all &= accept[i];
+		}
+
+		if (!any || count <= 0)
+			return;
+
+		if (all) {
+			b.set(bitOffset, count + bitOffset);
+			return;
+		}
+
+		int code;
+		for (int i = 0; i < count; i++) {
+			code = FactDictionary.getCode(buffer, i, codeLength);
+			if (code < 0 || code >= accept.length)
+				throw new Exception ("Invalid dictionary code " + code + " at " + i);
+
+			if (accept[code])
+				b.set(i + bitOffset);
+		}
+	}
+}
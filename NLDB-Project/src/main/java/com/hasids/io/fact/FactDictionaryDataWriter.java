@@ -0,0 +1,466 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Writer for dictionary encoded ALPHAN fact segments. The segment holds one fixed length code
+ * per record and the sorted dictionary of the distinct values is kept in the dictionary file
+ * of the segment (see FactDictionary).
+ *
+ * On commit, if every value of the session is already in the dictionary and no position is
+ * beyond the current record count, the codes are written in place. Otherwise a new dictionary
+ * is built from the committed and the new values, all the codes are re-encoded into a
+ * temporary file and the segment file is replaced, widening the codes if required. Commits
+ * against the same segment are serialized; the last writer of a position wins.
+ *
+ * Dictionary encoding suits low cardinality text facts such as vendor, payment type or zone
+ * names, high cardinality text should remain in the ALPHAN encoding written by
+ * FactDataWriterString.
+ */
+
+package com.hasids.io.fact;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import com.hasids.HASIDSConstants;
+import com.hasids.datastructures.BlockCheckSum;
+import com.hasids.datastructures.CheckSum;
+import com.hasids.io.dataset.DatasetCatalog;
+import com.hasids.io.dataset.DatasetSegment;
+
+public class FactDictionaryDataWriter {
+
+	// one monitor per segment file to serialize commits
+	private static Hashtable<String, Object> COMMIT_TABLE = new Hashtable<String, Object>();
+
+	private String _dbName;
+	private String _datasetName;
+	private int _segmentNo;
+
+	// changes of the session, empty strings are nulls
+	private Hashtable<Integer, String> _posValuesTable = new Hashtable<Integer, String>();
+
+	/**
+	 * Constructor for writing to an existing dictionary encoded ALPHAN segment
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @throws Exception
+	 */
+	public FactDictionaryDataWriter(String dbName, String datasetName) throws Exception {
+		if (dbName == null || dbName.trim().length() <= 0)
+			throw new Exception ("Invalid dbName!");
+
+		if (datasetName == null || datasetName.trim().length() <= 0)
+			throw new Exception ("Invalid datasetName!");
+
+		File f = new File(datasetName);
+		if (!f.exists())
+			throw new Exception ("File " + datasetName + " does not exist!");
+
+		int[] fileType = new int[1];
+		int[] encoding = new int[1];
+		int[] segmentNo = new int[1];
+		int[] datasize = new int[1];
+		short[] decimals = new short[1];
+
+		CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo);
+
+		if (fileType[0] != CheckSum.FILE_TYPE_FACT || encoding[0] != CheckSum.FACT_ENCODE_TYPE_ALPHAN_DICT)
+			throw new Exception ("File " + datasetName + " is not a dictionary encoded ALPHAN segment");
+
+		this._dbName = dbName;
+		this._datasetName = datasetName;
+		this._segmentNo = segmentNo[0];
+	}
+
+	/**
+	 * Creates a dictionary encoded ALPHAN fact segment
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @param values Values in position order, null or empty values are nulls
+	 * @param segmentNo Segment number
+	 * @throws Exception
+	 */
+	public static void createSegment(String dbName, String datasetName, String[] values, int segmentNo) throws Exception {
+		if (dbName == null || dbName.trim().length() <= 0)
+			throw new Exception ("Invalid dbName!");
+
+		if (datasetName == null || datasetName.trim().length() <= 0)
+			throw new Exception ("Invalid datasetName!");
+
+		if (values == null)
+			throw new Exception ("Null Data!");
+
+		if (new File(datasetName).exists())
+			throw new Exception("File " + datasetName + " exists! Cannot create segment");
+
+		if (values.length > HASIDSConstants.DIM_MAX_RECORDS)
+			throw new Exception ("Record count must be >= 0 and <= " + HASIDSConstants.DIM_MAX_RECORDS);
+
+		if (segmentNo < 0)
+			throw new Exception ("Segment number must be >= 0");
+
+		for (int i = 0; i < values.length; i++)
+			FactDictionaryDataWriter.checkValue(values[i]);
+
+		FactDictionaryDataWriter.writeSegment(dbName, datasetName, values, segmentNo);
+	}
+
+	/**
+	 * Creates a dictionary encoded copy of a fixed length ALPHAN fact segment
+	 *
+	 * @param dbName Database name
+	 * @param sourceDatasetName ALPHAN fact segment
+	 * @param targetDatasetName Dictionary encoded segment to be created
+	 * @return number of dictionary entries
+	 * @throws Exception
+	 */
+	public static int compress(String dbName, String sourceDatasetName, String targetDatasetName) throws Exception {
+		int[] fileType = new int[1];
+		int[] encoding = new int[1];
+		int[] segmentNo = new int[1];
+		int[] datasize = new int[1];
+		short[] decimals = new short[1];
+		int[] headerLength = new int[1];
+
+		CheckSum.validateFile(dbName, sourceDatasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
+
+		if (fileType[0] != CheckSum.FILE_TYPE_FACT || encoding[0] != CheckSum.FACT_ENCODE_TYPE_ALPHAN)
+			throw new Exception ("File " + sourceDatasetName + " is not an ALPHAN fact segment");
+
+		String[] values = null;
+
+		RandomAccessFile raf = new RandomAccessFile(sourceDatasetName, "r");
+		FileChannel fc = raf.getChannel();
+		try {
+			int recordCount = (int)((fc.size() - headerLength[0])/datasize[0]);
+			ByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, headerLength[0], (long)recordCount * datasize[0]);
+
+			// the first byte of each slot holds the length of the value
+			byte[] slot = new byte[datasize[0]];
+			values = new String[recordCount];
+			for (int i = 0; i < recordCount; i++) {
+				buffer.position(i * datasize[0]);
+				buffer.get(slot);
+				int length = Math.min(slot[0] & 0xFF, datasize[0] - 1);
+				values[i] = (length == 0 ? null : new String(slot, 1, length, StandardCharsets.UTF_8));
+			}
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		FactDictionaryDataWriter.createSegment(dbName, targetDatasetName, values, segmentNo[0]);
+
+		return FactDictionary.getDictionary(targetDatasetName).size();
+	}
+
+	private static void checkValue(String value) throws Exception {
+		if (value != null && value.getBytes(StandardCharsets.UTF_8).length > CheckSum.FACT_MAX_ALPHAN_LENGTH)
+			throw new Exception ("Max data length allowed in bytes is " + CheckSum.FACT_MAX_ALPHAN_LENGTH + " : " + value);
+	}
+
+	/**
+	 * Builds the dictionary of the values, writes it and replaces the segment file with the
+	 * codes of the values
+	 *
+	 * @throws Exception
+	 */
+	private static void writeSegment(String dbName, String datasetName, String[] values, int segmentNo) throws Exception {
+		long beginTime = System.nanoTime();
+
+		TreeSet<String> distinct = new TreeSet<String>();
+		for (int i = 0; i < values.length; i++)
+			if (values[i] != null && values[i].length() > 0)
+				distinct.add(values[i]);
+
+		String[] entries = distinct.toArray(new String[distinct.size()]);
+		int codeLength = FactDictionary.getCodeLength(entries.length);
+
+		// the dictionary is replaced just before the segment file, a rebuild must not run
+		// concurrently with readers of the segment
+		FactDictionary.writeDictionary(datasetName, entries);
+		FactDictionary dictionary = FactDictionary.getDictionary(datasetName);
+
+		ByteBuffer body = ByteBuffer.allocate(values.length * codeLength);
+		body.order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < values.length; i++)
+			FactDictionary.putCode(body, i, codeLength, dictionary.getCode(values[i]));
+
+		long fileSize = (long)CheckSum.FILE_V2_HEADER_LENGTH + body.capacity();
+		long lastModifiedTime = System.currentTimeMillis();
+
+		ByteBuffer header = ByteBuffer.allocate(CheckSum.FILE_V2_HEADER_LENGTH);
+		CheckSum.writeHeaderV2(header, CheckSum.FILE_TYPE_FACT, CheckSum.FACT_ENCODE_TYPE_ALPHAN_DICT, segmentNo, codeLength, (short)0,
+				values.length, dbName + "|" + datasetName, fileSize, lastModifiedTime);
+
+		File f = new File(datasetName);
+		File temp = new File(datasetName + ".tmp");
+
+		RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		FileChannel fc = raf.getChannel();
+		try {
+			raf.setLength(0);
+			while (header.hasRemaining())
+				fc.write(header, header.position());
+			while (body.hasRemaining())
+				fc.write(body, CheckSum.FILE_V2_HEADER_LENGTH + body.position());
+			fc.force(true);
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		if (f.exists() && !f.delete())
+			throw new Exception ("Unable to replace segment " + datasetName);
+
+		if (!temp.renameTo(f))
+			throw new Exception ("Unable to replace segment " + datasetName);
+
+		// set the last modified time
+		f.setLastModified(lastModifiedTime);
+		FactDictionaryDataWriter.refreshCatalog(dbName, datasetName, segmentNo, codeLength, values.length, f);
+
+		// checksum the data blocks of the new segment
+		BlockCheckSum.build(datasetName, CheckSum.FILE_V2_HEADER_LENGTH);
+
+		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((System.nanoTime() - beginTime), TimeUnit.NANOSECONDS);
+		System.out.println("Dictionary segment " + datasetName + " written, records : " + values.length +
+				", entries : " + entries.length + ", code length : " + codeLength + " in " + elapsedTimeInMillis + " Milliseconds");
+	}
+
+	private static void refreshCatalog(String dbName, String datasetName, int segmentNo, int codeLength, int recordCount, File f) {
+		try {
+			DatasetCatalog.refresh(new DatasetSegment(dbName, datasetName, CheckSum.FILE_TYPE_FACT, CheckSum.FACT_ENCODE_TYPE_ALPHAN_DICT,
+					segmentNo, codeLength, (short)0, CheckSum.FILE_V2_HEADER_LENGTH, recordCount, f.lastModified()));
+		}
+		catch (Exception e) {
+			// the entry is reloaded from the header on its next use
+			DatasetCatalog.remove(dbName, datasetName);
+		}
+	}
+
+	public String getDbName() {
+		return this._dbName;
+	}
+
+	public String getDatasetName() {
+		return this._datasetName;
+	}
+
+	public int getSegmentNo() {
+		return this._segmentNo;
+	}
+
+	/**
+	 * Sets the values of positions. Positions beyond the current record count extend the
+	 * segment, records in between are null.
+	 *
+	 * @param position 0 based positions
+	 * @param values Values, null or empty values are nulls
+	 * @throws Exception
+	 */
+	public void setWriteDataPositionBuffer(int[] position, String[] values) throws Exception {
+		if (position == null || values == null || position.length != values.length)
+			throw new Exception("Null Data or data length does not match values length!");
+
+		for (int i = 0; i < position.length; i++) {
+			if (position[i] < 0 || position[i] >= HASIDSConstants.DIM_MAX_RECORDS)
+				throw new Exception ("Invalid position " + position[i]);
+			FactDictionaryDataWriter.checkValue(values[i]);
+		}
+
+		for (int i = 0; i < position.length; i++)
+			this._posValuesTable.put(position[i], (values[i] == null ? "" : values[i]));
+	}
+
+	/**
+	 * Discards the changes of the session
+	 */
+	public void rollback() {
+		this._posValuesTable.clear();
+	}
+
+	/**
+	 * Applies the changes of the session, in place if all the values are in the dictionary,
+	 * else by rebuilding the dictionary and the segment file
+	 *
+	 * @return record count after the commit
+	 * @throws Exception
+	 */
+	public int commit() throws Exception {
+		Object monitor = null;
+		synchronized (COMMIT_TABLE) {
+			monitor = COMMIT_TABLE.get(this._datasetName);
+			if (monitor == null) {
+				monitor = new Object();
+				COMMIT_TABLE.put(this._datasetName, monitor);
+			}
+		}
+
+		synchronized (monitor) {
+			int[] fileType = new int[1];
+			int[] encoding = new int[1];
+			int[] segmentNo = new int[1];
+			int[] datasize = new int[1];
+			short[] decimals = new short[1];
+			int[] headerLength = new int[1];
+
+			CheckSum.validateFile(this._dbName, this._datasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
+			int recordCount = (int)((new File(this._datasetName).length() - headerLength[0])/datasize[0]);
+			FactDictionary dictionary = FactDictionary.getDictionary(this._datasetName);
+
+			// check if the changes can be written in place
+			boolean inPlace = true;
+			int newRecordCount = recordCount;
+			Enumeration<Integer> e = this._posValuesTable.keys();
+			while (e.hasMoreElements()) {
+				int key = e.nextElement();
+				if (key >= newRecordCount)
+					newRecordCount = key + 1;
+				if (dictionary.getCode(this._posValuesTable.get(key)) < 0)
+					inPlace = false;
+			}
+
+			if (newRecordCount != recordCount)
+				inPlace = false;
+
+			if (inPlace)
+				this.commitInPlace(dictionary, datasize[0], headerLength[0]);
+			else {
+				String[] values = this.getCommittedValues(dictionary, recordCount, newRecordCount, datasize[0], headerLength[0]);
+
+				e = this._posValuesTable.keys();
+				while (e.hasMoreElements()) {
+					int key = e.nextElement();
+					values[key] = this._posValuesTable.get(key);
+				}
+
+				FactDictionaryDataWriter.writeSegment(this._dbName, this._datasetName, values, segmentNo[0]);
+			}
+
+			this.rollback();
+			return newRecordCount;
+		}
+	}
+
+	/**
+	 * Reads the committed values of the segment as shared dictionary entries, the positions
+	 * beyond the record count are null
+	 */
+	private String[] getCommittedValues(FactDictionary dictionary, int recordCount, int newRecordCount, int codeLength, int headerLength) throws Exception {
+		String[] values = new String[newRecordCount];
+
+		RandomAccessFile raf = new RandomAccessFile(this._datasetName, "r");
+		FileChannel fc = raf.getChannel();
+		try {
+			ByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, headerLength, (long)recordCount * codeLength);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			for (int i = 0; i < recordCount; i++)
+				values[i] = dictionary.getEntry(FactDictionary.getCode(buffer, i, codeLength));
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		return values;
+	}
+
+	/**
+	 * Writes the codes of the session into the segment file and updates the time stamp and the
+	 * block checksums of the changed range
+	 */
+	private void commitInPlace(FactDictionary dictionary, int codeLength, int headerLength) throws Exception {
+		if (this._posValuesTable.isEmpty())
+			return;
+
+		int low = Integer.MAX_VALUE, high = -1;
+		Enumeration<Integer> e = this._posValuesTable.keys();
+		while (e.hasMoreElements()) {
+			int key = e.nextElement();
+			if (key < low)
+				low = key;
+			if (key > high)
+				high = key;
+		}
+
+		long lastModifiedTime = System.currentTimeMillis();
+
+		RandomAccessFile raf = new RandomAccessFile(this._datasetName, "rw");
+		FileChannel fc = raf.getChannel();
+		try {
+			MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_WRITE, headerLength + (long)low * codeLength,
+					(long)(high - low + 1) * codeLength);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			e = this._posValuesTable.keys();
+			while (e.hasMoreElements()) {
+				int key = e.nextElement();
+				FactDictionary.putCode(buffer, key - low, codeLength, dictionary.getCode(this._posValuesTable.get(key)));
+			}
+			buffer.force();
+			buffer = null;
+
+			CheckSum.writeTimestamp(fc, lastModifiedTime);
+
+			try {
+				BlockCheckSum.update(this._datasetName, fc, headerLength, (long)low * codeLength, (long)(high - low + 1) * codeLength);
+			}
+			catch (Exception ex) {
+				// the checksum file is removed so that it is never stale
+				ex.printStackTrace();
+				BlockCheckSum.delete(this._datasetName);
+			}
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		// set the last modified time
+		File f = new File(this._datasetName);
+		f.setLastModified(lastModifiedTime);
+		FactDictionaryDataWriter.refreshCatalog(this._dbName, this._datasetName, this._segmentNo, codeLength,
+				(int)((f.length() - headerLength)/codeLength), f);
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		String dbName = "Test";
+		String source = "c:\\users\\dpras\\tempdata\\testdata\\vendorname.FC";
+		String target = "c:\\users\\dpras\\tempdata\\testdata\\vendorname_dict.FC";
+
+		try {
+			int entries = FactDictionaryDataWriter.compress(dbName, source, target);
+			System.out.println("Dictionary encoded " + source + " with " + entries + " entries");
+
+			FactDictionaryDataWriter w = new FactDictionaryDataWriter(dbName, target);
+			w.setWriteDataPositionBuffer(new int[] {0, 10}, new String[] {"VeriFone Inc", "Creative Mobile"});
+			System.out.println("Record count after commit : " + w.commit());
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
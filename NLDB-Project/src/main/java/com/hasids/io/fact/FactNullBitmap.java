@@ -0,0 +1,628 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Optional null bitmap of a fact segment, kept in a file next to the segment named
+ * <segment file>.nulls. The values of the fact segments hold their nulls in band (Byte, Short,
+ * Integer and Long.MIN_VALUE, Float and Double.MIN_VALUE, a zero length for ALPHAN), so IS NULL
+ * and IS NOT NULL have to compare every value. The bitmap holds one bit per record, set for
+ * the null values, and the number of nulls of every block of BLOCK_SIZE records; IS NULL and
+ * IS NOT NULL are answered from the bits and the scans drop the null check on ranges without
+ * nulls.
+ *
+ * The bitmap is created with build() and from then on maintained by the writers on commit,
+ * DataWriter for the positions written and FactCompressedDataWriter by rebuilding it. It is
+ * used by the readers only if the segment has not changed since it was last maintained. The
+ * bits, block counts and header are updated in place, the loaded bitmaps are cached by file
+ * name and read their header from the mapping.
+ *
+ * Bitmap file (LITTLE ENDIAN):
+ * position 0 - 3 = magic
+ * position 4 - 7 = version
+ * position 8 - 15 = record count of the segment when last maintained
+ * position 16 - 23 = number of null values
+ * position 24 - 31 = last modified time of the segment when last maintained
+ * position 32 - 35 = block size in records
+ * position 36 - 39 = block count
+ * position 40 - 47 = reserved
+ * position 48 onwards = int[block count] number of nulls of each block, followed by
+ * long[(record count + 63) / 64] bits of the 0 based positions, bit p % 64 of long p / 64
+ */
+
+package com.hasids.io.fact;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import com.hasids.HASIDSConstants;
+import com.hasids.datastructures.CheckSum;
+
+public class FactNullBitmap {
+
+	public static final String BITMAP_EXTENSION = ".nulls";
+	public static final int BITMAP_MAGIC = 0x48534E42; // HSNB
+	public static final int BITMAP_VERSION = 1;
+	public static final int BITMAP_HEADER_LENGTH = 48;
+
+	// records per block, a multiple of 64 so that the blocks cover distinct longs of the bits
+	public static final int BLOCK_SIZE = 4096;
+
+	private static Hashtable<String, SoftReference<FactNullBitmap>> CACHE = new Hashtable<String, SoftReference<FactNullBitmap>>();
+	private static Hashtable<String, Object> UPDATE_TABLE = new Hashtable<String, Object>();
+
+	private MappedByteBuffer _buffer;
+	private long _lastModified;
+	private long _fileLength;
+	private int _recordCount;
+	private int _blockSize;
+	private int _blockCount;
+	private int _bitsPosition;
+
+	private FactNullBitmap() {
+	}
+
+	/**
+	 * @param datasetName Segment file name
+	 * @return name of the bitmap file of the segment
+	 */
+	public static String getBitmapName(String datasetName) {
+		return datasetName + BITMAP_EXTENSION;
+	}
+
+	public static boolean exists(String datasetName) {
+		return new File(FactNullBitmap.getBitmapName(datasetName)).exists();
+	}
+
+	/**
+	 * Deletes the bitmap file of a segment
+	 *
+	 * @param datasetName Segment file name
+	 */
+	public static void delete(String datasetName) {
+		String bitmapName = FactNullBitmap.getBitmapName(datasetName);
+		CACHE.remove(bitmapName);
+		new File(bitmapName).delete();
+	}
+
+	/**
+	 * Tests the value of a fixed length fact record for null
+	 *
+	 * @param buffer Segment data, LITTLE ENDIAN
+	 * @param offset Offset of the record in the buffer
+	 * @param encoding Fixed length fact encoding, INT or LONG for DECIMAL segments
+	 * @return true if the value is the null value of the encoding
+	 */
+	public static boolean isNull(ByteBuffer buffer, int offset, int encoding) {
+		switch (encoding) {
+		case CheckSum.FACT_ENCODE_TYPE_BYTE: return buffer.get(offset) == Byte.MIN_VALUE;
+		case CheckSum.FACT_ENCODE_TYPE_SHORT: return buffer.getShort(offset) == Short.MIN_VALUE;
+		case CheckSum.FACT_ENCODE_TYPE_INT: return buffer.getInt(offset) == Integer.MIN_VALUE;
+		case CheckSum.FACT_ENCODE_TYPE_LONG: return buffer.getLong(offset) == Long.MIN_VALUE;
+		case CheckSum.FACT_ENCODE_TYPE_FLOAT: return buffer.getFloat(offset) == Float.MIN_VALUE;
+		case CheckSum.FACT_ENCODE_TYPE_DOUBLE: return buffer.getDouble(offset) == Double.MIN_VALUE;
+		default: return buffer.get(offset) == 0; // ALPHAN, zero length
+		}
+	}
+
+	/**
+	 * Returns the bitmap of a segment from the cache, loading it if it is not cached or if the
+	 * file has been replaced since it was cached
+	 *
+	 * @param datasetName Segment file name
+	 * @return bitmap, null if the segment has no bitmap
+	 * @throws Exception
+	 */
+	public static FactNullBitmap getBitmap(String datasetName) throws Exception {
+		String bitmapName = FactNullBitmap.getBitmapName(datasetName);
+		File f = new File(bitmapName);
+		if (!f.exists())
+			return null;
+
+		SoftReference<FactNullBitmap> ref = CACHE.get(bitmapName);
+		FactNullBitmap bitmap = (ref == null ? null : ref.get());
+		if (bitmap != null && bitmap._lastModified == f.lastModified() && bitmap._fileLength == f.length())
+			return bitmap;
+
+		synchronized (CACHE) {
+			bitmap = FactNullBitmap.load(bitmapName);
+			CACHE.put(bitmapName, new SoftReference<FactNullBitmap>(bitmap));
+		}
+
+		return bitmap;
+	}
+
+	private static FactNullBitmap load(String bitmapName) throws Exception {
+		FactNullBitmap bitmap = new FactNullBitmap();
+		bitmap._lastModified = new File(bitmapName).lastModified();
+
+		RandomAccessFile raf = new RandomAccessFile(bitmapName, "r");
+		FileChannel fc = raf.getChannel();
+		try {
+			if (fc.size() < BITMAP_HEADER_LENGTH || fc.size() > Integer.MAX_VALUE)
+				throw new Exception ("Invalid bitmap length in " + bitmapName);
+
+			// the mapping remains valid after the channel is closed
+			bitmap._buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+			bitmap._buffer.order(ByteOrder.LITTLE_ENDIAN);
+			bitmap._fileLength = fc.size();
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		ByteBuffer buffer = bitmap._buffer;
+		long recordCount = buffer.getLong(8);
+		bitmap._blockSize = buffer.getInt(32);
+		bitmap._blockCount = buffer.getInt(36);
+
+		if (buffer.getInt(0) != BITMAP_MAGIC || recordCount < 0 || recordCount > HASIDSConstants.DIM_MAX_RECORDS ||
+				bitmap._blockSize <= 0 || (bitmap._blockSize & 63) != 0 ||
+				bitmap._blockCount != (int)((recordCount + bitmap._blockSize - 1) / bitmap._blockSize) ||
+				FactNullBitmap.getFileLength(recordCount, bitmap._blockSize) != buffer.capacity())
+			throw new Exception ("Invalid bitmap " + bitmapName);
+
+		bitmap._recordCount = (int)recordCount;
+		bitmap._bitsPosition = BITMAP_HEADER_LENGTH + bitmap._blockCount * 4;
+
+		return bitmap;
+	}
+
+	private static long getFileLength(long recordCount, int blockSize) {
+		return BITMAP_HEADER_LENGTH + ((recordCount + blockSize - 1) / blockSize) * 4 + ((recordCount + 63) >>> 6) * 8;
+	}
+
+	public int getRecordCount() {
+		return this._recordCount;
+	}
+
+	public long getNullCount() {
+		return this._buffer.getLong(16);
+	}
+
+	public int getBlockSize() {
+		return this._blockSize;
+	}
+
+	public int getBlockCount() {
+		return this._blockCount;
+	}
+
+	/**
+	 * @param block Block number
+	 * @return number of nulls of the block, 0 for a null free block
+	 */
+	public int getBlockNullCount(int block) {
+		return this._buffer.getInt(BITMAP_HEADER_LENGTH + block * 4);
+	}
+
+	/**
+	 * @param segmentLastModified Last modified time of the segment file
+	 * @param recordCount Record count of the segment
+	 * @return true if the bitmap was maintained by the last commit of the segment
+	 */
+	public boolean isCurrent(long segmentLastModified, int recordCount) {
+		return this._buffer.getLong(24) == segmentLastModified && this._recordCount == recordCount;
+	}
+
+	private long getWord(int word) {
+		return this._buffer.getLong(this._bitsPosition + word * 8);
+	}
+
+	/**
+	 * @param position 0 based position
+	 * @return true if the value of the position is null
+	 */
+	public boolean isNull(int position) {
+		return ((this.getWord(position >>> 6) >>> (position & 63)) & 1) != 0;
+	}
+
+	/**
+	 * Counts the nulls between two positions, using the block counts for the whole blocks
+	 *
+	 * @param fromPosition 0 based position, inclusive
+	 * @param toPosition 0 based position, exclusive
+	 * @return number of nulls
+	 */
+	public long getNullCount(int fromPosition, int toPosition) {
+		if (toPosition > this._recordCount)
+			toPosition = this._recordCount;
+		if (fromPosition < 0)
+			fromPosition = 0;
+
+		long count = 0;
+		int position = fromPosition;
+		while (position < toPosition) {
+			int block = position / this._blockSize;
+			int blockEnd = Math.min(toPosition, (block + 1) * this._blockSize);
+
+			if (position == block * this._blockSize && blockEnd == Math.min(this._recordCount, (block + 1) * this._blockSize))
+				count += this.getBlockNullCount(block);
+			else if (this.getBlockNullCount(block) > 0)
+				count += this.countBits(position, blockEnd);
+
+			position = blockEnd;
+		}
+
+		return count;
+	}
+
+	private long countBits(int from, int to) {
+		long count = 0;
+		for (int word = from >>> 6; word <= (to - 1) >>> 6; word++) {
+			long bits = this.getWord(word);
+			if (word == from >>> 6)
+				bits &= -1L << (from & 63);
+			if (word == (to - 1) >>> 6 && (to & 63) != 0)
+				bits &= -1L >>> (64 - (to & 63));
+			count += Long.bitCount(bits);
+		}
+		return count;
+	}
+
+	/**
+	 * Sets the bits of the null or not null records between two positions. The bit set for a
+	 * matching position p is p + bitOffset. Blocks without nulls are set or skipped as a whole.
+	 *
+	 * @param fromPosition 0 based position, inclusive
+	 * @param toPosition 0 based position, exclusive
+	 * @param b BitSet receiving the matches
+	 * @param bitOffset Offset added to the positions
+	 * @param not false for IS NULL, true for IS NOT NULL
+	 */
+	public void getNulls(int fromPosition, int toPosition, BitSet b, int bitOffset, boolean not) {
+		if (toPosition > this._recordCount)
+			toPosition = this._recordCount;
+		if (fromPosition < 0)
+			fromPosition = 0;
+
+		int position = fromPosition;
+		while (position < toPosition) {
+			int block = position / this._blockSize;
+			int blockEnd = Math.min(toPosition, (block + 1) * this._blockSize);
+			int nulls = this.getBlockNullCount(block);
+
+			if (nulls == 0) {
+				if (not)
+					b.set(position + bitOffset, blockEnd + bitOffset);
+			}
+			else if (nulls == Math.min(this._recordCount, (block + 1) * this._blockSize) - block * this._blockSize) {
+				if (!not)
+					b.set(position + bitOffset, blockEnd + bitOffset);
+			}
+			else {
+				for (int word = position >>> 6; word <= (blockEnd - 1) >>> 6; word++) {
+					long bits = this.getWord(word);
+					if (not)
+						bits = ~bits;
+					if (word == position >>> 6)
+						bits &= -1L << (position & 63);
+					if (word == (blockEnd - 1) >>> 6 && (blockEnd & 63) != 0)
+						bits &= -1L >>> (64 - (blockEnd & 63));
+
+					while (bits != 0) {
+						b.set((word << 6) + Long.numberOfTrailingZeros(bits) + bitOffset);
+						bits &= bits - 1;
+					}
+				}
+			}
+
+			position = blockEnd;
+		}
+	}
+
+	/**
+	 * Builds the null bitmap of a fixed length, DECIMAL, fixed length ALPHAN or block
+	 * compressed fact segment, replacing the existing one. From then on the bitmap is
+	 * maintained by the writers.
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @return number of nulls
+	 * @throws Exception
+	 */
+	public static long build(String dbName, String datasetName) throws Exception {
+		long beginTime = System.nanoTime();
+
+		int[] fileType = new int[1];
+		int[] encoding = new int[1];
+		int[] segmentNo = new int[1];
+		int[] datasize = new int[1];
+		short[] decimals = new short[1];
+		int[] headerLength = new int[1];
+
+		CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
+
+		if (fileType[0] != CheckSum.FILE_TYPE_FACT)
+			throw new Exception ("File " + datasetName + " is not a fact segment");
+
+		if (CheckSum.isDictionaryEncoding(fileType[0], encoding[0]) || CheckSum.isVarLengthEncoding(fileType[0], encoding[0]))
+			throw new Exception ("Null bitmaps are not kept for dictionary encoded and variable length ALPHAN segments");
+
+		// sparse segments hold their populated positions in their own presence bitmap
+		if (CheckSum.isSparseEncoding(fileType[0], encoding[0]))
+			throw new Exception ("Null bitmaps are not kept for sparse segments");
+
+		long segmentLastModified = new File(datasetName).lastModified();
+		int recordCount = 0;
+		long[] words = null;
+
+		if (CheckSum.isCompressedEncoding(fileType[0], encoding[0])) {
+			recordCount = (int)CheckSum.getRecordCount(datasetName, datasize[0]);
+			words = new long[(recordCount + 63) >>> 6];
+
+			FactCompressedSegment segment = FactCompressedSegment.getSegment(datasetName, headerLength[0], encoding[0], false);
+			long nullValue = FactCompressedSegment.getNullValue(segment.getBaseEncoding());
+			long[] buffer = new long[segment.getBlockSize()];
+
+			for (int block = 0; block < segment.getBlockCount(); block++) {
+				long min = segment.getBlockMinimum(block);
+				long max = segment.getBlockMaximum(block);
+
+				// FLOAT and DOUBLE blocks hold the range of the double values
+				if (segment.getBaseEncoding() == CheckSum.FACT_ENCODE_TYPE_FLOAT || segment.getBaseEncoding() == CheckSum.FACT_ENCODE_TYPE_DOUBLE) {
+					double d = (segment.getBaseEncoding() == CheckSum.FACT_ENCODE_TYPE_FLOAT ? Float.MIN_VALUE : Double.MIN_VALUE);
+					if (d < FactCompressedSegment.toDouble(min) || d > FactCompressedSegment.toDouble(max))
+						continue;
+				}
+				else if (nullValue < min || nullValue > max)
+					continue;
+
+				int count = segment.decodeBlock(block, buffer);
+				int blockStart = block * segment.getBlockSize();
+				for (int i = 0; i < count; i++)
+					if (buffer[i] == nullValue)
+						words[(blockStart + i) >>> 6] |= 1L << ((blockStart + i) & 63);
+			}
+		}
+		else {
+			int valueEncoding = encoding[0];
+			if (CheckSum.isDecimalEncoding(fileType[0], encoding[0]))
+				valueEncoding = CheckSum.getDecimalBaseEncoding(datasize[0]);
+
+			RandomAccessFile raf = new RandomAccessFile(datasetName, "r");
+			FileChannel fc = raf.getChannel();
+			try {
+				recordCount = (int)((fc.size() - headerLength[0]) / datasize[0]);
+				words = new long[(recordCount + 63) >>> 6];
+
+				// map and scan in chunks of whole records
+				int chunk = (Integer.MAX_VALUE / 2 / datasize[0]) & ~63;
+				for (int from = 0; from < recordCount; from += chunk) {
+					int count = Math.min(chunk, recordCount - from);
+					MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, headerLength[0] + (long)from * datasize[0], (long)count * datasize[0]);
+					buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+					for (int i = 0; i < count; i++)
+						if (FactNullBitmap.isNull(buffer, i * datasize[0], valueEncoding))
+							words[(from + i) >>> 6] |= 1L << ((from + i) & 63);
+				}
+			}
+			finally {
+				fc.close();
+				raf.close();
+			}
+		}
+
+		long nullCount = 0;
+		synchronized (FactNullBitmap.getMonitor(datasetName)) {
+			nullCount = FactNullBitmap.write(datasetName, words, recordCount, segmentLastModified);
+		}
+
+		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((System.nanoTime() - beginTime), TimeUnit.NANOSECONDS);
+		System.out.println("Null bitmap of " + datasetName + " built, records : " + recordCount + ", nulls : " + nullCount +
+				" in " + elapsedTimeInMillis + " Milliseconds");
+
+		return nullCount;
+	}
+
+	/**
+	 * Writes the bitmap file, replacing the existing one
+	 *
+	 * @return number of nulls
+	 */
+	private static long write(String datasetName, long[] words, int recordCount, long segmentLastModified) throws Exception {
+		int blockCount = (recordCount + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		int wordsPerBlock = BLOCK_SIZE >>> 6;
+
+		ByteBuffer counts = ByteBuffer.allocate(blockCount * 4).order(ByteOrder.LITTLE_ENDIAN);
+		long nullCount = 0;
+		for (int block = 0; block < blockCount; block++) {
+			int count = 0;
+			for (int word = block * wordsPerBlock; word < Math.min(words.length, (block + 1) * wordsPerBlock); word++)
+				count += Long.bitCount(words[word]);
+			counts.putInt(count);
+			nullCount += count;
+		}
+		counts.flip();
+
+		ByteBuffer header = ByteBuffer.allocate(BITMAP_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(BITMAP_MAGIC);
+		header.putInt(BITMAP_VERSION);
+		header.putLong(recordCount);
+		header.putLong(nullCount);
+		header.putLong(segmentLastModified);
+		header.putInt(BLOCK_SIZE);
+		header.putInt(blockCount);
+		header.putLong(0L);
+		header.flip();
+
+		String bitmapName = FactNullBitmap.getBitmapName(datasetName);
+		File f = new File(bitmapName);
+		File temp = new File(bitmapName + ".tmp");
+
+		RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		FileChannel fc = raf.getChannel();
+		try {
+			raf.setLength(0);
+			long position = 0;
+			while (header.hasRemaining())
+				position += fc.write(header, position);
+			while (counts.hasRemaining())
+				position += fc.write(counts, position);
+
+			ByteBuffer out = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < words.length; i++) {
+				out.putLong(words[i]);
+				if (!out.hasRemaining() || i == words.length - 1) {
+					out.flip();
+					while (out.hasRemaining())
+						position += fc.write(out, position);
+					out.clear();
+				}
+			}
+			fc.force(true);
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		if (f.exists() && !f.delete())
+			throw new Exception ("Unable to replace bitmap " + bitmapName);
+
+		if (!temp.renameTo(f))
+			throw new Exception ("Unable to replace bitmap " + bitmapName);
+
+		CACHE.remove(bitmapName);
+
+		return nullCount;
+	}
+
+	/**
+	 * Builds the null bitmap of a block compressed segment from the values it was encoded
+	 * from, replacing the existing one
+	 *
+	 * @param datasetName Segment file name
+	 * @param values Long form of the values
+	 * @param nullValue Long form of the null value
+	 * @param segmentLastModified Last modified time of the segment
+	 * @return number of nulls
+	 * @throws Exception
+	 */
+	static long build(String datasetName, long[] values, long nullValue, long segmentLastModified) throws Exception {
+		long[] words = new long[(values.length + 63) >>> 6];
+		for (int i = 0; i < values.length; i++)
+			if (values[i] == nullValue)
+				words[i >>> 6] |= 1L << (i & 63);
+
+		synchronized (FactNullBitmap.getMonitor(datasetName)) {
+			return FactNullBitmap.write(datasetName, words, values.length, segmentLastModified);
+		}
+	}
+
+	/**
+	 * Updates the bits of the positions written by a commit in place. The bitmap is rebuilt
+	 * from the segment if the record count of the segment changed.
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @param positions 0 based positions written
+	 * @param nulls Null flag of the value written at each position
+	 * @param recordCount Record count of the segment
+	 * @param segmentLastModified Commit time stamp of the segment
+	 * @throws Exception
+	 */
+	public static void update(String dbName, String datasetName, int[] positions, boolean[] nulls, int recordCount,
+			long segmentLastModified) throws Exception {
+
+		String bitmapName = FactNullBitmap.getBitmapName(datasetName);
+
+		synchronized (FactNullBitmap.getMonitor(datasetName)) {
+			RandomAccessFile raf = new RandomAccessFile(bitmapName, "rw");
+			FileChannel fc = raf.getChannel();
+			boolean rebuild = false;
+			try {
+				if (fc.size() < BITMAP_HEADER_LENGTH || fc.size() > Integer.MAX_VALUE)
+					rebuild = true;
+				else {
+					MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_WRITE, 0, fc.size());
+					buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+					int blockSize = buffer.getInt(32);
+					if (buffer.getInt(0) != BITMAP_MAGIC || buffer.getLong(8) != recordCount || blockSize <= 0 ||
+							FactNullBitmap.getFileLength(recordCount, blockSize) != fc.size())
+						rebuild = true;
+					else {
+						int bitsPosition = BITMAP_HEADER_LENGTH + buffer.getInt(36) * 4;
+						long nullCount = buffer.getLong(16);
+
+						for (int i = 0; i < positions.length; i++) {
+							int position = positions[i];
+							if (position < 0 || position >= recordCount)
+								throw new Exception ("Position " + position + " out of range");
+
+							int wordPosition = bitsPosition + (position >>> 6) * 8;
+							long word = buffer.getLong(wordPosition);
+							long bit = 1L << (position & 63);
+							if (((word & bit) != 0) == nulls[i])
+								continue;
+
+							int countPosition = BITMAP_HEADER_LENGTH + (position / blockSize) * 4;
+							int delta = (nulls[i] ? 1 : -1);
+							buffer.putLong(wordPosition, word ^ bit);
+							buffer.putInt(countPosition, buffer.getInt(countPosition) + delta);
+							nullCount += delta;
+						}
+
+						// the time stamp is written last, the bitmap is not current until it is
+						buffer.putLong(16, nullCount);
+						buffer.putLong(24, segmentLastModified);
+						buffer.force();
+					}
+				}
+			}
+			finally {
+				fc.close();
+				raf.close();
+			}
+
+			if (rebuild)
+				FactNullBitmap.build(dbName, datasetName);
+		}
+	}
+
+	private static Object getMonitor(String datasetName) {
+		synchronized (UPDATE_TABLE) {
+			Object monitor = UPDATE_TABLE.get(datasetName);
+			if (monitor == null) {
+				monitor = new Object();
+				UPDATE_TABLE.put(datasetName, monitor);
+			}
+			return monitor;
+		}
+	}
+
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		String dbName = "Test";
+		String datasetName = "c:\\users\\dpras\\tempdata\\testdata\\fareamount.FC";
+
+		try {
+			FactNullBitmap.build(dbName, datasetName);
+
+			FactNullBitmap bitmap = FactNullBitmap.getBitmap(datasetName);
+			int nullFree = 0;
+			for (int i = 0; i < bitmap.getBlockCount(); i++)
+				if (bitmap.getBlockNullCount(i) == 0)
+					++nullFree;
+
+			System.out.println("Records : " + bitmap.getRecordCount() + ", nulls : " + bitmap.getNullCount() +
+					", null free blocks : " + nullFree + " of " + bitmap.getBlockCount());
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
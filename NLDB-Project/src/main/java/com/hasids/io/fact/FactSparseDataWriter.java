@@ -0,0 +1,547 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Writer for the sparse fact encodings (INT, LONG, FLOAT and DOUBLE). Segments are created from
+ * the populated positions and their values, or converted from a fixed length segment. As with
+ * the block compressed segments the file is not updated in place; the writer collects the
+ * updates of a session and on commit applies them to the latest committed positions and values,
+ * re-encodes the segment into a temporary file and replaces the segment file. Setting a
+ * position to the null value of the encoding removes it from the segment. Commits against the
+ * same segment are serialized; the last writer of a position wins.
+ */
+
+package com.hasids.io.fact;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import com.hasids.HASIDSConstants;
+import com.hasids.datastructures.BlockCheckSum;
+import com.hasids.datastructures.CheckSum;
+import com.hasids.io.dataset.DatasetCatalog;
+import com.hasids.io.dataset.DatasetSegment;
+
+public class FactSparseDataWriter {
+
+	// one monitor per segment file to serialize commits
+	private static Hashtable<String, Object> COMMIT_TABLE = new Hashtable<String, Object>();
+
+	private String _dbName;
+	private String _datasetName;
+	private int _encoding;
+	private int _baseEncoding;
+	private int _segmentNo;
+	private int _dataLength;
+
+	// changes of the session, long form of the values
+	private Hashtable<Integer, Long> _posValuesTable = new Hashtable<Integer, Long>();
+
+	/**
+	 * Constructor for writing to an existing sparse fact segment
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @throws Exception
+	 */
+	public FactSparseDataWriter(String dbName, String datasetName) throws Exception {
+		if (dbName == null || dbName.trim().length() <= 0)
+			throw new Exception ("Invalid dbName!");
+
+		if (datasetName == null || datasetName.trim().length() <= 0)
+			throw new Exception ("Invalid datasetName!");
+
+		File f = new File(datasetName);
+		if (!f.exists())
+			throw new Exception ("File " + datasetName + " does not exist!");
+
+		int[] fileType = new int[1];
+		int[] encoding = new int[1];
+		int[] segmentNo = new int[1];
+		int[] datasize = new int[1];
+		short[] decimals = new short[1];
+
+		CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo);
+
+		if (!CheckSum.isSparseEncoding(fileType[0], encoding[0]))
+			throw new Exception ("File " + datasetName + " is not a sparse fact segment");
+
+		this._dbName = dbName;
+		this._datasetName = datasetName;
+		this._encoding = encoding[0];
+		this._baseEncoding = CheckSum.getFactBaseEncoding(encoding[0]);
+		this._segmentNo = segmentNo[0];
+		this._dataLength = datasize[0];
+	}
+
+	/**
+	 * Creates a sparse INT fact segment
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @param recordCount Number of records of the segment
+	 * @param positions 0 based positions holding a value, in any order
+	 * @param values Values of the positions, null values are skipped
+	 * @param segmentNo Segment number
+	 * @throws Exception
+	 */
+	public static void createSegment(String dbName, String datasetName, int recordCount, int[] positions, int[] values, int segmentNo) throws Exception {
+		if (positions == null || values == null || positions.length != values.length)
+			throw new Exception("Null Data or data length does not match values length!");
+
+		long[] raw = new long[values.length];
+		for (int i = 0; i < values.length; i++)
+			raw[i] = values[i];
+
+		FactSparseDataWriter.createSegment(dbName, datasetName, recordCount, positions, raw, CheckSum.FACT_ENCODE_TYPE_INT_SPARSE, segmentNo);
+	}
+
+	/**
+	 * Creates a sparse LONG fact segment
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @param recordCount Number of records of the segment
+	 * @param positions 0 based positions holding a value, in any order
+	 * @param values Values of the positions, null values are skipped
+	 * @param segmentNo Segment number
+	 * @throws Exception
+	 */
+	public static void createSegment(String dbName, String datasetName, int recordCount, int[] positions, long[] values, int segmentNo) throws Exception {
+		if (positions == null || values == null || positions.length != values.length)
+			throw new Exception("Null Data or data length does not match values length!");
+
+		FactSparseDataWriter.createSegment(dbName, datasetName, recordCount, positions, values.clone(), CheckSum.FACT_ENCODE_TYPE_LONG_SPARSE, segmentNo);
+	}
+
+	/**
+	 * Creates a sparse FLOAT fact segment
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @param recordCount Number of records of the segment
+	 * @param positions 0 based positions holding a value, in any order
+	 * @param values Values of the positions, null values are skipped
+	 * @param segmentNo Segment number
+	 * @throws Exception
+	 */
+	public static void createSegment(String dbName, String datasetName, int recordCount, int[] positions, float[] values, int segmentNo) throws Exception {
+		if (positions == null || values == null || positions.length != values.length)
+			throw new Exception("Null Data or data length does not match values length!");
+
+		long[] raw = new long[values.length];
+		for (int i = 0; i < values.length; i++)
+			raw[i] = FactCompressedSegment.toLong(values[i]);
+
+		FactSparseDataWriter.createSegment(dbName, datasetName, recordCount, positions, raw, CheckSum.FACT_ENCODE_TYPE_FLOAT_SPARSE, segmentNo);
+	}
+
+	/**
+	 * Creates a sparse DOUBLE fact segment
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @param recordCount Number of records of the segment
+	 * @param positions 0 based positions holding a value, in any order
+	 * @param values Values of the positions, null values are skipped
+	 * @param segmentNo Segment number
+	 * @throws Exception
+	 */
+	public static void createSegment(String dbName, String datasetName, int recordCount, int[] positions, double[] values, int segmentNo) throws Exception {
+		if (positions == null || values == null || positions.length != values.length)
+			throw new Exception("Null Data or data length does not match values length!");
+
+		long[] raw = new long[values.length];
+		for (int i = 0; i < values.length; i++)
+			raw[i] = FactCompressedSegment.toLong(values[i]);
+
+		FactSparseDataWriter.createSegment(dbName, datasetName, recordCount, positions, raw, CheckSum.FACT_ENCODE_TYPE_DOUBLE_SPARSE, segmentNo);
+	}
+
+	private static void createSegment(String dbName, String datasetName, int recordCount, int[] positions, long[] values, int encoding, int segmentNo) throws Exception {
+		if (dbName == null || dbName.trim().length() <= 0)
+			throw new Exception ("Invalid dbName!");
+
+		if (datasetName == null || datasetName.trim().length() <= 0)
+			throw new Exception ("Invalid datasetName!");
+
+		if (new File(datasetName).exists())
+			throw new Exception("File " + datasetName + " exists! Cannot create segment");
+
+		if (recordCount < 0 || recordCount > HASIDSConstants.DIM_MAX_RECORDS)
+			throw new Exception ("Record count must be >= 0 and <= " + HASIDSConstants.DIM_MAX_RECORDS);
+
+		if (segmentNo < 0)
+			throw new Exception ("Segment number must be >= 0");
+
+		long nullValue = FactCompressedSegment.getNullValue(CheckSum.getFactBaseEncoding(encoding));
+
+		// sort the positions with their values, dropping the null values
+		long[] keys = new long[positions.length];
+		int count = 0;
+		for (int i = 0; i < positions.length; i++) {
+			if (positions[i] < 0 || positions[i] >= recordCount)
+				throw new Exception ("Invalid position " + positions[i]);
+			if (values[i] != nullValue)
+				keys[count++] = ((long)positions[i] << 32) | i;
+		}
+		Arrays.sort(keys, 0, count);
+
+		int[] sortedPositions = new int[count];
+		long[] sortedValues = new long[count];
+		for (int i = 0; i < count; i++) {
+			sortedPositions[i] = (int)(keys[i] >>> 32);
+			sortedValues[i] = values[(int)keys[i]];
+			if (i > 0 && sortedPositions[i] == sortedPositions[i - 1])
+				throw new Exception ("Duplicate position " + sortedPositions[i]);
+		}
+
+		FactSparseDataWriter.writeSegment(dbName, datasetName, recordCount, sortedPositions, sortedValues, encoding, segmentNo);
+	}
+
+	/**
+	 * Creates a sparse copy of a fixed length INT, LONG, FLOAT or DOUBLE fact segment, only the
+	 * positions not holding the null value of the encoding are copied
+	 *
+	 * @param dbName Database name
+	 * @param sourceDatasetName Fixed length fact segment
+	 * @param targetDatasetName Sparse segment to be created
+	 * @return encoding of the sparse segment
+	 * @throws Exception
+	 */
+	public static int convert(String dbName, String sourceDatasetName, String targetDatasetName) throws Exception {
+		int[] fileType = new int[1];
+		int[] sourceEncoding = new int[1];
+		int[] segmentNo = new int[1];
+		int[] datasize = new int[1];
+		short[] decimals = new short[1];
+		int[] headerLength = new int[1];
+
+		CheckSum.validateFile(dbName, sourceDatasetName, fileType, sourceEncoding, datasize, decimals, segmentNo, headerLength);
+
+		if (fileType[0] != CheckSum.FILE_TYPE_FACT)
+			throw new Exception ("File " + sourceDatasetName + " is not a fact segment");
+
+		int encoding = CheckSum.getFactSparseEncoding(sourceEncoding[0]);
+		long nullValue = FactCompressedSegment.getNullValue(sourceEncoding[0]);
+
+		int recordCount = 0;
+		int count = 0;
+		int[] positions = null;
+		long[] values = null;
+
+		RandomAccessFile raf = new RandomAccessFile(sourceDatasetName, "r");
+		FileChannel fc = raf.getChannel();
+		try {
+			recordCount = (int)((fc.size() - headerLength[0])/datasize[0]);
+			ByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, headerLength[0], (long)recordCount * datasize[0]);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			// count the populated positions first to size the arrays
+			for (int pass = 0; pass < 2; pass++) {
+				count = 0;
+				for (int i = 0; i < recordCount; i++) {
+					long value;
+					if (sourceEncoding[0] == CheckSum.FACT_ENCODE_TYPE_INT)
+						value = buffer.getInt(i * 4);
+					else if (sourceEncoding[0] == CheckSum.FACT_ENCODE_TYPE_FLOAT)
+						value = buffer.getInt(i * 4) & 0xFFFFFFFFL;
+					else
+						value = buffer.getLong(i * 8);
+
+					if (value == nullValue)
+						continue;
+
+					if (pass == 1) {
+						positions[count] = i;
+						values[count] = value;
+					}
+					count++;
+				}
+
+				if (pass == 0) {
+					positions = new int[count];
+					values = new long[count];
+				}
+			}
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		if (new File(targetDatasetName).exists())
+			throw new Exception("File " + targetDatasetName + " exists! Cannot create segment");
+
+		FactSparseDataWriter.writeSegment(dbName, targetDatasetName, recordCount, positions, values, encoding, segmentNo[0]);
+
+		return encoding;
+	}
+
+	/**
+	 * Encodes the populated positions and values and replaces the segment file
+	 *
+	 * @throws Exception
+	 */
+	private static void writeSegment(String dbName, String datasetName, int recordCount, int[] positions, long[] values, int encoding, int segmentNo) throws Exception {
+		long beginTime = System.nanoTime();
+
+		int baseEncoding = CheckSum.getFactBaseEncoding(encoding);
+		int dataLength = (baseEncoding == CheckSum.FACT_ENCODE_TYPE_INT || baseEncoding == CheckSum.FACT_ENCODE_TYPE_FLOAT ?
+				CheckSum.INT_FLOAT_LEN : CheckSum.LONG_DOUBLE_LEN);
+
+		ByteBuffer body = FactSparseSegment.encode(positions, values, encoding);
+		long fileSize = (long)CheckSum.FILE_V2_HEADER_LENGTH + body.remaining();
+		long lastModifiedTime = System.currentTimeMillis();
+
+		ByteBuffer header = ByteBuffer.allocate(CheckSum.FILE_V2_HEADER_LENGTH);
+		CheckSum.writeHeaderV2(header, CheckSum.FILE_TYPE_FACT, encoding, segmentNo, dataLength, (short)0,
+				recordCount, dbName + "|" + datasetName, fileSize, lastModifiedTime);
+
+		File f = new File(datasetName);
+		File temp = new File(datasetName + ".tmp");
+
+		RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		FileChannel fc = raf.getChannel();
+		try {
+			raf.setLength(0);
+			while (header.hasRemaining())
+				fc.write(header, header.position());
+			while (body.hasRemaining())
+				fc.write(body, CheckSum.FILE_V2_HEADER_LENGTH + body.position());
+			fc.force(true);
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		if (f.exists() && !f.delete())
+			throw new Exception ("Unable to replace segment " + datasetName);
+
+		if (!temp.renameTo(f))
+			throw new Exception ("Unable to replace segment " + datasetName);
+
+		// set the last modified time
+		f.setLastModified(lastModifiedTime);
+		FactSparseSegment.invalidate(datasetName);
+
+		try {
+			DatasetCatalog.refresh(new DatasetSegment(dbName, datasetName, CheckSum.FILE_TYPE_FACT, encoding, segmentNo,
+					dataLength, (short)0, CheckSum.FILE_V2_HEADER_LENGTH, recordCount, f.lastModified()));
+		}
+		catch (Exception e) {
+			DatasetCatalog.remove(dbName, datasetName);
+		}
+
+		// checksum the data blocks of the new segment
+		BlockCheckSum.build(datasetName, CheckSum.FILE_V2_HEADER_LENGTH);
+
+		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((System.nanoTime() - beginTime), TimeUnit.NANOSECONDS);
+		System.out.println("Sparse segment " + datasetName + " written, records : " + recordCount + ", populated : " + positions.length +
+				", encoding : " + encoding + ", size : " + fileSize + " in " + elapsedTimeInMillis + " Milliseconds");
+	}
+
+	public String getDbName() {
+		return this._dbName;
+	}
+
+	public String getDatasetName() {
+		return this._datasetName;
+	}
+
+	public int getEncoding() {
+		return this._encoding;
+	}
+
+	public int getDataLength() {
+		return this._dataLength;
+	}
+
+	public int getSegmentNo() {
+		return this._segmentNo;
+	}
+
+	private void checkPositions(int[] position, int valuesLength, int encoding) throws Exception {
+		if (this._baseEncoding != encoding)
+			throw new Exception ("Mismatch between value type and encoding type");
+
+		if (position == null || position.length != valuesLength)
+			throw new Exception("Null Data or data length does not match values length!");
+
+		for (int i = 0; i < position.length; i++)
+			if (position[i] < 0 || position[i] >= HASIDSConstants.DIM_MAX_RECORDS)
+				throw new Exception ("Invalid position " + position[i]);
+	}
+
+	/**
+	 * Sets the values of positions of an INT segment. Integer.MIN_VALUE removes the value of a
+	 * position, positions beyond the current record count extend the segment.
+	 *
+	 * @param position 0 based positions
+	 * @param values Values
+	 * @throws Exception
+	 */
+	public void setWriteDataPositionBuffer(int[] position, int[] values) throws Exception {
+		this.checkPositions(position, (values == null ? -1 : values.length), CheckSum.FACT_ENCODE_TYPE_INT);
+
+		for (int i = 0; i < position.length; i++)
+			this._posValuesTable.put(position[i], (long)values[i]);
+	}
+
+	/**
+	 * Sets the values of positions of a LONG segment, Long.MIN_VALUE removes the value
+	 *
+	 * @param position 0 based positions
+	 * @param values Values
+	 * @throws Exception
+	 */
+	public void setWriteDataPositionBuffer(int[] position, long[] values) throws Exception {
+		this.checkPositions(position, (values == null ? -1 : values.length), CheckSum.FACT_ENCODE_TYPE_LONG);
+
+		for (int i = 0; i < position.length; i++)
+			this._posValuesTable.put(position[i], values[i]);
+	}
+
+	/**
+	 * Sets the values of positions of a FLOAT segment, Float.MIN_VALUE removes the value
+	 *
+	 * @param position 0 based positions
+	 * @param values Values
+	 * @throws Exception
+	 */
+	public void setWriteDataPositionBuffer(int[] position, float[] values) throws Exception {
+		this.checkPositions(position, (values == null ? -1 : values.length), CheckSum.FACT_ENCODE_TYPE_FLOAT);
+
+		for (int i = 0; i < position.length; i++)
+			this._posValuesTable.put(position[i], FactCompressedSegment.toLong(values[i]));
+	}
+
+	/**
+	 * Sets the values of positions of a DOUBLE segment, Double.MIN_VALUE removes the value
+	 *
+	 * @param position 0 based positions
+	 * @param values Values
+	 * @throws Exception
+	 */
+	public void setWriteDataPositionBuffer(int[] position, double[] values) throws Exception {
+		this.checkPositions(position, (values == null ? -1 : values.length), CheckSum.FACT_ENCODE_TYPE_DOUBLE);
+
+		for (int i = 0; i < position.length; i++)
+			this._posValuesTable.put(position[i], FactCompressedSegment.toLong(values[i]));
+	}
+
+	/**
+	 * Discards the changes of the session
+	 */
+	public void rollback() {
+		this._posValuesTable.clear();
+	}
+
+	/**
+	 * Applies the changes of the session to the latest committed positions and values and
+	 * replaces the segment file
+	 *
+	 * @return record count after the commit
+	 * @throws Exception
+	 */
+	public int commit() throws Exception {
+		Object monitor = null;
+		synchronized (COMMIT_TABLE) {
+			monitor = COMMIT_TABLE.get(this._datasetName);
+			if (monitor == null) {
+				monitor = new Object();
+				COMMIT_TABLE.put(this._datasetName, monitor);
+			}
+		}
+
+		synchronized (monitor) {
+			int[] fileType = new int[1];
+			int[] encoding = new int[1];
+			int[] segmentNo = new int[1];
+			int[] datasize = new int[1];
+			short[] decimals = new short[1];
+			int[] headerLength = new int[1];
+
+			CheckSum.validateFile(this._dbName, this._datasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
+
+			FactSparseSegment current = FactSparseSegment.getSegment(this._datasetName, headerLength[0], encoding[0], false);
+			int[] currentPositions = current.getPositions();
+			long[] currentValues = current.getValues();
+			long nullValue = FactCompressedSegment.getNullValue(this._baseEncoding);
+
+			// sort the changed positions and determine the new record count
+			int newRecordCount = current.getRecordCount();
+			int[] changed = new int[this._posValuesTable.size()];
+			int n = 0;
+			Enumeration<Integer> e = this._posValuesTable.keys();
+			while (e.hasMoreElements()) {
+				int key = e.nextElement();
+				changed[n++] = key;
+				if (key >= newRecordCount)
+					newRecordCount = key + 1;
+			}
+			Arrays.sort(changed);
+
+			// merge the committed positions with the changes, the changes win
+			int[] positions = new int[currentPositions.length + changed.length];
+			long[] values = new long[positions.length];
+			int count = 0, i = 0, j = 0;
+			while (i < currentPositions.length || j < changed.length) {
+				if (j >= changed.length || (i < currentPositions.length && currentPositions[i] < changed[j])) {
+					positions[count] = currentPositions[i];
+					values[count++] = currentValues[i++];
+					continue;
+				}
+
+				if (i < currentPositions.length && currentPositions[i] == changed[j])
+					i++;
+
+				long value = this._posValuesTable.get(changed[j]);
+				if (value != nullValue) {
+					positions[count] = changed[j];
+					values[count++] = value;
+				}
+				j++;
+			}
+
+			FactSparseDataWriter.writeSegment(this._dbName, this._datasetName, newRecordCount, Arrays.copyOf(positions, count),
+					Arrays.copyOf(values, count), encoding[0], segmentNo[0]);
+
+			this.rollback();
+			return newRecordCount;
+		}
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		String dbName = "Test";
+		String source = "c:\\users\\dpras\\tempdata\\testdata\\tollamount.FC";
+		String target = "c:\\users\\dpras\\tempdata\\testdata\\tollamount_sparse.FC";
+
+		try {
+			int encoding = FactSparseDataWriter.convert(dbName, source, target);
+			System.out.println("Converted " + source + " using encoding " + encoding);
+
+			FactSparseDataWriter w = new FactSparseDataWriter(dbName, target);
+			w.setWriteDataPositionBuffer(new int[] {0, 10}, new double[] {5.54, Double.MIN_VALUE});
+			System.out.println("Record count after commit : " + w.commit());
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,496 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * In memory form of a sparse fact segment (INT, LONG, FLOAT and DOUBLE). Facts populated for a
+ * small share of the records, such as tolls and surcharges, are stored as the positions that
+ * hold a value and the values of those positions; all the other positions are null. The file
+ * size, the scans, the aggregates and the value lookups are proportional to the number of
+ * populated positions instead of the record count.
+ *
+ * The data region following the version 2 header (LITTLE ENDIAN):
+ * position 0 - 3 = number of populated positions
+ * position 4 - 7 = length in bytes of the presence bitmap
+ * position 8 - 15 = long form of the minimum value
+ * position 16 - 23 = long form of the maximum value
+ * position 24 - 27 = flags, FLAG_NAN if a FLOAT or DOUBLE value is NaN
+ * position 28 - 31 = reserved
+ * position 32 onwards = presence bitmap, the 0 based populated positions as a Roaring bitmap in
+ * the portable format, padded to a multiple of 8 bytes, followed by the values of the populated
+ * positions in position order, 4 or 8 bytes each
+ *
+ * Values are handled as longs as in FactCompressedSegment, the minimum and maximum of FLOAT and
+ * DOUBLE segments are the bits of double values excluding NaN. Loaded segments are cached by
+ * file name and reloaded when the file changes.
+ */
+
+package com.hasids.io.fact;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Hashtable;
+
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
+import com.hasids.HASIDSConstants;
+import com.hasids.datastructures.BlockCheckSum;
+import com.hasids.datastructures.CheckSum;
+
+public class FactSparseSegment {
+
+	// length of the fixed part of the data region
+	public static final int REGION_HEADER_LENGTH = 32;
+
+	// flags
+	public static final int FLAG_NAN = 1;
+
+	private static Hashtable<String, SoftReference<FactSparseSegment>> CACHE = new Hashtable<String, SoftReference<FactSparseSegment>>();
+
+	private int _encoding;
+	private int _baseEncoding;
+	private int _recordCount;
+	private int[] _positions;
+	private long[] _values;
+	private long _minimum;
+	private long _maximum;
+	private boolean _nan;
+	private long _lastModified = 0L;
+	private long _fileLength = 0L;
+
+	private FactSparseSegment(int encoding, int recordCount) {
+		this._encoding = encoding;
+		this._baseEncoding = CheckSum.getFactBaseEncoding(encoding);
+		this._recordCount = recordCount;
+	}
+
+	public int getEncoding() {
+		return this._encoding;
+	}
+
+	public int getBaseEncoding() {
+		return this._baseEncoding;
+	}
+
+	public int getRecordCount() {
+		return this._recordCount;
+	}
+
+	/**
+	 * @return number of positions holding a value
+	 */
+	public int getPopulatedCount() {
+		return this._positions.length;
+	}
+
+	/**
+	 * @return 0 based populated positions in ascending order, not to be modified
+	 */
+	int[] getPositions() {
+		return this._positions;
+	}
+
+	/**
+	 * @return long form of the values of the populated positions, not to be modified
+	 */
+	long[] getValues() {
+		return this._values;
+	}
+
+	private boolean isFloatingPoint() {
+		return (this._baseEncoding == CheckSum.FACT_ENCODE_TYPE_FLOAT || this._baseEncoding == CheckSum.FACT_ENCODE_TYPE_DOUBLE);
+	}
+
+	private static int getValueLength(int baseEncoding) {
+		return (baseEncoding == CheckSum.FACT_ENCODE_TYPE_INT || baseEncoding == CheckSum.FACT_ENCODE_TYPE_FLOAT ?
+				CheckSum.INT_FLOAT_LEN : CheckSum.LONG_DOUBLE_LEN);
+	}
+
+	/**
+	 * Returns the sparse segment of a dataset file from the cache, loading it if it is not
+	 * cached or if the file has changed since it was cached.
+	 *
+	 * @param datasetName Dataset file name
+	 * @param headerLength Length of the file header
+	 * @param encoding Sparse fact encoding from the header
+	 * @param verifyChecksums Verify the block checksums while loading
+	 * @return sparse segment
+	 * @throws Exception
+	 */
+	public static FactSparseSegment getSegment(String datasetName, int headerLength, int encoding, boolean verifyChecksums) throws Exception {
+		File f = new File(datasetName);
+
+		SoftReference<FactSparseSegment> ref = CACHE.get(datasetName);
+		FactSparseSegment segment = (ref == null ? null : ref.get());
+		if (!verifyChecksums && segment != null && segment._lastModified == f.lastModified() && segment._fileLength == f.length())
+			return segment;
+
+		synchronized (CACHE) {
+			segment = FactSparseSegment.load(datasetName, headerLength, encoding, verifyChecksums);
+			CACHE.put(datasetName, new SoftReference<FactSparseSegment>(segment));
+		}
+
+		return segment;
+	}
+
+	/**
+	 * Removes a dataset file from the cache
+	 *
+	 * @param datasetName
+	 */
+	public static void invalidate(String datasetName) {
+		CACHE.remove(datasetName);
+	}
+
+	/**
+	 * Loads the data region of a sparse fact file
+	 *
+	 * @throws Exception
+	 */
+	private static FactSparseSegment load(String datasetName, int headerLength, int encoding, boolean verifyChecksums) throws Exception {
+		if (!CheckSum.isSparseEncoding(CheckSum.FILE_TYPE_FACT, encoding))
+			throw new Exception ("Encoding " + encoding + " is not a sparse fact encoding");
+
+		File f = new File(datasetName);
+		long recordCount = CheckSum.getRecordCount(datasetName, 1);
+		if (recordCount < 0 || recordCount > HASIDSConstants.DIM_MAX_RECORDS)
+			throw new Exception ("Invalid record count in " + datasetName);
+
+		FactSparseSegment segment = new FactSparseSegment(encoding, (int)recordCount);
+		segment._lastModified = f.lastModified();
+		segment._fileLength = f.length();
+
+		ByteBuffer body = null;
+		RandomAccessFile raf = new RandomAccessFile(datasetName, "r");
+		FileChannel fc = raf.getChannel();
+
+		try {
+			long bodyLength = fc.size() - headerLength;
+			if (bodyLength < REGION_HEADER_LENGTH || bodyLength > Integer.MAX_VALUE)
+				throw new Exception ("Invalid sparse data length in " + datasetName);
+
+			body = ByteBuffer.allocate((int)bodyLength).order(ByteOrder.LITTLE_ENDIAN);
+			while (body.hasRemaining())
+				if (fc.read(body, headerLength + body.position()) < 0)
+					throw new Exception ("Unexpected end of file in " + datasetName);
+			body.flip();
+
+			if (verifyChecksums)
+				BlockCheckSum.verify(datasetName, fc, headerLength, body, 0, bodyLength);
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		int count = body.getInt(0);
+		int presenceLength = body.getInt(4);
+		int valueLength = FactSparseSegment.getValueLength(segment._baseEncoding);
+		int valuesPosition = REGION_HEADER_LENGTH + ((presenceLength + 7) & ~7);
+
+		if (count < 0 || count > recordCount || presenceLength < 0 || presenceLength > body.capacity() - REGION_HEADER_LENGTH ||
+				(long)valuesPosition + (long)count * valueLength != body.capacity())
+			throw new Exception ("Invalid sparse layout in " + datasetName);
+
+		segment._minimum = body.getLong(8);
+		segment._maximum = body.getLong(16);
+		segment._nan = (body.getInt(24) & FLAG_NAN) != 0;
+
+		ByteBuffer presence = body.duplicate();
+		presence.position(REGION_HEADER_LENGTH);
+		presence.limit(REGION_HEADER_LENGTH + presenceLength);
+		segment._positions = new ImmutableRoaringBitmap(presence.slice()).toArray();
+
+		if (segment._positions.length != count || (count > 0 && segment._positions[count - 1] >= recordCount))
+			throw new Exception ("Invalid presence bitmap in " + datasetName);
+
+		segment._values = new long[count];
+		for (int i = 0; i < count; i++) {
+			if (segment._baseEncoding == CheckSum.FACT_ENCODE_TYPE_INT)
+				segment._values[i] = body.getInt(valuesPosition + i * 4);
+			else if (segment._baseEncoding == CheckSum.FACT_ENCODE_TYPE_FLOAT)
+				segment._values[i] = body.getInt(valuesPosition + i * 4) & 0xFFFFFFFFL;
+			else
+				segment._values[i] = body.getLong(valuesPosition + i * 8);
+		}
+
+		return segment;
+	}
+
+	/**
+	 * Encodes the data region of a sparse fact file
+	 *
+	 * @param positions 0 based populated positions in ascending order, without duplicates
+	 * @param values Long form of the not null values of the positions
+	 * @param encoding Sparse fact encoding
+	 * @return Data region positioned at 0
+	 * @throws Exception
+	 */
+	public static ByteBuffer encode(int[] positions, long[] values, int encoding) throws Exception {
+		if (!CheckSum.isSparseEncoding(CheckSum.FILE_TYPE_FACT, encoding))
+			throw new Exception ("Encoding " + encoding + " is not a sparse fact encoding");
+
+		if (positions.length != values.length)
+			throw new Exception ("Positions and values not of identical length!");
+
+		int baseEncoding = CheckSum.getFactBaseEncoding(encoding);
+		boolean floatingPoint = (baseEncoding == CheckSum.FACT_ENCODE_TYPE_FLOAT || baseEncoding == CheckSum.FACT_ENCODE_TYPE_DOUBLE);
+		int valueLength = FactSparseSegment.getValueLength(baseEncoding);
+
+		MutableRoaringBitmap presence = new MutableRoaringBitmap();
+		for (int i = 0; i < positions.length; i++) {
+			if (i > 0 && positions[i] <= positions[i - 1])
+				throw new Exception ("Positions must be in ascending order without duplicates");
+			presence.add(positions[i]);
+		}
+		presence.runOptimize();
+
+		// range of the values, excluding NaN for FLOAT and DOUBLE
+		long minLong = Long.MAX_VALUE, maxLong = Long.MIN_VALUE;
+		double minDouble = Double.NaN, maxDouble = Double.NaN;
+		int flags = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (!floatingPoint) {
+				if (values[i] < minLong)
+					minLong = values[i];
+				if (values[i] > maxLong)
+					maxLong = values[i];
+				continue;
+			}
+
+			double d = (baseEncoding == CheckSum.FACT_ENCODE_TYPE_FLOAT ? FactCompressedSegment.toFloat(values[i]) : FactCompressedSegment.toDouble(values[i]));
+			if (Double.isNaN(d))
+				flags |= FLAG_NAN;
+			else {
+				if (Double.isNaN(minDouble) || d < minDouble)
+					minDouble = d;
+				if (Double.isNaN(maxDouble) || d > maxDouble)
+					maxDouble = d;
+			}
+		}
+
+		if (floatingPoint) {
+			minLong = FactCompressedSegment.toLong(minDouble);
+			maxLong = FactCompressedSegment.toLong(maxDouble);
+		}
+
+		int presenceLength = presence.serializedSizeInBytes();
+		int valuesPosition = REGION_HEADER_LENGTH + ((presenceLength + 7) & ~7);
+		long bodyLength = (long)valuesPosition + (long)values.length * valueLength;
+		if (bodyLength > Integer.MAX_VALUE)
+			throw new Exception ("Sparse data region exceeds " + Integer.MAX_VALUE + " bytes");
+
+		ByteBuffer body = ByteBuffer.allocate((int)bodyLength).order(ByteOrder.LITTLE_ENDIAN);
+		body.putInt(0, values.length);
+		body.putInt(4, presenceLength);
+		body.putLong(8, minLong);
+		body.putLong(16, maxLong);
+		body.putInt(24, flags);
+
+		ByteBufferOutputStream out = new ByteBufferOutputStream(body, REGION_HEADER_LENGTH);
+		presence.serialize(new DataOutputStream(out));
+
+		for (int i = 0; i < values.length; i++) {
+			if (valueLength == CheckSum.INT_FLOAT_LEN)
+				body.putInt(valuesPosition + i * 4, (int)values[i]);
+			else
+				body.putLong(valuesPosition + i * 8, values[i]);
+		}
+
+		body.position(0);
+		return body;
+	}
+
+	/**
+	 * @param position 0 based position
+	 * @return index of the first populated position >= position
+	 */
+	private int lowerBound(int position) {
+		int i = Arrays.binarySearch(this._positions, position);
+		return (i < 0 ? -i - 1 : i);
+	}
+
+	private boolean accept(FactValueFilter filter, long value) {
+		if (this._baseEncoding == CheckSum.FACT_ENCODE_TYPE_FLOAT)
+			return filter.accept((double)FactCompressedSegment.toFloat(value));
+		else if (this._baseEncoding == CheckSum.FACT_ENCODE_TYPE_DOUBLE)
+			return filter.accept(FactCompressedSegment.toDouble(value));
+
+		return filter.accept(value);
+	}
+
+	/**
+	 * Sets the bits of the records between two positions whose values match the filter. The
+	 * bit set for a matching position p is p + bitOffset. Only the populated positions are
+	 * tested; the others are null and match only the filters accepting the null value of the
+	 * encoding, as in the fixed length encodings.
+	 *
+	 * @param filter Value predicate
+	 * @param fromPosition 0 based position, inclusive
+	 * @param toPosition 0 based position, exclusive
+	 * @param b BitSet receiving the matches
+	 * @param bitOffset Offset added to the positions
+	 * @throws Exception
+	 */
+	public void filter(FactValueFilter filter, int fromPosition, int toPosition, BitSet b, int bitOffset) throws Exception {
+		if (filter.isFloatingPoint() != this.isFloatingPoint())
+			throw new Exception ("Mismatch between filter type and encoding type");
+
+		if (toPosition > this._recordCount)
+			toPosition = this._recordCount;
+		if (fromPosition < 0)
+			fromPosition = 0;
+		if (fromPosition >= toPosition)
+			return;
+
+		int from = this.lowerBound(fromPosition);
+		int to = this.lowerBound(toPosition);
+
+		boolean nullAccepted = this.accept(filter, FactCompressedSegment.getNullValue(this._baseEncoding));
+
+		int match = FactValueFilter.MATCH_NONE;
+		if (to > from)
+			match = (this.isFloatingPoint() ? filter.matchBlock(FactCompressedSegment.toDouble(this._minimum), FactCompressedSegment.toDouble(this._maximum), this._nan) :
+				filter.matchBlock(this._minimum, this._maximum));
+
+		if (nullAccepted) {
+			// set the range and clear the populated positions not matching
+			b.set(fromPosition + bitOffset, toPosition + bitOffset);
+			if (match != FactValueFilter.MATCH_ALL)
+				for (int i = from; i < to; i++)
+					if (match == FactValueFilter.MATCH_NONE || !this.accept(filter, this._values[i]))
+						b.clear(this._positions[i] + bitOffset);
+		}
+		else if (match == FactValueFilter.MATCH_ALL) {
+			for (int i = from; i < to; i++)
+				b.set(this._positions[i] + bitOffset);
+		}
+		else if (match == FactValueFilter.MATCH_SOME) {
+			for (int i = from; i < to; i++)
+				if (this.accept(filter, this._values[i]))
+					b.set(this._positions[i] + bitOffset);
+		}
+	}
+
+	/**
+	 * Computes the count, sum, minimum and maximum of the values of the populated positions
+	 * between two positions, optionally restricted to the records whose bits are set.
+	 *
+	 * @param fromPosition 0 based position, inclusive
+	 * @param toPosition 0 based position, exclusive
+	 * @param b Records to aggregate, position p is selected by bit p + bitOffset; null for all
+	 * @param bitOffset Offset added to the positions
+	 * @return count, sum, minimum and maximum
+	 */
+	public double[] aggregate(int fromPosition, int toPosition, BitSet b, int bitOffset) {
+		double[] stats = new double[] {0.0, 0.0, Double.MAX_VALUE, -Double.MAX_VALUE};
+
+		if (toPosition > this._recordCount)
+			toPosition = this._recordCount;
+		if (fromPosition < 0)
+			fromPosition = 0;
+
+		int to = this.lowerBound(toPosition);
+		for (int i = this.lowerBound(fromPosition); i < to; i++) {
+			if (b != null && !b.get(this._positions[i] + bitOffset))
+				continue;
+
+			double d;
+			if (this._baseEncoding == CheckSum.FACT_ENCODE_TYPE_FLOAT)
+				d = FactCompressedSegment.toFloat(this._values[i]);
+			else if (this._baseEncoding == CheckSum.FACT_ENCODE_TYPE_DOUBLE)
+				d = FactCompressedSegment.toDouble(this._values[i]);
+			else
+				d = this._values[i];
+
+			++stats[0];
+			stats[1] += d;
+			if (d < stats[2])
+				stats[2] = d;
+			if (d > stats[3])
+				stats[3] = d;
+		}
+
+		return stats;
+	}
+
+	/**
+	 * Returns the values of positions, the null value of the encoding for the positions not
+	 * populated
+	 *
+	 * @param positions Positions
+	 * @param positionOffset Offset added to the positions to get the 0 based positions
+	 * @param values Array receiving the long form of the values
+	 * @throws Exception
+	 */
+	public void getValues(int[] positions, int positionOffset, long[] values) throws Exception {
+		long nullValue = FactCompressedSegment.getNullValue(this._baseEncoding);
+
+		for (int i = 0; i < positions.length; i++) {
+			int position = positions[i] + positionOffset;
+			if (position < 0 || position >= this._recordCount)
+				throw new Exception ("Position " + positions[i] + " out of range");
+
+			int j = Arrays.binarySearch(this._positions, position);
+			values[i] = (j >= 0 ? this._values[j] : nullValue);
+		}
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		String dbName = "Test";
+		String datasetName = "c:\\users\\dpras\\tempdata\\testdata\\tollamount_sparse.FC";
+
+		try {
+			int[] fileType = new int[1];
+			int[] encoding = new int[1];
+			int[] segmentNo = new int[1];
+			int[] datasize = new int[1];
+			short[] decimals = new short[1];
+			int[] headerLength = new int[1];
+
+			CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
+
+			FactSparseSegment segment = FactSparseSegment.getSegment(datasetName, headerLength[0], encoding[0], true);
+			double[] stats = segment.aggregate(0, segment.getRecordCount(), null, 0);
+
+			System.out.println("Records : " + segment.getRecordCount() + ", populated : " + segment.getPopulatedCount() +
+					", sum : " + stats[1]);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
+
+/**
+ * Output stream writing into a ByteBuffer from a position, used to serialize the presence
+ * bitmap in place
+ */
+class ByteBufferOutputStream extends java.io.OutputStream {
+
+	private ByteBuffer _buffer;
+	private int _position;
+
+	public ByteBufferOutputStream(ByteBuffer buffer, int position) {
+		this._buffer = buffer;
+		this._position = position;
+	}
+
+	public void write(int b) {
+		this._buffer.put(this._position++, (byte)b);
+	}
+}
@@ -0,0 +1,200 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Date arithmetic of the TIMESTAMP fact values, epoch milliseconds in UTC. The date parts are
+ * computed with integer arithmetic on the days since the epoch (proleptic Gregorian calendar),
+ * without Calendar or Date objects, so that they can be evaluated inside the scans for every
+ * value of a block. Long.MIN_VALUE is the null value and has no date parts.
+ */
+
+package com.hasids.io.fact;
+
+public final class FactTimestamp {
+
+	public static final long NULL_VALUE = Long.MIN_VALUE;
+
+	public static final long MILLIS_PER_SECOND = 1000L;
+	public static final long MILLIS_PER_MINUTE = 60L * MILLIS_PER_SECOND;
+	public static final long MILLIS_PER_HOUR = 60L * MILLIS_PER_MINUTE;
+	public static final long MILLIS_PER_DAY = 24L * MILLIS_PER_HOUR;
+
+	// date parts
+	public static final int PART_YEAR = 1;
+	public static final int PART_MONTH = 2; // 1 - 12
+	public static final int PART_DAY = 3; // day of the month, 1 - 31
+	public static final int PART_HOUR = 4; // 0 - 23
+	public static final int PART_DAY_OF_WEEK = 5; // 1 (Monday) - 7 (Sunday)
+
+	private FactTimestamp() {
+	}
+
+	/**
+	 * @param part Date part
+	 * @throws Exception if the part is not one of the PART constants
+	 */
+	public static void checkPart(int part) throws Exception {
+		if (part < PART_YEAR || part > PART_DAY_OF_WEEK)
+			throw new Exception ("Invalid date part " + part + ", must be >= " + PART_YEAR + " and <= " + PART_DAY_OF_WEEK);
+	}
+
+	/**
+	 * @param millis Epoch milliseconds
+	 * @return days since 1970-01-01
+	 */
+	public static long getEpochDay(long millis) {
+		return Math.floorDiv(millis, MILLIS_PER_DAY);
+	}
+
+	/**
+	 * Converts days since the epoch to the year, month and day
+	 *
+	 * @param epochDay Days since 1970-01-01
+	 * @return year * 10000 + month * 100 + day
+	 */
+	private static long toCivil(long epochDay) {
+		long z = epochDay + 719468;
+		long era = Math.floorDiv(z, 146097);
+		long doe = z - era * 146097;
+		long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		long mp = (5 * doy + 2) / 153;
+		long day = doy - (153 * mp + 2) / 5 + 1;
+		long month = (mp < 10 ? mp + 3 : mp - 9);
+		long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+		return year * 10000 + month * 100 + day;
+	}
+
+	/**
+	 * Converts a date to days since the epoch
+	 *
+	 * @return days since 1970-01-01
+	 */
+	private static long toEpochDay(long year, long month, long day) {
+		year -= (month <= 2 ? 1 : 0);
+		long era = Math.floorDiv(year, 400);
+		long yoe = year - era * 400;
+		long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+
+		return era * 146097 + doe - 719468;
+	}
+
+	/**
+	 * Returns a date part of a timestamp
+	 *
+	 * @param millis Epoch milliseconds, not null
+	 * @param part Date part
+	 * @return value of the date part
+	 */
+	public static int getPart(long millis, int part) {
+		switch (part) {
+		case PART_HOUR:
+			return (int)Math.floorMod(millis, MILLIS_PER_DAY) / (int)MILLIS_PER_HOUR;
+		case PART_DAY_OF_WEEK:
+			// 1970-01-01 is a Thursday
+			return Math.floorMod(FactTimestamp.getEpochDay(millis) + 3, 7) + 1;
+		default:
+			long civil = FactTimestamp.toCivil(FactTimestamp.getEpochDay(millis));
+			if (part == PART_YEAR)
+				return (int)Math.floorDiv(civil, 10000);
+			else if (part == PART_MONTH)
+				return Math.floorMod(civil, 10000) / 100;
+			else
+				return Math.floorMod(civil, 100);
+		}
+	}
+
+	/**
+	 * Returns the number of the calendar unit of a date part containing a timestamp; the year
+	 * for PART_YEAR, the month since year 0 for PART_MONTH, the day since the epoch for PART_DAY
+	 * and PART_DAY_OF_WEEK and the hour since the epoch for PART_HOUR. Two timestamps have the
+	 * same date part if they are in the same unit, and all the timestamps between two timestamps
+	 * of the same unit are in that unit.
+	 *
+	 * @param millis Epoch milliseconds, not null
+	 * @param part Date part
+	 * @return unit number
+	 */
+	public static long getUnit(long millis, int part) {
+		switch (part) {
+		case PART_HOUR:
+			return Math.floorDiv(millis, MILLIS_PER_HOUR);
+		case PART_DAY:
+		case PART_DAY_OF_WEEK:
+			return FactTimestamp.getEpochDay(millis);
+		default:
+			long civil = FactTimestamp.toCivil(FactTimestamp.getEpochDay(millis));
+			if (part == PART_YEAR)
+				return Math.floorDiv(civil, 10000);
+			return Math.floorDiv(civil, 10000) * 12 + Math.floorMod(civil, 10000) / 100 - 1;
+		}
+	}
+
+	/**
+	 * Converts a date and time in UTC to epoch milliseconds
+	 *
+	 * @param year Year
+	 * @param month Month 1 - 12
+	 * @param day Day of the month
+	 * @param hour Hour 0 - 23
+	 * @param minute Minute 0 - 59
+	 * @param second Second 0 - 59
+	 * @return epoch milliseconds
+	 * @throws Exception if the date or time is invalid
+	 */
+	public static long toMillis(int year, int month, int day, int hour, int minute, int second) throws Exception {
+		if (month < 1 || month > 12)
+			throw new Exception ("Month must be >= 1 and <= 12");
+
+		if (day < 1 || day > FactTimestamp.getDaysInMonth(year, month))
+			throw new Exception ("Invalid day " + day + " for " + year + "-" + month);
+
+		if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59)
+			throw new Exception ("Invalid time " + hour + ":" + minute + ":" + second);
+
+		return FactTimestamp.toEpochDay(year, month, day) * MILLIS_PER_DAY + hour * MILLIS_PER_HOUR +
+				minute * MILLIS_PER_MINUTE + second * MILLIS_PER_SECOND;
+	}
+
+	/**
+	 * @return number of days of a month
+	 */
+	public static int getDaysInMonth(int year, int month) {
+		if (month == 2)
+			return ((year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28);
+
+		return (month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31);
+	}
+
+	/**
+	 * Returns the beginning of the bucket containing a timestamp, buckets are aligned on the
+	 * epoch
+	 *
+	 * @param millis Epoch milliseconds
+	 * @param bucketMillis Width of the buckets, MILLIS_PER_HOUR for hourly buckets
+	 * @return epoch milliseconds of the beginning of the bucket
+	 */
+	public static long truncate(long millis, long bucketMillis) {
+		return Math.floorDiv(millis, bucketMillis) * bucketMillis;
+	}
+
+	/**
+	 * @param millis Epoch milliseconds
+	 * @return yyyy-MM-dd HH:mm:ss.SSS in UTC, NULL for the null value
+	 */
+	public static String toString(long millis) {
+		if (millis == NULL_VALUE)
+			return "NULL";
+
+		long civil = FactTimestamp.toCivil(FactTimestamp.getEpochDay(millis));
+		long time = Math.floorMod(millis, MILLIS_PER_DAY);
+
+		return String.format("%04d-%02d-%02d %02d:%02d:%02d.%03d", Math.floorDiv(civil, 10000), Math.floorMod(civil, 10000) / 100,
+				Math.floorMod(civil, 100), time / MILLIS_PER_HOUR, (time % MILLIS_PER_HOUR) / MILLIS_PER_MINUTE,
+				(time % MILLIS_PER_MINUTE) / MILLIS_PER_SECOND, time % MILLIS_PER_SECOND);
+	}
+}
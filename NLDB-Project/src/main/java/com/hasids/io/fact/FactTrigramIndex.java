@@ -0,0 +1,745 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Optional trigram inverted index of an ALPHAN fact segment, kept in a file next to the
+ * segment named <segment file>.tri. For every sequence of three consecutive UTF-8 bytes found
+ * in the values, the index holds a Roaring posting list of the 0 based positions whose value
+ * contains it. The posting lists are serialized in the portable Roaring format and read as
+ * ImmutableRoaringBitmap directly from the mapped file.
+ *
+ * A value of 3 bytes or more containing a pattern contains every trigram of the pattern, so
+ * the candidates of a CONTAINS, PREFIX or IN filter are the intersection of the posting lists
+ * of the trigrams of the filter value; only the candidates are then verified against the
+ * segment. Postings are only ever added when the segment is updated, a position whose value
+ * changed may remain in the lists of its old trigrams until the next build, which the
+ * verification filters out.
+ *
+ * Index file (BIG ENDIAN):
+ * position 0 - 3 = magic
+ * position 4 - 7 = number of trigrams
+ * position 8 - 11 = record count of the segment when last maintained
+ * position 12 - 15 = slot length of the segment
+ * position 16 - 23 = last modified time of the segment when last maintained
+ * position 24 - 27 = CRC32C of the directory
+ * position 28 - 31 = reserved
+ * position 32 onwards = directory of 16 bytes per trigram in ascending order (int trigram,
+ * int length, long offset of the posting list), followed by the posting lists
+ *
+ * The index is used by the reader only if the segment has not changed since it was last
+ * maintained.
+ *
+ * Commits do not rewrite the index file. The trigrams of the values written by a commit are
+ * appended as a record to a delta file next to the index (<segment file>.tri.delta) and synced;
+ * readers add the postings of the delta to the posting lists of the index file. The index file
+ * is rewritten with the delta and the delta removed on build, or on a commit once the delta
+ * outgrows half of the index file.
+ *
+ * Delta record (BIG ENDIAN):
+ * position 0 - 3 = magic
+ * position 4 - 7 = number of postings
+ * position 8 - 11 = record count of the segment after the commit
+ * position 12 - 19 = last modified time of the segment after the commit
+ * position 20 onwards = 8 bytes per posting (int trigram, int position), followed by the
+ * CRC32C of the record; a torn record ends the delta and is overwritten by the next commit
+ */
+
+package com.hasids.io.fact;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
+import com.hasids.HASIDSConstants;
+import com.hasids.datastructures.CheckSum;
+
+public class FactTrigramIndex {
+
+	public static final String INDEX_EXTENSION = ".tri";
+	public static final int INDEX_MAGIC = 0x48535449; // HSTI
+	public static final int INDEX_HEADER_LENGTH = 32;
+	public static final int INDEX_ENTRY_LENGTH = 16;
+	public static final String DELTA_SUFFIX = ".delta";
+	public static final int DELTA_MAGIC = 0x48535444; // HSTD
+	public static final int DELTA_HEADER_LENGTH = 20;
+	public static final int DELTA_ENTRY_LENGTH = 8;
+	public static final long MIN_DELTA_MERGE_LENGTH = 1 << 20;
+
+	private static Hashtable<String, SoftReference<FactTrigramIndex>> CACHE = new Hashtable<String, SoftReference<FactTrigramIndex>>();
+
+	// one monitor per index file to serialize maintenance
+	private static Hashtable<String, Object> UPDATE_TABLE = new Hashtable<String, Object>();
+
+	private MappedByteBuffer _buffer;
+	private int[] _trigrams;
+	private int _recordCount;
+	private int _slotLength;
+	private long _segmentLastModified;
+	private long _lastModified;
+	private long _fileLength;
+
+	// postings appended by the commits since the index file was written
+	private Hashtable<Integer, MutableRoaringBitmap> _delta;
+	private long _deltaLength;
+	private long _deltaFileLength;
+
+	private FactTrigramIndex() {
+	}
+
+	/**
+	 * @param datasetName Segment file name
+	 * @return name of the index file of the segment
+	 */
+	public static String getIndexName(String datasetName) {
+		return datasetName + INDEX_EXTENSION;
+	}
+
+	/**
+	 * @param datasetName Segment file name
+	 * @return name of the delta file of the index of the segment
+	 */
+	public static String getDeltaName(String datasetName) {
+		return FactTrigramIndex.getIndexName(datasetName) + DELTA_SUFFIX;
+	}
+
+	public static boolean exists(String datasetName) {
+		return new File(FactTrigramIndex.getIndexName(datasetName)).exists();
+	}
+
+	/**
+	 * Deletes the index file of a segment
+	 *
+	 * @param datasetName Segment file name
+	 */
+	public static void delete(String datasetName) {
+		CACHE.remove(FactTrigramIndex.getIndexName(datasetName));
+		new File(FactTrigramIndex.getIndexName(datasetName)).delete();
+		new File(FactTrigramIndex.getDeltaName(datasetName)).delete();
+	}
+
+	/**
+	 * Packs three bytes into a trigram key
+	 */
+	public static int getTrigram(byte b1, byte b2, byte b3) {
+		return ((b1 & 0xFF) << 16) | ((b2 & 0xFF) << 8) | (b3 & 0xFF);
+	}
+
+	/**
+	 * Returns the index of a segment from the cache, loading it if it is not cached or if the
+	 * index file has changed since it was cached.
+	 *
+	 * @param datasetName Segment file name
+	 * @return index, null if the segment has no index
+	 * @throws Exception
+	 */
+	public static FactTrigramIndex getIndex(String datasetName) throws Exception {
+		String indexName = FactTrigramIndex.getIndexName(datasetName);
+		File f = new File(indexName);
+		if (!f.exists())
+			return null;
+
+		SoftReference<FactTrigramIndex> ref = CACHE.get(indexName);
+		FactTrigramIndex index = (ref == null ? null : ref.get());
+		if (index != null && index._lastModified == f.lastModified() && index._fileLength == f.length() &&
+				index._deltaFileLength == new File(indexName + DELTA_SUFFIX).length())
+			return index;
+
+		synchronized (CACHE) {
+			index = FactTrigramIndex.load(indexName);
+			CACHE.put(indexName, new SoftReference<FactTrigramIndex>(index));
+		}
+
+		return index;
+	}
+
+	private static FactTrigramIndex load(String indexName) throws Exception {
+		File f = new File(indexName);
+		FactTrigramIndex index = new FactTrigramIndex();
+		index._lastModified = f.lastModified();
+
+		RandomAccessFile raf = new RandomAccessFile(indexName, "r");
+		FileChannel fc = raf.getChannel();
+		try {
+			if (fc.size() < INDEX_HEADER_LENGTH || fc.size() > Integer.MAX_VALUE)
+				throw new Exception ("Invalid index length in " + indexName);
+
+			// the mapping remains valid after the channel is closed
+			index._buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+			index._fileLength = fc.size();
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		ByteBuffer buffer = index._buffer;
+		if (buffer.getInt(0) != INDEX_MAGIC)
+			throw new Exception ("Invalid index " + indexName);
+
+		int trigramCount = buffer.getInt(4);
+		index._recordCount = buffer.getInt(8);
+		index._slotLength = buffer.getInt(12);
+		index._segmentLastModified = buffer.getLong(16);
+
+		if (trigramCount < 0 || INDEX_HEADER_LENGTH + (long)trigramCount * INDEX_ENTRY_LENGTH > buffer.capacity())
+			throw new Exception ("Invalid index " + indexName);
+
+		byte[] directory = new byte[trigramCount * INDEX_ENTRY_LENGTH];
+		ByteBuffer d = buffer.duplicate();
+		d.position(INDEX_HEADER_LENGTH);
+		d.get(directory);
+
+		CRC32C crc = new CRC32C();
+		crc.update(directory, 0, directory.length);
+		if ((int)crc.getValue() != buffer.getInt(24))
+			throw new Exception ("Index checksum error in " + indexName);
+
+		index._trigrams = new int[trigramCount];
+		for (int i = 0; i < trigramCount; i++)
+			index._trigrams[i] = buffer.getInt(INDEX_HEADER_LENGTH + i * INDEX_ENTRY_LENGTH);
+
+		FactTrigramIndex.loadDelta(index, indexName + DELTA_SUFFIX);
+
+		return index;
+	}
+
+	/**
+	 * Reads the records of the delta file up to the first torn record. The segment state of the
+	 * last record replaces the one of the index file unless the index file is newer.
+	 */
+	private static void loadDelta(FactTrigramIndex index, String deltaName) throws Exception {
+		index._delta = new Hashtable<Integer, MutableRoaringBitmap>();
+		index._deltaLength = 0;
+		index._deltaFileLength = 0;
+
+		File f = new File(deltaName);
+		if (!f.exists())
+			return;
+
+		byte[] bytes = null;
+		RandomAccessFile raf = new RandomAccessFile(deltaName, "r");
+		try {
+			if (raf.length() > Integer.MAX_VALUE)
+				throw new Exception ("Invalid delta length in " + deltaName);
+
+			bytes = new byte[(int)raf.length()];
+			raf.readFully(bytes);
+		}
+		finally {
+			raf.close();
+		}
+		index._deltaFileLength = bytes.length;
+
+		ByteBuffer b = ByteBuffer.wrap(bytes);
+		CRC32C crc = new CRC32C();
+		int offset = 0;
+		while (offset + DELTA_HEADER_LENGTH + 4 <= bytes.length && b.getInt(offset) == DELTA_MAGIC) {
+			int count = b.getInt(offset + 4);
+			if (count < 0 || offset + DELTA_HEADER_LENGTH + (long)count * DELTA_ENTRY_LENGTH + 4 > bytes.length)
+				break;
+
+			int end = offset + DELTA_HEADER_LENGTH + count * DELTA_ENTRY_LENGTH;
+			crc.reset();
+			crc.update(bytes, offset, end - offset);
+			if ((int)crc.getValue() != b.getInt(end))
+				break;
+
+			for (int i = offset + DELTA_HEADER_LENGTH; i < end; i += DELTA_ENTRY_LENGTH) {
+				int trigram = b.getInt(i);
+				MutableRoaringBitmap p = index._delta.get(trigram);
+				if (p == null) {
+					p = new MutableRoaringBitmap();
+					index._delta.put(trigram, p);
+				}
+				p.add(b.getInt(i + 4));
+			}
+
+			long segmentLastModified = b.getLong(offset + 12);
+			if (segmentLastModified >= index._segmentLastModified) {
+				index._recordCount = b.getInt(offset + 8);
+				index._segmentLastModified = segmentLastModified;
+			}
+
+			offset = end + 4;
+		}
+
+		index._deltaLength = offset;
+	}
+
+	public int getRecordCount() {
+		return this._recordCount;
+	}
+
+	public int getSlotLength() {
+		return this._slotLength;
+	}
+
+	public int getTrigramCount() {
+		int count = this._trigrams.length;
+		Enumeration<Integer> e = this._delta.keys();
+		while (e.hasMoreElements())
+			if (Arrays.binarySearch(this._trigrams, e.nextElement()) < 0)
+				count++;
+
+		return count;
+	}
+
+	/**
+	 * @param segmentLastModified Last modified time of the segment file
+	 * @param recordCount Record count of the segment
+	 * @return true if the index reflects the current content of the segment
+	 */
+	public boolean isCurrent(long segmentLastModified, int recordCount) {
+		return this._segmentLastModified == segmentLastModified && this._recordCount == recordCount;
+	}
+
+	/**
+	 * @param trigram
+	 * @return posting list of the trigram, null if no value contains the trigram
+	 */
+	public ImmutableRoaringBitmap getPostings(int trigram) {
+		ImmutableRoaringBitmap postings = null;
+		int i = Arrays.binarySearch(this._trigrams, trigram);
+		if (i >= 0) {
+			int entry = INDEX_HEADER_LENGTH + i * INDEX_ENTRY_LENGTH;
+			int length = this._buffer.getInt(entry + 4);
+			int offset = (int)this._buffer.getLong(entry + 8);
+
+			ByteBuffer b = this._buffer.duplicate();
+			b.position(offset);
+			b.limit(offset + length);
+			postings = new ImmutableRoaringBitmap(b.slice());
+		}
+
+		// postings of the commits since the index file was written
+		MutableRoaringBitmap delta = this._delta.get(trigram);
+		if (delta == null)
+			return postings;
+		if (postings == null)
+			return delta;
+
+		return ImmutableRoaringBitmap.or(postings, delta);
+	}
+
+	/**
+	 * Returns the positions whose value may contain the key, the intersection of the posting
+	 * lists of the trigrams of the key
+	 *
+	 * @param key UTF-8 bytes, at least 3 bytes long
+	 * @return candidate positions, empty if a trigram of the key is not in the index
+	 * @throws Exception
+	 */
+	public MutableRoaringBitmap getCandidates(byte[] key) throws Exception {
+		if (key == null || key.length < 3)
+			throw new Exception ("Trigram index lookups require at least 3 bytes");
+
+		// the distinct trigrams of the key, shortest posting lists first
+		int[] trigrams = new int[key.length - 2];
+		for (int i = 0; i < trigrams.length; i++)
+			trigrams[i] = FactTrigramIndex.getTrigram(key[i], key[i + 1], key[i + 2]);
+		Arrays.sort(trigrams);
+
+		ImmutableRoaringBitmap[] postings = new ImmutableRoaringBitmap[trigrams.length];
+		int count = 0;
+		for (int i = 0; i < trigrams.length; i++) {
+			if (i > 0 && trigrams[i] == trigrams[i - 1])
+				continue;
+
+			ImmutableRoaringBitmap p = this.getPostings(trigrams[i]);
+			if (p == null)
+				return new MutableRoaringBitmap();
+			postings[count++] = p;
+		}
+
+		postings = Arrays.copyOf(postings, count);
+		Arrays.sort(postings, (p1, p2) -> Integer.compare(p1.getCardinality(), p2.getCardinality()));
+
+		MutableRoaringBitmap candidates = postings[0].toMutableRoaringBitmap();
+		for (int i = 1; i < count && !candidates.isEmpty(); i++)
+			candidates.and(postings[i]);
+
+		return candidates;
+	}
+
+	/**
+	 * Adds the trigrams of the value of a slot to the posting lists
+	 *
+	 * @param buffer Mapped ALPHAN data
+	 * @param slot Position of the length byte of the slot in the buffer
+	 * @param slotLength Length of the slots
+	 * @param position 0 based position of the record in the segment
+	 * @param postings Posting lists by trigram
+	 */
+	static void addSlot(ByteBuffer buffer, int slot, int slotLength, int position, Hashtable<Integer, MutableRoaringBitmap> postings) {
+		int length = buffer.get(slot) & 0xFF;
+		if (length >= slotLength)
+			length = slotLength - 1;
+
+		for (int i = 0; i + 2 < length; i++) {
+			int trigram = FactTrigramIndex.getTrigram(buffer.get(slot + 1 + i), buffer.get(slot + 2 + i), buffer.get(slot + 3 + i));
+			MutableRoaringBitmap p = postings.get(trigram);
+			if (p == null) {
+				p = new MutableRoaringBitmap();
+				postings.put(trigram, p);
+			}
+			p.add(position);
+		}
+	}
+
+	/**
+	 * Builds the index of an ALPHAN segment, replacing the existing one. The positions are
+	 * split in ranges indexed in parallel, whose posting lists are merged at the end.
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @param noThreads Number of threads building the index
+	 * @return number of trigrams
+	 * @throws Exception
+	 */
+	public static int build(String dbName, String datasetName, int noThreads) throws Exception {
+		if (noThreads <= 0)
+			throw new Exception ("Number of threads must be > 0");
+
+		long beginTime = System.nanoTime();
+
+		int[] fileType = new int[1];
+		int[] encoding = new int[1];
+		int[] segmentNo = new int[1];
+		int[] datasize = new int[1];
+		short[] decimals = new short[1];
+		int[] headerLength = new int[1];
+
+		CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
+
+		if (fileType[0] != CheckSum.FILE_TYPE_FACT || encoding[0] != CheckSum.FACT_ENCODE_TYPE_ALPHAN)
+			throw new Exception ("File " + datasetName + " is not an ALPHAN fact segment");
+
+		Hashtable<Integer, MutableRoaringBitmap> postings = new Hashtable<Integer, MutableRoaringBitmap>();
+		long segmentLastModified = new File(datasetName).lastModified();
+		int recordCount = 0;
+
+		Object monitor = FactTrigramIndex.getMonitor(datasetName);
+		synchronized (monitor) {
+			RandomAccessFile raf = new RandomAccessFile(datasetName, "r");
+			FileChannel fc = raf.getChannel();
+			try {
+				recordCount = (int)((fc.size() - headerLength[0])/datasize[0]);
+				MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, headerLength[0], (long)recordCount * datasize[0]);
+
+				int recordsPerThread = (recordCount + noThreads - 1) / noThreads;
+				FactTrigramBuildThread[] threads = new FactTrigramBuildThread[noThreads];
+
+				ThreadGroup tg = new ThreadGroup("FactTrigramBuild");
+				for (int i = 0; i < noThreads; i++) {
+					int low = Math.min(recordCount, i * recordsPerThread);
+					int high = Math.min(recordCount, low + recordsPerThread);
+
+					threads[i] = new FactTrigramBuildThread(buffer.duplicate(), datasize[0], low, high);
+					Thread t = new Thread(tg, threads[i], "FactTrigramBuild-" + i);
+					t.start();
+				}
+
+				while (tg.activeCount() > 0)
+					Thread.sleep(1);
+
+				for (int i = 0; i < noThreads; i++) {
+					if (threads[i].getStatus() != HASIDSConstants.THREAD_COMPLETE)
+						throw new Exception ("Trigram index build of positions from " + threads[i].getFromPosition() + " failed");
+
+					FactTrigramIndex.merge(postings, threads[i].getPostings());
+				}
+			}
+			finally {
+				fc.close();
+				raf.close();
+			}
+
+			FactTrigramIndex.write(datasetName, postings, recordCount, datasize[0], segmentLastModified);
+		}
+
+		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((System.nanoTime() - beginTime), TimeUnit.NANOSECONDS);
+		System.out.println("Trigram index of " + datasetName + " built, records : " + recordCount + ", trigrams : " +
+				postings.size() + " in " + elapsedTimeInMillis + " Milliseconds");
+
+		return postings.size();
+	}
+
+	/**
+	 * Adds the trigrams of the values of updated positions to the index of a segment. Called
+	 * by the writers on commit while the written range is still mapped. The postings are appended
+	 * to the delta of the index, the index file is rewritten only once the delta outgrows half
+	 * of it.
+	 *
+	 * @param datasetName Segment file name
+	 * @param buffer Mapped range of the segment, LITTLE or BIG ENDIAN
+	 * @param lowRange 0 based position of the first slot of the buffer
+	 * @param slotLength Length of the slots
+	 * @param positions 0 based positions updated
+	 * @param recordCount Record count of the segment after the commit
+	 * @param segmentLastModified Last modified time of the segment after the commit
+	 * @throws Exception
+	 */
+	public static void update(String datasetName, ByteBuffer buffer, int lowRange, int slotLength, int[] positions,
+			int recordCount, long segmentLastModified) throws Exception {
+
+		Object monitor = FactTrigramIndex.getMonitor(datasetName);
+		synchronized (monitor) {
+			FactTrigramIndex index = FactTrigramIndex.getIndex(datasetName);
+			if (index == null)
+				return;
+
+			if (index._slotLength != slotLength)
+				throw new Exception ("Slot length of the index of " + datasetName + " does not match the segment");
+
+			// the posting lists of the trigrams of the new values
+			Hashtable<Integer, MutableRoaringBitmap> added = new Hashtable<Integer, MutableRoaringBitmap>();
+			for (int i = 0; i < positions.length; i++)
+				FactTrigramIndex.addSlot(buffer, (positions[i] - lowRange) * slotLength, slotLength, positions[i], added);
+
+			long postingCount = 0;
+			Enumeration<Integer> e = added.keys();
+			while (e.hasMoreElements())
+				postingCount += added.get(e.nextElement()).getCardinality();
+
+			long deltaLength = index._deltaLength + DELTA_HEADER_LENGTH + (postingCount * DELTA_ENTRY_LENGTH) + 4;
+			if (deltaLength <= Math.max(MIN_DELTA_MERGE_LENGTH, index._fileLength / 2)) {
+				FactTrigramIndex.append(datasetName, index._deltaLength, added, postingCount, recordCount, segmentLastModified);
+				return;
+			}
+
+			// the posting lists of the cached index are copied, readers may still hold it
+			Hashtable<Integer, MutableRoaringBitmap> postings = new Hashtable<Integer, MutableRoaringBitmap>();
+			for (int i = 0; i < index._trigrams.length; i++)
+				postings.put(index._trigrams[i], index.getPostings(index._trigrams[i]).toMutableRoaringBitmap());
+			e = index._delta.keys();
+			while (e.hasMoreElements()) {
+				int trigram = e.nextElement();
+				if (!postings.containsKey(trigram))
+					postings.put(trigram, index._delta.get(trigram).clone());
+			}
+
+			FactTrigramIndex.merge(postings, added);
+			FactTrigramIndex.write(datasetName, postings, recordCount, slotLength, segmentLastModified);
+		}
+	}
+
+	/**
+	 * Appends the postings of a commit as a record of the delta of the index and syncs the delta.
+	 * A torn record left by a failure after the last valid record is overwritten.
+	 */
+	private static void append(String datasetName, long validLength, Hashtable<Integer, MutableRoaringBitmap> added,
+			long postingCount, int recordCount, long segmentLastModified) throws Exception {
+
+		ByteBuffer record = ByteBuffer.allocate(DELTA_HEADER_LENGTH + (int)postingCount * DELTA_ENTRY_LENGTH + 4);
+		record.putInt(DELTA_MAGIC);
+		record.putInt((int)postingCount);
+		record.putInt(recordCount);
+		record.putLong(segmentLastModified);
+
+		Enumeration<Integer> e = added.keys();
+		while (e.hasMoreElements()) {
+			int trigram = e.nextElement();
+			IntIterator positions = added.get(trigram).getIntIterator();
+			while (positions.hasNext()) {
+				record.putInt(trigram);
+				record.putInt(positions.next());
+			}
+		}
+
+		CRC32C crc = new CRC32C();
+		crc.update(record.array(), 0, record.position());
+		record.putInt((int)crc.getValue());
+		record.flip();
+
+		RandomAccessFile raf = new RandomAccessFile(FactTrigramIndex.getDeltaName(datasetName), "rw");
+		try {
+			FileChannel fc = raf.getChannel();
+			fc.truncate(validLength);
+			while (record.hasRemaining())
+				fc.write(record, validLength + record.position());
+			fc.force(false);
+		}
+		finally {
+			raf.close();
+		}
+
+		CACHE.remove(FactTrigramIndex.getIndexName(datasetName));
+	}
+
+	private static Object getMonitor(String datasetName) {
+		synchronized (UPDATE_TABLE) {
+			Object monitor = UPDATE_TABLE.get(datasetName);
+			if (monitor == null) {
+				monitor = new Object();
+				UPDATE_TABLE.put(datasetName, monitor);
+			}
+			return monitor;
+		}
+	}
+
+	private static void merge(Hashtable<Integer, MutableRoaringBitmap> target, Hashtable<Integer, MutableRoaringBitmap> source) {
+		Enumeration<Integer> e = source.keys();
+		while (e.hasMoreElements()) {
+			int trigram = e.nextElement();
+			MutableRoaringBitmap p = target.get(trigram);
+			if (p == null)
+				target.put(trigram, source.get(trigram));
+			else
+				p.or(source.get(trigram));
+		}
+	}
+
+	/**
+	 * Writes the index file, replacing the existing one
+	 */
+	private static void write(String datasetName, Hashtable<Integer, MutableRoaringBitmap> postings, int recordCount,
+			int slotLength, long segmentLastModified) throws Exception {
+
+		int[] trigrams = new int[postings.size()];
+		int count = 0;
+		Enumeration<Integer> e = postings.keys();
+		while (e.hasMoreElements())
+			trigrams[count++] = e.nextElement();
+		Arrays.sort(trigrams);
+
+		MutableRoaringBitmap[] lists = new MutableRoaringBitmap[trigrams.length];
+		ByteBuffer directory = ByteBuffer.allocate(trigrams.length * INDEX_ENTRY_LENGTH);
+		long offset = INDEX_HEADER_LENGTH + (long)directory.capacity();
+		for (int i = 0; i < trigrams.length; i++) {
+			lists[i] = postings.get(trigrams[i]);
+			lists[i].runOptimize();
+			int length = lists[i].serializedSizeInBytes();
+
+			directory.putInt(trigrams[i]);
+			directory.putInt(length);
+			directory.putLong(offset);
+			offset += length;
+		}
+
+		if (offset > Integer.MAX_VALUE)
+			throw new Exception ("Trigram index of " + datasetName + " exceeds the maximum index size");
+
+		CRC32C crc = new CRC32C();
+		crc.update(directory.array(), 0, directory.capacity());
+
+		ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_LENGTH);
+		header.putInt(INDEX_MAGIC);
+		header.putInt(trigrams.length);
+		header.putInt(recordCount);
+		header.putInt(slotLength);
+		header.putLong(segmentLastModified);
+		header.putInt((int)crc.getValue());
+		header.putInt(0);
+
+		String indexName = FactTrigramIndex.getIndexName(datasetName);
+		File f = new File(indexName);
+		File temp = new File(indexName + ".tmp");
+
+		FileOutputStream fos = new FileOutputStream(temp);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+		try {
+			out.write(header.array());
+			out.write(directory.array());
+			for (int i = 0; i < lists.length; i++)
+				lists[i].serialize(out);
+			out.flush();
+			fos.getFD().sync();
+		}
+		finally {
+			out.close();
+		}
+
+		CACHE.remove(indexName);
+
+		if (f.exists() && !f.delete())
+			throw new Exception ("Unable to replace index " + indexName);
+
+		if (!temp.renameTo(f))
+			throw new Exception ("Unable to replace index " + indexName);
+
+		// the postings of the delta are in the index file, a delta left by a failure is added again
+		new File(indexName + DELTA_SUFFIX).delete();
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		String dbName = "Test";
+		String datasetName = "c:\\users\\dpras\\tempdata\\testdata\\vendorname.FC";
+
+		try {
+			System.out.println("Trigrams : " + FactTrigramIndex.build(dbName, datasetName, 4));
+
+			FactDataReaderString r = new FactDataReaderString(dbName, datasetName);
+			r.setCONTAINSFilter(new String[] {"Mobile"});
+			System.out.println("Matches : " + r.getData().cardinality());
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
+
+class FactTrigramBuildThread implements Runnable {
+
+	private int _status = HASIDSConstants.THREAD_INACTIVE;
+	private ByteBuffer _buffer;
+	private int _slotLength;
+	private int _fromPosition;
+	private int _toPosition;
+	private Hashtable<Integer, MutableRoaringBitmap> _postings = new Hashtable<Integer, MutableRoaringBitmap>();
+
+	public FactTrigramBuildThread(ByteBuffer buffer, int slotLength, int fromPosition, int toPosition) {
+		this._buffer = buffer;
+		this._slotLength = slotLength;
+		this._fromPosition = fromPosition;
+		this._toPosition = toPosition;
+	}
+
+	public int getStatus() {
+		return this._status;
+	}
+
+	public int getFromPosition() {
+		return this._fromPosition;
+	}
+
+	public Hashtable<Integer, MutableRoaringBitmap> getPostings() {
+		return this._postings;
+	}
+
+	public void run() {
+		this._status = HASIDSConstants.THREAD_ACTIVE;
+
+		try {
+			for (int i = this._fromPosition; i < this._toPosition; i++)
+				FactTrigramIndex.addSlot(this._buffer, i * this._slotLength, this._slotLength, i, this._postings);
+
+			this._status = HASIDSConstants.THREAD_COMPLETE;
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			this._status = HASIDSConstants.THREAD_FAILED;
+		}
+	}
+}
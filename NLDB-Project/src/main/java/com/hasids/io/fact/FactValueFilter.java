@@ -0,0 +1,387 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Predicate on a single fact value. Used by the scans of the block compressed fact segments,
+ * which first compare the predicate with the minimum and maximum value of each block to skip
+ * blocks that cannot match or to select blocks that match entirely, and only decode and test
+ * the values of the remaining blocks. Integer encodings are compared as long values and the
+ * floating point encodings as double values. TIMESTAMP values are LONG values and can also be
+ * filtered on a date part, which is computed for each value inside the scan.
+ */
+
+package com.hasids.io.fact;
+
+import java.util.Arrays;
+
+import com.hasids.datastructures.CheckSum;
+
+public final class FactValueFilter {
+
+	// filter modes, same order of precedence as the scans of the fixed length encodings
+	public static final int MODE_NOT_NULL = 0;
+	public static final int MODE_GT_LT_BETWEEN = 1;
+	public static final int MODE_GTEQ_LTEQ_BETWEEN = 2;
+	public static final int MODE_GT_LT = 3;
+	public static final int MODE_GTEQ_LTEQ = 4;
+	public static final int MODE_GT = 5;
+	public static final int MODE_GTEQ = 6;
+	public static final int MODE_LT = 7;
+	public static final int MODE_LTEQ = 8;
+	public static final int MODE_BETWEEN = 9;
+	public static final int MODE_IN = 10;
+	
+	// ALPHAN only filter modes
+	public static final int MODE_PREFIX = 11;
+	public static final int MODE_CONTAINS = 12;
+	
+	// TIMESTAMP only filter mode, IN filter on a date part of the values
+	public static final int MODE_DATE_PART = 13;
+
+	// result of matching a block
+	public static final int MATCH_NONE = 0;
+	public static final int MATCH_SOME = 1;
+	public static final int MATCH_ALL = 2;
+
+	private boolean _floatingPoint;
+	private int _mode;
+	private boolean _not;
+
+	private boolean _gt = false;
+	private boolean _gtEq = false;
+	private boolean _lt = false;
+	private boolean _ltEq = false;
+	private boolean _between = false;
+
+	// integer encodings
+	private long[] _inLong;
+	private long _gtLong, _ltLong, _between1Long, _between2Long;
+	private long _nullLong;
+
+	// date part filter
+	private int _datePart;
+	private int[] _inPart;
+
+	// floating point encodings
+	private double[] _inDouble;
+	private double _gtDouble, _ltDouble, _between1Double, _between2Double;
+	private double _nullDouble;
+
+	/**
+	 * Constructor
+	 *
+	 * @param encoding Fixed length fact encoding of the values, BYTE, SHORT, INT, LONG, FLOAT or DOUBLE
+	 * @param mode Filter mode
+	 * @param in Values of the IN filter, a byte[], short[], int[], long[], float[] or double[], MODE_IN only
+	 * @param not Negates the IN filter
+	 * @param gt Value of the > or >= filter
+	 * @param lt Value of the < or <= filter
+	 * @param between1 Lower value of the BETWEEN filter
+	 * @param between2 Upper value of the BETWEEN filter
+	 * @throws Exception
+	 */
+	public FactValueFilter(int encoding, int mode, Object in, boolean not, Number gt, Number lt,
+			Number between1, Number between2) throws Exception {
+
+		if (encoding == CheckSum.FACT_ENCODE_TYPE_BYTE) {
+			this._nullLong = Byte.MIN_VALUE;
+		}
+		else if (encoding == CheckSum.FACT_ENCODE_TYPE_SHORT) {
+			this._nullLong = Short.MIN_VALUE;
+		}
+		else if (encoding == CheckSum.FACT_ENCODE_TYPE_INT) {
+			this._nullLong = Integer.MIN_VALUE;
+		}
+		else if (encoding == CheckSum.FACT_ENCODE_TYPE_LONG) {
+			this._nullLong = Long.MIN_VALUE;
+		}
+		else if (encoding == CheckSum.FACT_ENCODE_TYPE_FLOAT) {
+			this._floatingPoint = true;
+			this._nullDouble = Float.MIN_VALUE;
+		}
+		else if (encoding == CheckSum.FACT_ENCODE_TYPE_DOUBLE) {
+			this._floatingPoint = true;
+			this._nullDouble = Double.MIN_VALUE;
+		}
+		else
+			throw new Exception ("Encoding " + encoding + " is not a BYTE, SHORT, INT, LONG, FLOAT or DOUBLE fact encoding");
+
+		if (mode < MODE_NOT_NULL || mode > MODE_IN)
+			throw new Exception ("Invalid filter mode " + mode);
+
+		this._mode = mode;
+		this._not = not;
+
+		if (mode == MODE_IN) {
+			if (in instanceof byte[]) {
+				byte[] values = (byte[]) in;
+				this._inLong = new long[values.length];
+				for (int i = 0; i < values.length; i++)
+					this._inLong[i] = values[i];
+			}
+			else if (in instanceof short[]) {
+				short[] values = (short[]) in;
+				this._inLong = new long[values.length];
+				for (int i = 0; i < values.length; i++)
+					this._inLong[i] = values[i];
+			}
+			else if (in instanceof int[]) {
+				int[] values = (int[]) in;
+				this._inLong = new long[values.length];
+				for (int i = 0; i < values.length; i++)
+					this._inLong[i] = values[i];
+			}
+			else if (in instanceof long[]) {
+				this._inLong = ((long[]) in).clone();
+			}
+			else if (in instanceof float[]) {
+				float[] values = (float[]) in;
+				this._inDouble = new double[values.length];
+				for (int i = 0; i < values.length; i++)
+					this._inDouble[i] = values[i] + 0.0; // -0.0 compares equal to 0.0
+			}
+			else if (in instanceof double[]) {
+				double[] values = (double[]) in;
+				this._inDouble = new double[values.length];
+				for (int i = 0; i < values.length; i++)
+					this._inDouble[i] = values[i] + 0.0;
+			}
+			else
+				throw new Exception ("IN filter must be a byte[], short[], int[], long[], float[] or double[]");
+
+			if ((this._inLong != null) == this._floatingPoint)
+				throw new Exception ("Mismatch between filter type and encoding type");
+
+			if (this._inLong != null)
+				Arrays.sort(this._inLong);
+			else
+				Arrays.sort(this._inDouble);
+
+			return;
+		}
+
+		this._gt = (mode == MODE_GT_LT_BETWEEN || mode == MODE_GT_LT || mode == MODE_GT);
+		this._gtEq = (mode == MODE_GTEQ_LTEQ_BETWEEN || mode == MODE_GTEQ_LTEQ || mode == MODE_GTEQ);
+		this._lt = (mode == MODE_GT_LT_BETWEEN || mode == MODE_GT_LT || mode == MODE_LT);
+		this._ltEq = (mode == MODE_GTEQ_LTEQ_BETWEEN || mode == MODE_GTEQ_LTEQ || mode == MODE_LTEQ);
+		this._between = (mode == MODE_GT_LT_BETWEEN || mode == MODE_GTEQ_LTEQ_BETWEEN || mode == MODE_BETWEEN);
+
+		if (((this._gt || this._gtEq) && gt == null) || ((this._lt || this._ltEq) && lt == null) ||
+				(this._between && (between1 == null || between2 == null)))
+			throw new Exception ("Null filter received!");
+
+		if (gt != null) {
+			this._gtLong = gt.longValue();
+			this._gtDouble = gt.doubleValue();
+		}
+		if (lt != null) {
+			this._ltLong = lt.longValue();
+			this._ltDouble = lt.doubleValue();
+		}
+		if (between1 != null && between2 != null) {
+			this._between1Long = between1.longValue();
+			this._between1Double = between1.doubleValue();
+			this._between2Long = between2.longValue();
+			this._between2Double = between2.doubleValue();
+		}
+	}
+
+	/**
+	 * Constructor of a date part filter on TIMESTAMP values, null values never match
+	 *
+	 * @param datePart Date part, FactTimestamp.PART_YEAR, PART_MONTH, PART_DAY, PART_HOUR or PART_DAY_OF_WEEK
+	 * @param values Values of the date part to match
+	 * @param not Negates the filter
+	 * @throws Exception
+	 */
+	public FactValueFilter(int datePart, int[] values, boolean not) throws Exception {
+		FactTimestamp.checkPart(datePart);
+
+		if (values == null || values.length <= 0)
+			throw new Exception ("Null filter received!");
+
+		this._nullLong = FactTimestamp.NULL_VALUE;
+		this._mode = MODE_DATE_PART;
+		this._not = not;
+		this._datePart = datePart;
+
+		// sorted distinct values
+		int[] sorted = values.clone();
+		Arrays.sort(sorted);
+		int n = 0;
+		for (int i = 0; i < sorted.length; i++)
+			if (n == 0 || sorted[i] != sorted[n - 1])
+				sorted[n++] = sorted[i];
+		this._inPart = Arrays.copyOf(sorted, n);
+	}
+
+	public int getMode() {
+		return this._mode;
+	}
+
+	public boolean isFloatingPoint() {
+		return this._floatingPoint;
+	}
+
+	/**
+	 * @param value Value of a BYTE, SHORT, INT or LONG fact
+	 * @return true if the value matches the filter
+	 */
+	public boolean accept(long value) {
+		if (this._mode == MODE_DATE_PART)
+			return value != this._nullLong &&
+				(Arrays.binarySearch(this._inPart, FactTimestamp.getPart(value, this._datePart)) >= 0) != this._not;
+
+		if (this._mode == MODE_IN)
+			return (Arrays.binarySearch(this._inLong, value) >= 0) != this._not;
+
+		if (this._mode == MODE_NOT_NULL)
+			return value != this._nullLong;
+
+		return (this._gt && value > this._gtLong) || (this._gtEq && value >= this._gtLong) ||
+				(this._lt && value < this._ltLong) || (this._ltEq && value <= this._ltLong) ||
+				(this._between && value >= this._between1Long && value <= this._between2Long);
+	}
+
+	/**
+	 * @param value Value of a FLOAT or DOUBLE fact
+	 * @return true if the value matches the filter
+	 */
+	public boolean accept(double value) {
+		if (this._mode == MODE_IN) {
+			// NaN is never equal to a filter value
+			int i = Arrays.binarySearch(this._inDouble, value + 0.0);
+			return (i >= 0 && this._inDouble[i] == value) != this._not;
+		}
+
+		if (this._mode == MODE_NOT_NULL)
+			return value != this._nullDouble;
+
+		return (this._gt && value > this._gtDouble) || (this._gtEq && value >= this._gtDouble) ||
+				(this._lt && value < this._ltDouble) || (this._ltEq && value <= this._ltDouble) ||
+				(this._between && value >= this._between1Double && value <= this._between2Double);
+	}
+
+	/**
+	 * Matches the filter with the range of values of an INT or LONG block
+	 *
+	 * @param min Minimum value of the block
+	 * @param max Maximum value of the block
+	 * @return MATCH_NONE, MATCH_SOME or MATCH_ALL
+	 */
+	public int matchBlock(long min, long max) {
+		if (min == max)
+			return (this.accept(min) ? MATCH_ALL : MATCH_NONE);
+
+		if (this._mode == MODE_DATE_PART)
+			return this.matchDatePart(min, max);
+
+		if (this._mode == MODE_IN) {
+			// first filter value >= min
+			int i = Arrays.binarySearch(this._inLong, min);
+			if (i < 0)
+				i = -i - 1;
+
+			boolean any = (i < this._inLong.length && this._inLong[i] <= max);
+			if (this._not)
+				return (any ? MATCH_SOME : MATCH_ALL);
+			return (any ? MATCH_SOME : MATCH_NONE);
+		}
+
+		if (this._mode == MODE_NOT_NULL)
+			return (this._nullLong < min || this._nullLong > max ? MATCH_ALL : MATCH_SOME);
+
+		// each filter term is a single interval, the block matches entirely if it is
+		// within one of them and not at all if it does not overlap any of them
+		if ((this._gt && min > this._gtLong) || (this._gtEq && min >= this._gtLong) ||
+				(this._lt && max < this._ltLong) || (this._ltEq && max <= this._ltLong) ||
+				(this._between && min >= this._between1Long && max <= this._between2Long))
+			return MATCH_ALL;
+
+		if ((this._gt && max > this._gtLong) || (this._gtEq && max >= this._gtLong) ||
+				(this._lt && min < this._ltLong) || (this._ltEq && min <= this._ltLong) ||
+				(this._between && max >= this._between1Long && min <= this._between2Long))
+			return MATCH_SOME;
+
+		return MATCH_NONE;
+	}
+
+	/**
+	 * Matches a date part filter with the range of values of a TIMESTAMP block. The block
+	 * is decided without decoding it when all its values are in the same unit of the date
+	 * part, such as the same hour for PART_HOUR, or for PART_YEAR when none or all the years
+	 * between the minimum and the maximum match.
+	 */
+	private int matchDatePart(long min, long max) {
+		// null values have no date part, the minimum of a block with nulls is the null value
+		if (min == this._nullLong)
+			return MATCH_SOME;
+
+		if (FactTimestamp.getUnit(min, this._datePart) == FactTimestamp.getUnit(max, this._datePart))
+			return (this.accept(min) ? MATCH_ALL : MATCH_NONE);
+
+		if (this._datePart == FactTimestamp.PART_YEAR) {
+			int minYear = FactTimestamp.getPart(min, FactTimestamp.PART_YEAR);
+			int maxYear = FactTimestamp.getPart(max, FactTimestamp.PART_YEAR);
+
+			// number of distinct filter years within the years of the block
+			int i = Arrays.binarySearch(this._inPart, minYear);
+			if (i < 0)
+				i = -i - 1;
+			int j = Arrays.binarySearch(this._inPart, maxYear);
+			j = (j < 0 ? -j - 1 : j + 1);
+
+			if (j - i == 0)
+				return (this._not ? MATCH_ALL : MATCH_NONE);
+			if (j - i == maxYear - minYear + 1)
+				return (this._not ? MATCH_NONE : MATCH_ALL);
+		}
+
+		return MATCH_SOME;
+	}
+
+	/**
+	 * Matches the filter with the range of values of a FLOAT or DOUBLE block
+	 *
+	 * @param min Minimum value of the block excluding NaN
+	 * @param max Maximum value of the block excluding NaN
+	 * @param hasNaN true if the block contains NaN values
+	 * @return MATCH_NONE, MATCH_SOME or MATCH_ALL
+	 */
+	public int matchBlock(double min, double max, boolean hasNaN) {
+		// NaN values are not ordered, such blocks are always tested value by value
+		if (hasNaN)
+			return MATCH_SOME;
+
+		if (min == max)
+			return (this.accept(min) ? MATCH_ALL : MATCH_NONE);
+
+		if (this._mode == MODE_IN) {
+			int i = Arrays.binarySearch(this._inDouble, min + 0.0);
+			if (i < 0)
+				i = -i - 1;
+
+			boolean any = (i < this._inDouble.length && this._inDouble[i] <= max);
+			if (this._not)
+				return (any ? MATCH_SOME : MATCH_ALL);
+			return (any ? MATCH_SOME : MATCH_NONE);
+		}
+
+		if (this._mode == MODE_NOT_NULL)
+			return (this._nullDouble < min || this._nullDouble > max ? MATCH_ALL : MATCH_SOME);
+
+		if ((this._gt && min > this._gtDouble) || (this._gtEq && min >= this._gtDouble) ||
+				(this._lt && max < this._ltDouble) || (this._ltEq && max <= this._ltDouble) ||
+				(this._between && min >= this._between1Double && max <= this._between2Double))
+			return MATCH_ALL;
+
+		if ((this._gt && max > this._gtDouble) || (this._gtEq && max >= this._gtDouble) ||
+				(this._lt && min < this._ltDouble) || (this._ltEq && min <= this._ltDouble) ||
+				(this._between && max >= this._between1Double && min <= this._between2Double))
+			return MATCH_SOME;
+
+		return MATCH_NONE;
+	}
+}
@@ -0,0 +1,466 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Writer for variable length ALPHAN fact segments (see FactVarcharHeap). Values are not
+ * limited to FACT_MAX_ALPHAN_LENGTH bytes, each slot holds an inline prefix of the value and
+ * the values longer than the prefix are appended to the heap file of the segment.
+ *
+ * On commit, if no position is beyond the current record count, the long values are appended
+ * to the heap and forced to the disk first, then the slots are written in place. Otherwise
+ * the committed and the new values are written to a new heap and a new segment file which
+ * replace the current ones. Commits against the same segment are serialized; the last writer
+ * of a position wins. The bytes of overwritten values remain in the heap until the segment is
+ * compacted.
+ *
+ * The prefix length should cover the values most often filtered on, prefix filters no longer
+ * than the prefix and most comparisons are then answered without reading the heap.
+ */
+
+package com.hasids.io.fact;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import com.hasids.HASIDSConstants;
+import com.hasids.datastructures.BlockCheckSum;
+import com.hasids.datastructures.CheckSum;
+import com.hasids.io.dataset.DatasetCatalog;
+import com.hasids.io.dataset.DatasetSegment;
+
+public class FactVarcharDataWriter {
+
+	// one monitor per segment file to serialize commits
+	private static Hashtable<String, Object> COMMIT_TABLE = new Hashtable<String, Object>();
+
+	private String _dbName;
+	private String _datasetName;
+	private int _segmentNo;
+
+	// changes of the session as UTF-8 bytes, empty arrays are nulls
+	private Hashtable<Integer, byte[]> _posValuesTable = new Hashtable<Integer, byte[]>();
+
+	/**
+	 * Constructor for writing to an existing variable length ALPHAN segment
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @throws Exception
+	 */
+	public FactVarcharDataWriter(String dbName, String datasetName) throws Exception {
+		if (dbName == null || dbName.trim().length() <= 0)
+			throw new Exception ("Invalid dbName!");
+
+		if (datasetName == null || datasetName.trim().length() <= 0)
+			throw new Exception ("Invalid datasetName!");
+
+		File f = new File(datasetName);
+		if (!f.exists())
+			throw new Exception ("File " + datasetName + " does not exist!");
+
+		int[] fileType = new int[1];
+		int[] encoding = new int[1];
+		int[] segmentNo = new int[1];
+		int[] datasize = new int[1];
+		short[] decimals = new short[1];
+
+		CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo);
+
+		if (!CheckSum.isVarLengthEncoding(fileType[0], encoding[0]))
+			throw new Exception ("File " + datasetName + " is not a variable length ALPHAN segment");
+
+		this._dbName = dbName;
+		this._datasetName = datasetName;
+		this._segmentNo = segmentNo[0];
+	}
+
+	/**
+	 * Creates a variable length ALPHAN fact segment
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @param values Values in position order, null or empty values are nulls
+	 * @param prefixLength Length of the inline prefix of the slots
+	 * @param segmentNo Segment number
+	 * @throws Exception
+	 */
+	public static void createSegment(String dbName, String datasetName, String[] values, int prefixLength, int segmentNo) throws Exception {
+		if (dbName == null || dbName.trim().length() <= 0)
+			throw new Exception ("Invalid dbName!");
+
+		if (datasetName == null || datasetName.trim().length() <= 0)
+			throw new Exception ("Invalid datasetName!");
+
+		if (values == null)
+			throw new Exception ("Null Data!");
+
+		if (new File(datasetName).exists())
+			throw new Exception("File " + datasetName + " exists! Cannot create segment");
+
+		if (values.length > HASIDSConstants.DIM_MAX_RECORDS)
+			throw new Exception ("Record count must be >= 0 and <= " + HASIDSConstants.DIM_MAX_RECORDS);
+
+		if (segmentNo < 0)
+			throw new Exception ("Segment number must be >= 0");
+
+		// validates the prefix length
+		FactVarcharHeap.getSlotLength(prefixLength);
+
+		byte[][] bytes = new byte[values.length][];
+		for (int i = 0; i < values.length; i++)
+			bytes[i] = FactVarcharDataWriter.getBytes(values[i]);
+
+		FactVarcharDataWriter.writeSegment(dbName, datasetName, bytes, prefixLength, segmentNo);
+	}
+
+	/**
+	 * Rewrites a segment and its heap without the bytes of the overwritten values
+	 *
+	 * @param dbName Database name
+	 * @param datasetName Segment file name
+	 * @return length of the heap after compaction
+	 * @throws Exception
+	 */
+	public static long compact(String dbName, String datasetName) throws Exception {
+		FactVarcharDataWriter w = new FactVarcharDataWriter(dbName, datasetName);
+		w.commit(true);
+		return new File(FactVarcharHeap.getHeapName(datasetName)).length();
+	}
+
+	/**
+	 * @return UTF-8 bytes of the value, null for null or empty values
+	 */
+	private static byte[] getBytes(String value) throws Exception {
+		if (value == null || value.length() == 0)
+			return null;
+
+		byte[] b = value.getBytes(StandardCharsets.UTF_8);
+		if (b.length > CheckSum.FACT_MAX_VARCHAR_LENGTH)
+			throw new Exception ("Max data length allowed in bytes is " + CheckSum.FACT_MAX_VARCHAR_LENGTH + " : " + value.substring(0, 40) + "...");
+		return b;
+	}
+
+	/**
+	 * Writes the values to a new heap and a new segment file and replaces the current ones
+	 *
+	 * @throws Exception
+	 */
+	private static void writeSegment(String dbName, String datasetName, byte[][] values, int prefixLength, int segmentNo) throws Exception {
+		long beginTime = System.nanoTime();
+
+		int slotLength = FactVarcharHeap.getSlotLength(prefixLength);
+
+		// long values go to the new heap
+		String heapName = FactVarcharHeap.getHeapName(datasetName);
+		File heap = new File(heapName);
+		File tempHeap = new File(heapName + ".tmp");
+		FactVarcharHeap.create(tempHeap.getPath());
+		long[] offsets = FactVarcharHeap.append(tempHeap.getPath(), values, prefixLength);
+
+		ByteBuffer body = ByteBuffer.allocate(values.length * slotLength);
+		body.order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < values.length; i++)
+			FactVarcharHeap.putSlot(body, i * slotLength, prefixLength, values[i], offsets[i]);
+
+		long fileSize = (long)CheckSum.FILE_V2_HEADER_LENGTH + body.capacity();
+		long lastModifiedTime = System.currentTimeMillis();
+
+		ByteBuffer header = ByteBuffer.allocate(CheckSum.FILE_V2_HEADER_LENGTH);
+		CheckSum.writeHeaderV2(header, CheckSum.FILE_TYPE_FACT, CheckSum.FACT_ENCODE_TYPE_VARCHAR, segmentNo, slotLength, (short)0,
+				values.length, dbName + "|" + datasetName, fileSize, lastModifiedTime);
+
+		File f = new File(datasetName);
+		File temp = new File(datasetName + ".tmp");
+
+		RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		FileChannel fc = raf.getChannel();
+		try {
+			raf.setLength(0);
+			while (header.hasRemaining())
+				fc.write(header, header.position());
+			while (body.hasRemaining())
+				fc.write(body, CheckSum.FILE_V2_HEADER_LENGTH + body.position());
+			fc.force(true);
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		// the heap is replaced just before the segment file, a rewrite must not run
+		// concurrently with readers of the segment
+		if (heap.exists() && !heap.delete())
+			throw new Exception ("Unable to replace heap " + heapName);
+
+		if (!tempHeap.renameTo(heap))
+			throw new Exception ("Unable to replace heap " + heapName);
+
+		if (f.exists() && !f.delete())
+			throw new Exception ("Unable to replace segment " + datasetName);
+
+		if (!temp.renameTo(f))
+			throw new Exception ("Unable to replace segment " + datasetName);
+
+		// set the last modified time
+		f.setLastModified(lastModifiedTime);
+		FactVarcharDataWriter.refreshCatalog(dbName, datasetName, segmentNo, slotLength, values.length, f);
+
+		// checksum the data blocks of the new segment
+		BlockCheckSum.build(datasetName, CheckSum.FILE_V2_HEADER_LENGTH);
+
+		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((System.nanoTime() - beginTime), TimeUnit.NANOSECONDS);
+		System.out.println("Variable length segment " + datasetName + " written, records : " + values.length +
+				", heap length : " + heap.length() + " in " + elapsedTimeInMillis + " Milliseconds");
+	}
+
+	private static void refreshCatalog(String dbName, String datasetName, int segmentNo, int slotLength, int recordCount, File f) {
+		try {
+			DatasetCatalog.refresh(new DatasetSegment(dbName, datasetName, CheckSum.FILE_TYPE_FACT, CheckSum.FACT_ENCODE_TYPE_VARCHAR,
+					segmentNo, slotLength, (short)0, CheckSum.FILE_V2_HEADER_LENGTH, recordCount, f.lastModified()));
+		}
+		catch (Exception e) {
+			// the entry is reloaded from the header on its next use
+			DatasetCatalog.remove(dbName, datasetName);
+		}
+	}
+
+	public String getDbName() {
+		return this._dbName;
+	}
+
+	public String getDatasetName() {
+		return this._datasetName;
+	}
+
+	public int getSegmentNo() {
+		return this._segmentNo;
+	}
+
+	/**
+	 * Sets the values of positions. Positions beyond the current record count extend the
+	 * segment, records in between are null.
+	 *
+	 * @param position 0 based positions
+	 * @param values Values, null or empty values are nulls
+	 * @throws Exception
+	 */
+	public void setWriteDataPositionBuffer(int[] position, String[] values) throws Exception {
+		if (position == null || values == null || position.length != values.length)
+			throw new Exception("Null Data or data length does not match values length!");
+
+		byte[][] bytes = new byte[values.length][];
+		for (int i = 0; i < position.length; i++) {
+			if (position[i] < 0 || position[i] >= HASIDSConstants.DIM_MAX_RECORDS)
+				throw new Exception ("Invalid position " + position[i]);
+			bytes[i] = FactVarcharDataWriter.getBytes(values[i]);
+		}
+
+		for (int i = 0; i < position.length; i++)
+			this._posValuesTable.put(position[i], (bytes[i] == null ? new byte[0] : bytes[i]));
+	}
+
+	/**
+	 * Discards the changes of the session
+	 */
+	public void rollback() {
+		this._posValuesTable.clear();
+	}
+
+	/**
+	 * Applies the changes of the session, in place if no position is beyond the record count,
+	 * else by rewriting the heap and the segment file
+	 *
+	 * @return record count after the commit
+	 * @throws Exception
+	 */
+	public int commit() throws Exception {
+		return this.commit(false);
+	}
+
+	private int commit(boolean rewrite) throws Exception {
+		Object monitor = null;
+		synchronized (COMMIT_TABLE) {
+			monitor = COMMIT_TABLE.get(this._datasetName);
+			if (monitor == null) {
+				monitor = new Object();
+				COMMIT_TABLE.put(this._datasetName, monitor);
+			}
+		}
+
+		synchronized (monitor) {
+			int[] fileType = new int[1];
+			int[] encoding = new int[1];
+			int[] segmentNo = new int[1];
+			int[] datasize = new int[1];
+			short[] decimals = new short[1];
+			int[] headerLength = new int[1];
+
+			CheckSum.validateFile(this._dbName, this._datasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
+			int recordCount = (int)((new File(this._datasetName).length() - headerLength[0])/datasize[0]);
+			int prefixLength = FactVarcharHeap.getPrefixLength(datasize[0]);
+
+			int newRecordCount = recordCount;
+			Enumeration<Integer> e = this._posValuesTable.keys();
+			while (e.hasMoreElements()) {
+				int key = e.nextElement();
+				if (key >= newRecordCount)
+					newRecordCount = key + 1;
+			}
+
+			if (!rewrite && newRecordCount == recordCount)
+				this.commitInPlace(prefixLength, datasize[0], headerLength[0]);
+			else {
+				byte[][] values = this.getCommittedValues(recordCount, newRecordCount, datasize[0], headerLength[0]);
+
+				e = this._posValuesTable.keys();
+				while (e.hasMoreElements()) {
+					int key = e.nextElement();
+					byte[] value = this._posValuesTable.get(key);
+					values[key] = (value.length == 0 ? null : value);
+				}
+
+				FactVarcharDataWriter.writeSegment(this._dbName, this._datasetName, values, prefixLength, segmentNo[0]);
+			}
+
+			this.rollback();
+			return newRecordCount;
+		}
+	}
+
+	/**
+	 * Reads the committed values of the segment, the positions beyond the record count are null
+	 */
+	private byte[][] getCommittedValues(int recordCount, int newRecordCount, int slotLength, int headerLength) throws Exception {
+		byte[][] values = new byte[newRecordCount][];
+		int prefixLength = FactVarcharHeap.getPrefixLength(slotLength);
+
+		ByteBuffer heap = FactVarcharHeap.map(this._datasetName);
+
+		RandomAccessFile raf = new RandomAccessFile(this._datasetName, "r");
+		FileChannel fc = raf.getChannel();
+		try {
+			ByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, headerLength, (long)recordCount * slotLength);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			for (int i = 0; i < recordCount; i++) {
+				if (FactVarcharHeap.getLength(buffer, i * slotLength) == 0)
+					continue;
+
+				ByteBuffer value = FactVarcharHeap.getValue(buffer, i * slotLength, prefixLength, heap);
+				values[i] = new byte[value.remaining()];
+				value.get(values[i]);
+			}
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		return values;
+	}
+
+	/**
+	 * Appends the long values of the session to the heap, then writes their slots into the
+	 * segment file and updates the time stamp and the block checksums of the changed range
+	 */
+	private void commitInPlace(int prefixLength, int slotLength, int headerLength) throws Exception {
+		if (this._posValuesTable.isEmpty())
+			return;
+
+		int size = this._posValuesTable.size();
+		int[] positions = new int[size];
+		byte[][] values = new byte[size][];
+
+		int low = Integer.MAX_VALUE, high = -1, i = 0;
+		Enumeration<Integer> e = this._posValuesTable.keys();
+		while (e.hasMoreElements()) {
+			int key = e.nextElement();
+			positions[i] = key;
+			values[i] = this._posValuesTable.get(key);
+			if (values[i].length == 0)
+				values[i] = null;
+			i++;
+
+			if (key < low)
+				low = key;
+			if (key > high)
+				high = key;
+		}
+
+		// the values are in the heap before any slot refers to them
+		String heapName = FactVarcharHeap.getHeapName(this._datasetName);
+		if (!new File(heapName).exists())
+			FactVarcharHeap.create(heapName);
+		long[] offsets = FactVarcharHeap.append(heapName, values, prefixLength);
+
+		long lastModifiedTime = System.currentTimeMillis();
+
+		RandomAccessFile raf = new RandomAccessFile(this._datasetName, "rw");
+		FileChannel fc = raf.getChannel();
+		try {
+			MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_WRITE, headerLength + (long)low * slotLength,
+					(long)(high - low + 1) * slotLength);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			for (i = 0; i < size; i++)
+				FactVarcharHeap.putSlot(buffer, (positions[i] - low) * slotLength, prefixLength, values[i], offsets[i]);
+			buffer.force();
+			buffer = null;
+
+			CheckSum.writeTimestamp(fc, lastModifiedTime);
+
+			try {
+				BlockCheckSum.update(this._datasetName, fc, headerLength, (long)low * slotLength, (long)(high - low + 1) * slotLength);
+			}
+			catch (Exception ex) {
+				// the checksum file is removed so that it is never stale
+				ex.printStackTrace();
+				BlockCheckSum.delete(this._datasetName);
+			}
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		// set the last modified time
+		File f = new File(this._datasetName);
+		f.setLastModified(lastModifiedTime);
+		FactVarcharDataWriter.refreshCatalog(this._dbName, this._datasetName, this._segmentNo, slotLength,
+				(int)((f.length() - headerLength)/slotLength), f);
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// TODO Auto-generated method stub
+
+		String dbName = "Test";
+		String datasetName = "c:\\users\\dpras\\tempdata\\testdata\\pickupaddress.FC";
+
+		try {
+			String[] values = new String[] {"1 World Trade Center, New York, NY 10007",
+					"JFK Airport Terminal 4, Jamaica, NY 11430", null, "Penn Station"};
+			FactVarcharDataWriter.createSegment(dbName, datasetName, values, 16, 0);
+
+			FactVarcharDataWriter w = new FactVarcharDataWriter(dbName, datasetName);
+			w.setWriteDataPositionBuffer(new int[] {2, 5}, new String[] {"LaGuardia Airport Terminal B, East Elmhurst, NY 11371", "Grand Central"});
+			System.out.println("Record count after commit : " + w.commit());
+			System.out.println("Heap length after compaction : " + FactVarcharDataWriter.compact(dbName, datasetName));
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,290 @@
+/**
+ *
+ * @author Durga Turaga
+ * @since 08/20/2017
+ * @copyright A4DATA LLC; All rights reserved
+ *
+ * Layout of the variable length ALPHAN fact segments. The segment holds one fixed length slot
+ * per record, the values longer than the inline prefix of the slots are kept whole in an
+ * append only heap file next to the segment named <segment file>.heap. Filters are evaluated
+ * on the inline prefix first and read the heap only when the prefix does not decide, values
+ * are materialized as slices of the mapped segment or heap without copying.
+ *
+ * Slot (LITTLE ENDIAN):
+ * position 0 - 3 = length of the value in UTF-8 bytes, 0 for null
+ * position 4 - 11 = offset of the value in the heap, 0 if the value fits in the prefix
+ * position 12 onwards = inline prefix, the first bytes of the value, zero filled
+ *
+ * Heap file (BIG ENDIAN):
+ * position 0 - 3 = magic
+ * position 4 - 7 = version
+ * position 8 - 15 = reserved
+ * position 16 onwards = UTF-8 bytes of the values, one after the other
+ *
+ * A value is appended to the heap every time it is written, the bytes of overwritten values
+ * remain in the heap until the segment is compacted (see FactVarcharDataWriter).
+ */
+
+package com.hasids.io.fact;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+public final class FactVarcharHeap {
+
+	public static final String HEAP_EXTENSION = ".heap";
+	public static final int HEAP_MAGIC = 0x48535648; // HSVH
+	public static final int HEAP_VERSION = 1;
+	public static final int HEAP_HEADER_LENGTH = 16;
+
+	// the heap is mapped as a single buffer by the readers
+	public static final long HEAP_MAX_LENGTH = Integer.MAX_VALUE;
+
+	public static final int SLOT_LENGTH_POS = 0;
+	public static final int SLOT_OFFSET_POS = 4;
+	public static final int SLOT_PREFIX_POS = 12;
+	public static final int MIN_PREFIX_LENGTH = 4;
+	public static final int MAX_PREFIX_LENGTH = 255;
+
+	private FactVarcharHeap() {
+	}
+
+	/**
+	 * @param datasetName Segment file name
+	 * @return name of the heap file of the segment
+	 */
+	public static String getHeapName(String datasetName) {
+		return datasetName + HEAP_EXTENSION;
+	}
+
+	public static boolean exists(String datasetName) {
+		return new File(FactVarcharHeap.getHeapName(datasetName)).exists();
+	}
+
+	/**
+	 * Deletes the heap file of a segment
+	 *
+	 * @param datasetName Segment file name
+	 */
+	public static void delete(String datasetName) {
+		new File(FactVarcharHeap.getHeapName(datasetName)).delete();
+	}
+
+	/**
+	 * @param prefixLength Length of the inline prefix
+	 * @return length of the slots
+	 * @throws Exception
+	 */
+	public static int getSlotLength(int prefixLength) throws Exception {
+		if (prefixLength < MIN_PREFIX_LENGTH || prefixLength > MAX_PREFIX_LENGTH)
+			throw new Exception ("Prefix length must be >= " + MIN_PREFIX_LENGTH + " and <= " + MAX_PREFIX_LENGTH);
+
+		return SLOT_PREFIX_POS + prefixLength;
+	}
+
+	/**
+	 * @param slotLength Length of the slots
+	 * @return length of the inline prefix
+	 */
+	public static int getPrefixLength(int slotLength) {
+		return slotLength - SLOT_PREFIX_POS;
+	}
+
+	public static int getLength(ByteBuffer buffer, int slot) {
+		return buffer.getInt(slot + SLOT_LENGTH_POS);
+	}
+
+	public static long getOffset(ByteBuffer buffer, int slot) {
+		return buffer.getLong(slot + SLOT_OFFSET_POS);
+	}
+
+	/**
+	 * Writes a slot
+	 *
+	 * @param buffer Segment data, LITTLE ENDIAN
+	 * @param slot Position of the slot in the buffer
+	 * @param prefixLength Length of the inline prefix
+	 * @param value UTF-8 bytes of the value, null for the null value
+	 * @param offset Offset of the value in the heap, ignored if the value fits in the prefix
+	 */
+	public static void putSlot(ByteBuffer buffer, int slot, int prefixLength, byte[] value, long offset) {
+		int length = (value == null ? 0 : value.length);
+		buffer.putInt(slot + SLOT_LENGTH_POS, length);
+		buffer.putLong(slot + SLOT_OFFSET_POS, (length > prefixLength ? offset : 0L));
+
+		int inline = (length < prefixLength ? length : prefixLength);
+		for (int i = 0; i < prefixLength; i++)
+			buffer.put(slot + SLOT_PREFIX_POS + i, (i < inline ? value[i] : 0));
+	}
+
+	/**
+	 * Returns the value of a slot as a slice of the segment or of the heap buffer, no bytes are
+	 * copied. The slice is only valid as long as the segment is not rewritten.
+	 *
+	 * @param buffer Segment data
+	 * @param slot Position of the slot in the buffer
+	 * @param prefixLength Length of the inline prefix
+	 * @param heap Mapped heap, may be null if no value is longer than the prefix
+	 * @return UTF-8 bytes of the value, empty for the null value
+	 * @throws Exception
+	 */
+	public static ByteBuffer getValue(ByteBuffer buffer, int slot, int prefixLength, ByteBuffer heap) throws Exception {
+		int length = FactVarcharHeap.getLength(buffer, slot);
+		ByteBuffer value = null;
+
+		if (length <= prefixLength) {
+			value = buffer.duplicate();
+			value.limit(slot + SLOT_PREFIX_POS + length);
+			value.position(slot + SLOT_PREFIX_POS);
+		}
+		else {
+			long offset = FactVarcharHeap.getOffset(buffer, slot);
+			if (heap == null || offset < HEAP_HEADER_LENGTH || offset + length > heap.limit())
+				throw new Exception ("Invalid heap offset " + offset + " for a value of length " + length);
+
+			value = heap.duplicate();
+			value.limit((int)offset + length);
+			value.position((int)offset);
+		}
+
+		return value.slice();
+	}
+
+	/**
+	 * Decodes the UTF-8 bytes of a value returned by getValue
+	 */
+	public static String toString(ByteBuffer value) {
+		return StandardCharsets.UTF_8.decode(value.duplicate()).toString();
+	}
+
+	/**
+	 * Maps the heap of a segment read only
+	 *
+	 * @param datasetName Segment file name
+	 * @return heap buffer, null if the segment has no heap
+	 * @throws Exception
+	 */
+	public static MappedByteBuffer map(String datasetName) throws Exception {
+		File f = new File(FactVarcharHeap.getHeapName(datasetName));
+		if (!f.exists())
+			return null;
+
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		FileChannel fc = raf.getChannel();
+		try {
+			long size = fc.size();
+			if (size < HEAP_HEADER_LENGTH || size > HEAP_MAX_LENGTH)
+				throw new Exception ("Invalid heap file length " + size + " for " + datasetName);
+
+			MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (buffer.getInt(0) != HEAP_MAGIC)
+				throw new Exception ("File " + f.getPath() + " is not a heap file");
+
+			return buffer;
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+	}
+
+	/**
+	 * Creates an empty heap file
+	 *
+	 * @param heapName Heap file name
+	 * @throws Exception
+	 */
+	public static void create(String heapName) throws Exception {
+		ByteBuffer header = ByteBuffer.allocate(HEAP_HEADER_LENGTH);
+		header.putInt(HEAP_MAGIC);
+		header.putInt(HEAP_VERSION);
+		header.putLong(0L);
+		header.flip();
+
+		RandomAccessFile raf = new RandomAccessFile(heapName, "rw");
+		FileChannel fc = raf.getChannel();
+		try {
+			raf.setLength(0);
+			while (header.hasRemaining())
+				fc.write(header, header.position());
+			fc.force(true);
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+	}
+
+	/**
+	 * Appends the values longer than the prefix to the end of a heap file and forces them to
+	 * the disk, the values must be in the heap before the slots referring to them are written.
+	 *
+	 * @param heapName Heap file name
+	 * @param values UTF-8 bytes of the values, nulls are skipped
+	 * @param prefixLength Length of the inline prefix
+	 * @return offsets of the values in the heap, 0 for the values not appended
+	 * @throws Exception
+	 */
+	public static long[] append(String heapName, byte[][] values, int prefixLength) throws Exception {
+		long[] offsets = new long[values.length];
+
+		RandomAccessFile raf = new RandomAccessFile(heapName, "rw");
+		FileChannel fc = raf.getChannel();
+		try {
+			long position = fc.size();
+			if (position < HEAP_HEADER_LENGTH)
+				throw new Exception ("Invalid heap file " + heapName);
+
+			long end = position;
+			for (int i = 0; i < values.length; i++)
+				if (values[i] != null && values[i].length > prefixLength)
+					end += values[i].length;
+
+			if (end > HEAP_MAX_LENGTH)
+				throw new Exception ("Heap " + heapName + " cannot exceed " + HEAP_MAX_LENGTH + " bytes, compact the segment");
+
+			if (end == position)
+				return offsets;
+
+			ByteBuffer out = ByteBuffer.allocate((int)Math.min(end - position, 8 * 1024 * 1024));
+			long next = position;
+			for (int i = 0; i < values.length; i++) {
+				if (values[i] == null || values[i].length <= prefixLength)
+					continue;
+
+				offsets[i] = next;
+				next += values[i].length;
+
+				int written = 0;
+				while (written < values[i].length) {
+					int n = Math.min(out.remaining(), values[i].length - written);
+					out.put(values[i], written, n);
+					written += n;
+
+					if (!out.hasRemaining()) {
+						out.flip();
+						while (out.hasRemaining())
+							position += fc.write(out, position);
+						out.clear();
+					}
+				}
+			}
+
+			out.flip();
+			while (out.hasRemaining())
+				position += fc.write(out, position);
+
+			fc.force(true);
+		}
+		finally {
+			fc.close();
+			raf.close();
+		}
+
+		return offsets;
+	}
+}
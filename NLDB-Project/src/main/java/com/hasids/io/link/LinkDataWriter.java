@@ -10,15 +10,23 @@ package com.hasids.io.link;
 import java.io.File;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.Enumeration;
 import java.util.Hashtable;
-import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import com.hasids.HASIDSConstants;
+import com.hasids.datastructures.BlockCheckSum;
 import com.hasids.datastructures.CheckSum;
+import com.hasids.io.dataset.DatasetCatalog;
+import com.hasids.io.DatasetVersions;
+import com.hasids.io.PageOrder;
+import com.hasids.io.PositionValueMap;
+import com.hasids.io.PositionLockManager;
+import com.hasids.io.WriteAheadLog;
+import com.hasids.io.dataset.DatasetSegment;
 
 import java.nio.*;
 
@@ -35,14 +43,16 @@ public abstract class LinkDataWriter implements Runnable {
 	/*lock - begin transaction, update/write, retry success, update/write, unlock - end transaction, commit*/
 	/*lock - begin transaction, update/write, retry failure, rollback - update/write original, unlock - end transaction*/
 	
-	// Data write buffer that is static
-	private static Hashtable<String, Hashtable<Integer, Object>> LOCK_TABLE = new Hashtable<String, Hashtable<Integer, Object>>();;
+	// Lock manager of the positions of the dataset shared by all the sessions writing to it
+	PositionLockManager _lockManager = null;
 	
-	// The position table associated with a dataset stored within the LOCK_TABLE
-	Hashtable<Integer, Object> _positionTable = null;
+	// Write ahead log of the directory of the dataset and the id of the session in the log, ONLINE mode only
+	private WriteAheadLog _log = null;
+	private long _txId = 0;
+	private boolean _aborted = false;
 	
 	// The position and values table for setting data values
-	Hashtable<Integer, Object> _posValuesTable = null;
+	PositionValueMap _posValuesTable = null;
 	
 	// instance variables determining whether partial updates are allowed
 	// if partial updates are not allowed, then an exception will be thrown back
@@ -52,7 +62,7 @@ public abstract class LinkDataWriter implements Runnable {
 	
 	// retry flag, this flag indicates if those records not available due to lock
 	// by a different instance must be retried for updates after the rest are complete
-	private Hashtable<Integer, Object> _retryTable = new Hashtable<Integer, Object>();
+	private PositionValueMap _retryTable = null;
 	
 	// retry flag that determines if records that could not be written must be retried
 	// for updates.
@@ -71,6 +81,7 @@ public abstract class LinkDataWriter implements Runnable {
 	private int _encoding;
 	private int _segmentNo;
 	private int _dataLength;
+	private int _headerLength = CheckSum.FILE_V2_HEADER_LENGTH;
 	private short _decimals = 0;
 	
 	private RandomAccessFile _randomAccessFile;
@@ -143,10 +154,12 @@ public abstract class LinkDataWriter implements Runnable {
 			int[] datasize = new int[1];
 			short[] decimals = new short[1];
 			int[] segmentNo = new int[1];
+			int[] headerLength = new int[1];
 			
-			CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo);
+			CheckSum.validateFile(dbName, datasetName, fileType, encoding, datasize, decimals, segmentNo, headerLength);
 			
-			this._recordCount = (((int)f.length()) - CheckSum.FILE_CHECKSUM_LENGTH)/datasize[0];
+			this._headerLength = headerLength[0];
+			this._recordCount = (((int)f.length()) - this._headerLength)/datasize[0];
 			System.out.println("Record count from CheckSum: " + this._recordCount);
 			
 			this.checkEncodingExisting(fileType[0], encoding[0], datasize[0], decimals[0], segmentNo[0]);
@@ -352,24 +365,16 @@ public abstract class LinkDataWriter implements Runnable {
 			
 			RandomAccessFile randomAccessFile = new RandomAccessFile(this._datasetName, "rw");
 			FileChannel rwChannel = randomAccessFile.getChannel();
-			MappedByteBuffer buffer = rwChannel.map(FileChannel.MapMode.READ_WRITE, 0, (this._recordCount * this._dataLength) + CheckSum.FILE_CHECKSUM_LENGTH);
-			
-			// Write the CL at the beginning of the file
-			buffer.position(0); // reset to position 0
-			buffer.put(this.getFileType()); // write the file type - DIM 1
-			buffer.put(this.getEncoding()); // write the encoding type
-			buffer.putInt(this.getSegmentNo()); // write the segment number
-			buffer.putInt(this.getDataLength()); // write the data length
-			buffer.putShort(this.getDecimals()); // write the decimal length
-			
-			// write the dataset name and data set size
-			buffer.put(CheckSum.computeCS(this.getDbName() + "|" + this.getDatasetName(), ((this.getRecordCount() * this.getDataLength()) + CheckSum.FILE_CHECKSUM_LENGTH)));
+			this._headerLength = CheckSum.FILE_V2_HEADER_LENGTH;
+			MappedByteBuffer buffer = rwChannel.map(FileChannel.MapMode.READ_WRITE, 0, (this._recordCount * this._dataLength) + this._headerLength);
 			
 			// calculate the current time
 			long lastModifiedTime = System.currentTimeMillis();
 			
-			// Add it to the buffer
-			buffer.put(Long.toString(CheckSum.computeTFS(lastModifiedTime)).getBytes());
+			// Write the version 2 header at the beginning of the file
+			CheckSum.writeHeaderV2(buffer, this.getFileType(), this.getEncoding(), this.getSegmentNo(), this.getDataLength(), this.getDecimals(), 
+					this.getRecordCount(), this.getDbName() + "|" + this.getDatasetName(), 
+					((long)this.getRecordCount() * this.getDataLength()) + this._headerLength, lastModifiedTime);
 			
 			buffer.force();
 			rwChannel.close();
@@ -377,6 +382,10 @@ public abstract class LinkDataWriter implements Runnable {
 			
 			// set the last modified time
 			f.setLastModified(lastModifiedTime);
+			this.refreshCatalog(f);
+			
+			// checksum the data blocks of the new segment
+			BlockCheckSum.build(this._datasetName, this._headerLength);
 			
 			System.out.println("File " + this._datasetName + " length = " + f.length());
 			
@@ -1008,14 +1017,8 @@ public abstract class LinkDataWriter implements Runnable {
 		this._allowPartial = allowPartial;
 		this._retryFlag = retryFlag;
 		
-		synchronized (this) {
-			// Position table; hashtable of positions and values associated with multiple sessions of this dataset
-			this._positionTable = LinkDataWriter.LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-			if (this._positionTable == null) {
-				this._positionTable = new Hashtable<Integer, Object>(position.length);
-				LinkDataWriter.LOCK_TABLE.put(this._dbName + "|" + this._datasetName, this._positionTable);
-			}
-		}
+		// Lock manager of the dataset shared by all the sessions writing to it
+		this._lockManager = PositionLockManager.getLockManager(this._dbName + "|" + this._datasetName, this._dataLength);
 		
 		long endTime = System.nanoTime();
 		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -1027,8 +1030,10 @@ public abstract class LinkDataWriter implements Runnable {
 			throw new Exception (message);
 		}
 		
-		// create the position values hashtable
-		this._posValuesTable = new Hashtable<Integer, Object>(position.length);
+		// create the position values map
+		this._posValuesTable = new PositionValueMap(1, position.length);
+		if (this._retryTable == null)
+			this._retryTable = new PositionValueMap(1, 0);
 		
 		endTime = System.nanoTime();
 		elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -1037,7 +1042,7 @@ public abstract class LinkDataWriter implements Runnable {
         
 		this._randomAccessFile = new RandomAccessFile(this._datasetName, "r");
 		this._rwChannel = _randomAccessFile.getChannel();
-		this._buffer = this._rwChannel.map(FileChannel.MapMode.READ_ONLY, (this._lowRange * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH), (this._highRange - this._lowRange + 1) * this._dataLength);
+		this._buffer = this._rwChannel.map(FileChannel.MapMode.READ_ONLY, (this._lowRange * this._dataLength + this._headerLength), (this._highRange - this._lowRange + 1) * this._dataLength);
 		this._buffer.order(ByteOrder.LITTLE_ENDIAN);
 		System.out.println("Length of Buffer : " + this._buffer.limit());
 		this._buffer.clear();
@@ -1051,43 +1056,39 @@ public abstract class LinkDataWriter implements Runnable {
         System.out.println("Time to Map file into memory : " + elapsedTimeInMillis + "  Milliseconds");
         beginTime = System.nanoTime();
         
-        synchronized (this._positionTable) {
-			for (i = 0; i < position.length; i++)
-			{
-				//if (i % 100000 == 0)
-				//	System.out.println("Position : " + position[i]);
+		// lock the positions not locked by another session, saving their values in the file for a rollback
+		BitSet conflicts = this._lockManager.lock(this, position, this._buffer, this._lowRange, !this._allowPartial && !this._retryFlag);
+		
+		for (i = 0; i < position.length; i++)
+		{
+			//if (i % 100000 == 0)
+			//	System.out.println("Position : " + position[i]);
+			
+			// Add the record ids locked by this session to the pos values table
+			if (!conflicts.get(i)) {
+				// add the position and value to the pos values table; this will be used to 
+				// actually write to the file
+				this._posValuesTable.putByte(position[i], values[i]);
 				
-				// Add the record ids to the position table if the record id is not locked
-				// Array 0 - new value, array 1 = old value
-				if (!this._positionTable.containsKey(position[i])) {
-					
-					// lock the position by adding it to the position table
-					this._positionTable.put(position[i], new byte[] {values[i], this._buffer.get((position[i] - this._lowRange))});
-						
-					// add the position and value to the pos values table; this will be used to 
-					// actually write to the file
-					this._posValuesTable.put(position[i], values[i]);
+			}
+			else {
+				if (!this._allowPartial && !this._retryFlag) {
+					sReturn.put(position[i], values[i]);
+					writeStatus = false;
+					message = "Records locked for updating by another session";
+					break;
+				}
+							
+				// if retry flag is true, add the positions to the retry table
+				if (this._retryFlag) {
+					this._retryTable.putByte(position[i], values[i]);
 					
+					System.out.println("Added to retry table : " + this._sessionId);
 				}
-				else {
-					if (!this._allowPartial && !this._retryFlag) {
-						sReturn.put(position[i], values[i]);
-						writeStatus = false;
-						message = "Records locked for updating by another session";
-						break;
-					}
-								
-					// if retry flag is true, add the positions to the retry table
-					if (this._retryFlag) {
-						this._retryTable.put(position[i], values[i]);
-						
-						System.out.println("Added to retry table : " + this._sessionId);
-					}
-				}			
-			}
-        }
+			}			
+		}
         
-		System.out.println("No of entries in position table : " + this._positionTable.size());
+		System.out.println("No of locked positions : " + this._lockManager.getLockedCount());
 		System.out.println("No of entries in pos values table : " + this._posValuesTable.size());
 		
 		endTime = System.nanoTime();
@@ -1127,14 +1128,8 @@ public abstract class LinkDataWriter implements Runnable {
 		this._allowPartial = allowPartial;
 		this._retryFlag = retryFlag;
 		
-		synchronized (this) {
-			// Position table; hashtable of positions and values associated with multiple sessions of this dataset
-			this._positionTable = LinkDataWriter.LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-			if (this._positionTable == null) {
-				this._positionTable = new Hashtable<Integer, Object>(position.length);
-				LinkDataWriter.LOCK_TABLE.put(this._dbName + "|" + this._datasetName, this._positionTable);
-			}
-		}
+		// Lock manager of the dataset shared by all the sessions writing to it
+		this._lockManager = PositionLockManager.getLockManager(this._dbName + "|" + this._datasetName, this._dataLength);
 		
 		long endTime = System.nanoTime();
 		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -1146,8 +1141,10 @@ public abstract class LinkDataWriter implements Runnable {
 			throw new Exception (message);
 		}
 		
-		// create the position values hashtable
-		this._posValuesTable = new Hashtable<Integer, Object>(position.length);
+		// create the position values map
+		this._posValuesTable = new PositionValueMap(2, position.length);
+		if (this._retryTable == null)
+			this._retryTable = new PositionValueMap(2, 0);
 		
 		endTime = System.nanoTime();
 		elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -1156,7 +1153,7 @@ public abstract class LinkDataWriter implements Runnable {
         
 		this._randomAccessFile = new RandomAccessFile(this._datasetName, "r");
 		this._rwChannel = _randomAccessFile.getChannel();
-		this._buffer = this._rwChannel.map(FileChannel.MapMode.READ_ONLY, (this._lowRange * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH), (this._highRange - this._lowRange + 1) * this._dataLength);
+		this._buffer = this._rwChannel.map(FileChannel.MapMode.READ_ONLY, (this._lowRange * this._dataLength + this._headerLength), (this._highRange - this._lowRange + 1) * this._dataLength);
 		this._buffer.order(ByteOrder.LITTLE_ENDIAN);
 		System.out.println("Length of Buffer : " + this._buffer.limit());
 		this._buffer.clear();
@@ -1170,43 +1167,39 @@ public abstract class LinkDataWriter implements Runnable {
         System.out.println("Time to Map file into memory : " + elapsedTimeInMillis + "  Milliseconds");
         beginTime = System.nanoTime();
         
-        synchronized (this._positionTable) {
-			for (i = 0; i < position.length; i++)
-			{
-				//if (i % 100000 == 0)
-				//	System.out.println("Position : " + position[i]);
+		// lock the positions not locked by another session, saving their values in the file for a rollback
+		BitSet conflicts = this._lockManager.lock(this, position, this._buffer, this._lowRange, !this._allowPartial && !this._retryFlag);
+		
+		for (i = 0; i < position.length; i++)
+		{
+			//if (i % 100000 == 0)
+			//	System.out.println("Position : " + position[i]);
+			
+			// Add the record ids locked by this session to the pos values table
+			if (!conflicts.get(i)) {
+				// add the position and value to the pos values table; this will be used to 
+				// actually write to the file
+				this._posValuesTable.putShort(position[i], values[i]);
 				
-				// Add the record ids to the position table if the record id is not locked
-				// Array 0 - new value, array 1 = old value
-				if (!this._positionTable.containsKey(position[i])) {
-					
-					// lock the position by adding it to the position table
-					this._positionTable.put(position[i], new short[] {values[i], this._buffer.getShort((position[i] - this._lowRange) * this._dataLength)});
-						
-					// add the position and value to the pos values table; this will be used to 
-					// actually write to the file
-					this._posValuesTable.put(position[i], values[i]);
+			}
+			else {
+				if (!this._allowPartial && !this._retryFlag) {
+					sReturn.put(position[i], values[i]);
+					writeStatus = false;
+					message = "Records locked for updating by another session";
+					break;
+				}
+							
+				// if retry flag is true, add the positions to the retry table
+				if (this._retryFlag) {
+					this._retryTable.putShort(position[i], values[i]);
 					
+					System.out.println("Added to retry table : " + this._sessionId);
 				}
-				else {
-					if (!this._allowPartial && !this._retryFlag) {
-						sReturn.put(position[i], values[i]);
-						writeStatus = false;
-						message = "Records locked for updating by another session";
-						break;
-					}
-								
-					// if retry flag is true, add the positions to the retry table
-					if (this._retryFlag) {
-						this._retryTable.put(position[i], values[i]);
-						
-						System.out.println("Added to retry table : " + this._sessionId);
-					}
-				}			
-			}
-        }
+			}			
+		}
         
-		System.out.println("No of entries in position table : " + this._positionTable.size());
+		System.out.println("No of locked positions : " + this._lockManager.getLockedCount());
 		System.out.println("No of entries in pos values table : " + this._posValuesTable.size());
 		
 		endTime = System.nanoTime();
@@ -1256,14 +1249,8 @@ public abstract class LinkDataWriter implements Runnable {
 		this._allowPartial = allowPartial;
 		this._retryFlag = retryFlag;
 		
-		synchronized (this) {
-			// Position table; hashtable of positions and values associated with multiple sessions of this dataset
-			this._positionTable = LinkDataWriter.LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-			if (this._positionTable == null) {
-				this._positionTable = new Hashtable<Integer, Object>(position.length);
-				LinkDataWriter.LOCK_TABLE.put(this._dbName + "|" + this._datasetName, this._positionTable);
-			}
-		}
+		// Lock manager of the dataset shared by all the sessions writing to it
+		this._lockManager = PositionLockManager.getLockManager(this._dbName + "|" + this._datasetName, this._dataLength);
 		
 		long endTime = System.nanoTime();
 		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -1275,8 +1262,10 @@ public abstract class LinkDataWriter implements Runnable {
 			throw new Exception (message);
 		}
 		
-		// create the position values hashtable
-		this._posValuesTable = new Hashtable<Integer, Object>(position.length);
+		// create the position values map
+		this._posValuesTable = new PositionValueMap(4, position.length);
+		if (this._retryTable == null)
+			this._retryTable = new PositionValueMap(4, 0);
 		
 		endTime = System.nanoTime();
 		elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -1285,7 +1274,7 @@ public abstract class LinkDataWriter implements Runnable {
         
 		this._randomAccessFile = new RandomAccessFile(this._datasetName, "r");
 		this._rwChannel = _randomAccessFile.getChannel();
-		this._buffer = this._rwChannel.map(FileChannel.MapMode.READ_ONLY, (this._lowRange * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH), (this._highRange - this._lowRange + 1) * this._dataLength);
+		this._buffer = this._rwChannel.map(FileChannel.MapMode.READ_ONLY, (this._lowRange * this._dataLength + this._headerLength), (this._highRange - this._lowRange + 1) * this._dataLength);
 		this._buffer.order(ByteOrder.LITTLE_ENDIAN);
 		System.out.println("Length of Buffer : " + this._buffer.limit());
 		this._buffer.clear();
@@ -1299,42 +1288,38 @@ public abstract class LinkDataWriter implements Runnable {
         System.out.println("Time to Map file into memory : " + elapsedTimeInMillis + "  Milliseconds");
         beginTime = System.nanoTime();
         
-        synchronized (this._positionTable) {
-			for (i = 0; i < position.length; i++)
-			{
-				//if (i % 100000 == 0)
-				//	System.out.println("Position : " + position[i]);
-				
-				// Add the record ids to the position table if the record id is not locked
-				// Array 0 - new value, array 1 = old value
-				if (!this._positionTable.containsKey(position[i])) {
+		// lock the positions not locked by another session, saving their values in the file for a rollback
+		BitSet conflicts = this._lockManager.lock(this, position, this._buffer, this._lowRange, !this._allowPartial && !this._retryFlag);
+		
+		for (i = 0; i < position.length; i++)
+		{
+			//if (i % 100000 == 0)
+			//	System.out.println("Position : " + position[i]);
+			
+			// Add the record ids locked by this session to the pos values table
+			if (!conflicts.get(i)) {
+				// add the position and value to the pos values table; this will be used to 
+				// actually write to the file
+				this._posValuesTable.putInt(position[i], values[i]);
+			}
+			else {
+				if (!this._allowPartial && !this._retryFlag) {
+					sReturn.put(position[i], values[i]);
+					writeStatus = false;
+					message = "Records locked for updating by another session";
+					break;
+				}
+							
+				// if retry flag is true, add the positions to the retry table
+				if (this._retryFlag) {
+					this._retryTable.putInt(position[i], values[i]);
 					
-					// lock the position by adding it to the position table
-					this._positionTable.put(position[i], new int[] {values[i], this._buffer.getInt((position[i] - this._lowRange) * this._dataLength)});
-						
-					// add the position and value to the pos values table; this will be used to 
-					// actually write to the file
-					this._posValuesTable.put(position[i], values[i]);
+					System.out.println("Added to retry table : " + this._sessionId);
 				}
-				else {
-					if (!this._allowPartial && !this._retryFlag) {
-						sReturn.put(position[i], values[i]);
-						writeStatus = false;
-						message = "Records locked for updating by another session";
-						break;
-					}
-								
-					// if retry flag is true, add the positions to the retry table
-					if (this._retryFlag) {
-						this._retryTable.put(position[i], values[i]);
-						
-						System.out.println("Added to retry table : " + this._sessionId);
-					}
-				}			
-			}
-        }
+			}			
+		}
         
-		System.out.println("No of entries in position table : " + this._positionTable.size());
+		System.out.println("No of locked positions : " + this._lockManager.getLockedCount());
 		System.out.println("No of entries in pos values table : " + this._posValuesTable.size());
 		
 		endTime = System.nanoTime();
@@ -1372,14 +1357,8 @@ public abstract class LinkDataWriter implements Runnable {
 		this._allowPartial = allowPartial;
 		this._retryFlag = retryFlag;
 		
-		synchronized (this) {
-			// Position table; hashtable of positions and values associated with multiple sessions of this dataset
-			this._positionTable = LinkDataWriter.LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-			if (this._positionTable == null) {
-				this._positionTable = new Hashtable<Integer, Object>(position.length);
-				LinkDataWriter.LOCK_TABLE.put(this._dbName + "|" + this._datasetName, this._positionTable);
-			}
-		}
+		// Lock manager of the dataset shared by all the sessions writing to it
+		this._lockManager = PositionLockManager.getLockManager(this._dbName + "|" + this._datasetName, this._dataLength);
 		
 		long endTime = System.nanoTime();
 		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -1391,8 +1370,10 @@ public abstract class LinkDataWriter implements Runnable {
 			throw new Exception (message);
 		}
 		
-		// create the position values hashtable
-		this._posValuesTable = new Hashtable<Integer, Object>(position.length);
+		// create the position values map
+		this._posValuesTable = new PositionValueMap(4, position.length);
+		if (this._retryTable == null)
+			this._retryTable = new PositionValueMap(4, 0);
 		
 		endTime = System.nanoTime();
 		elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -1401,7 +1382,7 @@ public abstract class LinkDataWriter implements Runnable {
         
 		this._randomAccessFile = new RandomAccessFile(this._datasetName, "r");
 		this._rwChannel = _randomAccessFile.getChannel();
-		this._buffer = this._rwChannel.map(FileChannel.MapMode.READ_ONLY, (this._lowRange * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH), (this._highRange - this._lowRange + 1) * this._dataLength);
+		this._buffer = this._rwChannel.map(FileChannel.MapMode.READ_ONLY, (this._lowRange * this._dataLength + this._headerLength), (this._highRange - this._lowRange + 1) * this._dataLength);
 		this._buffer.order(ByteOrder.LITTLE_ENDIAN);
 		System.out.println("Length of Buffer : " + this._buffer.limit());
 		this._buffer.clear();
@@ -1415,37 +1396,33 @@ public abstract class LinkDataWriter implements Runnable {
         System.out.println("Time to Map file into memory : " + elapsedTimeInMillis + "  Milliseconds");
         beginTime = System.nanoTime();
         
-        synchronized (this._positionTable) {
-			for (i = 0; i < position.length; i++)
-			{
-				//if (i % 100000 == 0)
-				//	System.out.println("Position : " + position[i]);
-				
-				// Add the record ids to the position table if the record id is not locked
-				// Array 0 - new value, array 1 = old value
-				if (!this._positionTable.containsKey(position[i])) {
-					
-					// lock the position by adding it to the position table
-					this._positionTable.put(position[i], new float[] {values[i], this._buffer.getFloat((position[i] - this._lowRange) * this._dataLength)});
-					
-					// add the position and value to the pos values table; this will be used to 
-					// actually write to the file
-					this._posValuesTable.put(position[i], values[i]);
-				}
-				else {
-					if (!this._allowPartial && !this._retryFlag) {
-						sReturn.put(position[i], values[i]);
-						writeStatus = false;
-						message = "Records locked for updating by another session";
-						break;
-					}
-								
-					// if retry flag is true, add the positions to the retry table
-					if (this._retryFlag)
-						this._retryTable.put(position[i], values[i]); 
-				}			
+		// lock the positions not locked by another session, saving their values in the file for a rollback
+		BitSet conflicts = this._lockManager.lock(this, position, this._buffer, this._lowRange, !this._allowPartial && !this._retryFlag);
+		
+		for (i = 0; i < position.length; i++)
+		{
+			//if (i % 100000 == 0)
+			//	System.out.println("Position : " + position[i]);
+			
+			// Add the record ids locked by this session to the pos values table
+			if (!conflicts.get(i)) {
+				// add the position and value to the pos values table; this will be used to 
+				// actually write to the file
+				this._posValuesTable.putFloat(position[i], values[i]);
 			}
-        }
+			else {
+				if (!this._allowPartial && !this._retryFlag) {
+					sReturn.put(position[i], values[i]);
+					writeStatus = false;
+					message = "Records locked for updating by another session";
+					break;
+				}
+							
+				// if retry flag is true, add the positions to the retry table
+				if (this._retryFlag)
+					this._retryTable.putFloat(position[i], values[i]); 
+			}			
+		}
         
 		endTime = System.nanoTime();
 		elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -1483,14 +1460,8 @@ public abstract class LinkDataWriter implements Runnable {
 		this._allowPartial = allowPartial;
 		this._retryFlag = retryFlag;
 		
-		synchronized (this) {
-			// Position table; hashtable of positions and values associated with multiple sessions of this dataset
-			this._positionTable = LinkDataWriter.LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-			if (this._positionTable == null) {
-				this._positionTable = new Hashtable<Integer, Object>(position.length);
-				LinkDataWriter.LOCK_TABLE.put(this._dbName + "|" + this._datasetName, this._positionTable);
-			}
-		}
+		// Lock manager of the dataset shared by all the sessions writing to it
+		this._lockManager = PositionLockManager.getLockManager(this._dbName + "|" + this._datasetName, this._dataLength);
 		
 		long endTime = System.nanoTime();
 		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -1502,8 +1473,10 @@ public abstract class LinkDataWriter implements Runnable {
 			throw new Exception (message);
 		}
 		
-		// create the position values hashtable
-		this._posValuesTable = new Hashtable<Integer, Object>(position.length);
+		// create the position values map
+		this._posValuesTable = new PositionValueMap(8, position.length);
+		if (this._retryTable == null)
+			this._retryTable = new PositionValueMap(8, 0);
 		
 		endTime = System.nanoTime();
 		elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -1512,7 +1485,7 @@ public abstract class LinkDataWriter implements Runnable {
         
 		this._randomAccessFile = new RandomAccessFile(this._datasetName, "r");
 		this._rwChannel = _randomAccessFile.getChannel();
-		this._buffer = this._rwChannel.map(FileChannel.MapMode.READ_ONLY, (this._lowRange * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH), (this._highRange - this._lowRange + 1) * this._dataLength);
+		this._buffer = this._rwChannel.map(FileChannel.MapMode.READ_ONLY, (this._lowRange * this._dataLength + this._headerLength), (this._highRange - this._lowRange + 1) * this._dataLength);
 		this._buffer.order(ByteOrder.LITTLE_ENDIAN);
 		System.out.println("Length of Buffer : " + this._buffer.limit());
 		this._buffer.clear();
@@ -1526,37 +1499,33 @@ public abstract class LinkDataWriter implements Runnable {
         System.out.println("Time to Map file into memory : " + elapsedTimeInMillis + "  Milliseconds");
         beginTime = System.nanoTime();
         
-        synchronized (this._positionTable) {
-			for (i = 0; i < position.length; i++)
-			{
-				//if (i % 100000 == 0)
-				//	System.out.println("Position : " + position[i]);
-				
-				// Add the record ids to the position table if the record id is not locked
-				// Array 0 - new value, array 1 = old value
-				if (!this._positionTable.containsKey(position[i])) {
-					
-					// lock the position by adding it to the position table
-					this._positionTable.put(position[i], new long[] {values[i], this._buffer.getLong((position[i] - this._lowRange) * this._dataLength)});
-					
-					// add the position and value to the pos values table; this will be used to 
-					// actually write to the file
-					this._posValuesTable.put(position[i], values[i]);
-				}
-				else {
-					if (!this._allowPartial && !this._retryFlag) {
-						sReturn.put(position[i], values[i]);
-						writeStatus = false;
-						message = "Records locked for updating by another session";
-						break;
-					}
-								
-					// if retry flag is true, add the positions to the retry table
-					if (this._retryFlag)
-						this._retryTable.put(position[i], values[i]); 
-				}			
+		// lock the positions not locked by another session, saving their values in the file for a rollback
+		BitSet conflicts = this._lockManager.lock(this, position, this._buffer, this._lowRange, !this._allowPartial && !this._retryFlag);
+		
+		for (i = 0; i < position.length; i++)
+		{
+			//if (i % 100000 == 0)
+			//	System.out.println("Position : " + position[i]);
+			
+			// Add the record ids locked by this session to the pos values table
+			if (!conflicts.get(i)) {
+				// add the position and value to the pos values table; this will be used to 
+				// actually write to the file
+				this._posValuesTable.putLong(position[i], values[i]);
 			}
-        }
+			else {
+				if (!this._allowPartial && !this._retryFlag) {
+					sReturn.put(position[i], values[i]);
+					writeStatus = false;
+					message = "Records locked for updating by another session";
+					break;
+				}
+							
+				// if retry flag is true, add the positions to the retry table
+				if (this._retryFlag)
+					this._retryTable.putLong(position[i], values[i]); 
+			}			
+		}
         
 		endTime = System.nanoTime();
 		elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -1594,14 +1563,8 @@ public abstract class LinkDataWriter implements Runnable {
 		this._allowPartial = allowPartial;
 		this._retryFlag = retryFlag;
 		
-		synchronized (this) {
-			// Position table; hashtable of positions and values associated with multiple sessions of this dataset
-			this._positionTable = LinkDataWriter.LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-			if (this._positionTable == null) {
-				this._positionTable = new Hashtable<Integer, Object>(position.length);
-				LinkDataWriter.LOCK_TABLE.put(this._dbName + "|" + this._datasetName, this._positionTable);
-			}
-		}
+		// Lock manager of the dataset shared by all the sessions writing to it
+		this._lockManager = PositionLockManager.getLockManager(this._dbName + "|" + this._datasetName, this._dataLength);
 		
 		long endTime = System.nanoTime();
 		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -1613,8 +1576,10 @@ public abstract class LinkDataWriter implements Runnable {
 			throw new Exception (message);
 		}
 		
-		// create the position values hashtable
-		this._posValuesTable = new Hashtable<Integer, Object>(position.length);
+		// create the position values map
+		this._posValuesTable = new PositionValueMap(8, position.length);
+		if (this._retryTable == null)
+			this._retryTable = new PositionValueMap(8, 0);
 		
 		endTime = System.nanoTime();
 		elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -1623,7 +1588,7 @@ public abstract class LinkDataWriter implements Runnable {
         
 		this._randomAccessFile = new RandomAccessFile(this._datasetName, "r");
 		this._rwChannel = _randomAccessFile.getChannel();
-		this._buffer = this._rwChannel.map(FileChannel.MapMode.READ_ONLY, (this._lowRange * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH), (this._highRange - this._lowRange + 1) * this._dataLength);
+		this._buffer = this._rwChannel.map(FileChannel.MapMode.READ_ONLY, (this._lowRange * this._dataLength + this._headerLength), (this._highRange - this._lowRange + 1) * this._dataLength);
 		this._buffer.order(ByteOrder.LITTLE_ENDIAN);
 		System.out.println("Length of Buffer : " + this._buffer.limit());
 		this._buffer.clear();
@@ -1637,37 +1602,33 @@ public abstract class LinkDataWriter implements Runnable {
         System.out.println("Time to Map file into memory : " + elapsedTimeInMillis + "  Milliseconds");
         beginTime = System.nanoTime();
         
-        synchronized (this._positionTable) {
-			for (i = 0; i < position.length; i++)
-			{
-				//if (i % 100000 == 0)
-				//	System.out.println("Position : " + position[i]);
-				
-				// Add the record ids to the position table if the record id is not locked
-				// Array 0 - new value, array 1 = old value
-				if (!this._positionTable.containsKey(position[i])) {
-					
-					// lock the position by adding it to the position table
-					this._positionTable.put(position[i], new double[] {values[i], this._buffer.getDouble((position[i] - this._lowRange) * this._dataLength)});
-					
-					// add the position and value to the pos values table; this will be used to 
-					// actually write to the file
-					this._posValuesTable.put(position[i], values[i]);
-				}
-				else {
-					if (!this._allowPartial && !this._retryFlag) {
-						sReturn.put(position[i], values[i]);
-						writeStatus = false;
-						message = "Records locked for updating by another session";
-						break;
-					}
-								
-					// if retry flag is true, add the positions to the retry table
-					if (this._retryFlag)
-						this._retryTable.put(position[i], values[i]); 
-				}			
+		// lock the positions not locked by another session, saving their values in the file for a rollback
+		BitSet conflicts = this._lockManager.lock(this, position, this._buffer, this._lowRange, !this._allowPartial && !this._retryFlag);
+		
+		for (i = 0; i < position.length; i++)
+		{
+			//if (i % 100000 == 0)
+			//	System.out.println("Position : " + position[i]);
+			
+			// Add the record ids locked by this session to the pos values table
+			if (!conflicts.get(i)) {
+				// add the position and value to the pos values table; this will be used to 
+				// actually write to the file
+				this._posValuesTable.putDouble(position[i], values[i]);
 			}
-        }
+			else {
+				if (!this._allowPartial && !this._retryFlag) {
+					sReturn.put(position[i], values[i]);
+					writeStatus = false;
+					message = "Records locked for updating by another session";
+					break;
+				}
+							
+				// if retry flag is true, add the positions to the retry table
+				if (this._retryFlag)
+					this._retryTable.putDouble(position[i], values[i]); 
+			}			
+		}
         
 		endTime = System.nanoTime();
 		elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -1705,14 +1666,8 @@ public abstract class LinkDataWriter implements Runnable {
 		this._allowPartial = allowPartial;
 		this._retryFlag = retryFlag;
 
-		synchronized (this) {
-			// Position table; hashtable of positions and values associated with multiple sessions of this dataset
-			this._positionTable = LinkDataWriter.LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-			if (this._positionTable == null) {
-				this._positionTable = new Hashtable<Integer, Object>(position.length);
-				LinkDataWriter.LOCK_TABLE.put(this._dbName + "|" + this._datasetName, this._positionTable);
-			}
-		}
+		// Lock manager of the dataset shared by all the sessions writing to it
+		this._lockManager = PositionLockManager.getLockManager(this._dbName + "|" + this._datasetName, this._dataLength);
 		
 		long endTime = System.nanoTime();
 		long elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -1724,8 +1679,10 @@ public abstract class LinkDataWriter implements Runnable {
 			throw new Exception (message);
 		}
 		
-		// create the position values hashtable
-		this._posValuesTable = new Hashtable<Integer, Object>(position.length);
+		// create the position values map
+		this._posValuesTable = new PositionValueMap(PositionValueMap.OBJECT_VALUES, position.length);
+		if (this._retryTable == null)
+			this._retryTable = new PositionValueMap(PositionValueMap.OBJECT_VALUES, 0);
 		
 		endTime = System.nanoTime();
 		elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -1734,7 +1691,7 @@ public abstract class LinkDataWriter implements Runnable {
         
 		this._randomAccessFile = new RandomAccessFile(this._datasetName, "r");
 		this._rwChannel = _randomAccessFile.getChannel();
-		this._buffer = this._rwChannel.map(FileChannel.MapMode.READ_ONLY, (this._lowRange * this._dataLength + CheckSum.FILE_CHECKSUM_LENGTH), (this._highRange - this._lowRange + 1) * this._dataLength);
+		this._buffer = this._rwChannel.map(FileChannel.MapMode.READ_ONLY, (this._lowRange * this._dataLength + this._headerLength), (this._highRange - this._lowRange + 1) * this._dataLength);
 		System.out.println("Length of Buffer : " + this._buffer.limit());
 		this._buffer.clear();
 		
@@ -1747,57 +1704,33 @@ public abstract class LinkDataWriter implements Runnable {
         System.out.println("Time to Map file into memory : " + elapsedTimeInMillis + "  Milliseconds");
         beginTime = System.nanoTime();
         
-        // Durga Turaga, 12/06/2017, removed hard coding
-        // data length must be dynamically read
-        byte[] bb;
-        short dataLen = 0;
-        synchronized (this._positionTable) {
-			for (i = 0; i < position.length; i++)
-			{
-				bb = null;
-				this._buffer.position((position[i] - this._lowRange) * this._dataLength);
-				// Durga Turaga, 12/06/2017, skip one position for the data length
-				
-				// get the length of the data
-				dataLen = this._buffer.get();
-				if (dataLen < 0)
-					dataLen += 256;
-				
-				// only if the original data is not null, do we need to read it
-				if (dataLen > 0) {
-					// instantiate the buffer
-					bb = new byte[dataLen];
-					this._buffer.get(bb);
-				}
-				
-				//if (i % 100000 == 0)
-				//	System.out.println("Position : " + position[i]);
-				
-				// Add the record ids to the position table if the record id is not locked
-				// Array 0 - new value, array 1 = old value
-				if (!this._positionTable.containsKey(position[i])) {
-					
-					// lock the position by adding it to the position table
-					this._positionTable.put(position[i], new String[] {values[i], (dataLen > 0 ? new String(bb) : new String(this._nullBuffer))});
-					
-					// add the position and value to the pos values table; this will be used to 
-					// actually write to the file
-					this._posValuesTable.put(position[i], values[i]);
-				}
-				else {
-					if (!this._allowPartial && !this._retryFlag) {
-						sReturn.put(position[i], values[i]);
-						writeStatus = false;
-						message = "Records locked for updating by another session";
-						break;
-					}
-								
-					// if retry flag is true, add the positions to the retry table
-					if (this._retryFlag)
-						this._retryTable.put(position[i], values[i]); 
-				}			
+		// lock the positions not locked by another session, saving their values in the file for a rollback
+		BitSet conflicts = this._lockManager.lock(this, position, this._buffer, this._lowRange, !this._allowPartial && !this._retryFlag);
+		
+		for (i = 0; i < position.length; i++)
+		{
+			//if (i % 100000 == 0)
+			//	System.out.println("Position : " + position[i]);
+			
+			// Add the record ids locked by this session to the pos values table
+			if (!conflicts.get(i)) {
+				// add the position and value to the pos values table; this will be used to 
+				// actually write to the file
+				this._posValuesTable.putObject(position[i], values[i]);
 			}
-        }
+			else {
+				if (!this._allowPartial && !this._retryFlag) {
+					sReturn.put(position[i], values[i]);
+					writeStatus = false;
+					message = "Records locked for updating by another session";
+					break;
+				}
+							
+				// if retry flag is true, add the positions to the retry table
+				if (this._retryFlag)
+					this._retryTable.putObject(position[i], values[i]); 
+			}			
+		}
         
 		endTime = System.nanoTime();
 		elapsedTimeInMillis = TimeUnit.MILLISECONDS.convert((endTime - beginTime), TimeUnit.NANOSECONDS);
@@ -1819,6 +1752,37 @@ public abstract class LinkDataWriter implements Runnable {
 		
 	}
 	
+	/**
+	 * @return positions locked by this session
+	 */
+	private int[] getLockedPositions() {
+		return this._posValuesTable.keys();
+	}
+	
+	/**
+	 * Logs the values saved for locked positions before their pages are modified and opens them
+	 * as an undo delta for the readers of the dataset, ONLINE mode only
+	 * 
+	 * @param positions Positions locked by this session
+	 * @throws Exception
+	 */
+	private void logUndo(int[] positions) throws Exception {
+		if (positions.length == 0)
+			return;
+		
+		if (this._log == null)
+			this._log = WriteAheadLog.getLog(this._datasetName);
+		
+		if (this._txId == 0)
+			this._txId = this._log.begin(this);
+		
+		byte[] undo = this._lockManager.getUndo(this, positions);
+		this._log.logUndo(this._txId, this._dbName, this._datasetName, this._headerLength, this._dataLength, positions, undo);
+		
+		// readers undo the positions of this session until it ends
+		DatasetVersions.getVersions(this._dbName, this._datasetName).open(this, this._dataLength, positions, undo);
+	}
+	
 	/**
 	 * Method to remove the keys associated with the current session from the position table
 	 */
@@ -1829,21 +1793,11 @@ public abstract class LinkDataWriter implements Runnable {
 		// do we have a valid position values table
 		if (this._posValuesTable == null || this._posValuesTable.size() <= 0) return;
 		
-		// do we have a valid position table
-		if (this._positionTable == null)
-			this._positionTable = LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-		
-		// remove from the position table all the keys associated with pos values buffer
-		Iterator<Integer> it = this._posValuesTable.keySet().iterator();
-		Integer i = null;
-		while(it.hasNext()) {
-			i = it.next();
-			this._positionTable.remove(i);
-		}
-		
-		// if position table is empty, remove it from the lock table
-		if (this._positionTable.size() <= 0)
-			LOCK_TABLE.remove(this._datasetName);
+		// release the positions locked by this session
+		if (this._lockManager == null)
+			this._lockManager = PositionLockManager.getLockManager(this._dbName + "|" + this._datasetName);
+		if (this._lockManager != null)
+			this._lockManager.unlock(this, this.getLockedPositions());
 		
 		// clear the pos values table
 		this._posValuesTable.clear();
@@ -1863,29 +1817,30 @@ public abstract class LinkDataWriter implements Runnable {
 	/**
 	 * Method to write single bytes into the buffer
 	 * 
+	 * @param order Indexes of the positions in page order in BATCH mode, null if already in page order,
+	 * positions locked by this session in page order in ONLINE mode
 	 * @throws Exception
 	 */
-	private void writeToSegmentTypeByte() throws Exception {
+	private void writeToSegmentTypeByte(int[] order) throws Exception {
 		if (this._operationalMode == HASIDSConstants.OPERATION_MODE_BATCH) {
-			for (int i = 0; i < _positionsLength; i++)
+			int count = (order == null ? this._positionsLength : order.length);
+			for (int k = 0; k < count; k++) {
+				int i = (order == null ? k : order[k]);
 				this._buffer.put((this._position[i] - this._lowRange), this._valuesByte[i]);
+			}
 	
 		}
 		else if (this._operationalMode == HASIDSConstants.OPERATION_MODE_ONLINE) {
-			if (this._positionTable == null)
-				this._positionTable = LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-			
 			int i = -1;
-			Enumeration<Integer> e = this._posValuesTable.keys();
 			
 			//byte value = 0;
-			while (e.hasMoreElements()) {
+			for (int k = 0; k < order.length; k++) {
 				
-				i = e.nextElement();
+				i = order[k];
 				
 				// write to dataset
 				//this._buffer.position((i - this._lowRange) * this._dataLength);
-				this._buffer.put((i - this._lowRange) * this._dataLength, ((Byte)this._posValuesTable.get(i)));
+				this._buffer.put((i - this._lowRange) * this._dataLength, this._posValuesTable.getByte(i));
 				//System.out.println("Position : " + (i - this._lowRange) + ", written a value of : " + value);
 				
 			}
@@ -1895,32 +1850,32 @@ public abstract class LinkDataWriter implements Runnable {
 	/**
 	 * Method to write single bytes into the buffer
 	 * 
+	 * @param order Indexes of the positions in page order in BATCH mode, null if already in page order,
+	 * positions locked by this session in page order in ONLINE mode
 	 * @throws Exception
 	 */
-	private void writeToSegmentTypeShort() throws Exception {
+	private void writeToSegmentTypeShort(int[] order) throws Exception {
 		//byte[] shortBytes = new byte[2];
 		if (this._operationalMode == HASIDSConstants.OPERATION_MODE_BATCH) {
-			for (int i = 0; i < _positionsLength; i++) {
+			int count = (order == null ? this._positionsLength : order.length);
+			for (int k = 0; k < count; k++) {
+				int i = (order == null ? k : order[k]);
 				this._buffer.position((this._position[i] - this._lowRange) * this._dataLength);
 				//this._buffer.put(shortBytes);
 				this._buffer.putShort(this._valuesShort[i]);
 			}
 		}
 		else if (this._operationalMode == HASIDSConstants.OPERATION_MODE_ONLINE) {
-			if (this._positionTable == null)
-				this._positionTable = LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-			
 			int i = -1;
-			Enumeration<Integer> e = this._posValuesTable.keys();
 			
 			//short value = 0;
-			while (e.hasMoreElements()) {
+			for (int k = 0; k < order.length; k++) {
 				
-				i = e.nextElement();
+				i = order[k];
 				
 				// write to dataset
 				//this._buffer.position((i - this._lowRange) * this._dataLength);
-				this._buffer.putShort((i - this._lowRange) * this._dataLength, ((Short)this._posValuesTable.get(i)));
+				this._buffer.putShort((i - this._lowRange) * this._dataLength, this._posValuesTable.getShort(i));
 				//System.out.println("Position : " + (i - this._lowRange) + ", written a value of : " + value);
 				
 			}
@@ -1930,12 +1885,16 @@ public abstract class LinkDataWriter implements Runnable {
 	/**
 	 * Method to write single bytes into the buffer
 	 * 
+	 * @param order Indexes of the positions in page order in BATCH mode, null if already in page order,
+	 * positions locked by this session in page order in ONLINE mode
 	 * @throws Exception
 	 */
-	private void writeToSegmentTypeInt() throws Exception {
+	private void writeToSegmentTypeInt(int[] order) throws Exception {
 		//byte[] intBytes = new byte[4];
 		if (this._operationalMode == HASIDSConstants.OPERATION_MODE_BATCH) {
-			for (int i = 0; i < _positionsLength; i++) {
+			int count = (order == null ? this._positionsLength : order.length);
+			for (int k = 0; k < count; k++) {
+				int i = (order == null ? k : order[k]);
 				//intBytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(this._values[i]).array();
 				this._buffer.position((this._position[i] - this._lowRange) * this._dataLength);
 				//this._buffer.put(intBytes);
@@ -1943,33 +1902,31 @@ public abstract class LinkDataWriter implements Runnable {
 			}
 		}
 		else if (this._operationalMode == HASIDSConstants.OPERATION_MODE_ONLINE) {
-			if (this._positionTable == null)
-				this._positionTable = LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-			
 			int i = -1;
-			Enumeration<Integer> e = this._posValuesTable.keys();
 			
 			//int value = 0;
-			while (e.hasMoreElements()) {
+			for (int k = 0; k < order.length; k++) {
 				
-				i = e.nextElement();
+				i = order[k];
 				
-				//value = ((int)this._posValuesTable.get(i));
+				//value = this._posValuesTable.getInt(i);
 				
-				//System.out.println("Setting position : " + i + ", for a value of : " + ((Integer)this._posValuesTable.get(i)) + ", at position : " + (i - this._lowRange));
+				//System.out.println("Setting position : " + i + ", for a value of : " + this._posValuesTable.getInt(i) + ", at position : " + (i - this._lowRange));
 				
 				// write to dataset
 				//this._buffer.position((i - this._lowRange) * this._dataLength);
-				this._buffer.putInt((i - this._lowRange) * this._dataLength, ((Integer)this._posValuesTable.get(i)));
+				this._buffer.putInt((i - this._lowRange) * this._dataLength, this._posValuesTable.getInt(i));
 				//System.out.println("Position : " + (i - this._lowRange) + ", written a value of : " + value);
 				
 			}
 		}
 	}
 	
-	private void writeToSegmentTypeFloat() throws Exception {
+	private void writeToSegmentTypeFloat(int[] order) throws Exception {
 		if (this._operationalMode == HASIDSConstants.OPERATION_MODE_BATCH) {
-			for (int i = 0; i < _positionsLength; i++) {
+			int count = (order == null ? this._positionsLength : order.length);
+			for (int k = 0; k < count; k++) {
+				int i = (order == null ? k : order[k]);
 				//intBytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(this._values[i]).array();
 				this._buffer.position((this._position[i] - this._lowRange) * this._dataLength);
 				//this._buffer.put(intBytes);
@@ -1977,33 +1934,31 @@ public abstract class LinkDataWriter implements Runnable {
 			}
 		}
 		else if (this._operationalMode == HASIDSConstants.OPERATION_MODE_ONLINE) {
-			if (this._positionTable == null)
-				this._positionTable = LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-			
 			int i = -1;
-			Enumeration<Integer> e = this._posValuesTable.keys();
 			
 			//int value = 0;
-			while (e.hasMoreElements()) {
+			for (int k = 0; k < order.length; k++) {
 				
-				i = e.nextElement();
+				i = order[k];
 				
-				//value = ((int)this._posValuesTable.get(i));
+				//value = this._posValuesTable.getInt(i);
 				
-				//System.out.println("Setting position : " + i + ", for a value of : " + ((Float)this._posValuesTable.get(i)) + ", at position : " + (i - this._lowRange));
+				//System.out.println("Setting position : " + i + ", for a value of : " + this._posValuesTable.getFloat(i) + ", at position : " + (i - this._lowRange));
 				
 				// write to dataset
 				//this._buffer.position((i - this._lowRange) * this._dataLength);
-				this._buffer.putFloat((i - this._lowRange) * this._dataLength, ((Float)this._posValuesTable.get(i)));
+				this._buffer.putFloat((i - this._lowRange) * this._dataLength, this._posValuesTable.getFloat(i));
 				//System.out.println("Position : " + (i - this._lowRange) + ", written a value of : " + value);
 				
 			}
 		}
 	}
 	
-	private void writeToSegmentTypeLong() throws Exception {
+	private void writeToSegmentTypeLong(int[] order) throws Exception {
 		if (this._operationalMode == HASIDSConstants.OPERATION_MODE_BATCH) {
-			for (int i = 0; i < _positionsLength; i++) {
+			int count = (order == null ? this._positionsLength : order.length);
+			for (int k = 0; k < count; k++) {
+				int i = (order == null ? k : order[k]);
 				//intBytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(this._values[i]).array();
 				this._buffer.position((this._position[i] - this._lowRange) * this._dataLength);
 				//this._buffer.put(intBytes);
@@ -2011,33 +1966,31 @@ public abstract class LinkDataWriter implements Runnable {
 			}
 		}
 		else if (this._operationalMode == HASIDSConstants.OPERATION_MODE_ONLINE) {
-			if (this._positionTable == null)
-				this._positionTable = LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-			
 			int i = -1;
-			Enumeration<Integer> e = this._posValuesTable.keys();
 			
 			//int value = 0;
-			while (e.hasMoreElements()) {
+			for (int k = 0; k < order.length; k++) {
 				
-				i = e.nextElement();
+				i = order[k];
 				
-				//value = ((int)this._posValuesTable.get(i));
+				//value = this._posValuesTable.getInt(i);
 				
-				//System.out.println("Setting position : " + i + ", for a value of : " + ((Long)this._posValuesTable.get(i)) + ", at position : " + (i - this._lowRange));
+				//System.out.println("Setting position : " + i + ", for a value of : " + this._posValuesTable.getLong(i) + ", at position : " + (i - this._lowRange));
 				
 				// write to dataset
 				//this._buffer.position((i - this._lowRange) * this._dataLength);
-				this._buffer.putLong((i - this._lowRange) * this._dataLength, ((Long)this._posValuesTable.get(i)));
+				this._buffer.putLong((i - this._lowRange) * this._dataLength, this._posValuesTable.getLong(i));
 				//System.out.println("Position : " + (i - this._lowRange) + ", written a value of : " + value);
 				
 			}
 		}
 	}
 	
-	private void writeToSegmentTypeDouble() throws Exception {
+	private void writeToSegmentTypeDouble(int[] order) throws Exception {
 		if (this._operationalMode == HASIDSConstants.OPERATION_MODE_BATCH) {
-			for (int i = 0; i < _positionsLength; i++) {
+			int count = (order == null ? this._positionsLength : order.length);
+			for (int k = 0; k < count; k++) {
+				int i = (order == null ? k : order[k]);
 				//intBytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(this._values[i]).array();
 				this._buffer.position((this._position[i] - this._lowRange) * this._dataLength);
 				//this._buffer.put(intBytes);
@@ -2045,37 +1998,35 @@ public abstract class LinkDataWriter implements Runnable {
 			}
 		}
 		else if (this._operationalMode == HASIDSConstants.OPERATION_MODE_ONLINE) {
-			if (this._positionTable == null)
-				this._positionTable = LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-			
 			int i = -1;
-			Enumeration<Integer> e = this._posValuesTable.keys();
 			
 			//int value = 0;
-			while (e.hasMoreElements()) {
+			for (int k = 0; k < order.length; k++) {
 				
-				i = e.nextElement();
+				i = order[k];
 				
-				//value = ((int)this._posValuesTable.get(i));
+				//value = this._posValuesTable.getInt(i);
 				
-				//System.out.println("Setting position : " + i + ", for a value of : " + ((Double)this._posValuesTable.get(i)) + ", at position : " + (i - this._lowRange));
+				//System.out.println("Setting position : " + i + ", for a value of : " + this._posValuesTable.getDouble(i) + ", at position : " + (i - this._lowRange));
 				
 				// write to dataset
 				//this._buffer.position((i - this._lowRange) * this._dataLength);
-				this._buffer.putDouble((i - this._lowRange) * this._dataLength, ((Double)this._posValuesTable.get(i)));
+				this._buffer.putDouble((i - this._lowRange) * this._dataLength, this._posValuesTable.getDouble(i));
 				//System.out.println("Position : " + (i - this._lowRange) + ", written a value of : " + value);
 				
 			}
 		}
 	}
 	
-	private void writeToSegmentTypeString() throws Exception {
+	private void writeToSegmentTypeString(int[] order) throws Exception {
 		byte[] bb = null;
 		int bbLen = 0;
 		
 		
 		if (this._operationalMode == HASIDSConstants.OPERATION_MODE_BATCH) {
-			for (int i = 0; i < _positionsLength; i++) {
+			int count = (order == null ? this._positionsLength : order.length);
+			for (int k = 0; k < count; k++) {
+				int i = (order == null ? k : order[k]);
 				//intBytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(this._values[i]).array();
 				this._buffer.position((this._position[i] - this._lowRange) * this._dataLength);
 				
@@ -2098,25 +2049,21 @@ public abstract class LinkDataWriter implements Runnable {
 		}
 		else if (this._operationalMode == HASIDSConstants.OPERATION_MODE_ONLINE) {
 			String temp = null;
-			if (this._positionTable == null)
-				this._positionTable = LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
-			
 			int i = -1;
-			Enumeration<Integer> e = this._posValuesTable.keys();
 			
 			//int value = 0;
-			while (e.hasMoreElements()) {
+			for (int k = 0; k < order.length; k++) {
 				
-				i = e.nextElement();
+				i = order[k];
 				
-				//System.out.println("Setting position : " + i + ", for a value of : " + ((String)this._posValuesTable.get(i)) + ", at position : " + (i - this._lowRange));
+				//System.out.println("Setting position : " + i + ", for a value of : " + ((String)this._posValuesTable.getObject(i)) + ", at position : " + (i - this._lowRange));
 				//this._buffer.position((this._position[i] - this._lowRange) * this._dataLength);
 				
 				// write to dataset
 				this._buffer.position((i - this._lowRange) * this._dataLength);
 				
 				// Durga Turaga, 12/06/2017, write the data size first before writing the data
-				bb = ((String)this._posValuesTable.get(i)).getBytes();
+				bb = ((String)this._posValuesTable.getObject(i)).getBytes();
 				bbLen = bb.length;
 
 				//System.out.println("Writing bytes of length : " + bbLen);
@@ -2138,193 +2085,142 @@ public abstract class LinkDataWriter implements Runnable {
 	private void retry() throws Exception {
 		if (this._retryTable == null || this._retryTable.size() <= 0) return;
 		
-		if (this._positionTable == null)
-			this._positionTable = LOCK_TABLE.get(this._dbName + "|" + this._datasetName);
+		if (this._lockManager == null)
+			this._lockManager = PositionLockManager.getLockManager(this._dbName + "|" + this._datasetName, this._dataLength);
 		
-		// we will keep retrying till the timeout is reached
-		int iterations = HASIDSConstants.RETRY_LIMIT_MILLIS/HASIDSConstants.RETRY_INCREMENT_MILLIS;
+		// positions of the retry table in ascending order
+		int[] positions = this._retryTable.keys();
+		Arrays.sort(positions);
 		
-		System.out.println("Number of retries that will be attempted : " + iterations);
+		// wait till the timeout for the positions to be released by the other sessions, a released
+		// position is locked for the sessions waiting for it in the order they started waiting
+		positions = this._lockManager.lockWait(positions, this._buffer, this._lowRange, HASIDSConstants.RETRY_LIMIT_MILLIS);
 		
-		// loop through the number of iterations
-		for (int j = 0; j < iterations; j++) {
+		// the values of the positions locked are saved for a rollback before the pages are modified
+		if (positions.length > 0)
+			this.logUndo(positions);
+		
+		int i;
+		if (this._dataLength == CheckSum.BYTE_LEN && this._encoding == CheckSum.FACT_ENCODE_TYPE_BYTE) {
+			byte b;
+			for (int j = 0; j < positions.length; j++) {
+				i = positions[j];
+				// get the byte value
+				b = this._retryTable.getByte(i);
 			
-			System.out.println("Retry attempt : " + (j + 1));
-			Integer i = null;
+				// write to the position in the memory buffer
+				this._buffer.put((i - this._lowRange), b);
 			
-			// get the list of positions in the retry table
-			Enumeration<Integer> e = this._retryTable.keys();
-			if (this._dataLength == CheckSum.BYTE_LEN && this._encoding == CheckSum.FACT_ENCODE_TYPE_BYTE) {
-				Byte b;
-				while(e.hasMoreElements()) {
-					i = e.nextElement();
-					if (!this._positionTable.containsKey(i)) { // this position is not locked
-						// get the byte value
-						b = (Byte)this._retryTable.get(i);
-					
-						// lock the position 
-						this._positionTable.put(i, new Byte[] {b, this._buffer.get((i - this._lowRange))});
-					
-						// write to the position in the memory buffer
-						this._buffer.put((i - this._lowRange), b);
-					
-						// add it to the pos values table for future commit/rollback
-						this._posValuesTable.put(i, this._retryTable.remove(i));
-					}
-				}
+				// add it to the pos values table for future commit/rollback
+				this._posValuesTable.putByte(i, b);
+				this._retryTable.remove(i);
 			}
-			else if (this._dataLength == CheckSum.SHORT_LEN && this._encoding == CheckSum.FACT_ENCODE_TYPE_SHORT) {
-				short b;
-				while(e.hasMoreElements()) {
-					i = e.nextElement();
-					System.out.println(this._sessionId + ", Retrying position : " + i + ", " + (i - this._lowRange));
-					if (!this._positionTable.containsKey(i)) { // this position is not locked
-						// get the byte value
-						b = ((Short)this._retryTable.get(i));
-					
-						// lock the position 
-						this._positionTable.put(i, new Short[] {b, this._buffer.getShort((i - this._lowRange) * this._dataLength)});
-					
-						// write to the position in the memory buffer
-						this._buffer.putShort((i - this._lowRange) * this._dataLength, b);
-					
-						// add it to the pos values table for future commit/rollback
-						this._posValuesTable.put(i, this._retryTable.remove(i));
-					}
-				}
+		}
+		else if (this._dataLength == CheckSum.SHORT_LEN && this._encoding == CheckSum.FACT_ENCODE_TYPE_SHORT) {
+			short b;
+			for (int j = 0; j < positions.length; j++) {
+				i = positions[j];
+				System.out.println(this._sessionId + ", Retrying position : " + i + ", " + (i - this._lowRange));
+				// get the byte value
+				b = this._retryTable.getShort(i);
+			
+				// write to the position in the memory buffer
+				this._buffer.putShort((i - this._lowRange) * this._dataLength, b);
+			
+				// add it to the pos values table for future commit/rollback
+				this._posValuesTable.putShort(i, b);
+				this._retryTable.remove(i);
 			}
-			else if (this._dataLength == CheckSum.INT_FLOAT_LEN && this._encoding == CheckSum.FACT_ENCODE_TYPE_INT) {
-				Integer b;
-				while(e.hasMoreElements()) {
-					i = e.nextElement();
-					if (!this._positionTable.containsKey(i)) { // this position is not locked
-						// get the byte value
-						b = (Integer)this._retryTable.get(i);
-					
-						// lock the position 
-						this._positionTable.put(i, new Integer[] {b, this._buffer.getInt((i - this._lowRange) * this._dataLength)});
-					
-						// write to the position in the memory buffer
-						this._buffer.putInt((i - this._lowRange) * this._dataLength, b);
-					
-						// add it to the pos values table for future commit/rollback
-						this._posValuesTable.put(i, this._retryTable.remove(i));
-					}
-				}
+		}
+		else if (this._dataLength == CheckSum.INT_FLOAT_LEN && this._encoding == CheckSum.FACT_ENCODE_TYPE_INT) {
+			int b;
+			for (int j = 0; j < positions.length; j++) {
+				i = positions[j];
+				// get the byte value
+				b = this._retryTable.getInt(i);
+			
+				// write to the position in the memory buffer
+				this._buffer.putInt((i - this._lowRange) * this._dataLength, b);
+			
+				// add it to the pos values table for future commit/rollback
+				this._posValuesTable.putInt(i, b);
+				this._retryTable.remove(i);
 			}
-			else if (this._dataLength == CheckSum.INT_FLOAT_LEN && this._encoding == CheckSum.FACT_ENCODE_TYPE_FLOAT) {
-				Float b;
-				while(e.hasMoreElements()) {
-					i = e.nextElement();
-					if (!this._positionTable.containsKey(i)) { // this position is not locked
-						// get the byte value
-						b = (Float)this._retryTable.get(i);
-					
-						// lock the position 
-						this._positionTable.put(i, new Float[] {b, this._buffer.getFloat((i - this._lowRange) * this._dataLength)});
-					
-						// write to the position in the memory buffer
-						this._buffer.putFloat((i - this._lowRange) * this._dataLength, b);
-					
-						// add it to the pos values table for future commit/rollback
-						this._posValuesTable.put(i, this._retryTable.remove(i));
-					}
-				}
+		}
+		else if (this._dataLength == CheckSum.INT_FLOAT_LEN && this._encoding == CheckSum.FACT_ENCODE_TYPE_FLOAT) {
+			float b;
+			for (int j = 0; j < positions.length; j++) {
+				i = positions[j];
+				// get the byte value
+				b = this._retryTable.getFloat(i);
+			
+				// write to the position in the memory buffer
+				this._buffer.putFloat((i - this._lowRange) * this._dataLength, b);
+			
+				// add it to the pos values table for future commit/rollback
+				this._posValuesTable.putFloat(i, b);
+				this._retryTable.remove(i);
 			}
-			else if (this._dataLength == CheckSum.LONG_DOUBLE_LEN && this._encoding == CheckSum.FACT_ENCODE_TYPE_LONG) {
-				Long b;
-				while(e.hasMoreElements()) {
-					i = e.nextElement();
-					if (!this._positionTable.containsKey(i)) { // this position is not locked
-						// get the byte value
-						b = (Long)this._retryTable.get(i);
-					
-						// lock the position 
-						this._positionTable.put(i, new Long[] {b, this._buffer.getLong((i - this._lowRange) * this._dataLength)});
-					
-						// write to the position in the memory buffer
-						this._buffer.putLong((i - this._lowRange) * this._dataLength, b);
-					
-						// add it to the pos values table for future commit/rollback
-						this._posValuesTable.put(i, this._retryTable.remove(i));
-					}
-				}
+		}
+		else if (this._dataLength == CheckSum.LONG_DOUBLE_LEN && this._encoding == CheckSum.FACT_ENCODE_TYPE_LONG) {
+			long b;
+			for (int j = 0; j < positions.length; j++) {
+				i = positions[j];
+				// get the byte value
+				b = this._retryTable.getLong(i);
+			
+				// write to the position in the memory buffer
+				this._buffer.putLong((i - this._lowRange) * this._dataLength, b);
+			
+				// add it to the pos values table for future commit/rollback
+				this._posValuesTable.putLong(i, b);
+				this._retryTable.remove(i);
 			}
-			else if (this._dataLength == CheckSum.LONG_DOUBLE_LEN && this._encoding == CheckSum.FACT_ENCODE_TYPE_DOUBLE) {
-				Double b;
-				while(e.hasMoreElements()) {
-					i = e.nextElement();
-					if (!this._positionTable.containsKey(i)) { // this position is not locked
-						// get the byte value
-						b = (Double)this._retryTable.get(i);
-					
-						// lock the position 
-						this._positionTable.put(i, new Double[] {b, this._buffer.getDouble((i - this._lowRange) * this._dataLength)});
-					
-						// write to the position in the memory buffer
-						this._buffer.putDouble((i - this._lowRange) * this._dataLength, b);
-					
-						// add it to the pos values table for future commit/rollback
-						this._posValuesTable.put(i, this._retryTable.remove(i));
-					}
-				}
+		}
+		else if (this._dataLength == CheckSum.LONG_DOUBLE_LEN && this._encoding == CheckSum.FACT_ENCODE_TYPE_DOUBLE) {
+			double b;
+			for (int j = 0; j < positions.length; j++) {
+				i = positions[j];
+				// get the byte value
+				b = this._retryTable.getDouble(i);
+			
+				// write to the position in the memory buffer
+				this._buffer.putDouble((i - this._lowRange) * this._dataLength, b);
+			
+				// add it to the pos values table for future commit/rollback
+				this._posValuesTable.putDouble(i, b);
+				this._retryTable.remove(i);
 			}
-			else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_ALPHAN) {
-				String b;
+		}
+		else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_ALPHAN) {
+			String b;
+			
+			// Durga Turaga, 12/06/2017, remove the hard coding and instead use the input length
+			byte[] inputbb = null;
+			int inputLen;
+			for (int j = 0; j < positions.length; j++) {
+				i = positions[j];
+				// get the string value
+				b = (String)this._retryTable.getObject(i);
+				inputbb = b.getBytes();
+				inputLen = inputbb.length;
 				
-				// Durga Turaga, 12/06/2017, remove the hard coding and instead use the input length
-				byte[] bb = null;
-				byte[] inputbb = null;
-				short dataLen;
-				int inputLen;
-				while(e.hasMoreElements()) {
-					i = e.nextElement();
-					if (!this._positionTable.containsKey(i)) { // this position is not locked
-						// get the string value
-						b = (String)this._retryTable.get(i);
-						inputbb = b.getBytes();
-						inputLen = inputbb.length;
-						
-						this._buffer.position((i - this._lowRange) * this._dataLength);
-						
-						// get the length of the data
-						dataLen = this._buffer.get();
-						if (dataLen < 0)
-							dataLen += 256;
-						
-						// only if the original data is not null, do we need to read it
-						if (dataLen > 0) {
-							// instantiate the buffer
-							bb = new byte[dataLen];
-							this._buffer.get(bb);
-						}
-						
-						// lock the position 
-						this._positionTable.put(i, new String[] {b, (dataLen > 0 ? new String(bb) : new String(this._nullBuffer))});
-						
-						this._buffer.position((i - this._lowRange) * this._dataLength);
-						
-						// write the length
-						if (inputbb[0] == 0 && inputbb[inputLen - 1] == 0)
-							// set zero length and null buffer
-							this._buffer.put(this._zeroByte);
-						else
-							this._buffer.put((byte)inputLen);
-						
-						// write to the position in the memory buffer
-						this._buffer.put(inputbb);
-					
-						// add it to the pos values table for future commit/rollback
-						this._posValuesTable.put(i, this._retryTable.remove(i));
-					}
-				}
-			}
-			
-			if (this._retryTable.size() <= 0)
-				break;
+				this._buffer.position((i - this._lowRange) * this._dataLength);
+				
+				// write the length
+				if (inputbb[0] == 0 && inputbb[inputLen - 1] == 0)
+					// set zero length and null buffer
+					this._buffer.put(this._zeroByte);
+				else
+					this._buffer.put((byte)inputLen);
+				
+				// write to the position in the memory buffer
+				this._buffer.put(inputbb);
 			
-			// sleep to enable other threads to complete and free up the locks
-			Thread.sleep(HASIDSConstants.RETRY_INCREMENT_MILLIS);
+				// add it to the pos values table for future commit/rollback
+				this._posValuesTable.putObject(i, b);
+				this._retryTable.remove(i);
+			}
 		}
 		
 		// if after the session time out is reached and we still have locked positions
@@ -2342,102 +2238,13 @@ public abstract class LinkDataWriter implements Runnable {
 	public void rollback() throws Exception {
 		System.out.println("Rollback, posValuesTable size : " + this._posValuesTable.size());
 		if (this._posValuesTable != null && this._posValuesTable.size() > 0) {
-			// rewrite the old data back
-			Iterator<Integer> it = this._posValuesTable.keySet().iterator();
-			
-			if (this._dataLength == CheckSum.BYTE_LEN && this._encoding == CheckSum.FACT_ENCODE_TYPE_BYTE) {
-			
-				int i = -1;
-				
-				while(it.hasNext()) {
-					i = it.next();
-					System.out.println("Rollback position : " + i);
-			
-					this._buffer.put((i - this._lowRange) * this._dataLength, 
-							((byte[])this._positionTable.get(i))[1]);
-				}
-			}
-			else if (this._dataLength == CheckSum.SHORT_LEN && this._encoding == CheckSum.FACT_ENCODE_TYPE_SHORT) {
-				int i = -1;
-				
-				while(it.hasNext()) {
-					i = it.next();
-					System.out.println("Rollback position : " + i);
-			
-					this._buffer.putShort((i - this._lowRange) * this._dataLength, 
-							((short[])this._positionTable.get(i))[1]);
-				}
-			}
-				
-			else if (this._dataLength == CheckSum.INT_FLOAT_LEN && this._encoding == CheckSum.FACT_ENCODE_TYPE_INT) {
-				int i = -1;
-				
-				while(it.hasNext()) {
-					i = it.next();
-					System.out.println("Rollback position : " + i);
-			
-					this._buffer.putInt((i - this._lowRange) * this._dataLength, 
-							((int[])this._positionTable.get(i))[1]);
-				}
-				
-			}
-			else if (this._dataLength == CheckSum.INT_FLOAT_LEN && this._encoding == CheckSum.FACT_ENCODE_TYPE_FLOAT) {
-				int i = -1;
-				
-				while(it.hasNext()) {
-					i = it.next();
-					System.out.println("Rollback position : " + i);
-			
-					this._buffer.putFloat((i - this._lowRange) * this._dataLength, 
-							((float[])this._positionTable.get(i))[1]);
-				}
-			}
-			else if (this._dataLength == CheckSum.LONG_DOUBLE_LEN && this._encoding == CheckSum.FACT_ENCODE_TYPE_LONG) {
-				int i = -1;
-				
-				while(it.hasNext()) {
-					i = it.next();
-					System.out.println("Rollback position : " + i);
-			
-					this._buffer.putLong((i - this._lowRange) * this._dataLength, 
-							((long[])this._positionTable.get(i))[1]);
-				}
-			}
-			else if (this._dataLength == CheckSum.LONG_DOUBLE_LEN && this._encoding == CheckSum.FACT_ENCODE_TYPE_DOUBLE) {
-				int i = -1;
-				
-				while(it.hasNext()) {
-					i = it.next();
-					System.out.println("Rollback position : " + i);
-			
-					this._buffer.putDouble((i - this._lowRange) * this._dataLength, 
-							((double[])this._positionTable.get(i))[1]);
-				}
-			}
-			else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_ALPHAN) {
-				int i = -1;
-				byte[] bb;
-				int bbLen;
-				while(it.hasNext()) {
-					i = it.next();
-					System.out.println("Rollback position : " + i);
-			
-					this._buffer.position((i - this._lowRange) * this._dataLength);
-					
-					// Durga Turaga, 12/06/2017, Add the data length and account for null string
-					bb = ((String[])this._positionTable.get(i))[1].getBytes();
-					bbLen = bb.length;
-					
-					if (bb[0] == 0 && bb[bbLen - 1] == 0)
-						this._buffer.put(this._zeroByte);
-					else
-						this._buffer.put((byte)bbLen);
-					
-					this._buffer.put(bb);
-				}
-			}
+			// rewrite the values saved in the file when the positions were locked
+			this._lockManager.rollback(this, this.getLockedPositions(), this._buffer, this._lowRange);
 		}
 		
+		// the restored values are flushed before the abort is logged
+		this._aborted = true;
+		
 		// commit
 		this.commit();
 	}
@@ -2451,9 +2258,13 @@ public abstract class LinkDataWriter implements Runnable {
 		
 		// Write the TS
 		long lastModifiedTime = this.writeCSTS();
-					
-					
-		_buffer.force();
+		
+		// ONLINE sessions are durable once their new values are in the log, the pages are flushed in the background
+		if (this._txId != 0 && !this._aborted)
+			this.logCommit();
+		else
+			_buffer.force();
+		this.updateBlockCheckSum();
 		_rwChannel.close();
 		_randomAccessFile.close();
 		
@@ -2464,10 +2275,62 @@ public abstract class LinkDataWriter implements Runnable {
 		// set the last modified time
 		File f = new File(this._datasetName);
 		f.setLastModified(lastModifiedTime);
+		this.refreshCatalog(f);
+		
+		// an aborted session is ended in the log before its positions are released
+		if (this._txId != 0) {
+			this._log.abort(this._txId);
+			this._txId = 0;
+		}
+		this._aborted = false;
+		
+		// the session ends in the versions of the dataset before its positions are released
+		DatasetVersions.getVersions(this._dbName, this._datasetName).commit(this);
 		
 		this.removeKeysFromTable();
 	}
 	
+	/**
+	 * Appends the new values of the positions of this session and its commit to the write ahead log
+	 * 
+	 * @throws Exception
+	 */
+	private void logCommit() throws Exception {
+		this._log.commit(this._txId, this._dbName, this._datasetName, this._headerLength, this._dataLength, this.getLockedPositions(), this._buffer, this._lowRange);
+		this._txId = 0;
+	}
+	
+	/**
+	 * Method to update the block checksums of the data region covered by the written range.
+	 * The checksum file is removed if it cannot be updated so that it is never stale.
+	 */
+	private void updateBlockCheckSum() {
+		try {
+			BlockCheckSum.update(this._datasetName, this._rwChannel, this._headerLength, 
+					(long)this._lowRange * this._dataLength, (long)(this._highRange - this._lowRange + 1) * this._dataLength);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			BlockCheckSum.delete(this._datasetName);
+		}
+	}
+
+	/**
+	 * Method to refresh the catalog entry of the segment after a create or a commit
+	 * 
+	 * @param f Segment file
+	 */
+	private void refreshCatalog(File f) {
+		try {
+			DatasetCatalog.refresh(new DatasetSegment(this._dbName, this._datasetName, this._fileType, this._encoding, 
+					this._segmentNo, this._dataLength, this._decimals, this._headerLength, this._recordCount, f.lastModified()));
+		}
+		catch (Exception e) {
+			// the entry is reloaded from the header on its next use
+			DatasetCatalog.remove(this._dbName, this._datasetName);
+		}
+	}
+	
 	/**
 	 * Method to write the timestamp to the checksum field
 	 */
@@ -2476,10 +2339,7 @@ public abstract class LinkDataWriter implements Runnable {
 		try {
 			// At the end map the TS portion of the CS
 			if (this._rwChannel != null) {
-				MappedByteBuffer buffer = _rwChannel.map(FileChannel.MapMode.READ_WRITE, CheckSum.FILE_DATASET_TIME_POS, CheckSum.FILE_DATASET_TIME_LEN);
-				buffer.put(Long.toString(CheckSum.computeTFS(retVal)).getBytes());
-				buffer.force();
-				buffer = null;
+				CheckSum.writeTimestamp(this._rwChannel, retVal);
 			}
 		}
 		catch (Exception e) {
@@ -2744,20 +2604,12 @@ public abstract class LinkDataWriter implements Runnable {
 		// create the return table
 		Hashtable<Integer, Byte> returnTable = new Hashtable<Integer, Byte>();
 		
-		// get the position table for the input dataset name
-		Hashtable<Integer, Object> positionTable = LinkDataWriter.LOCK_TABLE.get(dbName + "|" + datasetName);
-		if (positionTable != null) { // if we have a position table in memory
-			int i = 0;
-			Byte b = 0;
-			byte[] tempArray;
-			Enumeration<Integer> e = positionTable.keys();
-			while(e.hasMoreElements()) {
-				i = e.nextElement();
-				tempArray = (byte[])positionTable.get(i);
-				b = tempArray[1];
-				if (b != null) // If it is null, it means that the value in the file is still original value and has not been over written
-					returnTable.put(i, b); // add to return table the position and original value
-			}
+		// get the lock manager for the input dataset name
+		PositionLockManager lockManager = PositionLockManager.getLockManager(dbName + "|" + datasetName);
+		if (lockManager != null) { // if positions of the dataset are locked
+			PositionLockManager.Snapshot snapshot = lockManager.getSnapshot();
+			for (int i = 0; i < snapshot.size(); i++)
+				returnTable.put(snapshot.getPosition(i), (byte)snapshot.getLong(i)); // add to return table the position and original value
 		}
 		
 		return returnTable;
@@ -2767,20 +2619,12 @@ public abstract class LinkDataWriter implements Runnable {
 		// create the return table
 		Hashtable<Integer, Short> returnTable = new Hashtable<Integer, Short>();
 		
-		// get the position table for the input dataset name
-		Hashtable<Integer, Object> positionTable = LinkDataWriter.LOCK_TABLE.get(dbName + "|" + datasetName);
-		if (positionTable != null) { // if we have a position table in memory
-			int i = 0;
-			Short b = 0;
-			short[] tempArray;
-			Enumeration<Integer> e = positionTable.keys();
-			while(e.hasMoreElements()) {
-				i = e.nextElement();
-				tempArray = (short[])positionTable.get(i);
-				b = tempArray[1];
-				if (b != null) // If it is null, it means that the value in the file is still original value and has not been over written
-					returnTable.put(i, b); // add to return table the position and original value
-			}
+		// get the lock manager for the input dataset name
+		PositionLockManager lockManager = PositionLockManager.getLockManager(dbName + "|" + datasetName);
+		if (lockManager != null) { // if positions of the dataset are locked
+			PositionLockManager.Snapshot snapshot = lockManager.getSnapshot();
+			for (int i = 0; i < snapshot.size(); i++)
+				returnTable.put(snapshot.getPosition(i), (short)snapshot.getLong(i)); // add to return table the position and original value
 		}
 		
 		return returnTable;
@@ -2796,20 +2640,12 @@ public abstract class LinkDataWriter implements Runnable {
 		// create the return table
 		Hashtable<Integer, Integer> returnTable = new Hashtable<Integer, Integer>();
 		
-		// get the position table for the input dataset name
-		Hashtable<Integer, Object> positionTable = LinkDataWriter.LOCK_TABLE.get(dbName + "|" + datasetName);
-		if (positionTable != null) { // if we have a position table in memory
-			int i = 0;
-			Integer b = 0;
-			int[] tempArray;
-			Enumeration<Integer> e = positionTable.keys();
-			while(e.hasMoreElements()) {
-				i = e.nextElement();
-				tempArray = (int[])positionTable.get(i);
-				b = tempArray[1];
-				if (b != null) // If it is null, it means that the value in the file is still original value and has not been over written
-					returnTable.put(i, b); // add to return table the position and original value
-			}
+		// get the lock manager for the input dataset name
+		PositionLockManager lockManager = PositionLockManager.getLockManager(dbName + "|" + datasetName);
+		if (lockManager != null) { // if positions of the dataset are locked
+			PositionLockManager.Snapshot snapshot = lockManager.getSnapshot();
+			for (int i = 0; i < snapshot.size(); i++)
+				returnTable.put(snapshot.getPosition(i), (int)snapshot.getLong(i)); // add to return table the position and original value
 		}
 		
 		return returnTable;
@@ -2819,20 +2655,12 @@ public abstract class LinkDataWriter implements Runnable {
 		// create the return table
 		Hashtable<Integer, Float> returnTable = new Hashtable<Integer, Float>();
 		
-		// get the position table for the input dataset name
-		Hashtable<Integer, Object> positionTable = LinkDataWriter.LOCK_TABLE.get(dbName + "|" + datasetName);
-		if (positionTable != null) { // if we have a position table in memory
-			int i = 0;
-			Float b = 0f;
-			float[] tempArray;
-			Enumeration<Integer> e = positionTable.keys();
-			while(e.hasMoreElements()) {
-				i = e.nextElement();
-				tempArray = (float[])positionTable.get(i);
-				b = tempArray[1];
-				if (b != null) // If it is null, it means that the value in the file is still original value and has not been over written
-					returnTable.put(i, b); // add to return table the position and original value
-			}
+		// get the lock manager for the input dataset name
+		PositionLockManager lockManager = PositionLockManager.getLockManager(dbName + "|" + datasetName);
+		if (lockManager != null) { // if positions of the dataset are locked
+			PositionLockManager.Snapshot snapshot = lockManager.getSnapshot();
+			for (int i = 0; i < snapshot.size(); i++)
+				returnTable.put(snapshot.getPosition(i), Float.intBitsToFloat((int)snapshot.getLong(i))); // add to return table the position and original value
 		}
 		
 		return returnTable;
@@ -2842,20 +2670,12 @@ public abstract class LinkDataWriter implements Runnable {
 		// create the return table
 		Hashtable<Integer, Long> returnTable = new Hashtable<Integer, Long>();
 		
-		// get the position table for the input dataset name
-		Hashtable<Integer, Object> positionTable = LinkDataWriter.LOCK_TABLE.get(dbName + "|" + datasetName);
-		if (positionTable != null) { // if we have a position table in memory
-			int i = 0;
-			Long b = 0l;
-			long[] tempArray;
-			Enumeration<Integer> e = positionTable.keys();
-			while(e.hasMoreElements()) {
-				i = e.nextElement();
-				tempArray = (long[])positionTable.get(i);
-				b = tempArray[1];
-				if (b != null) // If it is null, it means that the value in the file is still original value and has not been over written
-					returnTable.put(i, b); // add to return table the position and original value
-			}
+		// get the lock manager for the input dataset name
+		PositionLockManager lockManager = PositionLockManager.getLockManager(dbName + "|" + datasetName);
+		if (lockManager != null) { // if positions of the dataset are locked
+			PositionLockManager.Snapshot snapshot = lockManager.getSnapshot();
+			for (int i = 0; i < snapshot.size(); i++)
+				returnTable.put(snapshot.getPosition(i), snapshot.getLong(i)); // add to return table the position and original value
 		}
 		
 		return returnTable;
@@ -2865,20 +2685,12 @@ public abstract class LinkDataWriter implements Runnable {
 		// create the return table
 		Hashtable<Integer, Double> returnTable = new Hashtable<Integer, Double>();
 		
-		// get the position table for the input dataset name
-		Hashtable<Integer, Object> positionTable = LinkDataWriter.LOCK_TABLE.get(dbName + "|" + datasetName);
-		if (positionTable != null) { // if we have a position table in memory
-			int i = 0;
-			Double b = 0d;
-			double[] tempArray;
-			Enumeration<Integer> e = positionTable.keys();
-			while(e.hasMoreElements()) {
-				i = e.nextElement();
-				tempArray = (double[])positionTable.get(i);
-				b = tempArray[1];
-				if (b != null) // If it is null, it means that the value in the file is still original value and has not been over written
-					returnTable.put(i, b); // add to return table the position and original value
-			}
+		// get the lock manager for the input dataset name
+		PositionLockManager lockManager = PositionLockManager.getLockManager(dbName + "|" + datasetName);
+		if (lockManager != null) { // if positions of the dataset are locked
+			PositionLockManager.Snapshot snapshot = lockManager.getSnapshot();
+			for (int i = 0; i < snapshot.size(); i++)
+				returnTable.put(snapshot.getPosition(i), Double.longBitsToDouble(snapshot.getLong(i))); // add to return table the position and original value
 		}
 		
 		return returnTable;
@@ -2888,19 +2700,17 @@ public abstract class LinkDataWriter implements Runnable {
 		// create the return table
 		Hashtable<Integer, String> returnTable = new Hashtable<Integer, String>();
 		
-		// get the position table for the input dataset name
-		Hashtable<Integer, Object> positionTable = LinkDataWriter.LOCK_TABLE.get(dbName + "|" + datasetName);
-		if (positionTable != null) { // if we have a position table in memory
-			int i = 0;
-			String b = null;
-			String[] tempArray;
-			Enumeration<Integer> e = positionTable.keys();
-			while(e.hasMoreElements()) {
-				i = e.nextElement();
-				tempArray = (String[])positionTable.get(i);
-				b = tempArray[1];
-				if (b != null) // If it is null, it means that the value in the file is still original value and has not been over written
-					returnTable.put(i, b); // add to return table the position and original value
+		// get the lock manager for the input dataset name
+		PositionLockManager lockManager = PositionLockManager.getLockManager(dbName + "|" + datasetName);
+		if (lockManager != null) { // if positions of the dataset are locked
+			PositionLockManager.Snapshot snapshot = lockManager.getSnapshot();
+			byte[] bb;
+			int dataLen;
+			for (int i = 0; i < snapshot.size(); i++) {
+				// the first byte of the record is the length of the string, 0 for null strings
+				bb = snapshot.getBytes(i);
+				dataLen = bb[0] & 0xFF;
+				returnTable.put(snapshot.getPosition(i), (dataLen > 0 ? new String(bb, 1, dataLen) : new String(new byte[bb.length - 1])));
 			}
 		}
 		
@@ -2931,34 +2741,46 @@ public abstract class LinkDataWriter implements Runnable {
 			// get file channel
 			this._rwChannel = _randomAccessFile.getChannel();
 			// map file to memory
-			this._buffer = _rwChannel.map(FileChannel.MapMode.READ_WRITE, ((this._lowRange * this._dataLength) + CheckSum.FILE_CHECKSUM_LENGTH), ((this._highRange - this._lowRange + 1) * this._dataLength));
+			this._buffer = _rwChannel.map(FileChannel.MapMode.READ_WRITE, ((this._lowRange * this._dataLength) + this._headerLength), ((this._highRange - this._lowRange + 1) * this._dataLength));
 			// set the byte order to LITTLE ENDIAN, the most significant bit is in the beginning
 			// only if it is not ALPHAN
 			if (this._encoding != CheckSum.FACT_ENCODE_TYPE_ALPHAN)
 				this._buffer.order(ByteOrder.LITTLE_ENDIAN);
             
+			// the values are written in ascending page order, a position set more than once in
+			// a batch keeps its last value
+			int[] order = null;
+			if (this._operationalMode == HASIDSConstants.OPERATION_MODE_BATCH)
+				order = PageOrder.sort(this._position, this._positionsLength);
+			else
+				order = PageOrder.sortPositions(this.getLockedPositions());
+			
+			// log the values saved for a rollback before the pages are modified
+			if (this._operationalMode == HASIDSConstants.OPERATION_MODE_ONLINE)
+				this.logUndo(order);
+			
 			// based on the data length we have to write the bytes
 			if (this._encoding == CheckSum.FACT_ENCODE_TYPE_BYTE)
-				this.writeToSegmentTypeByte();
+				this.writeToSegmentTypeByte(order);
 			else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_SHORT)
-				this.writeToSegmentTypeShort();
+				this.writeToSegmentTypeShort(order);
 			else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_INT)
-				this.writeToSegmentTypeInt();
+				this.writeToSegmentTypeInt(order);
 			else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_FLOAT)
-				this.writeToSegmentTypeFloat();
+				this.writeToSegmentTypeFloat(order);
 			else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_LONG)
-				this.writeToSegmentTypeLong();
+				this.writeToSegmentTypeLong(order);
 			else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_DOUBLE)
-				this.writeToSegmentTypeDouble();
+				this.writeToSegmentTypeDouble(order);
 			else if (this._encoding == CheckSum.FACT_ENCODE_TYPE_ALPHAN)
-				this.writeToSegmentTypeString();
+				this.writeToSegmentTypeString(order);
 			
 			// iterate through the positions and values and write to file
 			//for (int i = 0; i < _position.length; i++)
 			//	this._buffer.put((this._position[i] - this._lowRange), (byte)this._values[i]);
 			
 			// check for the retry table.
-			if (this._retryTable.size() > 0) {
+			if (this._retryTable != null && this._retryTable.size() > 0) {
 				this.retry();
 			}
 						